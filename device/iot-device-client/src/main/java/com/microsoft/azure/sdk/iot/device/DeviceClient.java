@@ -5,12 +5,15 @@ package com.microsoft.azure.sdk.iot.device;
 
 import com.microsoft.azure.sdk.iot.device.DeviceTwin.*;
 import com.microsoft.azure.sdk.iot.device.transport.amqps.AmqpsTransport;
+import com.microsoft.azure.sdk.iot.device.transport.https.HttpsBatchMessage;
+import com.microsoft.azure.sdk.iot.device.transport.https.HttpsContentEncoding;
 import com.microsoft.azure.sdk.iot.device.transport.https.HttpsTransport;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubReceiveTask;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubSendTask;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubTransport;
 import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttTransport;
 
+import javax.net.ssl.SSLContext;
 import java.io.Closeable;
 import java.io.IOError;
 import java.io.IOException;
@@ -52,8 +55,23 @@ public final class DeviceClient implements Closeable
     }
 
     protected final static String SET_MINIMUM_POLLING_INTERVAL = "SetMinimumPollingInterval";
+    protected final static String SET_MAXIMUM_POLLING_INTERVAL = "SetMaximumPollingInterval";
+    protected final static String SET_HTTPS_BATCH_MAX_BYTES = "SetHttpsBatchMaxBytes";
+    protected final static String SET_HTTPS_BATCH_MAX_MESSAGES = "SetHttpsBatchMaxMessages";
+    protected final static String SET_HTTPS_BATCH_LINGER_TIME = "SetHttpsBatchLingerTime";
+    protected final static String SET_HTTPS_CONTENT_ENCODING = "SetHttpsContentEncoding";
     protected final static String SET_CERTIFICATE_PATH = "SetCertificatePath";
     protected final static String SET_SAS_TOKEN_EXPIRY_TIME = "SetSASTokenExpiryTime";
+    protected final static String SET_SAS_TOKEN_RENEWAL_FRACTION = "SetSASTokenRenewalFraction";
+    protected final static String SET_SSL_CONTEXT = "SetSSLContext";
+    protected final static String SET_AMQP_BATCH_MAX_BYTES = "SetAmqpBatchMaxBytes";
+    protected final static String SET_AMQP_BATCH_LINGER_TIME = "SetAmqpBatchLingerTime";
+    protected final static String SET_AMQP_RECEIVE_PREFETCH = "SetAmqpReceivePrefetch";
+    protected final static String SET_AMQP_BATCHED_SETTLEMENT = "SetAmqpBatchedSettlement";
+    protected final static String SET_AMQP_FAST_RECOVERY = "SetAmqpFastRecovery";
+    protected final static String SET_AMQP_CBS_AUTHENTICATION = "SetAmqpCbsAuthentication";
+    protected final static String SET_AMQP_SHARED_EVENT_LOOP = "SetAmqpSharedEventLoop";
+    protected final static String SET_TWIN_REPLICA_PATH = "SetTwinReplicaPath";
 
     /**
      * The number of milliseconds the transport will wait between
@@ -265,6 +283,29 @@ public final class DeviceClient implements Closeable
         transport.addMessage(message, callback, callbackContext);
     }
 
+    /**
+     * Returns whether the IoT Hub is currently not accepting more events from
+     * this client. Events passed to {@link #sendEventAsync} while the client is
+     * back-pressured are buffered until the IoT Hub accepts them again, so
+     * high-rate producers should slow down until this returns {@code false}.
+     *
+     * @return {@code true} if the client is back-pressured, and {@code false} otherwise.
+     *
+     * @throws IllegalStateException if the client has not been opened yet or is
+     * already closed.
+     */
+    public boolean isBackPressured()
+    {
+        // Codes_SRS_DEVICECLIENT_21_055: [If the client is closed, the function shall throw an IllegalStateException.]
+        if (this.state == IotHubClientState.CLOSED)
+        {
+            throw new IllegalStateException("Cannot query the back-pressure of an IoT Hub client that is closed.");
+        }
+
+        // Codes_SRS_DEVICECLIENT_21_056: [The function shall return whether the transport is back-pressured.]
+        return this.transport.isBackPressured();
+    }
+
     /**
      * Sets the message callback.
      *
@@ -331,7 +372,13 @@ public final class DeviceClient implements Closeable
              */
             deviceTwin = new DeviceTwin(this, this.config, deviceTwinStatusCallback, deviceTwinStatusCallbackContext,
                                         genericPropertyCallBack, genericPropertyCallBackContext);
-            deviceTwin.getDeviceTwin();
+            /*
+            **Codes_SRS_DEVICECLIENT_21_109: [**If the device twin restores the twin replica saved by a previous run, the function shall not request all twin properties.**]**
+             */
+            if (!deviceTwin.restoreTwinReplica())
+            {
+                deviceTwin.getDeviceTwin();
+            }
         }
         else
         {
@@ -572,6 +619,107 @@ public final class DeviceClient implements Closeable
 
     }
 
+    private void setOption_SetMaximumPollingInterval(Object value)
+    {
+        logger.LogInfo("Setting MaximumPollingInterval as %s milliseconds, method name is %s ", value, logger.getMethodName());
+        // Codes_SRS_DEVICECLIENT_21_084: ["SetMaximumPollingInterval" needs to have value type long.]
+        if (value instanceof Long)
+        {
+            // Codes_SRS_DEVICECLIENT_21_085: [If the value is negative, the function shall throw IllegalArgumentException.]
+            if ((long) value < 0)
+            {
+                throw new IllegalArgumentException("value cannot be negative = " + value);
+            }
+            this.config.setHttpsMaxPollingIntervalMillis((long) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not long = " + value);
+        }
+    }
+
+    private void setOption_SetHttpsBatchMaxBytes(Object value)
+    {
+        logger.LogInfo("Setting HttpsBatchMaxBytes as %s bytes, method name is %s ", value, logger.getMethodName());
+        // Codes_SRS_DEVICECLIENT_21_088: ["SetHttpsBatchMaxBytes" needs to have value type long.]
+        if (value instanceof Long)
+        {
+            long maxBytes = (long) value;
+            // Codes_SRS_DEVICECLIENT_21_089: [If the value is negative or greater than the IoT Hub message size
+            // limit, the function shall throw IllegalArgumentException.]
+            if (maxBytes < 0 || maxBytes > HttpsBatchMessage.SERVICEBOUND_MESSAGE_MAX_SIZE_BYTES)
+            {
+                throw new IllegalArgumentException("value shall be between 0 and " + HttpsBatchMessage.SERVICEBOUND_MESSAGE_MAX_SIZE_BYTES + " = " + value);
+            }
+            this.config.setHttpsBatchMaxBytes((int) maxBytes);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not long = " + value);
+        }
+    }
+
+    private void setOption_SetHttpsBatchMaxMessages(Object value)
+    {
+        logger.LogInfo("Setting HttpsBatchMaxMessages as %s messages, method name is %s ", value, logger.getMethodName());
+        // Codes_SRS_DEVICECLIENT_21_091: ["SetHttpsBatchMaxMessages" needs to have value type long.]
+        if (value instanceof Long)
+        {
+            long maxMessages = (long) value;
+            // Codes_SRS_DEVICECLIENT_21_092: [If the value is negative or does not fit in an int, the function shall
+            // throw IllegalArgumentException.]
+            if (maxMessages < 0 || maxMessages > Integer.MAX_VALUE)
+            {
+                throw new IllegalArgumentException("value shall be between 0 and " + Integer.MAX_VALUE + " = " + value);
+            }
+            this.config.setHttpsBatchMaxMessages((int) maxMessages);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not long = " + value);
+        }
+    }
+
+    private void setOption_SetHttpsBatchLingerTime(Object value)
+    {
+        logger.LogInfo("Setting HttpsBatchLingerTime as %s milliseconds, method name is %s ", value, logger.getMethodName());
+        // Codes_SRS_DEVICECLIENT_21_094: ["SetHttpsBatchLingerTime" needs to have value type long.]
+        if (value instanceof Long)
+        {
+            // Codes_SRS_DEVICECLIENT_21_095: [If the value is negative, the function shall throw IllegalArgumentException.]
+            if ((long) value < 0)
+            {
+                throw new IllegalArgumentException("value cannot be negative = " + value);
+            }
+            this.config.setHttpsBatchLingerMillis((long) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not long = " + value);
+        }
+    }
+
+    private void setOption_SetHttpsContentEncoding(Object value)
+    {
+        logger.LogInfo("Setting HttpsContentEncoding as %s, method name is %s ", value, logger.getMethodName());
+        // Codes_SRS_DEVICECLIENT_21_098: ["SetHttpsContentEncoding" needs to have value type String.]
+        if (value instanceof String)
+        {
+            // Codes_SRS_DEVICECLIENT_21_099: [If the value is not "identity", "gzip" or "deflate", the function
+            // shall throw IllegalArgumentException.]
+            HttpsContentEncoding contentEncoding = HttpsContentEncoding.fromName((String) value);
+            if (contentEncoding == null)
+            {
+                throw new IllegalArgumentException("value shall be identity, gzip or deflate = " + value);
+            }
+            this.config.setHttpsContentEncoding(contentEncoding);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not String = " + value);
+        }
+    }
+
     private void setOption_SetCertificatePath(Object value)
     {
         logger.LogInfo("Setting CertificatePath as %s, method name is %s ", value, logger.getMethodName());
@@ -601,27 +749,41 @@ public final class DeviceClient implements Closeable
             }
 
             boolean restart = false;
+            boolean renew = false;
             if (this.state != IotHubClientState.CLOSED) {
-                try {
-                    /* Codes_SRS_DEVICECLIENT_25_010: [**"SetSASTokenExpiryTime" shall restart the transport
-                     *                                  1. If the device currently uses device key and
-                     *                                  2. If transport is already open
-                     *                                 after updating expiry time
-                    */
-                    if (this.config.getDeviceKey() != null)
-                    {
-                        restart = true;
-                        this.close();
-                    }
-                } catch (IOException e) {
+                // Codes_SRS_DEVICECLIENT_21_078: [If the transport is AMQP with claims-based security enabled,
+                // "SetSASTokenExpiryTime" shall renew the token on the open connection instead of restarting the transport.]
+                if (this.transport.getClass() == AmqpsTransport.class && this.config.isAmqpCbsAuthentication())
+                {
+                    renew = true;
+                }
+                else
+                {
+                    try {
+                        /* Codes_SRS_DEVICECLIENT_25_010: [**"SetSASTokenExpiryTime" shall restart the transport
+                         *                                  1. If the device currently uses device key and
+                         *                                  2. If transport is already open
+                         *                                 after updating expiry time
+                        */
+                        if (this.config.getDeviceKey() != null)
+                        {
+                            restart = true;
+                            this.close();
+                        }
+                    } catch (IOException e) {
 
-                    throw new IOError(e);
+                        throw new IOError(e);
+                    }
                 }
 
             }
 
             this.config.setTokenValidSecs(validTimeInSeconds);
 
+            if (renew) {
+                ((AmqpsTransport) this.transport).renewToken();
+            }
+
             if (restart) {
                 if (this.state == IotHubClientState.CLOSED) {
                     try {
@@ -641,7 +803,208 @@ public final class DeviceClient implements Closeable
 
     }
 
+    private void setOption_SetSASTokenRenewalFraction(Object value)
+    {
+        logger.LogInfo("Setting SASTokenRenewalFraction as %s, method name is %s ", value, logger.getMethodName());
+        // Codes_SRS_DEVICECLIENT_21_102: ["SetSASTokenRenewalFraction" needs to have value type double.]
+        if (value instanceof Double)
+        {
+            // Codes_SRS_DEVICECLIENT_21_103: [If the value is less than 0 or not less than 1, the function shall
+            // throw IllegalArgumentException.]
+            this.config.setSasTokenRenewalFraction((double) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not double = " + value);
+        }
+    }
+
+    private void setOption_SetSSLContext(Object value)
+    {
+        logger.LogInfo("Setting SSLContext, method name is %s ", logger.getMethodName());
+        // Codes_SRS_DEVICECLIENT_21_106: [Setting "SetSSLContext" can only be done when the transport is closed.]
+        if (this.state != IotHubClientState.CLOSED)
+        {
+            throw new IllegalStateException("setOption " + SET_SSL_CONTEXT +
+                    " only works when the transport is closed");
+        }
 
+        // Codes_SRS_DEVICECLIENT_21_107: ["SetSSLContext" needs to have value type SSLContext.]
+        if (value instanceof SSLContext)
+        {
+            this.config.setSslContext((SSLContext) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not SSLContext = " + value);
+        }
+    }
+
+
+
+    private void setOption_SetAmqpBatchMaxBytes(Object value)
+    {
+        logger.LogInfo("Setting AmqpBatchMaxBytes as %s bytes, method name is %s ", value, logger.getMethodName());
+        // Codes_SRS_DEVICECLIENT_21_058: ["SetAmqpBatchMaxBytes" needs to have value type long.]
+        if (value instanceof Long)
+        {
+            long maxBytes = (long) value;
+            // Codes_SRS_DEVICECLIENT_21_059: [If the value is negative or greater than the IoT Hub message size
+            // limit, the function shall throw IllegalArgumentException.]
+            if (maxBytes < 0 || maxBytes > DeviceClientConfig.MAX_AMQP_BATCH_BYTES)
+            {
+                throw new IllegalArgumentException("value shall be between 0 and " + DeviceClientConfig.MAX_AMQP_BATCH_BYTES + " = " + value);
+            }
+            this.config.setAmqpBatchMaxBytes((int) maxBytes);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not long = " + value);
+        }
+    }
+
+    private void setOption_SetAmqpBatchLingerTime(Object value)
+    {
+        logger.LogInfo("Setting AmqpBatchLingerTime as %s milliseconds, method name is %s ", value, logger.getMethodName());
+        // Codes_SRS_DEVICECLIENT_21_061: ["SetAmqpBatchLingerTime" needs to have value type long.]
+        if (value instanceof Long)
+        {
+            // Codes_SRS_DEVICECLIENT_21_062: [If the value is negative, the function shall throw IllegalArgumentException.]
+            if ((long) value < 0)
+            {
+                throw new IllegalArgumentException("value cannot be negative = " + value);
+            }
+            this.config.setAmqpBatchLingerMillis((long) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not long = " + value);
+        }
+    }
+
+    private void setOption_SetAmqpReceivePrefetch(Object value)
+    {
+        logger.LogInfo("Setting AmqpReceivePrefetch as %s messages, method name is %s ", value, logger.getMethodName());
+        // Codes_SRS_DEVICECLIENT_21_065: [Setting "SetAmqpReceivePrefetch" can only be done when the transport is closed.]
+        if (this.state != IotHubClientState.CLOSED)
+        {
+            throw new IllegalStateException("setOption " + SET_AMQP_RECEIVE_PREFETCH +
+                    " only works when the transport is closed");
+        }
+
+        // Codes_SRS_DEVICECLIENT_21_066: ["SetAmqpReceivePrefetch" needs to have value type long and be positive.]
+        if (value instanceof Long)
+        {
+            long prefetch = (long) value;
+            if (prefetch <= 0 || prefetch > Integer.MAX_VALUE)
+            {
+                throw new IllegalArgumentException("value shall be positive = " + value);
+            }
+            this.config.setAmqpReceivePrefetch((int) prefetch);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not long = " + value);
+        }
+    }
+
+    private void setOption_SetAmqpBatchedSettlement(Object value)
+    {
+        logger.LogInfo("Setting AmqpBatchedSettlement as %s, method name is %s ", value, logger.getMethodName());
+        // Codes_SRS_DEVICECLIENT_21_068: ["SetAmqpBatchedSettlement" needs to have value type boolean.]
+        if (value instanceof Boolean)
+        {
+            this.config.setAmqpBatchedSettlement((boolean) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not boolean = " + value);
+        }
+    }
+
+    private void setOption_SetAmqpFastRecovery(Object value)
+    {
+        logger.LogInfo("Setting AmqpFastRecovery as %s, method name is %s ", value, logger.getMethodName());
+        // Codes_SRS_DEVICECLIENT_21_071: [Setting "SetAmqpFastRecovery" can only be done when the transport is closed.]
+        if (this.state != IotHubClientState.CLOSED)
+        {
+            throw new IllegalStateException("setOption " + SET_AMQP_FAST_RECOVERY +
+                    " only works when the transport is closed");
+        }
+
+        // Codes_SRS_DEVICECLIENT_21_072: ["SetAmqpFastRecovery" needs to have value type boolean.]
+        if (value instanceof Boolean)
+        {
+            this.config.setAmqpFastRecovery((boolean) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not boolean = " + value);
+        }
+    }
+
+    private void setOption_SetAmqpCbsAuthentication(Object value)
+    {
+        logger.LogInfo("Setting AmqpCbsAuthentication as %s, method name is %s ", value, logger.getMethodName());
+        // Codes_SRS_DEVICECLIENT_21_075: [Setting "SetAmqpCbsAuthentication" can only be done when the transport is closed.]
+        if (this.state != IotHubClientState.CLOSED)
+        {
+            throw new IllegalStateException("setOption " + SET_AMQP_CBS_AUTHENTICATION +
+                    " only works when the transport is closed");
+        }
+
+        // Codes_SRS_DEVICECLIENT_21_076: ["SetAmqpCbsAuthentication" needs to have value type boolean.]
+        if (value instanceof Boolean)
+        {
+            this.config.setAmqpCbsAuthentication((boolean) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not boolean = " + value);
+        }
+    }
+
+    private void setOption_SetTwinReplicaPath(Object value)
+    {
+        logger.LogInfo("Setting TwinReplicaPath as %s, method name is %s ", value, logger.getMethodName());
+        // Codes_SRS_DEVICECLIENT_21_111: [Setting "SetTwinReplicaPath" can only be done before the device twin is started.]
+        if (this.deviceTwin != null)
+        {
+            throw new IllegalStateException("setOption " + SET_TWIN_REPLICA_PATH +
+                    " only works before the device twin is started");
+        }
+
+        // Codes_SRS_DEVICECLIENT_21_112: ["SetTwinReplicaPath" needs to have value type String.]
+        if (value instanceof String)
+        {
+            this.config.setTwinReplicaPath((String) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not String = " + value);
+        }
+    }
+
+    private void setOption_SetAmqpSharedEventLoop(Object value)
+    {
+        logger.LogInfo("Setting AmqpSharedEventLoop as %s, method name is %s ", value, logger.getMethodName());
+        // Codes_SRS_DEVICECLIENT_21_080: [Setting "SetAmqpSharedEventLoop" can only be done when the transport is closed.]
+        if (this.state != IotHubClientState.CLOSED)
+        {
+            throw new IllegalStateException("setOption " + SET_AMQP_SHARED_EVENT_LOOP +
+                    " only works when the transport is closed");
+        }
+
+        // Codes_SRS_DEVICECLIENT_21_081: ["SetAmqpSharedEventLoop" needs to have value type boolean.]
+        if (value instanceof Boolean)
+        {
+            this.config.setAmqpSharedEventLoop((boolean) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not boolean = " + value);
+        }
+    }
 
     /**
      * Sets a runtime option identified by parameter {@code optionName}
@@ -653,6 +1016,35 @@ public final class DeviceClient implements Closeable
      *	      option specifies the interval in milliseconds between calls to
      *	      the service checking for availability of new messages. The value
      *	      is expected to be of type {@code long}.
+     *	    - <b>SetMaximumPollingInterval</b> - this option is applicable only
+     *	      when the transport configured with this client is HTTP, and can be
+     *	      changed while the client is open. If set, the client polls for new
+     *	      messages on every minimum polling interval only after receiving a
+     *	      message or sending an event, and backs off exponentially while idle
+     *	      up to this interval in milliseconds. 0, the default, polls on every
+     *	      minimum polling interval. The value is expected to be of type
+     *	      {@code long}.
+     *	    - <b>SetHttpsBatchMaxBytes</b> - this option is applicable only
+     *	      when the transport configured with this client is HTTP. This
+     *	      option specifies the maximum size in bytes of a batched request.
+     *	      0, the default, bounds it by the IoT Hub message size limit only.
+     *	      The value is expected to be of type {@code long}.
+     *	    - <b>SetHttpsBatchMaxMessages</b> - this option is applicable only
+     *	      when the transport configured with this client is HTTP. This
+     *	      option specifies the maximum number of messages in a batched
+     *	      request. 0, the default, does not bound it. The value is expected
+     *	      to be of type {@code long}.
+     *	    - <b>SetHttpsBatchLingerTime</b> - this option is applicable only
+     *	      when the transport configured with this client is HTTP. This
+     *	      option specifies the time in milliseconds the messages wait for a
+     *	      batch to fill, up to the maximum size or number of messages, before
+     *	      being sent. 0, the default, sends the queued messages right away.
+     *	      The value is expected to be of type {@code long}.
+     *	    - <b>SetHttpsContentEncoding</b> - this option is applicable only
+     *	      when the transport configured with this client is HTTP. This
+     *	      option specifies the content encoding the events are compressed
+     *	      with, "gzip" or "deflate"; "identity", the default, does not
+     *	      compress them. The value is expected to be of type {@code String}.
      *	    - <b>SetCertificatePath</b> - this option is applicable only
      *	      when the transport configured with this client is AMQP. This
      *	      option specifies the path to the certificate used to verify peer.
@@ -662,6 +1054,68 @@ public final class DeviceClient implements Closeable
      *         SASToken expires. If the transport is already open then setting this
      *         option will restart the transport with the updated expiry time. The
      *         value is expected to be of type {@code long}.
+     *      - <b>SetSASTokenRenewalFraction</b> - this option is applicable for
+     *         HTTP/AMQP/MQTT. This option specifies the fraction of the SASToken
+     *         lifetime after which the transport renews the token, reusing it
+     *         until then. 0 renews the token on every use; the default is 0.75.
+     *         With SetAmqpCbsAuthentication the token is renewed in the
+     *         background instead of on use, so 0 renews it after the default
+     *         fraction. The value is expected to be of type {@code double}.
+     *      - <b>SetSSLContext</b> - this option is applicable for HTTP/AMQP/MQTT,
+     *         and only before the client is opened. This option specifies the
+     *         initialized TLS context of the connections. Clients given the same
+     *         context share its TLS session cache, so reconnecting clients resume
+     *         their sessions instead of doing full handshakes. By default, the
+     *         clients trusting the same certificate share one context, and the
+     *         HTTPS and MQTT clients without a certificate use the default context
+     *         of the Java runtime, which honors {@code javax.net.ssl.trustStore}.
+     *         The value is expected to be of type {@code javax.net.ssl.SSLContext}.
+     *      - <b>SetAmqpBatchMaxBytes</b> - this option is applicable only
+     *        when the transport configured with this client is AMQP. This option
+     *        specifies the maximum size in bytes of a batched message, so several
+     *        queued messages are sent in a single transfer and settled by a single
+     *        disposition. 0, the default, sends every message on its own. The value
+     *        is expected to be of type {@code long}.
+     *      - <b>SetAmqpBatchLingerTime</b> - this option is applicable only
+     *        when the transport configured with this client is AMQP. This option
+     *        specifies the time in milliseconds a batch waits for more messages
+     *        before being sent. The value is expected to be of type {@code long}.
+     *      - <b>SetAmqpReceivePrefetch</b> - this option is applicable only
+     *        when the transport configured with this client is AMQP, and only
+     *        before the client is opened. This option specifies how many messages
+     *        the IoT Hub may send ahead on each receiver link. The value is
+     *        expected to be of type {@code long}.
+     *      - <b>SetAmqpBatchedSettlement</b> - this option is applicable only
+     *        when the transport configured with this client is AMQP. If set, the
+     *        results of the received messages are settled together by the
+     *        connection, and the client handles all the buffered messages on each
+     *        receive tick. The value is expected to be of type {@code boolean}.
+     *      - <b>SetAmqpFastRecovery</b> - this option is applicable only
+     *        when the transport configured with this client is AMQP, and only
+     *        before the client is opened. If set, a lost connection is replaced
+     *        by a new one opened right away, and the messages in flight are sent
+     *        again in their original order. The value is expected to be of type
+     *        {@code boolean}.
+     *      - <b>SetAmqpCbsAuthentication</b> - this option is applicable only
+     *        when the transport configured with this client is AMQP, and only
+     *        before the client is opened. If set, the connection is authenticated
+     *        by claims-based security and its SAS token is renewed in the
+     *        background before it expires, without reconnecting. A
+     *        SetSASTokenRenewalFraction of 0 renews it after the default 0.75 of
+     *        its lifetime. The value is expected to be of type {@code boolean}.
+     *      - <b>SetAmqpSharedEventLoop</b> - this option is applicable only
+     *        when the transport configured with this client is AMQP, and only
+     *        before the client is opened. If set, the connection is driven by
+     *        the event loops shared by all the clients in the process, one per
+     *        processor, instead of by its own thread. The value is expected to
+     *        be of type {@code boolean}.
+     *      - <b>SetTwinReplicaPath</b> - this option is applicable only before
+     *        the device twin is started. The device twin saves its replica of
+     *        the desired properties to this file, and restores it on start
+     *        instead of requesting the full twin. The patches received after
+     *        that are checked against the version of the replica, so a missed
+     *        patch still triggers a full twin request. The value is expected to
+     *        be of type {@code String}.
      *
      * @param optionName the option name to modify
      * @param value an object of the appropriate type for the option's value
@@ -691,6 +1145,90 @@ public final class DeviceClient implements Closeable
                     }
                     break;
                 }
+                //**Codes_SRS_DEVICECLIENT_21_083: [**"SetMaximumPollingInterval" - maximum time in milliseconds between
+                // 2 consecutive polls while idle, 0 polls on every minimum polling interval.**]**
+                case SET_MAXIMUM_POLLING_INTERVAL: {
+                    // Codes_SRS_DEVICECLIENT_21_086: [Option "SetMaximumPollingInterval" is available only for HTTP.]
+                    if (this.transport.getClass() == HttpsTransport.class)
+                    {
+                        setOption_SetMaximumPollingInterval(value);
+
+                    } else {
+                        logger.LogError("optionName is unknown = %s for %s, method name is %s ", optionName, this.transport.getClass(), logger.getMethodName());
+                        // Codes_SRS_DEVICECLIENT_02_001: [If optionName is null or not an option handled by the
+                        // client, then it shall throw IllegalArgumentException.]
+                        throw new IllegalArgumentException("optionName is unknown = " + optionName +
+                                " for " + this.transport.getClass());
+                    }
+                    break;
+                }
+                //**Codes_SRS_DEVICECLIENT_21_087: [**"SetHttpsBatchMaxBytes" - maximum size in bytes of a batched HTTPS request, 0 bounds it by the IoT Hub limit only.**]**
+                case SET_HTTPS_BATCH_MAX_BYTES: {
+                    // Codes_SRS_DEVICECLIENT_21_096: [Options "SetHttpsBatchMaxBytes", "SetHttpsBatchMaxMessages" and
+                    // "SetHttpsBatchLingerTime" are available only for HTTP.]
+                    if (this.transport.getClass() == HttpsTransport.class)
+                    {
+                        setOption_SetHttpsBatchMaxBytes(value);
+
+                    } else {
+                        logger.LogError("optionName is unknown = %s for %s, method name is %s ", optionName, this.transport.getClass(), logger.getMethodName());
+                        // Codes_SRS_DEVICECLIENT_02_001: [If optionName is null or not an option handled by the
+                        // client, then it shall throw IllegalArgumentException.]
+                        throw new IllegalArgumentException("optionName is unknown = " + optionName +
+                                " for " + this.transport.getClass());
+                    }
+                    break;
+                }
+                //**Codes_SRS_DEVICECLIENT_21_090: [**"SetHttpsBatchMaxMessages" - maximum number of messages in a batched HTTPS request, 0 does not bound it.**]**
+                case SET_HTTPS_BATCH_MAX_MESSAGES: {
+                    // Codes_SRS_DEVICECLIENT_21_096: [Options "SetHttpsBatchMaxBytes", "SetHttpsBatchMaxMessages" and
+                    // "SetHttpsBatchLingerTime" are available only for HTTP.]
+                    if (this.transport.getClass() == HttpsTransport.class)
+                    {
+                        setOption_SetHttpsBatchMaxMessages(value);
+
+                    } else {
+                        logger.LogError("optionName is unknown = %s for %s, method name is %s ", optionName, this.transport.getClass(), logger.getMethodName());
+                        // Codes_SRS_DEVICECLIENT_02_001: [If optionName is null or not an option handled by the
+                        // client, then it shall throw IllegalArgumentException.]
+                        throw new IllegalArgumentException("optionName is unknown = " + optionName +
+                                " for " + this.transport.getClass());
+                    }
+                    break;
+                }
+                //**Codes_SRS_DEVICECLIENT_21_093: [**"SetHttpsBatchLingerTime" - time in milliseconds the HTTPS messages wait for a batch to fill.**]**
+                case SET_HTTPS_BATCH_LINGER_TIME: {
+                    // Codes_SRS_DEVICECLIENT_21_096: [Options "SetHttpsBatchMaxBytes", "SetHttpsBatchMaxMessages" and
+                    // "SetHttpsBatchLingerTime" are available only for HTTP.]
+                    if (this.transport.getClass() == HttpsTransport.class)
+                    {
+                        setOption_SetHttpsBatchLingerTime(value);
+
+                    } else {
+                        logger.LogError("optionName is unknown = %s for %s, method name is %s ", optionName, this.transport.getClass(), logger.getMethodName());
+                        // Codes_SRS_DEVICECLIENT_02_001: [If optionName is null or not an option handled by the
+                        // client, then it shall throw IllegalArgumentException.]
+                        throw new IllegalArgumentException("optionName is unknown = " + optionName +
+                                " for " + this.transport.getClass());
+                    }
+                    break;
+                }
+                //**Codes_SRS_DEVICECLIENT_21_097: [**"SetHttpsContentEncoding" - content encoding the HTTPS events are compressed with.**]**
+                case SET_HTTPS_CONTENT_ENCODING: {
+                    // Codes_SRS_DEVICECLIENT_21_100: ["SetHttpsContentEncoding" is available only for HTTP.]
+                    if (this.transport.getClass() == HttpsTransport.class)
+                    {
+                        setOption_SetHttpsContentEncoding(value);
+
+                    } else {
+                        logger.LogError("optionName is unknown = %s for %s, method name is %s ", optionName, this.transport.getClass(), logger.getMethodName());
+                        // Codes_SRS_DEVICECLIENT_02_001: [If optionName is null or not an option handled by the
+                        // client, then it shall throw IllegalArgumentException.]
+                        throw new IllegalArgumentException("optionName is unknown = " + optionName +
+                                " for " + this.transport.getClass());
+                    }
+                    break;
+                }
                 //**Codes_SRS_DEVICECLIENT_25_005: [**"SetCertificatePath" - path to the certificate to verify peer.**]**
                 case SET_CERTIFICATE_PATH: {
                     //**Codes_SRS_DEVICECLIENT_25_006: [**"SetCertificatePath" is available only for AMQP.**]**
@@ -725,6 +1263,161 @@ public final class DeviceClient implements Closeable
                     }
                     break;
                 }
+                //**Codes_SRS_DEVICECLIENT_21_101: [**"SetSASTokenRenewalFraction" - fraction of the SAS token lifetime after which the transports renew it.**]**
+                case SET_SAS_TOKEN_RENEWAL_FRACTION: {
+                    // Codes_SRS_DEVICECLIENT_21_104: ["SetSASTokenRenewalFraction" is available for HTTPS/AMQP/MQTT.]
+                    if (this.transport.getClass() == AmqpsTransport.class ||
+                            this.transport.getClass() == HttpsTransport.class ||
+                            this.transport.getClass() == MqttTransport.class)
+                    {
+                        setOption_SetSASTokenRenewalFraction(value);
+
+                    } else {
+                        logger.LogError("optionName is unknown = %s for %s, method name is %s ", optionName, this.transport.getClass(), logger.getMethodName());
+                        // Codes_SRS_DEVICECLIENT_02_001: [If optionName is null or not an option handled by the
+                        // client, then it shall throw IllegalArgumentException.]
+                        throw new IllegalArgumentException("optionName is unknown = " + optionName +
+                                " for " + this.transport.getClass());
+                    }
+                    break;
+                }
+                //**Codes_SRS_DEVICECLIENT_21_105: [**"SetSSLContext" - TLS context of the connections, shared by the clients given the same context.**]**
+                case SET_SSL_CONTEXT: {
+                    // Codes_SRS_DEVICECLIENT_21_108: ["SetSSLContext" is available for HTTPS/AMQP/MQTT.]
+                    if (this.transport.getClass() == AmqpsTransport.class ||
+                            this.transport.getClass() == HttpsTransport.class ||
+                            this.transport.getClass() == MqttTransport.class)
+                    {
+                        setOption_SetSSLContext(value);
+
+                    } else {
+                        logger.LogError("optionName is unknown = %s for %s, method name is %s ", optionName, this.transport.getClass(), logger.getMethodName());
+                        // Codes_SRS_DEVICECLIENT_02_001: [If optionName is null or not an option handled by the
+                        // client, then it shall throw IllegalArgumentException.]
+                        throw new IllegalArgumentException("optionName is unknown = " + optionName +
+                                " for " + this.transport.getClass());
+                    }
+                    break;
+                }
+
+                //**Codes_SRS_DEVICECLIENT_21_057: [**"SetAmqpBatchMaxBytes" - maximum size in bytes of a batched AMQP message, 0 disables batching.**]**
+                case SET_AMQP_BATCH_MAX_BYTES: {
+                    // Codes_SRS_DEVICECLIENT_21_063: [Options "SetAmqpBatchMaxBytes" and "SetAmqpBatchLingerTime" are available only for AMQP.]
+                    if (this.transport.getClass() == AmqpsTransport.class)
+                    {
+                        setOption_SetAmqpBatchMaxBytes(value);
+
+                    } else {
+                        logger.LogError("optionName is unknown = %s for %s, method name is %s ", optionName, this.transport.getClass(), logger.getMethodName());
+                        // Codes_SRS_DEVICECLIENT_02_001: [If optionName is null or not an option handled by the
+                        // client, then it shall throw IllegalArgumentException.]
+                        throw new IllegalArgumentException("optionName is unknown = " + optionName +
+                                " for " + this.transport.getClass());
+                    }
+                    break;
+                }
+                //**Codes_SRS_DEVICECLIENT_21_060: [**"SetAmqpBatchLingerTime" - time in milliseconds a batch waits for more messages.**]**
+                case SET_AMQP_BATCH_LINGER_TIME: {
+                    // Codes_SRS_DEVICECLIENT_21_063: [Options "SetAmqpBatchMaxBytes" and "SetAmqpBatchLingerTime" are available only for AMQP.]
+                    if (this.transport.getClass() == AmqpsTransport.class)
+                    {
+                        setOption_SetAmqpBatchLingerTime(value);
+
+                    } else {
+                        logger.LogError("optionName is unknown = %s for %s, method name is %s ", optionName, this.transport.getClass(), logger.getMethodName());
+                        // Codes_SRS_DEVICECLIENT_02_001: [If optionName is null or not an option handled by the
+                        // client, then it shall throw IllegalArgumentException.]
+                        throw new IllegalArgumentException("optionName is unknown = " + optionName +
+                                " for " + this.transport.getClass());
+                    }
+                    break;
+                }
+
+                //**Codes_SRS_DEVICECLIENT_21_064: [**"SetAmqpReceivePrefetch" - number of messages the IoT Hub may send ahead on each receiver link.**]**
+                case SET_AMQP_RECEIVE_PREFETCH: {
+                    // Codes_SRS_DEVICECLIENT_21_069: [Options "SetAmqpReceivePrefetch" and "SetAmqpBatchedSettlement" are available only for AMQP.]
+                    if (this.transport.getClass() == AmqpsTransport.class)
+                    {
+                        setOption_SetAmqpReceivePrefetch(value);
+
+                    } else {
+                        logger.LogError("optionName is unknown = %s for %s, method name is %s ", optionName, this.transport.getClass(), logger.getMethodName());
+                        // Codes_SRS_DEVICECLIENT_02_001: [If optionName is null or not an option handled by the
+                        // client, then it shall throw IllegalArgumentException.]
+                        throw new IllegalArgumentException("optionName is unknown = " + optionName +
+                                " for " + this.transport.getClass());
+                    }
+                    break;
+                }
+                //**Codes_SRS_DEVICECLIENT_21_067: [**"SetAmqpBatchedSettlement" - settle the results of the received messages together.**]**
+                case SET_AMQP_BATCHED_SETTLEMENT: {
+                    // Codes_SRS_DEVICECLIENT_21_069: [Options "SetAmqpReceivePrefetch" and "SetAmqpBatchedSettlement" are available only for AMQP.]
+                    if (this.transport.getClass() == AmqpsTransport.class)
+                    {
+                        setOption_SetAmqpBatchedSettlement(value);
+
+                    } else {
+                        logger.LogError("optionName is unknown = %s for %s, method name is %s ", optionName, this.transport.getClass(), logger.getMethodName());
+                        // Codes_SRS_DEVICECLIENT_02_001: [If optionName is null or not an option handled by the
+                        // client, then it shall throw IllegalArgumentException.]
+                        throw new IllegalArgumentException("optionName is unknown = " + optionName +
+                                " for " + this.transport.getClass());
+                    }
+                    break;
+                }
+                //**Codes_SRS_DEVICECLIENT_21_070: [**"SetAmqpFastRecovery" - replace a lost connection by a new one opened right away.**]**
+                case SET_AMQP_FAST_RECOVERY: {
+                    // Codes_SRS_DEVICECLIENT_21_073: [Option "SetAmqpFastRecovery" is available only for AMQP.]
+                    if (this.transport.getClass() == AmqpsTransport.class)
+                    {
+                        setOption_SetAmqpFastRecovery(value);
+
+                    } else {
+                        logger.LogError("optionName is unknown = %s for %s, method name is %s ", optionName, this.transport.getClass(), logger.getMethodName());
+                        // Codes_SRS_DEVICECLIENT_02_001: [If optionName is null or not an option handled by the
+                        // client, then it shall throw IllegalArgumentException.]
+                        throw new IllegalArgumentException("optionName is unknown = " + optionName +
+                                " for " + this.transport.getClass());
+                    }
+                    break;
+                }
+                //**Codes_SRS_DEVICECLIENT_21_074: [**"SetAmqpCbsAuthentication" - authenticate the connection by claims-based security and renew its token in the background.**]**
+                case SET_AMQP_CBS_AUTHENTICATION: {
+                    // Codes_SRS_DEVICECLIENT_21_077: [Option "SetAmqpCbsAuthentication" is available only for AMQP.]
+                    if (this.transport.getClass() == AmqpsTransport.class)
+                    {
+                        setOption_SetAmqpCbsAuthentication(value);
+
+                    } else {
+                        logger.LogError("optionName is unknown = %s for %s, method name is %s ", optionName, this.transport.getClass(), logger.getMethodName());
+                        // Codes_SRS_DEVICECLIENT_02_001: [If optionName is null or not an option handled by the
+                        // client, then it shall throw IllegalArgumentException.]
+                        throw new IllegalArgumentException("optionName is unknown = " + optionName +
+                                " for " + this.transport.getClass());
+                    }
+                    break;
+                }
+                //**Codes_SRS_DEVICECLIENT_21_079: [**"SetAmqpSharedEventLoop" - drive the connection by the event loops shared by all the clients in the process.**]**
+                case SET_AMQP_SHARED_EVENT_LOOP: {
+                    // Codes_SRS_DEVICECLIENT_21_082: [Option "SetAmqpSharedEventLoop" is available only for AMQP.]
+                    if (this.transport.getClass() == AmqpsTransport.class)
+                    {
+                        setOption_SetAmqpSharedEventLoop(value);
+
+                    } else {
+                        logger.LogError("optionName is unknown = %s for %s, method name is %s ", optionName, this.transport.getClass(), logger.getMethodName());
+                        // Codes_SRS_DEVICECLIENT_02_001: [If optionName is null or not an option handled by the
+                        // client, then it shall throw IllegalArgumentException.]
+                        throw new IllegalArgumentException("optionName is unknown = " + optionName +
+                                " for " + this.transport.getClass());
+                    }
+                    break;
+                }
+                //**Codes_SRS_DEVICECLIENT_21_110: [**"SetTwinReplicaPath" - file the device twin saves its replica of the desired properties to, and restores it from on start.**]**
+                case SET_TWIN_REPLICA_PATH: {
+                    setOption_SetTwinReplicaPath(value);
+                    break;
+                }
 
                 default:
                     throw new IllegalArgumentException("optionName is unknown = " + optionName);
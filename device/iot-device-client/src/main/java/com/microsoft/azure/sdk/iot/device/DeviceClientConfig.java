@@ -3,6 +3,13 @@
 
 package com.microsoft.azure.sdk.iot.device;
 
+import com.microsoft.azure.sdk.iot.device.transport.SslContextCache;
+import com.microsoft.azure.sdk.iot.device.transport.https.HttpsContentEncoding;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.File;
+import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 
@@ -21,10 +28,89 @@ public final class DeviceClientConfig
      */
     private long tokenValidSecs = 3600;
 
+    /** The default value for sasTokenRenewalFraction. */
+    public static final double DEFAULT_SAS_TOKEN_RENEWAL_FRACTION = 0.75;
+
+    /**
+     * The fraction of the SAS token lifetime after which the transports renew
+     * the token. Until then, the token is reused.
+     */
+    private double sasTokenRenewalFraction = DEFAULT_SAS_TOKEN_RENEWAL_FRACTION;
+
     /** The default value for readTimeoutMillis. */
     public static final int DEFAULT_READ_TIMEOUT_MILLIS = 240000;
     /** The default value for messageLockTimeoutSecs. */
     public static final int DEFAULT_MESSAGE_LOCK_TIMEOUT_SECS = 180;
+    /** The maximum size, in bytes, of a message accepted by the IoT Hub, which also bounds a batched AMQP message. */
+    public static final int MAX_AMQP_BATCH_BYTES = 256 * 1024;
+
+    /**
+     * The maximum size, in bytes, of a batched AMQP message. A value of 0
+     * disables batching and every message is sent in its own transfer.
+     */
+    private int amqpBatchMaxBytes = 0;
+
+    /** The time, in milliseconds, the AMQP transport waits for more messages to fill a batch. */
+    private long amqpBatchLingerMillis = 0;
+
+    /** The default number of messages the IoT Hub may send ahead on an AMQP receiver link, same as the Proton default. */
+    public static final int DEFAULT_AMQP_RECEIVE_PREFETCH = 1024;
+
+    /** The number of messages the IoT Hub may send ahead on an AMQP receiver link, given as link credit. */
+    private int amqpReceivePrefetch = DEFAULT_AMQP_RECEIVE_PREFETCH;
+
+    /**
+     * Whether the results of the received AMQP messages are settled together
+     * by the connection, instead of one at a time by the caller.
+     */
+    private boolean amqpBatchedSettlement = false;
+    /**
+     * Whether a lost AMQP connection is replaced by a new one opened in
+     * parallel, instead of being reopened by itself after a backoff.
+     */
+    private boolean amqpFastRecovery = false;
+    /**
+     * Whether the AMQP connection is authenticated by putting the SAS token
+     * on the claims-based security node, which allows renewing it without
+     * reconnecting, instead of by SASL PLAIN.
+     */
+    private boolean amqpCbsAuthentication = false;
+
+    /**
+     * Whether the AMQP connection is driven by the event loops shared by all
+     * the connections in the process, instead of by its own thread.
+     */
+    private boolean amqpSharedEventLoop = false;
+
+    /**
+     * The file the device twin saves its replica of the desired properties to,
+     * and restores it from on start, or null to keep it only in memory.
+     */
+    private String twinReplicaPath = null;
+
+    /**
+     * The maximum time, in milliseconds, the HTTPS transport backs off between
+     * polls for messages while the device is idle. 0 polls on every receive period.
+     */
+    private long httpsMaxPollingIntervalMillis = 0;
+
+    /**
+     * The maximum size, in bytes, of a batched HTTPS request. A value of 0
+     * bounds the batch by the IoT Hub message size limit only.
+     */
+    private int httpsBatchMaxBytes = 0;
+
+    /** The maximum number of messages in a batched HTTPS request. A value of 0 does not bound it. */
+    private int httpsBatchMaxMessages = 0;
+
+    /** The time, in milliseconds, the HTTPS transport waits for more messages to fill a batch. */
+    private long httpsBatchLingerMillis = 0;
+
+    /** The content encoding of the HTTPS events, which are not compressed by default. */
+    private HttpsContentEncoding httpsContentEncoding = HttpsContentEncoding.IDENTITY;
+
+    /** The default certificate file, written once for all the clients in the process. */
+    private static String defaultCertificatePath;
 
     protected final String iotHubHostname;
     protected final String iotHubName;
@@ -33,6 +119,12 @@ public final class DeviceClientConfig
     protected final String sharedAccessToken;
     protected String pathToCertificate;
 
+    /**
+     * The TLS context of the connections, or {@code null} to share the context
+     * of the trusted certificate with all the clients in the process.
+     */
+    protected SSLContext sslContext;
+
     /**
      * The callback to be invoked if a message of Device Method type received.
      */
@@ -202,6 +294,409 @@ public final class DeviceClientConfig
         this.tokenValidSecs = expiryTime;
     }
 
+    /**
+     * Getter for the fraction of the SAS token lifetime after which the
+     * transports renew the token instead of reusing it.
+     *
+     * @return the renewal fraction, between 0 and 1. A value of 0 renews the
+     * token on every use.
+     */
+    public double getSasTokenRenewalFraction()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_21_034: [The function shall return the value of sasTokenRenewalFraction, which is 0.75 by default.]
+        return this.sasTokenRenewalFraction;
+    }
+
+    /**
+     * Setter for the fraction of the SAS token lifetime after which the
+     * transports renew the token instead of reusing it.
+     *
+     * @param renewalFraction the renewal fraction, from 0 (renew on every use)
+     * up to, but not including, 1.
+     * @throws IllegalArgumentException if the fraction is out of range.
+     */
+    public void setSasTokenRenewalFraction(double renewalFraction)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_21_035: [If the fraction is less than 0 or not less than 1, the function shall throw an IllegalArgumentException.]
+        if (!(renewalFraction >= 0) || (renewalFraction >= 1))
+        {
+            throw new IllegalArgumentException("SAS token renewal fraction must be in [0, 1), but was " + renewalFraction);
+        }
+
+        // Codes_SRS_DEVICECLIENTCONFIG_21_036: [The function shall set the value of sasTokenRenewalFraction.]
+        this.sasTokenRenewalFraction = renewalFraction;
+    }
+
+    /**
+     * Getter for the maximum size, in bytes, of a batched AMQP message.
+     *
+     * @return the maximum size of a batch, or 0 if batching is disabled.
+     */
+    public int getAmqpBatchMaxBytes()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_21_001: [The function shall return the value of amqpBatchMaxBytes, which is 0 by default.]
+        return this.amqpBatchMaxBytes;
+    }
+
+    /**
+     * Setter for the maximum size, in bytes, of a batched AMQP message. A
+     * value of 0 disables batching.
+     *
+     * @param maxBytes the maximum size of a batch.
+     * @throws IllegalArgumentException if the size is negative or greater
+     * than {@link #MAX_AMQP_BATCH_BYTES}.
+     */
+    public void setAmqpBatchMaxBytes(int maxBytes)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_21_002: [If the size is negative or greater than MAX_AMQP_BATCH_BYTES, the function shall throw an IllegalArgumentException.]
+        if (maxBytes < 0 || maxBytes > MAX_AMQP_BATCH_BYTES)
+        {
+            throw new IllegalArgumentException("AMQP batch size shall be between 0 and " + MAX_AMQP_BATCH_BYTES + " bytes, but was " + maxBytes);
+        }
+
+        // Codes_SRS_DEVICECLIENTCONFIG_21_003: [The function shall set the value of amqpBatchMaxBytes.]
+        this.amqpBatchMaxBytes = maxBytes;
+    }
+
+    /**
+     * Getter for the time, in milliseconds, the AMQP transport waits for
+     * more messages to fill a batch.
+     *
+     * @return the linger time of a batch.
+     */
+    public long getAmqpBatchLingerMillis()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_21_004: [The function shall return the value of amqpBatchLingerMillis, which is 0 by default.]
+        return this.amqpBatchLingerMillis;
+    }
+
+    /**
+     * Setter for the time, in milliseconds, the AMQP transport waits for
+     * more messages to fill a batch.
+     *
+     * @param lingerMillis the linger time of a batch.
+     * @throws IllegalArgumentException if the time is negative.
+     */
+    public void setAmqpBatchLingerMillis(long lingerMillis)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_21_005: [If the time is negative, the function shall throw an IllegalArgumentException.]
+        if (lingerMillis < 0)
+        {
+            throw new IllegalArgumentException("AMQP batch linger time cannot be negative, but was " + lingerMillis);
+        }
+
+        // Codes_SRS_DEVICECLIENTCONFIG_21_006: [The function shall set the value of amqpBatchLingerMillis.]
+        this.amqpBatchLingerMillis = lingerMillis;
+    }
+
+    /**
+     * Getter for the number of messages the IoT Hub may send ahead on an AMQP
+     * receiver link.
+     *
+     * @return the prefetch of the receiver links.
+     */
+    public int getAmqpReceivePrefetch()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_21_007: [The function shall return the value of amqpReceivePrefetch, which is DEFAULT_AMQP_RECEIVE_PREFETCH by default.]
+        return this.amqpReceivePrefetch;
+    }
+
+    /**
+     * Setter for the number of messages the IoT Hub may send ahead on an AMQP
+     * receiver link. The value is granted as link credit when the connection
+     * is opened.
+     *
+     * @param prefetch the prefetch of the receiver links.
+     * @throws IllegalArgumentException if the prefetch is not positive.
+     */
+    public void setAmqpReceivePrefetch(int prefetch)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_21_008: [If the prefetch is not positive, the function shall throw an IllegalArgumentException.]
+        if (prefetch <= 0)
+        {
+            throw new IllegalArgumentException("AMQP receive prefetch shall be positive, but was " + prefetch);
+        }
+
+        // Codes_SRS_DEVICECLIENTCONFIG_21_009: [The function shall set the value of amqpReceivePrefetch.]
+        this.amqpReceivePrefetch = prefetch;
+    }
+
+    /**
+     * Getter for whether the results of the received AMQP messages are
+     * settled together.
+     *
+     * @return {@code true} if the settlement is batched, and {@code false} otherwise.
+     */
+    public boolean isAmqpBatchedSettlement()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_21_010: [The function shall return the value of amqpBatchedSettlement, which is false by default.]
+        return this.amqpBatchedSettlement;
+    }
+
+    /**
+     * Setter for whether the results of the received AMQP messages are
+     * settled together.
+     *
+     * @param batchedSettlement {@code true} to settle the results together.
+     */
+    public void setAmqpBatchedSettlement(boolean batchedSettlement)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_21_011: [The function shall set the value of amqpBatchedSettlement.]
+        this.amqpBatchedSettlement = batchedSettlement;
+    }
+
+    /**
+     * Getter for whether a lost AMQP connection is replaced by a new one
+     * opened in parallel.
+     *
+     * @return {@code true} if the fast recovery is enabled, and {@code false} otherwise.
+     */
+    public boolean isAmqpFastRecovery()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_21_012: [The function shall return the value of amqpFastRecovery, which is false by default.]
+        return this.amqpFastRecovery;
+    }
+
+    /**
+     * Setter for whether a lost AMQP connection is replaced by a new one
+     * opened in parallel.
+     *
+     * @param fastRecovery {@code true} to enable the fast recovery.
+     */
+    public void setAmqpFastRecovery(boolean fastRecovery)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_21_013: [The function shall set the value of amqpFastRecovery.]
+        this.amqpFastRecovery = fastRecovery;
+    }
+
+    /**
+     * Getter for whether the AMQP connection is authenticated by claims-based
+     * security.
+     *
+     * @return {@code true} if claims-based security is enabled, and {@code false} otherwise.
+     */
+    public boolean isAmqpCbsAuthentication()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_21_014: [The function shall return the value of amqpCbsAuthentication, which is false by default.]
+        return this.amqpCbsAuthentication;
+    }
+
+    /**
+     * Setter for whether the AMQP connection is authenticated by claims-based
+     * security.
+     *
+     * @param cbsAuthentication {@code true} to enable claims-based security.
+     */
+    public void setAmqpCbsAuthentication(boolean cbsAuthentication)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_21_015: [The function shall set the value of amqpCbsAuthentication.]
+        this.amqpCbsAuthentication = cbsAuthentication;
+    }
+
+    /**
+     * Getter for whether the AMQP connection is driven by the event loops
+     * shared by all the connections in the process.
+     *
+     * @return {@code true} if the shared event loop is enabled, and {@code false} otherwise.
+     */
+    public boolean isAmqpSharedEventLoop()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_21_016: [The function shall return the value of amqpSharedEventLoop, which is false by default.]
+        return this.amqpSharedEventLoop;
+    }
+
+    /**
+     * Setter for whether the AMQP connection is driven by the event loops
+     * shared by all the connections in the process.
+     *
+     * @param sharedEventLoop {@code true} to enable the shared event loop.
+     */
+    public void setAmqpSharedEventLoop(boolean sharedEventLoop)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_21_017: [The function shall set the value of amqpSharedEventLoop.]
+        this.amqpSharedEventLoop = sharedEventLoop;
+    }
+
+    /**
+     * Getter for the file the device twin saves its replica of the desired
+     * properties to.
+     *
+     * @return the path of the twin replica, or {@code null} if it is kept only in memory.
+     */
+    public String getTwinReplicaPath()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_21_041: [The function shall return the value of twinReplicaPath, which is null by default.]
+        return this.twinReplicaPath;
+    }
+
+    /**
+     * Setter for the file the device twin saves its replica of the desired
+     * properties to.
+     *
+     * @param path the path of the twin replica, or {@code null} to keep it only in memory.
+     */
+    public void setTwinReplicaPath(String path)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_21_042: [The function shall set the value of twinReplicaPath.]
+        this.twinReplicaPath = path;
+    }
+
+    /**
+     * Getter for the maximum time, in milliseconds, the HTTPS transport backs
+     * off between polls for messages while the device is idle.
+     *
+     * @return the maximum polling interval, or 0 if the transport polls on
+     * every receive period.
+     */
+    public long getHttpsMaxPollingIntervalMillis()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_21_019: [The function shall return the value of httpsMaxPollingIntervalMillis, which is 0 by default.]
+        return this.httpsMaxPollingIntervalMillis;
+    }
+
+    /**
+     * Setter for the maximum time, in milliseconds, the HTTPS transport backs
+     * off between polls for messages while the device is idle.
+     *
+     * @param maxPollingIntervalMillis the maximum polling interval, or 0 to
+     * poll on every receive period.
+     * @throws IllegalArgumentException if the interval is negative.
+     */
+    public void setHttpsMaxPollingIntervalMillis(long maxPollingIntervalMillis)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_21_020: [If the interval is negative, the function shall throw an IllegalArgumentException.]
+        if (maxPollingIntervalMillis < 0)
+        {
+            throw new IllegalArgumentException("HTTPS maximum polling interval cannot be negative, but was " + maxPollingIntervalMillis);
+        }
+
+        // Codes_SRS_DEVICECLIENTCONFIG_21_021: [The function shall set the value of httpsMaxPollingIntervalMillis.]
+        this.httpsMaxPollingIntervalMillis = maxPollingIntervalMillis;
+    }
+
+    /**
+     * Getter for the maximum size, in bytes, of a batched HTTPS request.
+     *
+     * @return the maximum size of a batch, or 0 if only the IoT Hub message
+     * size limit bounds it.
+     */
+    public int getHttpsBatchMaxBytes()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_21_022: [The function shall return the value of httpsBatchMaxBytes, which is 0 by default.]
+        return this.httpsBatchMaxBytes;
+    }
+
+    /**
+     * Setter for the maximum size, in bytes, of a batched HTTPS request.
+     *
+     * @param maxBytes the maximum size of a batch, or 0 to bound it by the IoT
+     * Hub message size limit only.
+     * @throws IllegalArgumentException if the size is negative.
+     */
+    public void setHttpsBatchMaxBytes(int maxBytes)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_21_023: [If the size is negative, the function shall throw an IllegalArgumentException.]
+        if (maxBytes < 0)
+        {
+            throw new IllegalArgumentException("HTTPS batch size cannot be negative, but was " + maxBytes);
+        }
+
+        // Codes_SRS_DEVICECLIENTCONFIG_21_024: [The function shall set the value of httpsBatchMaxBytes.]
+        this.httpsBatchMaxBytes = maxBytes;
+    }
+
+    /**
+     * Getter for the maximum number of messages in a batched HTTPS request.
+     *
+     * @return the maximum number of messages in a batch, or 0 if it is not bounded.
+     */
+    public int getHttpsBatchMaxMessages()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_21_025: [The function shall return the value of httpsBatchMaxMessages, which is 0 by default.]
+        return this.httpsBatchMaxMessages;
+    }
+
+    /**
+     * Setter for the maximum number of messages in a batched HTTPS request.
+     *
+     * @param maxMessages the maximum number of messages in a batch, or 0 not
+     * to bound it.
+     * @throws IllegalArgumentException if the number of messages is negative.
+     */
+    public void setHttpsBatchMaxMessages(int maxMessages)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_21_026: [If the number of messages is negative, the function shall throw an IllegalArgumentException.]
+        if (maxMessages < 0)
+        {
+            throw new IllegalArgumentException("HTTPS batch message count cannot be negative, but was " + maxMessages);
+        }
+
+        // Codes_SRS_DEVICECLIENTCONFIG_21_027: [The function shall set the value of httpsBatchMaxMessages.]
+        this.httpsBatchMaxMessages = maxMessages;
+    }
+
+    /**
+     * Getter for the time, in milliseconds, the HTTPS transport waits for more
+     * messages to fill a batch.
+     *
+     * @return the linger time of a batch.
+     */
+    public long getHttpsBatchLingerMillis()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_21_028: [The function shall return the value of httpsBatchLingerMillis, which is 0 by default.]
+        return this.httpsBatchLingerMillis;
+    }
+
+    /**
+     * Setter for the time, in milliseconds, the HTTPS transport waits for more
+     * messages to fill a batch.
+     *
+     * @param lingerMillis the linger time of a batch.
+     * @throws IllegalArgumentException if the linger time is negative.
+     */
+    public void setHttpsBatchLingerMillis(long lingerMillis)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_21_029: [If the linger time is negative, the function shall throw an IllegalArgumentException.]
+        if (lingerMillis < 0)
+        {
+            throw new IllegalArgumentException("HTTPS batch linger time cannot be negative, but was " + lingerMillis);
+        }
+
+        // Codes_SRS_DEVICECLIENTCONFIG_21_030: [The function shall set the value of httpsBatchLingerMillis.]
+        this.httpsBatchLingerMillis = lingerMillis;
+    }
+
+    /**
+     * Getter for the content encoding the HTTPS transport compresses the
+     * events with.
+     *
+     * @return the content encoding of the events.
+     */
+    public HttpsContentEncoding getHttpsContentEncoding()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_21_031: [The function shall return the value of httpsContentEncoding, which is IDENTITY by default.]
+        return this.httpsContentEncoding;
+    }
+
+    /**
+     * Setter for the content encoding the HTTPS transport compresses the
+     * events with.
+     *
+     * @param contentEncoding the content encoding of the events.
+     * @throws IllegalArgumentException if the content encoding is {@code null}.
+     */
+    public void setHttpsContentEncoding(HttpsContentEncoding contentEncoding)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_21_032: [If the content encoding is null, the function shall throw an IllegalArgumentException.]
+        if (contentEncoding == null)
+        {
+            throw new IllegalArgumentException("HTTPS content encoding cannot be null.");
+        }
+
+        // Codes_SRS_DEVICECLIENTCONFIG_21_033: [The function shall set the value of httpsContentEncoding.]
+        this.httpsContentEncoding = contentEncoding;
+    }
+
     /**
      * Getter for the timeout, in milliseconds, after a connection is
      * established for the server to respond to the request.
@@ -344,12 +839,103 @@ public final class DeviceClientConfig
     public String getPathToCertificate()
     {
         if (this.pathToCertificate  == null) {
-            DefaultCertificate cert = new DefaultCertificate();
-            this.pathToCertificate = cert.getDefaultCertificate();
+            // Codes_SRS_DEVICECLIENTCONFIG_21_018: [If no certificate path was set, the function shall return the
+            // default certificate shared by all the clients in the process, writing it again only if its file was removed.]
+            return getDefaultCertificatePath();
         }
         return this.pathToCertificate;
     }
 
+    /**
+     * Setter for the TLS context used by the HTTPS, MQTT and AMQP connections.
+     * Clients given the same context share its TLS session cache, so their
+     * connections resume sessions instead of doing full handshakes.
+     *
+     * @param sslContext the initialized TLS context, or {@code null} to use the
+     * context shared by all the clients trusting the same certificates.
+     */
+    public void setSslContext(SSLContext sslContext)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_21_037: [The function shall set the TLS context, where null restores
+        // the shared context of the trusted certificate.]
+        this.sslContext = sslContext;
+    }
+
+    /**
+     * Getter for the TLS context used by the HTTPS and MQTT connections.
+     *
+     * @return the TLS context set by {@link #setSslContext(SSLContext)} or, if
+     * none, the context shared by all the clients trusting the certificate set
+     * by {@link #setPathToCert(String)} or, if none, the default context of the
+     * Java runtime, which honors the {@code javax.net.ssl.trustStore} system
+     * property.
+     * @throws IOException if the trusted certificate cannot be loaded.
+     */
+    public SSLContext getSslContext() throws IOException
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_21_038: [If a TLS context was set, the function shall return it.]
+        if (this.sslContext != null)
+        {
+            return this.sslContext;
+        }
+
+        // Codes_SRS_DEVICECLIENTCONFIG_21_039: [Otherwise, if a certificate path was set, the function shall
+        // return the context cached in the SslContextCache for the trusted certificate.]
+        if (this.pathToCertificate != null)
+        {
+            return SslContextCache.getInstance().getSslContext(this.pathToCertificate);
+        }
+
+        // Codes_SRS_DEVICECLIENTCONFIG_21_043: [Otherwise, the function shall return the default context of the
+        // Java runtime from the SslContextCache.]
+        return SslContextCache.getInstance().getDefaultSslContext();
+    }
+
+    /**
+     * Getter for the TLS context used by the AMQP connections, which trust
+     * the default certificate if no certificate path was set.
+     *
+     * @return the TLS context set by {@link #setSslContext(SSLContext)} or, if
+     * none, the context shared by all the clients trusting the certificate in
+     * {@link #getPathToCertificate()}.
+     * @throws IOException if the trusted certificate cannot be loaded.
+     */
+    public SSLContext getAmqpsSslContext() throws IOException
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_21_044: [If a TLS context was set, the function shall return it.]
+        if (this.sslContext != null)
+        {
+            return this.sslContext;
+        }
+
+        // Codes_SRS_DEVICECLIENTCONFIG_21_045: [Otherwise, the function shall return the context cached in the
+        // SslContextCache for the certificate in the certificate path, or the default certificate if none was set.]
+        return SslContextCache.getInstance().getSslContext(this.getPathToCertificate());
+    }
+
+    /**
+     * Getter for the socket factory of the TLS context, shared by all the
+     * clients using the same context so their HTTPS connections stay reusable.
+     *
+     * @return the socket factory of {@link #getSslContext()}.
+     * @throws IOException if the trusted certificate cannot be loaded.
+     */
+    public SSLSocketFactory getSslSocketFactory() throws IOException
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_21_040: [The function shall return the socket factory cached in the
+        // SslContextCache for the TLS context.]
+        return SslContextCache.getInstance().getSocketFactory(this.getSslContext());
+    }
+
+    private static synchronized String getDefaultCertificatePath()
+    {
+        if (defaultCertificatePath == null || !new File(defaultCertificatePath).isFile()) {
+            DefaultCertificate cert = new DefaultCertificate();
+            defaultCertificatePath = cert.getDefaultCertificate();
+        }
+        return defaultCertificatePath;
+    }
+
     protected DeviceClientConfig()
     {
         this.iotHubHostname = null;
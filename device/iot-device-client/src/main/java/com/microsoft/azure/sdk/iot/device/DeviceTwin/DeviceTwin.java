@@ -20,9 +20,17 @@ public class DeviceTwin
     private DeviceClient deviceClient = null;
     private DeviceClientConfig config = null;
     private boolean isSubscribed = false;
+    private TwinReplica twinReplica = null;
+    private int resyncRetries = 0;
+    private CustomLogger logger = new CustomLogger(this.getClass());
 
     private Object DEVICE_TWIN_LOCK = new Object();
 
+    /*
+        Number of times in a row the twin is requested again while the patches kept by the replica do not follow it
+     */
+    private static final int MAX_RESYNC_RETRIES = 3;
+
     /*
         Callback to respond to user on all of its status
      */
@@ -161,7 +169,43 @@ public class DeviceTwin
                             /*
                             **Codes_SRS_DEVICETWIN_25_030: [**If the message is of type DeviceTwin and DEVICE_OPERATION_TWIN_GET_RESPONSE then the payload is deserialized by calling updateTwin only if the status is ok.**]**
                              */
-                            twinObject.updateTwin(new String(dtMessage.getBytes(), Message.DEFAULT_IOTHUB_MESSAGE_CHARSET));
+                            String twinJson = new String(dtMessage.getBytes(), Message.DEFAULT_IOTHUB_MESSAGE_CHARSET);
+                            twinObject.updateTwin(twinJson);
+
+                            /*
+                            **Codes_SRS_DEVICETWIN_21_032: [**If the status is ok, the twin replica shall be replaced by the payload, and the desired property patches received during the resync that follow it shall be deserialized by calling updateDesiredProperty.**]**
+                             */
+                            for (String desiredPatch : twinReplica.replaceDesired(twinJson))
+                            {
+                                twinObject.updateDesiredProperty(desiredPatch);
+                            }
+
+                            /*
+                            **Codes_SRS_DEVICETWIN_21_033: [**If patches received during the resync still do not follow the twin replica, the twin shall be requested again by calling getDeviceTwin, up to 3 times in a row.**]**
+                             */
+                            if (!twinReplica.hasGap())
+                            {
+                                resyncRetries = 0;
+                            }
+                            else if (resyncRetries < MAX_RESYNC_RETRIES)
+                            {
+                                resyncRetries++;
+                                getDeviceTwin();
+                            }
+                            else
+                            {
+                                /*
+                                **Codes_SRS_DEVICETWIN_21_041: [**If the twin was requested again 3 times in a row, it shall not be requested again until a desired property patch is out of sequence.**]**
+                                 */
+                                logger.LogWarn("Desired property patches still do not follow the twin after %d requests, waiting for the next patch, method name is %s ", MAX_RESYNC_RETRIES, logger.getMethodName());
+                            }
+                        }
+                        else
+                        {
+                            /*
+                            **Codes_SRS_DEVICETWIN_21_034: [**If the status is not ok, the resync of the twin replica shall be cancelled, to be started again by the next desired property patch out of sequence.**]**
+                             */
+                            twinReplica.cancelResync();
                         }
                         break;
                     }
@@ -184,7 +228,27 @@ public class DeviceTwin
                         **Codes_SRS_DEVICETWIN_25_026: [**If the message is of type DeviceTwin and DEVICE_OPERATION_TWIN_SUBSCRIBE_DESIRED_PROPERTIES_RESPONSE then the payload is deserialized by calling updateDesiredProperty.**]**
                          */
                         isSubscribed = true;
-                        twinObject.updateDesiredProperty(new String(dtMessage.getBytes(), Message.DEFAULT_IOTHUB_MESSAGE_CHARSET));
+                        String desiredPatch = new String(dtMessage.getBytes(), Message.DEFAULT_IOTHUB_MESSAGE_CHARSET);
+
+                        /*
+                        **Codes_SRS_DEVICETWIN_21_035: [**The desired property patch shall be deserialized only if the twin replica applies it, as the next version of the replica or a patch without version.**]**
+                         */
+                        /*
+                        **Codes_SRS_DEVICETWIN_21_036: [**If the desired property patch is not the next version of the twin replica, the twin shall be requested by calling getDeviceTwin to resync the replica.**]**
+                         */
+                        switch (twinReplica.applyDesiredPatch(desiredPatch, dtMessage.getVersion()))
+                        {
+                            case APPLIED:
+                                twinObject.updateDesiredProperty(desiredPatch);
+                                break;
+                            case GAP:
+                                logger.LogInfo("Desired property patch out of sequence, requesting the twin to resync, method name is %s ", logger.getMethodName());
+                                resyncRetries = 0;
+                                getDeviceTwin();
+                                break;
+                            default:
+                                break;
+                        }
 
                         break;
                     }
@@ -261,6 +325,47 @@ public class DeviceTwin
         **Codes_SRS_DEVICETWIN_25_020: [**OnDesiredPropertyChange callback is registered with the serializer to be triggered when desired property changes.**]**
          */
         this.twinObject = new Twin(new OnDesiredPropertyChanged(), new OnReportedPropertyChanged());
+
+        /*
+        **Codes_SRS_DEVICETWIN_21_037: [**The constructor shall create the twin replica of the desired properties, saved to the twin replica path of the config if it is not null.**]**
+         */
+        this.twinReplica = new TwinReplica(config.getTwinReplicaPath());
+    }
+
+    /**
+     * Restores the desired properties from the twin replica saved by a
+     * previous run, instead of requesting the full twin.
+     *
+     * @return {@code true} if the twin was restored, and {@code false} if there
+     * is no replica to restore, so the twin shall be requested.
+     */
+    public boolean restoreTwinReplica()
+    {
+        try
+        {
+            /*
+            **Codes_SRS_DEVICETWIN_21_038: [**If the twin replica cannot be loaded from its file, the method shall return false.**]**
+             */
+            if (!this.twinReplica.load())
+            {
+                return false;
+            }
+        }
+        catch (IOException e)
+        {
+            logger.LogError("Cannot restore the twin replica: %s, method name is %s ", e.getMessage(), logger.getMethodName());
+            return false;
+        }
+
+        synchronized (DEVICE_TWIN_LOCK)
+        {
+            /*
+            **Codes_SRS_DEVICETWIN_21_039: [**The method shall deserialize the twin replica by calling updateTwin, call the user status callback with OK as for a twin response, and return true.**]**
+             */
+            this.twinObject.updateTwin(this.twinReplica.toJson());
+            this.deviceTwinStatusCallback.execute(IotHubStatusCode.OK, this.deviceTwinStatusCallbackContext);
+        }
+        return true;
     }
 
 
@@ -281,6 +386,11 @@ public class DeviceTwin
          */
         getTwinRequestMessage.setDeviceOperationType(DeviceOperations.DEVICE_OPERATION_TWIN_GET_REQUEST);
 
+        /*
+        **Codes_SRS_DEVICETWIN_21_040: [**This method shall start a resync of the twin replica, which keeps the desired property patches received until the response.**]**
+         */
+        this.twinReplica.startResync();
+
         /*
         **Codes_SRS_DEVICETWIN_25_008: [**This method shall send the message to the lower transport layers by calling sendEventAsync.**]**
          */
@@ -0,0 +1,454 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.DeviceTwin;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.microsoft.azure.sdk.iot.device.CustomLogger;
+import com.microsoft.azure.sdk.iot.device.Message;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Local replica of the desired properties of the device twin, kept at the
+ * version of the last patch applied to it.
+ * <p>
+ *     The IoT Hub numbers the desired property patches with consecutive
+ *     versions, so a patch is applied only if it is the next version of the
+ *     replica. An older patch is a duplicate and is ignored, and a newer one
+ *     reveals a missed patch, so the replica asks for a resync with a full
+ *     twin request. The patches received while the resync is in progress are
+ *     kept, and the ones newer than the full twin are applied after it.
+ * </p>
+ * <p>
+ *     If a path is given, the replica is saved to that file on each change, so
+ *     a device can restore it on restart instead of requesting the full twin.
+ *     The device identity may have been re-created since the replica was saved,
+ *     which restarts the versions of the twin. So until a patch or a full twin
+ *     confirms a restored replica, a patch older than it asks for a resync
+ *     instead of being ignored.
+ * </p>
+ */
+public final class TwinReplica
+{
+    /** The outcome of {@link #applyDesiredPatch(String, String)}. */
+    public enum PatchResult
+    {
+        /** The patch was applied to the replica. */
+        APPLIED,
+        /** The patch is not newer than the replica, and was ignored. */
+        STALE,
+        /** A resync is in progress, and the patch was kept until it completes. */
+        BUFFERED,
+        /** The patch is not the next version of the replica, and a resync is needed. */
+        GAP
+    }
+
+    private static final String PROPERTIES = "properties";
+    private static final String DESIRED = "desired";
+    private static final String VERSION = "$version";
+
+    /** The maximum number of patches kept while a resync is in progress. */
+    private static final int MAX_PENDING_PATCHES = 64;
+
+    private final Path path;
+    private final TreeMap<Integer, JsonObject> pendingPatches = new TreeMap<>();
+    private final CustomLogger logger = new CustomLogger(this.getClass());
+
+    private JsonObject desired = new JsonObject();
+    private Integer version;
+    private boolean resyncInProgress;
+    private boolean unconfirmed;
+
+    /**
+     * Constructor.
+     *
+     * @param path the file to save the replica to, or {@code null} to keep it
+     *             only in memory.
+     */
+    public TwinReplica(String path)
+    {
+        /*
+        **Codes_SRS_TWINREPLICA_21_001: [**The constructor shall create an empty replica, saved to the file in path if it is not null.**]**
+         */
+        this.path = (path == null) ? null : Paths.get(path);
+    }
+
+    /**
+     * Restores the replica from its file.
+     *
+     * @return {@code true} if the replica was restored with a version, and
+     * {@code false} if it is kept only in memory or its file does not exist.
+     * @throws IOException if the file cannot be read or is not a valid replica.
+     */
+    public synchronized boolean load() throws IOException
+    {
+        /*
+        **Codes_SRS_TWINREPLICA_21_002: [**If the replica has no file, or the file does not exist, the function shall return false.**]**
+         */
+        if ((this.path == null) || !Files.isRegularFile(this.path))
+        {
+            return false;
+        }
+
+        /*
+        **Codes_SRS_TWINREPLICA_21_003: [**The function shall restore the desired properties and their version from the file, and return true if the version is known.**]**
+         */
+        /*
+        **Codes_SRS_TWINREPLICA_21_004: [**If the file is not a valid replica, the function shall throw IOException.**]**
+         */
+        String json = new String(Files.readAllBytes(this.path), Message.DEFAULT_IOTHUB_MESSAGE_CHARSET);
+        JsonObject restored;
+        try
+        {
+            restored = parseObject(json).getAsJsonObject(DESIRED);
+        }
+        catch (IllegalArgumentException | ClassCastException e)
+        {
+            throw new IOException("The twin replica file " + this.path + " is not valid.", e);
+        }
+        if (restored == null)
+        {
+            throw new IOException("The twin replica file " + this.path + " has no desired properties.");
+        }
+        this.desired = restored;
+        this.version = versionOf(restored);
+        this.unconfirmed = (this.version != null);
+        return this.version != null;
+    }
+
+    /**
+     * Marks a resync in progress, until {@link #replaceDesired(String)} or
+     * {@link #cancelResync()} is called. The patches received meanwhile are kept.
+     */
+    public synchronized void startResync()
+    {
+        /*
+        **Codes_SRS_TWINREPLICA_21_005: [**The function shall mark a resync in progress.**]**
+         */
+        this.resyncInProgress = true;
+    }
+
+    /**
+     * Ends the resync in progress without a full twin, i.e. when the twin
+     * request failed. The kept patches are applied by the next resync.
+     */
+    public synchronized void cancelResync()
+    {
+        /*
+        **Codes_SRS_TWINREPLICA_21_006: [**The function shall end the resync in progress, keeping the patches received meanwhile.**]**
+         */
+        this.resyncInProgress = false;
+    }
+
+    /**
+     * Replaces the desired properties with the ones of a full twin, and applies
+     * the kept patches that follow it.
+     *
+     * @param twinJson the full twin, with the desired properties at its root, or
+     *                 in its {@code desired} or {@code properties.desired} member.
+     * @return the kept patches applied after the full twin, in version order.
+     * @throws IllegalArgumentException if the twin is not a JSON object.
+     */
+    public synchronized List<String> replaceDesired(String twinJson)
+    {
+        /*
+        **Codes_SRS_TWINREPLICA_21_007: [**The function shall end the resync in progress.**]**
+         */
+        this.resyncInProgress = false;
+        List<String> appliedPatches = new ArrayList<>();
+
+        /*
+        **Codes_SRS_TWINREPLICA_21_008: [**If the twin is null or empty, the function shall not change the replica.**]**
+         */
+        if ((twinJson == null) || twinJson.isEmpty())
+        {
+            return appliedPatches;
+        }
+
+        /*
+        **Codes_SRS_TWINREPLICA_21_009: [**The function shall replace the desired properties and their version with the ones of the twin.**]**
+         */
+        JsonObject twin = parseObject(twinJson);
+        JsonElement twinProperties = twin.get(PROPERTIES);
+        if ((twinProperties != null) && twinProperties.isJsonObject())
+        {
+            twin = twinProperties.getAsJsonObject();
+        }
+        JsonElement twinDesired = twin.get(DESIRED);
+        this.desired = ((twinDesired != null) && twinDesired.isJsonObject()) ? twinDesired.getAsJsonObject() : twin;
+        this.version = versionOf(this.desired);
+        this.unconfirmed = false;
+
+        /*
+        **Codes_SRS_TWINREPLICA_21_010: [**The function shall drop the kept patches not newer than the twin, apply the ones that follow it consecutively, and return them.**]**
+         */
+        if (this.version != null)
+        {
+            Iterator<Map.Entry<Integer, JsonObject>> patches = this.pendingPatches.entrySet().iterator();
+            while (patches.hasNext())
+            {
+                Map.Entry<Integer, JsonObject> patch = patches.next();
+                if (patch.getKey() > this.version + 1)
+                {
+                    break;
+                }
+                if (patch.getKey() == this.version + 1)
+                {
+                    merge(this.desired, patch.getValue());
+                    this.desired.addProperty(VERSION, patch.getKey());
+                    this.version = patch.getKey();
+                    appliedPatches.add(patch.getValue().toString());
+                }
+                patches.remove();
+            }
+        }
+
+        /*
+        **Codes_SRS_TWINREPLICA_21_011: [**The function shall save the replica to its file, if any.**]**
+         */
+        this.save();
+        return appliedPatches;
+    }
+
+    /**
+     * Applies a desired property patch if it is the next version of the replica.
+     *
+     * @param patchJson the patch, as received from the IoT Hub.
+     * @param patchVersion the version of the patch given by the transport, or
+     *                     {@code null} to use the {@code $version} of the patch.
+     * @return the outcome of the patch.
+     * @throws IllegalArgumentException if the patch is not a JSON object.
+     */
+    public synchronized PatchResult applyDesiredPatch(String patchJson, String patchVersion)
+    {
+        /*
+        **Codes_SRS_TWINREPLICA_21_020: [**If the patch is null or empty, the function shall not change the replica and return APPLIED, as a patch without version.**]**
+         */
+        if ((patchJson == null) || patchJson.isEmpty())
+        {
+            return PatchResult.APPLIED;
+        }
+
+        JsonObject patch = parseObject(patchJson);
+        Integer version = versionOf(patch);
+        if (patchVersion != null)
+        {
+            try
+            {
+                version = Integer.valueOf(patchVersion);
+            }
+            catch (NumberFormatException e)
+            {
+                throw new IllegalArgumentException("Invalid patch version " + patchVersion, e);
+            }
+        }
+
+        if (version == null)
+        {
+            /*
+            **Codes_SRS_TWINREPLICA_21_012: [**If the patch has no version, the function shall apply it and return APPLIED.**]**
+             */
+            merge(this.desired, patch);
+            this.save();
+            return PatchResult.APPLIED;
+        }
+
+        if (this.resyncInProgress)
+        {
+            /*
+            **Codes_SRS_TWINREPLICA_21_013: [**If a resync is in progress, the function shall keep the patch and return BUFFERED.**]**
+             */
+            this.keepPatch(version, patch);
+            return PatchResult.BUFFERED;
+        }
+
+        if (this.unconfirmed && (version < this.version))
+        {
+            /*
+            **Codes_SRS_TWINREPLICA_21_021: [**If the replica was restored from its file and no patch or twin confirmed it since, and the patch is older than the replica, the function shall keep the patch and return GAP, as the twin may have been re-created.**]**
+             */
+            logger.LogInfo("Desired property patch %d is older than the restored twin replica %d, the twin may have been re-created", version, this.version);
+            this.keepPatch(version, patch);
+            return PatchResult.GAP;
+        }
+
+        if ((this.version != null) && (version <= this.version))
+        {
+            /*
+            **Codes_SRS_TWINREPLICA_21_014: [**If the patch is not newer than the replica, the function shall ignore it and return STALE.**]**
+             */
+            return PatchResult.STALE;
+        }
+
+        if ((this.version != null) && (version == this.version + 1))
+        {
+            /*
+            **Codes_SRS_TWINREPLICA_21_015: [**If the patch is the next version of the replica, the function shall apply it, save the replica and return APPLIED.**]**
+             */
+            merge(this.desired, patch);
+            this.desired.addProperty(VERSION, version);
+            this.version = version;
+            this.unconfirmed = false;
+            this.save();
+            return PatchResult.APPLIED;
+        }
+
+        /*
+        **Codes_SRS_TWINREPLICA_21_016: [**Otherwise, the function shall keep the patch and return GAP.**]**
+         */
+        this.keepPatch(version, patch);
+        return PatchResult.GAP;
+    }
+
+    /**
+     * Returns whether kept patches are waiting for a resync that did not apply
+     * them, i.e. because a patch between them and the full twin was missed.
+     *
+     * @return {@code true} if a resync is needed to apply the kept patches.
+     */
+    public synchronized boolean hasGap()
+    {
+        /*
+        **Codes_SRS_TWINREPLICA_21_017: [**The function shall return true if no resync is in progress and patches are kept.**]**
+         */
+        return !this.resyncInProgress && !this.pendingPatches.isEmpty();
+    }
+
+    /**
+     * Returns the version of the replica.
+     *
+     * @return the version of the last patch or full twin applied, or
+     * {@code null} if unknown.
+     */
+    public synchronized Integer getDesiredVersion()
+    {
+        /*
+        **Codes_SRS_TWINREPLICA_21_018: [**The function shall return the version of the replica, or null if unknown.**]**
+         */
+        return this.version;
+    }
+
+    /**
+     * Serializes the replica as a twin with its desired properties.
+     *
+     * @return the JSON of the replica, i.e. {@code {"desired":{...,"$version":3}}}.
+     */
+    public synchronized String toJson()
+    {
+        /*
+        **Codes_SRS_TWINREPLICA_21_019: [**The function shall return the replica as a twin JSON with the desired properties.**]**
+         */
+        JsonObject twin = new JsonObject();
+        twin.add(DESIRED, this.desired);
+        return twin.toString();
+    }
+
+    private void keepPatch(int version, JsonObject patch)
+    {
+        if (this.pendingPatches.size() < MAX_PENDING_PATCHES)
+        {
+            this.pendingPatches.put(version, patch);
+        }
+        else
+        {
+            logger.LogWarn("Dropped the desired property patch %d, too many patches wait for a resync", version);
+        }
+    }
+
+    /** Saves the replica to a temporary file moved over its file, so a crash does not leave it truncated. */
+    private void save()
+    {
+        if (this.path == null)
+        {
+            return;
+        }
+
+        Path temporary = this.path.resolveSibling(this.path.getFileName() + ".tmp");
+        try
+        {
+            Files.write(temporary, this.toJson().getBytes(Message.DEFAULT_IOTHUB_MESSAGE_CHARSET));
+            try
+            {
+                Files.move(temporary, this.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException e)
+            {
+                Files.move(temporary, this.path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        catch (IOException e)
+        {
+            // the replica in memory is still valid, the device requests the full twin on restart.
+            logger.LogError("Failed to save the twin replica to %s: %s", this.path, e.getMessage());
+        }
+    }
+
+    /** Applies a JSON merge patch: null members are removed, objects are merged, and other values replaced. */
+    private static void merge(JsonObject target, JsonObject patch)
+    {
+        for (Map.Entry<String, JsonElement> member : patch.entrySet())
+        {
+            JsonElement value = member.getValue();
+            JsonElement current = target.get(member.getKey());
+            if (value.isJsonNull())
+            {
+                target.remove(member.getKey());
+            }
+            else if (value.isJsonObject())
+            {
+                if ((current == null) || !current.isJsonObject())
+                {
+                    current = new JsonObject();
+                    target.add(member.getKey(), current);
+                }
+                merge(current.getAsJsonObject(), value.getAsJsonObject());
+            }
+            else
+            {
+                target.add(member.getKey(), value);
+            }
+        }
+    }
+
+    private static Integer versionOf(JsonObject properties)
+    {
+        JsonElement version = properties.get(VERSION);
+        if ((version == null) || !version.isJsonPrimitive() || !version.getAsJsonPrimitive().isNumber())
+        {
+            return null;
+        }
+        return version.getAsInt();
+    }
+
+    private static JsonObject parseObject(String json)
+    {
+        JsonElement element;
+        try
+        {
+            element = new JsonParser().parse(json);
+        }
+        catch (JsonParseException e)
+        {
+            throw new IllegalArgumentException("Malformed json: " + e.getMessage(), e);
+        }
+        if (!element.isJsonObject())
+        {
+            throw new IllegalArgumentException("The json is not an object.");
+        }
+        return element.getAsJsonObject();
+    }
+}
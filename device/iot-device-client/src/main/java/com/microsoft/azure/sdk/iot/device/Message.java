@@ -5,9 +5,11 @@ package com.microsoft.azure.sdk.iot.device;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Message
 {
@@ -15,6 +17,21 @@ public class Message
 
     public static final Charset DEFAULT_IOTHUB_MESSAGE_CHARSET = StandardCharsets.UTF_8;
 
+    /**
+     * Prefix of the generated IDs, random for each process, so IDs generated by
+     * different processes do not collide.
+     */
+    private static final String GENERATED_ID_PREFIX = UUID.randomUUID().toString() + "-";
+
+    /** Sequence number of the last ID generated in this process. */
+    private static final AtomicLong generatedIdSequence = new AtomicLong();
+
+    /** If true, the messages without a messageId or correlationId get a generated one. */
+    private static volatile boolean autoGenerateIds = true;
+
+    /** Logger shared by the messages of this class, so a message does not create its own. */
+    private static final CustomLogger messageLogger = new CustomLogger(Message.class);
+
 
     // ----- Data Fields -----
 
@@ -26,6 +43,11 @@ public class Message
      */
     private String messageId;
 
+    /**
+     * True until the messageId is set, while the getter may generate it.
+     */
+    private boolean generateMessageId;
+
     /// <summary>
     /// Destination of the message
     /// </summary>
@@ -36,16 +58,16 @@ public class Message
     /// </summary>
     private long expiryTime;
 
-    /// <summary>
-    /// Used by receiver to Abandon, Reject or Complete the message
-    /// </summary>
-    private String lockToken;
-
     /// <summary>
     /// Used in message responses and feedback
     /// </summary>
     private String correlationId;
 
+    /**
+     * True until the correlationId is set, while the getter may generate it.
+     */
+    private boolean generateCorrelationId;
+
     /// <summary>
     /// [Required in feedback messages] Used to specify the entity creating the message.
     /// </summary>
@@ -108,19 +130,33 @@ public class Message
     private MessageType messageType;
 
     /**
-     * User-defined properties.
+     * [Optional] The content type of the body, i.e. "application/json", sent
+     * as the system property that IoT Hub routing and consumers read.
      */
-    private ArrayList<MessageProperty> properties;
+    private String contentType;
 
-    /// <summary>
-    /// The message body
-    /// </summary>
-    private byte[] body;
+    /**
+     * [Optional] The content encoding of the body, i.e. "utf-8".
+     */
+    private String contentEncoding;
 
     /**
-     * Stream that will provide the bytes for the body of the
+     * User-defined properties, indexed by their lower case name, in the order
+     * they were set. Created on the first property set.
      */
-    private ByteArrayInputStream bodyStream;
+    private LinkedHashMap<String, MessageProperty> properties;
+
+    /**
+     * Read only view of the user-defined properties.
+     */
+    private Collection<MessageProperty> propertiesView;
+
+    /**
+     * The message body, from position 0 to its limit. It shares the content of
+     * the array or buffer the message was created with.
+     */
+    private ByteBuffer body;
+
     private CustomLogger logger;
 
     // ----- Constructors -----
@@ -135,10 +171,43 @@ public class Message
     /**
      * Constructor.
      * @param stream A stream to provide the body of the new Message instance.
+     *               The bytes available in the stream are read into the body.
      */
     public Message(ByteArrayInputStream stream)
     {
+        // Codes_SRS_MESSAGE_21_007: [If the message body is null, the constructor shall throw an IllegalArgumentException.]
+        if (stream == null) {
+            throw new IllegalArgumentException("Message body cannot be 'null'.");
+        }
+
         initialize();
+
+        // Codes_SRS_MESSAGE_21_009: [The constructor shall read the bytes available in the stream into the message body.]
+        byte[] streamBytes = new byte[stream.available()];
+        int length = stream.read(streamBytes, 0, streamBytes.length);
+        this.body = ByteBuffer.wrap(streamBytes, 0, Math.max(length, 0)).slice();
+    }
+
+    /**
+     * Constructor. The body is not copied: the message keeps a view of the
+     * bytes of the buffer from its position to its limit, so a read only,
+     * direct or memory-mapped buffer is handed as is to the transport. The
+     * content of the buffer shall not be changed until the message is sent;
+     * its position and limit may.
+     * @param body The body of the new Message instance.
+     */
+    public Message(ByteBuffer body)
+    {
+        // Codes_SRS_MESSAGE_21_007: [If the message body is null, the constructor shall throw an IllegalArgumentException.]
+        if (body == null) {
+            throw new IllegalArgumentException("Message body cannot be 'null'.");
+        }
+
+        initialize();
+
+        // Codes_SRS_MESSAGE_21_008: [The constructor shall save a view of the buffer from its position to its
+        // limit, without copying it.]
+        this.body = body.slice();
     }
 
     /**
@@ -154,7 +223,7 @@ public class Message
         initialize();
 
         // Codes_SRS_MESSAGE_11_024: [The constructor shall save the message body.]
-        this.body = body;
+        this.body = ByteBuffer.wrap(body);
     }
 
     /**
@@ -168,7 +237,7 @@ public class Message
 
         initialize();
 
-        this.body = body.getBytes(DEFAULT_IOTHUB_MESSAGE_CHARSET);
+        this.body = ByteBuffer.wrap(body.getBytes(DEFAULT_IOTHUB_MESSAGE_CHARSET));
     }
 
 
@@ -191,12 +260,58 @@ public class Message
         byte[] bodyClone = null;
 
         if (this.body != null) {
-            bodyClone = Arrays.copyOf(this.body, this.body.length);
+            bodyClone = new byte[this.body.remaining()];
+            this.body.duplicate().get(bodyClone);
         }
 
         return bodyClone;
     }
 
+    /**
+     * Returns a read only view of the body, without copying it, positioned at
+     * the start of the body and limited to its end.
+     * @return A read only view of this Message body, or null if it has no body.
+     */
+    public ByteBuffer getBodyBuffer()
+    {
+        // Codes_SRS_MESSAGE_21_010: [The function shall return a read only view of the message body, without
+        // copying it, or null if the message has no body.]
+        if (this.body == null) {
+            return null;
+        }
+        return this.body.asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns the body as an array for the transports that send arrays. The
+     * body is not copied if it is backed by an array of exactly its size, i.e.
+     * if it was set as a byte array or a string; callers shall not change the
+     * returned array. Otherwise, i.e. for a read only, direct or sliced buffer,
+     * it returns a copy.
+     * @return This Message body as an array, or null if it has no body.
+     */
+    public byte[] getBodyArray()
+    {
+        // Codes_SRS_MESSAGE_21_011: [If the message body is backed by an array of exactly its size, the function
+        // shall return that array without copying it. Otherwise, the function shall return a copy of the body.]
+        if ((this.body != null) && this.body.hasArray() && (this.body.arrayOffset() == 0)
+                && (this.body.array().length == this.body.remaining())) {
+            return this.body.array();
+        }
+        return this.getBytes();
+    }
+
+    /**
+     * Returns the size of the body, without copying it.
+     * @return The size of this Message body, in bytes, or 0 if it has no body.
+     */
+    public int getBodyLength()
+    {
+        // Codes_SRS_MESSAGE_21_012: [The function shall return the size of the message body, or 0 if the message
+        // has no body.]
+        return (this.body == null) ? 0 : this.body.remaining();
+    }
+
     /**
      * Gets the values of user-defined properties of this Message.
      * @param name Name of the user-defined property to search for.
@@ -206,11 +321,8 @@ public class Message
 
         MessageProperty messageProperty = null;
 
-        for (MessageProperty currentMessageProperty: this.properties) {
-            if (currentMessageProperty.hasSameName(name)) {
-                messageProperty = currentMessageProperty;
-                break;
-            }
+        if ((name != null) && (this.properties != null)) {
+            messageProperty = this.properties.get(propertyKey(name));
         }
 
         // Codes_SRS_MESSAGE_11_034: [If no value associated with the property name is found, the function shall return null.]
@@ -240,21 +352,20 @@ public class Message
         }
 
         // Codes_SRS_MESSAGE_11_026: [The function shall set the message property to the given value.]
-        MessageProperty messageProperty = null;
+        MessageProperty messageProperty = new MessageProperty(name, value);
 
-        for (MessageProperty currentMessageProperty: this.properties) {
-            if (currentMessageProperty.hasSameName(name)) {
-                messageProperty = currentMessageProperty;
-                break;
-            }
+        if (this.properties == null) {
+            this.properties = new LinkedHashMap<String, MessageProperty>();
+            this.propertiesView = Collections.unmodifiableCollection(this.properties.values());
         }
 
-        if (messageProperty != null) {
-            this.properties.remove(messageProperty);
-        }
+        // Codes_SRS_MESSAGE_21_005: [The function shall replace the property with the same name, compared in a
+        // case-insensitive manner, and keep the properties in the order they were last set.]
+        String key = propertyKey(name);
+        this.properties.remove(key);
 
         logger.LogInfo("Setting message property with name=%s and value=%s, method name is %s ", name, value, logger.getMethodName());
-        this.properties.add(new MessageProperty(name, value));
+        this.properties.put(key, messageProperty);
     }
 
     /**
@@ -264,7 +375,24 @@ public class Message
      */
     public MessageProperty[] getProperties() {
         // Codes_SRS_MESSAGE_11_033: [The function shall return a copy of the message properties.]
-        return properties.toArray(new MessageProperty[this.properties.size()]);
+        Collection<MessageProperty> view = this.getPropertiesView();
+        return view.toArray(new MessageProperty[view.size()]);
+    }
+
+    /**
+     * Returns a read only view of the message properties, in the order they
+     * were set. The view is not copied, so it reflects the later changes to
+     * the properties.
+     *
+     * @return a read only view of the message properties.
+     */
+    public Collection<MessageProperty> getPropertiesView() {
+        // Codes_SRS_MESSAGE_21_006: [The function shall return a read only view of the message properties, without
+        // copying them.]
+        if (this.propertiesView == null) {
+            return Collections.emptyList();
+        }
+        return this.propertiesView;
     }
 
     // ----- Private Methods -----
@@ -273,34 +401,94 @@ public class Message
      * Internal initializer method for a new Message instance.
      */
     private void initialize() {
-        this.lockToken = UUID.randomUUID().toString();
-        this.messageId = generateId(127); // 1 in 2.03035346985252E-242 chances of collision. Might be safe enough...
-        this.correlationId = generateId(127);
+        this.generateMessageId = true;
+        this.generateCorrelationId = true;
         this.feedbackStatusCode = FeedbackStatusCodeEnum.none;
         this.ack = FeedbackStatusCodeEnum.none;
-        this.properties = new ArrayList<MessageProperty>();
-        this.logger = new CustomLogger(this.getClass());
+        this.logger = (this.getClass() == Message.class) ? messageLogger : new CustomLogger(this.getClass());
     }
 
     /**
-     * Generates a random ID string.
-     * @param length Length of the string to be generated.
-     * @return A string containing valid ID chars.
+     * Resets the message to the state of a new message with the given body,
+     * for a {@link MessagePool} to reuse it. The properties map is cleared
+     * rather than dropped, so it is reused as well.
+     * @param body the new message body.
      */
-    private String generateId(int length)
+    void reset(ByteBuffer body)
     {
-        String validCharacters = "0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ-:.+%_#*?!(),=@;$'";
+        // Codes_SRS_MESSAGE_21_013: [The function shall reset the message to the state of a new message with the
+        // given body, keeping the storage of its properties.]
+        this.messageId = null;
+        this.to = null;
+        this.expiryTime = 0;
+        this.correlationId = null;
+        this.userId = null;
+        this.httpBatchSerializeAsString = null;
+        this.httpBatchEncoding = null;
+        this.connectionDeviceId = null;
+        this.connectionDeviceGenerationId = null;
+        this.connectionAuthenticationMethod = null;
+        this.feedbackDescription = null;
+        this.feedbackDeviceId = null;
+        this.feedbackDeviceGenerationId = null;
+        this.messageType = null;
+        this.contentType = null;
+        this.contentEncoding = null;
+        if (this.properties != null) {
+            this.properties.clear();
+        }
+        this.body = (body == null) ? null : body.slice();
+        this.generateMessageId = true;
+        this.generateCorrelationId = true;
+        this.feedbackStatusCode = FeedbackStatusCodeEnum.none;
+        this.ack = FeedbackStatusCodeEnum.none;
+    }
 
-        char[] charSequence = new char[length];
+    /**
+     * Key of a property in the index, its name in lower case, so the names are
+     * compared in a case-insensitive manner. The names are US-ASCII, so the
+     * key is the name itself if it is already in lower case.
+     * @param name the property name.
+     * @return the key of the property.
+     */
+    private static String propertyKey(String name)
+    {
+        return name.toLowerCase(Locale.ROOT);
+    }
 
-        Random random = new Random();
+    /**
+     * Generates an ID, unique in the process and across processes: a random
+     * prefix drawn once per process, followed by a sequence number.
+     * @return A string containing valid ID chars.
+     */
+    private static String generateId()
+    {
+        // Codes_SRS_MESSAGE_21_003: [The generated IDs shall be a random prefix drawn once per process, followed by
+        // a sequence number in the process.]
+        return GENERATED_ID_PREFIX + Long.toString(generatedIdSequence.incrementAndGet(), Character.MAX_RADIX);
+    }
 
-        for (int i = 0; i < length; i++)
-        {
-            charSequence[i] = validCharacters.charAt(random.nextInt(validCharacters.length()));
-        }
+    /**
+     * Enables or disables the IDs generated for the messages in the process
+     * without a messageId or a correlationId. The IDs are generated on the first
+     * call to {@link #getMessageId()} or {@link #getCorrelationId()}, at the
+     * latest when the message is sent. If disabled, the messages are sent
+     * without the IDs that were not set.
+     * @param enabled true to generate the IDs, the default; false otherwise.
+     */
+    public static void setAutoGenerateIds(boolean enabled)
+    {
+        // Codes_SRS_MESSAGE_21_004: [If disabled, the getters shall return null for the IDs that were not set.]
+        autoGenerateIds = enabled;
+    }
 
-        return new String(charSequence);
+    /**
+     * Tells if the IDs of the messages that were not set are generated.
+     * @return true if the IDs are generated, false otherwise.
+     */
+    public static boolean isAutoGenerateIds()
+    {
+        return autoGenerateIds;
     }
 
     /**
@@ -340,6 +528,13 @@ public class Message
      */
     public String getMessageId()
     {
+        // Codes_SRS_MESSAGE_21_001: [If the messageId was not set, the function shall generate it on the first
+        // call, and return the same one afterwards.]
+        if (this.generateMessageId && autoGenerateIds)
+        {
+            this.messageId = generateId();
+            this.generateMessageId = false;
+        }
         return messageId;
     }
 
@@ -350,6 +545,7 @@ public class Message
     public void setMessageId(String messageId)
     {
         this.messageId = messageId;
+        this.generateMessageId = false;
     }
 
     /**
@@ -358,6 +554,13 @@ public class Message
      */
     public String getCorrelationId()
     {
+        // Codes_SRS_MESSAGE_21_002: [If the correlationId was not set, the function shall generate it on the first
+        // call, and return the same one afterwards.]
+        if (this.generateCorrelationId && autoGenerateIds)
+        {
+            this.correlationId = generateId();
+            this.generateCorrelationId = false;
+        }
         return correlationId;
     }
 
@@ -368,6 +571,7 @@ public class Message
     public void setCorrelationId(String correlationId)
     {
         this.correlationId = correlationId;
+        this.generateCorrelationId = false;
     }
 
     /**
@@ -398,4 +602,46 @@ public class Message
     {
         this.messageType = type;
     }
-}
\ No newline at end of file
+
+    /**
+     * Getter for the content type of the body
+     * @return the content type, or null if it is not set
+     */
+    public String getContentType()
+    {
+        return this.contentType;
+    }
+
+    /**
+     * Setter for the content type of the body, i.e. "application/json". The
+     * transports send it as the content type system property of the message.
+     * @param contentType the content type, or null to not send it
+     */
+    public void setContentType(String contentType)
+    {
+        // Codes_SRS_MESSAGE_21_014: [The function shall save the content type, sent by the transports as the
+        // content type system property of the message.]
+        this.contentType = contentType;
+    }
+
+    /**
+     * Getter for the content encoding of the body
+     * @return the content encoding, or null if it is not set
+     */
+    public String getContentEncoding()
+    {
+        return this.contentEncoding;
+    }
+
+    /**
+     * Setter for the content encoding of the body, i.e. "utf-8". The transports
+     * send it as the content encoding system property of the message.
+     * @param contentEncoding the content encoding, or null to not send it
+     */
+    public void setContentEncoding(String contentEncoding)
+    {
+        // Codes_SRS_MESSAGE_21_015: [The function shall save the content encoding, sent by the transports as the
+        // content encoding system property of the message.]
+        this.contentEncoding = contentEncoding;
+    }
+}
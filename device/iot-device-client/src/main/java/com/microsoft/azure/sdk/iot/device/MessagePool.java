@@ -0,0 +1,248 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An opt-in pool of messages for the applications that send events at a high
+ * rate, so they do not allocate a message, with its properties and callback,
+ * for every event.
+ * <p>
+ *     A message acquired from the pool and sent with
+ *     {@link #sendEventAsync(DeviceClient, Message, IotHubEventCallback, Object)}
+ *     is owned by the SDK until its send callback completes. The pool then
+ *     resets it and keeps it for the next {@link #acquire(byte[])}, so the
+ *     application shall not use the message after sending it. While it is
+ *     being sent, {@link #release(Message)} rejects it, so no other acquire
+ *     can rewrite a message in flight. If the pool is full, the released
+ *     messages are dropped.
+ * </p>
+ */
+public final class MessagePool
+{
+    /** The message is idle in the pool, or was dropped. */
+    private static final int IDLE = 0;
+    /** The message is owned by the application. */
+    private static final int ACQUIRED = 1;
+    /** The message is owned by the SDK until its send completes. */
+    private static final int SENDING = 2;
+
+    private final ArrayBlockingQueue<PooledMessage> idleMessages;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity the maximum number of idle messages kept by the pool.
+     * @throws IllegalArgumentException if the capacity is not positive.
+     */
+    public MessagePool(int capacity)
+    {
+        // Codes_SRS_MESSAGEPOOL_21_001: [If the capacity is not positive, the constructor shall throw
+        // IllegalArgumentException.]
+        if (capacity <= 0)
+        {
+            throw new IllegalArgumentException("The capacity of the pool shall be positive.");
+        }
+
+        // Codes_SRS_MESSAGEPOOL_21_002: [The constructor shall create an empty pool with the given capacity.]
+        this.idleMessages = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Acquires a message with the given body, reusing an idle message if there
+     * is one. The body is not copied.
+     *
+     * @param body the message body.
+     * @return a message with the body and no properties.
+     * @throws IllegalArgumentException if the body is {@code null}.
+     */
+    public Message acquire(byte[] body)
+    {
+        if (body == null)
+        {
+            throw new IllegalArgumentException("Message body cannot be 'null'.");
+        }
+        return this.acquire(ByteBuffer.wrap(body));
+    }
+
+    /**
+     * Acquires a message with the given body, reusing an idle message if there
+     * is one. The body is not copied, as for {@link Message#Message(ByteBuffer)}.
+     *
+     * @param body the message body.
+     * @return a message with the body and no properties.
+     * @throws IllegalArgumentException if the body is {@code null}.
+     */
+    public Message acquire(ByteBuffer body)
+    {
+        // Codes_SRS_MESSAGEPOOL_21_003: [If the body is null, the function shall throw IllegalArgumentException.]
+        if (body == null)
+        {
+            throw new IllegalArgumentException("Message body cannot be 'null'.");
+        }
+
+        // Codes_SRS_MESSAGEPOOL_21_004: [The function shall reuse an idle message if there is one, or create a new
+        // one otherwise, with the given body.]
+        PooledMessage message = this.idleMessages.poll();
+        if (message == null)
+        {
+            message = new PooledMessage(this);
+        }
+        message.reset(body);
+        message.state.set(ACQUIRED);
+        return message;
+    }
+
+    /**
+     * Sends the message as {@link DeviceClient#sendEventAsync} does, and
+     * releases it to the pool once its callback completes. If the client
+     * throws, the application keeps the message.
+     *
+     * @param client the client sending the message.
+     * @param message the message acquired from this pool.
+     * @param callback the callback to be invoked when a response is received.
+     * Can be {@code null}.
+     * @param callbackContext the context to be passed to the callback.
+     * @throws IllegalArgumentException if the client is {@code null}, or if the
+     * message was not acquired from this pool, was already released, or is
+     * already being sent.
+     */
+    public void sendEventAsync(DeviceClient client, Message message, IotHubEventCallback callback, Object callbackContext)
+    {
+        // Codes_SRS_MESSAGEPOOL_21_005: [If the client is null, or the message was not acquired from this pool,
+        // was already released or is already being sent, the function shall throw IllegalArgumentException.]
+        if (client == null)
+        {
+            throw new IllegalArgumentException("client cannot be null.");
+        }
+        PooledMessage pooledMessage = this.ownMessage(message);
+        // Codes_SRS_MESSAGEPOOL_21_010: [The function shall mark the message as being sent before sending it.]
+        if ((pooledMessage == null) || !pooledMessage.state.compareAndSet(ACQUIRED, SENDING))
+        {
+            throw new IllegalArgumentException("The message is not in use from this pool.");
+        }
+
+        // Codes_SRS_MESSAGEPOOL_21_006: [The function shall send the message with the client, with a callback that
+        // calls the given callback with its context and then releases the message.]
+        pooledMessage.callback = callback;
+        pooledMessage.callbackContext = callbackContext;
+        try
+        {
+            client.sendEventAsync(pooledMessage, pooledMessage, null);
+        }
+        catch (RuntimeException e)
+        {
+            // Codes_SRS_MESSAGEPOOL_21_011: [If the client throws, the function shall give the message back to the
+            // application and rethrow.]
+            pooledMessage.state.compareAndSet(SENDING, ACQUIRED);
+            throw e;
+        }
+    }
+
+    /**
+     * Releases a message to the pool, i.e. a message acquired but not sent.
+     * Releasing a message that is not in use from this pool has no effect.
+     *
+     * @param message the message to release.
+     * @throws IllegalStateException if the message is being sent. It returns
+     * to the pool once its send completes.
+     */
+    public void release(Message message)
+    {
+        PooledMessage pooledMessage = this.ownMessage(message);
+        if (pooledMessage == null)
+        {
+            // Codes_SRS_MESSAGEPOOL_21_008: [Otherwise, the function shall do nothing.]
+            return;
+        }
+
+        // Codes_SRS_MESSAGEPOOL_21_007: [If the message was acquired from this pool and is in use, the function
+        // shall reset it and keep it for the next acquire if the pool is not full.]
+        if (!pooledMessage.state.compareAndSet(ACQUIRED, IDLE))
+        {
+            // Codes_SRS_MESSAGEPOOL_21_012: [If the message is being sent, the function shall throw
+            // IllegalStateException.]
+            if (pooledMessage.state.get() == SENDING)
+            {
+                throw new IllegalStateException("The message is being sent, and returns to the pool once its send completes.");
+            }
+            return;
+        }
+        this.recycle(pooledMessage);
+    }
+
+    /**
+     * Returns the number of idle messages in the pool.
+     *
+     * @return the number of idle messages.
+     */
+    public int getIdleCount()
+    {
+        // Codes_SRS_MESSAGEPOOL_21_009: [The function shall return the number of idle messages in the pool.]
+        return this.idleMessages.size();
+    }
+
+    private void releaseSent(PooledMessage pooledMessage)
+    {
+        if (pooledMessage.state.compareAndSet(SENDING, IDLE))
+        {
+            this.recycle(pooledMessage);
+        }
+    }
+
+    private void recycle(PooledMessage pooledMessage)
+    {
+        pooledMessage.callback = null;
+        pooledMessage.callbackContext = null;
+        pooledMessage.reset(null);
+        this.idleMessages.offer(pooledMessage);
+    }
+
+    private PooledMessage ownMessage(Message message)
+    {
+        if ((message instanceof PooledMessage) && (((PooledMessage) message).pool == this))
+        {
+            return (PooledMessage) message;
+        }
+        return null;
+    }
+
+    /**
+     * A message of a pool, that is also its own send callback, so sending it
+     * does not allocate a callback.
+     */
+    private static final class PooledMessage extends Message implements IotHubEventCallback
+    {
+        private final MessagePool pool;
+        private final AtomicInteger state = new AtomicInteger(IDLE);
+        private volatile IotHubEventCallback callback;
+        private volatile Object callbackContext;
+
+        private PooledMessage(MessagePool pool)
+        {
+            this.pool = pool;
+        }
+
+        @Override
+        public void execute(IotHubStatusCode responseStatus, Object context)
+        {
+            IotHubEventCallback messageCallback = this.callback;
+            Object messageCallbackContext = this.callbackContext;
+            try
+            {
+                if (messageCallback != null)
+                {
+                    messageCallback.execute(responseStatus, messageCallbackContext);
+                }
+            }
+            finally
+            {
+                this.pool.releaseSent(this);
+            }
+        }
+    }
+}
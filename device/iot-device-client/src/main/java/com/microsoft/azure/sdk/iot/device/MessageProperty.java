@@ -7,6 +7,8 @@ package com.microsoft.azure.sdk.iot.device;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /** An IoT Hub message property. */
 public final class MessageProperty {
@@ -38,6 +40,17 @@ public final class MessageProperty {
         RESERVED_PROPERTY_NAMES = Collections.unmodifiableSet(reservedPropertyNames);
     }
 
+    /** The maximum number of validated property names kept by {@link #validatedNames}. */
+    private static final int MAX_VALIDATED_NAMES = 1024;
+
+    /**
+     * The property names already validated, each mapped to a single shared
+     * instance, so the names set on every message are only validated once.
+     */
+    private static final ConcurrentMap<String, String> validatedNames = new ConcurrentHashMap<>();
+
+    private static final CustomLogger sharedLogger = new CustomLogger(MessageProperty.class);
+
     /** The property name. */
     protected final String name;
     /** The property value. */
@@ -54,7 +67,7 @@ public final class MessageProperty {
      * A message property name cannot be one of the reserved property names.
      */
     public MessageProperty(String name, String value) {
-        this.logger = new CustomLogger(this.getClass());
+        this.logger = sharedLogger;
         if (name == null) {
             logger.LogError("Property argument 'name' cannot be null, method name is %s ", logger.getMethodName());
             throw new IllegalArgumentException("Property argument 'name' cannot be null.");
@@ -65,18 +78,31 @@ public final class MessageProperty {
             throw new IllegalArgumentException("Property argument 'value' cannot be null.");
         }
 
-        // Codes_SRS_MESSAGEPROPERTY_11_002: [If the name contains a character that is not in US-ASCII, the function shall throw an IllegalArgumentException.]
-        if (!usesValidChars(name)) {
-            logger.LogError("%s is not a valid IoT Hub message property name, method name is %s ", name, logger.getMethodName());
-			String errMsg = String.format("%s is not a valid IoT Hub message property name.\n", name);
-            throw new IllegalArgumentException(errMsg);
-        }
-
-        // Codes_SRS_MESSAGEPROPERTY_11_008: [If the name is a reserved property name, the function shall throw an IllegalArgumentException.]
-        if (RESERVED_PROPERTY_NAMES.contains(name)) {
-            logger.LogError("%s is a reserved IoT Hub message property name, method name is %s ", name, logger.getMethodName());
-			String errMsg = String.format("%s is a reserved IoT Hub message property name.\n", name);
-            throw new IllegalArgumentException(errMsg);
+        // Codes_SRS_MESSAGEPROPERTY_21_001: [If the name was validated before, the function shall use the same
+        // instance of the name without validating it again.]
+        String validatedName = validatedNames.get(name);
+        if (validatedName == null) {
+            // Codes_SRS_MESSAGEPROPERTY_11_002: [If the name contains a character that is not in US-ASCII, the function shall throw an IllegalArgumentException.]
+            if (!usesValidChars(name)) {
+                logger.LogError("%s is not a valid IoT Hub message property name, method name is %s ", name, logger.getMethodName());
+                String errMsg = String.format("%s is not a valid IoT Hub message property name.\n", name);
+                throw new IllegalArgumentException(errMsg);
+            }
+
+            // Codes_SRS_MESSAGEPROPERTY_11_008: [If the name is a reserved property name, the function shall throw an IllegalArgumentException.]
+            if (RESERVED_PROPERTY_NAMES.contains(name)) {
+                logger.LogError("%s is a reserved IoT Hub message property name, method name is %s ", name, logger.getMethodName());
+                String errMsg = String.format("%s is a reserved IoT Hub message property name.\n", name);
+                throw new IllegalArgumentException(errMsg);
+            }
+
+            if (validatedNames.size() >= MAX_VALIDATED_NAMES) {
+                validatedNames.clear();
+            }
+            validatedName = validatedNames.putIfAbsent(name, name);
+            if (validatedName == null) {
+                validatedName = name;
+            }
         }
 
         // Codes_SRS_MESSAGEPROPERTY_11_003: [If the value contains a character that is not in US-ASCII, the function shall throw an IllegalArgumentException.]
@@ -88,7 +114,7 @@ public final class MessageProperty {
         }
 
         // Codes_SRS_MESSAGEPROPERTY_11_001: [The constructor shall save the property name and value.]
-        this.name = name;
+        this.name = validatedName;
         this.value = value;
     }
 
@@ -160,14 +186,15 @@ public final class MessageProperty {
      * @return whether the string only uses US-ASCII 
      */
     protected static boolean usesValidChars(String s) {
-        boolean isValid = false;
-
-        if (s.matches("\\p{ASCII}*"))
+        for (int i = 0; i < s.length(); i++)
         {
-            isValid = true;
+            if (s.charAt(i) > 0x7F)
+            {
+                return false;
+            }
         }
 
-        return isValid;
+        return true;
     }
 
     protected MessageProperty() {
@@ -0,0 +1,108 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.auth;
+
+import com.microsoft.azure.sdk.iot.device.DeviceClientConfig;
+
+/**
+ * Keeps the SAS token of a device, so the transports sign a token once per
+ * renewal instead of once per request or connection.
+ * <p>
+ *     A token is valid for {@link DeviceClientConfig#getTokenValidSecs()}
+ *     seconds, and is reused until the
+ *     {@link DeviceClientConfig#getSasTokenRenewalFraction()} of its lifetime
+ *     has elapsed. The next use after that renews it, well ahead of its expiry,
+ *     so a reconnect or a request in transit never carries a token about to
+ *     expire. Changing the token lifetime renews the token on the next use.
+ * </p>
+ */
+public final class IotHubSasTokenCache
+{
+    private final DeviceClientConfig config;
+
+    private IotHubSasToken token;
+    private long tokenValidSecs;
+    private long expiryTime;
+    private long renewalTime;
+
+    /**
+     * Constructor.
+     *
+     * @param config the device client config.
+     * @throws IllegalArgumentException if the config is {@code null}.
+     */
+    public IotHubSasTokenCache(DeviceClientConfig config)
+    {
+        // Codes_SRS_IOTHUBSASTOKENCACHE_21_001: [If the config is null, the constructor shall throw IllegalArgumentException.]
+        if (config == null)
+        {
+            throw new IllegalArgumentException("config cannot be null.");
+        }
+
+        // Codes_SRS_IOTHUBSASTOKENCACHE_21_002: [The constructor shall save the config, with no token.]
+        this.config = config;
+    }
+
+    /**
+     * Returns the SAS token of the device, renewing it if it reached the
+     * renewal fraction of its lifetime.
+     *
+     * @return the SAS token.
+     */
+    public synchronized IotHubSasToken getToken()
+    {
+        long nowSecs = System.currentTimeMillis() / 1000L;
+        long validSecs = this.config.getTokenValidSecs();
+
+        // Codes_SRS_IOTHUBSASTOKENCACHE_21_003: [If there is no token, the renewal time was reached, or the token
+        // lifetime changed, the function shall create a new token that expires after the token lifetime.]
+        if ((this.token == null) || (nowSecs >= this.renewalTime) || (validSecs != this.tokenValidSecs))
+        {
+            this.expiryTime = nowSecs + validSecs + 1L;
+            this.token = new IotHubSasToken(this.config, this.expiryTime);
+            this.tokenValidSecs = validSecs;
+            // Codes_SRS_IOTHUBSASTOKENCACHE_21_004: [The new token shall be renewed once the renewal fraction of
+            // its lifetime has elapsed.]
+            this.renewalTime = nowSecs + (long) (validSecs * this.config.getSasTokenRenewalFraction());
+        }
+
+        // Codes_SRS_IOTHUBSASTOKENCACHE_21_005: [Otherwise, the function shall return the same token.]
+        return this.token;
+    }
+
+    /**
+     * Returns the time the current token expires, as a UNIX timestamp. The
+     * token may have been created well before the call, so the callers that
+     * push it on a timer schedule the renewal from this time.
+     *
+     * @return the expiry time of the current token, in seconds.
+     */
+    public synchronized long getExpiryTime()
+    {
+        // Codes_SRS_IOTHUBSASTOKENCACHE_21_007: [The function shall return the expiry time of the current token.]
+        return this.expiryTime;
+    }
+
+    /**
+     * Returns the time after which the next use renews the token, as a UNIX
+     * timestamp.
+     *
+     * @return the renewal time of the current token, in seconds.
+     */
+    public synchronized long getRenewalTime()
+    {
+        // Codes_SRS_IOTHUBSASTOKENCACHE_21_008: [The function shall return the renewal time of the current token.]
+        return this.renewalTime;
+    }
+
+    /**
+     * Drops the current token, so the next call to {@link #getToken()}
+     * renews it. The transports call it when the IoT Hub rejects the token.
+     */
+    public synchronized void invalidate()
+    {
+        // Codes_SRS_IOTHUBSASTOKENCACHE_21_006: [The function shall drop the token, so the next token is a new one.]
+        this.token = null;
+    }
+}
@@ -9,6 +9,7 @@ import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
@@ -26,6 +27,18 @@ public final class SignatureHelper
     /** The charset used for the raw and hashed signature. */
     public static final Charset SIGNATURE_CHARSET = StandardCharsets.UTF_8;
 
+    private static final String HMAC_SHA256 = "HmacSHA256";
+
+    /** The HMAC-SHA256 Mac of each thread, with the device key it was initialized with. */
+    private static final ThreadLocal<KeyedMac> KEYED_MACS = new ThreadLocal<KeyedMac>()
+    {
+        @Override
+        protected KeyedMac initialValue()
+        {
+            return new KeyedMac();
+        }
+    };
+
     /**
      * Builds the raw signature.
      *
@@ -57,6 +70,11 @@ public final class SignatureHelper
 
     /**
      * Encrypts the signature using HMAC-SHA256.
+     * <p>
+     *     Each thread keeps its own {@link Mac}, initialized with the last
+     *     device key it signed with, so signing again with the same key does not
+     *     look up the algorithm or schedule the key again.
+     * </p>
      *
      * @param sig the unencrypted signature.
      * @param deviceKey the Base64-decoded device key.
@@ -66,18 +84,25 @@ public final class SignatureHelper
     public static byte[] encryptSignatureHmacSha256(byte[] sig,
             byte[] deviceKey)
     {
-        String hmacSha256 = "HmacSHA256";
-
-        // Codes_SRS_SIGNATUREHELPER_11_005: [The function shall use the device key as the secret for the algorithm.]
-        SecretKeySpec secretKey = new SecretKeySpec(deviceKey, hmacSha256);
-
         byte[] encryptedSig = null;
         try
         {
             // Codes_SRS_SIGNATUREHELPER_11_004: [The function shall encrypt the signature using the HMAC-SHA256 algorithm.]
-            Mac hMacSha256 = Mac.getInstance(hmacSha256);
-            hMacSha256.init(secretKey);
-            encryptedSig = hMacSha256.doFinal(sig);
+            // Codes_SRS_SIGNATUREHELPER_21_001: [The function shall reuse the Mac of the calling thread, and initialize
+            // it again only if the device key changed.]
+            KeyedMac keyedMac = KEYED_MACS.get();
+            if (keyedMac.mac == null)
+            {
+                keyedMac.mac = Mac.getInstance(HMAC_SHA256);
+            }
+            if (!Arrays.equals(keyedMac.deviceKey, deviceKey))
+            {
+                // Codes_SRS_SIGNATUREHELPER_11_005: [The function shall use the device key as the secret for the algorithm.]
+                keyedMac.deviceKey = null;
+                keyedMac.mac.init(new SecretKeySpec(deviceKey, HMAC_SHA256));
+                keyedMac.deviceKey = Arrays.copyOf(deviceKey, deviceKey.length);
+            }
+            encryptedSig = keyedMac.mac.doFinal(sig);
         }
         catch (NoSuchAlgorithmException e)
         {
@@ -150,4 +175,10 @@ public final class SignatureHelper
     protected SignatureHelper()
     {
     }
+
+    private static final class KeyedMac
+    {
+        private Mac mac;
+        private byte[] deviceKey;
+    }
 }
@@ -0,0 +1,541 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.codec;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonPrimitive;
+import com.microsoft.azure.sdk.iot.device.Message;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Encodes values as CBOR (RFC 7049), with content type "application/cbor".
+ * <p>
+ *     The values are mapped as {@link Gson} maps them to JSON, so a value
+ *     encodes to the same document as with {@link JsonMessageCodec}, in fewer
+ *     bytes: the numbers are binary, the integers take one to nine bytes
+ *     depending on their magnitude, and the floating point numbers are single
+ *     precision when it does not lose precision. The decoder accepts the
+ *     definite and indefinite length items, and the tags, which it ignores.
+ * </p>
+ */
+public final class CborMessageCodec extends MessageCodec
+{
+    /** The content type of the bodies encoded by this codec. */
+    public static final String CONTENT_TYPE = "application/cbor";
+
+    /** The maximum nesting of arrays and maps the decoder accepts. */
+    private static final int MAX_DEPTH = 256;
+
+    private static final int MAJOR_UNSIGNED = 0;
+    private static final int MAJOR_NEGATIVE = 1;
+    private static final int MAJOR_BYTES = 2;
+    private static final int MAJOR_TEXT = 3;
+    private static final int MAJOR_ARRAY = 4;
+    private static final int MAJOR_MAP = 5;
+    private static final int MAJOR_TAG = 6;
+    private static final int MAJOR_SIMPLE = 7;
+
+    private static final int SIMPLE_FALSE = 0xF4;
+    private static final int SIMPLE_TRUE = 0xF5;
+    private static final int SIMPLE_NULL = 0xF6;
+    private static final int FLOAT_32 = 0xFA;
+    private static final int FLOAT_64 = 0xFB;
+    private static final int BREAK = 0xFF;
+    private static final int INDEFINITE = 31;
+
+    private final Gson gson;
+
+    /**
+     * Constructor, with a default {@link Gson}.
+     */
+    public CborMessageCodec()
+    {
+        this(new Gson());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param gson the {@link Gson} mapping the values to their JSON model.
+     * @throws IllegalArgumentException if gson is {@code null}.
+     */
+    public CborMessageCodec(Gson gson)
+    {
+        // Codes_SRS_CBORMESSAGECODEC_21_001: [If gson is null, the constructor shall throw IllegalArgumentException.]
+        if (gson == null)
+        {
+            throw new IllegalArgumentException("gson cannot be null.");
+        }
+        this.gson = gson;
+    }
+
+    @Override
+    public String getContentType()
+    {
+        // Codes_SRS_CBORMESSAGECODEC_21_002: [The function shall return "application/cbor".]
+        return CONTENT_TYPE;
+    }
+
+    @Override
+    public String getContentEncoding()
+    {
+        // Codes_SRS_CBORMESSAGECODEC_21_003: [The function shall return null, as the content is binary.]
+        return null;
+    }
+
+    @Override
+    public byte[] encode(Object value)
+    {
+        // Codes_SRS_CBORMESSAGECODEC_21_004: [The function shall encode the value as CBOR, mapped as gson maps it
+        // to JSON, with the integers and floating point numbers in their shortest lossless encoding.]
+        Writer writer = new Writer();
+        writer.writeElement(this.gson.toJsonTree(value));
+        return writer.toByteArray();
+    }
+
+    @Override
+    public <T> T decode(byte[] body, Class<T> type) throws IOException
+    {
+        if ((body == null) || (type == null))
+        {
+            throw new IllegalArgumentException("body and type cannot be null.");
+        }
+
+        // Codes_SRS_CBORMESSAGECODEC_21_005: [The function shall decode the CBOR item to the type, mapped as gson
+        // maps it from JSON.]
+        // Codes_SRS_CBORMESSAGECODEC_21_006: [If the body is not a single valid CBOR item, the function shall throw
+        // IOException.]
+        Reader reader = new Reader(body);
+        JsonElement element = reader.readElement(0);
+        if (reader.position != body.length)
+        {
+            throw new IOException("The body has bytes after its CBOR item.");
+        }
+        try
+        {
+            return this.gson.fromJson(element, type);
+        }
+        catch (JsonParseException e)
+        {
+            throw new IOException("The CBOR item does not match the type.", e);
+        }
+    }
+
+    /** Writes the CBOR encoding of a JSON model. */
+    private static final class Writer
+    {
+        private byte[] buffer = new byte[64];
+        private int length;
+
+        private void writeElement(JsonElement element)
+        {
+            if ((element == null) || element.isJsonNull())
+            {
+                this.writeByte(SIMPLE_NULL);
+            }
+            else if (element.isJsonObject())
+            {
+                JsonObject object = element.getAsJsonObject();
+                this.writeHead(MAJOR_MAP, object.entrySet().size());
+                for (Map.Entry<String, JsonElement> entry : object.entrySet())
+                {
+                    this.writeText(entry.getKey());
+                    this.writeElement(entry.getValue());
+                }
+            }
+            else if (element.isJsonArray())
+            {
+                JsonArray array = element.getAsJsonArray();
+                this.writeHead(MAJOR_ARRAY, array.size());
+                for (JsonElement item : array)
+                {
+                    this.writeElement(item);
+                }
+            }
+            else
+            {
+                JsonPrimitive primitive = element.getAsJsonPrimitive();
+                if (primitive.isBoolean())
+                {
+                    this.writeByte(primitive.getAsBoolean() ? SIMPLE_TRUE : SIMPLE_FALSE);
+                }
+                else if (primitive.isNumber())
+                {
+                    this.writeNumber(primitive.getAsNumber());
+                }
+                else
+                {
+                    this.writeText(primitive.getAsString());
+                }
+            }
+        }
+
+        private void writeNumber(Number number)
+        {
+            if ((number instanceof Double) || (number instanceof Float) || (number instanceof BigDecimal))
+            {
+                this.writeDouble(number.doubleValue());
+            }
+            else if (number instanceof BigInteger)
+            {
+                if (((BigInteger) number).bitLength() < Long.SIZE)
+                {
+                    this.writeLong(number.longValue());
+                }
+                else
+                {
+                    this.writeDouble(number.doubleValue());
+                }
+            }
+            else if ((number instanceof Integer) || (number instanceof Long)
+                    || (number instanceof Short) || (number instanceof Byte))
+            {
+                this.writeLong(number.longValue());
+            }
+            else
+            {
+                // a number parsed from JSON text, integral if it has no fraction or exponent.
+                String text = number.toString();
+                if ((text.indexOf('.') < 0) && (text.indexOf('e') < 0) && (text.indexOf('E') < 0))
+                {
+                    try
+                    {
+                        this.writeLong(Long.parseLong(text));
+                        return;
+                    }
+                    catch (NumberFormatException e)
+                    {
+                        // out of the range of a long, encoded as a floating point number.
+                    }
+                }
+                this.writeDouble(number.doubleValue());
+            }
+        }
+
+        private void writeLong(long value)
+        {
+            if (value >= 0)
+            {
+                this.writeHead(MAJOR_UNSIGNED, value);
+            }
+            else
+            {
+                this.writeHead(MAJOR_NEGATIVE, -1L - value);
+            }
+        }
+
+        private void writeDouble(double value)
+        {
+            float floatValue = (float) value;
+            if ((floatValue == value) || Double.isNaN(value))
+            {
+                this.writeByte(FLOAT_32);
+                this.writeBigEndian(Float.floatToIntBits(floatValue) & 0xFFFFFFFFL, 4);
+            }
+            else
+            {
+                this.writeByte(FLOAT_64);
+                this.writeBigEndian(Double.doubleToLongBits(value), 8);
+            }
+        }
+
+        private void writeText(String text)
+        {
+            byte[] utf8 = text.getBytes(Message.DEFAULT_IOTHUB_MESSAGE_CHARSET);
+            this.writeHead(MAJOR_TEXT, utf8.length);
+            this.ensureCapacity(utf8.length);
+            System.arraycopy(utf8, 0, this.buffer, this.length, utf8.length);
+            this.length += utf8.length;
+        }
+
+        /** Writes the major type with its argument, in the fewest bytes. */
+        private void writeHead(int majorType, long argument)
+        {
+            int major = majorType << 5;
+            if ((argument >= 0) && (argument < 24))
+            {
+                this.writeByte(major | (int) argument);
+            }
+            else if ((argument >= 0) && (argument <= 0xFFL))
+            {
+                this.writeByte(major | 24);
+                this.writeBigEndian(argument, 1);
+            }
+            else if ((argument >= 0) && (argument <= 0xFFFFL))
+            {
+                this.writeByte(major | 25);
+                this.writeBigEndian(argument, 2);
+            }
+            else if ((argument >= 0) && (argument <= 0xFFFFFFFFL))
+            {
+                this.writeByte(major | 26);
+                this.writeBigEndian(argument, 4);
+            }
+            else
+            {
+                this.writeByte(major | 27);
+                this.writeBigEndian(argument, 8);
+            }
+        }
+
+        private void writeBigEndian(long value, int size)
+        {
+            this.ensureCapacity(size);
+            for (int shift = (size - 1) * 8; shift >= 0; shift -= 8)
+            {
+                this.buffer[this.length++] = (byte) (value >>> shift);
+            }
+        }
+
+        private void writeByte(int value)
+        {
+            this.ensureCapacity(1);
+            this.buffer[this.length++] = (byte) value;
+        }
+
+        private void ensureCapacity(int size)
+        {
+            if (this.length + size > this.buffer.length)
+            {
+                this.buffer = Arrays.copyOf(this.buffer, Math.max(this.buffer.length * 2, this.length + size));
+            }
+        }
+
+        private byte[] toByteArray()
+        {
+            return Arrays.copyOf(this.buffer, this.length);
+        }
+    }
+
+    /** Reads a CBOR item into its JSON model. */
+    private static final class Reader
+    {
+        private final byte[] body;
+        private int position;
+
+        private Reader(byte[] body)
+        {
+            this.body = body;
+        }
+
+        private JsonElement readElement(int depth) throws IOException
+        {
+            if (depth > MAX_DEPTH)
+            {
+                throw new IOException("The CBOR item is nested too deep.");
+            }
+
+            int initialByte = this.readByte();
+            int majorType = initialByte >>> 5;
+            int info = initialByte & 0x1F;
+            switch (majorType)
+            {
+                case MAJOR_UNSIGNED:
+                    return unsignedNumber(this.readArgument(info), false);
+                case MAJOR_NEGATIVE:
+                    return unsignedNumber(this.readArgument(info), true);
+                case MAJOR_BYTES:
+                    JsonArray bytes = new JsonArray();
+                    for (byte value : this.readString(MAJOR_BYTES, info))
+                    {
+                        bytes.add(new JsonPrimitive(value));
+                    }
+                    return bytes;
+                case MAJOR_TEXT:
+                    return new JsonPrimitive(new String(this.readString(MAJOR_TEXT, info),
+                            Message.DEFAULT_IOTHUB_MESSAGE_CHARSET));
+                case MAJOR_ARRAY:
+                    JsonArray array = new JsonArray();
+                    long count = this.readCount(info);
+                    for (long i = 0; (count < 0) ? !this.readBreak() : (i < count); i++)
+                    {
+                        array.add(this.readElement(depth + 1));
+                    }
+                    return array;
+                case MAJOR_MAP:
+                    JsonObject object = new JsonObject();
+                    long pairs = this.readCount(info);
+                    for (long i = 0; (pairs < 0) ? !this.readBreak() : (i < pairs); i++)
+                    {
+                        JsonElement key = this.readElement(depth + 1);
+                        if (!key.isJsonPrimitive())
+                        {
+                            throw new IOException("The CBOR map has a key that is not a string or a number.");
+                        }
+                        object.add(key.getAsString(), this.readElement(depth + 1));
+                    }
+                    return object;
+                case MAJOR_TAG:
+                    this.readArgument(info);
+                    return this.readElement(depth + 1);
+                default:
+                    return this.readSimple(initialByte, info);
+            }
+        }
+
+        private JsonElement readSimple(int initialByte, int info) throws IOException
+        {
+            switch (initialByte)
+            {
+                case SIMPLE_FALSE:
+                    return new JsonPrimitive(false);
+                case SIMPLE_TRUE:
+                    return new JsonPrimitive(true);
+                case SIMPLE_NULL:
+                case SIMPLE_NULL + 1:
+                    return JsonNull.INSTANCE;
+                case (MAJOR_SIMPLE << 5) | 25:
+                    return new JsonPrimitive(halfToFloat((int) this.readBigEndian(2)));
+                case FLOAT_32:
+                    return new JsonPrimitive(Float.intBitsToFloat((int) this.readBigEndian(4)));
+                case FLOAT_64:
+                    return new JsonPrimitive(Double.longBitsToDouble(this.readBigEndian(8)));
+                default:
+                    throw new IOException("Unsupported CBOR simple value " + info + ".");
+            }
+        }
+
+        private static JsonPrimitive unsignedNumber(long argument, boolean negative)
+        {
+            if (argument >= 0)
+            {
+                return new JsonPrimitive(negative ? (-1L - argument) : argument);
+            }
+            // an argument of 64 bits, out of the range of a long.
+            BigInteger value = BigInteger.valueOf(argument & Long.MAX_VALUE).setBit(Long.SIZE - 1);
+            return new JsonPrimitive(negative ? BigInteger.ONE.negate().subtract(value) : value);
+        }
+
+        private static float halfToFloat(int half)
+        {
+            int exponent = (half >>> 10) & 0x1F;
+            int mantissa = half & 0x3FF;
+            float value;
+            if (exponent == 0)
+            {
+                value = mantissa * (float) Math.pow(2, -24);
+            }
+            else if (exponent == 0x1F)
+            {
+                value = (mantissa == 0) ? Float.POSITIVE_INFINITY : Float.NaN;
+            }
+            else
+            {
+                value = (mantissa + 1024) * (float) Math.pow(2, exponent - 25);
+            }
+            return ((half & 0x8000) != 0) ? -value : value;
+        }
+
+        /** Reads a byte or text string, joining the chunks of an indefinite length one. */
+        private byte[] readString(int majorType, int info) throws IOException
+        {
+            if (info != INDEFINITE)
+            {
+                long length = this.readArgument(info);
+                if ((length < 0) || (length > this.body.length - this.position))
+                {
+                    throw new IOException("The CBOR string is longer than the body.");
+                }
+                byte[] value = Arrays.copyOfRange(this.body, this.position, this.position + (int) length);
+                this.position += (int) length;
+                return value;
+            }
+
+            byte[] value = new byte[0];
+            while (!this.readBreak())
+            {
+                int chunkByte = this.readByte();
+                if (((chunkByte >>> 5) != majorType) || ((chunkByte & 0x1F) == INDEFINITE))
+                {
+                    throw new IOException("The CBOR string has an invalid chunk.");
+                }
+                byte[] chunk = this.readString(majorType, chunkByte & 0x1F);
+                byte[] joined = Arrays.copyOf(value, value.length + chunk.length);
+                System.arraycopy(chunk, 0, joined, value.length, chunk.length);
+                value = joined;
+            }
+            return value;
+        }
+
+        /** Reads the number of items of an array or map, or -1 if its length is indefinite. */
+        private long readCount(int info) throws IOException
+        {
+            if (info == INDEFINITE)
+            {
+                return -1;
+            }
+            long count = this.readArgument(info);
+            // each item takes at least one byte.
+            if ((count < 0) || (count > this.body.length - this.position))
+            {
+                throw new IOException("The CBOR array or map has more items than the body.");
+            }
+            return count;
+        }
+
+        private boolean readBreak() throws IOException
+        {
+            if (this.position >= this.body.length)
+            {
+                throw new IOException("The CBOR item is truncated.");
+            }
+            if ((this.body[this.position] & 0xFF) == BREAK)
+            {
+                this.position++;
+                return true;
+            }
+            return false;
+        }
+
+        private long readArgument(int info) throws IOException
+        {
+            if (info < 24)
+            {
+                return info;
+            }
+            switch (info)
+            {
+                case 24:
+                    return this.readBigEndian(1);
+                case 25:
+                    return this.readBigEndian(2);
+                case 26:
+                    return this.readBigEndian(4);
+                case 27:
+                    return this.readBigEndian(8);
+                default:
+                    throw new IOException("Invalid CBOR additional information " + info + ".");
+            }
+        }
+
+        private long readBigEndian(int size) throws IOException
+        {
+            long value = 0;
+            for (int i = 0; i < size; i++)
+            {
+                value = (value << 8) | this.readByte();
+            }
+            return value;
+        }
+
+        private int readByte() throws IOException
+        {
+            if (this.position >= this.body.length)
+            {
+                throw new IOException("The CBOR item is truncated.");
+            }
+            return this.body[this.position++] & 0xFF;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.codec;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.microsoft.azure.sdk.iot.device.Message;
+
+import java.io.IOException;
+
+/**
+ * Encodes values as JSON documents in UTF-8, with content type
+ * "application/json".
+ */
+public final class JsonMessageCodec extends MessageCodec
+{
+    /** The content type of the bodies encoded by this codec. */
+    public static final String CONTENT_TYPE = "application/json";
+
+    /** The content encoding of the bodies encoded by this codec. */
+    public static final String CONTENT_ENCODING = "utf-8";
+
+    private final Gson gson;
+
+    /**
+     * Constructor, with a default {@link Gson}.
+     */
+    public JsonMessageCodec()
+    {
+        this(new Gson());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param gson the {@link Gson} mapping the values to JSON.
+     * @throws IllegalArgumentException if gson is {@code null}.
+     */
+    public JsonMessageCodec(Gson gson)
+    {
+        // Codes_SRS_JSONMESSAGECODEC_21_001: [If gson is null, the constructor shall throw IllegalArgumentException.]
+        if (gson == null)
+        {
+            throw new IllegalArgumentException("gson cannot be null.");
+        }
+        this.gson = gson;
+    }
+
+    @Override
+    public String getContentType()
+    {
+        // Codes_SRS_JSONMESSAGECODEC_21_002: [The function shall return "application/json".]
+        return CONTENT_TYPE;
+    }
+
+    @Override
+    public String getContentEncoding()
+    {
+        // Codes_SRS_JSONMESSAGECODEC_21_003: [The function shall return "utf-8".]
+        return CONTENT_ENCODING;
+    }
+
+    @Override
+    public byte[] encode(Object value)
+    {
+        // Codes_SRS_JSONMESSAGECODEC_21_004: [The function shall encode the value as a JSON document in UTF-8.]
+        return this.gson.toJson(value).getBytes(Message.DEFAULT_IOTHUB_MESSAGE_CHARSET);
+    }
+
+    @Override
+    public <T> T decode(byte[] body, Class<T> type) throws IOException
+    {
+        if ((body == null) || (type == null))
+        {
+            throw new IllegalArgumentException("body and type cannot be null.");
+        }
+
+        // Codes_SRS_JSONMESSAGECODEC_21_005: [The function shall decode the JSON document in UTF-8 to the type.]
+        // Codes_SRS_JSONMESSAGECODEC_21_006: [If the body is not a valid JSON document, the function shall throw
+        // IOException.]
+        try
+        {
+            return this.gson.fromJson(new String(body, Message.DEFAULT_IOTHUB_MESSAGE_CHARSET), type);
+        }
+        catch (JsonParseException e)
+        {
+            throw new IOException("The body is not a valid JSON document.", e);
+        }
+    }
+}
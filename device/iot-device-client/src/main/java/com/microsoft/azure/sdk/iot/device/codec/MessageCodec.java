@@ -0,0 +1,76 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.codec;
+
+import com.microsoft.azure.sdk.iot.device.Message;
+
+import java.io.IOException;
+
+/**
+ * Encodes application values, i.e. sensor records, into message bodies, and
+ * decodes them back.
+ * <p>
+ *     A codec names the content type and encoding of the bodies it encodes, and
+ *     {@link #toMessage(Object)} sets them on the message, so the transports
+ *     send them as system properties and the service side knows how to decode
+ *     the body. Implementations shall be thread safe, so a single instance is
+ *     shared by the threads that send messages.
+ * </p>
+ */
+public abstract class MessageCodec
+{
+    /**
+     * Returns the content type of the bodies encoded by this codec.
+     *
+     * @return the content type, i.e. "application/json".
+     */
+    public abstract String getContentType();
+
+    /**
+     * Returns the content encoding of the bodies encoded by this codec.
+     *
+     * @return the content encoding, i.e. "utf-8", or {@code null} for a
+     * binary content type.
+     */
+    public abstract String getContentEncoding();
+
+    /**
+     * Encodes a value.
+     *
+     * @param value the value to encode. Can be {@code null}.
+     * @return the encoded value.
+     */
+    public abstract byte[] encode(Object value);
+
+    /**
+     * Decodes a value encoded by this codec.
+     *
+     * @param body the encoded value.
+     * @param type the class of the value.
+     * @param <T> the type of the value.
+     * @return the decoded value.
+     * @throws IOException if the body is not a valid encoding of a value.
+     * @throws IllegalArgumentException if the body or the type is {@code null}.
+     */
+    public abstract <T> T decode(byte[] body, Class<T> type) throws IOException;
+
+    /**
+     * Creates a message with the value encoded as its body, and the content
+     * type and encoding of this codec.
+     *
+     * @param value the value to encode. Can be {@code null}.
+     * @return the message.
+     */
+    public final Message toMessage(Object value)
+    {
+        // Codes_SRS_MESSAGECODEC_21_001: [The function shall create a message with the encoded value as its body.]
+        Message message = new Message(this.encode(value));
+
+        // Codes_SRS_MESSAGECODEC_21_002: [The function shall set the content type and encoding of the message to
+        // the ones of the codec.]
+        message.setContentType(this.getContentType());
+        message.setContentEncoding(this.getContentEncoding());
+        return message;
+    }
+}
@@ -0,0 +1,5 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+/** Encodes application values into message bodies, as JSON or as compact CBOR. */
+package com.microsoft.azure.sdk.iot.device.codec;
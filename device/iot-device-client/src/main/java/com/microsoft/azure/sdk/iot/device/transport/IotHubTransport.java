@@ -75,4 +75,15 @@ public interface IotHubTransport extends Closeable
      * and {@code false} otherwise.
      */
     boolean isEmpty();
+
+    /**
+     * Returns {@code true} if the IoT Hub is currently not accepting more
+     * messages from the transport, and {@code false} otherwise. Messages added
+     * while the transport is back-pressured are buffered until the IoT Hub
+     * accepts them again.
+     *
+     * @return {@code true} if the transport is back-pressured, and
+     * {@code false} otherwise.
+     */
+    boolean isBackPressured();
 }
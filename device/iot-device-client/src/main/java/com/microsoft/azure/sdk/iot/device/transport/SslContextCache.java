@@ -0,0 +1,277 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Process-wide cache of the {@link SSLContext} trusting the certificates in a
+ * trusted certificate file, PEM or DER encoded.
+ * <p>
+ *     The contexts are keyed by the hash of the file content, so clients
+ *     trusting the same certificates share one context, and with it the TLS
+ *     session cache that allows resuming sessions instead of doing full
+ *     handshakes. A path is checked at most once a minute, and its content is
+ *     only read again when the size or the modification time of the file
+ *     changes.
+ * </p>
+ * <p>
+ *     The clients that do not trust a certificate file of their own use the
+ *     default context of the Java runtime, which trusts the trust store set
+ *     by the {@code javax.net.ssl.trustStore} system property, or else the
+ *     CA certificates of the runtime.
+ * </p>
+ * <p>
+ *     The cache also keeps one {@link SSLSocketFactory} per context. The JSSE
+ *     keep-alive cache of {@link javax.net.ssl.HttpsURLConnection} only reuses
+ *     a connection opened with the same factory, and the Paho MQTT client does
+ *     a full handshake for every factory it creates itself.
+ * </p>
+ */
+public final class SslContextCache
+{
+    private static final String sslProtocol = "TLS";
+    private static final String certificateType = "X.509";
+    private static final String contentHashAlgorithm = "SHA-256";
+    private static final String certificateAliasPrefix = "trusted-certificate-";
+
+    private static final SslContextCache instance = new SslContextCache();
+
+    /** The time, in milliseconds, a path is trusted without checking its file again. */
+    private long fileCheckIntervalMillis = 60 * 1000L;
+
+    private final Map<String, CertificateFile> certificateFiles = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, SSLContext> sslContexts = new ConcurrentHashMap<>();
+    private final ConcurrentMap<SSLContext, SSLSocketFactory> socketFactories = new ConcurrentHashMap<>();
+
+    /**
+     * Getter for the cache shared by all the clients in the process.
+     *
+     * @return the shared {@link SslContextCache}.
+     */
+    public static SslContextCache getInstance()
+    {
+        // Codes_SRS_SSLCONTEXTCACHE_21_001: [The function shall return the same cache on every call.]
+        return instance;
+    }
+
+    /**
+     * Getter for the SSL context trusting the certificates in the given file.
+     *
+     * @param certificatePath the path to the PEM or DER encoded trusted certificates.
+     * @return the {@link SSLContext} trusting the certificates in the file.
+     * @throws IOException if the file cannot be read or does not contain any certificate.
+     */
+    public SSLContext getSslContext(String certificatePath) throws IOException
+    {
+        // Codes_SRS_SSLCONTEXTCACHE_21_002: [If the certificate path is null or empty, the function shall throw IllegalArgumentException.]
+        if ((certificatePath == null) || certificatePath.isEmpty())
+        {
+            throw new IllegalArgumentException("The certificate path cannot be null or empty.");
+        }
+
+        // Codes_SRS_SSLCONTEXTCACHE_21_011: [If the file was checked less than a minute ago for the same path,
+        // the function shall return the cached context without checking the file.]
+        long nowMillis = System.currentTimeMillis();
+        CertificateFile certificateFile = this.certificateFiles.get(certificatePath);
+        if ((certificateFile != null) && (nowMillis - certificateFile.checkedMillis < this.fileCheckIntervalMillis))
+        {
+            return certificateFile.sslContext;
+        }
+
+        // Codes_SRS_SSLCONTEXTCACHE_21_003: [If the file does not exist, the function shall throw IOException.]
+        File file = new File(certificatePath);
+        if (!file.isFile())
+        {
+            throw new IOException("Trusted certificate file not found: " + certificatePath);
+        }
+
+        // Codes_SRS_SSLCONTEXTCACHE_21_004: [If the size and the modification time of the file did not change
+        // since the last call for the same path, the function shall return the cached context without reading the file.]
+        long lastModified = file.lastModified();
+        long length = file.length();
+        if ((certificateFile != null) && (certificateFile.lastModified == lastModified) && (certificateFile.length == length))
+        {
+            this.certificateFiles.put(certificatePath, new CertificateFile(lastModified, length, nowMillis, certificateFile.sslContext));
+            return certificateFile.sslContext;
+        }
+
+        // Codes_SRS_SSLCONTEXTCACHE_21_005: [The function shall return the cached context for the hash of the file
+        // content, and only create a new context if no file with the same content was loaded before.]
+        byte[] content = Files.readAllBytes(file.toPath());
+        String contentHash = hash(content);
+        SSLContext sslContext = this.sslContexts.get(contentHash);
+        if (sslContext == null)
+        {
+            sslContext = createSslContext(content);
+            SSLContext cachedSslContext = this.sslContexts.putIfAbsent(contentHash, sslContext);
+            if (cachedSslContext != null)
+            {
+                sslContext = cachedSslContext;
+            }
+        }
+
+        this.certificateFiles.put(certificatePath, new CertificateFile(lastModified, length, nowMillis, sslContext));
+        return sslContext;
+    }
+
+    /**
+     * Getter for the default SSL context of the Java runtime, for the clients
+     * that do not trust a certificate file of their own.
+     *
+     * @return the default {@link SSLContext}, the same one on every call.
+     * @throws IOException if the default context cannot be created.
+     */
+    public SSLContext getDefaultSslContext() throws IOException
+    {
+        // Codes_SRS_SSLCONTEXTCACHE_21_012: [The function shall return the default context of the Java runtime,
+        // which trusts the trust store set by the `javax.net.ssl.trustStore` system property, or else the CA
+        // certificates of the runtime.]
+        // The runtime creates the default context once and keeps it for the process.
+        try
+        {
+            return SSLContext.getDefault();
+        }
+        catch (GeneralSecurityException e)
+        {
+            // Codes_SRS_SSLCONTEXTCACHE_21_013: [If the default context cannot be created, the function shall
+            // throw IOException.]
+            throw new IOException("Could not create the default TLS context.", e);
+        }
+    }
+
+    /**
+     * Getter for the socket factory of the given SSL context.
+     *
+     * @param sslContext the initialized SSL context.
+     * @return the {@link SSLSocketFactory} of the context, the same one on every call.
+     */
+    public SSLSocketFactory getSocketFactory(SSLContext sslContext)
+    {
+        // Codes_SRS_SSLCONTEXTCACHE_21_009: [If the context is null, the function shall throw IllegalArgumentException.]
+        if (sslContext == null)
+        {
+            throw new IllegalArgumentException("The SSL context cannot be null.");
+        }
+
+        // Codes_SRS_SSLCONTEXTCACHE_21_010: [The function shall return the cached socket factory of the context,
+        // and only create a new one on the first call for the context.]
+        SSLSocketFactory socketFactory = this.socketFactories.get(sslContext);
+        if (socketFactory == null)
+        {
+            socketFactory = sslContext.getSocketFactory();
+            SSLSocketFactory cachedSocketFactory = this.socketFactories.putIfAbsent(sslContext, socketFactory);
+            if (cachedSocketFactory != null)
+            {
+                socketFactory = cachedSocketFactory;
+            }
+        }
+        return socketFactory;
+    }
+
+    /**
+     * Removes all the cached contexts, so the next connections load the
+     * trusted certificates again.
+     */
+    public void clear()
+    {
+        // Codes_SRS_SSLCONTEXTCACHE_21_006: [The function shall remove all the cached contexts.]
+        this.certificateFiles.clear();
+        this.sslContexts.clear();
+        this.socketFactories.clear();
+    }
+
+    private static SSLContext createSslContext(byte[] content) throws IOException
+    {
+        try
+        {
+            // Codes_SRS_SSLCONTEXTCACHE_21_007: [The function shall create a TLS context trusting all the
+            // certificates in the file, PEM or DER encoded.]
+            CertificateFactory certificateFactory = CertificateFactory.getInstance(certificateType);
+            Collection<? extends Certificate> certificates = certificateFactory.generateCertificates(new ByteArrayInputStream(content));
+
+            // Codes_SRS_SSLCONTEXTCACHE_21_008: [If the file does not contain any certificate, the function shall throw IOException.]
+            if (certificates.isEmpty())
+            {
+                throw new IOException("The trusted certificate file does not contain any certificate.");
+            }
+
+            KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+            keyStore.load(null, null);
+            int index = 0;
+            for (Certificate certificate : certificates)
+            {
+                keyStore.setCertificateEntry(certificateAliasPrefix + index++, certificate);
+            }
+
+            TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            trustManagerFactory.init(keyStore);
+
+            SSLContext sslContext = SSLContext.getInstance(sslProtocol);
+            sslContext.init(null, trustManagerFactory.getTrustManagers(), null);
+            return sslContext;
+        }
+        catch (GeneralSecurityException e)
+        {
+            throw new IOException("Could not load the trusted certificates.", e);
+        }
+    }
+
+    private static String hash(byte[] content) throws IOException
+    {
+        try
+        {
+            byte[] digest = MessageDigest.getInstance(contentHashAlgorithm).digest(content);
+            StringBuilder hash = new StringBuilder(digest.length * 2);
+            for (byte b : digest)
+            {
+                hash.append(String.format("%02x", b));
+            }
+            return hash.toString();
+        }
+        catch (GeneralSecurityException e)
+        {
+            throw new IOException("Could not hash the trusted certificate file.", e);
+        }
+    }
+
+    /**
+     * Context loaded for a path, with the size and modification time the file had when it was read, and the
+     * time the file was last checked.
+     */
+    private static final class CertificateFile
+    {
+        private final long lastModified;
+        private final long length;
+        private final long checkedMillis;
+        private final SSLContext sslContext;
+
+        CertificateFile(long lastModified, long length, long checkedMillis, SSLContext sslContext)
+        {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.checkedMillis = checkedMillis;
+            this.sslContext = sslContext;
+        }
+    }
+
+    private SslContextCache()
+    {
+    }
+}
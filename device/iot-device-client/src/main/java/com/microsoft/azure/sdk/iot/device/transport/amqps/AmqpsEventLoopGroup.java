@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license. See LICENSE file in the project root for full license information.
+ */
+
+package com.microsoft.azure.sdk.iot.device.transport.amqps;
+
+import com.microsoft.azure.sdk.iot.device.CustomLogger;
+import org.apache.qpid.proton.Proton;
+import org.apache.qpid.proton.engine.BaseHandler;
+import org.apache.qpid.proton.engine.Event;
+import org.apache.qpid.proton.engine.HandlerException;
+import org.apache.qpid.proton.reactor.Reactor;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Process-wide group of event loops shared by the AMQPS connections that enable the shared event loop.
+ * <p>
+ *     Each event loop owns one Proton reactor, and so one selector, and runs it on its own thread. Connections
+ *     are assigned to the least loaded event loop when they open, so the number of threads stays the same
+ *     whatever the number of connections. The group creates one event loop per available processor, and
+ *     starts each of them when its first connection is registered.
+ * </p>
+ */
+public final class AmqpsEventLoopGroup
+{
+    private static final int reactorTimeoutMillis = 10;
+    private static final int keepAliveMillis = 1000;
+    private static final String threadNamePrefix = "azure-iot-sdk-amqps-loop-";
+
+    private static AmqpsEventLoopGroup instance;
+
+    private final EventLoop[] eventLoops;
+    private final Map<AmqpsIotHubConnection, EventLoop> assignments = new ConcurrentHashMap<>();
+    private ExecutorService executorService;
+
+    private final CustomLogger logger;
+
+    /**
+     * Getter for the event loop group shared by all the connections in the process.
+     *
+     * @return the shared {@link AmqpsEventLoopGroup}, with one event loop per available processor.
+     */
+    public static synchronized AmqpsEventLoopGroup getInstance()
+    {
+        // Codes_SRS_AMQPSEVENTLOOPGROUP_21_001: [The function shall return the same group on every call, creating it
+        // with one event loop per available processor on the first call.]
+        if (instance == null)
+        {
+            instance = new AmqpsEventLoopGroup(Runtime.getRuntime().availableProcessors());
+        }
+        return instance;
+    }
+
+    AmqpsEventLoopGroup(int loopCount)
+    {
+        // Codes_SRS_AMQPSEVENTLOOPGROUP_21_002: [The constructor shall throw IllegalArgumentException if the number of event loops is not positive.]
+        if (loopCount <= 0)
+        {
+            throw new IllegalArgumentException("The number of event loops shall be positive.");
+        }
+
+        this.eventLoops = new EventLoop[loopCount];
+        for (int i = 0; i < loopCount; i++)
+        {
+            this.eventLoops[i] = new EventLoop(i);
+        }
+        this.logger = new CustomLogger(this.getClass());
+    }
+
+    /**
+     * Getter for the number of event loops in the group.
+     *
+     * @return the number of event loops.
+     */
+    public int getLoopCount()
+    {
+        // Codes_SRS_AMQPSEVENTLOOPGROUP_21_003: [The function shall return the number of event loops in the group.]
+        return this.eventLoops.length;
+    }
+
+    /**
+     * Assigns the connection to the least loaded event loop. The event loop connects it to the IoT Hub on
+     * its own thread.
+     *
+     * @param connection the connection to drive. It cannot be {@code null}.
+     * @throws IOException if the reactor of the event loop could not be created.
+     */
+    public synchronized void register(AmqpsIotHubConnection connection) throws IOException
+    {
+        // Codes_SRS_AMQPSEVENTLOOPGROUP_21_004: [If the connection is null, the function shall throw IllegalArgumentException.]
+        if (connection == null)
+        {
+            throw new IllegalArgumentException("The connection cannot be null.");
+        }
+
+        // Codes_SRS_AMQPSEVENTLOOPGROUP_21_005: [If the connection is already registered, the function shall do nothing.]
+        if (this.assignments.containsKey(connection))
+        {
+            return;
+        }
+
+        // Codes_SRS_AMQPSEVENTLOOPGROUP_21_006: [The function shall assign the connection to the event loop with
+        // the fewest connections, starting the event loop if it is not running yet.]
+        EventLoop eventLoop = this.eventLoops[0];
+        for (EventLoop candidate : this.eventLoops)
+        {
+            if (candidate.load.get() < eventLoop.load.get())
+            {
+                eventLoop = candidate;
+            }
+        }
+
+        if (eventLoop.reactor == null)
+        {
+            eventLoop.reactor = Proton.reactor(eventLoop);
+            if (this.executorService == null)
+            {
+                this.executorService = Executors.newFixedThreadPool(this.eventLoops.length, new EventLoopThreadFactory());
+            }
+            this.executorService.submit(new EventLoopRunner(eventLoop));
+            logger.LogInfo("Event loop %s has been started, method name is %s ", eventLoop.index, logger.getMethodName());
+        }
+
+        this.assignments.put(connection, eventLoop);
+        eventLoop.load.incrementAndGet();
+
+        // Codes_SRS_AMQPSEVENTLOOPGROUP_21_007: [The function shall queue the connection to be connected by the
+        // event loop thread, and wake the event loop up.]
+        eventLoop.pendingConnections.add(connection);
+        eventLoop.reactor.wakeup();
+    }
+
+    /**
+     * Removes the connection from its event loop, so the event loop stops forwarding reactor events to it.
+     *
+     * @param connection the connection to remove. Connections that are not registered are ignored.
+     */
+    public void unregister(AmqpsIotHubConnection connection)
+    {
+        // Codes_SRS_AMQPSEVENTLOOPGROUP_21_008: [If the connection is not registered, the function shall do nothing.]
+        if (connection == null)
+        {
+            return;
+        }
+
+        // Codes_SRS_AMQPSEVENTLOOPGROUP_21_009: [The function shall remove the connection from its event loop and
+        // release its slot, so the next connections are assigned to the least loaded event loop.]
+        EventLoop eventLoop = this.assignments.remove(connection);
+        if (eventLoop != null)
+        {
+            eventLoop.pendingConnections.remove(connection);
+            eventLoop.connections.remove(connection);
+            eventLoop.load.decrementAndGet();
+        }
+    }
+
+    /**
+     * One reactor shared by the connections assigned to it. It is the global handler of the reactor, so it
+     * receives the reactor events and forwards the quiesced one to its connections.
+     */
+    private static final class EventLoop extends BaseHandler
+    {
+        private final int index;
+        private final AtomicInteger load = new AtomicInteger(0);
+        private final Queue<AmqpsIotHubConnection> pendingConnections = new ConcurrentLinkedQueue<>();
+        private final Set<AmqpsIotHubConnection> connections = Collections.newSetFromMap(new ConcurrentHashMap<AmqpsIotHubConnection, Boolean>());
+        private volatile Reactor reactor;
+
+        EventLoop(int index)
+        {
+            this.index = index;
+        }
+
+        @Override
+        public void onReactorInit(Event event)
+        {
+            // Codes_SRS_AMQPSEVENTLOOPGROUP_21_010: [The event loop shall keep its reactor running while it has no connections.]
+            event.getReactor().schedule(keepAliveMillis, this);
+        }
+
+        @Override
+        public void onTimerTask(Event event)
+        {
+            event.getReactor().schedule(keepAliveMillis, this);
+        }
+
+        @Override
+        public void onReactorQuiesced(Event event)
+        {
+            // Codes_SRS_AMQPSEVENTLOOPGROUP_21_011: [When the reactor is quiesced, the event loop shall connect the
+            // queued connections using its reactor.]
+            AmqpsIotHubConnection connection;
+            while ((connection = this.pendingConnections.poll()) != null)
+            {
+                this.connections.add(connection);
+                connection.connectToHost(event.getReactor());
+            }
+
+            // Codes_SRS_AMQPSEVENTLOOPGROUP_21_012: [When the reactor is quiesced, the event loop shall forward the
+            // event to each of its connections.]
+            for (AmqpsIotHubConnection member : this.connections)
+            {
+                member.onReactorQuiesced(event);
+            }
+        }
+    }
+
+    /**
+     * Runs the reactor of an event loop. A handler failure of one connection is logged and its event dropped,
+     * so it does not stop the other connections of the event loop.
+     */
+    private static final class EventLoopRunner implements Callable
+    {
+        private final EventLoop eventLoop;
+        private final CustomLogger logger;
+
+        EventLoopRunner(EventLoop eventLoop)
+        {
+            this.eventLoop = eventLoop;
+            this.logger = new CustomLogger(this.getClass());
+        }
+
+        @Override
+        public Object call()
+        {
+            // Codes_SRS_AMQPSEVENTLOOPGROUP_21_013: [If a handler fails, the event loop shall log the error, drop
+            // the event and keep processing the events of the other connections.]
+            Reactor reactor = this.eventLoop.reactor;
+            reactor.setTimeout(reactorTimeoutMillis);
+            reactor.start();
+            while (true)
+            {
+                try
+                {
+                    if (!reactor.process())
+                    {
+                        break;
+                    }
+                }
+                catch (HandlerException e)
+                {
+                    logger.LogError(e);
+                    reactor.collector().pop();
+                }
+            }
+            reactor.stop();
+            reactor.process();
+            reactor.free();
+            return null;
+        }
+    }
+
+    /**
+     * Creates the daemon threads of the event loops, so they do not keep the process alive.
+     */
+    private static final class EventLoopThreadFactory implements ThreadFactory
+    {
+        private final AtomicInteger threadCount = new AtomicInteger(0);
+
+        @Override
+        public Thread newThread(Runnable runnable)
+        {
+            Thread thread = new Thread(runnable, threadNamePrefix + this.threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
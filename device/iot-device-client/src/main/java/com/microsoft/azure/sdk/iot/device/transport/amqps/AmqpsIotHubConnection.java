@@ -7,8 +7,11 @@ package com.microsoft.azure.sdk.iot.device.transport.amqps;
 
 import com.microsoft.azure.sdk.iot.device.DeviceClientConfig;
 import com.microsoft.azure.sdk.iot.device.IotHubMessageResult;
+import com.microsoft.azure.sdk.iot.device.MessageType;
 import com.microsoft.azure.sdk.iot.device.ObjectLock;
 import com.microsoft.azure.sdk.iot.device.auth.IotHubSasToken;
+import com.microsoft.azure.sdk.iot.device.auth.IotHubSasTokenCache;
+import com.microsoft.azure.sdk.iot.device.net.IotHubUri;
 import com.microsoft.azure.sdk.iot.device.transport.State;
 import com.microsoft.azure.sdk.iot.device.transport.TransportUtils;
 import com.microsoft.azure.sdk.iot.deps.ws.impl.WebSocketImpl;
@@ -16,6 +19,9 @@ import com.microsoft.azure.sdk.iot.device.CustomLogger;
 import org.apache.qpid.proton.Proton;
 import org.apache.qpid.proton.amqp.Symbol;
 import org.apache.qpid.proton.amqp.messaging.Accepted;
+import org.apache.qpid.proton.amqp.messaging.AmqpValue;
+import org.apache.qpid.proton.amqp.messaging.ApplicationProperties;
+import org.apache.qpid.proton.amqp.messaging.Properties;
 import org.apache.qpid.proton.amqp.messaging.Source;
 import org.apache.qpid.proton.amqp.messaging.Target;
 import org.apache.qpid.proton.amqp.transport.DeliveryState;
@@ -26,25 +32,22 @@ import org.apache.qpid.proton.message.Message;
 import org.apache.qpid.proton.reactor.FlowController;
 import org.apache.qpid.proton.reactor.Handshaker;
 import org.apache.qpid.proton.reactor.Reactor;
-import org.bouncycastle.openssl.PEMReader;
-import org.bouncycastle.openssl.PEMWriter;
 
-import java.io.FileInputStream;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOError;
 import java.io.IOException;
-import java.io.Reader;
 import java.nio.BufferOverflowException;
-import java.security.cert.Certificate;
-import java.security.cert.CertificateException;
-import java.security.cert.CertificateFactory;
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 
 
@@ -56,20 +59,52 @@ public final class AmqpsIotHubConnection extends BaseHandler
 {
     private int maxWaitTimeForOpeningClosingConnection = 3*60*1000;
     private int maxWaitTimeForTerminateExecutor = 30;
+    /** Time a caller waits for its send to run on the shared event loop before giving up on it. */
+    private static final int maxWaitTimeForEventLoopTaskMillis = 30*1000;
     protected State state;
 
     private static final String sendTag = "sender";
     private static final String receiveTag = "receiver";
+    private static final String twinSendTag = "twin_sender";
+    private static final String twinReceiveTag = "twin_receiver";
+    private static final String methodSendTag = "methods_sender";
+    private static final String methodReceiveTag = "methods_receiver";
+    private static final String cbsSendTag = "cbs_sender";
+    private static final String cbsReceiveTag = "cbs_receiver";
+
+    /** Address of the claims-based security node, and the keys and values of its put-token request and response. */
+    private static final String cbsAddress = "$cbs";
+    private static final String cbsReplyTo = "cbs";
+    private static final String cbsOperationKey = "operation";
+    private static final String cbsOperationPutToken = "put-token";
+    private static final String cbsTypeKey = "type";
+    private static final String cbsTypeSasToken = "servicebus.windows.net:sastoken";
+    private static final String cbsNameKey = "name";
+    private static final String cbsStatusCodeKey = "status-code";
+    private static final String cbsStatusDescriptionKey = "status-description";
+    private static final int cbsStatusOk = 200;
+    /** Time before retrying a put-token request which was not accepted by the IoT Hub on an authenticated connection. */
+    private static final int cbsRetryMillis = 30*1000;
 
     private static final String sendEndpointFormat = "/devices/%s/messages/events";
     private final String sendEndpoint;
     private static final String receiveEndpointFormat = "/devices/%s/messages/devicebound";
     private final String receiveEndpoint;
-
-    private int linkCredit = -1;
+    private static final String twinEndpointFormat = "/devices/%s/twin";
+    private final String twinEndpoint;
+    private static final String methodEndpointFormat = "/devices/%s/methods/devicebound";
+    private final String methodEndpoint;
+
+    /** Message format of the IoT Hub batched message, whose body holds one data section per encoded message. */
+    private static final int batchMessageFormat = 0x80013700;
+    /** Size of a data section header using the vbin32 encoding: descriptor (3 bytes), constructor (1 byte) and length (4 bytes). */
+    private static final int dataSectionHeaderSize = 8;
     /** The {@link Delivery} tag. */
     private long nextTag = 0;
     private static final String versionIdentifierKey = "com.microsoft:client-version";
+    private static final String channelCorrelationIdKey = "com.microsoft:channel-correlation-id";
+    private static final String apiVersionKey = "com.microsoft:api-version";
+    private static final String apiVersion = "2016-11-14";
     private static final String webSocketPath = "/$iothub/websocket";
     private static final String webSocketSubProtocol = "AMQPWSB10";
     private static final int amqpPort = 5671;
@@ -81,6 +116,33 @@ public final class AmqpsIotHubConnection extends BaseHandler
     private Connection connection;
     private Session session;
 
+    private Sender twinSender;
+    private Receiver twinReceiver;
+    private Sender methodSender;
+    private Receiver methodReceiver;
+
+    /** The links to the claims-based security node, used to authenticate the connection if enabled in the configuration. */
+    private Sender cbsSender;
+    private Receiver cbsReceiver;
+    /** Whether the IoT Hub accepted a token for the current connection. */
+    private boolean cbsAuthenticated = false;
+    /** Whether a put-token request shall be sent as soon as the claims-based security sender link has credit. */
+    private boolean cbsPutTokenPending = false;
+    /** Time, in milliseconds, when the token shall be renewed, or 0 if it shall not be renewed. */
+    private long cbsRenewalDueMillis = 0;
+    /** Whether a renewal of the token was requested before it is due. */
+    private volatile boolean cbsRenewalRequested = false;
+    /** The SAS token of the device, reused by the reconnects until it is due for renewal. */
+    private final IotHubSasTokenCache sasTokenCache;
+
+    /** The device operations (twin and methods) whose links shall be attached on every connection. */
+    private final Set<MessageType> deviceOperationTypes = Collections.newSetFromMap(new ConcurrentHashMap<MessageType, Boolean>());
+    /** Device operations whose links were requested by the caller, waiting to be opened on the reactor thread. */
+    private final Set<MessageType> pendingDeviceOperationTypes = Collections.newSetFromMap(new ConcurrentHashMap<MessageType, Boolean>());
+
+    /** Results of received messages waiting to be settled together on the reactor thread. */
+    private final Queue<PendingSettlement> pendingSettlements = new ConcurrentLinkedQueue<>();
+
     private String hostName;
     private String userName;
 
@@ -97,6 +159,20 @@ public final class AmqpsIotHubConnection extends BaseHandler
 
     private Boolean reconnectCall = false;
     private int currentReconnectionAttempt = 1;
+    /** Whether this connection reopens itself when lost, or leaves the recovery to its listeners. */
+    private boolean autoReconnect = true;
+    /** Time without any frame from the IoT Hub after which a fast recovering connection is considered lost. */
+    private static final int fastRecoveryIdleTimeoutMillis = 30*1000;
+    /** Whether the connection is driven by the shared event loops instead of by its own reactor. */
+    private final boolean sharedEventLoop;
+    /** Set by close, so a connection driven by a shared event loop does not reconnect after being closed. */
+    private volatile boolean closeRequested = false;
+    /** Backoff before the next reconnection, scheduled on the shared event loop instead of sleeping on it. */
+    private int reconnectDelayMillis = 0;
+    /** The shared event loop thread that drives the connection, the only thread allowed to use its Proton objects. */
+    private volatile Thread eventLoopThread;
+    /** Sends and closes requested by other threads, waiting to run on the shared event loop thread. */
+    private final Queue<FutureTask<Integer>> pendingEventLoopTasks = new ConcurrentLinkedQueue<>();
     protected CustomLogger logger;
 
     /**
@@ -134,6 +210,9 @@ public final class AmqpsIotHubConnection extends BaseHandler
 
         // Codes_SRS_AMQPSIOTHUBCONNECTION_15_002: [The constructor shall save the configuration into private member variables.]
         this.config = config;
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_21_107: [The constructor shall create a SAS token cache for the
+        // configuration, which the connections and the put-token requests take their token from.]
+        this.sasTokenCache = new IotHubSasTokenCache(config);
 
         String deviceId = this.config.getDeviceId();
         String iotHubName = this.config.getIotHubName();
@@ -154,25 +233,36 @@ public final class AmqpsIotHubConnection extends BaseHandler
         // endpoint private member variables using the send/receiveEndpointFormat constants and device id.]
         this.sendEndpoint = String.format(sendEndpointFormat, deviceId);
         this.receiveEndpoint = String.format(receiveEndpointFormat, deviceId);
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_21_053: [The constructor shall initialize the twin and method
+        // endpoint private member variables using the twin/methodEndpointFormat constants and device id.]
+        this.twinEndpoint = String.format(twinEndpointFormat, deviceId);
+        this.methodEndpoint = String.format(methodEndpointFormat, deviceId);
         this.logger = new CustomLogger(this.getClass());
         // Codes_SRS_AMQPSIOTHUBCONNECTION_15_004: [The constructor shall initialize a new Handshaker
         // (Proton) object to handle communication handshake.]
         // Codes_SRS_AMQPSIOTHUBCONNECTION_15_005: [The constructor shall initialize a new FlowController
         // (Proton) object to handle communication flow.]
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_21_073: [The FlowController shall grant the receiver links the
+        // prefetch given in the configuration as link credit.]
         add(new Handshaker());
-        add(new FlowController());
+        add(new FlowController(this.config.getAmqpReceivePrefetch()));
 
         // Codes_SRS_AMQPSIOTHUBCONNECTION_15_006: [The constructor shall set its state to CLOSED.]
         this.state = State.CLOSED;
 
-        try
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_21_095: [If the shared event loop is enabled, the constructor shall not create its own Proton reactor.]
+        this.sharedEventLoop = this.config.isAmqpSharedEventLoop();
+        if (!this.sharedEventLoop)
         {
-            reactor = Proton.reactor(this);
+            try
+            {
+                reactor = Proton.reactor(this);
 
-        } catch (IOException e)
-        {
-            logger.LogError(e);
-            throw new IOException("Could not create Proton reactor");
+            } catch (IOException e)
+            {
+                logger.LogError(e);
+                throw new IOException("Could not create Proton reactor");
+            }
         }
         logger.LogInfo("AmqpsIotHubConnection object is created successfully using port %s in %s method ", useWebSockets ? amqpWebSocketPort : amqpPort, logger.getMethodName());
     }
@@ -192,6 +282,7 @@ public final class AmqpsIotHubConnection extends BaseHandler
         // Codes_SRS_AMQPSIOTHUBCONNECTION_15_007: [If the AMQPS connection is already open, the function shall do nothing.]
         if(this.state == State.CLOSED)
         {
+            this.closeRequested = false;
             try
             {
                 // Codes_SRS_AMQPSIOTHUBCONNECTION_15_009: [The function shall trigger the Reactor (Proton) to begin running.]
@@ -231,19 +322,25 @@ public final class AmqpsIotHubConnection extends BaseHandler
      */
     public void close() throws IOException
     {
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_21_083: [If the Proton reactor already finished, the function shall not wait for it to close.]
+        boolean reactorRunning = (this.reactor != null);
 
+        this.closeRequested = true;
         closeAsync();
 
-        try
+        if (reactorRunning)
         {
-            synchronized (closeLock)
+            try
             {
-                closeLock.waitLock(maxWaitTimeForOpeningClosingConnection);
+                synchronized (closeLock)
+                {
+                    closeLock.waitLock(maxWaitTimeForOpeningClosingConnection);
+                }
+            } catch (InterruptedException e)
+            {
+                logger.LogError(e);
+                throw new IOException("Waited too long for the connection to close.");
             }
-        } catch (InterruptedException e)
-        {
-            logger.LogError(e);
-            throw new IOException("Waited too long for the connection to close.");
         }
 
         if (this.executorService != null) {
@@ -271,11 +368,21 @@ public final class AmqpsIotHubConnection extends BaseHandler
     {
         // Codes_SRS_AMQPSIOTHUBCONNECTION_15_008: [The function shall create a new sasToken valid for the duration
         // specified in config to be used for the communication with IoTHub.]
-        this.sasToken = new IotHubSasToken(this.config, System.currentTimeMillis() / 1000L +
-                this.config.getTokenValidSecs() + 1L).toString();
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_21_108: [The sasToken shall be taken from the SAS token cache, which
+        // renews it only if it is due for renewal.]
+        this.sasToken = this.sasTokenCache.getToken().toString();
 				
         logger.LogInfo("SAS Token is created successfully, method name is %s ", logger.getMethodName());
 
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_21_096: [If the shared event loop is enabled, the function shall register
+        // the connection in the shared event loop group instead of running its own reactor.]
+        if (this.sharedEventLoop)
+        {
+            AmqpsEventLoopGroup.getInstance().register(this);
+            logger.LogInfo("Connection is assigned to a shared event loop, method name is %s ", logger.getMethodName());
+            return;
+        }
+
         if (this.reactor == null)
         {
             this.reactor = Proton.reactor(this);
@@ -298,21 +405,123 @@ public final class AmqpsIotHubConnection extends BaseHandler
         // Codes_SRS_AMQPSIOTHUBCONNECTION_15_012: [The function shall set the status of the AMQPS connection to CLOSED.]
         this.state = State.CLOSED;
 
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_21_113: [If the shared event loop is enabled and the function is not called
+        // on the event loop thread, the function shall close the links, the session and the connection on the event
+        // loop thread instead, and wake the event loop up.]
+        if (isOffEventLoopThread())
+        {
+            submitToEventLoop(new Callable<Integer>()
+            {
+                @Override
+                public Integer call()
+                {
+                    closeProtonObjects();
+                    return 0;
+                }
+            });
+        }
+        else
+        {
+            closeProtonObjects();
+        }
+
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_15_014: [The function shall stop the Proton reactor.]
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_21_097: [If the shared event loop is enabled, the function shall not stop
+        // the reactor, as it drives other connections.]
+        if (this.reactor != null && !this.sharedEventLoop)
+        {
+            this.reactor.stop();
+            logger.LogInfo("Proton reactor has been stopped, method name is %s ", logger.getMethodName());
+        }
+    }
+
+    private void closeProtonObjects()
+    {
         // Codes_SRS_AMQPSIOTHUBCONNECTION_15_013: [The function shall close the AMQPS sender and receiver links,
         // the AMQPS session and the AMQPS connection.]
         if (this.sender != null)
             this.sender.close();
         if (this.receiver != null)
             this.receiver.close();
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_21_054: [The function shall close the twin and method links if they were opened.]
+        closeDeviceOperationLinks(MessageType.DeviceTwin);
+        closeDeviceOperationLinks(MessageType.DeviceMethods);
+        if (this.cbsSender != null)
+            this.cbsSender.close();
+        if (this.cbsReceiver != null)
+            this.cbsReceiver.close();
         if (this.session != null)
             this.session.close();
         if (this.connection != null)
             this.connection.close();
+    }
 
-        // Codes_SRS_AMQPSIOTHUBCONNECTION_15_014: [The function shall stop the Proton reactor.]
+    /**
+     * Checks whether the caller shall hand its Proton work over to the shared event loop, as Proton is not
+     * thread safe and the event loop thread uses the objects of this connection.
+     * @return {@code true} if the shared event loop is enabled and the caller is not its thread.
+     */
+    private boolean isOffEventLoopThread()
+    {
+        return this.sharedEventLoop && Thread.currentThread() != this.eventLoopThread;
+    }
 
-        this.reactor.stop();
-        logger.LogInfo("Proton reactor has been stopped, method name is %s ", logger.getMethodName());
+    /**
+     * Queues the operation to be run on the shared event loop thread when its reactor is quiesced, and wakes
+     * the reactor up.
+     * @param operation The Proton work to run.
+     * @return The queued task, or {@code null} if no event loop drives the connection.
+     */
+    private FutureTask<Integer> submitToEventLoop(Callable<Integer> operation)
+    {
+        Reactor currentReactor = this.reactor;
+        if (currentReactor == null)
+        {
+            return null;
+        }
+
+        FutureTask<Integer> task = new FutureTask<>(operation);
+        this.pendingEventLoopTasks.add(task);
+        currentReactor.wakeup();
+        return task;
+    }
+
+    /**
+     * Runs the send on the shared event loop thread and waits for its delivery hash.
+     * @param send The send to run.
+     * @return The hash returned by the send, or -1 if the send could not run on the event loop.
+     */
+    private Integer sendOnEventLoop(Callable<Integer> send)
+    {
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_21_114: [If the shared event loop is enabled and the function is not called
+        // on the event loop thread, the function shall send on the event loop thread and wait for the delivery hash.]
+        if (this.state == State.CLOSED)
+        {
+            return -1;
+        }
+
+        FutureTask<Integer> task = submitToEventLoop(send);
+        if (task == null)
+        {
+            return -1;
+        }
+
+        try
+        {
+            return task.get(maxWaitTimeForEventLoopTaskMillis, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException | TimeoutException | CancellationException e)
+        {
+            // Codes_SRS_AMQPSIOTHUBCONNECTION_21_115: [If the send did not complete on the event loop thread in
+            // time, the function shall cancel it and return -1.]
+            logger.LogError(e);
+        }
+        task.cancel(false);
+        return -1;
     }
 
     /**
@@ -321,12 +530,61 @@ public final class AmqpsIotHubConnection extends BaseHandler
      * @return An {@link Integer} representing the hash of the message, or -1 if the connection is closed.
      */
     public Integer sendMessage(Message message)
+    {
+        return sendMessage(message, MessageType.Telemetry);
+    }
+
+    /**
+     * Creates a binary message using the given content and messageId. Sends the created message using the sender
+     * link that corresponds to the message type, so telemetry, twin and method messages share the same session.
+     * On a shared event loop, the message is sent by the event loop thread and the caller waits for the result.
+     * @param message The message to be sent.
+     * @param messageType The type of the message, which selects the sender link.
+     * @return An {@link Integer} representing the hash of the message, or -1 if the connection is closed or
+     * the link is not ready yet.
+     */
+    public Integer sendMessage(final Message message, final MessageType messageType)
+    {
+        if (isOffEventLoopThread())
+        {
+            return sendOnEventLoop(new Callable<Integer>()
+            {
+                @Override
+                public Integer call()
+                {
+                    return sendMessageOnLink(message, messageType);
+                }
+            });
+        }
+        return sendMessageOnLink(message, messageType);
+    }
+
+    private Integer sendMessageOnLink(Message message, MessageType messageType)
     {
         Integer deliveryHash;
+        Sender sender;
+        boolean hasCredit;
+
+        if (messageType == MessageType.DeviceTwin || messageType == MessageType.DeviceMethods)
+        {
+            sender = (messageType == MessageType.DeviceTwin) ? this.twinSender : this.methodSender;
+            // Codes_SRS_AMQPSIOTHUBCONNECTION_21_055: [If the message is a twin or method message and the
+            // corresponding links are not opened yet, the function shall request them to be opened and return -1.]
+            if (sender == null && this.state != State.CLOSED)
+            {
+                openDeviceOperationLinks(messageType);
+            }
+            hasCredit = (sender != null) && (sender.getCredit() > 0);
+        }
+        else
+        {
+            sender = this.sender;
+            hasCredit = (sender != null) && (sender.getCredit() > 0);
+        }
 
         // Codes_SRS_AMQPSIOTHUBCONNECTION_15_015: [If the state of the connection is CLOSED or there is not enough
         // credit, the function shall return -1.]
-        if (this.state == State.CLOSED || this.linkCredit <= 0)
+        if (this.state == State.CLOSED || !hasCredit)
         {
             deliveryHash = -1;
         }
@@ -367,6 +625,7 @@ public final class AmqpsIotHubConnection extends BaseHandler
 
             // Codes_SRS_AMQPSIOTHUBCONNECTION_15_020: [The function shall set the delivery hash to the value returned by the sender link.]
             deliveryHash = dlv.hashCode();
+
             logger.LogInfo("Delivery hash returned by the sender link %s, method name is %s ", deliveryHash, logger.getMethodName());
         }
         catch (Exception e)
@@ -383,7 +642,139 @@ public final class AmqpsIotHubConnection extends BaseHandler
     }
 
     /**
-     * Sends the message result for the previously received message.
+     * Checks whether the telemetry sender link has used up the credit granted by IoTHub. The credit is read from
+     * the link itself, which Proton consumes on every send and replenishes on every flow, so a grant received
+     * while a message is being sent is never overwritten. A failed send on a connection that is closed, or whose
+     * link is not created yet, is not a lack of credit.
+     * @return {@code true} if the telemetry sender link reports no credit left, and {@code false} otherwise.
+     */
+    public boolean isOutOfCredit()
+    {
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_21_110: [The function shall return true if the connection is not closed and
+        // the telemetry sender link reports no credit left, and false otherwise.]
+        Sender telemetrySender = this.sender;
+        return this.state != State.CLOSED && telemetrySender != null && telemetrySender.getCredit() <= 0;
+    }
+
+    /**
+     * Packs the given messages into a single IoT Hub batched message and sends it using the telemetry sender link.
+     * Each message is encoded in its own data section of the envelope, so the whole batch consumes one unit of
+     * link credit and is settled by a single disposition. On a shared event loop, the batch is sent by the event
+     * loop thread and the caller waits for the result.
+     * @param messages The messages to be sent together, in order.
+     * @return An {@link Integer} representing the hash of the batch delivery, or -1 if the connection is closed or
+     * there is not enough credit.
+     */
+    public Integer sendMessageBatch(final List<Message> messages)
+    {
+        if (isOffEventLoopThread())
+        {
+            return sendOnEventLoop(new Callable<Integer>()
+            {
+                @Override
+                public Integer call()
+                {
+                    return sendMessageBatchOnLink(messages);
+                }
+            });
+        }
+        return sendMessageBatchOnLink(messages);
+    }
+
+    private Integer sendMessageBatchOnLink(List<Message> messages)
+    {
+        Integer deliveryHash;
+
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_21_067: [If the state of the connection is CLOSED, there is not enough
+        // credit or there are no messages to send, the function shall return -1.]
+        if (this.state == State.CLOSED || this.sender == null || this.sender.getCredit() <= 0 || messages == null || messages.isEmpty())
+        {
+            deliveryHash = -1;
+        }
+        else
+        {
+            // Codes_SRS_AMQPSIOTHUBCONNECTION_21_068: [The function shall encode each message directly after its
+            // own data section header in a single buffer, growing the buffer if it is not big enough.]
+            byte[] batchData = new byte[1024];
+            int length = 0;
+
+            logger.LogInfo("Started encoding of %s messages in a batch, method name is %s ", messages.size(), logger.getMethodName());
+            for (Message message : messages)
+            {
+                while (true)
+                {
+                    int available = batchData.length - length - dataSectionHeaderSize;
+                    try
+                    {
+                        if (available <= 0)
+                        {
+                            throw new BufferOverflowException();
+                        }
+                        int encodedLength = message.encode(batchData, length + dataSectionHeaderSize, available);
+                        writeDataSectionHeader(batchData, length, encodedLength);
+                        length += dataSectionHeaderSize + encodedLength;
+                        break;
+                    }
+                    catch (BufferOverflowException e)
+                    {
+                        batchData = Arrays.copyOf(batchData, batchData.length * 2);
+                    }
+                }
+            }
+            logger.LogInfo("Completed encoding of the batch, length is %s, method name is %s ", length, logger.getMethodName());
+
+            byte[] tag = String.valueOf(this.nextTag++).getBytes();
+            Delivery dlv = this.sender.delivery(tag);
+            try
+            {
+                // Codes_SRS_AMQPSIOTHUBCONNECTION_21_069: [The function shall set the IoT Hub batched message format on the delivery.]
+                dlv.setMessageFormat(batchMessageFormat);
+
+                // Codes_SRS_AMQPSIOTHUBCONNECTION_21_070: [The function shall send the batch using the sender link
+                // and advance the link, which consumes one unit of its credit.]
+                this.sender.send(batchData, 0, length);
+                this.sender.advance();
+
+                // Codes_SRS_AMQPSIOTHUBCONNECTION_21_071: [The function shall return the hash of the batch delivery.]
+                deliveryHash = dlv.hashCode();
+                logger.LogInfo("Delivery hash returned by the sender link for the batch %s, method name is %s ", deliveryHash, logger.getMethodName());
+            }
+            catch (Exception e)
+            {
+                // Codes_SRS_AMQPSIOTHUBCONNECTION_21_072: [If the send fails, the function shall release the delivery and return -1.]
+                this.sender.advance();
+                dlv.free();
+                deliveryHash = -1;
+            }
+        }
+
+        return deliveryHash;
+    }
+
+    /**
+     * Writes the header of an AMQP data section holding {@code length} bytes of binary data, using the vbin32
+     * encoding so the header size does not depend on the size of the data.
+     * @param buffer The buffer to write the header into.
+     * @param offset The position of the header in the buffer.
+     * @param length The size of the binary data that follows the header.
+     */
+    private static void writeDataSectionHeader(byte[] buffer, int offset, int length)
+    {
+        // described type 0x00, small ulong descriptor 0x53 with the data section code 0x75, then vbin32 0xb0
+        buffer[offset] = 0x00;
+        buffer[offset + 1] = 0x53;
+        buffer[offset + 2] = 0x75;
+        buffer[offset + 3] = (byte) 0xb0;
+        buffer[offset + 4] = (byte) (length >>> 24);
+        buffer[offset + 5] = (byte) (length >>> 16);
+        buffer[offset + 6] = (byte) (length >>> 8);
+        buffer[offset + 7] = (byte) length;
+    }
+
+    /**
+     * Sends the message result for the previously received message. If batched settlement is enabled in the
+     * configuration, the result is only recorded here, and all the recorded results are settled together on the
+     * reactor thread once it has no more events to process.
      *
      * @param message the message to be acknowledged.
      * @param result the message result (one of {@link IotHubMessageResult#COMPLETE},
@@ -400,16 +791,17 @@ public final class AmqpsIotHubConnection extends BaseHandler
                 logger.LogInfo("Acknowledgement for received message is %s, method name is %s ", result.name(), logger.getMethodName());
                 // Codes_SRS_AMQPSIOTHUBCONNECTION_15_023: [If the message result is COMPLETE, ABANDON, or REJECT,
                 // the function shall acknowledge the last message with acknowledgement type COMPLETE, ABANDON, or REJECT respectively.]
+                AmqpsMessage.ACK_TYPE ackType;
                 switch (result)
                 {
                     case COMPLETE:
-                        message.acknowledge(AmqpsMessage.ACK_TYPE.COMPLETE);
+                        ackType = AmqpsMessage.ACK_TYPE.COMPLETE;
                         break;
                     case REJECT:
-                        message.acknowledge(AmqpsMessage.ACK_TYPE.REJECT);
+                        ackType = AmqpsMessage.ACK_TYPE.REJECT;
                         break;
                     case ABANDON:
-                        message.acknowledge(AmqpsMessage.ACK_TYPE.ABANDON);
+                        ackType = AmqpsMessage.ACK_TYPE.ABANDON;
                         break;
                     default:
                         // should never happen.
@@ -417,6 +809,17 @@ public final class AmqpsIotHubConnection extends BaseHandler
                         throw new IllegalStateException("Invalid IoT Hub message result.");
                 }
 
+                // Codes_SRS_AMQPSIOTHUBCONNECTION_21_074: [If batched settlement is enabled, the function shall record
+                // the acknowledgement to be settled by the reactor thread instead of acknowledging the message.]
+                if (this.config.isAmqpBatchedSettlement())
+                {
+                    this.pendingSettlements.add(new PendingSettlement(message, ackType));
+                }
+                else
+                {
+                    message.acknowledge(ackType);
+                }
+
                 // Codes_SRS_AMQPSIOTHUBCONNECTION_15_024: [The function shall return true after the message was acknowledged.]
                 ackResult = true;
             }
@@ -429,6 +832,69 @@ public final class AmqpsIotHubConnection extends BaseHandler
         return ackResult;
     }
 
+    /**
+     * Event handler for the reactor quiesced event, raised when the reactor has no more events to process.
+     * Runs the sends and closes queued by other threads on a shared event loop, settles all the recorded results
+     * of received messages together, so their dispositions are written to the transport in the same pass, and
+     * opens the device operation links requested by other threads.
+     * @param event The Proton Event object.
+     */
+    @Override
+    public void onReactorQuiesced(Event event)
+    {
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_21_116: [The event handler shall run the sends and closes queued by other
+        // threads, in the order they were queued.]
+        FutureTask<Integer> eventLoopTask;
+        while ((eventLoopTask = this.pendingEventLoopTasks.poll()) != null)
+        {
+            eventLoopTask.run();
+        }
+
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_21_075: [The event handler shall acknowledge all the recorded messages, in the order they were recorded.]
+        int settled = 0;
+        PendingSettlement pendingSettlement;
+        while ((pendingSettlement = this.pendingSettlements.poll()) != null)
+        {
+            try
+            {
+                pendingSettlement.message.acknowledge(pendingSettlement.ackType);
+                settled++;
+            }
+            catch (Exception e)
+            {
+                // Codes_SRS_AMQPSIOTHUBCONNECTION_21_076: [If a message cannot be acknowledged, the event handler shall
+                // log the error and continue with the next message.]
+                logger.LogError(e);
+            }
+        }
+
+        if (settled > 0)
+        {
+            logger.LogDebug("Settled %s received messages together, method name is %s ", settled, logger.getMethodName());
+        }
+
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_21_111: [If the session is created, the event handler shall open the links
+        // of the device operations requested since the last event.]
+        if (this.session != null)
+        {
+            for (MessageType messageType : this.pendingDeviceOperationTypes)
+            {
+                this.pendingDeviceOperationTypes.remove(messageType);
+                createDeviceOperationLinks(messageType);
+            }
+        }
+
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_21_086: [If the connection is authenticated by claims-based security and the
+        // renewal of the token is due or was requested, the event handler shall send a new put-token request.]
+        if (this.cbsAuthenticated && !this.cbsPutTokenPending
+                && (this.cbsRenewalRequested || (this.cbsRenewalDueMillis > 0 && System.currentTimeMillis() >= this.cbsRenewalDueMillis)))
+        {
+            this.cbsRenewalRequested = false;
+            logger.LogInfo("Renewing the SAS token over claims-based security, method name is %s ", logger.getMethodName());
+            sendPutToken();
+        }
+    }
+
     /**
      * Event handler for the connection init event
      * @param event The Proton Event object.
@@ -441,9 +907,42 @@ public final class AmqpsIotHubConnection extends BaseHandler
         this.connection = event.getConnection();
         this.connection.setHostname(this.hostName);
 
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_21_077: [The event handler shall drop the recorded results of messages received
+        // on the previous connection, since the IoT Hub delivers those messages again.]
+        this.pendingSettlements.clear();
+
         // Codes_SRS_AMQPSIOTHUBCONNECTION_15_026: [The event handler shall create a Session (Proton) object from the connection.]
         this.session = this.connection.session();
 
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_15_029: [The event handler shall open the connection, session, sender and receiver objects.]
+        this.connection.open();
+        this.session.open();
+
+        this.cbsAuthenticated = false;
+        this.cbsRenewalDueMillis = 0;
+        if (this.config.isAmqpCbsAuthentication())
+        {
+            // Codes_SRS_AMQPSIOTHUBCONNECTION_21_084: [If claims-based security is enabled, the event handler shall open
+            // only the claims-based security links, and send a put-token request as soon as the IoT Hub grants credit.]
+            this.cbsReceiver = this.session.receiver(cbsReceiveTag);
+            this.cbsSender = this.session.sender(cbsSendTag);
+            this.cbsReceiver.open();
+            this.cbsSender.open();
+            this.cbsPutTokenPending = true;
+        }
+        else
+        {
+            openDeviceLinks();
+        }
+        logger.LogDebug("Exited from method %s", logger.getMethodName());
+    }
+
+    /**
+     * Creates and opens the telemetry links, and the twin and method links of the device operations which
+     * were already started, on the current session.
+     */
+    private void openDeviceLinks()
+    {
         // Codes_SRS_AMQPSIOTHUBCONNECTION_15_027: [The event handler shall create a Receiver and Sender (Proton) links and set the protocol tag on them to a predefined constant.]
         this.receiver = this.session.receiver(receiveTag);
         this.sender = this.session.sender(sendTag);
@@ -454,12 +953,19 @@ public final class AmqpsIotHubConnection extends BaseHandler
         this.receiver.setProperties(properties);
         this.sender.setProperties(properties);
 
-        // Codes_SRS_AMQPSIOTHUBCONNECTION_15_029: [The event handler shall open the connection, session, sender and receiver objects.]
-        this.connection.open();
-        this.session.open();
-        receiver.open();
-        sender.open();
-        logger.LogDebug("Exited from method %s", logger.getMethodName());
+        this.receiver.open();
+        this.sender.open();
+
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_21_056: [The event handler shall open the twin and method links
+        // on the new session for the device operations which were already started.]
+        this.twinSender = null;
+        this.twinReceiver = null;
+        this.methodSender = null;
+        this.methodReceiver = null;
+        for (MessageType messageType : this.deviceOperationTypes)
+        {
+            createDeviceOperationLinks(messageType);
+        }
     }
 
     /**
@@ -482,11 +988,27 @@ public final class AmqpsIotHubConnection extends BaseHandler
             }
 
             // Codes_SRS_AMQPSIOTHUBCONNECTION_15_031: [The event handler shall set the SASL_PLAIN authentication on the transport using the given user name and sas token.]
+            // Codes_SRS_AMQPSIOTHUBCONNECTION_21_085: [If claims-based security is enabled, the event handler shall set the SASL_ANONYMOUS authentication on the transport instead.]
             Sasl sasl = transport.sasl();
-            sasl.plain(this.userName, this.sasToken);
+            if (this.config.isAmqpCbsAuthentication())
+            {
+                sasl.setMechanisms("ANONYMOUS");
+            }
+            else
+            {
+                sasl.plain(this.userName, this.sasToken);
+            }
 
+            // Codes_SRS_AMQPSIOTHUBCONNECTION_21_106: [The event handler shall give the IoT Hub host and port to the
+            // SSL layer, so the cached TLS session for the host is resumed instead of doing a full handshake.]
             SslDomain domain = makeDomain(SslDomain.Mode.CLIENT);
-            transport.ssl(domain);
+            transport.ssl(domain, Proton.sslPeerDetails(this.config.getIotHubHostname(), this.useWebSockets ? amqpWebSocketPort : amqpPort));
+
+            // Codes_SRS_AMQPSIOTHUBCONNECTION_21_081: [If the fast recovery is enabled, the event handler shall set the idle timeout on the transport, so missed heartbeats are reported as a transport error.]
+            if (this.config.isAmqpFastRecovery())
+            {
+                transport.setIdleTimeout(fastRecoveryIdleTimeoutMillis);
+            }
         }
         synchronized (openLock)
         {
@@ -500,9 +1022,77 @@ public final class AmqpsIotHubConnection extends BaseHandler
     {
         logger.LogDebug("Entered in method %s", logger.getMethodName());
         this.state = State.CLOSED;
+
+        if (this.sharedEventLoop)
+        {
+            // Codes_SRS_AMQPSIOTHUBCONNECTION_21_098: [If the shared event loop is enabled, the event handler shall
+            // free the Proton connection, so the shared reactor releases it.]
+            event.getConnection().free();
+
+            if (this.reconnectCall && !this.closeRequested)
+            {
+                // Codes_SRS_AMQPSIOTHUBCONNECTION_21_099: [If the shared event loop is enabled and the connection is
+                // reconnecting, the event handler shall schedule the reconnection on the shared reactor after the backoff.]
+                this.reconnectCall = false;
+                event.getReactor().schedule(this.reconnectDelayMillis, this);
+            }
+            else
+            {
+                // Codes_SRS_AMQPSIOTHUBCONNECTION_21_100: [If the shared event loop is enabled and the connection is
+                // not reconnecting, the event handler shall unregister the connection from the shared event loop group
+                // and notify that the connection is closed.]
+                this.reconnectCall = false;
+                releaseSharedEventLoop();
+            }
+        }
+        logger.LogDebug("Exited from method %s", logger.getMethodName());
+    }
+
+    /**
+     * Event handler for the timer task event, raised on the shared event loop when the reconnection backoff
+     * expires.
+     * @param event The Proton Event object.
+     */
+    @Override
+    public void onTimerTask(Event event)
+    {
+        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        if (this.closeRequested)
+        {
+            // Codes_SRS_AMQPSIOTHUBCONNECTION_21_101: [If the connection was closed during the backoff, the event
+            // handler shall unregister the connection from the shared event loop group instead of reconnecting.]
+            releaseSharedEventLoop();
+        }
+        else
+        {
+            // Codes_SRS_AMQPSIOTHUBCONNECTION_21_102: [The event handler shall create a new sasToken and reconnect
+            // to the IoT Hub using the shared reactor.]
+            // Codes_SRS_AMQPSIOTHUBCONNECTION_21_108: [The sasToken shall be taken from the SAS token cache, which
+            // renews it only if it is due for renewal.]
+            this.sasToken = this.sasTokenCache.getToken().toString();
+            connectToHost(event.getReactor());
+        }
         logger.LogDebug("Exited from method %s", logger.getMethodName());
     }
 
+    private void releaseSharedEventLoop()
+    {
+        this.reactor = null;
+        AmqpsEventLoopGroup.getInstance().unregister(this);
+
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_21_117: [When the connection leaves the shared event loop, the sends still
+        // queued shall be cancelled, so their callers do not wait for them.]
+        FutureTask<Integer> eventLoopTask;
+        while ((eventLoopTask = this.pendingEventLoopTasks.poll()) != null)
+        {
+            eventLoopTask.cancel(false);
+        }
+        synchronized (closeLock)
+        {
+            closeLock.notifyLock();
+        }
+    }
+
     /**
      * Event handler for reactor init event.
      * @param event Proton Event object
@@ -512,16 +1102,31 @@ public final class AmqpsIotHubConnection extends BaseHandler
     {
         logger.LogDebug("Entered in method %s", logger.getMethodName());
         // Codes_SRS_AMQPSIOTHUBCONNECTION_15_033: [The event handler shall set the current handler to handle the connection events.]
+        connectToHost(event.getReactor());
+        logger.LogDebug("Exited from method %s", logger.getMethodName());
+    }
+
+    /**
+     * Connects to the IoT Hub using the given reactor, with this connection handling the connection events.
+     * Called on the reactor thread, either by its own reactor or by the shared event loop that drives it, and
+     * keeps that thread as the only one allowed to use the Proton objects of the connection.
+     * @param reactor the reactor that drives the connection.
+     */
+    public void connectToHost(Reactor reactor)
+    {
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_21_103: [The function shall connect to the IoT Hub host using the given
+        // reactor, on the web socket port if web sockets are enabled, and keep the reactor that drives the connection.]
+        this.reactor = reactor;
+        this.eventLoopThread = Thread.currentThread();
         if(this.useWebSockets)
         {
-            event.getReactor().connectionToHost(this.config.getIotHubHostname(), amqpWebSocketPort, this);
+            reactor.connectionToHost(this.config.getIotHubHostname(), amqpWebSocketPort, this);
 
         }
         else
         {
-            event.getReactor().connectionToHost(this.config.getIotHubHostname(), amqpPort, this);
+            reactor.connectionToHost(this.config.getIotHubHostname(), amqpPort, this);
         }
-        logger.LogDebug("Exited from method %s", logger.getMethodName());
     }
 
     @Override
@@ -535,6 +1140,12 @@ public final class AmqpsIotHubConnection extends BaseHandler
 
         this.reactor = null;
 
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_21_080: [If the auto reconnect is disabled, the event handler shall shut down the executor service, as the connection will not be reopened.]
+        if (!this.autoReconnect && this.executorService != null)
+        {
+            this.executorService.shutdown();
+        }
+
         if (reconnectCall)
         {
             reconnectCall = false;
@@ -558,7 +1169,13 @@ public final class AmqpsIotHubConnection extends BaseHandler
     public void onDelivery(Event event)
     {
         logger.LogDebug("Entered in method %s", logger.getMethodName());
-        if(event.getLink().getName().equals(receiveTag))
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_21_057: [The event handler shall handle the twin and method receiver links as Receiver links.]
+        String linkName = event.getLink().getName();
+        if (linkName.equals(cbsReceiveTag) || linkName.equals(cbsSendTag))
+        {
+            handleCbsDelivery(event);
+        }
+        else if(linkName.equals(receiveTag) || linkName.equals(twinReceiveTag) || linkName.equals(methodReceiveTag))
         {
             logger.LogInfo("Reading the receiver link, method name is %s ", logger.getMethodName());
             // Codes_SRS_AMQPSIOTHUBCONNECTION_15_034: [If this link is the Receiver link, the event handler shall get the Receiver and Delivery (Proton) objects from the event.]
@@ -579,6 +1196,19 @@ public final class AmqpsIotHubConnection extends BaseHandler
                 msg.setDelivery(delivery);
                 logger.LogInfo("Decoding the received message , method name is %s ", logger.getMethodName());
                 msg.decode(buffer, 0, read);
+                // Codes_SRS_AMQPSIOTHUBCONNECTION_21_058: [The event handler shall set the AmqpsMessage type according to the link it was received on.]
+                if (linkName.equals(twinReceiveTag))
+                {
+                    msg.setAmqpsMessageType(MessageType.DeviceTwin);
+                }
+                else if (linkName.equals(methodReceiveTag))
+                {
+                    msg.setAmqpsMessageType(MessageType.DeviceMethods);
+                }
+                else
+                {
+                    msg.setAmqpsMessageType(MessageType.Telemetry);
+                }
                 logger.LogInfo("Decoding the received message completed , method name is %s ", logger.getMethodName());
                 // Codes_SRS_AMQPSIOTHUBCONNECTION_15_049: [All the listeners shall be notified that a message was received from the server.]
                 this.messageReceivedFromServer(msg);
@@ -611,16 +1241,43 @@ public final class AmqpsIotHubConnection extends BaseHandler
     }
 
     /**
-     * Event handler for the link flow event. Handles sending a single message.
+     * Event handler for the link flow event. Lets the listeners know how many messages they can send with the
+     * credit granted by IoTHub on the sender link. The credit itself stays on the link, where Proton keeps it.
      * @param event The Proton Event object.
      */
     @Override
     public void onLinkFlow(Event event)
     {
         logger.LogDebug("Entered in method %s", logger.getMethodName());
-        // Codes_SRS_AMQPSIOTHUBCONNECTION_15_040: [The event handler shall save the remaining link credit.]
-        this.linkCredit = event.getLink().getCredit();
-		logger.LogDebug("The link credit value is %s, method name is %s", this.linkCredit, logger.getMethodName());
+        Link link = event.getLink();
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_21_087: [If the claims-based security sender link is granted credit and a
+        // put-token request is pending, the event handler shall send it, without notifying the listeners.]
+        if (cbsSendTag.equals(link.getName()))
+        {
+            if (this.cbsPutTokenPending && link.getCredit() > 0)
+            {
+                sendPutToken();
+            }
+        }
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_21_051: [The event handler shall ignore flow events for links other than the Sender link.]
+        else if (link instanceof Sender)
+        {
+            int credit = link.getCredit();
+            logger.LogDebug("The link credit value is %s, method name is %s", credit, logger.getMethodName());
+
+            // Codes_SRS_AMQPSIOTHUBCONNECTION_21_059: [The event handler shall not notify the listeners of the credit
+            // of the twin and method sender links.]
+            boolean isTelemetryLink = !isDeviceOperationLink(link.getName());
+
+            // Codes_SRS_AMQPSIOTHUBCONNECTION_21_052: [If there is link credit available, all the listeners shall be notified of the amount of credit granted.]
+            if (isTelemetryLink && credit > 0)
+            {
+                for (ServerListener listener : listeners)
+                {
+                    listener.linkCreditGranted(credit);
+                }
+            }
+        }
         logger.LogDebug("Exited from method %s", logger.getMethodName());
     }
 
@@ -652,10 +1309,24 @@ public final class AmqpsIotHubConnection extends BaseHandler
     public void onLinkRemoteClose(Event event)
     {
         logger.LogDebug("Entered in method %s", logger.getMethodName());
+        String linkName = event.getLink().getName();
+
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_21_060: [If a twin or method link is closed remotely, the event handler shall
+        // close that pair of links, so they are opened again on the next send, without closing the connection.]
+        if (isDeviceOperationLink(linkName))
+        {
+            logger.LogInfo("Link %s was closed by IotHub, method name is %s ", linkName, logger.getMethodName());
+            closeDeviceOperationLinks((linkName.equals(twinSendTag) || linkName.equals(twinReceiveTag)) ? MessageType.DeviceTwin : MessageType.DeviceMethods);
+            logger.LogDebug("Exited from method %s", logger.getMethodName());
+            return;
+        }
+
         this.state = State.CLOSED;
 
         // Codes_SRS_AMQPSIOTHUBCONNECTION_15_042 [The event handler shall attempt to startReconnect to the IoTHub.]
-        if (event.getLink().getName().equals(sendTag))
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_21_088: [If the claims-based security sender link is closed remotely, the
+        // event handler shall attempt to reconnect, since the token could not be renewed anymore.]
+        if (linkName.equals(sendTag) || linkName.equals(cbsSendTag))
         {
             logger.LogInfo("Starting to reconnect to IotHub, method name is %s ", logger.getMethodName());
             // Codes_SRS_AMQPSIOTHUBCONNECTION_15_048: [The event handler shall attempt to startReconnect to IoTHub.]
@@ -673,11 +1344,13 @@ public final class AmqpsIotHubConnection extends BaseHandler
     {
         logger.LogDebug("Entered in method %s", logger.getMethodName());
         Link link = event.getLink();
-        if(link.getName().equals(sendTag))
+        String linkName = link.getName();
+        if(linkName.equals(sendTag) || linkName.equals(twinSendTag) || linkName.equals(methodSendTag) || linkName.equals(cbsSendTag))
         {
             // Codes_SRS_AMQPSIOTHUBCONNECTION_15_043: [If the link is the Sender link, the event handler shall create a new Target (Proton) object using the sender endpoint address member variable.]
+            // Codes_SRS_AMQPSIOTHUBCONNECTION_21_061: [If the link is the twin or method Sender link, the event handler shall use the twin or method endpoint address as Target.]
             Target t = new Target();
-            t.setAddress(this.sendEndpoint);
+            t.setAddress(getEndpoint(linkName));
 
             // Codes_SRS_AMQPSIOTHUBCONNECTION_15_044: [If the link is the Sender link, the event handler shall set its target to the created Target (Proton) object.]
             link.setTarget(t);
@@ -688,8 +1361,9 @@ public final class AmqpsIotHubConnection extends BaseHandler
         else
         {
             // Codes_SRS_AMQPSIOTHUBCONNECTION_14_046: [If the link is the Receiver link, the event handler shall create a new Source (Proton) object using the receiver endpoint address member variable.]
+            // Codes_SRS_AMQPSIOTHUBCONNECTION_21_062: [If the link is the twin or method Receiver link, the event handler shall use the twin or method endpoint address as Source.]
             Source source = new Source();
-            source.setAddress(this.receiveEndpoint);
+            source.setAddress(getEndpoint(linkName));
 
             // Codes_SRS_AMQPSIOTHUBCONNECTION_14_047: [If the link is the Receiver link, the event handler shall set its source to the created Source (Proton) object.]
             link.setSource(source);
@@ -722,194 +1396,424 @@ public final class AmqpsIotHubConnection extends BaseHandler
     }
 
     /**
-     * Notifies all listeners that the connection was lost and attempts to startReconnect to the IoTHub
-     * using an exponential backoff interval.
+     * Sets whether this connection shall reconnect by itself when it is lost. A connection which does not
+     * reconnect notifies its listeners once, without any backoff, and then releases its resources, so that a
+     * replacement connection can be opened in parallel.
+     *
+     * @param autoReconnect {@code true} to reopen this connection when it is lost, {@code false} otherwise.
      */
-    private void startReconnect()
+    public void setAutoReconnect(boolean autoReconnect)
     {
-        reconnectCall = true;
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_21_078: [The function shall save the auto reconnect behavior used when the connection is lost.]
+        this.autoReconnect = autoReconnect;
+    }
 
-        for(ServerListener listener : listeners)
+    /**
+     * Getter for the device operations whose links are opened on every connection.
+     *
+     * @return a copy of the set of device operation message types.
+     */
+    public Set<MessageType> getDeviceOperationTypes()
+    {
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_21_082: [The function shall return a copy of the device operation types whose links are opened on every connection.]
+        return new HashSet<>(this.deviceOperationTypes);
+    }
+
+    /**
+     * Requests the pair of links used by the device twin or the device methods to be opened on the
+     * current session by the reactor thread. The links are opened again on every reconnection.
+     *
+     * @param messageType {@link MessageType#DeviceTwin} or {@link MessageType#DeviceMethods}.
+     * @throws IllegalArgumentException if the message type is not a device operation.
+     */
+    public void openDeviceOperationLinks(MessageType messageType)
+    {
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_21_063: [If the message type is not DeviceTwin or DeviceMethods, the function shall throw IllegalArgumentException.]
+        if (messageType != MessageType.DeviceTwin && messageType != MessageType.DeviceMethods)
         {
-            listener.connectionLost();
+            throw new IllegalArgumentException("Only device twin and device methods have their own links.");
         }
 
-        if (currentReconnectionAttempt == Integer.MAX_VALUE)
-            currentReconnectionAttempt = 0;
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_21_064: [The function shall save the message type so the links are opened on every new connection.]
+        this.deviceOperationTypes.add(messageType);
 
-        System.out.println("Lost connection to the server. Reconnection attempt " + currentReconnectionAttempt++ + "...");
-        logger.LogInfo("Lost connection to the server. Reconnection attempt %s, method name is %s ", currentReconnectionAttempt, logger.getMethodName());
-        try
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_21_065: [The function shall not open the links itself, as Proton is not thread
+        // safe. It shall request them to be opened by the reactor thread and wake the reactor up.]
+        Reactor currentReactor = this.reactor;
+        if (this.pendingDeviceOperationTypes.add(messageType) && currentReactor != null)
         {
-            Thread.sleep(TransportUtils.generateSleepInterval(currentReconnectionAttempt));
-        } catch (InterruptedException e)
-        {
-            Thread.currentThread().interrupt();
+            currentReactor.wakeup();
         }
-
-        closeAsync();
     }
 
     /**
-     * Notifies all the listeners that a message was received from the server.
-     * @param msg The message received from server.
+     * Creates and opens the sender and receiver links for the given device operation. Both links share the same
+     * channel correlation id, which is how the IoT Hub pairs the requests with their responses.
+     * @param messageType {@link MessageType#DeviceTwin} or {@link MessageType#DeviceMethods}.
      */
-    private void messageReceivedFromServer(AmqpsMessage msg)
+    private synchronized void createDeviceOperationLinks(MessageType messageType)
     {
-        logger.LogInfo("All the listeners are informed that a message has been received, method name is %s ", logger.getMethodName());
-        for(ServerListener listener : listeners)
+        Sender operationSender;
+        Receiver operationReceiver;
+        String channelCorrelationId;
+
+        if (messageType == MessageType.DeviceTwin)
         {
-            listener.messageReceived(msg);
+            if (this.twinSender != null)
+            {
+                return;
+            }
+            this.twinReceiver = this.session.receiver(twinReceiveTag);
+            this.twinSender = this.session.sender(twinSendTag);
+            operationReceiver = this.twinReceiver;
+            operationSender = this.twinSender;
+            channelCorrelationId = "twin:" + UUID.randomUUID().toString();
         }
+        else
+        {
+            if (this.methodSender != null)
+            {
+                return;
+            }
+            this.methodReceiver = this.session.receiver(methodReceiveTag);
+            this.methodSender = this.session.sender(methodSendTag);
+            operationReceiver = this.methodReceiver;
+            operationSender = this.methodSender;
+            channelCorrelationId = "methods:" + UUID.randomUUID().toString();
+        }
+
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_21_066: [The links shall have the client version, the api version and the same channel correlation id set as properties.]
+        Map<Symbol, Object> properties = new HashMap<>();
+        properties.put(Symbol.getSymbol(versionIdentifierKey), TransportUtils.javaDeviceClientIdentifier + TransportUtils.clientVersion);
+        properties.put(Symbol.getSymbol(channelCorrelationIdKey), channelCorrelationId);
+        properties.put(Symbol.getSymbol(apiVersionKey), apiVersion);
+        operationReceiver.setProperties(properties);
+        operationSender.setProperties(properties);
+
+        operationReceiver.open();
+        operationSender.open();
+        logger.LogInfo("Opened the %s links with channel correlation id %s, method name is %s ", messageType, channelCorrelationId, logger.getMethodName());
     }
 
     /**
-     * Create Proton SslDomain object from Address using the given Ssl mode
-     * @param mode Proton enum value of requested Ssl mode
-     * @return the created Ssl domain
+     * Closes the sender and receiver links for the given device operation, if they are open.
+     * @param messageType {@link MessageType#DeviceTwin} or {@link MessageType#DeviceMethods}.
      */
-    private SslDomain makeDomain(SslDomain.Mode mode)
+    private synchronized void closeDeviceOperationLinks(MessageType messageType)
     {
-        SslDomain domain = Proton.sslDomain();
-        String trustedDB = getPemFormat(this.config.getPathToCertificate());
+        Sender operationSender = (messageType == MessageType.DeviceTwin) ? this.twinSender : this.methodSender;
+        Receiver operationReceiver = (messageType == MessageType.DeviceTwin) ? this.twinReceiver : this.methodReceiver;
 
-        if (trustedDB != null )
+        if (operationSender != null)
         {
-            domain.setTrustedCaDb(trustedDB);
+            operationSender.close();
         }
-        // Codes_SRS_AMQPSIOTHUBCONNECTION_15_032: [The event handler shall set VERIFY_PEER authentication mode on the domain of the Transport.]
-        if (domain.getTrustedCaDb() != null)
+        if (operationReceiver != null)
         {
-           domain.setPeerAuthentication(SslDomain.VerifyMode.VERIFY_PEER);
+            operationReceiver.close();
+        }
 
+        if (messageType == MessageType.DeviceTwin)
+        {
+            this.twinSender = null;
+            this.twinReceiver = null;
         }
         else
         {
-            throw new IllegalStateException("SSL connection unsecured, could not find certificate");
+            this.methodSender = null;
+            this.methodReceiver = null;
         }
-        domain.init(mode);
+    }
 
-        return domain;
+    private static boolean isDeviceOperationLink(String linkName)
+    {
+        return twinSendTag.equals(linkName) || twinReceiveTag.equals(linkName) ||
+                methodSendTag.equals(linkName) || methodReceiveTag.equals(linkName);
     }
 
-    private String getPemFormat(String certPath) {
-        if (!isPemFile(certPath))
-            certPath = convertToPem(certPath);
-        return certPath;
+    private String getEndpoint(String linkName)
+    {
+        if (linkName.equals(twinSendTag) || linkName.equals(twinReceiveTag))
+        {
+            return this.twinEndpoint;
+        }
+        else if (linkName.equals(methodSendTag) || linkName.equals(methodReceiveTag))
+        {
+            return this.methodEndpoint;
+        }
+        else if (linkName.equals(sendTag))
+        {
+            return this.sendEndpoint;
+        }
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_21_089: [The claims-based security links shall use the $cbs node address as Target and Source.]
+        else if (linkName.equals(cbsSendTag) || linkName.equals(cbsReceiveTag))
+        {
+            return cbsAddress;
+        }
+        return this.receiveEndpoint;
     }
 
-    private boolean isPemFile(String path) {
-        PEMReader pemReader = null;
-        Reader reader = null;
-        try {
-            reader = new FileReader(path);
-            pemReader = new PEMReader(reader, null);
+    /**
+     * Requests the SAS token of a connection authenticated by claims-based security to be renewed on the
+     * reactor thread, without waiting for the renewal to be due. Connections authenticated by SASL are not
+     * affected, since their token can only be changed by reconnecting.
+     */
+    public void renewToken()
+    {
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_21_090: [The function shall request the token to be renewed on the next reactor tick.]
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_21_109: [The function shall drop the cached token, so the renewal carries a new one.]
+        this.sasTokenCache.invalidate();
+        this.cbsRenewalRequested = true;
+    }
 
-            for (String line = pemReader.readLine(); line != null; line = pemReader.readLine()) {
-                if (line.contains("-----BEGIN CERTIFICATE-----")) return true;
+    /**
+     * Sends a put-token request with a new SAS token to the claims-based security node. If the sender link has
+     * no credit, the request is sent once the IoT Hub grants credit.
+     */
+    private void sendPutToken()
+    {
+        if (this.cbsSender == null || this.cbsSender.getCredit() <= 0)
+        {
+            this.cbsPutTokenPending = true;
+            return;
+        }
+        this.cbsPutTokenPending = false;
+
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_21_091: [The put-token request shall carry a new SAS token valid for the
+        // duration specified in config, the put-token operation, the SAS token type and the device resource URI as name.]
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_21_108: [The sasToken shall be taken from the SAS token cache, which
+        // renews it only if it is due for renewal.]
+        long tokenValidSecs = this.config.getTokenValidSecs();
+        String token = this.sasTokenCache.getToken().toString();
+        long expiryMillis = this.sasTokenCache.getExpiryTime() * 1000L;
+        long cacheRenewalMillis = this.sasTokenCache.getRenewalTime() * 1000L;
+
+        Message putToken = Proton.message();
+        Properties properties = new Properties();
+        properties.setMessageId(UUID.randomUUID().toString());
+        properties.setReplyTo(cbsReplyTo);
+        putToken.setProperties(properties);
+
+        Map<String, Object> applicationProperties = new HashMap<>();
+        applicationProperties.put(cbsOperationKey, cbsOperationPutToken);
+        applicationProperties.put(cbsTypeKey, cbsTypeSasToken);
+        applicationProperties.put(cbsNameKey, IotHubUri.getResourceUri(this.config.getIotHubHostname(), this.config.getDeviceId()));
+        putToken.setApplicationProperties(new ApplicationProperties(applicationProperties));
+        putToken.setBody(new AmqpValue(token));
+
+        byte[] buffer = new byte[1024];
+        int length;
+        while (true)
+        {
+            try
+            {
+                length = putToken.encode(buffer, 0, buffer.length);
+                break;
+            }
+            catch (BufferOverflowException e)
+            {
+                buffer = new byte[buffer.length * 2];
             }
         }
-        catch (IOException e)
+
+        Delivery delivery = this.cbsSender.delivery(String.valueOf(this.nextTag++).getBytes());
+        this.cbsSender.send(buffer, 0, length);
+        this.cbsSender.advance();
+
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_21_092: [If the device key is available, the token shall be renewed once
+        // the SAS token renewal fraction of its validity has elapsed, or three quarters of it if the fraction is 0,
+        // otherwise it shall not be renewed.]
+        // A token pushed on a timer cannot be renewed on every use, so a fraction of 0 falls back to the default.
+        double renewalFraction = this.config.getSasTokenRenewalFraction();
+        if (renewalFraction <= 0)
         {
-            logger.LogError(e);
-            throw new IOError(e);
+            logger.LogInfo("A SAS token renewal fraction of 0 does not apply to claims-based security, renewing after %s of the token lifetime, method name is %s ", DeviceClientConfig.DEFAULT_SAS_TOKEN_RENEWAL_FRACTION, logger.getMethodName());
+            renewalFraction = DeviceClientConfig.DEFAULT_SAS_TOKEN_RENEWAL_FRACTION;
         }
-        finally
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_21_112: [The renewal shall be due at the earliest of the renewal time of
+        // the cached token and its expiry less the rest of its lifetime after the renewal fraction, since the cached
+        // token may be partway through its life.]
+        long renewalDueMillis = expiryMillis - (long) (tokenValidSecs * 1000L * (1 - renewalFraction));
+        if (this.config.getSasTokenRenewalFraction() > 0)
         {
-            if (pemReader != null) {
-                try {
-                    pemReader.close();
-                } catch (IOException e) {
-                    logger.LogError(e);
-                    System.out.println("Couldn't close PEM Reader");
-                }
-            }
+            renewalDueMillis = Math.min(renewalDueMillis, cacheRenewalMillis);
+        }
+        this.cbsRenewalDueMillis = (this.config.getDeviceKey() != null) ? renewalDueMillis : 0;
+        logger.LogInfo("Put-token request sent over claims-based security, delivery %s, method name is %s ", delivery.hashCode(), logger.getMethodName());
+    }
 
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (IOException e) {
-                    logger.LogError(e);
-                    System.out.println("Couldn't close reader");
-                }
+    /**
+     * Handles the deliveries on the claims-based security links. The dispositions of the put-token requests
+     * are settled, and the responses decide whether the connection is authenticated.
+     * @param event The Proton Event object.
+     */
+    private void handleCbsDelivery(Event event)
+    {
+        if (event.getLink() instanceof Sender)
+        {
+            Delivery delivery = event.getDelivery();
+            if (delivery != null && delivery.remotelySettled())
+            {
+                delivery.free();
             }
+            return;
         }
 
-        return false;
-    }
+        Receiver receiveLink = (Receiver) event.getLink();
+        Delivery delivery = receiveLink.current();
+        if (delivery == null || !delivery.isReadable() || delivery.isPartial())
+        {
+            return;
+        }
 
-    private String  convertToPem(String derPath) {
-        FileInputStream in = null;
-        FileWriter writer = null;
-        PEMWriter pemWriter = null;
+        byte[] buffer = new byte[delivery.pending()];
+        int read = receiveLink.recv(buffer, 0, buffer.length);
+        receiveLink.advance();
+        Message response = Proton.message();
+        response.decode(buffer, 0, read);
+        delivery.disposition(Accepted.getInstance());
+        delivery.settle();
+
+        Object statusCode = null;
+        Object statusDescription = null;
+        if (response.getApplicationProperties() != null && response.getApplicationProperties().getValue() != null)
+        {
+            statusCode = response.getApplicationProperties().getValue().get(cbsStatusCodeKey);
+            statusDescription = response.getApplicationProperties().getValue().get(cbsStatusDescriptionKey);
+        }
 
-        try
+        if (statusCode instanceof Number && ((Number) statusCode).intValue() == cbsStatusOk)
         {
-            CertificateFactory certFactory = CertificateFactory.getInstance("X.509");
-            in = new FileInputStream(derPath);
-            Certificate cert = certFactory.generateCertificate(in);
-            writer = new FileWriter(derPath + ".pem");
-            try {
-                pemWriter = new PEMWriter(writer);
-                pemWriter.writeObject(cert);
+            logger.LogInfo("SAS token accepted by the claims-based security node, method name is %s ", logger.getMethodName());
+            // Codes_SRS_AMQPSIOTHUBCONNECTION_21_093: [When the first put-token request of the connection is
+            // accepted, the device links shall be opened.]
+            if (!this.cbsAuthenticated)
+            {
+                this.cbsAuthenticated = true;
+                openDeviceLinks();
             }
-            catch (IOException e)
+        }
+        else
+        {
+            logger.LogError("SAS token rejected by the claims-based security node with status %s: %s, method name is %s ", statusCode, statusDescription, logger.getMethodName());
+            // Codes_SRS_AMQPSIOTHUBCONNECTION_21_094: [If a put-token request is rejected, the event handler shall
+            // attempt to reconnect if the connection was not authenticated yet, otherwise it shall retry later.]
+            if (this.cbsAuthenticated)
             {
-                throw new IOError(e);
+                this.cbsRenewalDueMillis = System.currentTimeMillis() + cbsRetryMillis;
             }
+            else
+            {
+                this.state = State.CLOSED;
+                startReconnect();
+            }
+        }
+    }
 
+    /**
+     * Notifies all listeners that the connection was lost and attempts to startReconnect to the IoTHub
+     * using an exponential backoff interval.
+     */
+    private void startReconnect()
+    {
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_21_079: [If the auto reconnect is disabled, the function shall notify the listeners only once that the connection was lost, and close the connection without backoff or reopening.]
+        if (!this.autoReconnect)
+        {
+            List<ServerListener> lostListeners = new ArrayList<>(this.listeners);
+            this.listeners.clear();
+            for (ServerListener listener : lostListeners)
+            {
+                listener.connectionLost();
+            }
+            closeAsync();
+            return;
         }
-        catch (IOException e)
+
+        reconnectCall = true;
+
+        for(ServerListener listener : listeners)
         {
-            throw new IOError(e);
+            listener.connectionLost();
         }
-        catch (CertificateException e)
+
+        if (currentReconnectionAttempt == Integer.MAX_VALUE)
+            currentReconnectionAttempt = 0;
+
+        System.out.println("Lost connection to the server. Reconnection attempt " + currentReconnectionAttempt++ + "...");
+        logger.LogInfo("Lost connection to the server. Reconnection attempt %s, method name is %s ", currentReconnectionAttempt, logger.getMethodName());
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_21_104: [If the shared event loop is enabled, the function shall not sleep
+        // on the shared reactor thread, and shall keep the backoff to schedule the reconnection instead.]
+        if (this.sharedEventLoop)
         {
-            throw new IOError(e);
+            this.reconnectDelayMillis = TransportUtils.generateSleepInterval(currentReconnectionAttempt);
         }
-        finally
+        else
         {
-            if(pemWriter != null)
+            try
             {
-                try
-                {
-                    pemWriter.close();
-                }
-                catch(IOException e)
-                {
-                    System.out.println("Couldn't close PEM writer");
-                }
+                Thread.sleep(TransportUtils.generateSleepInterval(currentReconnectionAttempt));
+            } catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
             }
+        }
+
+        closeAsync();
+    }
 
-            if(writer != null)
+    /**
+     * Notifies all the listeners that a message was received from the server.
+     * @param msg The message received from server.
+     */
+    private void messageReceivedFromServer(AmqpsMessage msg)
+    {
+        logger.LogInfo("All the listeners are informed that a message has been received, method name is %s ", logger.getMethodName());
+        for(ServerListener listener : listeners)
+        {
+            listener.messageReceived(msg);
+        }
+    }
+
+    /**
+     * Create Proton SslDomain object from Address using the given Ssl mode
+     * @param mode Proton enum value of requested Ssl mode
+     * @return the created Ssl domain
+     */
+    private SslDomain makeDomain(SslDomain.Mode mode)
+    {
+        SslDomain domain = Proton.sslDomain();
+        String trustedDB = this.config.getPathToCertificate();
+
+        if (trustedDB != null )
+        {
+            domain.setTrustedCaDb(trustedDB);
+            // Codes_SRS_AMQPSIOTHUBCONNECTION_21_105: [The event handler shall set on the domain the AMQPS SSL context
+            // of the configuration, shared by the clients using the same context, so they resume TLS sessions.]
+            try
             {
-                try
-                {
-                    writer.close();
-                }
-                catch(IOException e)
-                {
-                    System.out.println("Couldn't close writer");
-                }
+                domain.setSslContext(this.config.getAmqpsSslContext());
             }
-
-            if(in != null)
+            catch (IOException e)
             {
-                try
-                {
-                    in.close();
-                }
-                catch(IOException e)
-                {
-                    System.out.println("Couldn't close Input Stream");
-                }
+                logger.LogError(e);
+                throw new IOError(e);
             }
+        }
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_15_032: [The event handler shall set VERIFY_PEER authentication mode on the domain of the Transport.]
+        if (domain.getTrustedCaDb() != null)
+        {
+           domain.setPeerAuthentication(SslDomain.VerifyMode.VERIFY_PEER);
 
         }
+        else
+        {
+            throw new IllegalStateException("SSL connection unsecured, could not find certificate");
+        }
+        domain.init(mode);
 
-        return derPath + ".pem" ;
+        return domain;
     }
-    
+
     /**
      * Class which runs the reactor.
      */
@@ -929,5 +1833,19 @@ public final class AmqpsIotHubConnection extends BaseHandler
             return null;
         }
     }
-}
 
+    /**
+     * Result of a received message waiting to be settled.
+     */
+    private static final class PendingSettlement
+    {
+        private final AmqpsMessage message;
+        private final AmqpsMessage.ACK_TYPE ackType;
+
+        PendingSettlement(AmqpsMessage message, AmqpsMessage.ACK_TYPE ackType)
+        {
+            this.message = message;
+            this.ackType = ackType;
+        }
+    }
+}
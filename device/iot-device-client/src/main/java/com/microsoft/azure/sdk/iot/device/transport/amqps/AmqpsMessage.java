@@ -5,6 +5,7 @@
 
 package com.microsoft.azure.sdk.iot.device.transport.amqps;
 
+import com.microsoft.azure.sdk.iot.device.MessageType;
 import org.apache.qpid.proton.amqp.messaging.Accepted;
 import org.apache.qpid.proton.amqp.messaging.Rejected;
 import org.apache.qpid.proton.amqp.messaging.Released;
@@ -18,6 +19,7 @@ import org.apache.qpid.proton.message.impl.MessageImpl;
 public class AmqpsMessage extends MessageImpl
 {
     private Delivery _delivery;
+    private MessageType _amqpsMessageType;
 
     public enum ACK_TYPE
     {
@@ -62,4 +64,24 @@ public class AmqpsMessage extends MessageImpl
     {
         this._delivery = _delivery;
     }
+
+    /**
+     * Sets the type of this AmqpsMessage, given by the link it was received on.
+     * @param amqpsMessageType the message type
+     */
+    public void setAmqpsMessageType(MessageType amqpsMessageType)
+    {
+        // Codes_SRS_AMQPSMESSAGE_21_006: [The function shall save the message type.]
+        this._amqpsMessageType = amqpsMessageType;
+    }
+
+    /**
+     * Gets the type of this AmqpsMessage.
+     * @return the message type, or {@code null} if it was never set
+     */
+    public MessageType getAmqpsMessageType()
+    {
+        // Codes_SRS_AMQPSMESSAGE_21_007: [The function shall return the saved message type.]
+        return this._amqpsMessageType;
+    }
 }
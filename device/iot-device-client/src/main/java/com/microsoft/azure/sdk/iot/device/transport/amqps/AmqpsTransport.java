@@ -5,15 +5,21 @@ package com.microsoft.azure.sdk.iot.device.transport.amqps;
 
 import com.microsoft.azure.sdk.iot.device.*;
 import com.microsoft.azure.sdk.iot.device.Message;
+import com.microsoft.azure.sdk.iot.device.DeviceTwin.DeviceMethodMessage;
+import com.microsoft.azure.sdk.iot.device.DeviceTwin.DeviceOperations;
+import com.microsoft.azure.sdk.iot.device.DeviceTwin.DeviceTwinMessage;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubCallbackPacket;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubOutboundPacket;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubTransport;
 import com.microsoft.azure.sdk.iot.device.transport.State;
+import com.microsoft.azure.sdk.iot.device.transport.TransportUtils;
 import com.microsoft.azure.sdk.iot.device.CustomLogger;
 import org.apache.qpid.proton.Proton;
 import org.apache.qpid.proton.amqp.Binary;
+import org.apache.qpid.proton.amqp.Symbol;
 import org.apache.qpid.proton.amqp.messaging.ApplicationProperties;
 import org.apache.qpid.proton.amqp.messaging.Data;
+import org.apache.qpid.proton.amqp.messaging.MessageAnnotations;
 import org.apache.qpid.proton.amqp.messaging.Properties;
 import org.apache.qpid.proton.amqp.messaging.Section;
 import org.apache.qpid.proton.message.impl.MessageImpl;
@@ -24,6 +30,8 @@ import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * <p>
@@ -38,17 +46,47 @@ import java.util.concurrent.*;
 public final class AmqpsTransport implements IotHubTransport, ServerListener
 {
     /** The state of the AMQPS transport. */
-    private State state;
+    private volatile State state;
 
-    /** The {@link AmqpsIotHubConnection} underlying this transport. */
-    private AmqpsIotHubConnection connection;
+    /** The {@link AmqpsIotHubConnection} underlying this transport, replaced at once when fast recovery switches over. */
+    private volatile AmqpsIotHubConnection connection;
 
     /** Messages waiting to be sent to the IoT Hub. */
-    private final Queue<IotHubOutboundPacket> waitingMessages = new LinkedBlockingDeque<>();
+    private final Deque<IotHubOutboundPacket> waitingMessages = new LinkedBlockingDeque<>();
+
+    /** Proton messages already converted from the waiting or in progress packets, kept for resending. */
+    private final Map<IotHubOutboundPacket, MessageImpl> protonMessages = new ConcurrentHashMap<>();
+
+    /** Whether the sender link ran out of credit and no new credit was granted by the IoT Hub yet. */
+    private volatile boolean creditStarved = false;
 
     /** Messages which are sent to the IoT Hub but did not receive ack yet. */
     private Map<Integer, IotHubOutboundPacket> inProgressMessages = new ConcurrentHashMap<>();
 
+    /** Batches of messages which are sent to the IoT Hub in a single transfer but did not receive ack yet. */
+    private final Map<Integer, List<IotHubOutboundPacket>> inProgressBatches = new ConcurrentHashMap<>();
+
+    /** Hashes of the deliveries in progress, in the order they were sent. */
+    private final Queue<Integer> inProgressOrder = new ConcurrentLinkedQueue<>();
+
+    /** Executor which opens the replacement connection when fast recovery is enabled. */
+    private ExecutorService recoveryExecutor;
+
+    /** Whether a replacement connection is being opened. */
+    private final AtomicBoolean recovering = new AtomicBoolean(false);
+
+    /** Number of connection losses reported while fast recovery is enabled. */
+    private final AtomicInteger connectionLosses = new AtomicInteger(0);
+
+    /** Number of replacement connections opened since the last one was granted link credit. */
+    private final AtomicInteger recoveryAttempt = new AtomicInteger(0);
+
+    /** Time, in milliseconds, the last fast recovery took from the connection loss to the switch over, or -1 if none happened. */
+    private volatile long lastRecoveryMillis = -1;
+
+    /** Time, in milliseconds, when the transport started waiting for more messages to fill a batch, or 0 if it is not waiting. */
+    private long batchLingerStartMillis = 0;
+
     /** Messages received from the IoT Hub */
     private Queue<AmqpsMessage> receivedMessages = new LinkedBlockingQueue<>();
 
@@ -59,6 +97,29 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
 
     private final Boolean useWebSockets;
 
+    /** Twin requests sent to the IoT Hub which did not receive a response yet, by correlation id. */
+    private final Map<String, DeviceOperations> deviceTwinRequests = new ConcurrentHashMap<>();
+
+    /** Correlation ids of the method invocations received from the IoT Hub which were not responded yet, by request id. */
+    private final Map<String, Object> deviceMethodCorrelationIds = new ConcurrentHashMap<>();
+
+    private static final String OPERATION_KEY = "operation";
+    private static final String RESOURCE_KEY = "resource";
+    private static final String STATUS_KEY = "status";
+    private static final String VERSION_KEY = "version";
+    private static final String OPERATION_GET = "GET";
+    private static final String OPERATION_PATCH = "PATCH";
+    private static final String OPERATION_PUT = "PUT";
+    private static final String RESOURCE_REPORTED = "/properties/reported";
+    private static final String RESOURCE_DESIRED_NOTIFICATIONS = "/notifications/twin/properties/desired";
+    private static final String METHOD_NAME_KEY = "IoThub-methodname";
+    private static final String METHOD_STATUS_KEY = "IoThub-status";
+
+    /** Estimated encoding overhead of a message in a batch: data section, properties and application properties headers. */
+    private static final int BATCH_MESSAGE_OVERHEAD_BYTES = 64;
+    /** Estimated encoding overhead of each application property of a message in a batch. */
+    private static final int BATCH_PROPERTY_OVERHEAD_BYTES = 8;
+
     private CustomLogger logger;
     /**
      * Constructs an instance from the given {@link DeviceClientConfig}
@@ -95,11 +156,19 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
         logger.LogInfo("Opening the connection..., method name is %s ", logger.getMethodName());
         // Codes_SRS_AMQPSTRANSPORT_15_004: [The function shall open an AMQPS connection with the IoT Hub given in the configuration.]
         this.connection = new AmqpsIotHubConnection(this.config, this.useWebSockets);
+        this.creditStarved = false;
         try
         {
             // Codes_SRS_AMQPSTRANSPORT_15_005: [The function shall add the transport to the list of listeners subscribed to the connection events.]
             this.connection.addListener(this);
 
+            // Codes_SRS_AMQPSTRANSPORT_21_070: [If fast recovery is enabled, the function shall disable the auto reconnect of the connection.]
+            this.connection.setAutoReconnect(!this.config.isAmqpFastRecovery());
+            if (this.config.isAmqpFastRecovery() && this.recoveryExecutor == null)
+            {
+                this.recoveryExecutor = Executors.newSingleThreadExecutor();
+            }
+
             this.connection.open();
         }
         catch (Exception e)
@@ -130,6 +199,14 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
         }
 
         logger.LogInfo("Starting to close the connection..., method name is %s ", logger.getMethodName());
+        // Codes_SRS_AMQPSTRANSPORT_21_071: [The function shall stop any fast recovery in progress.]
+        if (this.recoveryExecutor != null)
+        {
+            this.recoveryExecutor.shutdownNow();
+            this.recoveryExecutor = null;
+        }
+        this.recovering.set(false);
+
         // Codes_SRS_AMQPSTRANSPORT_15_008: [The function shall close an AMQPS connection with the IoT Hub given in the configuration.]
         this.connection.close();
 
@@ -163,9 +240,16 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
 
     /**
      * <p>
-     * Sends all messages from the waiting list, one at a time. If a previous
-     * send attempt had failed, the function will attempt to resend the messages
-     * in the previous attempt.
+     * Sends messages from the waiting list, one at a time, for as long as the
+     * IoT Hub grants link credit. Once the credit is exhausted the remaining
+     * messages stay buffered and no send is attempted until the IoT Hub grants
+     * more credit.
+     * </p>
+     * <p>
+     * If batching is enabled in the configuration, consecutive telemetry
+     * messages are packed into a single batched message of up to the
+     * configured size, and the transport waits up to the configured linger
+     * time for enough messages to fill a batch.
      * </p>
      *
      * @throws IOException if the server could not be reached.
@@ -187,7 +271,22 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
             return;
         }
 
-        Collection<IotHubOutboundPacket> failedMessages = new ArrayList<>() ;
+        // Codes_SRS_AMQPSTRANSPORT_21_040: [If the sender link is out of credit, the function shall return without attempting to send.]
+        if (this.creditStarved)
+        {
+            logger.LogDebug("Waiting for IoT Hub to grant link credit, %s messages are buffered, method name is %s ", this.waitingMessages.size(), logger.getMethodName());
+            return;
+        }
+
+        // Codes_SRS_AMQPSTRANSPORT_21_061: [If batching is enabled, the waiting messages do not fill a batch and contain
+        // no twin or method message, the function shall return without sending until the linger time has elapsed.]
+        int batchMaxBytes = this.config.getAmqpBatchMaxBytes();
+        if (batchMaxBytes > 0 && isBatchLingering(batchMaxBytes))
+        {
+            return;
+        }
+
+        List<IotHubOutboundPacket> failedMessages = new ArrayList<>();
 
         // Codes_SRS_AMQPSTRANSPORT_15_014: [The function shall attempt to send every message on its waiting list, one at a time.]
         while (!this.waitingMessages.isEmpty())
@@ -196,42 +295,281 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
            IotHubOutboundPacket packet = this.waitingMessages.remove();
 
             Message message = packet.getMessage();
+            MessageType messageType = (message == null) ? null : message.getMessageType();
+            boolean isDeviceOperation = (message instanceof DeviceTwinMessage);
+
+            // Codes_SRS_AMQPSTRANSPORT_21_045: [If the message is a device method subscription, the function shall
+            // open the method links and add a callback with the OK_EMPTY status to the callback list, without sending any message.]
+            if (isDeviceOperation && ((DeviceTwinMessage) message).getDeviceOperationType() == DeviceOperations.DEVICE_OPERATION_METHOD_SUBSCRIBE_REQUEST)
+            {
+                this.connection.openDeviceOperationLinks(MessageType.DeviceMethods);
+                this.callbackList.add(new IotHubCallbackPacket(IotHubStatusCode.OK_EMPTY, packet.getCallback(), packet.getContext()));
+                continue;
+            }
 
             // Codes_SRS_AMQPSTRANSPORT_15_015: [The function shall skip messages with null or empty body.]
-            if (message != null && message.getBytes().length > 0)
+            // Codes_SRS_AMQPSTRANSPORT_21_046: [The function shall not skip twin and method messages with empty body.]
+            if (message != null && (isDeviceOperation || message.getBodyLength() > 0))
             {
                 // Codes_SRS_AMQPSTRANSPORT_15_039: [If the message is expired, the function shall create a callback
                 // with the MESSAGE_EXPIRED status and add it to the callback list.]
                 if (message.isExpired())
                 {
                     logger.LogInfo("Creating a callback for the expired message with MESSAGE_EXPIRED status, method name is %s ", logger.getMethodName());
+                    this.protonMessages.remove(packet);
                     IotHubCallbackPacket callbackPacket = new IotHubCallbackPacket(IotHubStatusCode.MESSAGE_EXPIRED, packet.getCallback(), packet.getContext());
                     this.callbackList.add(callbackPacket);
                 }
                 else
                 {
-                    logger.LogInfo("Converting the IoT Hub message into AmqpsMessage, method name is %s ", logger.getMethodName());
-                    // Codes_SRS_AMQPSTRANSPORT_15_036: [The function shall create a new Proton message from the IoTHub message.]
-                    MessageImpl protonMessage = iotHubMessageToProtonMessage(message);
+                    // Codes_SRS_AMQPSTRANSPORT_21_062: [If batching is enabled, the function shall pack the telemetry message
+                    // together with the following telemetry messages on the waiting list, up to the configured size, and
+                    // send them in a single batched message.]
+                    if (batchMaxBytes > 0 && !isDeviceOperation)
+                    {
+                        List<IotHubOutboundPacket> batch = pollBatch(packet, batchMaxBytes);
+                        // Codes_SRS_AMQPSTRANSPORT_21_063: [A batch that holds a single message shall be sent as a regular message.]
+                        if (batch.size() > 1)
+                        {
+                            if (!sendBatch(batch))
+                            {
+                                break;
+                            }
+                            continue;
+                        }
+                    }
+
+                    // Codes_SRS_AMQPSTRANSPORT_21_042: [The function shall reuse the Proton message created by a previous send attempt of the same message.]
+                    MessageImpl protonMessage = this.protonMessages.get(packet);
+                    if (protonMessage == null)
+                    {
+                        logger.LogInfo("Converting the IoT Hub message into AmqpsMessage, method name is %s ", logger.getMethodName());
+                        // Codes_SRS_AMQPSTRANSPORT_15_036: [The function shall create a new Proton message from the IoTHub message.]
+                        // Codes_SRS_AMQPSTRANSPORT_21_047: [If the message is a twin or method message, the function shall create
+                        // the Proton message with the correlation id and annotations of the device operation.]
+                        protonMessage = isDeviceOperation ? deviceOperationMessageToProtonMessage((DeviceTwinMessage) message) : iotHubMessageToProtonMessage(message);
+                        if (protonMessage == null)
+                        {
+                            // Codes_SRS_AMQPSTRANSPORT_21_048: [If the device operation is not supported over AMQP, the function
+                            // shall add a callback with the ERROR status to the callback list.]
+                            this.callbackList.add(new IotHubCallbackPacket(IotHubStatusCode.ERROR, packet.getCallback(), packet.getContext()));
+                            continue;
+                        }
+                        this.protonMessages.put(packet, protonMessage);
+                    }
 
                     // Codes_SRS_AMQPSTRANSPORT_15_037: [The function shall attempt to send the Proton message to IoTHub using the underlying AMQPS connection.]
-                    Integer sendHash = connection.sendMessage(protonMessage);
+                    // Codes_SRS_AMQPSTRANSPORT_21_049: [Twin and method messages shall be sent on the links of their own message type.]
+                    Integer sendHash = isDeviceOperation ? connection.sendMessage(protonMessage, messageType) : connection.sendMessage(protonMessage);
 
                     // Codes_SRS_AMQPSTRANSPORT_15_016: [If the sent message hash is valid, it shall be added to the in progress map.]
                     if (sendHash != -1)
                     {
                         this.inProgressMessages.put(sendHash, packet);
+                        this.inProgressOrder.add(sendHash);
                     }
                     // Codes_SRS_AMQPSTRANSPORT_15_017: [If the sent message hash is not valid, it shall be buffered to be sent in a subsequent attempt.]
-                    else
+                    // Codes_SRS_AMQPSTRANSPORT_21_080: [If a twin or method message cannot be sent, it shall be put back
+                    // on the waiting list after the loop, and the function shall keep sending the other messages.]
+                    else if (isDeviceOperation)
                     {
                         failedMessages.add(packet);
                     }
+                    // Codes_SRS_AMQPSTRANSPORT_21_041: [If the sent message hash is not valid, the message shall be put back
+                    // at the head of the waiting list and the function shall stop sending.]
+                    else
+                    {
+                        this.waitingMessages.addFirst(packet);
+                        stopSendingOnFailure();
+                        break;
+                    }
                 }
             }
         }
 
-        this.waitingMessages.addAll(failedMessages);
+        for (int i = failedMessages.size() - 1; i >= 0; i--)
+        {
+            this.waitingMessages.addFirst(failedMessages.get(i));
+        }
+
+        if (this.waitingMessages.isEmpty())
+        {
+            this.batchLingerStartMillis = 0;
+        }
+    }
+
+    /**
+     * Checks whether the transport should keep waiting for more messages
+     * before sending a batch. The transport waits while the messages on the
+     * waiting list do not fill a batch, none of them is a twin or method
+     * message, and the linger time since it started waiting has not elapsed.
+     *
+     * @param batchMaxBytes the maximum size of a batch.
+     * @return {@code true} if the transport shall wait for more messages, and {@code false} otherwise.
+     */
+    private boolean isBatchLingering(int batchMaxBytes)
+    {
+        long now = System.currentTimeMillis();
+        if (this.batchLingerStartMillis == 0)
+        {
+            this.batchLingerStartMillis = now;
+        }
+
+        if (now - this.batchLingerStartMillis >= this.config.getAmqpBatchLingerMillis())
+        {
+            return false;
+        }
+
+        int pendingBytes = 0;
+        for (IotHubOutboundPacket packet : this.waitingMessages)
+        {
+            Message message = packet.getMessage();
+            if (message instanceof DeviceTwinMessage)
+            {
+                return false;
+            }
+
+            pendingBytes += (message == null) ? 0 : estimateBatchedSize(message);
+            if (pendingBytes >= batchMaxBytes)
+            {
+                return false;
+            }
+        }
+
+        logger.LogDebug("Waiting for more messages to fill a batch, %s bytes are buffered, method name is %s ", pendingBytes, logger.getMethodName());
+        return true;
+    }
+
+    /**
+     * Removes from the head of the waiting list the telemetry messages that
+     * can be packed in the same batch as the given packet, up to the maximum
+     * size of a batch. Expired, empty, twin and method messages end the batch
+     * and stay on the waiting list.
+     *
+     * @param first the packet that starts the batch, already removed from the waiting list.
+     * @param batchMaxBytes the maximum size of a batch.
+     * @return the packets of the batch, in the order they were added.
+     */
+    private List<IotHubOutboundPacket> pollBatch(IotHubOutboundPacket first, int batchMaxBytes)
+    {
+        List<IotHubOutboundPacket> batch = new ArrayList<>();
+        batch.add(first);
+        int batchBytes = estimateBatchedSize(first.getMessage());
+
+        IotHubOutboundPacket next;
+        while ((next = this.waitingMessages.peek()) != null)
+        {
+            Message message = next.getMessage();
+            if (message == null || message instanceof DeviceTwinMessage || message.getBodyLength() == 0 || message.isExpired())
+            {
+                break;
+            }
+
+            int messageBytes = estimateBatchedSize(message);
+            if (batchBytes + messageBytes > batchMaxBytes)
+            {
+                break;
+            }
+
+            batchBytes += messageBytes;
+            batch.add(this.waitingMessages.remove());
+        }
+
+        return batch;
+    }
+
+    /**
+     * Sends the given packets in a single batched message.
+     *
+     * @param batch the packets to be sent, in order.
+     * @return {@code true} if the batch was sent, and {@code false} if the sender link is out of credit.
+     */
+    private boolean sendBatch(List<IotHubOutboundPacket> batch)
+    {
+        List<org.apache.qpid.proton.message.Message> batchMessages = new ArrayList<>(batch.size());
+        for (IotHubOutboundPacket batchPacket : batch)
+        {
+            // Codes_SRS_AMQPSTRANSPORT_21_042: [The function shall reuse the Proton message created by a previous send attempt of the same message.]
+            MessageImpl protonMessage = this.protonMessages.get(batchPacket);
+            if (protonMessage == null)
+            {
+                protonMessage = iotHubMessageToProtonMessage(batchPacket.getMessage());
+                this.protonMessages.put(batchPacket, protonMessage);
+            }
+            batchMessages.add(protonMessage);
+        }
+
+        logger.LogInfo("Sending %s messages in a single batch, method name is %s ", batch.size(), logger.getMethodName());
+        Integer sendHash = this.connection.sendMessageBatch(batchMessages);
+
+        // Codes_SRS_AMQPSTRANSPORT_21_064: [If the sent batch hash is valid, the batch shall be added to the in progress batches.]
+        if (sendHash != -1)
+        {
+            this.inProgressBatches.put(sendHash, batch);
+            this.inProgressOrder.add(sendHash);
+            return true;
+        }
+
+        // Codes_SRS_AMQPSTRANSPORT_21_065: [If the sent batch hash is not valid, all its messages shall be put back at
+        // the head of the waiting list in their original order and the function shall stop sending.]
+        for (int i = batch.size() - 1; i >= 0; i--)
+        {
+            this.waitingMessages.addFirst(batch.get(i));
+        }
+        stopSendingOnFailure();
+        return false;
+    }
+
+    /**
+     * Marks the transport as out of credit if a telemetry send failed because
+     * the sender link used up its credit. Any other failure, like a closed
+     * connection or a send error, leaves the messages to the next send attempt.
+     * The credit is checked again once the mark is set, as IoT Hub may grant
+     * credit in between, and that grant would not clear the mark otherwise.
+     */
+    private void stopSendingOnFailure()
+    {
+        // Codes_SRS_AMQPSTRANSPORT_21_081: [If the telemetry send failed because the sender link has no credit left,
+        // the transport shall be marked as out of credit until IoT Hub grants credit on that link.]
+        if (this.connection.isOutOfCredit())
+        {
+            logger.LogInfo("Sender link is out of credit, buffering the remaining %s messages until IoT Hub grants more credit, method name is %s ", this.waitingMessages.size(), logger.getMethodName());
+            this.creditStarved = true;
+
+            // Codes_SRS_AMQPSTRANSPORT_21_082: [If the sender link has credit again once the transport is marked as out
+            // of credit, the transport shall no longer be marked as out of credit.]
+            if (!this.connection.isOutOfCredit())
+            {
+                logger.LogInfo("IoT Hub granted link credit while the transport was marked as out of credit, method name is %s ", logger.getMethodName());
+                this.creditStarved = false;
+            }
+        }
+        else
+        {
+            logger.LogInfo("Sending failed, retrying the remaining %s messages on the next send attempt, method name is %s ", this.waitingMessages.size(), logger.getMethodName());
+        }
+    }
+
+    /**
+     * Estimates the size of the given message once encoded in a batch. The
+     * estimate is slightly pessimistic so a batch does not go over the size
+     * limit of the IoT Hub.
+     *
+     * @param message the message to be sent.
+     * @return the estimated size of the message, in bytes.
+     */
+    private static int estimateBatchedSize(Message message)
+    {
+        int size = BATCH_MESSAGE_OVERHEAD_BYTES + message.getBodyLength();
+        if (message.getMessageId() != null)
+        {
+            size += message.getMessageId().length();
+        }
+        for (MessageProperty property : message.getPropertiesView())
+        {
+            size += BATCH_PROPERTY_OVERHEAD_BYTES + property.getName().length() + property.getValue().length();
+        }
+        return size;
     }
 
     /**
@@ -268,6 +606,11 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
      * responds to the IoT Hub on how the processed message should be
      * handled by the IoT Hub.
      * </p>
+     * <p>
+     * If batched settlement is enabled in the configuration, all the messages
+     * buffered when the function is called are handled, and their results are
+     * settled together by the connection.
+     * </p>
      * If no message callback is set, the function will do nothing.
      *
      * @throws IllegalStateException if the transport is closed.
@@ -283,9 +626,11 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
         
         logger.LogInfo("Get the callback function for the received message, method name is %s ", logger.getMethodName());
         MessageCallback callback = this.config.getMessageCallback();
+        MessageCallback deviceTwinMessageCallback = this.config.getDeviceTwinMessageCallback();
+        MessageCallback deviceMethodMessageCallback = this.config.getDeviceMethodMessageCallback();
 
         // Codes_SRS_AMQPSTRANSPORT_15_025: [If no callback is defined, the list of received messages is cleared.]
-        if (callback == null)
+        if (callback == null && deviceTwinMessageCallback == null && deviceMethodMessageCallback == null)
         {
             logger.LogError("Callback is not defined therefore response to IoT Hub cannot be generated. All received messages will be removed from receive message queue, method name is %s ", logger.getMethodName());
             this.receivedMessages.clear();
@@ -294,31 +639,74 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
 
         // Codes_SRS_AMQPSTRANSPORT_15_023: [The function shall attempt to consume a message from the IoT Hub.]
         // Codes_SRS_AMQPSTRANSPORT_15_024: [If no message was received from IotHub, the function shall return.]
-        if (this.receivedMessages.size() > 0)
+        // Codes_SRS_AMQPSTRANSPORT_21_069: [If batched settlement is enabled, the function shall handle all the
+        // messages which were received when it was called, one after the other.]
+        int messagesToHandle = this.config.isAmqpBatchedSettlement() ? this.receivedMessages.size() : Math.min(1, this.receivedMessages.size());
+        for (int i = 0; i < messagesToHandle; i++)
         {
             logger.LogInfo("Consuming a message received from IoT Hub using receive message queue, method name is %s ", logger.getMethodName());
             AmqpsMessage receivedMessage = this.receivedMessages.remove();
-            logger.LogInfo("Converting the AmqpsMessage to IoT Hub message, method name is %s ", logger.getMethodName());
-            Message message = protonMessageToIoTHubMessage(receivedMessage);
+            handleReceivedMessage(receivedMessage, callback, deviceTwinMessageCallback, deviceMethodMessageCallback);
+        }
+    }
 
-			// set  messageId from messageId property if it exists. Fix for GitHub issue #990
+    /**
+     * Converts a message received from the IoT Hub, invokes the callback for
+     * its type and responds to the IoT Hub with the result of the callback.
+     *
+     * @param receivedMessage the message received from the IoT Hub.
+     * @param callback the callback for telemetry messages.
+     * @param deviceTwinMessageCallback the callback for twin messages.
+     * @param deviceMethodMessageCallback the callback for method messages.
+     */
+    private void handleReceivedMessage(AmqpsMessage receivedMessage, MessageCallback callback,
+                                       MessageCallback deviceTwinMessageCallback, MessageCallback deviceMethodMessageCallback)
+    {
+        logger.LogInfo("Converting the AmqpsMessage to IoT Hub message, method name is %s ", logger.getMethodName());
+        MessageType messageType = receivedMessage.getAmqpsMessageType();
+        Message message;
+        MessageCallback messageCallback;
+        Object messageContext;
+
+        // Codes_SRS_AMQPSTRANSPORT_21_050: [If the message was received on the twin or method links, the function shall
+        // convert it into a device operation message and use the twin or method callback.]
+        if (messageType == MessageType.DeviceTwin || messageType == MessageType.DeviceMethods)
+        {
+            message = protonMessageToDeviceOperationMessage(receivedMessage, messageType);
+            messageCallback = (messageType == MessageType.DeviceTwin) ? deviceTwinMessageCallback : deviceMethodMessageCallback;
+            messageContext = (messageType == MessageType.DeviceTwin) ? this.config.getDeviceTwinMessageContext() : this.config.getDeviceMethodMessageContext();
+        }
+        else
+        {
+            message = protonMessageToIoTHubMessage(receivedMessage);
+
+            // set  messageId from messageId property if it exists. Fix for GitHub issue #990
             if (message.getProperty("messageId") !=null)
-			{
-			  message.setMessageId(message.getProperty("messageId"));
-			}
-                    
-            logger.LogInfo("Executing the callback function for received message, method name is %s ", logger.getMethodName());
-            // Codes_SRS_AMQPSTRANSPORT_15_026: [The function shall invoke the callback on the message.]
-            IotHubMessageResult result = callback.execute(message, this.config.getMessageContext());
-
-            // Codes_SRS_AMQPSTRANSPORT_15_027: [The function shall return the message result (one of COMPLETE, ABANDON, or REJECT) to the IoT Hub.]
-            Boolean ackResult = this.connection.sendMessageResult(receivedMessage, result);
-            // Codes_SRS_AMQPSTRANSPORT_15_028: [If the result could not be sent to IoTHub, the message shall be put back in the received messages queue to be processed again.]
-            if (!ackResult)
             {
-                logger.LogWarn("Callback did not return a response for IoT Hub. Message has been added in the queue to be processed again, method name is %s", logger.getMethodName());
-                receivedMessages.add(receivedMessage);
+                message.setMessageId(message.getProperty("messageId"));
             }
+            messageCallback = callback;
+            messageContext = this.config.getMessageContext();
+        }
+
+        // Codes_SRS_AMQPSTRANSPORT_21_051: [If no callback is defined for the type of the received message, the message is dropped.]
+        if (messageCallback == null)
+        {
+            logger.LogWarn("No callback is defined for a received message of type %s, the message is dropped, method name is %s ", messageType, logger.getMethodName());
+            return;
+        }
+
+        logger.LogInfo("Executing the callback function for received message, method name is %s ", logger.getMethodName());
+        // Codes_SRS_AMQPSTRANSPORT_15_026: [The function shall invoke the callback on the message.]
+        IotHubMessageResult result = messageCallback.execute(message, messageContext);
+
+        // Codes_SRS_AMQPSTRANSPORT_15_027: [The function shall return the message result (one of COMPLETE, ABANDON, or REJECT) to the IoT Hub.]
+        Boolean ackResult = this.connection.sendMessageResult(receivedMessage, result);
+        // Codes_SRS_AMQPSTRANSPORT_15_028: [If the result could not be sent to IoTHub, the message shall be put back in the received messages queue to be processed again.]
+        if (!ackResult)
+        {
+            logger.LogWarn("Callback did not return a response for IoT Hub. Message has been added in the queue to be processed again, method name is %s", logger.getMethodName());
+            receivedMessages.add(receivedMessage);
         }
     }
 
@@ -331,6 +719,29 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
      */
     public void messageSent(Integer messageHash, Boolean deliveryState)
     {
+        // Codes_SRS_AMQPSTRANSPORT_21_066: [If the hash belongs to a batch in progress, the batch is removed and, if it
+        // was successfully delivered, the callbacks of all its messages are added to the list of callbacks to be
+        // executed, otherwise all its messages are buffered to be sent again.]
+        inProgressOrder.remove(messageHash);
+        List<IotHubOutboundPacket> batch = inProgressBatches.remove(messageHash);
+        if (batch != null)
+        {
+            logger.LogInfo("Batch of %s messages was %s by IoTHub, method name is %s ", batch.size(), deliveryState ? "accepted" : "not accepted", logger.getMethodName());
+            for (IotHubOutboundPacket packet : batch)
+            {
+                if (deliveryState)
+                {
+                    this.protonMessages.remove(packet);
+                    this.callbackList.add(new IotHubCallbackPacket(IotHubStatusCode.OK_EMPTY, packet.getCallback(), packet.getContext()));
+                }
+                else
+                {
+                    waitingMessages.add(packet);
+                }
+            }
+            return;
+        }
+
         // Codes_SRS_AMQPSTRANSPORT_15_029: [If the hash cannot be found in the list of keys for the messages in progress, the method returns.]
         if (inProgressMessages.containsKey(messageHash))
         {
@@ -340,6 +751,7 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
                 logger.LogInfo("Message with messageid %s has been successfully delivered to IoTHub, adding a callback to callbacklist with IotHubStatusCode.OK_EMPTY, method name is %s ", packet.getMessage().getMessageId(), logger.getMethodName());
                 // Codes_SRS_AMQPSTRANSPORT_15_030: [If the message was successfully delivered,
                 // its callback is added to the list of callbacks to be executed.]
+                this.protonMessages.remove(packet);
                 IotHubCallbackPacket callbackPacket = new IotHubCallbackPacket(IotHubStatusCode.OK_EMPTY, packet.getCallback(), packet.getContext());
                 this.callbackList.add(callbackPacket);
             } else
@@ -352,19 +764,182 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
     }
 
     /**
-     * If the connection is lost, all the messages in progress are buffered to be sent again.
+     * If the connection is lost, all the messages in progress are buffered to be sent again, ahead of the
+     * messages which were not sent yet and in the order they were first sent. If fast recovery is enabled,
+     * a replacement connection is opened right away.
      */
     public void connectionLost()
     {
         logger.LogInfo("The messages in progress are buffered to be sent again due to a connection loss, method name is %s ", logger.getMethodName());
         // Codes_SRS_AMQPSTRANSPORT_15_032: [The messages in progress are buffered to be sent again.]
-        for (Map.Entry<Integer, IotHubOutboundPacket> entry : inProgressMessages.entrySet())
+        // Codes_SRS_AMQPSTRANSPORT_21_067: [The messages of the batches in progress are buffered to be sent again.]
+        // Codes_SRS_AMQPSTRANSPORT_21_072: [The messages in progress shall be put back at the head of the waiting
+        // list in the order they were sent.]
+        List<IotHubOutboundPacket> inProgress = new ArrayList<>();
+        Integer sendHash;
+        while ((sendHash = inProgressOrder.poll()) != null)
+        {
+            IotHubOutboundPacket packet = inProgressMessages.remove(sendHash);
+            if (packet != null)
+            {
+                inProgress.add(packet);
+            }
+            else
+            {
+                List<IotHubOutboundPacket> batch = inProgressBatches.remove(sendHash);
+                if (batch != null)
+                {
+                    inProgress.addAll(batch);
+                }
+            }
+        }
+        inProgress.addAll(inProgressMessages.values());
+        for (List<IotHubOutboundPacket> batch : inProgressBatches.values())
+        {
+            inProgress.addAll(batch);
+        }
+        for (int i = inProgress.size() - 1; i >= 0; i--)
         {
-            this.waitingMessages.add(entry.getValue());
+            this.waitingMessages.addFirst(inProgress.get(i));
         }
+        inProgressBatches.clear();
 
         // Codes_SRS_AMQPSTRANSPORT_15_033: [The map of messages in progress is cleared.]
         inProgressMessages.clear();
+
+        // Codes_SRS_AMQPSTRANSPORT_21_073: [If fast recovery is enabled and the transport is open, the function shall
+        // start opening a replacement connection in the background, unless one is already being opened.]
+        if (this.config.isAmqpFastRecovery() && this.state == State.OPEN)
+        {
+            this.connectionLosses.incrementAndGet();
+            if (this.recovering.compareAndSet(false, true))
+            {
+                startRecovery(System.currentTimeMillis());
+            }
+        }
+    }
+
+    /**
+     * Opens a replacement connection in the background, while the lost one is torn down.
+     *
+     * @param lostMillis the time, in milliseconds, when the connection was lost.
+     */
+    private void startRecovery(final long lostMillis)
+    {
+        ExecutorService executor = this.recoveryExecutor;
+        if (executor != null)
+        {
+            try
+            {
+                executor.submit(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        recover(lostMillis);
+                    }
+                });
+                return;
+            }
+            catch (RejectedExecutionException e)
+            {
+                logger.LogError(e);
+            }
+        }
+
+        logger.LogInfo("The transport is closing, no replacement connection is opened, method name is %s ", logger.getMethodName());
+        this.recovering.set(false);
+    }
+
+    /**
+     * Opens a replacement connection, retrying with an exponential backoff while
+     * the transport is open, and switches the transport over to it.
+     *
+     * @param lostMillis the time, in milliseconds, when the connection was lost.
+     */
+    private void recover(long lostMillis)
+    {
+        while (this.state == State.OPEN)
+        {
+            try
+            {
+                Thread.sleep(TransportUtils.generateSleepInterval(this.recoveryAttempt.getAndIncrement()));
+                int losses = this.connectionLosses.get();
+
+                // Codes_SRS_AMQPSTRANSPORT_21_074: [The replacement connection shall have the transport as listener, the
+                // auto reconnect disabled and the device operation links of the lost connection.]
+                AmqpsIotHubConnection replacement = new AmqpsIotHubConnection(this.config, this.useWebSockets);
+                replacement.addListener(this);
+                replacement.setAutoReconnect(false);
+                for (MessageType messageType : this.connection.getDeviceOperationTypes())
+                {
+                    replacement.openDeviceOperationLinks(messageType);
+                }
+                replacement.open();
+
+                // Codes_SRS_AMQPSTRANSPORT_21_075: [Once the replacement connection is opened, the transport shall switch
+                // over to it at once and resume sending. If the transport was closed meanwhile, the replacement shall be closed.]
+                synchronized (this)
+                {
+                    if (this.state != State.OPEN)
+                    {
+                        replacement.close();
+                        return;
+                    }
+                    this.connection = replacement;
+                    this.creditStarved = false;
+                    this.recovering.set(false);
+                }
+                this.lastRecoveryMillis = System.currentTimeMillis() - lostMillis;
+                logger.LogInfo("Switched over to a new connection %s milliseconds after the connection loss, method name is %s ", this.lastRecoveryMillis, logger.getMethodName());
+
+                // Codes_SRS_AMQPSTRANSPORT_21_076: [If the replacement connection was lost while opening, the transport
+                // shall keep recovering.]
+                if (this.connectionLosses.get() == losses || !this.recovering.compareAndSet(false, true))
+                {
+                    return;
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            catch (Exception e)
+            {
+                // Codes_SRS_AMQPSTRANSPORT_21_077: [If the replacement connection cannot be opened, the transport shall
+                // retry with an exponential backoff while it is open.]
+                logger.LogError(e);
+            }
+        }
+    }
+
+    /**
+     * Renews the SAS token of the connection without reconnecting, if the
+     * connection is authenticated by claims-based security.
+     */
+    public void renewToken()
+    {
+        // Codes_SRS_AMQPSTRANSPORT_21_078: [If the transport is open, the function shall request the connection to renew its token.]
+        if (this.state == State.OPEN)
+        {
+            this.connection.renewToken();
+        }
+    }
+
+    /**
+     * When IoTHub grants link credit, the transport resumes sending the buffered messages.
+     * @param linkCredit The number of messages that can be sent before IoTHub grants more credit.
+     */
+    public void linkCreditGranted(Integer linkCredit)
+    {
+        // Codes_SRS_AMQPSTRANSPORT_21_043: [If the credit granted is positive, the transport shall no longer be marked as out of credit.]
+        if (linkCredit != null && linkCredit > 0)
+        {
+            logger.LogDebug("IoT Hub granted %s link credit, method name is %s ", linkCredit, logger.getMethodName());
+            this.creditStarved = false;
+            this.recoveryAttempt.set(0);
+        }
     }
 
     /**
@@ -389,10 +964,23 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
     {
         // Codes_SRS_AMQPSTRANSPORT_15_035: [The function shall return true if the waiting list,
         // in progress list and callback list are all empty, and false otherwise.]
-        return this.waitingMessages.isEmpty() && this.inProgressMessages.size() == 0 && this.callbackList.isEmpty();
+        // Codes_SRS_AMQPSTRANSPORT_21_068: [The function shall return false if there are batches in progress.]
+        return this.waitingMessages.isEmpty() && this.inProgressMessages.size() == 0 && this.inProgressBatches.isEmpty() && this.callbackList.isEmpty();
 
     }
 
+    /**
+     * Returns {@code true} if the IoT Hub did not grant enough link credit to
+     * send the buffered messages, and {@code false} otherwise.
+     *
+     * @return {@code true} if the sender link is out of credit, and {@code false} otherwise.
+     */
+    public boolean isBackPressured()
+    {
+        // Codes_SRS_AMQPSTRANSPORT_21_044: [The function shall return true if the sender link is out of credit, and false otherwise.]
+        return this.creditStarved;
+    }
+
     /**
      * Converts an AMQPS message to a corresponding IoT Hub message.
      *
@@ -469,19 +1057,29 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
     {
         logger.LogInfo("Started converting IoT Hub message into AmpqsMessage, method name is %s ", logger.getMethodName());
         MessageImpl outgoingMessage = (MessageImpl) Proton.message();
-        logger.LogInfo("Content of message is %s, method name is %s ", new String(message.getBytes(), Message.DEFAULT_IOTHUB_MESSAGE_CHARSET), logger.getMethodName());
         Properties properties = new Properties();
         if(message.getMessageId() != null)
         {
             properties.setMessageId(message.getMessageId());
         }
+        // Codes_SRS_AMQPSTRANSPORT_21_079: [The function shall set the content type and encoding of the Proton
+        // message properties to the ones of the message, if set.]
+        if (message.getContentType() != null)
+        {
+            properties.setContentType(Symbol.valueOf(message.getContentType()));
+        }
+        if (message.getContentEncoding() != null)
+        {
+            properties.setContentEncoding(Symbol.valueOf(message.getContentEncoding()));
+        }
         outgoingMessage.setProperties(properties);
 
         // Codes_SRS_AMQPSTRANSPORT_15_038: [The function shall add all user properties to the application properties of the Proton message.]
-        if (message.getProperties().length > 0)
+        Collection<MessageProperty> messageProperties = message.getPropertiesView();
+        if (!messageProperties.isEmpty())
         {
-            Map<String, String> userProperties = new HashMap<>(message.getProperties().length);
-            for(MessageProperty messageProperty : message.getProperties())
+            Map<String, String> userProperties = new HashMap<>(messageProperties.size());
+            for(MessageProperty messageProperty : messageProperties)
             {
                 if (!MessageProperty.RESERVED_PROPERTY_NAMES.contains(messageProperty.getName()))
                 {
@@ -494,10 +1092,169 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
             outgoingMessage.setApplicationProperties(applicationProperties);
         }
 
-        Binary binary = new Binary(message.getBytes());
+        Binary binary = new Binary(message.getBodyArray());
         Section section = new Data(binary);
         outgoingMessage.setBody(section);
         logger.LogInfo("Started converting IoT Hub message into AmpqsMessage, method name is %s ", logger.getMethodName());
         return outgoingMessage;
     }
-}
\ No newline at end of file
+
+    /**
+     * Converts an AMQPS message received on the twin or method links to the corresponding device operation message.
+     *
+     * @param protonMsg the AMQPS message.
+     * @param messageType the type given by the link the message was received on.
+     *
+     * @return the corresponding {@link DeviceTwinMessage} or {@link DeviceMethodMessage}.
+     */
+    private Message protonMessageToDeviceOperationMessage(MessageImpl protonMsg, MessageType messageType)
+    {
+        byte[] msgBody = new byte[0];
+        if (protonMsg.getBody() instanceof Data)
+        {
+            Binary b = ((Data) protonMsg.getBody()).getValue();
+            msgBody = new byte[b.getLength()];
+            b.asByteBuffer().get(msgBody);
+        }
+
+        Object correlationId = (protonMsg.getProperties() == null) ? null : protonMsg.getProperties().getCorrelationId();
+
+        if (messageType == MessageType.DeviceMethods)
+        {
+            // Codes_SRS_AMQPSTRANSPORT_21_052: [A message received on the method links shall be converted into a
+            // DEVICE_OPERATION_METHOD_RECEIVE_REQUEST with the method name from the application properties and
+            // the correlation id as request id.]
+            DeviceMethodMessage methodMessage = new DeviceMethodMessage(msgBody);
+            methodMessage.setDeviceOperationType(DeviceOperations.DEVICE_OPERATION_UNKNOWN);
+            Object methodName = null;
+            if (protonMsg.getApplicationProperties() != null)
+            {
+                methodName = protonMsg.getApplicationProperties().getValue().get(METHOD_NAME_KEY);
+            }
+            if (methodName != null && correlationId != null)
+            {
+                methodMessage.setMethodName(methodName.toString());
+                methodMessage.setRequestId(correlationId.toString());
+                methodMessage.setDeviceOperationType(DeviceOperations.DEVICE_OPERATION_METHOD_RECEIVE_REQUEST);
+                // Codes_SRS_AMQPSTRANSPORT_21_053: [The correlation id of the method request shall be kept to correlate the response.]
+                this.deviceMethodCorrelationIds.put(correlationId.toString(), correlationId);
+            }
+            return methodMessage;
+        }
+
+        DeviceTwinMessage twinMessage = new DeviceTwinMessage(msgBody);
+        MessageAnnotations annotations = protonMsg.getMessageAnnotations();
+        if (annotations != null && annotations.getValue() != null)
+        {
+            Object status = annotations.getValue().get(Symbol.valueOf(STATUS_KEY));
+            Object version = annotations.getValue().get(Symbol.valueOf(VERSION_KEY));
+            if (status != null)
+            {
+                twinMessage.setStatus(status.toString());
+            }
+            if (version != null)
+            {
+                twinMessage.setVersion(version.toString());
+            }
+        }
+
+        if (correlationId != null)
+        {
+            // Codes_SRS_AMQPSTRANSPORT_21_054: [A twin message with correlation id shall be converted into the response
+            // of the twin request sent with the same correlation id.]
+            twinMessage.setRequestId(correlationId.toString());
+            DeviceOperations request = this.deviceTwinRequests.remove(correlationId.toString());
+            if (request == DeviceOperations.DEVICE_OPERATION_TWIN_GET_REQUEST)
+            {
+                twinMessage.setDeviceOperationType(DeviceOperations.DEVICE_OPERATION_TWIN_GET_RESPONSE);
+            }
+            else if (request == DeviceOperations.DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_REQUEST)
+            {
+                twinMessage.setDeviceOperationType(DeviceOperations.DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_RESPONSE);
+            }
+            else
+            {
+                twinMessage.setDeviceOperationType(DeviceOperations.DEVICE_OPERATION_UNKNOWN);
+            }
+        }
+        else
+        {
+            // Codes_SRS_AMQPSTRANSPORT_21_055: [A twin message without correlation id shall be converted into a desired properties notification.]
+            twinMessage.setDeviceOperationType(DeviceOperations.DEVICE_OPERATION_TWIN_SUBSCRIBE_DESIRED_PROPERTIES_RESPONSE);
+        }
+        return twinMessage;
+    }
+
+    /**
+     * Creates a proton message for a twin or method operation, setting the correlation id and
+     * the annotations the IoT Hub expects on the twin and method links.
+     * @param message the twin or method message.
+     * @return the proton message, or {@code null} if the operation is not supported over AMQP.
+     */
+    private MessageImpl deviceOperationMessageToProtonMessage(DeviceTwinMessage message)
+    {
+        MessageImpl outgoingMessage = (MessageImpl) Proton.message();
+        Properties properties = new Properties();
+        Map<Symbol, Object> annotations = new HashMap<>();
+        String correlationId = message.getRequestId();
+        if (correlationId == null || correlationId.isEmpty())
+        {
+            correlationId = UUID.randomUUID().toString();
+        }
+
+        switch (message.getDeviceOperationType())
+        {
+            case DEVICE_OPERATION_TWIN_GET_REQUEST:
+                // Codes_SRS_AMQPSTRANSPORT_21_056: [A get twin request shall be sent with the GET operation annotation.]
+                annotations.put(Symbol.valueOf(OPERATION_KEY), OPERATION_GET);
+                break;
+            case DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_REQUEST:
+                // Codes_SRS_AMQPSTRANSPORT_21_057: [An update reported properties request shall be sent with the PATCH operation
+                // annotation on the reported properties resource, and the version annotation if the version is set.]
+                annotations.put(Symbol.valueOf(OPERATION_KEY), OPERATION_PATCH);
+                annotations.put(Symbol.valueOf(RESOURCE_KEY), RESOURCE_REPORTED);
+                if (message.getVersion() != null)
+                {
+                    annotations.put(Symbol.valueOf(VERSION_KEY), Long.parseLong(message.getVersion()));
+                }
+                break;
+            case DEVICE_OPERATION_TWIN_SUBSCRIBE_DESIRED_PROPERTIES_REQUEST:
+                // Codes_SRS_AMQPSTRANSPORT_21_058: [A subscribe to desired properties request shall be sent with the PUT operation
+                // annotation on the desired properties notifications resource.]
+                annotations.put(Symbol.valueOf(OPERATION_KEY), OPERATION_PUT);
+                annotations.put(Symbol.valueOf(RESOURCE_KEY), RESOURCE_DESIRED_NOTIFICATIONS);
+                break;
+            case DEVICE_OPERATION_METHOD_SEND_RESPONSE:
+                // Codes_SRS_AMQPSTRANSPORT_21_059: [A method response shall be sent with the correlation id of the method request
+                // and the status in the application properties.]
+                Object requestCorrelationId = this.deviceMethodCorrelationIds.remove(correlationId);
+                if (requestCorrelationId == null || message.getStatus() == null)
+                {
+                    logger.LogError("Sending a response for the method that was never invoked, method name is %s ", logger.getMethodName());
+                    return null;
+                }
+                Map<String, Object> applicationProperties = new HashMap<>();
+                applicationProperties.put(METHOD_STATUS_KEY, Integer.parseInt(message.getStatus()));
+                outgoingMessage.setApplicationProperties(new ApplicationProperties(applicationProperties));
+                properties.setCorrelationId(requestCorrelationId);
+                break;
+            default:
+                logger.LogError("Device operation %s is not supported over AMQP, method name is %s ", message.getDeviceOperationType(), logger.getMethodName());
+                return null;
+        }
+
+        if (message.getMessageType() == MessageType.DeviceTwin)
+        {
+            // Codes_SRS_AMQPSTRANSPORT_21_060: [Twin requests shall be kept by correlation id to correlate their responses.]
+            properties.setCorrelationId(correlationId);
+            this.deviceTwinRequests.put(correlationId, message.getDeviceOperationType());
+            outgoingMessage.setMessageAnnotations(new MessageAnnotations(annotations));
+        }
+        outgoingMessage.setProperties(properties);
+
+        Binary binary = new Binary(message.getBodyArray());
+        Section section = new Data(binary);
+        outgoingMessage.setBody(section);
+        return outgoingMessage;
+    }
+}
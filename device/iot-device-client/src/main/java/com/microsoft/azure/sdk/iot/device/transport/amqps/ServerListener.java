@@ -25,4 +25,10 @@ public interface ServerListener
      * Method executed when the connection with the IoTHub is lost.
      */
     void connectionLost();
+
+    /**
+     * Method executed when IoTHub grants link credit for sending messages.
+     * @param linkCredit The number of messages that can be sent before IoTHub grants more credit.
+     */
+    void linkCreditGranted(Integer linkCredit);
 }
@@ -0,0 +1,90 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport.https;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of the number of messages in each HTTPS request sent by the
+ * transport. Bucket {@code i} counts the requests with
+ * {@code 2^i} to {@code 2^(i+1) - 1} messages, so bucket 0 counts the messages
+ * sent on their own. The last bucket also counts all the larger batches.
+ */
+public final class HttpsBatchFillHistogram
+{
+    /** The number of buckets in the histogram. */
+    public static final int BUCKET_COUNT = 16;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong messageCount = new AtomicLong();
+
+    /**
+     * Records a request sent with the given number of messages.
+     *
+     * @param messages the number of messages in the request.
+     * @throws IllegalArgumentException if the number of messages is not positive.
+     */
+    public void record(int messages)
+    {
+        // Codes_SRS_HTTPSBATCHFILLHISTOGRAM_21_001: [If the number of messages is not positive, the function shall
+        // throw IllegalArgumentException.]
+        if (messages <= 0)
+        {
+            throw new IllegalArgumentException("A request holds at least one message, but was " + messages);
+        }
+
+        // Codes_SRS_HTTPSBATCHFILLHISTOGRAM_21_002: [The function shall count the request in the bucket of its
+        // number of messages, and add it to the request and message totals.]
+        int bucket = Math.min(31 - Integer.numberOfLeadingZeros(messages), BUCKET_COUNT - 1);
+        this.buckets.incrementAndGet(bucket);
+        this.requestCount.incrementAndGet();
+        this.messageCount.addAndGet(messages);
+    }
+
+    /**
+     * Getter for the number of requests recorded in a bucket.
+     *
+     * @param bucket the bucket, from 0 to {@link #BUCKET_COUNT} - 1.
+     * @return the number of requests with {@code 2^bucket} to
+     * {@code 2^(bucket+1) - 1} messages.
+     * @throws IllegalArgumentException if the bucket does not exist.
+     */
+    public long getBucketCount(int bucket)
+    {
+        // Codes_SRS_HTTPSBATCHFILLHISTOGRAM_21_003: [If the bucket does not exist, the function shall throw
+        // IllegalArgumentException.]
+        if ((bucket < 0) || (bucket >= BUCKET_COUNT))
+        {
+            throw new IllegalArgumentException("The bucket shall be between 0 and " + (BUCKET_COUNT - 1) + ", but was " + bucket);
+        }
+
+        // Codes_SRS_HTTPSBATCHFILLHISTOGRAM_21_004: [The function shall return the number of requests recorded in the bucket.]
+        return this.buckets.get(bucket);
+    }
+
+    /**
+     * Getter for the number of requests recorded.
+     *
+     * @return the number of requests.
+     */
+    public long getRequestCount()
+    {
+        // Codes_SRS_HTTPSBATCHFILLHISTOGRAM_21_005: [The function shall return the number of requests recorded.]
+        return this.requestCount.get();
+    }
+
+    /**
+     * Getter for the number of messages in all the requests recorded.
+     *
+     * @return the number of messages.
+     */
+    public long getMessageCount()
+    {
+        // Codes_SRS_HTTPSBATCHFILLHISTOGRAM_21_006: [The function shall return the number of messages in all the
+        // requests recorded.]
+        return this.messageCount.get();
+    }
+}
@@ -8,6 +8,7 @@ import com.microsoft.azure.sdk.iot.device.MessageProperty;
 
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 import javax.naming.SizeLimitExceededException;
 
@@ -32,46 +33,83 @@ public final class HttpsBatchMessage implements HttpsMessage
      */
     public static Charset BATCH_CHARSET = StandardCharsets.UTF_8;
 
-    /** The current batched message body. */
-    protected String batchBody;
+    /** The initial capacity of the batch body buffer, grown as messages are added. */
+    private static final int INITIAL_BODY_CAPACITY = 1024;
+
+    /**
+     * The current batched message body, encoded in UTF-8, without the closing
+     * bracket of the JSON array. Only the first {@code batchBodySize} bytes are
+     * used.
+     */
+    protected byte[] batchBody;
+    /** The number of bytes used in the batch body. */
+    protected int batchBodySize;
     /** The current number of messages in the batch. */
     protected int numMsgs;
+    /** The maximum size, in bytes, of the batched message. */
+    protected final int maxSizeBytes;
 
     /** Constructor. Initializes the batch body as an empty JSON array. */
     public HttpsBatchMessage()
+    {
+        this(SERVICEBOUND_MESSAGE_MAX_SIZE_BYTES);
+    }
+
+    /**
+     * Constructor. Initializes the batch body as an empty JSON array, bounding
+     * the batched message to the given size.
+     *
+     * @param maxSizeBytes the maximum size, in bytes, of the batched message.
+     * If it is not positive or is larger than the service-bound message size
+     * limit, the batched message is bounded by that limit.
+     */
+    public HttpsBatchMessage(int maxSizeBytes)
     {
         // Codes_SRS_HTTPSBATCHMESSAGE_11_001: [The constructor shall initialize the batch message with the body as an empty JSON array.]
-        this.batchBody = "[]";
+        this.batchBody = new byte[INITIAL_BODY_CAPACITY];
+        this.batchBody[0] = '[';
+        this.batchBodySize = 1;
         this.numMsgs = 0;
+        // Codes_SRS_HTTPSBATCHMESSAGE_21_016: [The constructor shall bound the batched message to the given size, or
+        // to the service-bound message size limit if the given size is not positive or is larger than the limit.]
+        this.maxSizeBytes = ((maxSizeBytes > 0) && (maxSizeBytes < SERVICEBOUND_MESSAGE_MAX_SIZE_BYTES))
+                ? maxSizeBytes : SERVICEBOUND_MESSAGE_MAX_SIZE_BYTES;
     }
 
     /**
-     * Adds a message to the batch.
+     * Adds a message to the batch. The message is encoded straight at the end
+     * of the batch body, so building a batch takes time linear in its size.
      *
      * @param msg the message to be added.
      *
      * @throws SizeLimitExceededException if adding the message causes the
-     * batched message to exceed 256 kb in size. The batched message will remain
-     * as if the message was never added.
+     * batched message to exceed its maximum size, 256 kb by default. The
+     * batched message will remain as if the message was never added.
      */
     public void addMessage(HttpsSingleMessage msg)
             throws SizeLimitExceededException
     {
-        String jsonMsg = msgToJson(msg);
+        int previousSize = this.batchBodySize;
+
         // Codes_SRS_HTTPSBATCHMESSAGE_11_002: [The function shall add the message as a JSON object appended to the current JSON array.]
-        String newBatchBody = addJsonObjToArray(jsonMsg, this.batchBody);
+        if (this.numMsgs > 0)
+        {
+            appendByte(',');
+        }
+        appendJson(msg);
 
         // Codes_SRS_HTTPSBATCHMESSAGE_11_008: [If adding the message causes the batched message to exceed 256 kb in size, the function shall throw a SizeLimitExceededException.]
         // Codes_SRS_HTTPSBATCHMESSAGE_11_009: [If the function throws a SizeLimitExceedException, the batched message shall remain as if the message was never added.]
-        byte[] newBatchBodyBytes = newBatchBody.getBytes(BATCH_CHARSET);
-
-        if (newBatchBodyBytes.length > SERVICEBOUND_MESSAGE_MAX_SIZE_BYTES) {
+        // Codes_SRS_HTTPSBATCHMESSAGE_21_013: [The function shall compute the size of the batched message from the
+        // bytes already encoded, without encoding the batch again.]
+        int newBatchSize = this.batchBodySize + 1;
+        if (newBatchSize > this.maxSizeBytes) {
+            this.batchBodySize = previousSize;
             String errMsg = String.format("Service-bound message size (%d bytes) cannot exceed %d bytes.\n",
-                    newBatchBodyBytes.length, SERVICEBOUND_MESSAGE_MAX_SIZE_BYTES);
+                    newBatchSize, this.maxSizeBytes);
             throw new SizeLimitExceededException(errMsg);
         }
 
-        this.batchBody = newBatchBody;
         this.numMsgs++;
     }
 
@@ -84,7 +122,20 @@ public final class HttpsBatchMessage implements HttpsMessage
     {
         // Codes_SRS_HTTPSBATCHMESSAGE_11_006: [The function shall return the current batch message body.]
         // Codes_SRS_HTTPSBATCHMESSAGE_11_007: [The batch message body shall be encoded using UTF-8.]
-        return this.batchBody.getBytes(BATCH_CHARSET);
+        byte[] body = Arrays.copyOf(this.batchBody, this.batchBodySize + 1);
+        body[this.batchBodySize] = ']';
+        return body;
+    }
+
+    /**
+     * Returns the size, in bytes, of the current batch body.
+     *
+     * @return the size, in bytes, of the current batch body.
+     */
+    public int getBodySize()
+    {
+        // Codes_SRS_HTTPSBATCHMESSAGE_21_014: [The function shall return the size in bytes of the current batch message body.]
+        return this.batchBodySize + 1;
     }
 
     /**
@@ -121,68 +172,148 @@ public final class HttpsBatchMessage implements HttpsMessage
     }
 
     /**
-     * Converts a service-bound message to a JSON object with the correct
-     * format.
-     *
-     * @param msg the message to be converted to a corresponding JSON object.
+     * Appends a service-bound message to the batch body as a JSON object with
+     * the correct format.
      *
-     * @return the JSON string representation of the message.
+     * @param msg the message to be appended.
      */
-    protected static String msgToJson(HttpsSingleMessage msg)
+    private void appendJson(HttpsSingleMessage msg)
     {
-        StringBuilder jsonMsg = new StringBuilder("{");
+        appendAscii("{\"body\":\"");
         // Codes_SRS_HTTPSBATCHMESSAGE_11_003: [The JSON object shall have the field "body" set to the raw message.]
-        jsonMsg.append("\"body\":");
-        jsonMsg.append("\"" + msg.getBodyAsString() + "\",");
+        // Codes_SRS_HTTPSBATCHMESSAGE_21_015: [The strings in the JSON object shall be escaped as JSON strings.]
+        appendEscaped(msg.getBodyAsString());
         // Codes_SRS_HTTPSBATCHMESSAGE_11_004: [The JSON object shall have the field "base64Encoded" set to whether the raw message was Base64-encoded.]
-        jsonMsg.append("\"base64Encoded\":");
-        jsonMsg.append(Boolean.toString(msg.isBase64Encoded()));
+        appendAscii("\",\"base64Encoded\":");
+        appendAscii(Boolean.toString(msg.isBase64Encoded()));
         // Codes_SRS_HTTPSBATCHMESSAGE_11_005: [The JSON object shall have the field "properties" set to a JSON object which has the field "content-type" set to the content type of the raw message.]
         MessageProperty[] properties = msg.getProperties();
-        int numProperties = properties.length;
-        if (numProperties > 0)
+        if (properties.length > 0)
         {
-            jsonMsg.append(",");
-            jsonMsg.append("\"properties\":");
-            jsonMsg.append("{");
-            for (int i = 0; i < numProperties - 1; ++i)
-            {
-                MessageProperty property = properties[i];
-                jsonMsg.append("\"" + property.getName() + "\":");
-                jsonMsg.append("\"" + property.getValue() + "\",");
-            }
-            if (numProperties > 0)
+            appendAscii(",\"properties\":{");
+            for (int i = 0; i < properties.length; ++i)
             {
-                MessageProperty property = properties[numProperties - 1];
-                jsonMsg.append("\"" + property.getName() + "\":");
-                jsonMsg.append("\"" + property.getValue() + "\"");
+                if (i > 0)
+                {
+                    appendByte(',');
+                }
+                appendByte('"');
+                appendEscaped(properties[i].getName());
+                appendAscii("\":\"");
+                appendEscaped(properties[i].getValue());
+                appendByte('"');
             }
-            jsonMsg.append("}");
+            appendByte('}');
         }
-        jsonMsg.append("}");
+        appendByte('}');
+    }
+
+    private void appendAscii(String value)
+    {
+        int length = value.length();
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++)
+        {
+            this.batchBody[this.batchBodySize++] = (byte) value.charAt(i);
+        }
+    }
 
-        return jsonMsg.toString();
+    private void appendByte(int value)
+    {
+        ensureCapacity(1);
+        this.batchBody[this.batchBodySize++] = (byte) value;
     }
 
     /**
-     * Adds a JSON object to a JSON array.
-     *
-     * @param jsonObj the object to be added to the JSON array.
-     * @param jsonArray the JSON array.
-     *
-     * @return the JSON string representation of the JSON array with the object
-     * added.
+     * Appends the value escaped as the content of a JSON string, encoded in
+     * UTF-8. Unpaired surrogates are replaced by '?', as
+     * {@link String#getBytes(Charset)} does.
      */
-    protected static String addJsonObjToArray(String jsonObj, String jsonArray)
+    private void appendEscaped(String value)
     {
-        if (jsonArray.equals("[]"))
+        if (value == null)
         {
-            return "[" + jsonObj + "]";
+            return;
+        }
+
+        int length = value.length();
+        for (int i = 0; i < length; i++)
+        {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\')
+            {
+                appendByte('\\');
+                appendByte(c);
+            }
+            else if (c < 0x20)
+            {
+                appendControlCharacter(c);
+            }
+            else if (c < 0x80)
+            {
+                appendByte(c);
+            }
+            else if (c < 0x800)
+            {
+                ensureCapacity(2);
+                this.batchBody[this.batchBodySize++] = (byte) (0xC0 | (c >> 6));
+                this.batchBody[this.batchBodySize++] = (byte) (0x80 | (c & 0x3F));
+            }
+            else if (Character.isHighSurrogate(c) && (i + 1 < length) && Character.isLowSurrogate(value.charAt(i + 1)))
+            {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                ensureCapacity(4);
+                this.batchBody[this.batchBodySize++] = (byte) (0xF0 | (codePoint >> 18));
+                this.batchBody[this.batchBodySize++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                this.batchBody[this.batchBodySize++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                this.batchBody[this.batchBodySize++] = (byte) (0x80 | (codePoint & 0x3F));
+            }
+            else if (Character.isSurrogate(c))
+            {
+                appendByte('?');
+            }
+            else
+            {
+                ensureCapacity(3);
+                this.batchBody[this.batchBodySize++] = (byte) (0xE0 | (c >> 12));
+                this.batchBody[this.batchBodySize++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                this.batchBody[this.batchBodySize++] = (byte) (0x80 | (c & 0x3F));
+            }
         }
+    }
 
-        // removes the closing brace of the JSON array.
-        String openJsonArray = jsonArray.substring(0, jsonArray.length() - 1);
+    private void appendControlCharacter(char c)
+    {
+        switch (c)
+        {
+            case '\b':
+                appendAscii("\\b");
+                break;
+            case '\f':
+                appendAscii("\\f");
+                break;
+            case '\n':
+                appendAscii("\\n");
+                break;
+            case '\r':
+                appendAscii("\\r");
+                break;
+            case '\t':
+                appendAscii("\\t");
+                break;
+            default:
+                appendAscii(String.format("\\u%04x", (int) c));
+                break;
+        }
+    }
 
-        return openJsonArray + "," + jsonObj + "]";
+    private void ensureCapacity(int additionalBytes)
+    {
+        // Keeps room for the closing bracket of the JSON array.
+        int requiredCapacity = this.batchBodySize + additionalBytes + 1;
+        if (requiredCapacity > this.batchBody.length)
+        {
+            this.batchBody = Arrays.copyOf(this.batchBody, Math.max(requiredCapacity, this.batchBody.length * 2));
+        }
     }
 }
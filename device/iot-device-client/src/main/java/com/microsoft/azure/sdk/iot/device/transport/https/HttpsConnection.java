@@ -7,12 +7,12 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.ProtocolException;
 import java.net.URL;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
 import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
 
 /**
  * <p>
@@ -27,9 +27,17 @@ import javax.net.ssl.HttpsURLConnection;
  * read. Otherwise, the data remains in the stream and the connection will not
  * be reusable.
  * </p>
+ * <p>
+ * It is the {@link HttpsEngineConnection} of the {@link HttpsUrlConnectionEngine}.
+ * </p>
  */
-public class HttpsConnection
+public class HttpsConnection implements HttpsEngineConnection
 {
+    /** The initial size of the buffer for responses without a Content-Length. */
+    private static final int DEFAULT_READ_BUFFER_SIZE = 4096;
+    /** The largest initial buffer sized from a Content-Length, so a wrong header cannot exhaust the memory before any data is read. */
+    private static final int MAX_INITIAL_READ_BUFFER_SIZE = 64 * 1024;
+
     /** The underlying HTTPS connection. */
     protected final HttpsURLConnection connection;
 
@@ -69,12 +77,37 @@ public class HttpsConnection
         this.body = new byte[0];
     }
 
+    /**
+     * Getter for the URL given in the constructor.
+     *
+     * @return the request URL.
+     */
+    @Override
+    public URL getUrl()
+    {
+        // Codes_SRS_HTTPSCONNECTION_21_032: [The function shall return the URL of the connection.]
+        return this.connection.getURL();
+    }
+
+    /**
+     * Getter for the request method.
+     *
+     * @return the request method (i.e. GET).
+     */
+    @Override
+    public HttpsMethod getRequestMethod()
+    {
+        // Codes_SRS_HTTPSCONNECTION_21_033: [The function shall return the request method of the connection.]
+        return HttpsMethod.valueOf(this.connection.getRequestMethod());
+    }
+
     /**
      * Sends the request to the URL given in the constructor.
      *
      * @throws IOException if the connection could not be established, or the
      * server responded with a bad status code.
      */
+    @Override
     public void connect() throws IOException
     {
         // Codes_SRS_HTTPSCONNECTION_11_004: [The function shall stream the request body, if present, through the connection.]
@@ -128,6 +161,7 @@ public class HttpsConnection
      * @param field the header field name.
      * @param value the header field value.
      */
+    @Override
     public void setRequestHeader(String field, String value)
     {
         // Codes_SRS_HTTPSCONNECTION_11_008: [The function shall set the given request header field.]
@@ -141,6 +175,7 @@ public class HttpsConnection
      *
      * @param timeout the read timeout.
      */
+    @Override
     public void setReadTimeoutMillis(int timeout)
     {
         // Codes_SRS_HTTPSCONNECTION_11_023: [The function shall set the read timeout to the given value.]
@@ -148,7 +183,24 @@ public class HttpsConnection
     }
 
     /**
-     * Saves the body to be sent with the request.
+     * Sets the socket factory of the TLS connection. Requests using the same
+     * factory share the TLS sessions and the connections kept alive by Java.
+     *
+     * @param socketFactory the TLS socket factory.
+     *
+     * @throws IllegalArgumentException if the socket factory is {@code null}.
+     */
+    @Override
+    public void setSSLSocketFactory(SSLSocketFactory socketFactory)
+    {
+        // Codes_SRS_HTTPSCONNECTION_21_030: [If the socket factory is null, the function shall throw an IllegalArgumentException.]
+        // Codes_SRS_HTTPSCONNECTION_21_031: [The function shall set the socket factory of the TLS connection.]
+        this.connection.setSSLSocketFactory(socketFactory);
+    }
+
+    /**
+     * Saves the body to be sent with the request. The body is not copied, so
+     * it shall not be changed until the request is sent.
      *
      * @param body the request body.
      *
@@ -157,6 +209,7 @@ public class HttpsConnection
      * {@link HttpsURLConnection} silently converts the HTTPS method to POST or PUT if a
      * body is written to the request.
      */
+    @Override
     public void writeOutput(byte[] body)
     {
         // Codes_SRS_HTTPSCONNECTION_11_010: [The function shall throw an IllegalArgumentException if the request does not currently use method POST or PUT and the body is non-empty.]
@@ -174,7 +227,8 @@ public class HttpsConnection
         else
         {
             // Codes_SRS_HTTPSCONNECTION_11_009: [The function shall save the body to be sent with the request.]
-            this.body = Arrays.copyOf(body, body.length);
+            // Codes_SRS_HTTPSCONNECTION_21_029: [The function shall save the body without copying it.]
+            this.body = body;
         }
     }
 
@@ -186,12 +240,15 @@ public class HttpsConnection
      * @throws IOException if the input stream could not be accessed, for
      * example if the server could not be reached.
      */
+    @Override
     public byte[] readInput() throws IOException
     {
         // Codes_SRS_HTTPSCONNECTION_11_011: [The function shall read from the input stream (response stream) and return the response.]
         // Codes_SRS_HTTPSCONNECTION_11_012: [The function shall throw an IOException if the input stream could not be accessed.]
         InputStream inputStream = this.connection.getInputStream();
-        byte[] input = readInputStream(inputStream);
+        // Codes_SRS_HTTPSCONNECTION_21_024: [The function shall read the response in bulk into a buffer sized from the response Content-Length, if present,
+        // up to 64 KiB.]
+        byte[] input = readInputStream(inputStream, this.connection.getContentLength());
         // Codes_SRS_HTTPSCONNECTION_11_019: [The function shall close the input stream after it has been completely read.]
         inputStream.close();
 
@@ -206,6 +263,7 @@ public class HttpsConnection
      * @throws IOException if the input stream could not be accessed, for
      * example if the server could not be reached.
      */
+    @Override
     public byte[] readError() throws IOException
     {
         // Codes_SRS_HTTPSCONNECTION_11_013: [The function shall read from the error stream and return the response.]
@@ -216,7 +274,7 @@ public class HttpsConnection
         // if there is no error reason, getErrorStream() returns null.
         if (errorStream != null)
         {
-            error = readInputStream(errorStream);
+            error = readInputStream(errorStream, this.connection.getContentLength());
             // Codes_SRS_HTTPSCONNECTION_11_020: [The function shall close the error stream after it has been completely read.]
             errorStream.close();
         }
@@ -231,6 +289,7 @@ public class HttpsConnection
      *
      * @throws IOException if no response was received.
      */
+    @Override
     public int getResponseStatus() throws IOException
     {
         // Codes_SRS_HTTPSCONNECTION_11_015: [The function shall return the response status code.]
@@ -247,6 +306,7 @@ public class HttpsConnection
      *
      * @throws IOException if no response was received.
      */
+    @Override
     public Map<String, List<String>> getResponseHeaders() throws IOException
     {
         // Codes_SRS_HTTPSCONNECTION_11_017: [The function shall return a mapping of header field names to the values associated with the header field name.]
@@ -254,6 +314,24 @@ public class HttpsConnection
         return this.connection.getHeaderFields();
     }
 
+    /**
+     * Returns the response stream, for callers that parse the response
+     * incrementally instead of reading it with {@link #readInput()}. The caller
+     * shall completely read and close the stream, so the connection can be
+     * reused.
+     *
+     * @return the response stream.
+     *
+     * @throws IOException if the input stream could not be accessed, for
+     * example if the server could not be reached.
+     */
+    public InputStream getInputStream() throws IOException
+    {
+        // Codes_SRS_HTTPSCONNECTION_21_027: [The function shall return the input stream (response stream) without reading it.]
+        // Codes_SRS_HTTPSCONNECTION_21_028: [The function shall throw an IOException if the input stream could not be accessed.]
+        return this.connection.getInputStream();
+    }
+
     /**
      * Reads the input stream until the stream is empty.
      *
@@ -266,23 +344,56 @@ public class HttpsConnection
     protected static byte[] readInputStream(InputStream stream)
             throws IOException
     {
-        ArrayList<Byte> byteBuffer = new ArrayList<>();
-        int nextByte = -1;
-        // read(byte[]) reads the byte into the buffer and returns the number
-        // of bytes read, or -1 if the end of the stream has been reached.
-        while ((nextByte = stream.read()) > -1)
-        {
-            byteBuffer.add((byte) nextByte);
-        }
+        return readInputStream(stream, -1);
+    }
 
-        int bufferSize = byteBuffer.size();
-        byte[] byteArray = new byte[bufferSize];
-        for (int i = 0; i < bufferSize; ++i)
+    /**
+     * Reads the input stream until the stream is empty, in blocks, into a
+     * buffer of the expected length, up to 64 KiB. The buffer grows as the
+     * bytes arrive if the stream is longer, or if the length is not known.
+     *
+     * @param stream the input stream.
+     * @param expectedLength the expected length of the content, or a negative
+     * value if it is not known.
+     *
+     * @return the content of the input stream.
+     *
+     * @throws IOException if the input stream could not be read from.
+     */
+    protected static byte[] readInputStream(InputStream stream, int expectedLength)
+            throws IOException
+    {
+        // Codes_SRS_HTTPSCONNECTION_21_025: [If the Content-Length is not present, the function shall read the response into a buffer that grows as needed.]
+        byte[] buffer = new byte[(expectedLength > 0) ? Math.min(expectedLength, MAX_INITIAL_READ_BUFFER_SIZE) : DEFAULT_READ_BUFFER_SIZE];
+        int size = 0;
+        while (true)
         {
-            byteArray[i] = byteBuffer.get(i);
+            if (size == buffer.length)
+            {
+                // Checks for the end of the stream before growing a buffer
+                // that was sized from the Content-Length.
+                int nextByte = stream.read();
+                if (nextByte < 0)
+                {
+                    break;
+                }
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                buffer[size++] = (byte) nextByte;
+            }
+
+            // read(byte[], int, int) reads up to the given number of bytes into
+            // the buffer and returns the number of bytes read, or -1 if the end
+            // of the stream has been reached.
+            int bytesRead = stream.read(buffer, size, buffer.length - size);
+            if (bytesRead < 0)
+            {
+                break;
+            }
+            size += bytesRead;
         }
 
-        return byteArray;
+        // Codes_SRS_HTTPSCONNECTION_21_026: [The function shall return exactly the bytes read from the stream.]
+        return (size == buffer.length) ? buffer : Arrays.copyOf(buffer, size);
     }
 
     protected HttpsConnection()
@@ -0,0 +1,46 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport.https;
+
+import java.io.IOException;
+import java.net.URL;
+
+/**
+ * Service provider interface for the engine that runs the HTTPS requests of
+ * the device client.
+ * <p>
+ *     The default engine, {@link HttpsUrlConnectionEngine}, runs each request
+ *     on a {@link javax.net.ssl.HttpsURLConnection}. Another engine, for
+ *     example one that multiplexes the requests to a host over a single
+ *     HTTP/2 connection, returns its own {@link HttpsEngineConnection} for
+ *     each request. Engines are installed with
+ *     {@link HttpsEngineProvider#setEngine(HttpsEngine)}, or registered in
+ *     {@code META-INF/services/com.microsoft.azure.sdk.iot.device.transport.https.HttpsEngine}.
+ * </p>
+ */
+public interface HttpsEngine
+{
+    /**
+     * Opens a connection for a request to the given URL.
+     *
+     * @param url the URL for the request. It shall use the HTTPS protocol.
+     * @param method the HTTPS method (i.e. GET).
+     *
+     * @return the connection for the request.
+     *
+     * @throws IOException if the connection could not be opened.
+     * @throws IllegalArgumentException if the URL does not use the HTTPS protocol.
+     */
+    HttpsEngineConnection openConnection(URL url, HttpsMethod method) throws IOException;
+
+    /**
+     * Tells if the engine runs concurrent requests to a host over a single
+     * connection. The requests of a multiplexed engine are not bounded by the
+     * {@link HttpsRequestLimiter}.
+     *
+     * @return {@code true} if the engine multiplexes the requests to a host,
+     * {@code false} otherwise.
+     */
+    boolean isMultiplexed();
+}
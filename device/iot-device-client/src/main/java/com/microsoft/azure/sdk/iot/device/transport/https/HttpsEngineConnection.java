@@ -0,0 +1,118 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport.https;
+
+import javax.net.ssl.SSLSocketFactory;
+import java.io.IOException;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One HTTPS request and its response, opened by an {@link HttpsEngine}.
+ * <p>
+ *     The {@link HttpsRequest} sets the request headers and body, sends the
+ *     request with {@link #connect()}, then reads the response status,
+ *     headers and body. {@link HttpsConnection} implements it over a
+ *     {@link javax.net.ssl.HttpsURLConnection}; other engines implement it
+ *     over their own transport.
+ * </p>
+ */
+public interface HttpsEngineConnection
+{
+    /**
+     * Getter for the URL of the request.
+     *
+     * @return the request URL.
+     */
+    URL getUrl();
+
+    /**
+     * Getter for the method of the request.
+     *
+     * @return the request method (i.e. GET).
+     */
+    HttpsMethod getRequestMethod();
+
+    /**
+     * Sets the request header field to the given value.
+     *
+     * @param field the header field name.
+     * @param value the header field value.
+     */
+    void setRequestHeader(String field, String value);
+
+    /**
+     * Sets the read timeout in milliseconds.
+     *
+     * @param timeout the read timeout.
+     */
+    void setReadTimeoutMillis(int timeout);
+
+    /**
+     * Sets the socket factory of the TLS connection.
+     *
+     * @param socketFactory the TLS socket factory.
+     *
+     * @throws IllegalArgumentException if the socket factory is {@code null}.
+     */
+    void setSSLSocketFactory(SSLSocketFactory socketFactory);
+
+    /**
+     * Saves the body to be sent with the request. The body is not copied, so
+     * it shall not be changed until the request is sent.
+     *
+     * @param body the request body.
+     *
+     * @throws IllegalArgumentException if the request is not a POST or a PUT
+     * and the body is non-empty.
+     */
+    void writeOutput(byte[] body);
+
+    /**
+     * Sends the request.
+     *
+     * @throws IOException if the connection could not be established, or the
+     * server responded with a bad status code.
+     */
+    void connect() throws IOException;
+
+    /**
+     * Returns the response status code.
+     *
+     * @return the response status code.
+     *
+     * @throws IOException if no response was received.
+     */
+    int getResponseStatus() throws IOException;
+
+    /**
+     * Returns the response headers, where the key is the header field name
+     * and the values are the values associated with the header field name.
+     *
+     * @return the response headers.
+     *
+     * @throws IOException if no response was received.
+     */
+    Map<String, List<String>> getResponseHeaders() throws IOException;
+
+    /**
+     * Reads the response body of a successful request.
+     *
+     * @return the response body.
+     *
+     * @throws IOException if the response could not be read.
+     */
+    byte[] readInput() throws IOException;
+
+    /**
+     * Reads the response body of a failed request, so the connection can be
+     * reused.
+     *
+     * @return the error reason, or an empty array if there is none.
+     *
+     * @throws IOException if the response could not be read.
+     */
+    byte[] readError() throws IOException;
+}
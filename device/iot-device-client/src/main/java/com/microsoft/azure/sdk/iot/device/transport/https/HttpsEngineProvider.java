@@ -0,0 +1,79 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport.https;
+
+import java.util.Iterator;
+import java.util.ServiceLoader;
+
+/**
+ * Provides the {@link HttpsEngine} that runs the HTTPS requests of all the
+ * device clients in the process.
+ * <p>
+ *     On first use, the provider loads the first engine registered with
+ *     {@link ServiceLoader}, or uses the {@link HttpsUrlConnectionEngine} if
+ *     there is none. The engine can be replaced at any time; the requests
+ *     already open keep the engine they were opened with.
+ * </p>
+ */
+public final class HttpsEngineProvider
+{
+    private static volatile HttpsEngine engine;
+
+    /**
+     * Getter for the engine that runs the HTTPS requests.
+     *
+     * @return the installed engine.
+     */
+    public static HttpsEngine getEngine()
+    {
+        HttpsEngine current = engine;
+        if (current == null)
+        {
+            synchronized (HttpsEngineProvider.class)
+            {
+                current = engine;
+                if (current == null)
+                {
+                    // Codes_SRS_HTTPSENGINEPROVIDER_21_001: [If no engine was installed, the function shall install
+                    // the first engine registered with the ServiceLoader, or the HttpsUrlConnectionEngine if there is none.]
+                    current = loadEngine();
+                    engine = current;
+                }
+            }
+        }
+
+        // Codes_SRS_HTTPSENGINEPROVIDER_21_002: [The function shall return the installed engine.]
+        return current;
+    }
+
+    /**
+     * Installs the engine that runs the HTTPS requests opened from now on.
+     *
+     * @param newEngine the engine, or {@code null} to restore the default engine.
+     */
+    public static void setEngine(HttpsEngine newEngine)
+    {
+        synchronized (HttpsEngineProvider.class)
+        {
+            // Codes_SRS_HTTPSENGINEPROVIDER_21_003: [The function shall install the given engine.]
+            // Codes_SRS_HTTPSENGINEPROVIDER_21_004: [If the engine is null, the function shall install the
+            // HttpsUrlConnectionEngine.]
+            engine = (newEngine == null) ? new HttpsUrlConnectionEngine() : newEngine;
+        }
+    }
+
+    private static HttpsEngine loadEngine()
+    {
+        Iterator<HttpsEngine> engines = ServiceLoader.load(HttpsEngine.class).iterator();
+        if (engines.hasNext())
+        {
+            return engines.next();
+        }
+        return new HttpsUrlConnectionEngine();
+    }
+
+    private HttpsEngineProvider()
+    {
+    }
+}
@@ -5,6 +5,7 @@ package com.microsoft.azure.sdk.iot.device.transport.https;
 
 import com.microsoft.azure.sdk.iot.device.*;
 import com.microsoft.azure.sdk.iot.device.auth.IotHubSasToken;
+import com.microsoft.azure.sdk.iot.device.auth.IotHubSasTokenCache;
 import com.microsoft.azure.sdk.iot.device.net.*;
 import com.microsoft.azure.sdk.iot.device.transport.TransportUtils;
 
@@ -17,9 +18,6 @@ import java.net.URL;
  */
 public class HttpsIotHubConnection
 {
-    /** The HTTPS connection lock. */
-    protected static final Object HTTPS_CONNECTION_LOCK = new Object();
-
     /** The client configuration. */
     protected final DeviceClientConfig config;
     /**
@@ -28,6 +26,24 @@ public class HttpsIotHubConnection
      * the IoT Hub.
      */
     protected String messageEtag;
+    /**
+     * The lock for receiving messages and sending their results, which share
+     * the message e-tag. Events are sent without it, so they are not blocked
+     * by a message being received.
+     */
+    protected final Object messageLock = new Object();
+
+    /**
+     * The SAS token of the device, shared by the events, the messages and the
+     * message results until it is due for renewal.
+     */
+    private final IotHubSasTokenCache sasTokenCache;
+
+    /** The bound on the requests the client runs at the same time. */
+    private final HttpsRequestLimiter requestLimiter;
+
+    /** The content encodings accepted in the responses when the events are compressed. */
+    private static final String ACCEPT_ENCODING = "gzip, deflate";
 
     /**
      * Constructs an instance from the given {@link DeviceClientConfig}
@@ -37,11 +53,14 @@ public class HttpsIotHubConnection
      */
     public HttpsIotHubConnection(DeviceClientConfig config)
     {
-        synchronized (HTTPS_CONNECTION_LOCK)
-        {
-            // Codes_SRS_HTTPSIOTHUBCONNECTION_11_001: [The constructor shall save the client configuration.]
-            this.config = config;
-        }
+        // Codes_SRS_HTTPSIOTHUBCONNECTION_11_001: [The constructor shall save the client configuration.]
+        this.config = config;
+        // Codes_SRS_HTTPSIOTHUBCONNECTION_21_044: [The constructor shall create a SAS token cache for the
+        // configuration, which signs the requests until the token is due for renewal.]
+        this.sasTokenCache = new IotHubSasTokenCache(config);
+        // Codes_SRS_HTTPSIOTHUBCONNECTION_21_047: [The constructor shall create the request limiter of the
+        // connection, so the requests of other clients are not counted against it.]
+        this.requestLimiter = new HttpsRequestLimiter();
     }
 
     /**
@@ -55,44 +74,57 @@ public class HttpsIotHubConnection
      */
     public IotHubStatusCode sendEvent(HttpsMessage msg) throws IOException
     {
-        synchronized (HTTPS_CONNECTION_LOCK)
-        {
-            String iotHubHostname = this.config.getIotHubHostname();
-            String deviceId = this.config.getDeviceId();
-            int readTimeoutMillis = this.config.getReadTimeoutMillis();
+        String iotHubHostname = this.config.getIotHubHostname();
+        String deviceId = this.config.getDeviceId();
+        int readTimeoutMillis = this.config.getReadTimeoutMillis();
 
-            // Codes_SRS_HTTPSIOTHUBCONNECTION_11_002: [The function shall send a request to the URL 'https://[iotHubHostname]/devices/[deviceId]/messages/events?api-version=2016-02-03'.]
-            IotHubEventUri eventUri = new IotHubEventUri(iotHubHostname, deviceId);
-            URL eventUrl = new URL("https://" + eventUri.toString());
-            IotHubSasToken sasToken = new IotHubSasToken(this.config, System.currentTimeMillis() / 1000l +
-                    this.config.getTokenValidSecs() + 1l);
+        // Codes_SRS_HTTPSIOTHUBCONNECTION_11_002: [The function shall send a request to the URL 'https://[iotHubHostname]/devices/[deviceId]/messages/events?api-version=2016-02-03'.]
+        IotHubEventUri eventUri = new IotHubEventUri(iotHubHostname, deviceId);
+        URL eventUrl = new URL("https://" + eventUri.toString());
+        IotHubSasToken sasToken = this.sasTokenCache.getToken();
 
-            // Codes_SRS_HTTPSIOTHUBCONNECTION_11_003: [The function shall send a POST request.]
-            // Codes_SRS_HTTPSIOTHUBCONNECTION_11_004: [The function shall set the request body to the message body.]
-            HttpsRequest request =
-                    new HttpsRequest(eventUrl, HttpsMethod.POST, msg.getBody());
-            // Codes_SRS_HTTPSIOTHUBCONNECTION_11_005: [The function shall write each message property as a request header.]
-            for (MessageProperty property : msg.getProperties())
-            {
-                request.setHeaderField(property.getName(),
-                        property.getValue());
-            }
-            // Codes_SRS_HTTPSIOTHUBCONNECTION_11_006: [The function shall set the request read timeout to be the configuration parameter readTimeoutMillis.]
-            request.setReadTimeoutMillis(readTimeoutMillis).
-                    // Codes_SRS_HTTPSIOTHUBCONNECTION_11_007: [The function shall set the header field 'authorization' to be a valid SAS token generated from the configuration parameters.]
-                            setHeaderField("authorization", sasToken.toString()).
-                    // Codes_SRS_HTTPSIOTHUBCONNECTION_11_008: [The function shall set the header field 'iothub-to' to be '/devices/[deviceId]/messages/events'.]
-                            setHeaderField("iothub-to", eventUri.getPath()).
-                    // Codes_SRS_HTTPSIOTHUBCONNECTION_11_009: [The function shall set the header field 'content-type' to be the message content type.]
-                            setHeaderField("content-type", msg.getContentType());
-
-            // Codes_SRS_HTTPSIOTHUBCONNECTION_11_012: [If the IoT Hub could not be reached, the function shall throw an IOException.]
-            HttpsResponse response = request.send();
+        // Codes_SRS_HTTPSIOTHUBCONNECTION_21_042: [If the configuration sets a content encoding other than
+        // identity, the function shall encode the message body with it and set the header field
+        // 'content-encoding' to its name.]
+        HttpsContentEncoding contentEncoding = this.config.getHttpsContentEncoding();
+        boolean compressed = (contentEncoding != null) && (contentEncoding != HttpsContentEncoding.IDENTITY);
+        byte[] body = msg.getBody();
+        if (compressed)
+        {
+            body = contentEncoding.encode(body);
+        }
 
-            // Codes_SRS_HTTPSIOTHUBCONNECTION_11_010: [The function shall return the IoT Hub status code included in the response.]
-            return IotHubStatusCode.getIotHubStatusCode(
-                    response.getStatus());
+        // Codes_SRS_HTTPSIOTHUBCONNECTION_11_003: [The function shall send a POST request.]
+        // Codes_SRS_HTTPSIOTHUBCONNECTION_11_004: [The function shall set the request body to the message body.]
+        HttpsRequest request =
+                new HttpsRequest(eventUrl, HttpsMethod.POST, body);
+        if (compressed)
+        {
+            request.setHeaderField("content-encoding", contentEncoding.getName());
+        }
+        // Codes_SRS_HTTPSIOTHUBCONNECTION_11_005: [The function shall write each message property as a request header.]
+        for (MessageProperty property : msg.getProperties())
+        {
+            request.setHeaderField(property.getName(),
+                    property.getValue());
         }
+        // Codes_SRS_HTTPSIOTHUBCONNECTION_11_006: [The function shall set the request read timeout to be the configuration parameter readTimeoutMillis.]
+        request.setReadTimeoutMillis(readTimeoutMillis).
+                // Codes_SRS_HTTPSIOTHUBCONNECTION_11_007: [The function shall set the header field 'authorization' to be a valid SAS token generated from the configuration parameters.]
+                        setHeaderField("authorization", sasToken.toString()).
+                // Codes_SRS_HTTPSIOTHUBCONNECTION_11_008: [The function shall set the header field 'iothub-to' to be '/devices/[deviceId]/messages/events'.]
+                        setHeaderField("iothub-to", eventUri.getPath()).
+                // Codes_SRS_HTTPSIOTHUBCONNECTION_11_009: [The function shall set the header field 'content-type' to be the message content type.]
+                        setHeaderField("content-type", msg.getContentType());
+
+        // Codes_SRS_HTTPSIOTHUBCONNECTION_11_012: [If the IoT Hub could not be reached, the function shall throw an IOException.]
+        HttpsResponse response = sendRequest(request);
+
+        // Codes_SRS_HTTPSIOTHUBCONNECTION_11_010: [The function shall return the IoT Hub status code included in the response.]
+        IotHubStatusCode status = IotHubStatusCode.getIotHubStatusCode(
+                response.getStatus());
+        checkSasToken(status);
+        return status;
     }
 
     /**
@@ -104,7 +136,7 @@ public class HttpsIotHubConnection
      */
     public Message receiveMessage() throws IOException
     {
-        synchronized (HTTPS_CONNECTION_LOCK)
+        synchronized (this.messageLock)
         {
             String iotHubHostname = this.config.getIotHubHostname();
             String deviceId = this.config.getDeviceId();
@@ -115,8 +147,7 @@ public class HttpsIotHubConnection
             IotHubMessageUri messageUri = new IotHubMessageUri(iotHubHostname, deviceId);
             URL messageUrl = new URL("https://" + messageUri.toString());
 
-            IotHubSasToken sasToken = new IotHubSasToken(this.config, System.currentTimeMillis() / 1000l +
-                    this.config.getTokenValidSecs() + 1l);
+            IotHubSasToken sasToken = this.sasTokenCache.getToken();
 
             // Codes_SRS_HTTPSIOTHUBCONNECTION_11_014: [The function shall send a GET request.]
             HttpsRequest request =
@@ -132,14 +163,22 @@ public class HttpsIotHubConnection
                             // Codes_SRS_HTTPSIOTHUBCONNECTION_11_018: [The function shall set the header field 'iothub-messagelocktimeout' to be the configuration parameter messageLockTimeoutSecs.]
                                     setHeaderField("iothub-messagelocktimeout",
                                     Integer.toString(messageLockTimeoutSecs));
+            // Codes_SRS_HTTPSIOTHUBCONNECTION_21_043: [If the configuration sets a content encoding other than
+            // identity, the function shall set the header field 'accept-encoding' to 'gzip, deflate'.]
+            HttpsContentEncoding contentEncoding = this.config.getHttpsContentEncoding();
+            if ((contentEncoding != null) && (contentEncoding != HttpsContentEncoding.IDENTITY))
+            {
+                request.setHeaderField("accept-encoding", ACCEPT_ENCODING);
+            }
 
             // Codes_SRS_HTTPSIOTHUBCONNECTION_11_023: [If the IoT Hub could not be reached, the function shall throw an IOException.]
-            HttpsResponse response = request.send();
+            HttpsResponse response = sendRequest(request);
 
             // Codes_SRS_HTTPSIOTHUBCONNECTION_11_021: [If a response with IoT Hub status code OK is not received, the function shall return null.]
             Message msg = null;
             // Codes_SRS_HTTPSIOTHUBCONNECTION_11_019: [If a response with IoT Hub status code OK is received, the function shall return the IoT Hub message included in the response.]
             IotHubStatusCode messageStatus = IotHubStatusCode.getIotHubStatusCode(response.getStatus());
+            checkSasToken(messageStatus);
             if (messageStatus == IotHubStatusCode.OK)
             {
                 // Codes_SRS_HTTPSIOTHUBCONNECTION_11_020: [If a response with IoT Hub status code OK is received, the function shall save the response header field 'etag'.]
@@ -167,7 +206,7 @@ public class HttpsIotHubConnection
     public void sendMessageResult(IotHubMessageResult result)
             throws IOException
     {
-        synchronized (HTTPS_CONNECTION_LOCK)
+        synchronized (this.messageLock)
         {
             // Codes_SRS_HTTPSIOTHUBCONNECTION_11_039: [If the function is called before receiveMessage() returns a message, the function shall throw an IllegalStateException.]
             if (this.messageEtag == null)
@@ -235,8 +274,7 @@ public class HttpsIotHubConnection
                             "Invalid message result specified.");
             }
 
-            IotHubSasToken sasToken = new IotHubSasToken(this.config, System.currentTimeMillis() / 1000l +
-                                    this.config.getTokenValidSecs() + 1l);
+            IotHubSasToken sasToken = this.sasTokenCache.getToken();
 
             // Codes_SRS_HTTPSIOTHUBCONNECTION_11_033: [The function shall set the request read timeout to be the configuration parameter readTimeoutMillis.]
             request.setReadTimeoutMillis(readTimeoutMillis).
@@ -247,11 +285,12 @@ public class HttpsIotHubConnection
                             setHeaderField("if-match", this.messageEtag);
 
             // Codes_SRS_HTTPSIOTHUBCONNECTION_11_037: [If the IoT Hub could not be reached, the function shall throw an IOException.]
-            HttpsResponse response = request.send();
+            HttpsResponse response = sendRequest(request);
             // Codes_SRS_HTTPSIOTHUBCONNECTION_11_038: [If the IoT Hub status code in the response is not OK_EMPTY, the function shall throw an IOException.]
             IotHubStatusCode resultStatus =
                     IotHubStatusCode.getIotHubStatusCode(
                             response.getStatus());
+            checkSasToken(resultStatus);
             if (resultStatus != IotHubStatusCode.OK_EMPTY)
             {
                 String errMsg = String.format(
@@ -262,6 +301,58 @@ public class HttpsIotHubConnection
         }
     }
 
+    /**
+     * Sends the request once its turn comes in the {@link HttpsRequestLimiter}
+     * of the connection.
+     *
+     * @param request the request to send.
+     *
+     * @return the response.
+     *
+     * @throws IOException if the IoT Hub could not be reached.
+     */
+    private HttpsResponse sendRequest(HttpsRequest request) throws IOException
+    {
+        // Codes_SRS_HTTPSIOTHUBCONNECTION_21_046: [The function shall open the TLS connection with the socket
+        // factory of the configuration, shared by the clients using the same TLS context.]
+        request.setSSLSocketFactory(this.config.getSslSocketFactory());
+
+        // Codes_SRS_HTTPSIOTHUBCONNECTION_21_041: [If the installed HTTPS engine multiplexes the requests, the
+        // function shall send the request without waiting for the request limiter.]
+        if (HttpsEngineProvider.getEngine().isMultiplexed())
+        {
+            return request.send();
+        }
+
+        // Codes_SRS_HTTPSIOTHUBCONNECTION_21_040: [The function shall send the request once its turn comes in the
+        // request limiter of the connection, and end its turn after reading the response.]
+        this.requestLimiter.acquire();
+        try
+        {
+            return request.send();
+        }
+        finally
+        {
+            this.requestLimiter.release();
+        }
+    }
+
+    /**
+     * Drops the cached SAS token if the IoT Hub rejected it, so the next
+     * request is signed with a new one.
+     *
+     * @param status the IoT Hub status code of the response.
+     */
+    private void checkSasToken(IotHubStatusCode status)
+    {
+        // Codes_SRS_HTTPSIOTHUBCONNECTION_21_045: [If the IoT Hub status code of a response is UNAUTHORIZED, the
+        // function shall drop the cached SAS token, so the next request is signed with a new one.]
+        if (status == IotHubStatusCode.UNAUTHORIZED)
+        {
+            this.sasTokenCache.invalidate();
+        }
+    }
+
     /**
      * Removes double quotes from the e-tag property.
      *
@@ -0,0 +1,193 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport.https;
+
+/**
+ * Decides on each receive period whether the HTTPS transport polls the IoT Hub
+ * for messages.
+ * <p>
+ *     Right after a message is received or an event is sent, the transport
+ *     polls on every receive period. Each empty poll doubles the time until the
+ *     next poll, starting from the receive period, up to the maximum polling
+ *     interval. A maximum of 0 disables the back-off, so the transport polls on
+ *     every receive period. The receive period is measured between the calls to
+ *     {@link #shouldPoll(long)}, so the policy follows the period the client
+ *     schedules the receive task with.
+ * </p>
+ */
+public final class HttpsPollingPolicy
+{
+    private long maxIntervalMillis;
+    private long periodMillis;
+    private long lastTickMillis;
+    private long intervalMillis;
+    private long nextPollMillis;
+
+    private long pollCount;
+    private long emptyPollCount;
+    private long avoidedPollCount;
+
+    /**
+     * Constructor.
+     *
+     * @param maxIntervalMillis the maximum time between two polls while the
+     * device is idle, or 0 to poll on every receive period.
+     * @throws IllegalArgumentException if the interval is negative.
+     */
+    public HttpsPollingPolicy(long maxIntervalMillis)
+    {
+        // Codes_SRS_HTTPSPOLLINGPOLICY_21_001: [The constructor shall save the maximum polling interval.]
+        setMaxIntervalMillis(maxIntervalMillis);
+    }
+
+    /**
+     * Getter for the maximum time between two polls while the device is idle.
+     *
+     * @return the maximum polling interval, or 0 if the back-off is disabled.
+     */
+    public synchronized long getMaxIntervalMillis()
+    {
+        // Codes_SRS_HTTPSPOLLINGPOLICY_21_002: [The function shall return the maximum polling interval.]
+        return this.maxIntervalMillis;
+    }
+
+    /**
+     * Setter for the maximum time between two polls while the device is idle.
+     * It takes effect on the next receive period.
+     *
+     * @param maxIntervalMillis the maximum polling interval, or 0 to poll on
+     * every receive period.
+     * @throws IllegalArgumentException if the interval is negative.
+     */
+    public synchronized void setMaxIntervalMillis(long maxIntervalMillis)
+    {
+        // Codes_SRS_HTTPSPOLLINGPOLICY_21_003: [If the interval is negative, the function shall throw IllegalArgumentException.]
+        if (maxIntervalMillis < 0)
+        {
+            throw new IllegalArgumentException("The maximum polling interval cannot be negative.");
+        }
+
+        // Codes_SRS_HTTPSPOLLINGPOLICY_21_004: [If the current back-off is longer than the new maximum, the
+        // function shall shorten it to the new maximum.]
+        if ((maxIntervalMillis > 0) && (this.intervalMillis > maxIntervalMillis))
+        {
+            this.nextPollMillis -= this.intervalMillis - maxIntervalMillis;
+            this.intervalMillis = maxIntervalMillis;
+        }
+        this.maxIntervalMillis = maxIntervalMillis;
+    }
+
+    /**
+     * Called on each receive period to decide whether to poll for messages.
+     *
+     * @param nowMillis the current time, in milliseconds.
+     * @return {@code true} if the transport shall poll, {@code false} otherwise.
+     */
+    public synchronized boolean shouldPoll(long nowMillis)
+    {
+        if (this.lastTickMillis > 0)
+        {
+            this.periodMillis = nowMillis - this.lastTickMillis;
+        }
+        this.lastTickMillis = nowMillis;
+
+        // Codes_SRS_HTTPSPOLLINGPOLICY_21_005: [If the back-off is disabled, or the time for the next poll was
+        // reached, the function shall return true.]
+        // The receive task is not scheduled exactly on time, so a poll due
+        // before the middle of the next period is done now.
+        if ((this.maxIntervalMillis == 0) || (nowMillis + this.periodMillis / 2 >= this.nextPollMillis))
+        {
+            this.pollCount++;
+            return true;
+        }
+
+        // Codes_SRS_HTTPSPOLLINGPOLICY_21_006: [Otherwise, the function shall count the poll as avoided and return false.]
+        this.avoidedPollCount++;
+        return false;
+    }
+
+    /**
+     * Called when a poll returned a message, so the next receive period polls again.
+     *
+     * @param nowMillis the current time, in milliseconds.
+     */
+    public synchronized void onMessageReceived(long nowMillis)
+    {
+        // Codes_SRS_HTTPSPOLLINGPOLICY_21_007: [The function shall reset the back-off, so the transport polls on
+        // the next receive period.]
+        resetInterval(nowMillis);
+    }
+
+    /**
+     * Called when an event was sent, as the device is likely to receive a
+     * message soon.
+     *
+     * @param nowMillis the current time, in milliseconds.
+     */
+    public synchronized void onEventSent(long nowMillis)
+    {
+        // Codes_SRS_HTTPSPOLLINGPOLICY_21_007: [The function shall reset the back-off, so the transport polls on
+        // the next receive period.]
+        resetInterval(nowMillis);
+    }
+
+    /**
+     * Called when a poll returned no message, to back off the next poll.
+     *
+     * @param nowMillis the current time, in milliseconds.
+     */
+    public synchronized void onEmptyPoll(long nowMillis)
+    {
+        // Codes_SRS_HTTPSPOLLINGPOLICY_21_008: [The function shall double the time until the next poll, starting
+        // from the receive period, up to the maximum polling interval.]
+        this.emptyPollCount++;
+        long nextIntervalMillis = (this.intervalMillis == 0) ? this.periodMillis : this.intervalMillis * 2;
+        if ((this.maxIntervalMillis > 0) && (nextIntervalMillis > this.maxIntervalMillis))
+        {
+            nextIntervalMillis = this.maxIntervalMillis;
+        }
+        this.intervalMillis = nextIntervalMillis;
+        this.nextPollMillis = nowMillis + nextIntervalMillis;
+    }
+
+    /**
+     * Getter for the number of polls done.
+     *
+     * @return the number of polls.
+     */
+    public synchronized long getPollCount()
+    {
+        // Codes_SRS_HTTPSPOLLINGPOLICY_21_009: [The function shall return the number of polls done.]
+        return this.pollCount;
+    }
+
+    /**
+     * Getter for the number of polls that returned no message.
+     *
+     * @return the number of empty polls.
+     */
+    public synchronized long getEmptyPollCount()
+    {
+        // Codes_SRS_HTTPSPOLLINGPOLICY_21_010: [The function shall return the number of polls that returned no message.]
+        return this.emptyPollCount;
+    }
+
+    /**
+     * Getter for the number of receive periods that skipped the poll because
+     * of the back-off, that is, the empty polls avoided.
+     *
+     * @return the number of polls avoided.
+     */
+    public synchronized long getAvoidedPollCount()
+    {
+        // Codes_SRS_HTTPSPOLLINGPOLICY_21_011: [The function shall return the number of receive periods that skipped the poll.]
+        return this.avoidedPollCount;
+    }
+
+    private void resetInterval(long nowMillis)
+    {
+        this.intervalMillis = 0;
+        this.nextPollMillis = nowMillis;
+    }
+}
@@ -5,6 +5,7 @@ package com.microsoft.azure.sdk.iot.device.transport.https;
 
 import com.microsoft.azure.sdk.iot.device.transport.TransportUtils;
 
+import javax.net.ssl.SSLSocketFactory;
 import java.io.IOException;
 import java.net.URL;
 import java.util.List;
@@ -16,7 +17,7 @@ import java.util.Map;
 public class HttpsRequest
 {
     /** The underlying HTTPS connection stream. */
-    protected final HttpsConnection connection;
+    protected final HttpsEngineConnection connection;
 
     /**
      * Constructor. Takes a URL as an argument and returns an HTTPS request that
@@ -38,7 +39,9 @@ public class HttpsRequest
         // Codes_SRS_HTTPSREQUEST_11_005: [If an IOException occurs in setting up the HTTPS connection, the function shall throw an IOException.]
         // Codes_SRS_HTTPSREQUEST_11_001: [The function shall open a connection with the given URL as the endpoint.]
         // Codes_SRS_HTTPSREQUEST_11_004: [The function shall use the given HTTPS method (i.e. GET) as the request method.]
-        this.connection = new HttpsConnection(url, method);
+        // Codes_SRS_HTTPSREQUEST_21_001: [The function shall open the connection with the HTTPS engine installed
+        // in the HttpsEngineProvider.]
+        this.connection = HttpsEngineProvider.getEngine().openConnection(url, method);
         this.connection.setRequestHeader("User-Agent", TransportUtils.javaDeviceClientIdentifier + TransportUtils.clientVersion);
         // Codes_SRS_HTTPSREQUEST_11_002: [The function shall write the body to the connection.]
         this.connection.writeOutput(body);
@@ -85,6 +88,13 @@ public class HttpsRequest
             errorReason = this.connection.readError();
         }
 
+        // Codes_SRS_HTTPSREQUEST_21_002: [If the response has a header field 'content-encoding' of gzip or
+        // deflate, the function shall return the decoded body.]
+        if (responseBody.length > 0)
+        {
+            responseBody = decodeBody(responseBody, headerFields);
+        }
+
         // Codes_SRS_HTTPSREQUEST_11_009: [The function shall return the HTTPS response received, including the status code, body, header fields, and error reason (if any).]
         return new HttpsResponse(responseStatus, responseBody, headerFields,
                 errorReason);
@@ -121,6 +131,43 @@ public class HttpsRequest
         return this;
     }
 
+    /**
+     * Sets the socket factory of the TLS connection for the request.
+     *
+     * @param socketFactory the TLS socket factory.
+     *
+     * @return itself, for fluent setting.
+     */
+    public HttpsRequest setSSLSocketFactory(SSLSocketFactory socketFactory)
+    {
+        // Codes_SRS_HTTPSREQUEST_21_003: [The function shall set the socket factory of the TLS connection for the request.]
+        this.connection.setSSLSocketFactory(socketFactory);
+        return this;
+    }
+
+    private static byte[] decodeBody(byte[] body, Map<String, List<String>> headerFields) throws IOException
+    {
+        if (headerFields != null)
+        {
+            for (Map.Entry<String, List<String>> field : headerFields.entrySet())
+            {
+                if ("content-encoding".equalsIgnoreCase(field.getKey()) && (field.getValue() != null))
+                {
+                    for (String value : field.getValue())
+                    {
+                        HttpsContentEncoding contentEncoding = HttpsContentEncoding.fromName(value);
+                        if (contentEncoding != null)
+                        {
+                            return contentEncoding.decode(body);
+                        }
+                    }
+                }
+            }
+        }
+
+        return body;
+    }
+
     protected HttpsRequest()
     {
         this.connection = null;
@@ -0,0 +1,114 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport.https;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bound on the HTTPS requests one client runs at the same time.
+ * <p>
+ *     The limiter does not hold any socket. The sockets of
+ *     {@link javax.net.ssl.HttpsURLConnection} are kept alive by the Java SE
+ *     keep-alive cache, which keeps at most {@code http.maxConnections} idle
+ *     connections per host and closes the others once their response is read.
+ *     Each client runs at most that number of requests at the same time, so
+ *     its connections can go back to the keep-alive cache instead of being
+ *     closed. Requests wait for their turn in the order they arrived. Each
+ *     client has its own limiter, so the clients of a process do not wait for
+ *     each other.
+ * </p>
+ */
+public final class HttpsRequestLimiter
+{
+    private static final String maxConnectionsProperty = "http.maxConnections";
+    // Note: the default of the Java SE keep-alive cache.
+    private static final int defaultMaxRequests = 5;
+
+    private final int maxRequests;
+    private final Semaphore permits;
+    private final AtomicInteger requestsInProgress = new AtomicInteger(0);
+
+    /**
+     * Constructor, bounded by the {@code http.maxConnections} system property.
+     */
+    public HttpsRequestLimiter()
+    {
+        // Codes_SRS_HTTPSREQUESTLIMITER_21_001: [The constructor shall bound the requests to the `http.maxConnections`
+        // system property, or 5 requests if it is not set.]
+        this(Integer.getInteger(maxConnectionsProperty, defaultMaxRequests));
+    }
+
+    HttpsRequestLimiter(int maxRequests)
+    {
+        // Codes_SRS_HTTPSREQUESTLIMITER_21_002: [The constructor shall throw IllegalArgumentException if the
+        // maximum number of requests is not positive.]
+        if (maxRequests <= 0)
+        {
+            throw new IllegalArgumentException("The maximum number of requests shall be positive.");
+        }
+
+        this.maxRequests = maxRequests;
+        this.permits = new Semaphore(maxRequests, true);
+    }
+
+    /**
+     * Getter for the maximum number of requests run at the same time.
+     *
+     * @return the maximum number of requests.
+     */
+    public int getMaxRequests()
+    {
+        // Codes_SRS_HTTPSREQUESTLIMITER_21_003: [The function shall return the maximum number of requests.]
+        return this.maxRequests;
+    }
+
+    /**
+     * Waits for the turn of a request. Each call shall be followed by a call
+     * to {@link #release()} once the response was read.
+     *
+     * @throws InterruptedIOException if the thread was interrupted while waiting.
+     */
+    public void acquire() throws InterruptedIOException
+    {
+        // Codes_SRS_HTTPSREQUESTLIMITER_21_004: [If the maximum number of requests is running, the function shall
+        // wait for one of them to be released.]
+        try
+        {
+            this.permits.acquire();
+            this.requestsInProgress.incrementAndGet();
+        }
+        catch (InterruptedException e)
+        {
+            // Codes_SRS_HTTPSREQUESTLIMITER_21_005: [If the thread is interrupted while waiting, the function shall
+            // throw InterruptedIOException and keep the interrupted status of the thread.]
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to send an HTTPS request");
+        }
+    }
+
+    /**
+     * Ends a request started by {@link #acquire()}.
+     */
+    public void release()
+    {
+        // Codes_SRS_HTTPSREQUESTLIMITER_21_006: [If no request is running, the function shall do nothing.]
+        while (true)
+        {
+            int running = this.requestsInProgress.get();
+            if (running <= 0)
+            {
+                return;
+            }
+            if (this.requestsInProgress.compareAndSet(running, running - 1))
+            {
+                break;
+            }
+        }
+
+        // Codes_SRS_HTTPSREQUESTLIMITER_21_007: [The function shall give the turn to the next request waiting.]
+        this.permits.release();
+    }
+}
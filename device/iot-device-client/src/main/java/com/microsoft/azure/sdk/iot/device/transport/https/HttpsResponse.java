@@ -23,7 +23,8 @@ public class HttpsResponse
      * Constructor.
      *
      * @param status the HTTPS status code.
-     * @param body the response body.
+     * @param body the response body. It is not copied, so it shall not be
+     * changed once the response is built.
      * @param headerFields a map of header field names and the values associated
      * with the field name.
      * @param errorReason the error reason.
@@ -34,7 +35,8 @@ public class HttpsResponse
     {
         // Codes_SRS_HTTPSRESPONSE_11_001: [The constructor shall store the input arguments so that the getters can return them later.]
         this.status = status;
-        this.body = Arrays.copyOf(body, body.length);
+        // Codes_SRS_HTTPSRESPONSE_21_001: [The constructor shall keep the body without copying it.]
+        this.body = body;
         this.errorReason = errorReason;
 
         this.headerFields = new HashMap<>();
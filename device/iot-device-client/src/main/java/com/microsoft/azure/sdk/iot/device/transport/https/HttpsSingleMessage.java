@@ -8,7 +8,10 @@ import com.microsoft.azure.sdk.iot.device.MessageProperty;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /** A single HTTPS message. */
 public final class HttpsSingleMessage implements HttpsMessage
@@ -16,6 +19,13 @@ public final class HttpsSingleMessage implements HttpsMessage
     public static final String HTTPS_SINGLE_MESSAGE_CONTENT_TYPE =
             "binary/octet-stream";
     private static final String SYSTEM_PROPERTY_MESSAGE_ID = "messageid";
+    private static final String SYSTEM_PROPERTY_CONTENT_TYPE = "contenttype";
+    private static final String SYSTEM_PROPERTY_CONTENT_ENCODING = "contentencoding";
+
+    // Note: devices use a small set of property names, so the prefixed names
+    // are built once. Past the limit, new names are prefixed on each message.
+    private static final int MAX_CACHED_PROPERTY_NAMES = 256;
+    private static final ConcurrentMap<String, String> httpsAppPropertyNames = new ConcurrentHashMap<>();
 
     protected byte[] body;
     protected boolean base64Encoded;
@@ -34,25 +44,32 @@ public final class HttpsSingleMessage implements HttpsMessage
         int systemPropertyLength = 0;
 
         // Codes_SRS_HTTPSSINGLEMESSAGE_11_001: [The parsed HttpsSingleMessage shall have a copy of the original message body as its body.]
-        byte[] msgBody = message.getBytes();
-        httpsMsg.body = Arrays.copyOf(msgBody, msgBody.length);
+        // Codes_SRS_HTTPSSINGLEMESSAGE_21_015: [The parsed HttpsSingleMessage shall keep the body array returned
+        // by the message, without copying it again.]
+        httpsMsg.body = message.getBodyArray();
 
         // Codes_SRS_HTTPSSINGLEMESSAGE_21_014: [If the message contains messageId, the parsed HttpsSingleMessage shall add the property 'iothub-messageid' with the messageId value.]
         if(message.getMessageId() != null)
         {
             systemPropertyLength ++;
         }
+        if (message.getContentType() != null)
+        {
+            systemPropertyLength++;
+        }
+        if (message.getContentEncoding() != null)
+        {
+            systemPropertyLength++;
+        }
 
         // Codes_SRS_HTTPSSINGLEMESSAGE_11_003: [The parsed HttpsSingleMessage shall add the prefix 'iothub-app-' to each of the message properties.]
-        MessageProperty[] msgProperties = message.getProperties();
-        httpsMsg.properties = new MessageProperty[msgProperties.length + systemPropertyLength];
-        int countProperty;
-        for (countProperty = 0; countProperty < msgProperties.length; ++countProperty)
+        Collection<MessageProperty> msgProperties = message.getPropertiesView();
+        httpsMsg.properties = new MessageProperty[msgProperties.size() + systemPropertyLength];
+        int countProperty = 0;
+        for (MessageProperty property : msgProperties)
         {
-            MessageProperty property = msgProperties[countProperty];
-
-            httpsMsg.properties[countProperty] = new MessageProperty(
-                    HTTPS_APP_PROPERTY_PREFIX + property.getName(),
+            httpsMsg.properties[countProperty++] = new MessageProperty(
+                    appPropertyToHttpsAppProperty(property.getName()),
                     property.getValue());
         }
         if(message.getMessageId() != null)
@@ -61,6 +78,20 @@ public final class HttpsSingleMessage implements HttpsMessage
                     HTTPS_SYSTEM_PROPERTY_PREFIX + SYSTEM_PROPERTY_MESSAGE_ID,
                     message.getMessageId());
         }
+        // Codes_SRS_HTTPSSINGLEMESSAGE_21_021: [If the message contains a content type or encoding, the parsed
+        // HttpsSingleMessage shall add the properties 'iothub-contenttype' and 'iothub-contentencoding' with their values.]
+        if (message.getContentType() != null)
+        {
+            httpsMsg.properties[countProperty++] = new MessageProperty(
+                    HTTPS_SYSTEM_PROPERTY_PREFIX + SYSTEM_PROPERTY_CONTENT_TYPE,
+                    message.getContentType());
+        }
+        if (message.getContentEncoding() != null)
+        {
+            httpsMsg.properties[countProperty++] = new MessageProperty(
+                    HTTPS_SYSTEM_PROPERTY_PREFIX + SYSTEM_PROPERTY_CONTENT_ENCODING,
+                    message.getContentEncoding());
+        }
 
         return httpsMsg;
     }
@@ -76,8 +107,9 @@ public final class HttpsSingleMessage implements HttpsMessage
     public static HttpsSingleMessage parseHttpsMessage(HttpsResponse response) {
         HttpsSingleMessage msg = new HttpsSingleMessage();
         // Codes_SRS_HTTPSSINGLEMESSAGE_11_004: [The parsed HttpsSingleMessage shall have a copy of the original response body as its body.]
-        byte[] responseBody = response.getBody();
-        msg.body = Arrays.copyOf(responseBody, responseBody.length);
+        // Codes_SRS_HTTPSSINGLEMESSAGE_21_017: [The parsed HttpsSingleMessage shall keep the copy returned by
+        // the response, without copying it again.]
+        msg.body = response.getBody();
 
         // Codes_SRS_HTTPSSINGLEMESSAGE_11_006: [The parsed HttpsSingleMessage shall include all valid HTTPS application-defined properties in the response header as message properties.]
         ArrayList<MessageProperty> properties = new ArrayList<>();
@@ -105,8 +137,9 @@ public final class HttpsSingleMessage implements HttpsMessage
      */
     public Message toMessage()
     {
-        // Codes_SRS_HTTPSSINGLEMESSAGE_11_007: [The function shall return an IoT Hub message with a copy of the message body as its body.]
-        Message msg = new Message(this.getBody());
+        // Codes_SRS_HTTPSSINGLEMESSAGE_21_018: [The function shall return an IoT Hub message that shares the
+        // message body, without copying it.]
+        Message msg = new Message(this.body);
         // Codes_SRS_HTTPSSINGLEMESSAGE_11_008: [The function shall return an IoT Hub message with application-defined properties that have the prefix 'iothub-app' removed.]
         for (MessageProperty property : this.properties)
         {
@@ -119,14 +152,15 @@ public final class HttpsSingleMessage implements HttpsMessage
     }
 
     /**
-     * Returns a copy of the message body.
+     * Returns the message body. The body is not copied, so it is written to
+     * the connection as is; callers shall not change it.
      *
-     * @return a copy of the message body.
+     * @return the message body.
      */
     public byte[] getBody()
     {
-        // Codes_SRS_HTTPSSINGLEMESSAGE_11_009: [The function shall return a copy of the message body.]
-        return Arrays.copyOf(this.body, this.body.length);
+        // Codes_SRS_HTTPSSINGLEMESSAGE_21_019: [The function shall return the message body, without copying it.]
+        return this.body;
     }
 
     /**
@@ -163,27 +197,16 @@ public final class HttpsSingleMessage implements HttpsMessage
     }
 
     /**
-     * Returns a copy of the message properties.
+     * Returns a copy of the array of message properties. The properties are
+     * immutable, so they are shared with the copy.
      *
      * @return a copy of the message properties.
      */
     public MessageProperty[] getProperties()
     {
-        // Codes_SRS_HTTPSSINGLEMESSAGE_11_013: [The function shall return a copy of the message properties.]
-        int propertiesSize = this.properties.length;
-        MessageProperty[] propertiesCopy =
-                new MessageProperty[propertiesSize];
-
-        for (int i = 0; i < propertiesSize; ++i)
-        {
-            MessageProperty property = this.properties[i];
-            MessageProperty propertyCopy =
-                    new MessageProperty(property.getName(),
-                            property.getValue());
-            propertiesCopy[i] = propertyCopy;
-        }
-
-        return propertiesCopy;
+        // Codes_SRS_HTTPSSINGLEMESSAGE_21_020: [The function shall return a copy of the array of message
+        // properties, sharing the immutable properties.]
+        return Arrays.copyOf(this.properties, this.properties.length);
     }
 
     /**
@@ -230,6 +253,32 @@ public final class HttpsSingleMessage implements HttpsMessage
         return canonicalizedProperty;
     }
 
+    /**
+     * Returns an application-defined property name with the prefix
+     * 'iothub-app-' added. The prefixed names are cached, so a property name
+     * is only prefixed once.
+     *
+     * @param appProperty the property name.
+     *
+     * @return the property name with the prefix 'iothub-app-' added.
+     */
+    protected static String appPropertyToHttpsAppProperty(String appProperty)
+    {
+        // Codes_SRS_HTTPSSINGLEMESSAGE_21_016: [The parsed HttpsSingleMessage shall reuse the prefixed name of
+        // the properties already parsed.]
+        String httpsAppProperty = httpsAppPropertyNames.get(appProperty);
+        if (httpsAppProperty == null)
+        {
+            httpsAppProperty = HTTPS_APP_PROPERTY_PREFIX + appProperty;
+            if (httpsAppPropertyNames.size() < MAX_CACHED_PROPERTY_NAMES)
+            {
+                httpsAppPropertyNames.putIfAbsent(appProperty, httpsAppProperty);
+            }
+        }
+
+        return httpsAppProperty;
+    }
+
     protected HttpsSingleMessage()
     {
     }
@@ -46,11 +46,24 @@ public final class HttpsTransport implements IotHubTransport
     protected final Queue<IotHubOutboundPacket> waitingList;
     /** Messages that are waiting for a response from an IoT Hub. */
     protected final Queue<IotHubOutboundPacket> inProgressList;
+    /**
+     * The request built from the messages in the in-progress list, kept so a
+     * failed request is resent without encoding the messages again.
+     */
+    protected HttpsMessage inProgressMessage;
     /** Messages whose callbacks that are waiting to be invoked. */
     protected final Queue<IotHubCallbackPacket> callbackList;
 
     protected final DeviceClientConfig config;
 
+    /** Decides on each receive period whether to poll the IoT Hub for messages. */
+    protected final HttpsPollingPolicy pollingPolicy;
+
+    /** The number of messages in each request sent. */
+    protected final HttpsBatchFillHistogram batchFillHistogram;
+    /** When the transport started waiting for more messages to fill a batch, or 0 if it is not waiting. */
+    protected long batchLingerStartMillis;
+
     /**
      * Constructs an instance from the given {@link DeviceClientConfig}
      * object.
@@ -66,6 +79,8 @@ public final class HttpsTransport implements IotHubTransport
         this.callbackList = new LinkedBlockingDeque<>();
 
         this.config = config;
+        this.pollingPolicy = new HttpsPollingPolicy(0);
+        this.batchFillHistogram = new HttpsBatchFillHistogram();
 
         this.state = HttpsTransportState.CLOSED;
     }
@@ -133,6 +148,11 @@ public final class HttpsTransport implements IotHubTransport
 
     /**
      * Sends all messages on the transport queue as a batched request.
+     * <p>
+     * If a linger time is set in the configuration, the transport waits up to
+     * that time for enough messages to fill a batch, up to the maximum batch
+     * size and number of messages, before sending them.
+     * </p>
      *
      * @throws IOException if the server could not be reached.
      * @throws IllegalStateException if the transport has not been opened or is
@@ -152,6 +172,12 @@ public final class HttpsTransport implements IotHubTransport
         // Codes_SRS_HTTPSTRANSPORT_11_012: [If a previous send request had failed while in progress, the function shall resend the request.]
         if (this.inProgressList.size() <= 0)
         {
+            // Codes_SRS_HTTPSTRANSPORT_21_042: [If a linger time is set and the waiting messages do not fill a batch,
+            // the function shall return without sending until the linger time has elapsed.]
+            if (this.isBatchLingering())
+            {
+                return;
+            }
             this.moveWaitingListToInProgressList();
         }
         if (this.inProgressList.size() <= 0)
@@ -179,8 +205,15 @@ public final class HttpsTransport implements IotHubTransport
         // Codes_SRS_HTTPSTRANSPORT_11_017: [If an invalid URI is generated from the configuration given in the constructor, the function shall throw a URISyntaxException.]
         IotHubStatusCode status = this.connection.sendEvent(msg);
 
+        // Codes_SRS_HTTPSTRANSPORT_21_044: [The function shall record the number of messages sent in the batch fill histogram.]
+        this.batchFillHistogram.record(this.inProgressList.size());
+
         // Codes_SRS_HTTPSTRANSPORT_11_006: [The function shall add a packet containing the callbacks, contexts, and response for all sent messages to the callback queue.]
         this.moveInProgressListToCallbackList(status);
+
+        // Codes_SRS_HTTPSTRANSPORT_21_040: [The function shall reset the polling back-off after sending the events,
+        // as the device is likely to receive a message soon.]
+        this.pollingPolicy.onEventSent(System.currentTimeMillis());
     }
 
     /**
@@ -245,13 +278,27 @@ public final class HttpsTransport implements IotHubTransport
             return;
         }
 
+        // Codes_SRS_HTTPSTRANSPORT_21_039: [The function shall only poll the IoT Hub when the polling policy allows it,
+        // backing off while idle up to the maximum polling interval in the configuration.]
+        this.pollingPolicy.setMaxIntervalMillis(this.config.getHttpsMaxPollingIntervalMillis());
+        long nowMillis = System.currentTimeMillis();
+        if (!this.pollingPolicy.shouldPoll(nowMillis))
+        {
+            return;
+        }
+
         // Codes_SRS_HTTPSTRANSPORT_11_009: [The function shall poll the IoT Hub for messages.]
         // Codes_SRS_HTTPSTRANSPORT_11_010: [If a message is found and a message callback is registered, the function shall invoke the callback on the message.] 
         // Codes_SRS_HTTPSTRANSPORT_11_018: [If an invalid URI is generated from the configuration given in the constructor, the function shall throw a URISyntaxException.]
         // Codes_SRS_HTTPSTRANSPORT_11_019: [If the IoT Hub could not be reached, the function shall throw an IOException.]
         Message message = this.connection.receiveMessage();
-        if (message != null)
+        if (message == null)
         {
+            this.pollingPolicy.onEmptyPoll(nowMillis);
+        }
+        else
+        {
+            this.pollingPolicy.onMessageReceived(nowMillis);
             IotHubMessageResult result = callback.execute(message, context);
 
             // Codes_SRS_HTTPSTRANSPORT_11_011: [The function shall return the message result (one of COMPLETE, ABANDON, or REJECT) to the IoT Hub.]
@@ -273,23 +320,125 @@ public final class HttpsTransport implements IotHubTransport
         return this.waitingList.isEmpty() && this.inProgressList.isEmpty() && this.callbackList.isEmpty();
     }
 
+    /**
+     * Getter for the policy deciding when to poll the IoT Hub for messages,
+     * which also counts the polls done and avoided.
+     *
+     * @return the polling policy of the transport.
+     */
+    public HttpsPollingPolicy getPollingPolicy()
+    {
+        // Codes_SRS_HTTPSTRANSPORT_21_041: [The function shall return the polling policy of the transport.]
+        return this.pollingPolicy;
+    }
+
+    /**
+     * Getter for the histogram of the number of messages in each request sent,
+     * which tells how well the batches are filled.
+     *
+     * @return the batch fill histogram of the transport.
+     */
+    public HttpsBatchFillHistogram getBatchFillHistogram()
+    {
+        // Codes_SRS_HTTPSTRANSPORT_21_045: [The function shall return the batch fill histogram of the transport.]
+        return this.batchFillHistogram;
+    }
+
+    /**
+     * Returns {@code false}, since the HTTPS transport does not apply back-pressure
+     * on the messages waiting to be sent.
+     *
+     * @return {@code false}.
+     */
+    public boolean isBackPressured()
+    {
+        // Codes_SRS_HTTPSTRANSPORT_21_036: [The function shall return false.]
+        return false;
+    }
+
+    /**
+     * Checks whether the transport should keep waiting for more messages
+     * before sending a batch. The transport waits while the messages on the
+     * waiting list do not fill a batch and the linger time since it started
+     * waiting has not elapsed.
+     *
+     * @return {@code true} if the transport shall wait for more messages, and {@code false} otherwise.
+     */
+    private boolean isBatchLingering()
+    {
+        long lingerMillis = this.config.getHttpsBatchLingerMillis();
+        if ((lingerMillis <= 0) || this.waitingList.isEmpty())
+        {
+            this.batchLingerStartMillis = 0;
+            return false;
+        }
+
+        long now = System.currentTimeMillis();
+        if (this.batchLingerStartMillis == 0)
+        {
+            this.batchLingerStartMillis = now;
+        }
+        if (now - this.batchLingerStartMillis >= lingerMillis)
+        {
+            this.batchLingerStartMillis = 0;
+            return false;
+        }
+
+        int maxMessages = this.config.getHttpsBatchMaxMessages();
+        int maxBytes = this.config.getHttpsBatchMaxBytes();
+        if ((maxBytes <= 0) || (maxBytes > HttpsBatchMessage.SERVICEBOUND_MESSAGE_MAX_SIZE_BYTES))
+        {
+            maxBytes = HttpsBatchMessage.SERVICEBOUND_MESSAGE_MAX_SIZE_BYTES;
+        }
+
+        // The message bodies are only a lower bound of the batch size, as
+        // they are encoded in base64 with their properties, but they tell
+        // without encoding the messages whether a batch is full.
+        int pendingMessages = 0;
+        long pendingBytes = 0;
+        for (IotHubOutboundPacket packet : this.waitingList)
+        {
+            pendingMessages++;
+            Message message = packet.getMessage();
+            pendingBytes += (message == null) ? 0 : message.getBodyLength();
+            if (((maxMessages > 0) && (pendingMessages >= maxMessages)) || (pendingBytes >= maxBytes))
+            {
+                this.batchLingerStartMillis = 0;
+                return false;
+            }
+        }
+
+        return true;
+    }
+
     /**
      * Moves as many messages as can be sent in one HTTPS request from the
-     * waiting list to the in-progress list. If a single message is moved to the
-     * in-progress list, this indicates that the message is to be sent in the
-     * un-batched message format.
+     * waiting list to the in-progress list, up to the maximum batch size and
+     * number of messages in the configuration. If a single message is moved
+     * to the in-progress list, this indicates that the message is to be sent
+     * in the un-batched message format.
      */
     protected void moveWaitingListToInProgressList()
     {
-        HttpsBatchMessage batch = new HttpsBatchMessage();
-        while (!this.waitingList.isEmpty())
+        // Codes_SRS_HTTPSTRANSPORT_21_037: [The function shall encode each message once, building the request
+        // while the messages are moved to the in-progress list.]
+        // Codes_SRS_HTTPSTRANSPORT_21_043: [The function shall batch at most the maximum batch size and number of
+        // messages in the configuration.]
+        HttpsBatchMessage batch = new HttpsBatchMessage(this.config.getHttpsBatchMaxBytes());
+        int maxMessages = this.config.getHttpsBatchMaxMessages();
+        HttpsSingleMessage firstMsg = null;
+        while (!this.waitingList.isEmpty() && ((maxMessages <= 0) || (this.inProgressList.size() < maxMessages)))
         {
             IotHubOutboundPacket packet = this.waitingList.peek();
+            HttpsSingleMessage httpsMsg =
+                    HttpsSingleMessage.parseHttpsMessage(
+                            packet.getMessage());
+            if (firstMsg == null)
+            {
+                firstMsg = httpsMsg;
+            }
             try
             {
-                HttpsSingleMessage httpsMsg =
-                        HttpsSingleMessage.parseHttpsMessage(
-                                packet.getMessage());
                 batch.addMessage(httpsMsg);
             }
             catch (SizeLimitExceededException e)
@@ -306,6 +455,15 @@ public final class HttpsTransport implements IotHubTransport
             IotHubOutboundPacket packet = this.waitingList.remove();
             this.inProgressList.add(packet);
         }
+
+        if (this.inProgressList.size() == 1)
+        {
+            this.inProgressMessage = firstMsg;
+        }
+        else if (this.inProgressList.size() > 1)
+        {
+            this.inProgressMessage = batch;
+        }
     }
 
     /**
@@ -328,6 +486,12 @@ public final class HttpsTransport implements IotHubTransport
             throw new NoSuchElementException(
                     "Cannot convert an empty in progress list to a message.");
         }
+        // Codes_SRS_HTTPSTRANSPORT_21_038: [If the request for the in-progress list was already built, the
+        // function shall return it without encoding the messages again.]
+        if (this.inProgressMessage != null)
+        {
+            return this.inProgressMessage;
+        }
         if (inProgressListSize == 1)
         {
             msg = HttpsSingleMessage.parseHttpsMessage(
@@ -347,6 +511,7 @@ public final class HttpsTransport implements IotHubTransport
             msg = batch;
         }
 
+        this.inProgressMessage = msg;
         return msg;
     }
 
@@ -358,6 +523,7 @@ public final class HttpsTransport implements IotHubTransport
      */
     protected void moveInProgressListToCallbackList(IotHubStatusCode status)
     {
+        this.inProgressMessage = null;
         while (!this.inProgressList.isEmpty())
         {
             IotHubOutboundPacket packet = this.inProgressList.remove();
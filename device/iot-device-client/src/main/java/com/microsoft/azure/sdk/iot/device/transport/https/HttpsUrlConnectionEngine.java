@@ -0,0 +1,47 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport.https;
+
+import java.io.IOException;
+import java.net.URL;
+
+/**
+ * The default {@link HttpsEngine}, running each request on a
+ * {@link javax.net.ssl.HttpsURLConnection}. The Java SE keep-alive cache
+ * reuses the connections, one request at a time.
+ */
+public final class HttpsUrlConnectionEngine implements HttpsEngine
+{
+    /**
+     * Opens an {@link HttpsConnection} to the given URL.
+     *
+     * @param url the URL for the request.
+     * @param method the HTTPS method (i.e. GET).
+     *
+     * @return the connection for the request.
+     *
+     * @throws IOException if the connection could not be opened.
+     * @throws IllegalArgumentException if the URL does not use the HTTPS protocol.
+     */
+    @Override
+    public HttpsEngineConnection openConnection(URL url, HttpsMethod method) throws IOException
+    {
+        // Codes_SRS_HTTPSURLCONNECTIONENGINE_21_001: [The function shall return a new HttpsConnection to the
+        // given URL, using the given method.]
+        return new HttpsConnection(url, method);
+    }
+
+    /**
+     * Returns {@code false}, as an {@link javax.net.ssl.HttpsURLConnection}
+     * runs one request at a time.
+     *
+     * @return {@code false}.
+     */
+    @Override
+    public boolean isMultiplexed()
+    {
+        // Codes_SRS_HTTPSURLCONNECTIONENGINE_21_002: [The function shall return false.]
+        return false;
+    }
+}
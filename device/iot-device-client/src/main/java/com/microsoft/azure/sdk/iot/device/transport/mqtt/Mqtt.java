@@ -8,6 +8,7 @@ import com.microsoft.azure.sdk.iot.device.transport.TransportUtils;
 import org.eclipse.paho.client.mqttv3.*;
 import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
 
+import javax.net.ssl.SSLSocketFactory;
 import java.io.IOException;
 import java.security.InvalidParameterException;
 import java.util.concurrent.ConcurrentSkipListMap;
@@ -182,6 +183,31 @@ abstract public class Mqtt implements MqttCallback
 
     }
 
+    /**
+     * Method to set the socket factory of the TLS connection to the mqtt broker.
+     * Connections opened with the same factory resume the TLS sessions of each
+     * other instead of doing full handshakes.
+     *
+     * @param socketFactory the TLS socket factory.
+     * @throws IOException if the mqtt broker connection was not instantiated.
+     */
+
+    public void setSocketFactory(SSLSocketFactory socketFactory) throws IOException
+    {
+        /*
+        **Codes_SRS_Mqtt_21_001: [**If the inner class MqttConnectionInfo has not been instantiated then the function shall throw IOException.**]**
+         */
+        if (Mqtt.info == null)
+        {
+            throw new IOException("Mqtt client should be initialised atleast once before using it");
+        }
+
+        /*
+        **Codes_SRS_Mqtt_21_002: [**The function shall set the socket factory on the connection options used to connect.**]**
+         */
+        Mqtt.info.connectionOptions.setSocketFactory(socketFactory);
+    }
+
     /**
      * Method to connect to mqtt broker connection.
      *
@@ -10,6 +10,7 @@ import com.microsoft.azure.sdk.iot.device.IotHubStatusCode;
 import com.microsoft.azure.sdk.iot.device.Message;
 import com.microsoft.azure.sdk.iot.device.MessageType;
 import com.microsoft.azure.sdk.iot.device.auth.IotHubSasToken;
+import com.microsoft.azure.sdk.iot.device.auth.IotHubSasTokenCache;
 import com.microsoft.azure.sdk.iot.device.transport.State;
 import com.microsoft.azure.sdk.iot.device.transport.TransportUtils;
 
@@ -25,6 +26,9 @@ public class MqttIotHubConnection
     protected final DeviceClientConfig config;
     protected State state = State.CLOSED;
 
+    /** The SAS token of the device, reused by the reconnects until it is due for renewal. */
+    private IotHubSasTokenCache sasTokenCache;
+
     private String iotHubUserName;
     private String iotHubUserPassword;
 
@@ -75,6 +79,9 @@ public class MqttIotHubConnection
 
             // Codes_SRS_MQTTIOTHUBCONNECTION_15_001: [The constructor shall save the configuration.]
             this.config = config;
+            // Codes_SRS_MQTTIOTHUBCONNECTION_21_001: [The constructor shall create a SAS token cache for the
+            // configuration, which the connection takes its password from.]
+            this.sasTokenCache = new IotHubSasTokenCache(config);
             this.deviceMessaging = null;
             this.deviceMethod = null;
             this.deviceTwin = null;
@@ -102,8 +109,9 @@ public class MqttIotHubConnection
             // Codes_SRS_MQTTIOTHUBCONNECTION_15_004: [The function shall establish an MQTT connection
             // with an IoT Hub using the provided host name, user name, device ID, and sas token.]
             try {
-                IotHubSasToken sasToken = new IotHubSasToken(this.config, System.currentTimeMillis() / 1000l +
-                        this.config.getTokenValidSecs() + 1l);
+                // Codes_SRS_MQTTIOTHUBCONNECTION_21_002: [The function shall use the cached SAS token as the
+                // password, renewing it if it is due for renewal.]
+                IotHubSasToken sasToken = this.sasTokenCache.getToken();
                 this.iotHubUserPassword = sasToken.toString();
 
                 String clientIdentifier = "DeviceClientType=" + URLEncoder.encode(TransportUtils.javaDeviceClientIdentifier + TransportUtils.clientVersion, "UTF-8");
@@ -112,6 +120,9 @@ public class MqttIotHubConnection
 
                 this.deviceMessaging = new MqttMessaging(sslPrefix + this.config.getIotHubHostname() + sslPortSuffix,
                         this.config.getDeviceId(), this.iotHubUserName, this.iotHubUserPassword);
+                // Codes_SRS_MQTTIOTHUBCONNECTION_21_003: [The function shall connect with the socket factory of the
+                // configuration, shared by the clients using the same TLS context.]
+                this.deviceMessaging.setSocketFactory(this.config.getSslSocketFactory());
                 this.deviceMethod = new MqttDeviceMethod();
                 this.deviceTwin = new MqttDeviceTwin();
 
@@ -194,8 +205,8 @@ public class MqttIotHubConnection
         {
             // Codes_SRS_MQTTIOTHUBCONNECTION_15_010: [If the message is null or empty,
             // the function shall return status code BAD_FORMAT.]
-            if (message == null || message.getBytes() == null ||
-                    ((message.getMessageType() != MessageType.DeviceTwin && message.getMessageType() != MessageType.DeviceMethods) && message.getBytes().length == 0))
+            if (message == null || message.getBodyBuffer() == null ||
+                    ((message.getMessageType() != MessageType.DeviceTwin && message.getMessageType() != MessageType.DeviceMethods) && message.getBodyLength() == 0))
             {
                 return IotHubStatusCode.BAD_FORMAT;
             }
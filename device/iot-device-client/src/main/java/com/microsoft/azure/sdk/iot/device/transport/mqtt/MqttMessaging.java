@@ -7,6 +7,9 @@ import com.microsoft.azure.sdk.iot.device.Message;
 import com.microsoft.azure.sdk.iot.device.MessageProperty;
 
 import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
 import java.util.Map;
 import java.util.concurrent.Semaphore;
 
@@ -19,6 +22,8 @@ public class MqttMessaging extends Mqtt
     private static final char PROPERTY_SEPARATOR = '&';
     private static final char PAIR_SEPARATOR = '=';
     private static final String DEVICE_ID_TAG = "$.mid";
+    private static final String CONTENT_TYPE_TAG = "$.ct";
+    private static final String CONTENT_ENCODING_TAG = "$.ce";
 
     @Override
     String parseTopic() throws IOException
@@ -164,7 +169,7 @@ public class MqttMessaging extends Mqtt
 
     public void send(Message message) throws IOException
     {
-        if (message == null || message.getBytes() == null)
+        if (message == null || message.getBodyBuffer() == null)
         {
             /*
             **Codes_SRS_MqttMessaging_25_025: [**send method shall throw an exception if the message is null.**]**
@@ -172,14 +177,16 @@ public class MqttMessaging extends Mqtt
             throw new IOException("Message cannot be null");
         }
 
-        MessageProperty[] messageProperties = message.getProperties();
+        Collection<MessageProperty> messageProperties = message.getPropertiesView();
+        String contentType = message.getContentType();
+        String contentEncoding = message.getContentEncoding();
         String messagePublishTopic;
-        if(messageProperties.length > 0)
+        if(!messageProperties.isEmpty() || (contentType != null) || (contentEncoding != null))
         {
             StringBuilder stringBuilder = new StringBuilder();
             stringBuilder.append(this.publishTopic);
             boolean needAmpersand = false;
-            for(MessageProperty property : message.getProperties())
+            for(MessageProperty property : messageProperties)
             {
                 if(needAmpersand)
                 {
@@ -196,13 +203,24 @@ public class MqttMessaging extends Mqtt
             /*
              **Tests_SRS_MqttMessaging_21_027: [**send method shall append the messageid to publishTopic before publishing using the key name `$.mid`.**]**
              */
-            if(message.getMessageId() != null)
+            if(needAmpersand && message.getMessageId() != null)
             {
                 stringBuilder.append(PROPERTY_SEPARATOR);
                 stringBuilder.append(DEVICE_ID_TAG);
                 stringBuilder.append(PAIR_SEPARATOR);
                 stringBuilder.append(message.getMessageId());
             }
+            /*
+             **Codes_SRS_MqttMessaging_21_028: [**send method shall append the content type and encoding of the message, if set, to publishTopic before publishing using the key names `$.ct` and `$.ce`, with URL encoded values.**]**
+             */
+            if(contentType != null)
+            {
+                needAmpersand = appendSystemProperty(stringBuilder, needAmpersand, CONTENT_TYPE_TAG, contentType);
+            }
+            if(contentEncoding != null)
+            {
+                appendSystemProperty(stringBuilder, needAmpersand, CONTENT_ENCODING_TAG, contentEncoding);
+            }
             messagePublishTopic = stringBuilder.toString();
         }
         else
@@ -212,8 +230,20 @@ public class MqttMessaging extends Mqtt
         /*
         **Codes_SRS_MqttMessaging_25_024: [**send method shall publish a message to the IOT Hub on the publish topic by calling method publish().**]**
          */
-        this.publish(messagePublishTopic, message.getBytes());
+        this.publish(messagePublishTopic, message.getBodyArray());
 
     }
 
+    private static boolean appendSystemProperty(StringBuilder stringBuilder, boolean needAmpersand, String key, String value)
+            throws IOException
+    {
+        if(needAmpersand)
+        {
+            stringBuilder.append(PROPERTY_SEPARATOR);
+        }
+        stringBuilder.append(key);
+        stringBuilder.append(PAIR_SEPARATOR);
+        stringBuilder.append(URLEncoder.encode(value, StandardCharsets.UTF_8.name()));
+        return true;
+    }
 }
@@ -316,4 +316,16 @@ public final class MqttTransport implements IotHubTransport
 
         return false;
     }
-}
\ No newline at end of file
+
+    /**
+     * Returns {@code false}, since the MQTT transport does not apply back-pressure
+     * on the messages waiting to be sent.
+     *
+     * @return {@code false}.
+     */
+    public boolean isBackPressured()
+    {
+        // Codes_SRS_MQTTTRANSPORT_21_020: [The function shall return false.]
+        return false;
+    }
+}
@@ -4,14 +4,20 @@
 package tests.unit.com.microsoft.azure.sdk.iot.device;
 
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.junit.Assert.*;
 
 import com.microsoft.azure.sdk.iot.device.DeviceClientConfig;
 import com.microsoft.azure.sdk.iot.device.MessageCallback;
+import com.microsoft.azure.sdk.iot.device.transport.https.HttpsContentEncoding;
 import mockit.Mocked;
 import org.junit.Test;
 
+import javax.net.ssl.SSLContext;
 import java.io.File;
+import java.io.IOException;
 import java.net.URISyntaxException;
 
 /** Unit tests for IoTHubClientConfig. */
@@ -164,6 +170,449 @@ public class DeviceClientConfigTest
         assertThat(testgetMessageValidSecs, is(expectedMessageValidSecs));
     }
 
+    // Tests_SRS_DEVICECLIENTCONFIG_21_001: [The function shall return the value of amqpBatchMaxBytes, which is 0 by default.]
+    // Tests_SRS_DEVICECLIENTCONFIG_21_004: [The function shall return the value of amqpBatchLingerMillis, which is 0 by default.]
+    @Test
+    public void amqpBatchingIsDisabledByDefault() throws URISyntaxException
+    {
+        final String iotHubHostname = "test.iothubhostname";
+        final String deviceId = "test-deviceid";
+        final String deviceKey = "test-devicekey";
+        final String sharedAccessToken = null;
+
+        DeviceClientConfig config = new DeviceClientConfig(iotHubHostname, deviceId, deviceKey, sharedAccessToken);
+
+        assertThat(config.getAmqpBatchMaxBytes(), is(0));
+        assertThat(config.getAmqpBatchLingerMillis(), is(0L));
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_21_003: [The function shall set the value of amqpBatchMaxBytes.]
+    // Tests_SRS_DEVICECLIENTCONFIG_21_006: [The function shall set the value of amqpBatchLingerMillis.]
+    @Test
+    public void getAndSetAmqpBatchingMatch() throws URISyntaxException
+    {
+        final String iotHubHostname = "test.iothubhostname";
+        final String deviceId = "test-deviceid";
+        final String deviceKey = "test-devicekey";
+        final String sharedAccessToken = null;
+
+        DeviceClientConfig config = new DeviceClientConfig(iotHubHostname, deviceId, deviceKey, sharedAccessToken);
+        config.setAmqpBatchMaxBytes(64 * 1024);
+        config.setAmqpBatchLingerMillis(50);
+
+        assertThat(config.getAmqpBatchMaxBytes(), is(64 * 1024));
+        assertThat(config.getAmqpBatchLingerMillis(), is(50L));
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_21_002: [If the size is negative or greater than MAX_AMQP_BATCH_BYTES, the function shall throw an IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setAmqpBatchMaxBytesThrowsIfGreaterThanIotHubLimit() throws URISyntaxException
+    {
+        final String iotHubHostname = "test.iothubhostname";
+        final String deviceId = "test-deviceid";
+        final String deviceKey = "test-devicekey";
+        final String sharedAccessToken = null;
+
+        DeviceClientConfig config = new DeviceClientConfig(iotHubHostname, deviceId, deviceKey, sharedAccessToken);
+        config.setAmqpBatchMaxBytes(DeviceClientConfig.MAX_AMQP_BATCH_BYTES + 1);
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_21_005: [If the time is negative, the function shall throw an IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setAmqpBatchLingerMillisThrowsIfNegative() throws URISyntaxException
+    {
+        final String iotHubHostname = "test.iothubhostname";
+        final String deviceId = "test-deviceid";
+        final String deviceKey = "test-devicekey";
+        final String sharedAccessToken = null;
+
+        DeviceClientConfig config = new DeviceClientConfig(iotHubHostname, deviceId, deviceKey, sharedAccessToken);
+        config.setAmqpBatchLingerMillis(-1);
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_21_007: [The function shall return the value of amqpReceivePrefetch, which is DEFAULT_AMQP_RECEIVE_PREFETCH by default.]
+    // Tests_SRS_DEVICECLIENTCONFIG_21_010: [The function shall return the value of amqpBatchedSettlement, which is false by default.]
+    @Test
+    public void amqpReceiveSettingsHaveProtonDefaults() throws URISyntaxException
+    {
+        final String iotHubHostname = "test.iothubhostname";
+        final String deviceId = "test-deviceid";
+        final String deviceKey = "test-devicekey";
+        final String sharedAccessToken = null;
+
+        DeviceClientConfig config = new DeviceClientConfig(iotHubHostname, deviceId, deviceKey, sharedAccessToken);
+
+        assertThat(config.getAmqpReceivePrefetch(), is(DeviceClientConfig.DEFAULT_AMQP_RECEIVE_PREFETCH));
+        assertThat(config.isAmqpBatchedSettlement(), is(false));
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_21_009: [The function shall set the value of amqpReceivePrefetch.]
+    // Tests_SRS_DEVICECLIENTCONFIG_21_011: [The function shall set the value of amqpBatchedSettlement.]
+    @Test
+    public void getAndSetAmqpReceiveSettingsMatch() throws URISyntaxException
+    {
+        final String iotHubHostname = "test.iothubhostname";
+        final String deviceId = "test-deviceid";
+        final String deviceKey = "test-devicekey";
+        final String sharedAccessToken = null;
+
+        DeviceClientConfig config = new DeviceClientConfig(iotHubHostname, deviceId, deviceKey, sharedAccessToken);
+        config.setAmqpReceivePrefetch(50);
+        config.setAmqpBatchedSettlement(true);
+
+        assertThat(config.getAmqpReceivePrefetch(), is(50));
+        assertThat(config.isAmqpBatchedSettlement(), is(true));
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_21_012: [The function shall return the value of amqpFastRecovery, which is false by default.]
+    // Tests_SRS_DEVICECLIENTCONFIG_21_013: [The function shall set the value of amqpFastRecovery.]
+    @Test
+    public void getAndSetAmqpFastRecoveryMatch() throws URISyntaxException
+    {
+        final String iotHubHostname = "test.iothubhostname";
+        final String deviceId = "test-deviceid";
+        final String deviceKey = "test-devicekey";
+        final String sharedAccessToken = null;
+
+        DeviceClientConfig config = new DeviceClientConfig(iotHubHostname, deviceId, deviceKey, sharedAccessToken);
+        boolean defaultFastRecovery = config.isAmqpFastRecovery();
+        config.setAmqpFastRecovery(true);
+
+        assertThat(defaultFastRecovery, is(false));
+        assertThat(config.isAmqpFastRecovery(), is(true));
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_21_014: [The function shall return the value of amqpCbsAuthentication, which is false by default.]
+    // Tests_SRS_DEVICECLIENTCONFIG_21_015: [The function shall set the value of amqpCbsAuthentication.]
+    @Test
+    public void getAndSetAmqpCbsAuthenticationMatch() throws URISyntaxException
+    {
+        final String iotHubHostname = "test.iothubhostname";
+        final String deviceId = "test-deviceid";
+        final String deviceKey = "test-devicekey";
+        final String sharedAccessToken = null;
+
+        DeviceClientConfig config = new DeviceClientConfig(iotHubHostname, deviceId, deviceKey, sharedAccessToken);
+        boolean defaultCbsAuthentication = config.isAmqpCbsAuthentication();
+        config.setAmqpCbsAuthentication(true);
+
+        assertThat(defaultCbsAuthentication, is(false));
+        assertThat(config.isAmqpCbsAuthentication(), is(true));
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_21_016: [The function shall return the value of amqpSharedEventLoop, which is false by default.]
+    // Tests_SRS_DEVICECLIENTCONFIG_21_017: [The function shall set the value of amqpSharedEventLoop.]
+    @Test
+    public void getAndSetAmqpSharedEventLoopMatch() throws URISyntaxException
+    {
+        final String iotHubHostname = "test.iothubhostname";
+        final String deviceId = "test-deviceid";
+        final String deviceKey = "test-devicekey";
+        final String sharedAccessToken = null;
+
+        DeviceClientConfig config = new DeviceClientConfig(iotHubHostname, deviceId, deviceKey, sharedAccessToken);
+        boolean defaultSharedEventLoop = config.isAmqpSharedEventLoop();
+        config.setAmqpSharedEventLoop(true);
+
+        assertThat(defaultSharedEventLoop, is(false));
+        assertThat(config.isAmqpSharedEventLoop(), is(true));
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_21_041: [The function shall return the value of twinReplicaPath, which is null by default.]
+    // Tests_SRS_DEVICECLIENTCONFIG_21_042: [The function shall set the value of twinReplicaPath.]
+    @Test
+    public void getAndSetTwinReplicaPathMatch() throws URISyntaxException
+    {
+        final String iotHubHostname = "test.iothubhostname";
+        final String deviceId = "test-deviceid";
+        final String deviceKey = "test-devicekey";
+        final String sharedAccessToken = null;
+
+        DeviceClientConfig config = new DeviceClientConfig(iotHubHostname, deviceId, deviceKey, sharedAccessToken);
+        String defaultPath = config.getTwinReplicaPath();
+        config.setTwinReplicaPath("twin-replica.json");
+
+        assertThat(defaultPath, is(nullValue()));
+        assertThat(config.getTwinReplicaPath(), is("twin-replica.json"));
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_21_019: [The function shall return the value of httpsMaxPollingIntervalMillis, which is 0 by default.]
+    // Tests_SRS_DEVICECLIENTCONFIG_21_021: [The function shall set the value of httpsMaxPollingIntervalMillis.]
+    @Test
+    public void getAndSetHttpsMaxPollingIntervalMillisMatch() throws URISyntaxException
+    {
+        final String iotHubHostname = "test.iothubhostname";
+        final String deviceId = "test-deviceid";
+        final String deviceKey = "test-devicekey";
+        final String sharedAccessToken = null;
+
+        DeviceClientConfig config = new DeviceClientConfig(iotHubHostname, deviceId, deviceKey, sharedAccessToken);
+        long defaultInterval = config.getHttpsMaxPollingIntervalMillis();
+        config.setHttpsMaxPollingIntervalMillis(600000L);
+
+        assertThat(defaultInterval, is(0L));
+        assertThat(config.getHttpsMaxPollingIntervalMillis(), is(600000L));
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_21_020: [If the interval is negative, the function shall throw an IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setHttpsMaxPollingIntervalMillisThrowsIfNegative() throws URISyntaxException
+    {
+        final String iotHubHostname = "test.iothubhostname";
+        final String deviceId = "test-deviceid";
+        final String deviceKey = "test-devicekey";
+        final String sharedAccessToken = null;
+
+        DeviceClientConfig config = new DeviceClientConfig(iotHubHostname, deviceId, deviceKey, sharedAccessToken);
+        config.setHttpsMaxPollingIntervalMillis(-1L);
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_21_022: [The function shall return the value of httpsBatchMaxBytes, which is 0 by default.]
+    // Tests_SRS_DEVICECLIENTCONFIG_21_024: [The function shall set the value of httpsBatchMaxBytes.]
+    @Test
+    public void getAndSetHttpsBatchMaxBytesMatch() throws URISyntaxException
+    {
+        final String iotHubHostname = "test.iothubhostname";
+        final String deviceId = "test-deviceid";
+        final String deviceKey = "test-devicekey";
+        final String sharedAccessToken = null;
+
+        DeviceClientConfig config = new DeviceClientConfig(iotHubHostname, deviceId, deviceKey, sharedAccessToken);
+        int defaultValue = config.getHttpsBatchMaxBytes();
+        config.setHttpsBatchMaxBytes(1000);
+
+        assertThat(defaultValue, is(0));
+        assertThat(config.getHttpsBatchMaxBytes(), is(1000));
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_21_023: [If the size is negative, the function shall throw an IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setHttpsBatchMaxBytesThrowsIfNegative() throws URISyntaxException
+    {
+        final String iotHubHostname = "test.iothubhostname";
+        final String deviceId = "test-deviceid";
+        final String deviceKey = "test-devicekey";
+        final String sharedAccessToken = null;
+
+        DeviceClientConfig config = new DeviceClientConfig(iotHubHostname, deviceId, deviceKey, sharedAccessToken);
+        config.setHttpsBatchMaxBytes(-1);
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_21_025: [The function shall return the value of httpsBatchMaxMessages, which is 0 by default.]
+    // Tests_SRS_DEVICECLIENTCONFIG_21_027: [The function shall set the value of httpsBatchMaxMessages.]
+    @Test
+    public void getAndSetHttpsBatchMaxMessagesMatch() throws URISyntaxException
+    {
+        final String iotHubHostname = "test.iothubhostname";
+        final String deviceId = "test-deviceid";
+        final String deviceKey = "test-devicekey";
+        final String sharedAccessToken = null;
+
+        DeviceClientConfig config = new DeviceClientConfig(iotHubHostname, deviceId, deviceKey, sharedAccessToken);
+        int defaultValue = config.getHttpsBatchMaxMessages();
+        config.setHttpsBatchMaxMessages(50);
+
+        assertThat(defaultValue, is(0));
+        assertThat(config.getHttpsBatchMaxMessages(), is(50));
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_21_026: [If the number of messages is negative, the function shall throw an IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setHttpsBatchMaxMessagesThrowsIfNegative() throws URISyntaxException
+    {
+        final String iotHubHostname = "test.iothubhostname";
+        final String deviceId = "test-deviceid";
+        final String deviceKey = "test-devicekey";
+        final String sharedAccessToken = null;
+
+        DeviceClientConfig config = new DeviceClientConfig(iotHubHostname, deviceId, deviceKey, sharedAccessToken);
+        config.setHttpsBatchMaxMessages(-1);
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_21_028: [The function shall return the value of httpsBatchLingerMillis, which is 0 by default.]
+    // Tests_SRS_DEVICECLIENTCONFIG_21_030: [The function shall set the value of httpsBatchLingerMillis.]
+    @Test
+    public void getAndSetHttpsBatchLingerMillisMatch() throws URISyntaxException
+    {
+        final String iotHubHostname = "test.iothubhostname";
+        final String deviceId = "test-deviceid";
+        final String deviceKey = "test-devicekey";
+        final String sharedAccessToken = null;
+
+        DeviceClientConfig config = new DeviceClientConfig(iotHubHostname, deviceId, deviceKey, sharedAccessToken);
+        long defaultValue = config.getHttpsBatchLingerMillis();
+        config.setHttpsBatchLingerMillis(20L);
+
+        assertThat(defaultValue, is(0L));
+        assertThat(config.getHttpsBatchLingerMillis(), is(20L));
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_21_029: [If the linger time is negative, the function shall throw an IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setHttpsBatchLingerMillisThrowsIfNegative() throws URISyntaxException
+    {
+        final String iotHubHostname = "test.iothubhostname";
+        final String deviceId = "test-deviceid";
+        final String deviceKey = "test-devicekey";
+        final String sharedAccessToken = null;
+
+        DeviceClientConfig config = new DeviceClientConfig(iotHubHostname, deviceId, deviceKey, sharedAccessToken);
+        config.setHttpsBatchLingerMillis(-1);
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_21_031: [The function shall return the value of httpsContentEncoding, which is IDENTITY by default.]
+    // Tests_SRS_DEVICECLIENTCONFIG_21_033: [The function shall set the value of httpsContentEncoding.]
+    @Test
+    public void getAndSetHttpsContentEncodingMatch() throws URISyntaxException
+    {
+        final String iotHubHostname = "test.iothubhostname";
+        final String deviceId = "test-deviceid";
+        final String deviceKey = "test-devicekey";
+        final String sharedAccessToken = null;
+
+        DeviceClientConfig config = new DeviceClientConfig(iotHubHostname, deviceId, deviceKey, sharedAccessToken);
+        HttpsContentEncoding defaultValue = config.getHttpsContentEncoding();
+        config.setHttpsContentEncoding(HttpsContentEncoding.GZIP);
+
+        assertThat(defaultValue, is(HttpsContentEncoding.IDENTITY));
+        assertThat(config.getHttpsContentEncoding(), is(HttpsContentEncoding.GZIP));
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_21_032: [If the content encoding is null, the function shall throw an IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setHttpsContentEncodingThrowsIfNull() throws URISyntaxException
+    {
+        final String iotHubHostname = "test.iothubhostname";
+        final String deviceId = "test-deviceid";
+        final String deviceKey = "test-devicekey";
+        final String sharedAccessToken = null;
+
+        DeviceClientConfig config = new DeviceClientConfig(iotHubHostname, deviceId, deviceKey, sharedAccessToken);
+        config.setHttpsContentEncoding(null);
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_21_034: [The function shall return the value of sasTokenRenewalFraction, which is 0.75 by default.]
+    // Tests_SRS_DEVICECLIENTCONFIG_21_036: [The function shall set the value of sasTokenRenewalFraction.]
+    @Test
+    public void getAndSetSasTokenRenewalFractionMatch() throws URISyntaxException
+    {
+        final String iotHubHostname = "test.iothubhostname";
+        final String deviceId = "test-deviceid";
+        final String deviceKey = "test-devicekey";
+        final String sharedAccessToken = null;
+
+        DeviceClientConfig config = new DeviceClientConfig(iotHubHostname, deviceId, deviceKey, sharedAccessToken);
+        double defaultValue = config.getSasTokenRenewalFraction();
+        config.setSasTokenRenewalFraction(0.5);
+
+        assertThat(defaultValue, is(0.75));
+        assertThat(config.getSasTokenRenewalFraction(), is(0.5));
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_21_035: [If the fraction is less than 0 or not less than 1, the function shall throw an IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setSasTokenRenewalFractionThrowsIfOne() throws URISyntaxException
+    {
+        final String iotHubHostname = "test.iothubhostname";
+        final String deviceId = "test-deviceid";
+        final String deviceKey = "test-devicekey";
+        final String sharedAccessToken = null;
+
+        DeviceClientConfig config = new DeviceClientConfig(iotHubHostname, deviceId, deviceKey, sharedAccessToken);
+        config.setSasTokenRenewalFraction(1);
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_21_043: [Otherwise, the function shall return the default context of the
+    // Java runtime from the SslContextCache.]
+    // Tests_SRS_DEVICECLIENTCONFIG_21_040: [The function shall return the socket factory cached in the
+    // SslContextCache for the TLS context.]
+    @Test
+    public void getSslContextSharesTheDefaultContextAcrossClients() throws Exception
+    {
+        final String iotHubHostname = "test.iothubhostname";
+        final String deviceKey = "test-devicekey";
+        final String sharedAccessToken = null;
+
+        DeviceClientConfig config = new DeviceClientConfig(iotHubHostname, "test-deviceid", deviceKey, sharedAccessToken);
+        DeviceClientConfig otherConfig = new DeviceClientConfig(iotHubHostname, "other-deviceid", deviceKey, sharedAccessToken);
+
+        assertThat(config.getSslContext(), is(sameInstance(SSLContext.getDefault())));
+        assertThat(otherConfig.getSslContext(), is(sameInstance(config.getSslContext())));
+        assertThat(otherConfig.getSslSocketFactory(), is(sameInstance(config.getSslSocketFactory())));
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_21_039: [Otherwise, if a certificate path was set, the function shall
+    // return the context cached in the SslContextCache for the trusted certificate.]
+    // Tests_SRS_DEVICECLIENTCONFIG_21_045: [Otherwise, the function shall return the context cached in the
+    // SslContextCache for the certificate in the certificate path, or the default certificate if none was set.]
+    @Test
+    public void getSslContextTrustsTheCertificatePath() throws Exception
+    {
+        final String iotHubHostname = "test.iothubhostname";
+        final String deviceKey = "test-devicekey";
+        final String sharedAccessToken = null;
+
+        DeviceClientConfig config = new DeviceClientConfig(iotHubHostname, "test-deviceid", deviceKey, sharedAccessToken);
+        SSLContext amqpsContext = config.getAmqpsSslContext();
+        config.setPathToCert(config.getPathToCertificate());
+
+        assertThat(amqpsContext, is(not(sameInstance(SSLContext.getDefault()))));
+        assertThat(config.getSslContext(), is(sameInstance(amqpsContext)));
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_21_037: [The function shall set the TLS context, where null restores
+    // the shared context of the trusted certificate.]
+    // Tests_SRS_DEVICECLIENTCONFIG_21_038: [If a TLS context was set, the function shall return it.]
+    @Test
+    public void getAndSetSslContextMatch() throws Exception
+    {
+        final String iotHubHostname = "test.iothubhostname";
+        final String deviceId = "test-deviceid";
+        final String deviceKey = "test-devicekey";
+        final String sharedAccessToken = null;
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(null, null, null);
+
+        DeviceClientConfig config = new DeviceClientConfig(iotHubHostname, deviceId, deviceKey, sharedAccessToken);
+        SSLContext defaultContext = config.getSslContext();
+        config.setSslContext(sslContext);
+        SSLContext setContext = config.getSslContext();
+        config.setSslContext(null);
+
+        assertThat(setContext, is(sameInstance(sslContext)));
+        assertThat(config.getSslContext(), is(sameInstance(defaultContext)));
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_21_044: [If a TLS context was set, the function shall return it.]
+    @Test
+    public void getAmqpsSslContextReturnsTheContextSet() throws Exception
+    {
+        final String iotHubHostname = "test.iothubhostname";
+        final String deviceId = "test-deviceid";
+        final String deviceKey = "test-devicekey";
+        final String sharedAccessToken = null;
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(null, null, null);
+
+        DeviceClientConfig config = new DeviceClientConfig(iotHubHostname, deviceId, deviceKey, sharedAccessToken);
+        config.setSslContext(sslContext);
+
+        assertThat(config.getAmqpsSslContext(), is(sameInstance(sslContext)));
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_21_008: [If the prefetch is not positive, the function shall throw an IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setAmqpReceivePrefetchThrowsIfZero() throws URISyntaxException
+    {
+        final String iotHubHostname = "test.iothubhostname";
+        final String deviceId = "test-deviceid";
+        final String deviceKey = "test-devicekey";
+        final String sharedAccessToken = null;
+
+        DeviceClientConfig config = new DeviceClientConfig(iotHubHostname, deviceId, deviceKey, sharedAccessToken);
+        config.setAmqpReceivePrefetch(0);
+    }
+
     // Tests_SRS_DEVICECLIENTCONFIG_11_006: [The function shall set the message callback, with its associated context.]
     // Tests_SRS_DEVICECLIENTCONFIG_11_010: [The function shall return the current message callback.]
     @Test
@@ -337,4 +786,27 @@ public class DeviceClientConfigTest
         File certificate = new File(certPath);
         assertTrue (certificate.exists());
     }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_21_018: [If no certificate path was set, the function shall return the
+    // default certificate shared by all the clients in the process, writing it again only if its file was removed.]
+    @Test
+    public void getPathToCertificateSharesTheDefaultCertificate() throws URISyntaxException
+    {
+        final String iotHubHostname = "test.iothubhostname";
+        final String deviceKey = "test-devicekey";
+        final String sharedAccessToken = null;
+
+        DeviceClientConfig config1 = new DeviceClientConfig(iotHubHostname, "test-deviceid1", deviceKey, sharedAccessToken);
+        DeviceClientConfig config2 = new DeviceClientConfig(iotHubHostname, "test-deviceid2", deviceKey, sharedAccessToken);
+
+        String certPath1 = config1.getPathToCertificate();
+        String certPath2 = config2.getPathToCertificate();
+        new File(certPath1).delete();
+        DeviceClientConfig config3 = new DeviceClientConfig(iotHubHostname, "test-deviceid3", deviceKey, sharedAccessToken);
+        String certPath3 = config3.getPathToCertificate();
+
+        assertThat(certPath2, is(certPath1));
+        assertThat(certPath3, is(not(certPath1)));
+        assertTrue(new File(certPath3).exists());
+    }
 }
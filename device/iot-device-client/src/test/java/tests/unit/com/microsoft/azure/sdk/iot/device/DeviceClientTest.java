@@ -7,6 +7,7 @@ import com.microsoft.azure.sdk.iot.device.*;
 import com.microsoft.azure.sdk.iot.device.DeviceClient;
 import com.microsoft.azure.sdk.iot.device.DeviceTwin.*;
 import com.microsoft.azure.sdk.iot.device.transport.amqps.AmqpsTransport;
+import com.microsoft.azure.sdk.iot.device.transport.https.HttpsContentEncoding;
 import com.microsoft.azure.sdk.iot.device.transport.https.HttpsTransport;
 
 import com.microsoft.azure.sdk.iot.device.transport.IotHubReceiveTask;
@@ -17,6 +18,7 @@ import mockit.NonStrictExpectations;
 import mockit.Verifications;
 import org.junit.Test;
 
+import javax.net.ssl.SSLContext;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.HashMap;
@@ -26,6 +28,8 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
+import static org.junit.Assert.assertTrue;
+
 /** Unit tests for DeviceClient. */
 public class DeviceClientTest
 {
@@ -642,6 +646,45 @@ public class DeviceClientTest
         client.sendEventAsync(mockMsg, mockCallback, context);
     }
 
+    // Tests_SRS_DEVICECLIENT_21_056: [The function shall return whether the transport is back-pressured.]
+    @Test
+    public void isBackPressuredReturnsTransportBackPressure(
+            @Mocked final ScheduledExecutorService mockScheduler,
+            @Mocked final AmqpsTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+        new NonStrictExpectations()
+        {
+            {
+                mockTransport.isBackPressured();
+                result = true;
+            }
+        };
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.open();
+
+        assertTrue(client.isBackPressured());
+    }
+
+    // Tests_SRS_DEVICECLIENT_21_055: [If the client is closed, the function shall throw an IllegalStateException.]
+    @Test(expected = IllegalStateException.class)
+    public void isBackPressuredFailsIfClientNotOpened(
+            @Mocked final ScheduledExecutorService mockScheduler,
+            @Mocked final AmqpsTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.isBackPressured();
+    }
+
     // Tests_SRS_DEVICECLIENT_11_012: [The function shall set the message callback, with its associated context.]
     @Test
     public void setMessageCallbackSetsMessageCallback(
@@ -737,6 +780,43 @@ public class DeviceClientTest
         };
     }
 
+    /*
+    **Tests_SRS_DEVICECLIENT_21_109: [**If the device twin restores the twin replica saved by a previous run, the function shall not request all twin properties.**]**
+     */
+    @Test
+    public void startDeviceTwinDoesNotRequestTwinIfReplicaRestored(@Mocked final DeviceTwin mockedDeviceTwin,
+                                                                   @Mocked final IotHubEventCallback mockedStatusCB,
+                                                                   @Mocked final PropertyCallBack mockedPropertyCB,
+                                                                   @Mocked final AmqpsTransport mockTransport) throws IOException, URISyntaxException
+    {
+        //arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+        new NonStrictExpectations()
+        {
+            {
+                mockedDeviceTwin.restoreTwinReplica();
+                result = true;
+            }
+        };
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.open();
+
+        //act
+        client.startDeviceTwin(mockedStatusCB, null, mockedPropertyCB, null);
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockedDeviceTwin.getDeviceTwin();
+                times = 0;
+            }
+        };
+    }
+
     /*
     **Tests_SRS_DEVICECLIENT_25_012: [**If the deviceTwinStatusCallback or genericPropertyCallBack is null, the function shall throw an InvalidParameterException.**]**
      */
@@ -1655,4 +1735,834 @@ public class DeviceClientTest
             }
         };
     }
+
+    //Tests_SRS_DEVICECLIENT_21_057: ["SetAmqpBatchMaxBytes" - maximum size in bytes of a batched AMQP message, 0 disables batching.]
+    //Tests_SRS_DEVICECLIENT_21_060: ["SetAmqpBatchLingerTime" - time in milliseconds a batch waits for more messages.]
+    @Test
+    public void setOptionAmqpBatchingAMQPSucceeds(
+            @Mocked final AmqpsTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetAmqpBatchMaxBytes", 65536L);
+        client.setOption("SetAmqpBatchLingerTime", 20L);
+
+        new Verifications()
+        {
+            {
+                mockConfig.setAmqpBatchMaxBytes(65536);
+                times = 1;
+                mockConfig.setAmqpBatchLingerMillis(20L);
+                times = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_058: ["SetAmqpBatchMaxBytes" needs to have value type long.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionAmqpBatchMaxBytesWithStringInsteadOfLongFails(
+            @Mocked final AmqpsTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetAmqpBatchMaxBytes", "thisIsNotALong");
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_059: [If the value is negative or greater than the IoT Hub message size limit, the function shall throw IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionAmqpBatchMaxBytesAboveIotHubLimitFails(
+            @Mocked final AmqpsTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetAmqpBatchMaxBytes", 1024L * 1024L);
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_062: [If the value is negative, the function shall throw IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionAmqpBatchLingerTimeNegativeFails(
+            @Mocked final AmqpsTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetAmqpBatchLingerTime", -1L);
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_063: [Options "SetAmqpBatchMaxBytes" and "SetAmqpBatchLingerTime" are available only for AMQP.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionAmqpBatchMaxBytesWithHTTPSFails(
+            @Mocked final HttpsTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.HTTPS;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetAmqpBatchMaxBytes", 65536L);
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_083: ["SetMaximumPollingInterval" - maximum time in milliseconds between
+    // 2 consecutive polls while idle, 0 polls on every minimum polling interval.]
+    @Test
+    public void setOptionMaximumPollingIntervalWhileOpenSucceeds(
+            @Mocked final ScheduledExecutorService mockScheduler,
+            @Mocked final HttpsTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.HTTPS;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.open();
+        client.setOption("SetMaximumPollingInterval", 600000L);
+
+        new Verifications()
+        {
+            {
+                mockConfig.setHttpsMaxPollingIntervalMillis(600000L);
+                times = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_084: ["SetMaximumPollingInterval" needs to have value type long.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionMaximumPollingIntervalWithStringInsteadOfLongFails(
+            @Mocked final HttpsTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.HTTPS;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetMaximumPollingInterval", "thisIsNotALong");
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_085: [If the value is negative, the function shall throw IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionMaximumPollingIntervalNegativeFails(
+            @Mocked final HttpsTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.HTTPS;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetMaximumPollingInterval", -1L);
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_086: [Option "SetMaximumPollingInterval" is available only for HTTP.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionMaximumPollingIntervalWithAMQPFails(
+            @Mocked final AmqpsTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetMaximumPollingInterval", 600000L);
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_087: ["SetHttpsBatchMaxBytes" - maximum size in bytes of a batched HTTPS request, 0 bounds it by the IoT Hub limit only.]
+    @Test
+    public void setOptionHttpsBatchMaxBytesSucceeds(
+            @Mocked final HttpsTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.HTTPS;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetHttpsBatchMaxBytes", 64000L);
+
+        new Verifications()
+        {
+            {
+                mockConfig.setHttpsBatchMaxBytes(64000);
+                times = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_088: ["SetHttpsBatchMaxBytes" needs to have value type long.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionHttpsBatchMaxBytesWithIntInsteadOfLongFails(
+            @Mocked final HttpsTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.HTTPS;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetHttpsBatchMaxBytes", 64000);
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_089: [If the value is negative or greater than the IoT Hub message size
+    // limit, the function shall throw IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionHttpsBatchMaxBytesAboveTheLimitFails(
+            @Mocked final HttpsTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.HTTPS;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetHttpsBatchMaxBytes", 256L * 1024);
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_090: ["SetHttpsBatchMaxMessages" - maximum number of messages in a batched HTTPS request, 0 does not bound it.]
+    @Test
+    public void setOptionHttpsBatchMaxMessagesSucceeds(
+            @Mocked final HttpsTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.HTTPS;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetHttpsBatchMaxMessages", 50L);
+
+        new Verifications()
+        {
+            {
+                mockConfig.setHttpsBatchMaxMessages(50);
+                times = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_091: ["SetHttpsBatchMaxMessages" needs to have value type long.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionHttpsBatchMaxMessagesWithStringInsteadOfLongFails(
+            @Mocked final HttpsTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.HTTPS;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetHttpsBatchMaxMessages", "50");
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_092: [If the value is negative or does not fit in an int, the function shall
+    // throw IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionHttpsBatchMaxMessagesNegativeFails(
+            @Mocked final HttpsTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.HTTPS;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetHttpsBatchMaxMessages", -1L);
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_093: ["SetHttpsBatchLingerTime" - time in milliseconds the HTTPS messages wait for a batch to fill.]
+    @Test
+    public void setOptionHttpsBatchLingerTimeSucceeds(
+            @Mocked final HttpsTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.HTTPS;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetHttpsBatchLingerTime", 20L);
+
+        new Verifications()
+        {
+            {
+                mockConfig.setHttpsBatchLingerMillis(20L);
+                times = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_094: ["SetHttpsBatchLingerTime" needs to have value type long.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionHttpsBatchLingerTimeWithStringInsteadOfLongFails(
+            @Mocked final HttpsTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.HTTPS;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetHttpsBatchLingerTime", "20");
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_095: [If the value is negative, the function shall throw IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionHttpsBatchLingerTimeNegativeFails(
+            @Mocked final HttpsTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.HTTPS;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetHttpsBatchLingerTime", -1L);
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_096: [Options "SetHttpsBatchMaxBytes", "SetHttpsBatchMaxMessages" and
+    // "SetHttpsBatchLingerTime" are available only for HTTP.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionHttpsBatchLingerTimeWithAMQPFails(
+            @Mocked final AmqpsTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetHttpsBatchLingerTime", 20L);
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_097: ["SetHttpsContentEncoding" - content encoding the HTTPS events are compressed with.]
+    @Test
+    public void setOptionHttpsContentEncodingSucceeds(
+            @Mocked final HttpsTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.HTTPS;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetHttpsContentEncoding", "GZip");
+
+        new Verifications()
+        {
+            {
+                mockConfig.setHttpsContentEncoding(HttpsContentEncoding.GZIP);
+                times = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_098: ["SetHttpsContentEncoding" needs to have value type String.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionHttpsContentEncodingWithLongInsteadOfStringFails(
+            @Mocked final HttpsTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.HTTPS;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetHttpsContentEncoding", 1L);
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_099: [If the value is not "identity", "gzip" or "deflate", the function shall throw
+    // IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionHttpsContentEncodingUnknownFails(
+            @Mocked final HttpsTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.HTTPS;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetHttpsContentEncoding", "br");
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_100: ["SetHttpsContentEncoding" is available only for HTTP.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionHttpsContentEncodingWithAMQPFails(
+            @Mocked final AmqpsTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetHttpsContentEncoding", "gzip");
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_101: ["SetSASTokenRenewalFraction" - fraction of the SAS token lifetime after which the transports renew it.]
+    //Tests_SRS_DEVICECLIENT_21_104: ["SetSASTokenRenewalFraction" is available for HTTPS/AMQP/MQTT.]
+    @Test
+    public void setOptionSASTokenRenewalFractionMQTTSucceeds(
+            @Mocked final MqttTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetSASTokenRenewalFraction", 0.5);
+
+        new Verifications()
+        {
+            {
+                mockConfig.setSasTokenRenewalFraction(0.5);
+                times = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_102: ["SetSASTokenRenewalFraction" needs to have value type double.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionSASTokenRenewalFractionWithStringFails(
+            @Mocked final HttpsTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.HTTPS;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetSASTokenRenewalFraction", "0.5");
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_105: ["SetSSLContext" - TLS context of the connections, shared by the clients given the same context.]
+    //Tests_SRS_DEVICECLIENT_21_108: ["SetSSLContext" is available for HTTPS/AMQP/MQTT.]
+    @Test
+    public void setOptionSSLContextAMQPSucceeds(
+            @Mocked final AmqpsTransport mockTransport,
+            @Mocked final SSLContext mockSslContext)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetSSLContext", mockSslContext);
+
+        new Verifications()
+        {
+            {
+                mockConfig.setSslContext(mockSslContext);
+                times = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_107: ["SetSSLContext" needs to have value type SSLContext.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionSSLContextWithStringFails(
+            @Mocked final MqttTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetSSLContext", "TLS");
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_064: ["SetAmqpReceivePrefetch" - number of messages the IoT Hub may send ahead on each receiver link.]
+    //Tests_SRS_DEVICECLIENT_21_067: ["SetAmqpBatchedSettlement" - settle the results of the received messages together.]
+    @Test
+    public void setOptionAmqpReceiveSettingsAMQPSucceeds(
+            @Mocked final AmqpsTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetAmqpReceivePrefetch", 50L);
+        client.setOption("SetAmqpBatchedSettlement", true);
+
+        new Verifications()
+        {
+            {
+                mockConfig.setAmqpReceivePrefetch(50);
+                times = 1;
+                mockConfig.setAmqpBatchedSettlement(true);
+                times = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_065: [Setting "SetAmqpReceivePrefetch" can only be done when the transport is closed.]
+    @Test(expected = IllegalStateException.class)
+    public void setOptionAmqpReceivePrefetchAfterOpenFails(
+            @Mocked final AmqpsTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.open();
+        client.setOption("SetAmqpReceivePrefetch", 50L);
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_066: ["SetAmqpReceivePrefetch" needs to have value type long and be positive.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionAmqpReceivePrefetchZeroFails(
+            @Mocked final AmqpsTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetAmqpReceivePrefetch", 0L);
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_068: ["SetAmqpBatchedSettlement" needs to have value type boolean.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionAmqpBatchedSettlementWithStringInsteadOfBooleanFails(
+            @Mocked final AmqpsTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetAmqpBatchedSettlement", "true");
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_069: [Options "SetAmqpReceivePrefetch" and "SetAmqpBatchedSettlement" are available only for AMQP.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionAmqpBatchedSettlementWithMQTTFails(
+            @Mocked final MqttTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetAmqpBatchedSettlement", true);
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_070: ["SetAmqpFastRecovery" - replace a lost connection by a new one opened right away.]
+    @Test
+    public void setOptionAmqpFastRecoveryAMQPSucceeds(
+            @Mocked final AmqpsTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetAmqpFastRecovery", true);
+
+        new Verifications()
+        {
+            {
+                mockConfig.setAmqpFastRecovery(true);
+                times = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_071: [Setting "SetAmqpFastRecovery" can only be done when the transport is closed.]
+    @Test(expected = IllegalStateException.class)
+    public void setOptionAmqpFastRecoveryAfterOpenFails(
+            @Mocked final AmqpsTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.open();
+        client.setOption("SetAmqpFastRecovery", true);
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_072: ["SetAmqpFastRecovery" needs to have value type boolean.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionAmqpFastRecoveryWithStringInsteadOfBooleanFails(
+            @Mocked final AmqpsTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetAmqpFastRecovery", "true");
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_073: [Option "SetAmqpFastRecovery" is available only for AMQP.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionAmqpFastRecoveryWithHTTPFails(
+            @Mocked final HttpsTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.HTTPS;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetAmqpFastRecovery", true);
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_074: ["SetAmqpCbsAuthentication" - authenticate the connection by claims-based security and renew its token in the background.]
+    @Test
+    public void setOptionAmqpCbsAuthenticationAMQPSucceeds(
+            @Mocked final AmqpsTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetAmqpCbsAuthentication", true);
+
+        new Verifications()
+        {
+            {
+                mockConfig.setAmqpCbsAuthentication(true);
+                times = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_075: [Setting "SetAmqpCbsAuthentication" can only be done when the transport is closed.]
+    @Test(expected = IllegalStateException.class)
+    public void setOptionAmqpCbsAuthenticationAfterOpenFails(
+            @Mocked final AmqpsTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.open();
+        client.setOption("SetAmqpCbsAuthentication", true);
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_076: ["SetAmqpCbsAuthentication" needs to have value type boolean.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionAmqpCbsAuthenticationWithStringInsteadOfBooleanFails(
+            @Mocked final AmqpsTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetAmqpCbsAuthentication", "true");
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_077: [Option "SetAmqpCbsAuthentication" is available only for AMQP.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionAmqpCbsAuthenticationWithMQTTFails(
+            @Mocked final MqttTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetAmqpCbsAuthentication", true);
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_078: [If the transport is AMQP with claims-based security enabled,
+    // "SetSASTokenExpiryTime" shall renew the token on the open connection instead of restarting the transport.]
+    @Test
+    public void setOptionSASTokenExpiryTimeWithCbsRenewsTheTokenWithoutRestarting(
+            @Mocked final AmqpsTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.isAmqpCbsAuthentication();
+                result = true;
+                mockConfig.getDeviceKey();
+                result = "adjkl234j52=";
+            }
+        };
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.open();
+        client.setOption("SetSASTokenExpiryTime", 60L);
+
+        new Verifications()
+        {
+            {
+                mockConfig.setTokenValidSecs(60);
+                times = 1;
+                mockTransport.renewToken();
+                times = 1;
+                mockTransport.open();
+                times = 1;
+                mockTransport.close();
+                times = 0;
+            }
+        };
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_079: ["SetAmqpSharedEventLoop" - drive the connection by the event loops shared by all the clients in the process.]
+    @Test
+    public void setOptionAmqpSharedEventLoopAMQPSucceeds(
+            @Mocked final AmqpsTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetAmqpSharedEventLoop", true);
+
+        new Verifications()
+        {
+            {
+                mockConfig.setAmqpSharedEventLoop(true);
+                times = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_080: [Setting "SetAmqpSharedEventLoop" can only be done when the transport is closed.]
+    @Test(expected = IllegalStateException.class)
+    public void setOptionAmqpSharedEventLoopAfterOpenFails(
+            @Mocked final AmqpsTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.open();
+        client.setOption("SetAmqpSharedEventLoop", true);
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_081: ["SetAmqpSharedEventLoop" needs to have value type boolean.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionAmqpSharedEventLoopWithStringInsteadOfBooleanFails(
+            @Mocked final AmqpsTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetAmqpSharedEventLoop", "true");
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_082: [Option "SetAmqpSharedEventLoop" is available only for AMQP.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionAmqpSharedEventLoopWithMQTTFails(
+            @Mocked final MqttTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetAmqpSharedEventLoop", true);
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_110: ["SetTwinReplicaPath" - file the device twin saves its replica of the desired properties to, and restores it from on start.]
+    //Tests_SRS_DEVICECLIENT_21_112: ["SetTwinReplicaPath" needs to have value type String.]
+    @Test
+    public void setOptionTwinReplicaPathSucceeds(
+            @Mocked final MqttTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.open();
+        client.setOption("SetTwinReplicaPath", "twin-replica.json");
+
+        new Verifications()
+        {
+            {
+                mockConfig.setTwinReplicaPath("twin-replica.json");
+                times = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_111: [Setting "SetTwinReplicaPath" can only be done before the device twin is started.]
+    @Test(expected = IllegalStateException.class)
+    public void setOptionTwinReplicaPathAfterStartDeviceTwinFails(
+            @Mocked final MqttTransport mockTransport,
+            @Mocked final DeviceTwin mockedDeviceTwin,
+            @Mocked final IotHubEventCallback mockedStatusCB,
+            @Mocked final PropertyCallBack mockedPropertyCB)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.open();
+        client.startDeviceTwin(mockedStatusCB, null, mockedPropertyCB, null);
+        client.setOption("SetTwinReplicaPath", "twin-replica.json");
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_112: ["SetTwinReplicaPath" needs to have value type String.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionTwinReplicaPathWithFileInsteadOfStringFails(
+            @Mocked final MqttTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetTwinReplicaPath", new java.io.File("twin-replica.json"));
+    }
 }
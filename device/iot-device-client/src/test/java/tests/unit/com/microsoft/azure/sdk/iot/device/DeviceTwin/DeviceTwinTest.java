@@ -10,7 +10,9 @@ import com.microsoft.azure.sdk.iot.device.DeviceTwin.*;
 import mockit.*;
 import org.junit.Test;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -912,4 +914,234 @@ public class DeviceTwinTest
         };
     }
 
+    private static DeviceTwinMessage createTwinResponse(String body, String status)
+    {
+        DeviceTwinMessage message = new DeviceTwinMessage(body.getBytes(Message.DEFAULT_IOTHUB_MESSAGE_CHARSET));
+        message.setStatus(status);
+        message.setDeviceOperationType(DeviceOperations.DEVICE_OPERATION_TWIN_GET_RESPONSE);
+        return message;
+    }
+
+    private static DeviceTwinMessage createDesiredPatch(String body)
+    {
+        DeviceTwinMessage message = new DeviceTwinMessage(body.getBytes(Message.DEFAULT_IOTHUB_MESSAGE_CHARSET));
+        message.setDeviceOperationType(DeviceOperations.DEVICE_OPERATION_TWIN_SUBSCRIBE_DESIRED_PROPERTIES_RESPONSE);
+        return message;
+    }
+
+    /*
+    **Tests_SRS_DEVICETWIN_21_035: [**The desired property patch shall be deserialized only if the twin replica applies it, as the next version of the replica or a patch without version.**]**
+     */
+    @Test
+    public void desiredPatchIsDeserializedOnlyIfNextVersion(@Mocked final Twin mockedTwinObject) throws IOException
+    {
+        //arrange
+        DeviceTwin testTwin = new DeviceTwin(mockedClient, mockedConfig,
+                mockedStatusCB, null, mockedGenericPropertyCB, null);
+        MessageCallback deviceTwinResponseMessageCallback = Deencapsulation.newInnerInstance("deviceTwinResponseMessageCallback", testTwin);
+        deviceTwinResponseMessageCallback.execute(createTwinResponse("{\"desired\":{\"a\":1,\"$version\":2}}", "200"), null);
+
+        //act
+        deviceTwinResponseMessageCallback.execute(createDesiredPatch("{\"a\":2,\"$version\":2}"), null);
+        deviceTwinResponseMessageCallback.execute(createDesiredPatch("{\"a\":3,\"$version\":3}"), null);
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockedTwinObject.updateDesiredProperty("{\"a\":2,\"$version\":2}");
+                times = 0;
+                mockedTwinObject.updateDesiredProperty("{\"a\":3,\"$version\":3}");
+                times = 1;
+                mockedClient.sendEventAsync((Message) any, (IotHubEventCallback) any, any);
+                times = 0;
+            }
+        };
+    }
+
+    /*
+    **Tests_SRS_DEVICETWIN_21_036: [**If the desired property patch is not the next version of the twin replica, the twin shall be requested by calling getDeviceTwin to resync the replica.**]**
+     */
+    @Test
+    public void desiredPatchOutOfSequenceRequestsTwin(@Mocked final Twin mockedTwinObject) throws IOException
+    {
+        //arrange
+        DeviceTwin testTwin = new DeviceTwin(mockedClient, mockedConfig,
+                mockedStatusCB, null, mockedGenericPropertyCB, null);
+        MessageCallback deviceTwinResponseMessageCallback = Deencapsulation.newInnerInstance("deviceTwinResponseMessageCallback", testTwin);
+        deviceTwinResponseMessageCallback.execute(createTwinResponse("{\"desired\":{\"a\":1,\"$version\":2}}", "200"), null);
+
+        //act
+        deviceTwinResponseMessageCallback.execute(createDesiredPatch("{\"a\":4,\"$version\":4}"), null);
+        deviceTwinResponseMessageCallback.execute(createDesiredPatch("{\"a\":5,\"$version\":5}"), null);
+
+        //assert
+        final TwinReplica replica = Deencapsulation.getField(testTwin, "twinReplica");
+        assertEquals(Integer.valueOf(2), replica.getDesiredVersion());
+        new Verifications()
+        {
+            {
+                mockedTwinObject.updateDesiredProperty(anyString);
+                times = 0;
+                mockedClient.sendEventAsync((Message) any, (IotHubEventCallback) any, any);
+                times = 1;
+            }
+        };
+    }
+
+    /*
+    **Tests_SRS_DEVICETWIN_21_032: [**If the status is ok, the twin replica shall be replaced by the payload, and the desired property patches received during the resync that follow it shall be deserialized by calling updateDesiredProperty.**]**
+    **Tests_SRS_DEVICETWIN_21_040: [**This method shall start a resync of the twin replica, which keeps the desired property patches received until the response.**]**
+     */
+    @Test
+    public void getDeviceTwinResponseAppliesPatchesReceivedDuringResync(@Mocked final Twin mockedTwinObject) throws IOException
+    {
+        //arrange
+        DeviceTwin testTwin = new DeviceTwin(mockedClient, mockedConfig,
+                mockedStatusCB, null, mockedGenericPropertyCB, null);
+        MessageCallback deviceTwinResponseMessageCallback = Deencapsulation.newInnerInstance("deviceTwinResponseMessageCallback", testTwin);
+        testTwin.getDeviceTwin();
+        deviceTwinResponseMessageCallback.execute(createDesiredPatch("{\"b\":1,\"$version\":4}"), null);
+        deviceTwinResponseMessageCallback.execute(createDesiredPatch("{\"a\":2,\"$version\":5}"), null);
+
+        //act
+        deviceTwinResponseMessageCallback.execute(createTwinResponse("{\"desired\":{\"a\":1,\"b\":1,\"$version\":4},\"reported\":{}}", "200"), null);
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockedTwinObject.updateTwin(anyString);
+                times = 1;
+                mockedTwinObject.updateDesiredProperty("{\"a\":2,\"$version\":5}");
+                times = 1;
+                mockedTwinObject.updateDesiredProperty(anyString);
+                times = 1;
+                mockedClient.sendEventAsync((Message) any, (IotHubEventCallback) any, any);
+                times = 1;
+            }
+        };
+    }
+
+    /*
+    **Tests_SRS_DEVICETWIN_21_033: [**If patches received during the resync still do not follow the twin replica, the twin shall be requested again by calling getDeviceTwin, up to 3 times in a row.**]**
+    **Tests_SRS_DEVICETWIN_21_041: [**If the twin was requested again 3 times in a row, it shall not be requested again until a desired property patch is out of sequence.**]**
+     */
+    @Test
+    public void getDeviceTwinResponseWithGapRequestsTwinAgainBounded(@Mocked final Twin mockedTwinObject) throws IOException
+    {
+        //arrange
+        DeviceTwin testTwin = new DeviceTwin(mockedClient, mockedConfig,
+                mockedStatusCB, null, mockedGenericPropertyCB, null);
+        MessageCallback deviceTwinResponseMessageCallback = Deencapsulation.newInnerInstance("deviceTwinResponseMessageCallback", testTwin);
+        testTwin.getDeviceTwin();
+        deviceTwinResponseMessageCallback.execute(createDesiredPatch("{\"a\":6,\"$version\":6}"), null);
+
+        //act
+        for (int i = 0; i < 5; i++)
+        {
+            deviceTwinResponseMessageCallback.execute(createTwinResponse("{\"desired\":{\"a\":1,\"$version\":4}}", "200"), null);
+        }
+        deviceTwinResponseMessageCallback.execute(createDesiredPatch("{\"a\":7,\"$version\":7}"), null);
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockedTwinObject.updateDesiredProperty(anyString);
+                times = 0;
+                mockedClient.sendEventAsync((Message) any, (IotHubEventCallback) any, any);
+                times = 5;
+            }
+        };
+    }
+
+    /*
+    **Tests_SRS_DEVICETWIN_21_034: [**If the status is not ok, the resync of the twin replica shall be cancelled, to be started again by the next desired property patch out of sequence.**]**
+     */
+    @Test
+    public void getDeviceTwinResponseNotOkCancelsResync(@Mocked final Twin mockedTwinObject) throws IOException
+    {
+        //arrange
+        DeviceTwin testTwin = new DeviceTwin(mockedClient, mockedConfig,
+                mockedStatusCB, null, mockedGenericPropertyCB, null);
+        MessageCallback deviceTwinResponseMessageCallback = Deencapsulation.newInnerInstance("deviceTwinResponseMessageCallback", testTwin);
+        testTwin.getDeviceTwin();
+
+        //act
+        deviceTwinResponseMessageCallback.execute(createTwinResponse("", "500"), null);
+        deviceTwinResponseMessageCallback.execute(createDesiredPatch("{\"a\":2,\"$version\":5}"), null);
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockedTwinObject.updateDesiredProperty(anyString);
+                times = 0;
+                mockedClient.sendEventAsync((Message) any, (IotHubEventCallback) any, any);
+                times = 2;
+            }
+        };
+    }
+
+    /*
+    **Tests_SRS_DEVICETWIN_21_037: [**The constructor shall create the twin replica of the desired properties, saved to the twin replica path of the config if it is not null.**]**
+    **Tests_SRS_DEVICETWIN_21_039: [**The method shall deserialize the twin replica by calling updateTwin, call the user status callback with OK as for a twin response, and return true.**]**
+     */
+    @Test
+    public void restoreTwinReplicaDeserializesSavedReplica(@Mocked final Twin mockedTwinObject) throws IOException
+    {
+        //arrange
+        final File replicaFile = File.createTempFile("twin-replica", ".json");
+        replicaFile.deleteOnExit();
+        Files.write(replicaFile.toPath(), "{\"desired\":{\"a\":1,\"$version\":7}}".getBytes(Message.DEFAULT_IOTHUB_MESSAGE_CHARSET));
+        new NonStrictExpectations()
+        {
+            {
+                mockedConfig.getTwinReplicaPath();
+                result = replicaFile.getPath();
+            }
+        };
+        DeviceTwin testTwin = new DeviceTwin(mockedClient, mockedConfig,
+                mockedStatusCB, null, mockedGenericPropertyCB, null);
+
+        //act
+        boolean restored = testTwin.restoreTwinReplica();
+
+        //assert
+        assertTrue(restored);
+        new Verifications()
+        {
+            {
+                mockedTwinObject.updateTwin("{\"desired\":{\"a\":1,\"$version\":7}}");
+                times = 1;
+                mockedStatusCB.execute(IotHubStatusCode.OK, null);
+                times = 1;
+            }
+        };
+    }
+
+    /*
+    **Tests_SRS_DEVICETWIN_21_038: [**If the twin replica cannot be loaded from its file, the method shall return false.**]**
+     */
+    @Test
+    public void restoreTwinReplicaReturnsFalseWithoutReplicaFile(@Mocked final Twin mockedTwinObject) throws IOException
+    {
+        //arrange
+        DeviceTwin testTwin = new DeviceTwin(mockedClient, mockedConfig,
+                mockedStatusCB, null, mockedGenericPropertyCB, null);
+
+        //act
+        boolean restored = testTwin.restoreTwinReplica();
+
+        //assert
+        assertFalse(restored);
+        new Verifications()
+        {
+            {
+                mockedTwinObject.updateTwin(anyString);
+                times = 0;
+            }
+        };
+    }
 }
@@ -0,0 +1,253 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.DeviceTwin;
+
+import com.microsoft.azure.sdk.iot.device.DeviceTwin.TwinReplica;
+import com.microsoft.azure.sdk.iot.device.Message;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/** Unit tests for TwinReplica. */
+public class TwinReplicaTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /*
+    **Tests_SRS_TWINREPLICA_21_009: [**The function shall replace the desired properties and their version with the ones of the twin.**]**
+    **Tests_SRS_TWINREPLICA_21_019: [**The function shall return the replica as a twin JSON with the desired properties.**]**
+     */
+    @Test
+    public void replaceDesiredKeepsDesiredPropertiesOfTwin()
+    {
+        TwinReplica replica = new TwinReplica(null);
+
+        replica.replaceDesired("{\"properties\":{\"desired\":{\"a\":1,\"$version\":3},\"reported\":{\"b\":2}}}");
+
+        assertEquals(Integer.valueOf(3), replica.getDesiredVersion());
+        assertEquals("{\"desired\":{\"a\":1,\"$version\":3}}", replica.toJson());
+    }
+
+    /*
+    **Tests_SRS_TWINREPLICA_21_015: [**If the patch is the next version of the replica, the function shall apply it, save the replica and return APPLIED.**]**
+     */
+    @Test
+    public void applyDesiredPatchMergesNextVersion()
+    {
+        TwinReplica replica = new TwinReplica(null);
+        replica.replaceDesired("{\"desired\":{\"a\":1,\"b\":{\"c\":1,\"d\":2},\"$version\":3}}");
+
+        TwinReplica.PatchResult result = replica.applyDesiredPatch("{\"a\":null,\"b\":{\"d\":3},\"e\":{\"f\":null,\"g\":4},\"$version\":4}", null);
+
+        assertEquals(TwinReplica.PatchResult.APPLIED, result);
+        assertEquals(Integer.valueOf(4), replica.getDesiredVersion());
+        assertEquals("{\"desired\":{\"b\":{\"c\":1,\"d\":3},\"$version\":4,\"e\":{\"g\":4}}}", replica.toJson());
+    }
+
+    /*
+    **Tests_SRS_TWINREPLICA_21_014: [**If the patch is not newer than the replica, the function shall ignore it and return STALE.**]**
+     */
+    @Test
+    public void applyDesiredPatchIgnoresOldVersion()
+    {
+        TwinReplica replica = new TwinReplica(null);
+        replica.replaceDesired("{\"desired\":{\"a\":1,\"$version\":3}}");
+
+        TwinReplica.PatchResult result = replica.applyDesiredPatch("{\"a\":2,\"$version\":3}", null);
+
+        assertEquals(TwinReplica.PatchResult.STALE, result);
+        assertEquals("{\"desired\":{\"a\":1,\"$version\":3}}", replica.toJson());
+    }
+
+    /*
+    **Tests_SRS_TWINREPLICA_21_016: [**Otherwise, the function shall keep the patch and return GAP.**]**
+    **Tests_SRS_TWINREPLICA_21_017: [**The function shall return true if no resync is in progress and patches are kept.**]**
+     */
+    @Test
+    public void applyDesiredPatchReportsGapUsingTransportVersion()
+    {
+        TwinReplica replica = new TwinReplica(null);
+        replica.replaceDesired("{\"desired\":{\"a\":1,\"$version\":3}}");
+
+        TwinReplica.PatchResult result = replica.applyDesiredPatch("{\"a\":2}", "5");
+
+        assertEquals(TwinReplica.PatchResult.GAP, result);
+        assertEquals(Integer.valueOf(3), replica.getDesiredVersion());
+        assertTrue(replica.hasGap());
+    }
+
+    /*
+    **Tests_SRS_TWINREPLICA_21_016: [**Otherwise, the function shall keep the patch and return GAP.**]**
+     */
+    @Test
+    public void applyDesiredPatchReportsGapWithoutBaseline()
+    {
+        TwinReplica replica = new TwinReplica(null);
+
+        assertEquals(TwinReplica.PatchResult.GAP, replica.applyDesiredPatch("{\"a\":2,\"$version\":1}", null));
+    }
+
+    /*
+    **Tests_SRS_TWINREPLICA_21_012: [**If the patch has no version, the function shall apply it and return APPLIED.**]**
+    **Tests_SRS_TWINREPLICA_21_020: [**If the patch is null or empty, the function shall not change the replica and return APPLIED, as a patch without version.**]**
+     */
+    @Test
+    public void applyDesiredPatchAppliesPatchWithoutVersion()
+    {
+        TwinReplica replica = new TwinReplica(null);
+
+        assertEquals(TwinReplica.PatchResult.APPLIED, replica.applyDesiredPatch("{\"a\":2}", null));
+        assertEquals(TwinReplica.PatchResult.APPLIED, replica.applyDesiredPatch("", null));
+        assertEquals("{\"desired\":{\"a\":2}}", replica.toJson());
+        assertNull(replica.getDesiredVersion());
+    }
+
+    /*
+    **Tests_SRS_TWINREPLICA_21_005: [**The function shall mark a resync in progress.**]**
+    **Tests_SRS_TWINREPLICA_21_010: [**The function shall drop the kept patches not newer than the twin, apply the ones that follow it consecutively, and return them.**]**
+    **Tests_SRS_TWINREPLICA_21_013: [**If a resync is in progress, the function shall keep the patch and return BUFFERED.**]**
+     */
+    @Test
+    public void replaceDesiredAppliesPatchesKeptDuringResync()
+    {
+        TwinReplica replica = new TwinReplica(null);
+        replica.startResync();
+        assertEquals(TwinReplica.PatchResult.BUFFERED, replica.applyDesiredPatch("{\"a\":5,\"$version\":5}", null));
+        assertEquals(TwinReplica.PatchResult.BUFFERED, replica.applyDesiredPatch("{\"a\":4,\"$version\":4}", null));
+        assertEquals(TwinReplica.PatchResult.BUFFERED, replica.applyDesiredPatch("{\"a\":2,\"$version\":2}", null));
+
+        java.util.List<String> applied = replica.replaceDesired("{\"desired\":{\"a\":3,\"$version\":3}}");
+
+        assertEquals(Arrays.asList("{\"a\":4,\"$version\":4}", "{\"a\":5,\"$version\":5}"), applied);
+        assertEquals("{\"desired\":{\"a\":5,\"$version\":5}}", replica.toJson());
+        assertFalse(replica.hasGap());
+    }
+
+    /*
+    **Tests_SRS_TWINREPLICA_21_010: [**The function shall drop the kept patches not newer than the twin, apply the ones that follow it consecutively, and return them.**]**
+     */
+    @Test
+    public void replaceDesiredKeepsPatchesAfterMissedVersion()
+    {
+        TwinReplica replica = new TwinReplica(null);
+        replica.startResync();
+        replica.applyDesiredPatch("{\"a\":6,\"$version\":6}", null);
+
+        java.util.List<String> applied = replica.replaceDesired("{\"desired\":{\"a\":3,\"$version\":3}}");
+
+        assertEquals(Collections.<String>emptyList(), applied);
+        assertTrue(replica.hasGap());
+    }
+
+    /*
+    **Tests_SRS_TWINREPLICA_21_006: [**The function shall end the resync in progress, keeping the patches received meanwhile.**]**
+     */
+    @Test
+    public void cancelResyncEndsBuffering()
+    {
+        TwinReplica replica = new TwinReplica(null);
+        replica.replaceDesired("{\"desired\":{\"$version\":3}}");
+        replica.startResync();
+
+        replica.cancelResync();
+
+        assertEquals(TwinReplica.PatchResult.APPLIED, replica.applyDesiredPatch("{\"a\":4,\"$version\":4}", null));
+    }
+
+    /*
+    **Tests_SRS_TWINREPLICA_21_001: [**The constructor shall create an empty replica, saved to the file in path if it is not null.**]**
+    **Tests_SRS_TWINREPLICA_21_003: [**The function shall restore the desired properties and their version from the file, and return true if the version is known.**]**
+    **Tests_SRS_TWINREPLICA_21_011: [**The function shall save the replica to its file, if any.**]**
+     */
+    @Test
+    public void loadRestoresSavedReplica() throws IOException
+    {
+        String path = new File(folder.getRoot(), "twin-replica.json").getPath();
+        TwinReplica replica = new TwinReplica(path);
+        replica.replaceDesired("{\"desired\":{\"a\":1,\"$version\":3}}");
+        replica.applyDesiredPatch("{\"a\":2,\"$version\":4}", null);
+
+        TwinReplica restored = new TwinReplica(path);
+
+        assertTrue(restored.load());
+        assertEquals(Integer.valueOf(4), restored.getDesiredVersion());
+        assertEquals(replica.toJson(), restored.toJson());
+        assertFalse(new File(path + ".tmp").exists());
+    }
+
+    /*
+    **Tests_SRS_TWINREPLICA_21_021: [**If the replica was restored from its file and no patch or twin confirmed it since, and the patch is older than the replica, the function shall keep the patch and return GAP, as the twin may have been re-created.**]**
+     */
+    @Test
+    public void applyDesiredPatchResyncsRestoredReplicaOnOlderVersion() throws IOException
+    {
+        String path = new File(folder.getRoot(), "twin-replica.json").getPath();
+        new TwinReplica(path).replaceDesired("{\"desired\":{\"a\":1,\"$version\":10}}");
+        TwinReplica restored = new TwinReplica(path);
+        restored.load();
+
+        TwinReplica.PatchResult result = restored.applyDesiredPatch("{\"a\":2,\"$version\":2}", null);
+        restored.replaceDesired("{\"desired\":{\"a\":2,\"$version\":2}}");
+
+        assertEquals(TwinReplica.PatchResult.GAP, result);
+        assertFalse(restored.hasGap());
+        assertEquals(TwinReplica.PatchResult.APPLIED, restored.applyDesiredPatch("{\"a\":3,\"$version\":3}", null));
+        assertEquals(TwinReplica.PatchResult.STALE, restored.applyDesiredPatch("{\"a\":1,\"$version\":1}", null));
+    }
+
+    /*
+    **Tests_SRS_TWINREPLICA_21_014: [**If the patch is not newer than the replica, the function shall ignore it and return STALE.**]**
+    **Tests_SRS_TWINREPLICA_21_021: [**If the replica was restored from its file and no patch or twin confirmed it since, and the patch is older than the replica, the function shall keep the patch and return GAP, as the twin may have been re-created.**]**
+     */
+    @Test
+    public void applyDesiredPatchIgnoresOldVersionOnceRestoredReplicaIsConfirmed() throws IOException
+    {
+        String path = new File(folder.getRoot(), "twin-replica.json").getPath();
+        new TwinReplica(path).replaceDesired("{\"desired\":{\"a\":1,\"$version\":10}}");
+        TwinReplica restored = new TwinReplica(path);
+        restored.load();
+
+        assertEquals(TwinReplica.PatchResult.STALE, restored.applyDesiredPatch("{\"a\":1,\"$version\":10}", null));
+        assertEquals(TwinReplica.PatchResult.APPLIED, restored.applyDesiredPatch("{\"a\":2,\"$version\":11}", null));
+        assertEquals(TwinReplica.PatchResult.STALE, restored.applyDesiredPatch("{\"a\":0,\"$version\":9}", null));
+        assertFalse(restored.hasGap());
+    }
+
+    /*
+    **Tests_SRS_TWINREPLICA_21_002: [**If the replica has no file, or the file does not exist, the function shall return false.**]**
+     */
+    @Test
+    public void loadReturnsFalseWithoutFile() throws IOException
+    {
+        assertFalse(new TwinReplica(null).load());
+        assertFalse(new TwinReplica(new File(folder.getRoot(), "missing.json").getPath()).load());
+    }
+
+    /*
+    **Tests_SRS_TWINREPLICA_21_004: [**If the file is not a valid replica, the function shall throw IOException.**]**
+     */
+    @Test (expected = IOException.class)
+    public void loadThrowsOnInvalidFile() throws IOException
+    {
+        File file = folder.newFile("twin-replica.json");
+        Files.write(file.toPath(), "{\"desired\":".getBytes(Message.DEFAULT_IOTHUB_MESSAGE_CHARSET));
+
+        new TwinReplica(file.getPath()).load();
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void applyDesiredPatchThrowsOnInvalidJson()
+    {
+        new TwinReplica(null).applyDesiredPatch("[1,2]", null);
+    }
+}
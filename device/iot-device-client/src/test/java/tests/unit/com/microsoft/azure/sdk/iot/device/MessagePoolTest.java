@@ -0,0 +1,259 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device;
+
+import com.microsoft.azure.sdk.iot.device.DeviceClient;
+import com.microsoft.azure.sdk.iot.device.IotHubEventCallback;
+import com.microsoft.azure.sdk.iot.device.IotHubStatusCode;
+import com.microsoft.azure.sdk.iot.device.Message;
+import com.microsoft.azure.sdk.iot.device.MessagePool;
+import mockit.Mocked;
+import mockit.NonStrictExpectations;
+import mockit.Verifications;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+/** Unit tests for MessagePool. */
+public class MessagePoolTest
+{
+    @Mocked
+    DeviceClient mockClient;
+
+    private static IotHubEventCallback sendAndCaptureCallback(MessagePool pool, final DeviceClient client,
+            final Message message, IotHubEventCallback callback, Object context)
+    {
+        pool.sendEventAsync(client, message, callback, context);
+
+        final List<IotHubEventCallback> callbacks = new ArrayList<>();
+        new Verifications()
+        {
+            {
+                client.sendEventAsync(message, withCapture(callbacks), null);
+                times = 1;
+            }
+        };
+        return callbacks.get(0);
+    }
+
+    // Tests_SRS_MESSAGEPOOL_21_001: [If the capacity is not positive, the constructor shall throw
+    // IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorRejectsZeroCapacity()
+    {
+        new MessagePool(0);
+    }
+
+    // Tests_SRS_MESSAGEPOOL_21_003: [If the body is null, the function shall throw IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void acquireRejectsNullBody()
+    {
+        new MessagePool(1).acquire((byte[]) null);
+    }
+
+    // Tests_SRS_MESSAGEPOOL_21_002: [The constructor shall create an empty pool with the given capacity.]
+    // Tests_SRS_MESSAGEPOOL_21_004: [The function shall reuse an idle message if there is one, or create a new
+    // one otherwise, with the given body.]
+    // Tests_SRS_MESSAGEPOOL_21_007: [If the message was acquired from this pool and is in use, the function
+    // shall reset it and keep it for the next acquire if the pool is not full.]
+    // Tests_SRS_MESSAGEPOOL_21_009: [The function shall return the number of idle messages in the pool.]
+    // Tests_SRS_MESSAGE_21_013: [The function shall reset the message to the state of a new message with the
+    // given body, keeping the storage of its properties.]
+    @Test
+    public void acquireReusesReleasedMessageReset()
+    {
+        MessagePool pool = new MessagePool(1);
+        Message message = pool.acquire(new byte[] { 0x61 });
+        message.setProperty("test-name", "test-value");
+        message.setMessageId("test-message-id");
+        message.setExpiryTime(1);
+        assertThat(pool.getIdleCount(), is(0));
+
+        pool.release(message);
+        Message reused = pool.acquire(new byte[] { 0x62, 0x63 });
+
+        assertThat(reused, is(sameInstance(message)));
+        assertThat(pool.getIdleCount(), is(0));
+        assertThat(reused.getBytes(), is(new byte[] { 0x62, 0x63 }));
+        assertThat(reused.getProperty("test-name"), is(nullValue()));
+        assertThat(reused.getPropertiesView().isEmpty(), is(true));
+        assertThat(reused.getMessageId(), is(not("test-message-id")));
+        assertThat(reused.isExpired(), is(false));
+    }
+
+    // Tests_SRS_MESSAGEPOOL_21_006: [The function shall send the message with the client, with a callback that
+    // calls the given callback with its context and then releases the message.]
+    @Test
+    public void sendEventAsyncReleasesMessageAfterCallback()
+    {
+        final MessagePool pool = new MessagePool(2);
+        final Message message = pool.acquire(new byte[] { 0x61 });
+        final Object context = new Object();
+        final List<Object> contexts = new ArrayList<>();
+        IotHubEventCallback callback = new IotHubEventCallback()
+        {
+            @Override
+            public void execute(IotHubStatusCode responseStatus, Object callbackContext)
+            {
+                contexts.add(callbackContext);
+                assertThat(pool.getIdleCount(), is(0));
+            }
+        };
+
+        IotHubEventCallback sendCallback = sendAndCaptureCallback(pool, mockClient, message, callback, context);
+        sendCallback.execute(IotHubStatusCode.OK_EMPTY, null);
+        sendCallback.execute(IotHubStatusCode.OK_EMPTY, null);
+
+        assertThat(contexts.size(), is(1));
+        assertThat(contexts.get(0), is(sameInstance(context)));
+        assertThat(pool.getIdleCount(), is(1));
+        assertThat(message.getBodyBuffer(), is(nullValue()));
+    }
+
+    // Tests_SRS_MESSAGEPOOL_21_005: [If the client is null, or the message was not acquired from this pool or
+    // was already released, the function shall throw IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void sendEventAsyncRejectsMessageOfOtherPool()
+    {
+        Message message = new MessagePool(1).acquire(new byte[] { 0x61 });
+
+        new MessagePool(1).sendEventAsync(mockClient, message, null, null);
+    }
+
+    // Tests_SRS_MESSAGEPOOL_21_005: [If the client is null, or the message was not acquired from this pool or
+    // was already released, the function shall throw IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void sendEventAsyncRejectsReleasedMessage()
+    {
+        MessagePool pool = new MessagePool(1);
+        Message message = pool.acquire(new byte[] { 0x61 });
+        pool.release(message);
+
+        pool.sendEventAsync(mockClient, message, null, null);
+    }
+
+    // Tests_SRS_MESSAGEPOOL_21_005: [If the client is null, or the message was not acquired from this pool,
+    // was already released or is already being sent, the function shall throw IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void sendEventAsyncRejectsMessageBeingSent()
+    {
+        MessagePool pool = new MessagePool(1);
+        Message message = pool.acquire(new byte[] { 0x61 });
+        pool.sendEventAsync(mockClient, message, null, null);
+
+        pool.sendEventAsync(mockClient, message, null, null);
+    }
+
+    // Tests_SRS_MESSAGEPOOL_21_010: [The function shall mark the message as being sent before sending it.]
+    // Tests_SRS_MESSAGEPOOL_21_012: [If the message is being sent, the function shall throw
+    // IllegalStateException.]
+    @Test(expected = IllegalStateException.class)
+    public void releaseRejectsMessageBeingSent()
+    {
+        MessagePool pool = new MessagePool(1);
+        Message message = pool.acquire(new byte[] { 0x61 });
+        pool.sendEventAsync(mockClient, message, null, null);
+
+        pool.release(message);
+    }
+
+    // Tests_SRS_MESSAGEPOOL_21_010: [The function shall mark the message as being sent before sending it.]
+    // Tests_SRS_MESSAGEPOOL_21_012: [If the message is being sent, the function shall throw
+    // IllegalStateException.]
+    @Test
+    public void acquireDuringSendDoesNotReuseMessageInFlight() throws InterruptedException
+    {
+        final MessagePool pool = new MessagePool(1);
+        final Message message = pool.acquire(new byte[] { 0x61 });
+        IotHubEventCallback sendCallback = sendAndCaptureCallback(pool, mockClient, message, null, null);
+        final AtomicReference<Message> acquired = new AtomicReference<>();
+        final AtomicReference<RuntimeException> releaseError = new AtomicReference<>();
+
+        Thread other = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    pool.release(message);
+                }
+                catch (RuntimeException e)
+                {
+                    releaseError.set(e);
+                }
+                acquired.set(pool.acquire(new byte[] { 0x62 }));
+            }
+        };
+        other.start();
+        other.join(5000);
+
+        assertThat(releaseError.get() instanceof IllegalStateException, is(true));
+        assertThat(acquired.get(), is(not(sameInstance(message))));
+        assertThat(message.getBytes(), is(new byte[] { 0x61 }));
+
+        sendCallback.execute(IotHubStatusCode.OK_EMPTY, null);
+
+        assertThat(pool.getIdleCount(), is(1));
+        assertThat(pool.acquire(new byte[0]), is(sameInstance(message)));
+    }
+
+    // Tests_SRS_MESSAGEPOOL_21_011: [If the client throws, the function shall give the message back to the
+    // application and rethrow.]
+    @Test
+    public void sendEventAsyncGivesMessageBackIfClientThrows()
+    {
+        MessagePool pool = new MessagePool(1);
+        Message message = pool.acquire(new byte[] { 0x61 });
+        new NonStrictExpectations()
+        {
+            {
+                mockClient.sendEventAsync((Message) any, (IotHubEventCallback) any, any);
+                result = new IllegalStateException();
+            }
+        };
+
+        boolean thrown = false;
+        try
+        {
+            pool.sendEventAsync(mockClient, message, null, null);
+        }
+        catch (IllegalStateException e)
+        {
+            thrown = true;
+        }
+        pool.release(message);
+
+        assertThat(thrown, is(true));
+        assertThat(pool.getIdleCount(), is(1));
+    }
+
+    // Tests_SRS_MESSAGEPOOL_21_007: [If the message was acquired from this pool and is in use, the function
+    // shall reset it and keep it for the next acquire if the pool is not full.]
+    // Tests_SRS_MESSAGEPOOL_21_008: [Otherwise, the function shall do nothing.]
+    @Test
+    public void releaseKeepsMessagesOnceUpToCapacity()
+    {
+        MessagePool pool = new MessagePool(1);
+        Message message = pool.acquire(new byte[] { 0x61 });
+        Message otherMessage = pool.acquire(new byte[] { 0x62 });
+
+        pool.release(message);
+        pool.release(message);
+        pool.release(otherMessage);
+        pool.release(new Message(new byte[] { 0x63 }));
+        pool.release(null);
+
+        assertThat(pool.getIdleCount(), is(1));
+        assertThat(pool.acquire(new byte[0]), is(sameInstance(message)));
+    }
+}
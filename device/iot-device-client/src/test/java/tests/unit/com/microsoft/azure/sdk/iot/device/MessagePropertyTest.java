@@ -5,6 +5,7 @@ package tests.unit.com.microsoft.azure.sdk.iot.device;
 
 import static org.junit.Assert.assertThat;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
 
 import com.microsoft.azure.sdk.iot.device.MessageProperty;
 import org.junit.Test;
@@ -168,4 +169,19 @@ public class MessagePropertyTest
         final boolean expectedIsValidAppProperty = false;
         assertThat(testIsValidAppProperty, is(expectedIsValidAppProperty));
     }
+
+    // Tests_SRS_MESSAGEPROPERTY_21_001: [If the name was validated before, the function shall use the same
+    // instance of the name without validating it again.]
+    @Test
+    public void constructorSharesTheValidatedName()
+    {
+        final String name = new String("test-shared-name");
+        final String sameName = new String("test-shared-name");
+
+        MessageProperty property = new MessageProperty(name, "test-value");
+        MessageProperty otherProperty = new MessageProperty(sameName, "other-value");
+
+        assertThat(otherProperty.getName(), is(sameInstance(property.getName())));
+        assertThat(otherProperty.getValue(), is("other-value"));
+    }
 }
@@ -5,7 +5,11 @@ package tests.unit.com.microsoft.azure.sdk.iot.device;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
 import com.microsoft.azure.sdk.iot.device.Message;
 import com.microsoft.azure.sdk.iot.device.MessageProperty;
@@ -14,8 +18,11 @@ import mockit.NonStrictExpectations;
 import mockit.Verifications;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.Collection;
 
 /** Unit tests for Message. */
 public class MessageTest
@@ -260,4 +267,216 @@ public class MessageTest
         boolean expectedResult = false;
         assertThat(expectedResult, is(actualResult));
     }
-}
\ No newline at end of file
+
+    // Tests_SRS_MESSAGE_21_001: [If the messageId was not set, the function shall generate it on the first
+    // call, and return the same one afterwards.]
+    // Tests_SRS_MESSAGE_21_003: [The generated IDs shall be a random prefix drawn once per process, followed by
+    // a sequence number in the process.]
+    @Test
+    public void getMessageIdGeneratesUniqueIdOnFirstCall()
+    {
+        Message msg = new Message(new byte[0]);
+        Message otherMsg = new Message(new byte[0]);
+
+        String messageId = msg.getMessageId();
+
+        assertThat(messageId, is(notNullValue()));
+        assertThat(msg.getMessageId(), is(messageId));
+        assertThat(otherMsg.getMessageId(), is(not(messageId)));
+        assertThat(messageId.length() <= 128, is(true));
+    }
+
+    // Tests_SRS_MESSAGE_21_001: [If the messageId was not set, the function shall generate it on the first
+    // call, and return the same one afterwards.]
+    @Test
+    public void getMessageIdReturnsTheIdSet()
+    {
+        Message msg = new Message(new byte[0]);
+        Message otherMsg = new Message(new byte[0]);
+
+        msg.setMessageId("test-message-id");
+        otherMsg.setMessageId(null);
+
+        assertThat(msg.getMessageId(), is("test-message-id"));
+        assertThat(otherMsg.getMessageId(), is(nullValue()));
+    }
+
+    // Tests_SRS_MESSAGE_21_002: [If the correlationId was not set, the function shall generate it on the first
+    // call, and return the same one afterwards.]
+    @Test
+    public void getCorrelationIdGeneratesIdOnFirstCallOnly()
+    {
+        Message msg = new Message(new byte[0]);
+        Message otherMsg = new Message(new byte[0]);
+        otherMsg.setCorrelationId("test-correlation-id");
+
+        String correlationId = msg.getCorrelationId();
+
+        assertThat(correlationId, is(notNullValue()));
+        assertThat(msg.getCorrelationId(), is(correlationId));
+        assertThat(otherMsg.getCorrelationId(), is("test-correlation-id"));
+    }
+
+    // Tests_SRS_MESSAGE_21_004: [If disabled, the getters shall return null for the IDs that were not set.]
+    @Test
+    public void setAutoGenerateIdsFalseSkipsTheIds()
+    {
+        Message msg = new Message(new byte[0]);
+        msg.setCorrelationId("test-correlation-id");
+
+        Message.setAutoGenerateIds(false);
+        try
+        {
+            assertThat(msg.getMessageId(), is(nullValue()));
+            assertThat(msg.getCorrelationId(), is("test-correlation-id"));
+        }
+        finally
+        {
+            Message.setAutoGenerateIds(true);
+        }
+        assertThat(msg.getMessageId(), is(notNullValue()));
+    }
+
+    // Tests_SRS_MESSAGE_21_005: [The function shall replace the property with the same name, compared in a
+    // case-insensitive manner, and keep the properties in the order they were last set.]
+    @Test
+    public void setPropertyReplacesSameNameIgnoringCase()
+    {
+        Message msg = new Message(new byte[0]);
+        msg.setProperty("first", "1");
+        msg.setProperty("second", "2");
+
+        msg.setProperty("FIRST", "3");
+        MessageProperty[] testProperties = msg.getProperties();
+
+        assertThat(testProperties.length, is(2));
+        assertThat(testProperties[0].getName(), is("second"));
+        assertThat(testProperties[1].getName(), is("FIRST"));
+        assertThat(msg.getProperty("first"), is("3"));
+    }
+
+    // Tests_SRS_MESSAGE_21_006: [The function shall return a read only view of the message properties,
+    // without copying them.]
+    @Test
+    public void getPropertiesViewReturnsLiveReadOnlyView()
+    {
+        Message msg = new Message(new byte[0]);
+        assertThat(msg.getPropertiesView().isEmpty(), is(true));
+        msg.setProperty("test-name", "test-value");
+
+        Collection<MessageProperty> view = msg.getPropertiesView();
+        msg.setProperty("other-name", "other-value");
+
+        assertThat(view.size(), is(2));
+        assertThat(view.iterator().next().getValue(), is("test-value"));
+        try
+        {
+            view.clear();
+            fail("the properties view shall be read only");
+        }
+        catch (UnsupportedOperationException expected)
+        {
+            assertThat(msg.getPropertiesView().size(), is(2));
+        }
+    }
+
+    // Tests_SRS_MESSAGE_21_007: [If the message body is null, the constructor shall throw an IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorRejectsNullBuffer()
+    {
+        new Message((ByteBuffer) null);
+    }
+
+    // Tests_SRS_MESSAGE_21_008: [The constructor shall save a view of the buffer from its position to its
+    // limit, without copying it.]
+    // Tests_SRS_MESSAGE_21_010: [The function shall return a read only view of the message body, without
+    // copying it, or null if the message has no body.]
+    // Tests_SRS_MESSAGE_21_012: [The function shall return the size of the message body, or 0 if the message
+    // has no body.]
+    @Test
+    public void constructorSavesViewOfDirectBuffer()
+    {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(5);
+        buffer.put(new byte[] { 0x60, 0x61, 0x62, 0x63, 0x64 });
+        buffer.position(1);
+        buffer.limit(4);
+
+        Message msg = new Message(buffer);
+        buffer.put(1, (byte) 0x7A);
+        buffer.clear();
+        ByteBuffer testBody = msg.getBodyBuffer();
+
+        assertThat(msg.getBodyLength(), is(3));
+        assertThat(testBody.isReadOnly(), is(true));
+        assertThat(testBody.remaining(), is(3));
+        assertThat(testBody.get(0), is((byte) 0x7A));
+        assertThat(msg.getBytes(), is(new byte[] { 0x7A, 0x62, 0x63 }));
+    }
+
+    // Tests_SRS_MESSAGE_21_010: [The function shall return a read only view of the message body, without
+    // copying it, or null if the message has no body.]
+    // Tests_SRS_MESSAGE_21_011: [If the message body is backed by an array of exactly its size, the function
+    // shall return that array without copying it. Otherwise, the function shall return a copy of the body.]
+    // Tests_SRS_MESSAGE_21_012: [The function shall return the size of the message body, or 0 if the message
+    // has no body.]
+    @Test
+    public void getBodyArrayDoesNotCopyArrayBody()
+    {
+        final byte[] body = { 0x61, 0x62, 0x63 };
+        Message msg = new Message(body);
+        Message emptyMsg = new Message();
+
+        assertThat(msg.getBodyArray(), is(sameInstance(body)));
+        assertThat(msg.getBodyBuffer().isReadOnly(), is(true));
+        assertThat(emptyMsg.getBodyArray(), is(nullValue()));
+        assertThat(emptyMsg.getBodyBuffer(), is(nullValue()));
+        assertThat(emptyMsg.getBodyLength(), is(0));
+    }
+
+    // Tests_SRS_MESSAGE_21_011: [If the message body is backed by an array of exactly its size, the function
+    // shall return that array without copying it. Otherwise, the function shall return a copy of the body.]
+    @Test
+    public void getBodyArrayCopiesSlicedBuffer()
+    {
+        final byte[] body = { 0x61, 0x62, 0x63 };
+        ByteBuffer buffer = ByteBuffer.wrap(body);
+        buffer.position(1);
+
+        Message msg = new Message(buffer);
+        byte[] testBody = msg.getBodyArray();
+
+        assertThat(testBody, is(new byte[] { 0x62, 0x63 }));
+        assertThat(testBody, is(not(sameInstance(body))));
+    }
+
+    // Tests_SRS_MESSAGE_21_009: [The constructor shall read the bytes available in the stream into the message body.]
+    @Test
+    public void constructorReadsStreamIntoBody()
+    {
+        ByteArrayInputStream stream = new ByteArrayInputStream(new byte[] { 0x61, 0x62, 0x63 });
+        stream.skip(1);
+
+        Message msg = new Message(stream);
+
+        assertThat(msg.getBytes(), is(new byte[] { 0x62, 0x63 }));
+        assertThat(stream.available(), is(0));
+    }
+
+    // Tests_SRS_MESSAGE_21_014: [The function shall save the content type, sent by the transports as the
+    // content type system property of the message.]
+    // Tests_SRS_MESSAGE_21_015: [The function shall save the content encoding, sent by the transports as the
+    // content encoding system property of the message.]
+    @Test
+    public void setContentTypeAndEncodingSavesThem()
+    {
+        Message msg = new Message(new byte[] { 0x61 });
+        assertThat(msg.getContentType(), is(nullValue()));
+        assertThat(msg.getContentEncoding(), is(nullValue()));
+
+        msg.setContentType("application/json");
+        msg.setContentEncoding("utf-8");
+
+        assertThat(msg.getContentType(), is("application/json"));
+        assertThat(msg.getContentEncoding(), is("utf-8"));
+    }
+}
@@ -0,0 +1,171 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.auth;
+
+import com.microsoft.azure.sdk.iot.device.DeviceClientConfig;
+import com.microsoft.azure.sdk.iot.device.auth.IotHubSasToken;
+import com.microsoft.azure.sdk.iot.device.auth.IotHubSasTokenCache;
+import mockit.Deencapsulation;
+import org.junit.Test;
+
+import java.net.URISyntaxException;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/** Unit tests for IotHubSasTokenCache. */
+public class IotHubSasTokenCacheTest
+{
+    private static final String IOTHUB_HOSTNAME = "test.iothub.azure-devices.net";
+    private static final String DEVICE_ID = "test-device";
+    private static final String DEVICE_KEY = "dGVzdC1kZXZpY2Uta2V5";
+    private static final String SAS_TOKEN =
+            "SharedAccessSignature sr=test.iothub.azure-devices.net%2Fdevices%2Ftest-device&sig=c2ln&se=1900000000";
+
+    private static DeviceClientConfig createConfig() throws URISyntaxException
+    {
+        return new DeviceClientConfig(IOTHUB_HOSTNAME, DEVICE_ID, DEVICE_KEY, null);
+    }
+
+    private static long expiryTimeOf(IotHubSasToken token)
+    {
+        String tokenStr = token.toString();
+        int start = tokenStr.indexOf("se=") + 3;
+        int end = tokenStr.indexOf('&', start);
+        return Long.parseLong((end == -1) ? tokenStr.substring(start) : tokenStr.substring(start, end));
+    }
+
+    // Tests_SRS_IOTHUBSASTOKENCACHE_21_001: [If the config is null, the constructor shall throw IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorThrowsOnNullConfig()
+    {
+        new IotHubSasTokenCache(null);
+    }
+
+    // Tests_SRS_IOTHUBSASTOKENCACHE_21_002: [The constructor shall save the config, with no token.]
+    // Tests_SRS_IOTHUBSASTOKENCACHE_21_003: [If there is no token, the renewal time was reached, or the token
+    // lifetime changed, the function shall create a new token that expires after the token lifetime.]
+    @Test
+    public void getTokenCreatesTokenValidForTheTokenLifetime() throws URISyntaxException
+    {
+        DeviceClientConfig config = createConfig();
+        config.setTokenValidSecs(1800);
+        long startSecs = System.currentTimeMillis() / 1000L;
+
+        IotHubSasToken token = new IotHubSasTokenCache(config).getToken();
+
+        long expiryTime = expiryTimeOf(token);
+        assertTrue(expiryTime >= startSecs + 1800);
+        assertTrue(expiryTime <= System.currentTimeMillis() / 1000L + 1801);
+    }
+
+    // Tests_SRS_IOTHUBSASTOKENCACHE_21_005: [Otherwise, the function shall return the same token.]
+    @Test
+    public void getTokenReusesTokenUntilRenewal() throws URISyntaxException
+    {
+        IotHubSasTokenCache cache = new IotHubSasTokenCache(createConfig());
+
+        IotHubSasToken token = cache.getToken();
+
+        assertThat(cache.getToken(), is(sameInstance(token)));
+        assertThat(cache.getToken(), is(sameInstance(token)));
+    }
+
+    // Tests_SRS_IOTHUBSASTOKENCACHE_21_005: [Otherwise, the function shall return the same token.]
+    @Test
+    public void getTokenReusesSharedAccessToken() throws URISyntaxException
+    {
+        IotHubSasTokenCache cache =
+                new IotHubSasTokenCache(new DeviceClientConfig(IOTHUB_HOSTNAME, DEVICE_ID, null, SAS_TOKEN));
+
+        IotHubSasToken token = cache.getToken();
+
+        assertThat(token.toString(), is(SAS_TOKEN));
+        assertThat(cache.getToken(), is(sameInstance(token)));
+    }
+
+    // Tests_SRS_IOTHUBSASTOKENCACHE_21_003: [If there is no token, the renewal time was reached, or the token
+    // lifetime changed, the function shall create a new token that expires after the token lifetime.]
+    // Tests_SRS_IOTHUBSASTOKENCACHE_21_004: [The new token shall be renewed once the renewal fraction of
+    // its lifetime has elapsed.]
+    @Test
+    public void getTokenRenewsTokenOnceRenewalFractionElapsed() throws URISyntaxException
+    {
+        DeviceClientConfig config = createConfig();
+        config.setTokenValidSecs(1000);
+        IotHubSasTokenCache cache = new IotHubSasTokenCache(config);
+        long startSecs = System.currentTimeMillis() / 1000L;
+        IotHubSasToken token = cache.getToken();
+
+        long renewalTime = Deencapsulation.getField(cache, "renewalTime");
+        Deencapsulation.setField(cache, "renewalTime", startSecs - 1);
+        IotHubSasToken renewedToken = cache.getToken();
+
+        assertTrue(renewalTime >= startSecs + 750);
+        assertTrue(renewalTime <= System.currentTimeMillis() / 1000L + 750);
+        assertThat(renewedToken, is(not(sameInstance(token))));
+    }
+
+    // Tests_SRS_IOTHUBSASTOKENCACHE_21_004: [The new token shall be renewed once the renewal fraction of
+    // its lifetime has elapsed.]
+    @Test
+    public void getTokenRenewsTokenOnEveryUseIfFractionIsZero() throws URISyntaxException
+    {
+        DeviceClientConfig config = createConfig();
+        config.setSasTokenRenewalFraction(0);
+        IotHubSasTokenCache cache = new IotHubSasTokenCache(config);
+
+        IotHubSasToken token = cache.getToken();
+
+        assertThat(cache.getToken(), is(not(sameInstance(token))));
+    }
+
+    // Tests_SRS_IOTHUBSASTOKENCACHE_21_003: [If there is no token, the renewal time was reached, or the token
+    // lifetime changed, the function shall create a new token that expires after the token lifetime.]
+    @Test
+    public void getTokenRenewsTokenIfLifetimeChanged() throws URISyntaxException
+    {
+        DeviceClientConfig config = createConfig();
+        IotHubSasTokenCache cache = new IotHubSasTokenCache(config);
+        IotHubSasToken token = cache.getToken();
+
+        config.setTokenValidSecs(60);
+        IotHubSasToken renewedToken = cache.getToken();
+
+        assertThat(renewedToken, is(not(sameInstance(token))));
+        assertTrue(expiryTimeOf(renewedToken) <= System.currentTimeMillis() / 1000L + 61);
+    }
+
+    // Tests_SRS_IOTHUBSASTOKENCACHE_21_007: [The function shall return the expiry time of the current token.]
+    // Tests_SRS_IOTHUBSASTOKENCACHE_21_008: [The function shall return the renewal time of the current token.]
+    @Test
+    public void gettersReturnTheTimesOfTheCurrentToken() throws URISyntaxException
+    {
+        DeviceClientConfig config = createConfig();
+        config.setTokenValidSecs(1000);
+        IotHubSasTokenCache cache = new IotHubSasTokenCache(config);
+        long startSecs = System.currentTimeMillis() / 1000L;
+
+        IotHubSasToken token = cache.getToken();
+
+        assertThat(cache.getExpiryTime(), is(expiryTimeOf(token)));
+        assertTrue(cache.getRenewalTime() >= startSecs + 750);
+        assertTrue(cache.getRenewalTime() < cache.getExpiryTime());
+    }
+
+    // Tests_SRS_IOTHUBSASTOKENCACHE_21_006: [The function shall drop the token, so the next token is a new one.]
+    @Test
+    public void invalidateRenewsTokenOnNextUse() throws URISyntaxException
+    {
+        IotHubSasTokenCache cache = new IotHubSasTokenCache(createConfig());
+        IotHubSasToken token = cache.getToken();
+
+        cache.invalidate();
+
+        assertThat(cache.getToken(), is(not(sameInstance(token))));
+    }
+}
@@ -14,6 +14,7 @@ import org.junit.Test;
 
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 /** Unit tests for SignatureHelper. */
 public class SignatureHelperTest
@@ -69,6 +70,33 @@ public class SignatureHelperTest
         assertThat(testEncryptedSig, is(expectedEncryptedSig));
     }
 
+    // Tests_SRS_SIGNATUREHELPER_11_005: [The function shall use the device key as the secret for the algorithm.]
+    // Tests_SRS_SIGNATUREHELPER_21_001: [The function shall reuse the Mac of the calling thread, and initialize
+    // it again only if the device key changed.]
+    @Test
+    public void encryptSignatureReusesMacAcrossDeviceKeys()
+    {
+        final byte[] testSig = "what do ya want for nothing?".getBytes(UTF8);
+        final byte[] deviceKey = "Jefe".getBytes(UTF8);
+        final byte[] otherSig = "Hi There".getBytes(UTF8);
+        final byte[] otherDeviceKey = new byte[20];
+        Arrays.fill(otherDeviceKey, (byte) 0x0b);
+
+        byte[] firstEncryptedSig = SignatureHelper.encryptSignatureHmacSha256(testSig, deviceKey);
+        byte[] otherEncryptedSig = SignatureHelper.encryptSignatureHmacSha256(otherSig, otherDeviceKey);
+        otherDeviceKey[0] = 0;
+        byte[] secondEncryptedSig = SignatureHelper.encryptSignatureHmacSha256(testSig, deviceKey);
+
+        final byte[] expectedOtherEncryptedSig =
+                { (byte) 0xb0, 0x34, 0x4c, 0x61, (byte) 0xd8, (byte) 0xdb, 0x38,
+                        0x53, 0x5c, (byte) 0xa8, (byte) 0xaf, (byte) 0xce, (byte) 0xaf,
+                        0x0b, (byte) 0xf1, 0x2b, (byte) 0x88, 0x1d, (byte) 0xc2, 0x00,
+                        (byte) 0xc9, (byte) 0x83, 0x3d, (byte) 0xa7, 0x26, (byte) 0xe9,
+                        0x37, 0x6c, 0x2e, 0x32, (byte) 0xcf, (byte) 0xf7 };
+        assertThat(otherEncryptedSig, is(expectedOtherEncryptedSig));
+        assertThat(secondEncryptedSig, is(firstEncryptedSig));
+    }
+
     // Tests_SRS_SIGNATUREHELPER_11_006: [The function shall encode the signature using Base64.]
     @Test
     public void encodeSignatureUsingBase64()
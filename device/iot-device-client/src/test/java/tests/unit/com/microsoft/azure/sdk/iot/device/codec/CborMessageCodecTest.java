@@ -0,0 +1,141 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.codec;
+
+import com.microsoft.azure.sdk.iot.device.Message;
+import com.microsoft.azure.sdk.iot.device.codec.CborMessageCodec;
+import com.microsoft.azure.sdk.iot.device.codec.JsonMessageCodec;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/** Unit tests for CborMessageCodec. */
+public class CborMessageCodecTest
+{
+    private static class SensorRecord
+    {
+        String deviceId;
+        long timestamp;
+        double temperature;
+        int[] samples;
+        boolean alarm;
+    }
+
+    private static SensorRecord createRecord()
+    {
+        SensorRecord record = new SensorRecord();
+        record.deviceId = "sensor-1";
+        record.timestamp = 1500000000000L;
+        record.temperature = 21.5;
+        record.samples = new int[] { 0, 23, -24, 1000, 70000 };
+        return record;
+    }
+
+    // Tests_SRS_CBORMESSAGECODEC_21_001: [If gson is null, the constructor shall throw IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorRejectsNullGson()
+    {
+        new CborMessageCodec(null);
+    }
+
+    // Tests_SRS_CBORMESSAGECODEC_21_002: [The function shall return "application/cbor".]
+    // Tests_SRS_CBORMESSAGECODEC_21_003: [The function shall return null, as the content is binary.]
+    // Tests_SRS_MESSAGECODEC_21_002: [The function shall set the content type and encoding of the message to
+    // the ones of the codec.]
+    @Test
+    public void toMessageSetsBinaryContentType()
+    {
+        Message message = new CborMessageCodec().toMessage(createRecord());
+
+        assertThat(message.getContentType(), is("application/cbor"));
+        assertThat(message.getContentEncoding(), is(nullValue()));
+    }
+
+    // Tests_SRS_CBORMESSAGECODEC_21_004: [The function shall encode the value as CBOR, mapped as gson maps it
+    // to JSON, with the integers and floating point numbers in their shortest lossless encoding.]
+    @Test
+    public void encodeUsesShortestEncodings()
+    {
+        CborMessageCodec codec = new CborMessageCodec();
+
+        assertThat(codec.encode(10), is(new byte[] { 0x0A }));
+        assertThat(codec.encode(-500), is(new byte[] { 0x39, 0x01, (byte) 0xF3 }));
+        assertThat(codec.encode(1.5), is(new byte[] { (byte) 0xFA, 0x3F, (byte) 0xC0, 0x00, 0x00 }));
+        assertThat(codec.encode(0.1),
+                is(new byte[] { (byte) 0xFB, 0x3F, (byte) 0xB9, (byte) 0x99, (byte) 0x99, (byte) 0x99, (byte) 0x99, (byte) 0x99, (byte) 0x9A }));
+        assertThat(codec.encode("a"), is(new byte[] { 0x61, 0x61 }));
+        assertThat(codec.encode(null), is(new byte[] { (byte) 0xF6 }));
+        assertThat(codec.encode(new boolean[] { true, false }), is(new byte[] { (byte) 0x82, (byte) 0xF5, (byte) 0xF4 }));
+    }
+
+    // Tests_SRS_CBORMESSAGECODEC_21_004: [The function shall encode the value as CBOR, mapped as gson maps it
+    // to JSON, with the integers and floating point numbers in their shortest lossless encoding.]
+    // Tests_SRS_CBORMESSAGECODEC_21_005: [The function shall decode the CBOR item to the type, mapped as gson
+    // maps it from JSON.]
+    @Test
+    public void decodeReturnsEncodedValueInFewerBytesThanJson() throws IOException
+    {
+        CborMessageCodec codec = new CborMessageCodec();
+        SensorRecord record = createRecord();
+
+        byte[] body = codec.encode(record);
+        SensorRecord decoded = codec.decode(body, SensorRecord.class);
+
+        assertThat(decoded.deviceId, is(record.deviceId));
+        assertThat(decoded.timestamp, is(record.timestamp));
+        assertThat(decoded.temperature, is(record.temperature));
+        assertThat(decoded.samples, is(record.samples));
+        assertThat(decoded.alarm, is(false));
+        assertTrue(body.length < new JsonMessageCodec().encode(record).length);
+    }
+
+    // Tests_SRS_CBORMESSAGECODEC_21_005: [The function shall decode the CBOR item to the type, mapped as gson
+    // maps it from JSON.]
+    @Test
+    public void decodeAcceptsIndefiniteLengthsTagsAndHalfFloats() throws IOException
+    {
+        // {_ "a": [_ 1, -2], "b": (_ "x", "y"), "c": 1(1.5 as half float) }
+        byte[] body = { (byte) 0xBF, 0x61, 0x61, (byte) 0x9F, 0x01, 0x21, (byte) 0xFF,
+                0x61, 0x62, 0x7F, 0x61, 0x78, 0x61, 0x79, (byte) 0xFF,
+                0x61, 0x63, (byte) 0xC1, (byte) 0xF9, 0x3E, 0x00, (byte) 0xFF };
+
+        Map<?, ?> decoded = new CborMessageCodec().decode(body, Map.class);
+
+        assertThat(((List<?>) decoded.get("a")).size(), is(2));
+        assertThat(((Number) ((List<?>) decoded.get("a")).get(1)).intValue(), is(-2));
+        assertThat((String) decoded.get("b"), is("xy"));
+        assertThat(((Number) decoded.get("c")).doubleValue(), is(1.5));
+    }
+
+    // Tests_SRS_CBORMESSAGECODEC_21_006: [If the body is not a single valid CBOR item, the function shall throw
+    // IOException.]
+    @Test(expected = IOException.class)
+    public void decodeThrowsOnTruncatedItem() throws IOException
+    {
+        new CborMessageCodec().decode(new byte[] { (byte) 0x82, 0x01 }, int[].class);
+    }
+
+    // Tests_SRS_CBORMESSAGECODEC_21_006: [If the body is not a single valid CBOR item, the function shall throw
+    // IOException.]
+    @Test(expected = IOException.class)
+    public void decodeThrowsOnLengthPastTheBody() throws IOException
+    {
+        new CborMessageCodec().decode(new byte[] { 0x7A, 0x7F, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x61 }, String.class);
+    }
+
+    // Tests_SRS_CBORMESSAGECODEC_21_006: [If the body is not a single valid CBOR item, the function shall throw
+    // IOException.]
+    @Test(expected = IOException.class)
+    public void decodeThrowsOnTrailingBytes() throws IOException
+    {
+        new CborMessageCodec().decode(new byte[] { 0x01, 0x02 }, Integer.class);
+    }
+}
@@ -0,0 +1,81 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.codec;
+
+import com.google.gson.Gson;
+import com.microsoft.azure.sdk.iot.device.Message;
+import com.microsoft.azure.sdk.iot.device.codec.JsonMessageCodec;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/** Unit tests for JsonMessageCodec. */
+public class JsonMessageCodecTest
+{
+    private static class SensorRecord
+    {
+        String deviceId;
+        long timestamp;
+        double temperature;
+        boolean alarm;
+    }
+
+    // Tests_SRS_JSONMESSAGECODEC_21_001: [If gson is null, the constructor shall throw IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorRejectsNullGson()
+    {
+        new JsonMessageCodec(null);
+    }
+
+    // Tests_SRS_JSONMESSAGECODEC_21_002: [The function shall return "application/json".]
+    // Tests_SRS_JSONMESSAGECODEC_21_003: [The function shall return "utf-8".]
+    // Tests_SRS_JSONMESSAGECODEC_21_004: [The function shall encode the value as a JSON document in UTF-8.]
+    // Tests_SRS_MESSAGECODEC_21_001: [The function shall create a message with the encoded value as its body.]
+    // Tests_SRS_MESSAGECODEC_21_002: [The function shall set the content type and encoding of the message to
+    // the ones of the codec.]
+    @Test
+    public void toMessageEncodesJsonWithContentType()
+    {
+        SensorRecord record = new SensorRecord();
+        record.deviceId = "sensor-1";
+        record.timestamp = 1500000000000L;
+        record.temperature = 21.5;
+
+        Message message = new JsonMessageCodec().toMessage(record);
+
+        assertThat(new String(message.getBytes(), StandardCharsets.UTF_8),
+                is("{\"deviceId\":\"sensor-1\",\"timestamp\":1500000000000,\"temperature\":21.5,\"alarm\":false}"));
+        assertThat(message.getContentType(), is("application/json"));
+        assertThat(message.getContentEncoding(), is("utf-8"));
+    }
+
+    // Tests_SRS_JSONMESSAGECODEC_21_005: [The function shall decode the JSON document in UTF-8 to the type.]
+    @Test
+    public void decodeReturnsEncodedValue() throws IOException
+    {
+        JsonMessageCodec codec = new JsonMessageCodec(new Gson());
+        SensorRecord record = new SensorRecord();
+        record.deviceId = "sensor-2";
+        record.temperature = -3.25;
+        record.alarm = true;
+
+        SensorRecord decoded = codec.decode(codec.encode(record), SensorRecord.class);
+
+        assertThat(decoded.deviceId, is("sensor-2"));
+        assertThat(decoded.temperature, is(-3.25));
+        assertThat(decoded.alarm, is(true));
+    }
+
+    // Tests_SRS_JSONMESSAGECODEC_21_006: [If the body is not a valid JSON document, the function shall throw
+    // IOException.]
+    @Test(expected = IOException.class)
+    public void decodeThrowsOnInvalidJson() throws IOException
+    {
+        new JsonMessageCodec().decode("{\"deviceId\":".getBytes(StandardCharsets.UTF_8), SensorRecord.class);
+    }
+}
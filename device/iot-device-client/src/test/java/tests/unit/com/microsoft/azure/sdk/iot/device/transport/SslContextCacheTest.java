@@ -0,0 +1,214 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport;
+
+import com.microsoft.azure.sdk.iot.device.DefaultCertificate;
+import com.microsoft.azure.sdk.iot.device.transport.SslContextCache;
+import mockit.Deencapsulation;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.cert.CertificateFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Unit tests for SslContextCache.
+ */
+public class SslContextCacheTest
+{
+    private byte[] pemCertificate;
+    private final List<File> files = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException
+    {
+        File defaultCertificate = new File(new DefaultCertificate().getDefaultCertificate());
+        this.pemCertificate = Files.readAllBytes(defaultCertificate.toPath());
+        defaultCertificate.delete();
+        SslContextCache.getInstance().clear();
+    }
+
+    @After
+    public void tearDown()
+    {
+        Deencapsulation.setField(SslContextCache.getInstance(), "fileCheckIntervalMillis", 60 * 1000L);
+        for (File file : this.files)
+        {
+            file.delete();
+        }
+        SslContextCache.getInstance().clear();
+    }
+
+    private String writeCertificate(byte[] content) throws IOException
+    {
+        File file = File.createTempFile("trusted", ".crt");
+        this.files.add(file);
+        Files.write(file.toPath(), content);
+        return file.getPath();
+    }
+
+    private byte[] derCertificate() throws Exception
+    {
+        return CertificateFactory.getInstance("X.509")
+                .generateCertificate(new ByteArrayInputStream(this.pemCertificate)).getEncoded();
+    }
+
+    // Tests_SRS_SSLCONTEXTCACHE_21_001: [The function shall return the same cache on every call.]
+    @Test
+    public void getInstanceReturnsOneCachePerProcess()
+    {
+        assertSame(SslContextCache.getInstance(), SslContextCache.getInstance());
+    }
+
+    // Tests_SRS_SSLCONTEXTCACHE_21_002: [If the certificate path is null or empty, the function shall throw IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void getSslContextThrowsOnNullPath() throws IOException
+    {
+        SslContextCache.getInstance().getSslContext(null);
+    }
+
+    // Tests_SRS_SSLCONTEXTCACHE_21_002: [If the certificate path is null or empty, the function shall throw IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void getSslContextThrowsOnEmptyPath() throws IOException
+    {
+        SslContextCache.getInstance().getSslContext("");
+    }
+
+    // Tests_SRS_SSLCONTEXTCACHE_21_003: [If the file does not exist, the function shall throw IOException.]
+    @Test(expected = IOException.class)
+    public void getSslContextThrowsOnMissingFile() throws IOException
+    {
+        SslContextCache.getInstance().getSslContext("missing-" + System.nanoTime() + ".crt");
+    }
+
+    // Tests_SRS_SSLCONTEXTCACHE_21_004: [If the size and the modification time of the file did not change
+    // since the last call for the same path, the function shall return the cached context without reading the file.]
+    // Tests_SRS_SSLCONTEXTCACHE_21_007: [The function shall create a TLS context trusting all the
+    // certificates in the file, PEM or DER encoded.]
+    @Test
+    public void getSslContextReturnsTheCachedContextForTheSamePath() throws IOException
+    {
+        String path = writeCertificate(this.pemCertificate);
+
+        SSLContext first = SslContextCache.getInstance().getSslContext(path);
+        SSLContext second = SslContextCache.getInstance().getSslContext(path);
+
+        assertNotNull(first);
+        assertSame(first, second);
+    }
+
+    // Tests_SRS_SSLCONTEXTCACHE_21_005: [The function shall return the cached context for the hash of the file
+    // content, and only create a new context if no file with the same content was loaded before.]
+    @Test
+    public void getSslContextSharesTheContextForTheSameContent() throws IOException
+    {
+        String path1 = writeCertificate(this.pemCertificate);
+        String path2 = writeCertificate(this.pemCertificate);
+
+        SSLContext first = SslContextCache.getInstance().getSslContext(path1);
+        SSLContext second = SslContextCache.getInstance().getSslContext(path2);
+
+        assertSame(first, second);
+    }
+
+    // Tests_SRS_SSLCONTEXTCACHE_21_005: [The function shall return the cached context for the hash of the file
+    // content, and only create a new context if no file with the same content was loaded before.]
+    // Tests_SRS_SSLCONTEXTCACHE_21_007: [The function shall create a TLS context trusting all the
+    // certificates in the file, PEM or DER encoded.]
+    @Test
+    public void getSslContextReloadsAChangedFile() throws Exception
+    {
+        Deencapsulation.setField(SslContextCache.getInstance(), "fileCheckIntervalMillis", 0L);
+        String path = writeCertificate(this.pemCertificate);
+        SSLContext first = SslContextCache.getInstance().getSslContext(path);
+
+        Files.write(new File(path).toPath(), derCertificate());
+        SSLContext second = SslContextCache.getInstance().getSslContext(path);
+
+        assertNotNull(second);
+        assertNotSame(first, second);
+    }
+
+    // Tests_SRS_SSLCONTEXTCACHE_21_011: [If the file was checked less than a minute ago for the same path,
+    // the function shall return the cached context without checking the file.]
+    @Test
+    public void getSslContextDoesNotCheckTheFileAgainWithinAMinute() throws Exception
+    {
+        String path = writeCertificate(this.pemCertificate);
+        SSLContext first = SslContextCache.getInstance().getSslContext(path);
+
+        new File(path).delete();
+        SSLContext second = SslContextCache.getInstance().getSslContext(path);
+
+        assertSame(first, second);
+    }
+
+    // Tests_SRS_SSLCONTEXTCACHE_21_012: [The function shall return the default context of the Java runtime,
+    // which trusts the trust store set by the `javax.net.ssl.trustStore` system property, or else the CA
+    // certificates of the runtime.]
+    @Test
+    public void getDefaultSslContextReturnsTheRuntimeDefaultContext() throws Exception
+    {
+        SSLContext sslContext = SslContextCache.getInstance().getDefaultSslContext();
+
+        assertSame(SSLContext.getDefault(), sslContext);
+        assertSame(sslContext, SslContextCache.getInstance().getDefaultSslContext());
+    }
+
+    // Tests_SRS_SSLCONTEXTCACHE_21_006: [The function shall remove all the cached contexts.]
+    @Test
+    public void clearRemovesTheCachedContexts() throws IOException
+    {
+        String path = writeCertificate(this.pemCertificate);
+        SSLContext first = SslContextCache.getInstance().getSslContext(path);
+
+        SslContextCache.getInstance().clear();
+        SSLContext second = SslContextCache.getInstance().getSslContext(path);
+
+        assertNotSame(first, second);
+    }
+
+    // Tests_SRS_SSLCONTEXTCACHE_21_009: [If the context is null, the function shall throw IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void getSocketFactoryThrowsOnNullContext()
+    {
+        SslContextCache.getInstance().getSocketFactory(null);
+    }
+
+    // Tests_SRS_SSLCONTEXTCACHE_21_010: [The function shall return the cached socket factory of the context,
+    // and only create a new one on the first call for the context.]
+    @Test
+    public void getSocketFactoryReturnsTheSameFactoryForTheSameContext() throws IOException
+    {
+        String path = writeCertificate(this.pemCertificate);
+        SSLContext sslContext = SslContextCache.getInstance().getSslContext(path);
+
+        SSLSocketFactory first = SslContextCache.getInstance().getSocketFactory(sslContext);
+        SSLSocketFactory second = SslContextCache.getInstance().getSocketFactory(sslContext);
+
+        assertNotNull(first);
+        assertSame(first, second);
+    }
+
+    // Tests_SRS_SSLCONTEXTCACHE_21_008: [If the file does not contain any certificate, the function shall throw IOException.]
+    @Test(expected = IOException.class)
+    public void getSslContextThrowsIfNoCertificate() throws IOException
+    {
+        String path = writeCertificate("not a certificate".getBytes("UTF-8"));
+
+        SslContextCache.getInstance().getSslContext(path);
+    }
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license. See LICENSE file in the project root for full license information.
+ */
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport.amqps;
+
+import com.microsoft.azure.sdk.iot.device.transport.amqps.AmqpsEventLoopGroup;
+import com.microsoft.azure.sdk.iot.device.transport.amqps.AmqpsIotHubConnection;
+import mockit.*;
+import org.apache.qpid.proton.Proton;
+import org.apache.qpid.proton.engine.BaseHandler;
+import org.apache.qpid.proton.engine.Collector;
+import org.apache.qpid.proton.engine.Event;
+import org.apache.qpid.proton.engine.Handler;
+import org.apache.qpid.proton.engine.HandlerException;
+import org.apache.qpid.proton.reactor.Reactor;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Unit tests for AmqpsEventLoopGroup.
+ */
+public class AmqpsEventLoopGroupTest
+{
+    @Mocked
+    Proton mockProton;
+
+    @Mocked
+    Reactor mockReactor;
+
+    @Mocked
+    Executors mockExecutors;
+
+    @Mocked
+    ExecutorService mockExecutorService;
+
+    @Mocked
+    Event mockEvent;
+
+    @Mocked
+    Collector mockCollector;
+
+    @Mocked
+    AmqpsIotHubConnection mockConnection1;
+
+    @Mocked
+    AmqpsIotHubConnection mockConnection2;
+
+    @Mocked
+    AmqpsIotHubConnection mockConnection3;
+
+    private void baseExpectations() throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                Proton.reactor((Handler) any);
+                result = mockReactor;
+                Executors.newFixedThreadPool(anyInt, (ThreadFactory) any);
+                result = mockExecutorService;
+                mockEvent.getReactor();
+                result = mockReactor;
+                mockReactor.collector();
+                result = mockCollector;
+            }
+        };
+    }
+
+    private AmqpsEventLoopGroup createGroup(int loopCount)
+    {
+        return Deencapsulation.newInstance(AmqpsEventLoopGroup.class, new Class[] {int.class}, loopCount);
+    }
+
+    private BaseHandler getEventLoop(AmqpsEventLoopGroup group, int index)
+    {
+        Object[] eventLoops = Deencapsulation.getField(group, "eventLoops");
+        return (BaseHandler) eventLoops[index];
+    }
+
+    private int getLoad(AmqpsEventLoopGroup group, int index)
+    {
+        AtomicInteger load = Deencapsulation.getField(getEventLoop(group, index), "load");
+        return load.get();
+    }
+
+    // Tests_SRS_AMQPSEVENTLOOPGROUP_21_001: [The function shall return the same group on every call, creating it
+    // with one event loop per available processor on the first call.]
+    @Test
+    public void getInstanceReturnsOneGroupPerProcess()
+    {
+        AmqpsEventLoopGroup group = AmqpsEventLoopGroup.getInstance();
+
+        assertSame(group, AmqpsEventLoopGroup.getInstance());
+        assertEquals(Runtime.getRuntime().availableProcessors(), group.getLoopCount());
+    }
+
+    // Tests_SRS_AMQPSEVENTLOOPGROUP_21_002: [The constructor shall throw IllegalArgumentException if the number of event loops is not positive.]
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorThrowsIfNoEventLoops()
+    {
+        createGroup(0);
+    }
+
+    // Tests_SRS_AMQPSEVENTLOOPGROUP_21_003: [The function shall return the number of event loops in the group.]
+    @Test
+    public void getLoopCountReturnsTheNumberOfEventLoops()
+    {
+        AmqpsEventLoopGroup group = createGroup(3);
+
+        assertEquals(3, group.getLoopCount());
+    }
+
+    // Tests_SRS_AMQPSEVENTLOOPGROUP_21_004: [If the connection is null, the function shall throw IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void registerThrowsOnNullConnection() throws IOException
+    {
+        AmqpsEventLoopGroup group = createGroup(1);
+
+        group.register(null);
+    }
+
+    // Tests_SRS_AMQPSEVENTLOOPGROUP_21_005: [If the connection is already registered, the function shall do nothing.]
+    @Test
+    public void registerTwiceDoesNothing() throws IOException
+    {
+        baseExpectations();
+        AmqpsEventLoopGroup group = createGroup(2);
+
+        group.register(mockConnection1);
+        group.register(mockConnection1);
+
+        assertEquals(1, getLoad(group, 0));
+        assertEquals(0, getLoad(group, 1));
+        new Verifications()
+        {
+            {
+                mockReactor.wakeup();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSEVENTLOOPGROUP_21_006: [The function shall assign the connection to the event loop with
+    // the fewest connections, starting the event loop if it is not running yet.]
+    // Tests_SRS_AMQPSEVENTLOOPGROUP_21_007: [The function shall queue the connection to be connected by the
+    // event loop thread, and wake the event loop up.]
+    @Test
+    public void registerAssignsTheLeastLoadedEventLoop() throws IOException
+    {
+        baseExpectations();
+        AmqpsEventLoopGroup group = createGroup(2);
+
+        group.register(mockConnection1);
+        group.register(mockConnection2);
+        group.register(mockConnection3);
+
+        assertEquals(2, getLoad(group, 0));
+        assertEquals(1, getLoad(group, 1));
+        new Verifications()
+        {
+            {
+                Proton.reactor((Handler) any);
+                times = 2;
+                Executors.newFixedThreadPool(2, (ThreadFactory) any);
+                times = 1;
+                mockExecutorService.submit((Callable) any);
+                times = 2;
+                mockReactor.wakeup();
+                times = 3;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSEVENTLOOPGROUP_21_008: [If the connection is not registered, the function shall do nothing.]
+    @Test
+    public void unregisterIgnoresUnknownConnections() throws IOException
+    {
+        baseExpectations();
+        AmqpsEventLoopGroup group = createGroup(1);
+        group.register(mockConnection1);
+
+        group.unregister(mockConnection2);
+        group.unregister(null);
+
+        assertEquals(1, getLoad(group, 0));
+    }
+
+    // Tests_SRS_AMQPSEVENTLOOPGROUP_21_009: [The function shall remove the connection from its event loop and
+    // release its slot, so the next connections are assigned to the least loaded event loop.]
+    @Test
+    public void unregisterReleasesTheSlot() throws IOException
+    {
+        baseExpectations();
+        AmqpsEventLoopGroup group = createGroup(2);
+        group.register(mockConnection1);
+        group.register(mockConnection2);
+
+        group.unregister(mockConnection1);
+        group.register(mockConnection3);
+
+        Map<AmqpsIotHubConnection, Object> assignments = Deencapsulation.getField(group, "assignments");
+        assertSame(getEventLoop(group, 0), assignments.get(mockConnection3));
+        assertEquals(1, getLoad(group, 0));
+        assertEquals(1, getLoad(group, 1));
+    }
+
+    // Tests_SRS_AMQPSEVENTLOOPGROUP_21_010: [The event loop shall keep its reactor running while it has no connections.]
+    @Test
+    public void eventLoopKeepsTheReactorAlive() throws IOException
+    {
+        baseExpectations();
+        AmqpsEventLoopGroup group = createGroup(1);
+        final BaseHandler eventLoop = getEventLoop(group, 0);
+
+        eventLoop.onReactorInit(mockEvent);
+        eventLoop.onTimerTask(mockEvent);
+
+        new Verifications()
+        {
+            {
+                mockReactor.schedule(anyInt, eventLoop);
+                times = 2;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSEVENTLOOPGROUP_21_011: [When the reactor is quiesced, the event loop shall connect the
+    // queued connections using its reactor.]
+    // Tests_SRS_AMQPSEVENTLOOPGROUP_21_012: [When the reactor is quiesced, the event loop shall forward the
+    // event to each of its connections.]
+    @Test
+    public void eventLoopConnectsQueuedConnectionsAndForwardsQuiesced() throws IOException
+    {
+        baseExpectations();
+        AmqpsEventLoopGroup group = createGroup(1);
+        group.register(mockConnection1);
+        BaseHandler eventLoop = getEventLoop(group, 0);
+
+        eventLoop.onReactorQuiesced(mockEvent);
+        group.register(mockConnection2);
+        eventLoop.onReactorQuiesced(mockEvent);
+
+        new Verifications()
+        {
+            {
+                mockConnection1.connectToHost(mockReactor);
+                times = 1;
+                mockConnection2.connectToHost(mockReactor);
+                times = 1;
+                mockConnection1.onReactorQuiesced(mockEvent);
+                times = 2;
+                mockConnection2.onReactorQuiesced(mockEvent);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSEVENTLOOPGROUP_21_013: [If a handler fails, the event loop shall log the error, drop
+    // the event and keep processing the events of the other connections.]
+    @Test
+    public void eventLoopDropsTheEventOfAFailedHandler() throws Exception
+    {
+        baseExpectations();
+        final List<Callable> runners = new ArrayList<>();
+        new NonStrictExpectations()
+        {
+            {
+                mockReactor.process();
+                result = new HandlerException(null, new IllegalStateException());
+                result = true;
+                result = false;
+            }
+        };
+        AmqpsEventLoopGroup group = createGroup(1);
+        group.register(mockConnection1);
+        new Verifications()
+        {
+            {
+                mockExecutorService.submit(withCapture(runners));
+            }
+        };
+
+        runners.get(0).call();
+
+        new Verifications()
+        {
+            {
+                mockReactor.start();
+                times = 1;
+                mockCollector.pop();
+                times = 1;
+                mockReactor.free();
+                times = 1;
+            }
+        };
+    }
+}
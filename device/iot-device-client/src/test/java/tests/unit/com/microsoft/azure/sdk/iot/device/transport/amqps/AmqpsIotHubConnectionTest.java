@@ -7,10 +7,14 @@ package tests.unit.com.microsoft.azure.sdk.iot.device.transport.amqps;
 
 import com.microsoft.azure.sdk.iot.device.DeviceClientConfig;
 import com.microsoft.azure.sdk.iot.device.IotHubMessageResult;
+import com.microsoft.azure.sdk.iot.device.MessageType;
 import com.microsoft.azure.sdk.iot.device.ObjectLock;
 import com.microsoft.azure.sdk.iot.device.auth.IotHubSasToken;
+import com.microsoft.azure.sdk.iot.device.auth.IotHubSasTokenCache;
 import com.microsoft.azure.sdk.iot.device.net.IotHubUri;
+import com.microsoft.azure.sdk.iot.device.transport.SslContextCache;
 import com.microsoft.azure.sdk.iot.device.transport.State;
+import com.microsoft.azure.sdk.iot.device.transport.amqps.AmqpsEventLoopGroup;
 import com.microsoft.azure.sdk.iot.device.transport.amqps.AmqpsIotHubConnection;
 import com.microsoft.azure.sdk.iot.device.transport.amqps.AmqpsMessage;
 import com.microsoft.azure.sdk.iot.device.transport.amqps.IotHubReactor;
@@ -22,6 +26,8 @@ import mockit.*;
 import org.apache.qpid.proton.Proton;
 import org.apache.qpid.proton.amqp.Symbol;
 import org.apache.qpid.proton.amqp.messaging.Accepted;
+import org.apache.qpid.proton.amqp.messaging.AmqpValue;
+import org.apache.qpid.proton.amqp.messaging.ApplicationProperties;
 import org.apache.qpid.proton.amqp.messaging.Source;
 import org.apache.qpid.proton.amqp.messaging.Target;
 import org.apache.qpid.proton.amqp.transport.SenderSettleMode;
@@ -33,12 +39,22 @@ import org.apache.qpid.proton.reactor.Handshaker;
 import org.apache.qpid.proton.reactor.Reactor;
 import org.junit.Test;
 
+import javax.net.ssl.SSLContext;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class AmqpsIotHubConnectionTest {
 
@@ -118,6 +134,9 @@ public class AmqpsIotHubConnectionTest {
     @Mocked
     protected SslDomain mockSslDomain;
 
+    @Mocked
+    protected SslContextCache mockSslContextCache;
+
     @Mocked
     protected String mockCertPath;
 
@@ -343,7 +362,7 @@ public class AmqpsIotHubConnectionTest {
             {
                 new Handshaker();
                 times = 1;
-                new FlowController();
+                new FlowController(anyInt);
                 times = 1;
             }
         };
@@ -591,7 +610,6 @@ public class AmqpsIotHubConnectionTest {
         final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
 
         Deencapsulation.setField(connection, "state", State.CLOSED);
-        Deencapsulation.setField(connection, "linkCredit", 100);
 
         Integer expectedDeliveryHash = -1;
         Integer actualDeliveryHash = connection.sendMessage(Message.Factory.create());
@@ -609,7 +627,7 @@ public class AmqpsIotHubConnectionTest {
         final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
 
         Deencapsulation.setField(connection, "state", State.OPEN);
-        Deencapsulation.setField(connection, "linkCredit", -1);
+        Deencapsulation.setField(connection, "sender", mockSender);
 
         Integer expectedDeliveryHash = -1;
         Integer actualDeliveryHash = connection.sendMessage(Message.Factory.create());
@@ -632,6 +650,8 @@ public class AmqpsIotHubConnectionTest {
         {
             {
                 mockProtonMessage.encode((byte[]) any, anyInt, anyInt);
+                mockSender.getCredit();
+                result = 100;
                 mockSender.delivery((byte[]) any);
                 result = mockDelivery;
             }
@@ -640,7 +660,6 @@ public class AmqpsIotHubConnectionTest {
         final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
 
         Deencapsulation.setField(connection, "state", State.OPEN);
-        Deencapsulation.setField(connection, "linkCredit", 100);
         Deencapsulation.setField(connection, "sender", mockSender);
 
         Integer expectedDeliveryHash = mockDelivery.hashCode();
@@ -676,6 +695,8 @@ public class AmqpsIotHubConnectionTest {
                 mockProtonMessage.encode((byte[]) any, anyInt, anyInt);
                 mockSender.delivery((byte[]) any);
                 result = mockDelivery;
+                mockSender.getCredit();
+                result = 100;
                 mockSender.send((byte[]) any, anyInt, anyInt);
                 result = new Exception();
             }
@@ -684,7 +705,6 @@ public class AmqpsIotHubConnectionTest {
         final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
 
         Deencapsulation.setField(connection, "state", State.OPEN);
-        Deencapsulation.setField(connection, "linkCredit", 100);
         Deencapsulation.setField(connection, "sender", mockSender);
 
         Integer expectedDeliveryHash = -1;
@@ -710,6 +730,129 @@ public class AmqpsIotHubConnectionTest {
     }
 
 
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_067: [If the state of the connection is CLOSED, there is not enough
+    // credit or there are no messages to send, the function shall return -1.]
+    @Test
+    public void sendMessageBatchReturnsMinusOneIfNotEnoughLinkCredit() throws IOException
+    {
+        baseExpectations();
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+
+        Deencapsulation.setField(connection, "state", State.OPEN);
+        Deencapsulation.setField(connection, "sender", mockSender);
+
+        List<Message> messages = new ArrayList<>();
+        messages.add(mockProtonMessage);
+        Integer actualDeliveryHash = connection.sendMessageBatch(messages);
+
+        assertEquals((Integer) (-1), actualDeliveryHash);
+        new Verifications()
+        {
+            {
+                mockSender.delivery((byte[]) any);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_068: [The function shall encode each message directly after its
+    // own data section header in a single buffer, growing the buffer if it is not big enough.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_069: [The function shall set the IoT Hub batched message format on the delivery.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_070: [The function shall send the batch using the sender link
+    // and advance the link, which consumes one unit of its credit.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_071: [The function shall return the hash of the batch delivery.]
+    @Test
+    public void sendMessageBatchSendsAllMessagesInOneDelivery() throws IOException
+    {
+        baseExpectations();
+
+        new NonStrictExpectations()
+        {
+            {
+                mockProtonMessage.encode((byte[]) any, anyInt, anyInt);
+                result = 3;
+                mockSender.getCredit();
+                result = 100;
+                mockSender.delivery((byte[]) any);
+                result = mockDelivery;
+            }
+        };
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+
+        Deencapsulation.setField(connection, "state", State.OPEN);
+        Deencapsulation.setField(connection, "sender", mockSender);
+
+        List<Message> messages = new ArrayList<>();
+        messages.add(mockProtonMessage);
+        messages.add(mockProtonMessage);
+        Integer actualDeliveryHash = connection.sendMessageBatch(messages);
+
+        assertEquals((Integer) mockDelivery.hashCode(), actualDeliveryHash);
+
+        final List<byte[]> sentData = new ArrayList<>();
+        new Verifications()
+        {
+            {
+                mockProtonMessage.encode((byte[]) any, 8, anyInt);
+                times = 1;
+                mockProtonMessage.encode((byte[]) any, 19, anyInt);
+                times = 1;
+                mockDelivery.setMessageFormat(0x80013700);
+                times = 1;
+                mockSender.send(withCapture(sentData), 0, 22);
+                times = 1;
+                mockSender.advance();
+                times = 1;
+            }
+        };
+        byte[] expectedHeader = new byte[] {0x00, 0x53, 0x75, (byte) 0xb0, 0x00, 0x00, 0x00, 0x03};
+        for (int i = 0; i < expectedHeader.length; i++)
+        {
+            assertEquals(expectedHeader[i], sentData.get(0)[i]);
+            assertEquals(expectedHeader[i], sentData.get(0)[11 + i]);
+        }
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_072: [If the send fails, the function shall release the delivery and return -1.]
+    @Test
+    public void sendMessageBatchFreesDeliveryIfSendFails() throws IOException
+    {
+        baseExpectations();
+
+        new NonStrictExpectations()
+        {
+            {
+                mockSender.delivery((byte[]) any);
+                result = mockDelivery;
+                mockSender.getCredit();
+                result = 100;
+                mockSender.send((byte[]) any, anyInt, anyInt);
+                result = new Exception();
+            }
+        };
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+
+        Deencapsulation.setField(connection, "state", State.OPEN);
+        Deencapsulation.setField(connection, "sender", mockSender);
+
+        List<Message> messages = new ArrayList<>();
+        messages.add(mockProtonMessage);
+        messages.add(mockProtonMessage);
+        Integer actualDeliveryHash = connection.sendMessageBatch(messages);
+
+        assertEquals((Integer) (-1), actualDeliveryHash);
+        new Verifications()
+        {
+            {
+                mockDelivery.free();
+                times = 1;
+            }
+        };
+    }
+
     // Tests_SRS_AMQPSIOTHUBCONNECTION_15_022: [If the AMQPS Connection is closed, the function shall return false.]
     @Test
     public void sendMessageReturnsFalseIfConnectionIsClosed() throws IOException
@@ -762,6 +905,108 @@ public class AmqpsIotHubConnectionTest {
         }
     }
 
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_073: [The FlowController shall grant the receiver links the
+    // prefetch given in the configuration as link credit.]
+    @Test
+    public void constructorUsesConfiguredReceivePrefetch() throws IOException
+    {
+        baseExpectations();
+
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getAmqpReceivePrefetch();
+                result = 50;
+            }
+        };
+
+        new AmqpsIotHubConnection(mockConfig, false);
+
+        new Verifications()
+        {
+            {
+                new FlowController(50);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_074: [If batched settlement is enabled, the function shall record
+    // the acknowledgement to be settled by the reactor thread instead of acknowledging the message.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_075: [The event handler shall acknowledge all the recorded messages, in the order they were recorded.]
+    @Test
+    public void sendMessageResultDefersAcknowledgementToReactorIfBatchedSettlementIsEnabled() throws IOException
+    {
+        baseExpectations();
+
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.isAmqpBatchedSettlement();
+                result = true;
+            }
+        };
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+        Deencapsulation.setField(connection, "state", State.OPEN);
+
+        assertTrue(connection.sendMessageResult(mockAmqpsMessage, IotHubMessageResult.COMPLETE));
+        assertTrue(connection.sendMessageResult(mockAmqpsMessage, IotHubMessageResult.ABANDON));
+
+        new Verifications()
+        {
+            {
+                mockAmqpsMessage.acknowledge((AmqpsMessage.ACK_TYPE) any);
+                times = 0;
+            }
+        };
+
+        connection.onReactorQuiesced(mockEvent);
+
+        new VerificationsInOrder()
+        {
+            {
+                mockAmqpsMessage.acknowledge(AmqpsMessage.ACK_TYPE.COMPLETE);
+                mockAmqpsMessage.acknowledge(AmqpsMessage.ACK_TYPE.ABANDON);
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_076: [If a message cannot be acknowledged, the event handler shall
+    // log the error and continue with the next message.]
+    @Test
+    public void onReactorQuiescedContinuesIfAcknowledgeFails() throws IOException
+    {
+        baseExpectations();
+
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.isAmqpBatchedSettlement();
+                result = true;
+                mockAmqpsMessage.acknowledge((AmqpsMessage.ACK_TYPE) any);
+                result = new IllegalStateException();
+            }
+        };
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+        Deencapsulation.setField(connection, "state", State.OPEN);
+        connection.sendMessageResult(mockAmqpsMessage, IotHubMessageResult.COMPLETE);
+        connection.sendMessageResult(mockAmqpsMessage, IotHubMessageResult.REJECT);
+
+        connection.onReactorQuiesced(mockEvent);
+
+        new Verifications()
+        {
+            {
+                mockAmqpsMessage.acknowledge((AmqpsMessage.ACK_TYPE) any);
+                times = 2;
+            }
+        };
+        Queue pendingSettlements = Deencapsulation.getField(connection, "pendingSettlements");
+        assertTrue(pendingSettlements.isEmpty());
+    }
+
     // Tests_SRS_AMQPSIOTHUBCONNECTION_15_025: [The event handler shall get the Connection (Proton) object from the event handler and set the host name on the connection.]
     // Tests_SRS_AMQPSIOTHUBCONNECTION_15_026: [The event handler shall create a Session (Proton) object from the connection.]
     // Tests_SRS_AMQPSIOTHUBCONNECTION_15_027: [The event handler shall create a Receiver and Sender (Proton) links and set the protocol tag on them to a predefined constant.]
@@ -841,24 +1086,18 @@ public class AmqpsIotHubConnectionTest {
                 mockTransport.sasl();
                 result = mockSasl;
                 mockSasl.plain(anyString, anyString);
+                mockConfig.getPathToCertificate();
+                result = mockCertPath;
                 mockSslDomain.setTrustedCaDb(mockCertPath);
                 mockSslDomain.getTrustedCaDb();
                 result = mockCertPath;
                 mockSslDomain.setPeerAuthentication(SslDomain.VerifyMode.VERIFY_PEER);
-                mockTransport.ssl(mockSslDomain);
+                mockTransport.ssl(mockSslDomain, (SslPeerDetails) any);
             }
         };
 
         final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
 
-        new MockUp<AmqpsIotHubConnection>() {
-            @Mock
-            String getPemFormat(String certPath)
-            {
-                return mockCertPath;
-            }
-        };
-
         connection.onConnectionBound(mockEvent);
 
         new Verifications()
@@ -876,7 +1115,7 @@ public class AmqpsIotHubConnectionTest {
                 times = 1;
                 mockSslDomain.setPeerAuthentication(SslDomain.VerifyMode.VERIFY_PEER);
                 times = 1;
-                mockTransport.ssl(mockSslDomain);
+                mockTransport.ssl(mockSslDomain, (SslPeerDetails) any);
                 times = 1;
             }
         };
@@ -904,24 +1143,18 @@ public class AmqpsIotHubConnectionTest {
                 mockTransportInternal.sasl();
                 result = mockSasl;
                 mockSasl.plain(anyString, anyString);
+                mockConfig.getPathToCertificate();
+                result = mockCertPath;
                 mockSslDomain.setTrustedCaDb(mockCertPath);
                 mockSslDomain.getTrustedCaDb();
                 result = mockCertPath;
                 mockSslDomain.setPeerAuthentication(SslDomain.VerifyMode.VERIFY_PEER);
-                mockTransportInternal.ssl(mockSslDomain);
+                mockTransportInternal.ssl(mockSslDomain, (SslPeerDetails) any);
             }
         };
 
         final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
 
-        new MockUp<AmqpsIotHubConnection>() {
-            @Mock
-            String getPemFormat(String certPath)
-            {
-                return mockCertPath;
-            }
-        };
-
         Deencapsulation.setField(connection, "useWebSockets", true);
 
         connection.onConnectionBound(mockEvent);
@@ -945,7 +1178,58 @@ public class AmqpsIotHubConnectionTest {
                 times = 1;
                 mockSslDomain.setPeerAuthentication(SslDomain.VerifyMode.VERIFY_PEER);
                 times = 1;
-                mockTransportInternal.ssl(mockSslDomain);
+                mockTransportInternal.ssl(mockSslDomain, (SslPeerDetails) any);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_105: [The event handler shall set on the domain the AMQPS SSL context
+    // of the configuration, shared by the clients using the same context, so they resume TLS sessions.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_106: [The event handler shall give the IoT Hub host and port to the
+    // SSL layer, so the cached TLS session for the host is resumed instead of doing a full handshake.]
+    @Test
+    public void onConnectionBoundUsesTheConfigSslContextAndPeerDetails(
+            @Mocked final SSLContext mockSslContext,
+            @Mocked final SslPeerDetails mockPeerDetails) throws IOException
+    {
+        baseExpectations();
+
+        final String certificatePath = "trusted.cert.crt";
+        new NonStrictExpectations()
+        {
+            {
+                mockEvent.getConnection();
+                result = mockConnection;
+                mockConnection.getTransport();
+                result = mockTransport;
+                mockTransport.sasl();
+                result = mockSasl;
+                mockConfig.getPathToCertificate();
+                result = certificatePath;
+                mockConfig.getAmqpsSslContext();
+                result = mockSslContext;
+                Proton.sslDomain();
+                result = mockSslDomain;
+                mockSslDomain.getTrustedCaDb();
+                result = certificatePath;
+                Proton.sslPeerDetails(hostName, 5671);
+                result = mockPeerDetails;
+            }
+        };
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+
+        connection.onConnectionBound(mockEvent);
+
+        new Verifications()
+        {
+            {
+                mockSslDomain.setTrustedCaDb(certificatePath);
+                times = 1;
+                mockSslDomain.setSslContext(mockSslContext);
+                times = 1;
+                mockTransport.ssl(mockSslDomain, mockPeerDetails);
                 times = 1;
             }
         };
@@ -1101,44 +1385,57 @@ public class AmqpsIotHubConnectionTest {
         };
     }
 
-    // Tests_SRS_AMQPSIOTHUBCONNECTION_15_040: [The event handler shall save the remaining link credit.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_052: [If there is link credit available, all the listeners shall be notified of the amount of credit granted.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_110: [The function shall return true if the connection is not closed and
+    // the telemetry sender link reports no credit left, and false otherwise.]
     @Test
-    public void onLinkFlow() throws IOException
+    public void onLinkFlowDuringASendDoesNotLoseTheGrantedCredit() throws IOException
     {
         baseExpectations();
 
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+        Deencapsulation.setField(connection, "state", State.OPEN);
+        Deencapsulation.setField(connection, "sender", mockSender);
+        connection.addListener(mockServerListener);
+
+        // the last unit of credit is being used when the IoT Hub grants 100 more, which leaves 99 on the link
         new NonStrictExpectations()
         {
             {
                 mockEvent.getLink();
                 result = mockSender;
                 mockSender.getCredit();
-                result = 100;
+                returns(1, 100, 99);
+                mockSender.delivery((byte[]) any);
+                result = mockDelivery;
+                mockSender.send((byte[]) any, anyInt, anyInt);
+                result = new Delegate()
+                {
+                    int send(byte[] bytes, int offset, int length)
+                    {
+                        connection.onLinkFlow(mockEvent);
+                        return length;
+                    }
+                };
             }
         };
 
-        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
-        connection.onLinkFlow(mockEvent);
-
-        Integer expectedLinkCredit = 100;
-        Integer actualLinkCredit = Deencapsulation.getField(connection, "linkCredit");
-
-        assertEquals(expectedLinkCredit, actualLinkCredit);
+        Integer actualDeliveryHash = connection.sendMessage(mockProtonMessage);
 
+        assertEquals((Integer) mockDelivery.hashCode(), actualDeliveryHash);
+        assertFalse(connection.isOutOfCredit());
         new Verifications()
         {
             {
-                mockEvent.getLink();
-                times = 1;
-                mockSender.getCredit();
+                mockServerListener.linkCreditGranted(100);
                 times = 1;
             }
         };
     }
 
-    // Tests_SRS_AMQPSIOTHUBCONNECTION_15_041: [The connection state shall be considered OPEN when the sender link is open remotely.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_052: [If there is link credit available, all the listeners shall be notified of the amount of credit granted.]
     @Test
-    public void onLinkRemoteOpen() throws IOException
+    public void onLinkFlowNotifiesListenersOfGrantedCredit() throws IOException
     {
         baseExpectations();
 
@@ -1147,33 +1444,27 @@ public class AmqpsIotHubConnectionTest {
             {
                 mockEvent.getLink();
                 result = mockSender;
-                mockSender.getName();
-                result = "sender";
+                mockSender.getCredit();
+                result = 100;
             }
         };
 
         final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
-        connection.onLinkRemoteOpen(mockEvent);
-
-        State expectedState = State.OPEN;
-        State actualState = Deencapsulation.getField(connection, "state");
-
-        assertEquals(expectedState, actualState);
+        connection.addListener(mockServerListener);
+        connection.onLinkFlow(mockEvent);
 
         new Verifications()
         {
             {
-                mockEvent.getLink();
-                times = 1;
-                mockSender.getName();
+                mockServerListener.linkCreditGranted(100);
                 times = 1;
             }
         };
     }
 
-    // Tests_SRS_AMQPSIOTHUBCONNECTION_15_042 [The event handler shall attempt to reconnect to the IoTHub.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_052: [If there is link credit available, all the listeners shall be notified of the amount of credit granted.]
     @Test
-    public void onLinkRemoteClose() throws IOException
+    public void onLinkFlowDoesNotNotifyListenersIfNoCreditIsGranted() throws IOException
     {
         baseExpectations();
 
@@ -1182,189 +1473,1837 @@ public class AmqpsIotHubConnectionTest {
             {
                 mockEvent.getLink();
                 result = mockSender;
-                mockSender.getName();
-                result = "sender";
-                mockServerListener.connectionLost();
+                mockSender.getCredit();
+                result = 0;
             }
         };
 
         final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+        connection.addListener(mockServerListener);
+        connection.onLinkFlow(mockEvent);
 
-        final Boolean[] openAsyncCalled = { false };
-        final Boolean[] closeAsyncCalled = { false };
-
-        new MockUp<AmqpsIotHubConnection>()
+        new Verifications()
         {
-            @Mock
-            void openAsync()
             {
-                openAsyncCalled[0] = true;
-                Deencapsulation.setField(connection, "state", State.OPEN);
+                mockServerListener.linkCreditGranted(anyInt);
+                times = 0;
             }
+        };
+    }
 
-            @Mock
-            void closeAsync()
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_051: [The event handler shall ignore flow events for links other than the Sender link.]
+    @Test
+    public void onLinkFlowIgnoresReceiverLinkCredit() throws IOException
+    {
+        baseExpectations();
+
+        new NonStrictExpectations()
+        {
             {
-                closeAsyncCalled[0] = true;
-                Deencapsulation.setField(connection, "state", State.CLOSED);
+                mockEvent.getLink();
+                result = mockReceiver;
+                mockReceiver.getCredit();
+                result = 100;
             }
         };
 
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
         connection.addListener(mockServerListener);
-        connection.onLinkRemoteClose(mockEvent);
-
-        assertEquals(true, closeAsyncCalled[0]);
-        assertEquals(false, openAsyncCalled[0]);
+        connection.onLinkFlow(mockEvent);
 
         new Verifications()
         {
             {
-                mockEvent.getLink();
-                times = 1;
-                mockSender.getName();
-                times = 1;
-                mockServerListener.connectionLost();
-                times = 1;
+                mockServerListener.linkCreditGranted(anyInt);
+                times = 0;
             }
         };
     }
 
-    // Tests_SRS_AMQPSIOTHUBCONNECTION_15_043: [If the link is the Sender link, the event handler shall create a new Target (Proton) object using the sender endpoint address member variable.]
-    // Tests_SRS_AMQPSIOTHUBCONNECTION_15_044: [If the link is the Sender link, the event handler shall set its target to the created Target (Proton) object.]
-    // Tests_SRS_AMQPSIOTHUBCONNECTION_14_045: [If the link is the Sender link, the event handler shall set the SenderSettleMode to UNSETTLED.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_063: [If the message type is not DeviceTwin or DeviceMethods, the function shall throw IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void openDeviceOperationLinksThrowsForTelemetry() throws IOException
+    {
+        baseExpectations();
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+
+        connection.openDeviceOperationLinks(MessageType.Telemetry);
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_064: [The function shall save the message type so the links are opened on every new connection.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_065: [The function shall not open the links itself, as Proton is not thread
+    // safe. It shall request them to be opened by the reactor thread and wake the reactor up.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_111: [If the session is created, the event handler shall open the links
+    // of the device operations requested since the last event.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_066: [The links shall have the client version, the api version and the same channel correlation id set as properties.]
     @Test
-    public void onLinkInitSend() throws IOException
+    public void openDeviceOperationLinksOpensTwinLinksOnTheSession() throws IOException
     {
         baseExpectations();
 
         new NonStrictExpectations()
         {
             {
-                mockEvent.getLink();
+                mockSession.receiver("twin_receiver");
+                result = mockReceiver;
+                mockSession.sender("twin_sender");
                 result = mockSender;
-                mockSender.getName();
-                result = "sender";
-                new Target();
-                result = mockTarget;
-                mockTarget.setAddress(anyString);
-                mockSender.setTarget(mockTarget);
-                mockSender.setSenderSettleMode(SenderSettleMode.UNSETTLED);
             }
         };
 
         final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+        Deencapsulation.setField(connection, "session", mockSession);
+        Deencapsulation.setField(connection, "reactor", mockReactor);
 
-        connection.onLinkInit(mockEvent);
+        connection.openDeviceOperationLinks(MessageType.DeviceTwin);
+        connection.openDeviceOperationLinks(MessageType.DeviceTwin);
 
+        Set<MessageType> deviceOperationTypes = Deencapsulation.getField(connection, "deviceOperationTypes");
+        assertTrue(deviceOperationTypes.contains(MessageType.DeviceTwin));
         new Verifications()
         {
             {
-                mockEvent.getLink();
-                times = 1;
-                mockSender.getName();
+                mockReactor.wakeup();
                 times = 1;
-                new Target();
+                mockSession.sender(anyString);
+                times = 0;
+            }
+        };
+
+        connection.onReactorQuiesced(mockEvent);
+        connection.onReactorQuiesced(mockEvent);
+
+        final List<Map<Symbol, Object>> receiverProperties = new ArrayList<>();
+        final List<Map<Symbol, Object>> senderProperties = new ArrayList<>();
+        new Verifications()
+        {
+            {
+                mockSession.receiver("twin_receiver");
                 times = 1;
-                mockTarget.setAddress(anyString);
+                mockSession.sender("twin_sender");
                 times = 1;
-                mockSender.setTarget((org.apache.qpid.proton.amqp.transport.Target) any);
+                mockReceiver.setProperties(withCapture(receiverProperties));
+                mockSender.setProperties(withCapture(senderProperties));
+                mockReceiver.open();
                 times = 1;
-                mockSender.setSenderSettleMode(SenderSettleMode.UNSETTLED);
+                mockSender.open();
                 times = 1;
             }
         };
+        Object channelCorrelationId = receiverProperties.get(0).get(Symbol.getSymbol("com.microsoft:channel-correlation-id"));
+        assertTrue(channelCorrelationId.toString().startsWith("twin:"));
+        assertEquals(channelCorrelationId, senderProperties.get(0).get(Symbol.getSymbol("com.microsoft:channel-correlation-id")));
+        assertEquals("2016-11-14", senderProperties.get(0).get(Symbol.getSymbol("com.microsoft:api-version")));
     }
 
-    // Tests_SRS_AMQPSIOTHUBCONNECTION_14_046: [If the link is the Receiver link, the event handler shall create a new Source (Proton) object using the receiver endpoint address member variable.]
-    // Tests_SRS_AMQPSIOTHUBCONNECTION_14_047: [If the link is the Receiver link, the event handler shall set its source to the created Source (Proton) object.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_111: [If the session is created, the event handler shall open the links
+    // of the device operations requested since the last event.]
     @Test
-    public void onLinkInitReceive() throws IOException
+    public void openDeviceOperationLinksOnlySavesTheTypeIfSessionIsNotCreated() throws IOException
+    {
+        baseExpectations();
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+
+        connection.openDeviceOperationLinks(MessageType.DeviceMethods);
+        connection.onReactorQuiesced(mockEvent);
+
+        Set<MessageType> deviceOperationTypes = Deencapsulation.getField(connection, "deviceOperationTypes");
+        assertTrue(deviceOperationTypes.contains(MessageType.DeviceMethods));
+        new Verifications()
+        {
+            {
+                mockSession.sender(anyString);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_055: [If the message is a twin or method message and the
+    // corresponding links are not opened yet, the function shall request them to be opened and return -1.]
+    @Test
+    public void sendMessageOpensTwinLinksAndReturnsMinusOneIfTheyAreNotOpened() throws IOException
+    {
+        baseExpectations();
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+        Deencapsulation.setField(connection, "state", State.OPEN);
+        Deencapsulation.setField(connection, "sender", mockSender);
+        Deencapsulation.setField(connection, "session", mockSession);
+
+        Integer actualDeliveryHash = connection.sendMessage(mockProtonMessage, MessageType.DeviceTwin);
+
+        assertEquals((Integer) (-1), actualDeliveryHash);
+        Set<MessageType> pendingDeviceOperationTypes = Deencapsulation.getField(connection, "pendingDeviceOperationTypes");
+        assertTrue(pendingDeviceOperationTypes.contains(MessageType.DeviceTwin));
+        new Verifications()
+        {
+            {
+                mockSession.sender("twin_sender");
+                times = 0;
+                mockSender.send((byte[]) any, anyInt, anyInt);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_15_018: [The function shall attempt to send the message using the sender link.]
+    @Test
+    public void sendMessageSendsTwinMessageOnTwinSender() throws IOException
     {
         baseExpectations();
 
         new NonStrictExpectations()
         {
             {
-                mockEvent.getLink();
-                result = mockReceiver;
-                mockReceiver.getName();
-                result = "receiver";
-                new Source();
-                result = mockSource;
-                mockSource.setAddress(anyString);
-                mockReceiver.setSource(mockSource);
+                mockSender.getCredit();
+                result = 5;
+                mockSender.delivery((byte[]) any);
+                result = mockDelivery;
             }
         };
 
         final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+        Deencapsulation.setField(connection, "state", State.OPEN);
+        Deencapsulation.setField(connection, "twinSender", mockSender);
 
-        connection.onLinkInit(mockEvent);
+        Integer actualDeliveryHash = connection.sendMessage(mockProtonMessage, MessageType.DeviceTwin);
 
+        assertEquals((Integer) mockDelivery.hashCode(), actualDeliveryHash);
         new Verifications()
         {
             {
-                mockEvent.getLink();
-                times = 1;
-                mockReceiver.getName();
-                times = 1;
-                new Source();
-                times = 1;
-                mockSource.setAddress(anyString);
+                mockSender.send((byte[]) any, anyInt, anyInt);
                 times = 1;
-                mockReceiver.setSource((org.apache.qpid.proton.amqp.transport.Source) any);
+                mockSender.advance();
                 times = 1;
             }
         };
     }
 
-    // Tests_SRS_AMQPSIOTHUBCONNECTION_15_048: [The event handler shall attempt to reconnect to IoTHub.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_056: [The event handler shall open the twin and method links
+    // on the new session for the device operations which were already started.]
     @Test
-    public void onTransportError() throws IOException
+    public void onConnectionInitOpensTheStartedDeviceOperationLinks() throws IOException
     {
         baseExpectations();
 
         new NonStrictExpectations()
         {
             {
-                mockServerListener.connectionLost();
+                mockEvent.getConnection();
+                result = mockConnection;
+                mockConnection.session();
+                result = mockSession;
+                mockSession.receiver(anyString);
+                result = mockReceiver;
+                mockSession.sender(anyString);
+                result = mockSender;
             }
         };
 
         final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+        connection.openDeviceOperationLinks(MessageType.DeviceMethods);
 
-        final Boolean[] openAsyncCalled = { false };
-        final Boolean[] closeAsyncCalled = { false };
+        connection.onConnectionInit(mockEvent);
 
-        new MockUp<AmqpsIotHubConnection>()
+        new Verifications()
         {
-            @Mock
-            void openAsync()
             {
-                openAsyncCalled[0] = true;
-                Deencapsulation.setField(connection, "state", State.OPEN);
+                mockSession.receiver("methods_receiver");
+                times = 1;
+                mockSession.sender("methods_sender");
+                times = 1;
+                mockSession.sender("twin_sender");
+                times = 0;
+                mockSender.open();
+                times = 2;
             }
+        };
+    }
 
-            @Mock
-            void closeAsync()
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_057: [The event handler shall handle the twin and method receiver links as Receiver links.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_058: [The event handler shall set the AmqpsMessage type according to the link it was received on.]
+    @Test
+    public void onDeliveryReceiveOnTwinLinkSetsTheMessageType() throws IOException
+    {
+        baseExpectations();
+
+        new NonStrictExpectations()
+        {
             {
-                closeAsyncCalled[0] = true;
-                Deencapsulation.setField(connection, "state", State.CLOSED);
+                mockEvent.getLink();
+                result = mockReceiver;
+                mockReceiver.getName();
+                result = "twin_receiver";
+                mockReceiver.current();
+                result = mockDelivery;
+                mockDelivery.isReadable();
+                result = true;
+                mockDelivery.isPartial();
+                result = false;
+                mockDelivery.pending();
+                result = 10;
+                mockReceiver.recv((byte[]) any, anyInt, anyInt);
+                result = 10;
+                new AmqpsMessage();
+                result = mockAmqpsMessage;
             }
         };
 
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
         connection.addListener(mockServerListener);
-        connection.onTransportError(mockEvent);
-
-        assertEquals(true, closeAsyncCalled[0]);
-        assertEquals(false, openAsyncCalled[0]);
+        connection.onDelivery(mockEvent);
 
         new Verifications()
         {
             {
-                mockServerListener.connectionLost();
+                mockAmqpsMessage.setAmqpsMessageType(MessageType.DeviceTwin);
                 times = 1;
+                mockServerListener.messageReceived(mockAmqpsMessage);
+                times = 1;
+                mockServerListener.messageSent(anyInt, anyBoolean);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_059: [The event handler shall not notify the listeners of the credit
+    // of the twin and method sender links.]
+    @Test
+    public void onLinkFlowDoesNotNotifyListenersOfTheTwinSenderCredit() throws IOException
+    {
+        baseExpectations();
+
+        new NonStrictExpectations()
+        {
+            {
+                mockEvent.getLink();
+                result = mockSender;
+                mockSender.getName();
+                result = "twin_sender";
+                mockSender.getCredit();
+                result = 10;
+            }
+        };
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+        connection.addListener(mockServerListener);
+        connection.onLinkFlow(mockEvent);
+
+        new Verifications()
+        {
+            {
+                mockServerListener.linkCreditGranted(anyInt);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_110: [The function shall return true if the connection is not closed and
+    // the telemetry sender link reports no credit left, and false otherwise.]
+    @Test
+    public void isOutOfCreditOnlyOnceTheSenderLinkReportsNoCredit() throws IOException
+    {
+        baseExpectations();
+
+        new NonStrictExpectations()
+        {
+            {
+                mockSender.getCredit();
+                returns(1, 0);
             }
         };
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+        Deencapsulation.setField(connection, "state", State.OPEN);
+        assertFalse(connection.isOutOfCredit());
+
+        Deencapsulation.setField(connection, "sender", mockSender);
+        assertFalse(connection.isOutOfCredit());
+        assertTrue(connection.isOutOfCredit());
+
+        Deencapsulation.setField(connection, "state", State.CLOSED);
+        assertFalse(connection.isOutOfCredit());
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_060: [If a twin or method link is closed remotely, the event handler shall
+    // close that pair of links, so they are opened again on the next send, without closing the connection.]
+    @Test
+    public void onLinkRemoteCloseOfMethodLinkDoesNotReconnect() throws IOException
+    {
+        baseExpectations();
+
+        new NonStrictExpectations()
+        {
+            {
+                mockEvent.getLink();
+                result = mockSender;
+                mockSender.getName();
+                result = "methods_sender";
+            }
+        };
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+        Deencapsulation.setField(connection, "state", State.OPEN);
+        Deencapsulation.setField(connection, "methodSender", mockSender);
+        Deencapsulation.setField(connection, "methodReceiver", mockReceiver);
+        connection.addListener(mockServerListener);
+
+        connection.onLinkRemoteClose(mockEvent);
+
+        State actualState = Deencapsulation.getField(connection, "state");
+        assertEquals(State.OPEN, actualState);
+        Object actualMethodSender = Deencapsulation.getField(connection, "methodSender");
+        assertEquals(null, actualMethodSender);
+        new Verifications()
+        {
+            {
+                mockSender.close();
+                times = 1;
+                mockReceiver.close();
+                times = 1;
+                mockServerListener.connectionLost();
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_053: [The constructor shall initialize the twin and method
+    // endpoint private member variables using the twin/methodEndpointFormat constants and device id.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_061: [If the link is the twin or method Sender link, the event handler shall use the twin or method endpoint address as Target.]
+    @Test
+    public void onLinkInitTwinSenderUsesTheTwinEndpoint() throws IOException
+    {
+        baseExpectations();
+
+        new NonStrictExpectations()
+        {
+            {
+                mockEvent.getLink();
+                result = mockSender;
+                mockSender.getName();
+                result = "twin_sender";
+                new Target();
+                result = mockTarget;
+            }
+        };
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+
+        connection.onLinkInit(mockEvent);
+
+        new Verifications()
+        {
+            {
+                mockTarget.setAddress("/devices/" + deviceId + "/twin");
+                times = 1;
+                mockSender.setTarget(mockTarget);
+                times = 1;
+                mockSender.setSenderSettleMode(SenderSettleMode.UNSETTLED);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_062: [If the link is the twin or method Receiver link, the event handler shall use the twin or method endpoint address as Source.]
+    @Test
+    public void onLinkInitMethodReceiverUsesTheMethodEndpoint() throws IOException
+    {
+        baseExpectations();
+
+        new NonStrictExpectations()
+        {
+            {
+                mockEvent.getLink();
+                result = mockReceiver;
+                mockReceiver.getName();
+                result = "methods_receiver";
+                new Source();
+                result = mockSource;
+            }
+        };
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+
+        connection.onLinkInit(mockEvent);
+
+        new Verifications()
+        {
+            {
+                mockSource.setAddress("/devices/" + deviceId + "/methods/devicebound");
+                times = 1;
+                mockReceiver.setSource(mockSource);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_15_041: [The connection state shall be considered OPEN when the sender link is open remotely.]
+    @Test
+    public void onLinkRemoteOpen() throws IOException
+    {
+        baseExpectations();
+
+        new NonStrictExpectations()
+        {
+            {
+                mockEvent.getLink();
+                result = mockSender;
+                mockSender.getName();
+                result = "sender";
+            }
+        };
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+        connection.onLinkRemoteOpen(mockEvent);
+
+        State expectedState = State.OPEN;
+        State actualState = Deencapsulation.getField(connection, "state");
+
+        assertEquals(expectedState, actualState);
+
+        new Verifications()
+        {
+            {
+                mockEvent.getLink();
+                times = 1;
+                mockSender.getName();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_15_042 [The event handler shall attempt to reconnect to the IoTHub.]
+    @Test
+    public void onLinkRemoteClose() throws IOException
+    {
+        baseExpectations();
+
+        new NonStrictExpectations()
+        {
+            {
+                mockEvent.getLink();
+                result = mockSender;
+                mockSender.getName();
+                result = "sender";
+                mockServerListener.connectionLost();
+            }
+        };
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+
+        final Boolean[] openAsyncCalled = { false };
+        final Boolean[] closeAsyncCalled = { false };
+
+        new MockUp<AmqpsIotHubConnection>()
+        {
+            @Mock
+            void openAsync()
+            {
+                openAsyncCalled[0] = true;
+                Deencapsulation.setField(connection, "state", State.OPEN);
+            }
+
+            @Mock
+            void closeAsync()
+            {
+                closeAsyncCalled[0] = true;
+                Deencapsulation.setField(connection, "state", State.CLOSED);
+            }
+        };
+
+        connection.addListener(mockServerListener);
+        connection.onLinkRemoteClose(mockEvent);
+
+        assertEquals(true, closeAsyncCalled[0]);
+        assertEquals(false, openAsyncCalled[0]);
+
+        new Verifications()
+        {
+            {
+                mockEvent.getLink();
+                times = 1;
+                mockSender.getName();
+                times = 1;
+                mockServerListener.connectionLost();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_15_043: [If the link is the Sender link, the event handler shall create a new Target (Proton) object using the sender endpoint address member variable.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_15_044: [If the link is the Sender link, the event handler shall set its target to the created Target (Proton) object.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_14_045: [If the link is the Sender link, the event handler shall set the SenderSettleMode to UNSETTLED.]
+    @Test
+    public void onLinkInitSend() throws IOException
+    {
+        baseExpectations();
+
+        new NonStrictExpectations()
+        {
+            {
+                mockEvent.getLink();
+                result = mockSender;
+                mockSender.getName();
+                result = "sender";
+                new Target();
+                result = mockTarget;
+                mockTarget.setAddress(anyString);
+                mockSender.setTarget(mockTarget);
+                mockSender.setSenderSettleMode(SenderSettleMode.UNSETTLED);
+            }
+        };
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+
+        connection.onLinkInit(mockEvent);
+
+        new Verifications()
+        {
+            {
+                mockEvent.getLink();
+                times = 1;
+                mockSender.getName();
+                times = 1;
+                new Target();
+                times = 1;
+                mockTarget.setAddress(anyString);
+                times = 1;
+                mockSender.setTarget((org.apache.qpid.proton.amqp.transport.Target) any);
+                times = 1;
+                mockSender.setSenderSettleMode(SenderSettleMode.UNSETTLED);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_14_046: [If the link is the Receiver link, the event handler shall create a new Source (Proton) object using the receiver endpoint address member variable.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_14_047: [If the link is the Receiver link, the event handler shall set its source to the created Source (Proton) object.]
+    @Test
+    public void onLinkInitReceive() throws IOException
+    {
+        baseExpectations();
+
+        new NonStrictExpectations()
+        {
+            {
+                mockEvent.getLink();
+                result = mockReceiver;
+                mockReceiver.getName();
+                result = "receiver";
+                new Source();
+                result = mockSource;
+                mockSource.setAddress(anyString);
+                mockReceiver.setSource(mockSource);
+            }
+        };
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+
+        connection.onLinkInit(mockEvent);
+
+        new Verifications()
+        {
+            {
+                mockEvent.getLink();
+                times = 1;
+                mockReceiver.getName();
+                times = 1;
+                new Source();
+                times = 1;
+                mockSource.setAddress(anyString);
+                times = 1;
+                mockReceiver.setSource((org.apache.qpid.proton.amqp.transport.Source) any);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_15_048: [The event handler shall attempt to reconnect to IoTHub.]
+    @Test
+    public void onTransportError() throws IOException
+    {
+        baseExpectations();
+
+        new NonStrictExpectations()
+        {
+            {
+                mockServerListener.connectionLost();
+            }
+        };
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+
+        final Boolean[] openAsyncCalled = { false };
+        final Boolean[] closeAsyncCalled = { false };
+
+        new MockUp<AmqpsIotHubConnection>()
+        {
+            @Mock
+            void openAsync()
+            {
+                openAsyncCalled[0] = true;
+                Deencapsulation.setField(connection, "state", State.OPEN);
+            }
+
+            @Mock
+            void closeAsync()
+            {
+                closeAsyncCalled[0] = true;
+                Deencapsulation.setField(connection, "state", State.CLOSED);
+            }
+        };
+
+        connection.addListener(mockServerListener);
+        connection.onTransportError(mockEvent);
+
+        assertEquals(true, closeAsyncCalled[0]);
+        assertEquals(false, openAsyncCalled[0]);
+
+        new Verifications()
+        {
+            {
+                mockServerListener.connectionLost();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_078: [The function shall save the auto reconnect behavior used when the connection is lost.]
+    @Test
+    public void setAutoReconnectSavesTheBehavior() throws IOException
+    {
+        baseExpectations();
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+        Boolean defaultAutoReconnect = Deencapsulation.getField(connection, "autoReconnect");
+
+        connection.setAutoReconnect(false);
+
+        Boolean actualAutoReconnect = Deencapsulation.getField(connection, "autoReconnect");
+        assertEquals(true, defaultAutoReconnect);
+        assertEquals(false, actualAutoReconnect);
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_079: [If the auto reconnect is disabled, the function shall notify the listeners only once that the connection was lost, and close the connection without backoff or reopening.]
+    @Test
+    public void onTransportErrorWithoutAutoReconnectNotifiesListenersOnceAndDoesNotReopen() throws IOException
+    {
+        baseExpectations();
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+
+        final Integer[] closeAsyncCalls = { 0 };
+        new MockUp<AmqpsIotHubConnection>()
+        {
+            @Mock
+            void closeAsync()
+            {
+                closeAsyncCalls[0]++;
+            }
+        };
+
+        connection.addListener(mockServerListener);
+        connection.setAutoReconnect(false);
+
+        long startMillis = System.currentTimeMillis();
+        connection.onTransportError(mockEvent);
+        connection.onTransportError(mockEvent);
+        long elapsedMillis = System.currentTimeMillis() - startMillis;
+
+        Boolean reconnectCall = Deencapsulation.getField(connection, "reconnectCall");
+        assertEquals(false, reconnectCall);
+        assertEquals(2, (int) closeAsyncCalls[0]);
+        assertTrue(elapsedMillis < 1000);
+        new Verifications()
+        {
+            {
+                mockServerListener.connectionLost();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_080: [If the auto reconnect is disabled, the event handler shall shut down the executor service, as the connection will not be reopened.]
+    @Test
+    public void onReactorFinalWithoutAutoReconnectShutsDownTheExecutor() throws IOException
+    {
+        baseExpectations();
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+        Deencapsulation.setField(connection, "executorService", mockExecutorService);
+        connection.setAutoReconnect(false);
+
+        connection.onReactorFinal(mockEvent);
+
+        Reactor actualReactor = Deencapsulation.getField(connection, "reactor");
+        assertEquals(null, actualReactor);
+        new Verifications()
+        {
+            {
+                mockExecutorService.shutdown();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_081: [If the fast recovery is enabled, the event handler shall set the idle timeout on the transport, so missed heartbeats are reported as a transport error.]
+    @Test
+    public void onConnectionBoundSetsIdleTimeoutIfFastRecoveryIsEnabled() throws IOException
+    {
+        baseExpectations();
+
+        new NonStrictExpectations()
+        {
+            {
+                mockEvent.getConnection();
+                result = mockConnection;
+                mockConnection.getTransport();
+                result = mockTransport;
+                mockTransport.sasl();
+                result = mockSasl;
+                mockSslDomain.getTrustedCaDb();
+                result = mockCertPath;
+                mockConfig.isAmqpFastRecovery();
+                result = true;
+            }
+        };
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+
+        connection.onConnectionBound(mockEvent);
+
+        new Verifications()
+        {
+            {
+                mockTransport.setIdleTimeout(anyInt);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_082: [The function shall return a copy of the device operation types whose links are opened on every connection.]
+    @Test
+    public void getDeviceOperationTypesReturnsACopy() throws IOException
+    {
+        baseExpectations();
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+        connection.openDeviceOperationLinks(MessageType.DeviceTwin);
+
+        Set<MessageType> deviceOperationTypes = connection.getDeviceOperationTypes();
+        deviceOperationTypes.add(MessageType.DeviceMethods);
+
+        assertEquals(1, connection.getDeviceOperationTypes().size());
+        assertTrue(connection.getDeviceOperationTypes().contains(MessageType.DeviceTwin));
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_083: [If the Proton reactor already finished, the function shall not wait for it to close.]
+    @Test
+    public void closeDoesNotWaitIfTheReactorAlreadyFinished() throws IOException, InterruptedException
+    {
+        baseExpectations();
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+        Deencapsulation.setField(connection, "closeLock", mockCloseLock);
+        Deencapsulation.setField(connection, "reactor", null);
+
+        connection.close();
+
+        new Verifications()
+        {
+            {
+                mockCloseLock.waitLock(anyLong);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_085: [If claims-based security is enabled, the event handler shall set the SASL_ANONYMOUS authentication on the transport instead.]
+    @Test
+    public void onConnectionBoundUsesAnonymousSaslIfCbsIsEnabled() throws IOException
+    {
+        baseExpectations();
+
+        new NonStrictExpectations()
+        {
+            {
+                mockEvent.getConnection();
+                result = mockConnection;
+                mockConnection.getTransport();
+                result = mockTransport;
+                mockTransport.sasl();
+                result = mockSasl;
+                mockSslDomain.getTrustedCaDb();
+                result = mockCertPath;
+                mockConfig.isAmqpCbsAuthentication();
+                result = true;
+            }
+        };
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+
+        connection.onConnectionBound(mockEvent);
+
+        new Verifications()
+        {
+            {
+                mockSasl.setMechanisms("ANONYMOUS");
+                times = 1;
+                mockSasl.plain(anyString, anyString);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_084: [If claims-based security is enabled, the event handler shall open
+    // only the claims-based security links, and send a put-token request as soon as the IoT Hub grants credit.]
+    @Test
+    public void onConnectionInitOpensOnlyTheCbsLinksIfCbsIsEnabled() throws IOException
+    {
+        baseExpectations();
+
+        new NonStrictExpectations()
+        {
+            {
+                mockEvent.getConnection();
+                result = mockConnection;
+                mockConnection.session();
+                result = mockSession;
+                mockSession.receiver(anyString);
+                result = mockReceiver;
+                mockSession.sender(anyString);
+                result = mockSender;
+                mockConfig.isAmqpCbsAuthentication();
+                result = true;
+            }
+        };
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+        connection.onConnectionInit(mockEvent);
+
+        Boolean cbsPutTokenPending = Deencapsulation.getField(connection, "cbsPutTokenPending");
+        assertEquals(true, cbsPutTokenPending);
+        new Verifications()
+        {
+            {
+                mockSession.sender("cbs_sender");
+                times = 1;
+                mockSession.receiver("cbs_receiver");
+                times = 1;
+                mockSession.sender("sender");
+                times = 0;
+                mockSession.receiver("receiver");
+                times = 0;
+                mockSender.open();
+                times = 1;
+                mockReceiver.open();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_087: [If the claims-based security sender link is granted credit and a
+    // put-token request is pending, the event handler shall send it, without notifying the listeners.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_091: [The put-token request shall carry a new SAS token valid for the
+    // duration specified in config, the put-token operation, the SAS token type and the device resource URI as name.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_092: [If the device key is available, the token shall be renewed once
+    // the SAS token renewal fraction of its validity has elapsed, or three quarters of it if the fraction is 0,
+    // otherwise it shall not be renewed.]
+    @Test
+    public void onLinkFlowOnCbsSenderSendsThePendingPutToken() throws IOException
+    {
+        baseExpectations();
+
+        final List<ApplicationProperties> applicationProperties = new ArrayList<>();
+        new NonStrictExpectations()
+        {
+            {
+                mockEvent.getLink();
+                result = mockSender;
+                mockSender.getName();
+                result = "cbs_sender";
+                mockSender.getCredit();
+                result = 1;
+                mockConfig.getTokenValidSecs();
+                result = 3600L;
+                Proton.message();
+                result = mockProtonMessage;
+                mockProtonMessage.encode((byte[]) any, anyInt, anyInt);
+                result = 10;
+                mockProtonMessage.setApplicationProperties(withCapture(applicationProperties));
+            }
+        };
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+        connection.addListener(mockServerListener);
+        Deencapsulation.setField(connection, "cbsSender", mockSender);
+        Deencapsulation.setField(connection, "cbsPutTokenPending", true);
+
+        long startMillis = System.currentTimeMillis();
+        connection.onLinkFlow(mockEvent);
+
+        Boolean cbsPutTokenPending = Deencapsulation.getField(connection, "cbsPutTokenPending");
+        long cbsRenewalDueMillis = Deencapsulation.getField(connection, "cbsRenewalDueMillis");
+        assertEquals(false, cbsPutTokenPending);
+        assertTrue(cbsRenewalDueMillis >= (startMillis / 1000L) * 1000L + 2700 * 1000L);
+        assertTrue(cbsRenewalDueMillis <= System.currentTimeMillis() + 2701 * 1000L);
+        assertEquals(1, applicationProperties.size());
+        Map properties = applicationProperties.get(0).getValue();
+        assertEquals("put-token", properties.get("operation"));
+        assertEquals("servicebus.windows.net:sastoken", properties.get("type"));
+        new Verifications()
+        {
+            {
+                mockProtonMessage.setBody((AmqpValue) any);
+                times = 1;
+                mockSender.send((byte[]) any, 0, 10);
+                times = 1;
+                mockSender.advance();
+                times = 1;
+                mockServerListener.linkCreditGranted(anyInt);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_093: [When the first put-token request of the connection is
+    // accepted, the device links shall be opened.]
+    @Test
+    public void onDeliveryOnCbsReceiverOpensTheDeviceLinksWhenTheTokenIsAccepted() throws IOException
+    {
+        baseExpectations();
+
+        final Map<String, Object> response = new HashMap<>();
+        response.put("status-code", 200);
+        new NonStrictExpectations()
+        {
+            {
+                mockEvent.getLink();
+                result = mockReceiver;
+                mockReceiver.getName();
+                result = "cbs_receiver";
+                mockReceiver.current();
+                result = mockDelivery;
+                mockDelivery.isReadable();
+                result = true;
+                mockDelivery.isPartial();
+                result = false;
+                mockDelivery.pending();
+                result = 10;
+                mockReceiver.recv((byte[]) any, anyInt, anyInt);
+                result = 10;
+                Proton.message();
+                result = mockProtonMessage;
+                mockProtonMessage.getApplicationProperties();
+                result = new ApplicationProperties(response);
+                mockSession.sender(anyString);
+                result = mockSender;
+                mockSession.receiver(anyString);
+                result = mockReceiver;
+            }
+        };
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+        connection.addListener(mockServerListener);
+        Deencapsulation.setField(connection, "session", mockSession);
+
+        connection.onDelivery(mockEvent);
+
+        Boolean cbsAuthenticated = Deencapsulation.getField(connection, "cbsAuthenticated");
+        assertEquals(true, cbsAuthenticated);
+        new Verifications()
+        {
+            {
+                mockDelivery.disposition(Accepted.getInstance());
+                times = 1;
+                mockDelivery.settle();
+                times = 1;
+                mockSession.sender("sender");
+                times = 1;
+                mockSession.receiver("receiver");
+                times = 1;
+                mockServerListener.messageReceived((AmqpsMessage) any);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_094: [If a put-token request is rejected, the event handler shall
+    // attempt to reconnect if the connection was not authenticated yet, otherwise it shall retry later.]
+    @Test
+    public void onDeliveryOnCbsReceiverReconnectsIfTheFirstTokenIsRejected() throws IOException
+    {
+        baseExpectations();
+
+        final Map<String, Object> response = new HashMap<>();
+        response.put("status-code", 401);
+        new NonStrictExpectations()
+        {
+            {
+                mockEvent.getLink();
+                result = mockReceiver;
+                mockReceiver.getName();
+                result = "cbs_receiver";
+                mockReceiver.current();
+                result = mockDelivery;
+                mockDelivery.isReadable();
+                result = true;
+                mockDelivery.isPartial();
+                result = false;
+                Proton.message();
+                result = mockProtonMessage;
+                mockProtonMessage.getApplicationProperties();
+                result = new ApplicationProperties(response);
+            }
+        };
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+        connection.addListener(mockServerListener);
+        connection.setAutoReconnect(false);
+
+        connection.onDelivery(mockEvent);
+
+        State actualState = Deencapsulation.getField(connection, "state");
+        assertEquals(State.CLOSED, actualState);
+        new Verifications()
+        {
+            {
+                mockServerListener.connectionLost();
+                times = 1;
+                mockSession.sender("sender");
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_094: [If a put-token request is rejected, the event handler shall
+    // attempt to reconnect if the connection was not authenticated yet, otherwise it shall retry later.]
+    @Test
+    public void onDeliveryOnCbsReceiverRetriesLaterIfARenewedTokenIsRejected() throws IOException
+    {
+        baseExpectations();
+
+        final Map<String, Object> response = new HashMap<>();
+        response.put("status-code", 401);
+        new NonStrictExpectations()
+        {
+            {
+                mockEvent.getLink();
+                result = mockReceiver;
+                mockReceiver.getName();
+                result = "cbs_receiver";
+                mockReceiver.current();
+                result = mockDelivery;
+                mockDelivery.isReadable();
+                result = true;
+                mockDelivery.isPartial();
+                result = false;
+                Proton.message();
+                result = mockProtonMessage;
+                mockProtonMessage.getApplicationProperties();
+                result = new ApplicationProperties(response);
+            }
+        };
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+        connection.addListener(mockServerListener);
+        Deencapsulation.setField(connection, "cbsAuthenticated", true);
+
+        long startMillis = System.currentTimeMillis();
+        connection.onDelivery(mockEvent);
+
+        long cbsRenewalDueMillis = Deencapsulation.getField(connection, "cbsRenewalDueMillis");
+        assertTrue(cbsRenewalDueMillis >= startMillis);
+        new Verifications()
+        {
+            {
+                mockServerListener.connectionLost();
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_086: [If the connection is authenticated by claims-based security and the
+    // renewal of the token is due or was requested, the event handler shall send a new put-token request.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_090: [The function shall request the token to be renewed on the next reactor tick.]
+    @Test
+    public void onReactorQuiescedRenewsTheTokenWhenDueOrRequested() throws IOException
+    {
+        baseExpectations();
+
+        new NonStrictExpectations()
+        {
+            {
+                mockSender.getCredit();
+                result = 1;
+                Proton.message();
+                result = mockProtonMessage;
+                mockConfig.getTokenValidSecs();
+                result = 3600L;
+            }
+        };
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+        Deencapsulation.setField(connection, "cbsSender", mockSender);
+        Deencapsulation.setField(connection, "cbsAuthenticated", true);
+        Deencapsulation.setField(connection, "cbsRenewalDueMillis", System.currentTimeMillis() + 60 * 1000L);
+
+        connection.onReactorQuiesced(mockEvent);
+        connection.renewToken();
+        connection.onReactorQuiesced(mockEvent);
+        Deencapsulation.setField(connection, "cbsRenewalDueMillis", System.currentTimeMillis() - 1);
+        connection.onReactorQuiesced(mockEvent);
+
+        new Verifications()
+        {
+            {
+                mockSender.send((byte[]) any, anyInt, anyInt);
+                times = 2;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_088: [If the claims-based security sender link is closed remotely, the
+    // event handler shall attempt to reconnect, since the token could not be renewed anymore.]
+    @Test
+    public void onLinkRemoteCloseOnCbsSenderReconnects() throws IOException
+    {
+        baseExpectations();
+
+        new NonStrictExpectations()
+        {
+            {
+                mockEvent.getLink();
+                result = mockSender;
+                mockSender.getName();
+                result = "cbs_sender";
+            }
+        };
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+        connection.addListener(mockServerListener);
+        connection.setAutoReconnect(false);
+
+        connection.onLinkRemoteClose(mockEvent);
+
+        new Verifications()
+        {
+            {
+                mockServerListener.connectionLost();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_089: [The claims-based security links shall use the $cbs node address as Target and Source.]
+    @Test
+    public void onLinkInitCbsLinksUseTheCbsAddress() throws IOException
+    {
+        baseExpectations();
+
+        new NonStrictExpectations()
+        {
+            {
+                mockEvent.getLink();
+                returns(mockSender, mockReceiver);
+                mockSender.getName();
+                result = "cbs_sender";
+                mockReceiver.getName();
+                result = "cbs_receiver";
+            }
+        };
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+        connection.onLinkInit(mockEvent);
+        connection.onLinkInit(mockEvent);
+
+        final List<String> addresses = new ArrayList<>();
+        new Verifications()
+        {
+            {
+                mockSender.setTarget((Target) any);
+                times = 1;
+                mockReceiver.setSource((Source) any);
+                times = 1;
+                mockTarget.setAddress(withCapture(addresses));
+            }
+        };
+        assertEquals(2, addresses.size());
+        assertEquals("$cbs", addresses.get(0));
+        assertEquals("$cbs", addresses.get(1));
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_095: [If the shared event loop is enabled, the constructor shall not create its own Proton reactor.]
+    @Test
+    public void constructorWithSharedEventLoopDoesNotCreateReactor() throws IOException
+    {
+        baseExpectations();
+
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.isAmqpSharedEventLoop();
+                result = true;
+            }
+        };
+
+        AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+
+        Reactor actualReactor = Deencapsulation.getField(connection, "reactor");
+        assertEquals(null, actualReactor);
+        new Verifications()
+        {
+            {
+                Proton.reactor((Handler) any);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_096: [If the shared event loop is enabled, the function shall register
+    // the connection in the shared event loop group instead of running its own reactor.]
+    @Test
+    public void openWithSharedEventLoopRegistersTheConnection(
+            @Mocked final AmqpsEventLoopGroup mockEventLoopGroup) throws IOException, InterruptedException
+    {
+        baseExpectations();
+
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.isAmqpSharedEventLoop();
+                result = true;
+                AmqpsEventLoopGroup.getInstance();
+                result = mockEventLoopGroup;
+                mockOpenLock.waitLock(anyLong);
+            }
+        };
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+        Deencapsulation.setField(connection, "openLock", mockOpenLock);
+
+        connection.open();
+
+        new Verifications()
+        {
+            {
+                mockEventLoopGroup.register(connection);
+                times = 1;
+                new IotHubReactor((Reactor) any);
+                times = 0;
+                mockOpenLock.waitLock(anyLong);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_097: [If the shared event loop is enabled, the function shall not stop
+    // the reactor, as it drives other connections.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_113: [If the shared event loop is enabled and the function is not called
+    // on the event loop thread, the function shall close the links, the session and the connection on the event
+    // loop thread instead, and wake the event loop up.]
+    @Test
+    public void closeWithSharedEventLoopDoesNotStopTheReactor() throws IOException, InterruptedException
+    {
+        baseExpectations();
+
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.isAmqpSharedEventLoop();
+                result = true;
+                mockCloseLock.waitLock(anyLong);
+            }
+        };
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+        Deencapsulation.setField(connection, "state", State.OPEN);
+        Deencapsulation.setField(connection, "connection", mockConnection);
+        Deencapsulation.setField(connection, "reactor", mockReactor);
+        Deencapsulation.setField(connection, "closeLock", mockCloseLock);
+
+        connection.close();
+
+        new Verifications()
+        {
+            {
+                mockConnection.close();
+                times = 0;
+                mockReactor.wakeup();
+                times = 1;
+            }
+        };
+
+        connection.onReactorQuiesced(mockEvent);
+
+        new Verifications()
+        {
+            {
+                mockConnection.close();
+                times = 1;
+                mockReactor.stop();
+                times = 0;
+                mockCloseLock.waitLock(anyLong);
+                times = 1;
+            }
+        };
+        boolean closeRequested = Deencapsulation.getField(connection, "closeRequested");
+        assertTrue(closeRequested);
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_114: [If the shared event loop is enabled and the function is not called
+    // on the event loop thread, the function shall send on the event loop thread and wait for the delivery hash.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_116: [The event handler shall run the sends and closes queued by other
+    // threads, in the order they were queued.]
+    @Test
+    public void sendMessageFromSeveralThreadsSendsOnTheSharedEventLoopThread() throws IOException, InterruptedException
+    {
+        baseExpectations();
+
+        final Queue<Thread> sendingThreads = new ConcurrentLinkedQueue<>();
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.isAmqpSharedEventLoop();
+                result = true;
+                mockSender.getCredit();
+                result = 100;
+                mockSender.delivery((byte[]) any);
+                result = mockDelivery;
+                mockSender.send((byte[]) any, anyInt, anyInt);
+                result = new Delegate()
+                {
+                    int send(byte[] bytes, int offset, int length)
+                    {
+                        sendingThreads.add(Thread.currentThread());
+                        return length;
+                    }
+                };
+            }
+        };
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+        Deencapsulation.setField(connection, "state", State.OPEN);
+        Deencapsulation.setField(connection, "sender", mockSender);
+
+        final AtomicBoolean eventLoopRunning = new AtomicBoolean(true);
+        Thread eventLoopThread = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                connection.connectToHost(mockReactor);
+                while (eventLoopRunning.get())
+                {
+                    connection.onReactorQuiesced(mockEvent);
+                    Thread.yield();
+                }
+            }
+        };
+        eventLoopThread.start();
+        while (Deencapsulation.getField(connection, "eventLoopThread") == null)
+        {
+            Thread.sleep(1);
+        }
+
+        final int sendsPerThread = 10;
+        final Queue<Integer> deliveryHashes = new ConcurrentLinkedQueue<>();
+        List<Thread> callers = new ArrayList<>();
+        for (int i = 0; i < 4; i++)
+        {
+            Thread caller = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    for (int j = 0; j < sendsPerThread; j++)
+                    {
+                        deliveryHashes.add(connection.sendMessage(mockProtonMessage));
+                    }
+                }
+            };
+            callers.add(caller);
+            caller.start();
+        }
+        for (Thread caller : callers)
+        {
+            caller.join();
+        }
+        eventLoopRunning.set(false);
+        eventLoopThread.join();
+
+        assertEquals(4 * sendsPerThread, deliveryHashes.size());
+        for (Integer deliveryHash : deliveryHashes)
+        {
+            assertEquals((Integer) mockDelivery.hashCode(), deliveryHash);
+        }
+        assertEquals(4 * sendsPerThread, sendingThreads.size());
+        for (Thread sendingThread : sendingThreads)
+        {
+            assertEquals(eventLoopThread, sendingThread);
+        }
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_117: [When the connection leaves the shared event loop, the sends still
+    // queued shall be cancelled, so their callers do not wait for them.]
+    @Test
+    public void sendMessageOnSharedEventLoopReturnsMinusOneIfTheConnectionLeavesTheEventLoop(
+            @Mocked final AmqpsEventLoopGroup mockEventLoopGroup) throws IOException, InterruptedException
+    {
+        baseExpectations();
+
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.isAmqpSharedEventLoop();
+                result = true;
+                AmqpsEventLoopGroup.getInstance();
+                result = mockEventLoopGroup;
+                mockEvent.getConnection();
+                result = mockConnection;
+            }
+        };
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+        Deencapsulation.setField(connection, "state", State.OPEN);
+        Deencapsulation.setField(connection, "sender", mockSender);
+        Deencapsulation.setField(connection, "reactor", mockReactor);
+
+        final Queue<Integer> deliveryHashes = new ConcurrentLinkedQueue<>();
+        Thread caller = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                deliveryHashes.add(connection.sendMessage(mockProtonMessage));
+            }
+        };
+        caller.start();
+        Queue<?> pendingEventLoopTasks = Deencapsulation.getField(connection, "pendingEventLoopTasks");
+        while (pendingEventLoopTasks.isEmpty())
+        {
+            Thread.sleep(1);
+        }
+
+        connection.onConnectionUnbound(mockEvent);
+        caller.join();
+
+        assertEquals((Integer) (-1), deliveryHashes.poll());
+        new Verifications()
+        {
+            {
+                mockSender.send((byte[]) any, anyInt, anyInt);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_098: [If the shared event loop is enabled, the event handler shall
+    // free the Proton connection, so the shared reactor releases it.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_099: [If the shared event loop is enabled and the connection is
+    // reconnecting, the event handler shall schedule the reconnection on the shared reactor after the backoff.]
+    @Test
+    public void onConnectionUnboundWithSharedEventLoopSchedulesTheReconnection(
+            @Mocked final AmqpsEventLoopGroup mockEventLoopGroup) throws IOException
+    {
+        baseExpectations();
+
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.isAmqpSharedEventLoop();
+                result = true;
+                mockEvent.getConnection();
+                result = mockConnection;
+                mockEvent.getReactor();
+                result = mockReactor;
+            }
+        };
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+        Deencapsulation.setField(connection, "reconnectCall", true);
+        Deencapsulation.setField(connection, "reconnectDelayMillis", 400);
+
+        connection.onConnectionUnbound(mockEvent);
+
+        new Verifications()
+        {
+            {
+                mockConnection.free();
+                times = 1;
+                mockReactor.schedule(400, connection);
+                times = 1;
+                mockEventLoopGroup.unregister(connection);
+                times = 0;
+            }
+        };
+        boolean reconnectCall = Deencapsulation.getField(connection, "reconnectCall");
+        assertEquals(false, reconnectCall);
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_100: [If the shared event loop is enabled and the connection is
+    // not reconnecting, the event handler shall unregister the connection from the shared event loop group
+    // and notify that the connection is closed.]
+    @Test
+    public void onConnectionUnboundWithSharedEventLoopUnregistersClosedConnection(
+            @Mocked final AmqpsEventLoopGroup mockEventLoopGroup) throws IOException
+    {
+        baseExpectations();
+
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.isAmqpSharedEventLoop();
+                result = true;
+                AmqpsEventLoopGroup.getInstance();
+                result = mockEventLoopGroup;
+                mockEvent.getConnection();
+                result = mockConnection;
+            }
+        };
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+        Deencapsulation.setField(connection, "reactor", mockReactor);
+        Deencapsulation.setField(connection, "closeLock", mockCloseLock);
+
+        connection.onConnectionUnbound(mockEvent);
+
+        new Verifications()
+        {
+            {
+                mockEventLoopGroup.unregister(connection);
+                times = 1;
+                mockCloseLock.notifyLock();
+                times = 1;
+                mockReactor.schedule(anyInt, (Handler) any);
+                times = 0;
+            }
+        };
+        Reactor actualReactor = Deencapsulation.getField(connection, "reactor");
+        assertEquals(null, actualReactor);
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_101: [If the connection was closed during the backoff, the event
+    // handler shall unregister the connection from the shared event loop group instead of reconnecting.]
+    @Test
+    public void onTimerTaskAfterCloseUnregistersTheConnection(
+            @Mocked final AmqpsEventLoopGroup mockEventLoopGroup) throws IOException
+    {
+        baseExpectations();
+
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.isAmqpSharedEventLoop();
+                result = true;
+                AmqpsEventLoopGroup.getInstance();
+                result = mockEventLoopGroup;
+                mockEvent.getReactor();
+                result = mockReactor;
+            }
+        };
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+        Deencapsulation.setField(connection, "closeRequested", true);
+        Deencapsulation.setField(connection, "closeLock", mockCloseLock);
+
+        connection.onTimerTask(mockEvent);
+
+        new Verifications()
+        {
+            {
+                mockEventLoopGroup.unregister(connection);
+                times = 1;
+                mockCloseLock.notifyLock();
+                times = 1;
+                mockReactor.connectionToHost(anyString, anyInt, (Handler) any);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_102: [The event handler shall create a new sasToken and reconnect
+    // to the IoT Hub using the shared reactor.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_103: [The function shall connect to the IoT Hub host using the given
+    // reactor, on the web socket port if web sockets are enabled, and keep the reactor that drives the connection.]
+    @Test
+    public void onTimerTaskReconnectsUsingTheSharedReactor() throws IOException
+    {
+        baseExpectations();
+
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.isAmqpSharedEventLoop();
+                result = true;
+                mockEvent.getReactor();
+                result = mockReactor;
+            }
+        };
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, true);
+
+        connection.onTimerTask(mockEvent);
+
+        new Verifications()
+        {
+            {
+                new IotHubSasToken(mockConfig, anyLong);
+                times = 1;
+                mockReactor.connectionToHost(hostName, 443, connection);
+                times = 1;
+            }
+        };
+        Reactor actualReactor = Deencapsulation.getField(connection, "reactor");
+        assertEquals(mockReactor, actualReactor);
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_107: [The constructor shall create a SAS token cache for the
+    // configuration, which the connections and the put-token requests take their token from.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_108: [The sasToken shall be taken from the SAS token cache, which
+    // renews it only if it is due for renewal.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_109: [The function shall drop the cached token, so the renewal carries a new one.]
+    @Test
+    public void onTimerTaskReusesTheSasTokenUntilRenewal() throws IOException
+    {
+        baseExpectations();
+
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.isAmqpSharedEventLoop();
+                result = true;
+                mockEvent.getReactor();
+                result = mockReactor;
+                mockConfig.getTokenValidSecs();
+                result = 3600L;
+                mockConfig.getSasTokenRenewalFraction();
+                result = 0.75;
+            }
+        };
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, true);
+
+        connection.onTimerTask(mockEvent);
+        connection.onTimerTask(mockEvent);
+        connection.renewToken();
+        connection.onTimerTask(mockEvent);
+
+        new Verifications()
+        {
+            {
+                new IotHubSasToken(mockConfig, anyLong);
+                times = 2;
+                mockReactor.connectionToHost(hostName, 443, connection);
+                times = 3;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_092: [If the device key is available, the token shall be renewed once
+    // the SAS token renewal fraction of its validity has elapsed, or three quarters of it if the fraction is 0,
+    // otherwise it shall not be renewed.]
+    @Test
+    public void putTokenRenewalFollowsTheRenewalFraction() throws IOException
+    {
+        baseExpectations();
+
+        new NonStrictExpectations()
+        {
+            {
+                mockSender.getCredit();
+                result = 1;
+                Proton.message();
+                result = mockProtonMessage;
+                mockProtonMessage.encode((byte[]) any, anyInt, anyInt);
+                result = 10;
+                mockConfig.getTokenValidSecs();
+                result = 3600L;
+                mockConfig.getSasTokenRenewalFraction();
+                result = 0.5;
+            }
+        };
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+        Deencapsulation.setField(connection, "cbsSender", mockSender);
+
+        long startMillis = System.currentTimeMillis();
+        Deencapsulation.invoke(connection, "sendPutToken");
+
+        long cbsRenewalDueMillis = Deencapsulation.getField(connection, "cbsRenewalDueMillis");
+        assertTrue(cbsRenewalDueMillis >= (startMillis / 1000L) * 1000L + 1800 * 1000L);
+        assertTrue(cbsRenewalDueMillis <= System.currentTimeMillis() + 1800 * 1000L);
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_112: [The renewal shall be due at the earliest of the renewal time of
+    // the cached token and its expiry less the rest of its lifetime after the renewal fraction, since the cached
+    // token may be partway through its life.]
+    @Test
+    public void putTokenRenewalFollowsTheCachedTokenLife() throws IOException
+    {
+        baseExpectations();
+
+        new NonStrictExpectations()
+        {
+            {
+                mockSender.getCredit();
+                result = 1;
+                Proton.message();
+                result = mockProtonMessage;
+                mockProtonMessage.encode((byte[]) any, anyInt, anyInt);
+                result = 10;
+                mockConfig.getTokenValidSecs();
+                result = 3600L;
+                mockConfig.getSasTokenRenewalFraction();
+                result = 0.5;
+            }
+        };
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+        Deencapsulation.setField(connection, "cbsSender", mockSender);
+        IotHubSasTokenCache sasTokenCache = Deencapsulation.getField(connection, "sasTokenCache");
+        sasTokenCache.getToken();
+        // the cached token was created 1000 seconds ago.
+        long nowSecs = System.currentTimeMillis() / 1000L;
+        Deencapsulation.setField(sasTokenCache, "expiryTime", nowSecs + 2601);
+        Deencapsulation.setField(sasTokenCache, "renewalTime", nowSecs + 800);
+
+        Deencapsulation.invoke(connection, "sendPutToken");
+
+        long cbsRenewalDueMillis = Deencapsulation.getField(connection, "cbsRenewalDueMillis");
+        assertEquals((nowSecs + 800) * 1000L, cbsRenewalDueMillis);
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_104: [If the shared event loop is enabled, the function shall not sleep
+    // on the shared reactor thread, and shall keep the backoff to schedule the reconnection instead.]
+    @Test
+    public void onTransportErrorWithSharedEventLoopKeepsTheBackoff() throws IOException
+    {
+        baseExpectations();
+
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.isAmqpSharedEventLoop();
+                result = true;
+            }
+        };
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+        Deencapsulation.setField(connection, "currentReconnectionAttempt", 8);
+
+        long startMillis = System.currentTimeMillis();
+        connection.onTransportError(mockEvent);
+        long elapsedMillis = System.currentTimeMillis() - startMillis;
+
+        int reconnectDelayMillis = Deencapsulation.getField(connection, "reconnectDelayMillis");
+        boolean reconnectCall = Deencapsulation.getField(connection, "reconnectCall");
+        assertTrue(reconnectDelayMillis > 0);
+        assertTrue(elapsedMillis < reconnectDelayMillis);
+        assertTrue(reconnectCall);
     }
 
     private void baseExpectations()
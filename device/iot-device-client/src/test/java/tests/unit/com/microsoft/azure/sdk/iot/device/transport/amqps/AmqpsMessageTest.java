@@ -4,6 +4,7 @@
  */
 package tests.unit.com.microsoft.azure.sdk.iot.device.transport.amqps;
 
+import com.microsoft.azure.sdk.iot.device.MessageType;
 import com.microsoft.azure.sdk.iot.device.transport.amqps.AmqpsMessage;
 import mockit.Mocked;
 import mockit.NonStrictExpectations;
@@ -14,6 +15,8 @@ import org.apache.qpid.proton.amqp.messaging.Released;
 import org.apache.qpid.proton.engine.Delivery;
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
+
 public class AmqpsMessageTest {
 
     @Mocked
@@ -99,4 +102,15 @@ public class AmqpsMessageTest {
         };
     }
 
+    // Tests_SRS_AMQPSMESSAGE_21_006: [The function shall save the message type.]
+    // Tests_SRS_AMQPSMESSAGE_21_007: [The function shall return the saved message type.]
+    @Test
+    public void setAmqpsMessageTypeSavesTheMessageType()
+    {
+        AmqpsMessage message = new AmqpsMessage();
+        message.setAmqpsMessageType(MessageType.DeviceMethods);
+
+        assertEquals(MessageType.DeviceMethods, message.getAmqpsMessageType());
+    }
+
 }
@@ -4,6 +4,9 @@
 package tests.unit.com.microsoft.azure.sdk.iot.device.transport.amqps;
 
 import com.microsoft.azure.sdk.iot.device.*;
+import com.microsoft.azure.sdk.iot.device.DeviceTwin.DeviceMethodMessage;
+import com.microsoft.azure.sdk.iot.device.DeviceTwin.DeviceOperations;
+import com.microsoft.azure.sdk.iot.device.DeviceTwin.DeviceTwinMessage;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubCallbackPacket;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubOutboundPacket;
 import com.microsoft.azure.sdk.iot.device.transport.State;
@@ -12,21 +15,34 @@ import com.microsoft.azure.sdk.iot.device.transport.amqps.AmqpsMessage;
 import com.microsoft.azure.sdk.iot.device.transport.amqps.AmqpsTransport;
 import mockit.*;
 import org.apache.qpid.proton.Proton;
+import org.apache.qpid.proton.amqp.Binary;
+import org.apache.qpid.proton.amqp.Symbol;
 import org.apache.qpid.proton.amqp.messaging.ApplicationProperties;
+import org.apache.qpid.proton.amqp.messaging.Data;
+import org.apache.qpid.proton.amqp.messaging.MessageAnnotations;
+import org.apache.qpid.proton.amqp.messaging.Properties;
 import org.apache.qpid.proton.message.impl.MessageImpl;
 import org.junit.Assert;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.LinkedBlockingQueue;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 /** Unit tests for AmqpsTransport. */
@@ -336,7 +352,9 @@ public class AmqpsTransportTest
                 result = mockPacket;
                 mockPacket.getMessage();
                 result = mockMsg;
-                mockMsg.getBytes();
+                mockMsg.getBodyLength();
+                result = messageBytes.length;
+                mockMsg.getBodyArray();
                 result = messageBytes;
             }
         };
@@ -425,12 +443,14 @@ public class AmqpsTransportTest
                 result = mockPacket;
                 mockPacket.getMessage();
                 result = mockMsg;
-                mockMsg.getBytes();
+                mockMsg.getBodyLength();
+                result = messageBytes.length;
+                mockMsg.getBodyArray();
                 result = messageBytes;
                 new MessageImpl();
                 result = mockProtonMessage;
-                mockMsg.getProperties();
-                result = iotHubMessageProperties;
+                mockMsg.getPropertiesView();
+                result = Arrays.asList(iotHubMessageProperties);
                 mockConnection.sendMessage(mockProtonMessage);
                 result = 1;
                 new ApplicationProperties(userProperties);
@@ -478,7 +498,9 @@ public class AmqpsTransportTest
                 result = mockPacket;
                 mockPacket.getMessage();
                 result = mockMsg;
-                mockMsg.getBytes();
+                mockMsg.getBodyLength();
+                result = 0;
+                mockMsg.getBodyArray();
                 result = new byte[0];
             }
         };
@@ -517,7 +539,9 @@ public class AmqpsTransportTest
                 result = mockPacket;
                 mockPacket.getMessage();
                 result = mockMsg;
-                mockMsg.getBytes();
+                mockMsg.getBodyLength();
+                result = messageBytes.length;
+                mockMsg.getBodyArray();
                 result = messageBytes;
                 mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any);
                 returns (1, 2);
@@ -565,7 +589,9 @@ public class AmqpsTransportTest
                 result = mockPacket;
                 mockPacket.getMessage();
                 result = mockMsg;
-                mockMsg.getBytes();
+                mockMsg.getBodyLength();
+                result = messageBytes.length;
+                mockMsg.getBodyArray();
                 result = messageBytes;
                 mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any);
                 returns (1, -1);
@@ -617,7 +643,9 @@ public class AmqpsTransportTest
                 result = mockPacket;
                 mockPacket.getMessage();
                 result = mockMsg;
-                mockMsg.getBytes();
+                mockMsg.getBodyLength();
+                result = messageBytes.length;
+                mockMsg.getBodyArray();
                 result = messageBytes;
                 mockMsg.isExpired();
                 returns (true, false);
@@ -656,6 +684,760 @@ public class AmqpsTransportTest
         };
     }
 
+    // Tests_SRS_AMQPSTRANSPORT_21_041: [If the sent message hash is not valid, the message shall be put back
+    // at the head of the waiting list and the function shall stop sending.]
+    // Tests_SRS_AMQPSTRANSPORT_21_081: [If the telemetry send failed because the sender link has no credit left,
+    // the transport shall be marked as out of credit until IoT Hub grants credit on that link.]
+    @Test
+    public void sendMessagesStopsSendingWhenLinkIsOutOfCredit(
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubEventCallback mockCallback,
+            @Mocked final IotHubOutboundPacket mockPacket)
+            throws IOException
+    {
+        final Map<String, Object> context = new HashMap<>();
+        final byte[] messageBytes = new byte[] {1, 2};
+        new NonStrictExpectations()
+        {
+            {
+                new AmqpsIotHubConnection(mockConfig, false);
+                result = mockConnection;
+                new IotHubOutboundPacket(mockMsg, mockCallback, context);
+                result = mockPacket;
+                mockPacket.getMessage();
+                result = mockMsg;
+                mockMsg.getBodyLength();
+                result = messageBytes.length;
+                mockMsg.getBodyArray();
+                result = messageBytes;
+                mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any);
+                result = -1;
+                mockConnection.isOutOfCredit();
+                result = true;
+            }
+        };
+
+        AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
+        transport.open();
+        transport.addMessage(mockMsg, mockCallback, context);
+        transport.addMessage(mockMsg, mockCallback, context);
+        transport.addMessage(mockMsg, mockCallback, context);
+        transport.sendMessages();
+
+        Queue<IotHubOutboundPacket> waitingMessages = Deencapsulation.getField(transport, "waitingMessages");
+        Assert.assertEquals(3, waitingMessages.size());
+        assertTrue(transport.isBackPressured());
+
+        new Verifications()
+        {
+            {
+                mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_21_082: [If the sender link has credit again once the transport is marked as out
+    // of credit, the transport shall no longer be marked as out of credit.]
+    @Test
+    public void sendMessagesKeepsSendingIfCreditIsGrantedWhileMarkingTheTransportOutOfCredit(
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubEventCallback mockCallback,
+            @Mocked final IotHubOutboundPacket mockPacket)
+            throws IOException
+    {
+        final Map<String, Object> context = new HashMap<>();
+        final byte[] messageBytes = new byte[] {1, 2};
+        new NonStrictExpectations()
+        {
+            {
+                new AmqpsIotHubConnection(mockConfig, false);
+                result = mockConnection;
+                new IotHubOutboundPacket(mockMsg, mockCallback, context);
+                result = mockPacket;
+                mockPacket.getMessage();
+                result = mockMsg;
+                mockMsg.getBodyLength();
+                result = messageBytes.length;
+                mockMsg.getBodyArray();
+                result = messageBytes;
+                mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any);
+                result = -1;
+            }
+        };
+
+        final AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
+        transport.open();
+        transport.addMessage(mockMsg, mockCallback, context);
+
+        // the reactor grants credit after the send path saw the link out of credit, but before it marked the transport
+        new NonStrictExpectations()
+        {
+            {
+                mockConnection.isOutOfCredit();
+                result = new Delegate()
+                {
+                    private int calls = 0;
+
+                    boolean isOutOfCredit()
+                    {
+                        if (calls++ == 0)
+                        {
+                            transport.linkCreditGranted(100);
+                            return true;
+                        }
+                        return false;
+                    }
+                };
+            }
+        };
+
+        transport.sendMessages();
+        assertFalse(transport.isBackPressured());
+
+        transport.sendMessages();
+
+        new Verifications()
+        {
+            {
+                mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any);
+                times = 2;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_21_041: [If the sent message hash is not valid, the message shall be put back
+    // at the head of the waiting list and the function shall stop sending.]
+    // Tests_SRS_AMQPSTRANSPORT_21_081: [If the telemetry send failed because the sender link has no credit left,
+    // the transport shall be marked as out of credit until IoT Hub grants credit on that link.]
+    @Test
+    public void sendMessagesRetriesWithoutBackPressureIfSendFailsWithCredit(
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubEventCallback mockCallback,
+            @Mocked final IotHubOutboundPacket mockPacket)
+            throws IOException
+    {
+        final Map<String, Object> context = new HashMap<>();
+        final byte[] messageBytes = new byte[] {1, 2};
+        new NonStrictExpectations()
+        {
+            {
+                new AmqpsIotHubConnection(mockConfig, false);
+                result = mockConnection;
+                new IotHubOutboundPacket(mockMsg, mockCallback, context);
+                result = mockPacket;
+                mockPacket.getMessage();
+                result = mockMsg;
+                mockMsg.getBodyLength();
+                result = messageBytes.length;
+                mockMsg.getBodyArray();
+                result = messageBytes;
+                mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any);
+                result = -1;
+                mockConnection.isOutOfCredit();
+                result = false;
+            }
+        };
+
+        AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
+        transport.open();
+        transport.addMessage(mockMsg, mockCallback, context);
+        transport.addMessage(mockMsg, mockCallback, context);
+        transport.sendMessages();
+        transport.sendMessages();
+
+        Queue<IotHubOutboundPacket> waitingMessages = Deencapsulation.getField(transport, "waitingMessages");
+        Assert.assertEquals(2, waitingMessages.size());
+        Assert.assertFalse(transport.isBackPressured());
+
+        new Verifications()
+        {
+            {
+                mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any);
+                times = 2;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_21_080: [If a twin or method message cannot be sent, it shall be put back
+    // on the waiting list after the loop, and the function shall keep sending the other messages.]
+    @Test
+    public void sendMessagesKeepsSendingTelemetryIfTwinLinksAreNotReady(
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubEventCallback mockCallback)
+            throws IOException
+    {
+        final byte[] messageBytes = new byte[] {1, 2};
+        new NonStrictExpectations()
+        {
+            {
+                new AmqpsIotHubConnection(mockConfig, false);
+                result = mockConnection;
+                mockMsg.getBodyLength();
+                result = messageBytes.length;
+                mockMsg.getBodyArray();
+                result = messageBytes;
+                mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any, (MessageType) any);
+                result = -1;
+                mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any);
+                result = 1;
+            }
+        };
+
+        DeviceTwinMessage getMessage = new DeviceTwinMessage(new byte[0]);
+        getMessage.setRequestId("7");
+        getMessage.setDeviceOperationType(DeviceOperations.DEVICE_OPERATION_TWIN_GET_REQUEST);
+
+        AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
+        transport.open();
+        transport.addMessage(getMessage, mockCallback, null);
+        transport.addMessage(mockMsg, mockCallback, null);
+        transport.sendMessages();
+
+        Queue<IotHubOutboundPacket> waitingMessages = Deencapsulation.getField(transport, "waitingMessages");
+        Assert.assertEquals(1, waitingMessages.size());
+        Assert.assertSame(getMessage, waitingMessages.peek().getMessage());
+        Map<Integer, IotHubOutboundPacket> inProgressMessages = Deencapsulation.getField(transport, "inProgressMessages");
+        Assert.assertEquals(1, inProgressMessages.size());
+        Assert.assertFalse(transport.isBackPressured());
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_21_040: [If the sender link is out of credit, the function shall return without attempting to send.]
+    @Test
+    public void sendMessagesDoesNotRetryUntilLinkCreditIsGranted(
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubEventCallback mockCallback,
+            @Mocked final IotHubOutboundPacket mockPacket)
+            throws IOException
+    {
+        final Map<String, Object> context = new HashMap<>();
+        final byte[] messageBytes = new byte[] {1, 2};
+        new NonStrictExpectations()
+        {
+            {
+                new AmqpsIotHubConnection(mockConfig, false);
+                result = mockConnection;
+                new IotHubOutboundPacket(mockMsg, mockCallback, context);
+                result = mockPacket;
+                mockPacket.getMessage();
+                result = mockMsg;
+                mockMsg.getBodyLength();
+                result = messageBytes.length;
+                mockMsg.getBodyArray();
+                result = messageBytes;
+                mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any);
+                returns(-1, 1);
+                mockConnection.isOutOfCredit();
+                result = true;
+            }
+        };
+
+        AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
+        transport.open();
+        transport.addMessage(mockMsg, mockCallback, context);
+        transport.sendMessages();
+        transport.sendMessages();
+        transport.sendMessages();
+
+        new Verifications()
+        {
+            {
+                mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_21_043: [If the credit granted is positive, the transport shall no longer be marked as out of credit.]
+    // Tests_SRS_AMQPSTRANSPORT_21_042: [The function shall reuse the Proton message created by a previous send attempt of the same message.]
+    @Test
+    public void linkCreditGrantedResumesSendingWithTheSameProtonMessage(
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubEventCallback mockCallback,
+            @Mocked final IotHubOutboundPacket mockPacket)
+            throws IOException
+    {
+        final Map<String, Object> context = new HashMap<>();
+        final byte[] messageBytes = new byte[] {1, 2};
+        new NonStrictExpectations()
+        {
+            {
+                new AmqpsIotHubConnection(mockConfig, false);
+                result = mockConnection;
+                new IotHubOutboundPacket(mockMsg, mockCallback, context);
+                result = mockPacket;
+                mockPacket.getMessage();
+                result = mockMsg;
+                mockMsg.getBodyLength();
+                result = messageBytes.length;
+                mockMsg.getBodyArray();
+                result = messageBytes;
+                mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any);
+                returns(-1, 1);
+            }
+        };
+
+        AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
+        transport.open();
+        transport.addMessage(mockMsg, mockCallback, context);
+        transport.sendMessages();
+        transport.linkCreditGranted(10);
+        transport.sendMessages();
+
+        Map<Integer, IotHubOutboundPacket> inProgressMessages = Deencapsulation.getField(transport, "inProgressMessages");
+        Assert.assertEquals(1, inProgressMessages.size());
+        Assert.assertFalse(transport.isBackPressured());
+
+        final List<org.apache.qpid.proton.message.Message> sentMessages = new ArrayList<>();
+        new Verifications()
+        {
+            {
+                mockConnection.sendMessage(withCapture(sentMessages));
+                times = 2;
+            }
+        };
+        assertSame(sentMessages.get(0), sentMessages.get(1));
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_21_043: [If the credit granted is positive, the transport shall no longer be marked as out of credit.]
+    @Test
+    public void linkCreditGrantedKeepsTransportOutOfCreditIfNoCreditWasGranted() throws IOException
+    {
+        AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
+        transport.open();
+        Deencapsulation.setField(transport, "creditStarved", true);
+
+        transport.linkCreditGranted(0);
+
+        assertTrue(transport.isBackPressured());
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_21_044: [The function shall return true if the sender link is out of credit, and false otherwise.]
+    @Test
+    public void isBackPressuredReturnsFalseIfLinkHasCredit() throws IOException
+    {
+        AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
+        transport.open();
+
+        Assert.assertFalse(transport.isBackPressured());
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_21_062: [If batching is enabled, the function shall pack the telemetry message
+    // together with the following telemetry messages on the waiting list, up to the configured size, and
+    // send them in a single batched message.]
+    // Tests_SRS_AMQPSTRANSPORT_21_064: [If the sent batch hash is valid, the batch shall be added to the in progress batches.]
+    @Test
+    public void sendMessagesPacksTelemetryMessagesInASingleBatch(
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubEventCallback mockCallback)
+            throws IOException
+    {
+        final byte[] messageBytes = new byte[] {1, 2};
+        new NonStrictExpectations()
+        {
+            {
+                new AmqpsIotHubConnection(mockConfig, false);
+                result = mockConnection;
+                mockConfig.getAmqpBatchMaxBytes();
+                result = 1024;
+                mockConfig.getAmqpBatchLingerMillis();
+                result = 0L;
+                mockMsg.getBodyLength();
+                result = messageBytes.length;
+                mockMsg.getBodyArray();
+                result = messageBytes;
+                mockMsg.getMessageId();
+                result = null;
+                mockMsg.getPropertiesView();
+                result = new ArrayList<MessageProperty>();
+                mockConnection.sendMessageBatch((List<org.apache.qpid.proton.message.Message>) any);
+                result = 7;
+            }
+        };
+
+        AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
+        transport.open();
+        transport.addMessage(mockMsg, mockCallback, 1);
+        transport.addMessage(mockMsg, mockCallback, 2);
+        transport.addMessage(mockMsg, mockCallback, 3);
+        transport.sendMessages();
+
+        Map<Integer, List<IotHubOutboundPacket>> inProgressBatches = Deencapsulation.getField(transport, "inProgressBatches");
+        assertEquals(3, inProgressBatches.get(7).size());
+        Assert.assertFalse(transport.isEmpty());
+
+        final List<List<org.apache.qpid.proton.message.Message>> sentBatches = new ArrayList<>();
+        new Verifications()
+        {
+            {
+                mockConnection.sendMessageBatch(withCapture(sentBatches));
+                times = 1;
+                mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any);
+                times = 0;
+            }
+        };
+        assertEquals(3, sentBatches.get(0).size());
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_21_062: [If batching is enabled, the function shall pack the telemetry message
+    // together with the following telemetry messages on the waiting list, up to the configured size, and
+    // send them in a single batched message.]
+    // Tests_SRS_AMQPSTRANSPORT_21_063: [A batch that holds a single message shall be sent as a regular message.]
+    @Test
+    public void sendMessagesStartsNewBatchWhenSizeLimitIsReached(
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubEventCallback mockCallback)
+            throws IOException
+    {
+        final byte[] messageBytes = new byte[] {1, 2};
+        new NonStrictExpectations()
+        {
+            {
+                new AmqpsIotHubConnection(mockConfig, false);
+                result = mockConnection;
+                mockConfig.getAmqpBatchMaxBytes();
+                result = 150;
+                mockConfig.getAmqpBatchLingerMillis();
+                result = 0L;
+                mockMsg.getBodyLength();
+                result = messageBytes.length;
+                mockMsg.getBodyArray();
+                result = messageBytes;
+                mockMsg.getMessageId();
+                result = null;
+                mockMsg.getPropertiesView();
+                result = new ArrayList<MessageProperty>();
+                mockConnection.sendMessageBatch((List<org.apache.qpid.proton.message.Message>) any);
+                result = 7;
+                mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any);
+                result = 8;
+            }
+        };
+
+        AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
+        transport.open();
+        transport.addMessage(mockMsg, mockCallback, 1);
+        transport.addMessage(mockMsg, mockCallback, 2);
+        transport.addMessage(mockMsg, mockCallback, 3);
+        transport.sendMessages();
+
+        final List<List<org.apache.qpid.proton.message.Message>> sentBatches = new ArrayList<>();
+        new Verifications()
+        {
+            {
+                mockConnection.sendMessageBatch(withCapture(sentBatches));
+                times = 1;
+                mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any);
+                times = 1;
+            }
+        };
+        assertEquals(2, sentBatches.get(0).size());
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_21_061: [If batching is enabled, the waiting messages do not fill a batch and contain
+    // no twin or method message, the function shall return without sending until the linger time has elapsed.]
+    @Test
+    public void sendMessagesWaitsForLingerTimeToFillBatch(
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubEventCallback mockCallback)
+            throws IOException
+    {
+        final byte[] messageBytes = new byte[] {1, 2};
+        new NonStrictExpectations()
+        {
+            {
+                new AmqpsIotHubConnection(mockConfig, false);
+                result = mockConnection;
+                mockConfig.getAmqpBatchMaxBytes();
+                result = 1024;
+                mockConfig.getAmqpBatchLingerMillis();
+                result = 60000L;
+                mockMsg.getBodyLength();
+                result = messageBytes.length;
+                mockMsg.getBodyArray();
+                result = messageBytes;
+                mockMsg.getMessageId();
+                result = null;
+                mockMsg.getPropertiesView();
+                result = new ArrayList<MessageProperty>();
+            }
+        };
+
+        AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
+        transport.open();
+        transport.addMessage(mockMsg, mockCallback, 1);
+        transport.addMessage(mockMsg, mockCallback, 2);
+        transport.sendMessages();
+
+        Queue<IotHubOutboundPacket> waitingMessages = Deencapsulation.getField(transport, "waitingMessages");
+        assertEquals(2, waitingMessages.size());
+
+        new Verifications()
+        {
+            {
+                mockConnection.sendMessageBatch((List<org.apache.qpid.proton.message.Message>) any);
+                times = 0;
+                mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_21_065: [If the sent batch hash is not valid, all its messages shall be put back at
+    // the head of the waiting list in their original order and the function shall stop sending.]
+    // Tests_SRS_AMQPSTRANSPORT_21_081: [If the telemetry send failed because the sender link has no credit left,
+    // the transport shall be marked as out of credit until IoT Hub grants credit on that link.]
+    @Test
+    public void sendMessagesPutsBatchBackInOrderWhenLinkIsOutOfCredit(
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubEventCallback mockCallback)
+            throws IOException
+    {
+        final byte[] messageBytes = new byte[] {1, 2};
+        new NonStrictExpectations()
+        {
+            {
+                new AmqpsIotHubConnection(mockConfig, false);
+                result = mockConnection;
+                mockConfig.getAmqpBatchMaxBytes();
+                result = 1024;
+                mockConfig.getAmqpBatchLingerMillis();
+                result = 0L;
+                mockMsg.getBodyLength();
+                result = messageBytes.length;
+                mockMsg.getBodyArray();
+                result = messageBytes;
+                mockMsg.getMessageId();
+                result = null;
+                mockMsg.getPropertiesView();
+                result = new ArrayList<MessageProperty>();
+                mockConnection.sendMessageBatch((List<org.apache.qpid.proton.message.Message>) any);
+                result = -1;
+                mockConnection.isOutOfCredit();
+                result = true;
+            }
+        };
+
+        AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
+        transport.open();
+        transport.addMessage(mockMsg, mockCallback, 1);
+        transport.addMessage(mockMsg, mockCallback, 2);
+        transport.addMessage(mockMsg, mockCallback, 3);
+        transport.sendMessages();
+
+        Queue<IotHubOutboundPacket> waitingMessages = Deencapsulation.getField(transport, "waitingMessages");
+        assertEquals(3, waitingMessages.size());
+        int expectedContext = 1;
+        for (IotHubOutboundPacket packet : waitingMessages)
+        {
+            assertEquals(expectedContext++, packet.getContext());
+        }
+        assertTrue(transport.isBackPressured());
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_21_045: [If the message is a device method subscription, the function shall
+    // open the method links and add a callback with the OK_EMPTY status to the callback list, without sending any message.]
+    @Test
+    public void sendMessagesOpensMethodLinksForMethodSubscription() throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                new AmqpsIotHubConnection(mockConfig, false);
+                result = mockConnection;
+            }
+        };
+
+        DeviceMethodMessage subscribeMessage = new DeviceMethodMessage(new byte[0]);
+        subscribeMessage.setDeviceOperationType(DeviceOperations.DEVICE_OPERATION_METHOD_SUBSCRIBE_REQUEST);
+
+        AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
+        transport.open();
+        transport.addMessage(subscribeMessage, mockIotHubEventCallback, null);
+        transport.sendMessages();
+
+        Queue<IotHubCallbackPacket> callbackList = Deencapsulation.getField(transport, "callbackList");
+        Assert.assertEquals(1, callbackList.size());
+        Assert.assertFalse(transport.isEmpty());
+
+        new Verifications()
+        {
+            {
+                mockConnection.openDeviceOperationLinks(MessageType.DeviceMethods);
+                times = 1;
+                new IotHubCallbackPacket(IotHubStatusCode.OK_EMPTY, mockIotHubEventCallback, null);
+                times = 1;
+                mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any, (MessageType) any);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_21_046: [The function shall not skip twin and method messages with empty body.]
+    // Tests_SRS_AMQPSTRANSPORT_21_047: [If the message is a twin or method message, the function shall create
+    // the Proton message with the correlation id and annotations of the device operation.]
+    // Tests_SRS_AMQPSTRANSPORT_21_049: [Twin and method messages shall be sent on the links of their own message type.]
+    // Tests_SRS_AMQPSTRANSPORT_21_056: [A get twin request shall be sent with the GET operation annotation.]
+    // Tests_SRS_AMQPSTRANSPORT_21_060: [Twin requests shall be kept by correlation id to correlate their responses.]
+    @Test
+    public void sendMessagesSendsTwinGetRequestOnTwinLinks() throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                new AmqpsIotHubConnection(mockConfig, false);
+                result = mockConnection;
+                mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any, MessageType.DeviceTwin);
+                result = 1;
+            }
+        };
+
+        DeviceTwinMessage getMessage = new DeviceTwinMessage(new byte[0]);
+        getMessage.setRequestId("7");
+        getMessage.setDeviceOperationType(DeviceOperations.DEVICE_OPERATION_TWIN_GET_REQUEST);
+
+        AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
+        transport.open();
+        transport.addMessage(getMessage, mockIotHubEventCallback, null);
+        transport.sendMessages();
+
+        Map<Integer, IotHubOutboundPacket> inProgressMessages = Deencapsulation.getField(transport, "inProgressMessages");
+        Assert.assertEquals(1, inProgressMessages.size());
+        Map<String, DeviceOperations> deviceTwinRequests = Deencapsulation.getField(transport, "deviceTwinRequests");
+        Assert.assertEquals(DeviceOperations.DEVICE_OPERATION_TWIN_GET_REQUEST, deviceTwinRequests.get("7"));
+
+        final List<Properties> properties = new ArrayList<>();
+        final List<MessageAnnotations> annotations = new ArrayList<>();
+        new Verifications()
+        {
+            {
+                mockProtonMessage.setProperties(withCapture(properties));
+                mockProtonMessage.setMessageAnnotations(withCapture(annotations));
+                mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any);
+                times = 0;
+            }
+        };
+        Assert.assertEquals("7", properties.get(0).getCorrelationId());
+        Assert.assertEquals("GET", annotations.get(0).getValue().get(Symbol.valueOf("operation")));
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_21_053: [The correlation id of the method request shall be kept to correlate the response.]
+    // Tests_SRS_AMQPSTRANSPORT_21_059: [A method response shall be sent with the correlation id of the method request
+    // and the status in the application properties.]
+    @Test
+    public void sendMessagesSendsMethodResponseWithTheRequestCorrelationId() throws IOException
+    {
+        final UUID requestCorrelationId = UUID.randomUUID();
+        new NonStrictExpectations()
+        {
+            {
+                new AmqpsIotHubConnection(mockConfig, false);
+                result = mockConnection;
+                mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any, MessageType.DeviceMethods);
+                result = 1;
+            }
+        };
+
+        DeviceMethodMessage responseMessage = new DeviceMethodMessage("{}".getBytes());
+        responseMessage.setRequestId(requestCorrelationId.toString());
+        responseMessage.setStatus("200");
+        responseMessage.setDeviceOperationType(DeviceOperations.DEVICE_OPERATION_METHOD_SEND_RESPONSE);
+
+        AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
+        transport.open();
+        Map<String, Object> deviceMethodCorrelationIds = Deencapsulation.getField(transport, "deviceMethodCorrelationIds");
+        deviceMethodCorrelationIds.put(requestCorrelationId.toString(), requestCorrelationId);
+        transport.addMessage(responseMessage, mockIotHubEventCallback, null);
+        transport.sendMessages();
+
+        Assert.assertTrue(deviceMethodCorrelationIds.isEmpty());
+
+        final List<Properties> properties = new ArrayList<>();
+        final List<ApplicationProperties> applicationProperties = new ArrayList<>();
+        new Verifications()
+        {
+            {
+                mockProtonMessage.setProperties(withCapture(properties));
+                mockProtonMessage.setApplicationProperties(withCapture(applicationProperties));
+                mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any, MessageType.DeviceMethods);
+                times = 1;
+            }
+        };
+        assertSame(requestCorrelationId, properties.get(0).getCorrelationId());
+        Assert.assertEquals(200, applicationProperties.get(0).getValue().get("IoThub-status"));
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_21_079: [The function shall set the content type and encoding of the Proton
+    // message properties to the ones of the message, if set.]
+    @Test
+    public void sendMessagesSetsContentTypeAndEncodingOfMessage() throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                new AmqpsIotHubConnection(mockConfig, false);
+                result = mockConnection;
+                mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any);
+                result = 1;
+            }
+        };
+
+        Message message = new Message("{}".getBytes());
+        message.setContentType("application/json");
+        message.setContentEncoding("utf-8");
+
+        AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
+        transport.open();
+        transport.addMessage(message, mockIotHubEventCallback, null);
+        transport.sendMessages();
+
+        final List<Properties> properties = new ArrayList<>();
+        new Verifications()
+        {
+            {
+                mockProtonMessage.setProperties(withCapture(properties));
+                mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any);
+                times = 1;
+            }
+        };
+        Assert.assertEquals(Symbol.valueOf("application/json"), properties.get(0).getContentType());
+        Assert.assertEquals(Symbol.valueOf("utf-8"), properties.get(0).getContentEncoding());
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_21_048: [If the device operation is not supported over AMQP, the function
+    // shall add a callback with the ERROR status to the callback list.]
+    @Test
+    public void sendMessagesReportsErrorForMethodResponseWithoutRequest() throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                new AmqpsIotHubConnection(mockConfig, false);
+                result = mockConnection;
+            }
+        };
+
+        DeviceMethodMessage responseMessage = new DeviceMethodMessage("{}".getBytes());
+        responseMessage.setRequestId("unknown");
+        responseMessage.setStatus("200");
+        responseMessage.setDeviceOperationType(DeviceOperations.DEVICE_OPERATION_METHOD_SEND_RESPONSE);
+
+        AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
+        transport.open();
+        transport.addMessage(responseMessage, mockIotHubEventCallback, null);
+        transport.sendMessages();
+
+        new Verifications()
+        {
+            {
+                new IotHubCallbackPacket(IotHubStatusCode.ERROR, mockIotHubEventCallback, null);
+                times = 1;
+                mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any, (MessageType) any);
+                times = 0;
+            }
+        };
+    }
+
     // Tests_SRS_AMQPSTRANSPORT_15_019: [If the transport closed, the function shall throw an IllegalStateException.]
     @Test(expected = IllegalStateException.class)
     public void invokeCallbacksFailsIfTransportNotOpen()
@@ -750,6 +1532,10 @@ public class AmqpsTransportTest
                 result = mockConnection;
                 mockConfig.getMessageCallback();
                 result = null;
+                mockConfig.getDeviceTwinMessageCallback();
+                result = null;
+                mockConfig.getDeviceMethodMessageCallback();
+                result = null;
             }
         };
 
@@ -802,15 +1588,286 @@ public class AmqpsTransportTest
     // Tests_SRS_AMQPSTRANSPORT_15_026: [The function shall invoke the callback on the message.]
     // Tests_SRS_AMQPSTRANSPORT_15_027: [The function shall return the message result (one of COMPLETE, ABANDON, or REJECT) to the IoT Hub.]
     @Test
-    public void handleMessageConsumesAMessage() throws IOException
+    public void handleMessageConsumesAMessage() throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                new AmqpsIotHubConnection(mockConfig, false);
+                result = mockConnection;
+                mockConfig.getMessageCallback();
+                result = mockMessageCallback;
+                mockMessageCallback.execute((Message) any, any);
+                result = IotHubMessageResult.COMPLETE;
+                mockConnection.sendMessageResult(mockAmqpsMessage, IotHubMessageResult.COMPLETE);
+                result = true;
+            }
+        };
+
+        new MockUp<AmqpsTransport>() {
+            @Mock
+            Message protonMessageToIoTHubMessage(MessageImpl protonMessage) {
+                return new Message();
+            }
+        };
+
+        AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
+        transport.open();
+
+        Queue<AmqpsMessage> receivedMessages = new LinkedBlockingQueue<>();
+        receivedMessages.add(mockAmqpsMessage);
+        receivedMessages.add(mockAmqpsMessage);
+        Deencapsulation.setField(transport, "receivedMessages", receivedMessages);
+
+        transport.handleMessage();
+
+        Queue<AmqpsMessage> receivedTransportMessages = Deencapsulation.getField(transport, "receivedMessages");
+
+        new Verifications()
+        {
+            {
+                mockMessageCallback.execute((Message) any, any);
+                times = 1;
+                mockConnection.sendMessageResult(mockAmqpsMessage, IotHubMessageResult.COMPLETE);
+                times = 1;
+            }
+        };
+
+        Assert.assertTrue(receivedTransportMessages.size() == 1);
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_21_069: [If batched settlement is enabled, the function shall handle all the
+    // messages which were received when it was called, one after the other.]
+    @Test
+    public void handleMessageConsumesAllMessagesIfBatchedSettlementIsEnabled() throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                new AmqpsIotHubConnection(mockConfig, false);
+                result = mockConnection;
+                mockConfig.isAmqpBatchedSettlement();
+                result = true;
+                mockConfig.getMessageCallback();
+                result = mockMessageCallback;
+                mockMessageCallback.execute((Message) any, any);
+                result = IotHubMessageResult.COMPLETE;
+                mockConnection.sendMessageResult(mockAmqpsMessage, IotHubMessageResult.COMPLETE);
+                result = true;
+            }
+        };
+
+        new MockUp<AmqpsTransport>() {
+            @Mock
+            Message protonMessageToIoTHubMessage(MessageImpl protonMessage) {
+                return new Message();
+            }
+        };
+
+        AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
+        transport.open();
+
+        Queue<AmqpsMessage> receivedMessages = new LinkedBlockingQueue<>();
+        receivedMessages.add(mockAmqpsMessage);
+        receivedMessages.add(mockAmqpsMessage);
+        receivedMessages.add(mockAmqpsMessage);
+        Deencapsulation.setField(transport, "receivedMessages", receivedMessages);
+
+        transport.handleMessage();
+
+        new Verifications()
+        {
+            {
+                mockMessageCallback.execute((Message) any, any);
+                times = 3;
+                mockConnection.sendMessageResult(mockAmqpsMessage, IotHubMessageResult.COMPLETE);
+                times = 3;
+            }
+        };
+
+        Assert.assertTrue(receivedMessages.isEmpty());
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_15_028: [If the result could not be sent to IoTHub, the message shall be put back in the received messages queue to be processed again.]
+    // Tests_SRS_AMQPSTRANSPORT_15_028: [If the result could not be sent to IoTHub, the message shall be put back in the received messages queue to be processed again.]
+    @Test
+    public void handleMessagePutsMessageBackIntoQueueIfCannotSendResultBackToServer() throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                new AmqpsIotHubConnection(mockConfig, false);
+                result = mockConnection;
+                mockConfig.getMessageCallback();
+                result = mockMessageCallback;
+                mockMessageCallback.execute((Message) any, any);
+                result = IotHubMessageResult.COMPLETE;
+                mockConnection.sendMessageResult(mockAmqpsMessage, IotHubMessageResult.COMPLETE);
+                result = false;
+            }
+        };
+
+        new MockUp<AmqpsTransport>() {
+            @Mock
+            Message protonMessageToIoTHubMessage(MessageImpl protonMessage) {
+                return new Message();
+            }
+        };
+
+        AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
+        transport.open();
+
+        Queue<AmqpsMessage> receivedMessages = new LinkedBlockingQueue<>();
+        receivedMessages.add(mockAmqpsMessage);
+        receivedMessages.add(mockAmqpsMessage);
+        Deencapsulation.setField(transport, "receivedMessages", receivedMessages);
+
+        transport.handleMessage();
+
+        Queue<AmqpsMessage> receivedTransportMessages = Deencapsulation.getField(transport, "receivedMessages");
+
+        Assert.assertTrue(receivedTransportMessages.size() == 2);
+
+        new Verifications()
+        {
+            {
+                mockMessageCallback.execute((Message) any, any);
+                times = 1;
+                mockConnection.sendMessageResult(mockAmqpsMessage, IotHubMessageResult.COMPLETE);
+                times = 1;
+            }
+        };
+
+        Assert.assertTrue(receivedTransportMessages.size() == 2);
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_21_050: [If the message was received on the twin or method links, the function shall
+    // convert it into a device operation message and use the twin or method callback.]
+    // Tests_SRS_AMQPSTRANSPORT_21_054: [A twin message with correlation id shall be converted into the response
+    // of the twin request sent with the same correlation id.]
+    @Test
+    public void handleMessageDeliversTwinResponseToTwinCallback() throws IOException
+    {
+        final Properties properties = new Properties();
+        properties.setCorrelationId("7");
+        final Map<Symbol, Object> annotations = new HashMap<>();
+        annotations.put(Symbol.valueOf("status"), 200);
+        annotations.put(Symbol.valueOf("version"), 3L);
+        new NonStrictExpectations()
+        {
+            {
+                new AmqpsIotHubConnection(mockConfig, false);
+                result = mockConnection;
+                mockConfig.getMessageCallback();
+                result = null;
+                mockConfig.getDeviceTwinMessageCallback();
+                result = mockMessageCallback;
+                mockAmqpsMessage.getAmqpsMessageType();
+                result = MessageType.DeviceTwin;
+                mockAmqpsMessage.getBody();
+                result = new Data(new Binary("{}".getBytes()));
+                mockAmqpsMessage.getProperties();
+                result = properties;
+                mockAmqpsMessage.getMessageAnnotations();
+                result = new MessageAnnotations(annotations);
+                mockMessageCallback.execute((Message) any, any);
+                result = IotHubMessageResult.COMPLETE;
+                mockConnection.sendMessageResult(mockAmqpsMessage, IotHubMessageResult.COMPLETE);
+                result = true;
+            }
+        };
+
+        AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
+        transport.open();
+        Map<String, DeviceOperations> deviceTwinRequests = Deencapsulation.getField(transport, "deviceTwinRequests");
+        deviceTwinRequests.put("7", DeviceOperations.DEVICE_OPERATION_TWIN_GET_REQUEST);
+        transport.messageReceived(mockAmqpsMessage);
+        transport.handleMessage();
+
+        final List<Message> receivedMessages = new ArrayList<>();
+        new Verifications()
+        {
+            {
+                mockMessageCallback.execute(withCapture(receivedMessages), any);
+                times = 1;
+            }
+        };
+        DeviceTwinMessage twinMessage = (DeviceTwinMessage) receivedMessages.get(0);
+        Assert.assertEquals(DeviceOperations.DEVICE_OPERATION_TWIN_GET_RESPONSE, twinMessage.getDeviceOperationType());
+        Assert.assertEquals("200", twinMessage.getStatus());
+        Assert.assertEquals("3", twinMessage.getVersion());
+        Assert.assertEquals("7", twinMessage.getRequestId());
+        Assert.assertTrue(deviceTwinRequests.isEmpty());
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_21_055: [A twin message without correlation id shall be converted into a desired properties notification.]
+    @Test
+    public void handleMessageDeliversDesiredPropertiesNotificationToTwinCallback() throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                new AmqpsIotHubConnection(mockConfig, false);
+                result = mockConnection;
+                mockConfig.getDeviceTwinMessageCallback();
+                result = mockMessageCallback;
+                mockAmqpsMessage.getAmqpsMessageType();
+                result = MessageType.DeviceTwin;
+                mockAmqpsMessage.getBody();
+                result = new Data(new Binary("{\"temp\":1}".getBytes()));
+                mockAmqpsMessage.getProperties();
+                result = null;
+                mockMessageCallback.execute((Message) any, any);
+                result = IotHubMessageResult.COMPLETE;
+                mockConnection.sendMessageResult(mockAmqpsMessage, IotHubMessageResult.COMPLETE);
+                result = true;
+            }
+        };
+
+        AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
+        transport.open();
+        transport.messageReceived(mockAmqpsMessage);
+        transport.handleMessage();
+
+        final List<Message> receivedMessages = new ArrayList<>();
+        new Verifications()
+        {
+            {
+                mockMessageCallback.execute(withCapture(receivedMessages), any);
+                times = 1;
+            }
+        };
+        DeviceTwinMessage twinMessage = (DeviceTwinMessage) receivedMessages.get(0);
+        Assert.assertEquals(DeviceOperations.DEVICE_OPERATION_TWIN_SUBSCRIBE_DESIRED_PROPERTIES_RESPONSE, twinMessage.getDeviceOperationType());
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_21_052: [A message received on the method links shall be converted into a
+    // DEVICE_OPERATION_METHOD_RECEIVE_REQUEST with the method name from the application properties and
+    // the correlation id as request id.]
+    // Tests_SRS_AMQPSTRANSPORT_21_053: [The correlation id of the method request shall be kept to correlate the response.]
+    @Test
+    public void handleMessageDeliversMethodRequestToMethodCallback() throws IOException
     {
+        final UUID correlationId = UUID.randomUUID();
+        final Properties properties = new Properties();
+        properties.setCorrelationId(correlationId);
+        final Map<String, Object> applicationProperties = new HashMap<>();
+        applicationProperties.put("IoThub-methodname", "reboot");
         new NonStrictExpectations()
         {
             {
                 new AmqpsIotHubConnection(mockConfig, false);
                 result = mockConnection;
-                mockConfig.getMessageCallback();
+                mockConfig.getDeviceMethodMessageCallback();
                 result = mockMessageCallback;
+                mockAmqpsMessage.getAmqpsMessageType();
+                result = MessageType.DeviceMethods;
+                mockAmqpsMessage.getBody();
+                result = new Data(new Binary("{}".getBytes()));
+                mockAmqpsMessage.getProperties();
+                result = properties;
+                mockAmqpsMessage.getApplicationProperties();
+                result = new ApplicationProperties(applicationProperties);
                 mockMessageCallback.execute((Message) any, any);
                 result = IotHubMessageResult.COMPLETE;
                 mockConnection.sendMessageResult(mockAmqpsMessage, IotHubMessageResult.COMPLETE);
@@ -818,42 +1875,30 @@ public class AmqpsTransportTest
             }
         };
 
-        new MockUp<AmqpsTransport>() {
-            @Mock
-            Message protonMessageToIoTHubMessage(MessageImpl protonMessage) {
-                return new Message();
-            }
-        };
-
         AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
         transport.open();
-
-        Queue<AmqpsMessage> receivedMessages = new LinkedBlockingQueue<>();
-        receivedMessages.add(mockAmqpsMessage);
-        receivedMessages.add(mockAmqpsMessage);
-        Deencapsulation.setField(transport, "receivedMessages", receivedMessages);
-
+        transport.messageReceived(mockAmqpsMessage);
         transport.handleMessage();
 
-        Queue<AmqpsMessage> receivedTransportMessages = Deencapsulation.getField(transport, "receivedMessages");
-
+        final List<Message> receivedMessages = new ArrayList<>();
         new Verifications()
         {
             {
-                mockMessageCallback.execute((Message) any, any);
-                times = 1;
-                mockConnection.sendMessageResult(mockAmqpsMessage, IotHubMessageResult.COMPLETE);
+                mockMessageCallback.execute(withCapture(receivedMessages), any);
                 times = 1;
             }
         };
-
-        Assert.assertTrue(receivedTransportMessages.size() == 1);
+        DeviceMethodMessage methodMessage = (DeviceMethodMessage) receivedMessages.get(0);
+        Assert.assertEquals(DeviceOperations.DEVICE_OPERATION_METHOD_RECEIVE_REQUEST, methodMessage.getDeviceOperationType());
+        Assert.assertEquals("reboot", methodMessage.getMethodName());
+        Assert.assertEquals(correlationId.toString(), methodMessage.getRequestId());
+        Map<String, Object> deviceMethodCorrelationIds = Deencapsulation.getField(transport, "deviceMethodCorrelationIds");
+        assertSame(correlationId, deviceMethodCorrelationIds.get(correlationId.toString()));
     }
 
-    // Tests_SRS_AMQPSTRANSPORT_15_028: [If the result could not be sent to IoTHub, the message shall be put back in the received messages queue to be processed again.]
-    // Tests_SRS_AMQPSTRANSPORT_15_028: [If the result could not be sent to IoTHub, the message shall be put back in the received messages queue to be processed again.]
+    // Tests_SRS_AMQPSTRANSPORT_21_051: [If no callback is defined for the type of the received message, the message is dropped.]
     @Test
-    public void handleMessagePutsMessageBackIntoQueueIfCannotSendResultBackToServer() throws IOException
+    public void handleMessageDropsMessageWithoutCallbackForItsType() throws IOException
     {
         new NonStrictExpectations()
         {
@@ -862,45 +1907,31 @@ public class AmqpsTransportTest
                 result = mockConnection;
                 mockConfig.getMessageCallback();
                 result = mockMessageCallback;
-                mockMessageCallback.execute((Message) any, any);
-                result = IotHubMessageResult.COMPLETE;
-                mockConnection.sendMessageResult(mockAmqpsMessage, IotHubMessageResult.COMPLETE);
-                result = false;
-            }
-        };
-
-        new MockUp<AmqpsTransport>() {
-            @Mock
-            Message protonMessageToIoTHubMessage(MessageImpl protonMessage) {
-                return new Message();
+                mockConfig.getDeviceMethodMessageCallback();
+                result = null;
+                mockAmqpsMessage.getAmqpsMessageType();
+                result = MessageType.DeviceMethods;
+                mockAmqpsMessage.getBody();
+                result = new Data(new Binary("{}".getBytes()));
             }
         };
 
         AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
         transport.open();
-
-        Queue<AmqpsMessage> receivedMessages = new LinkedBlockingQueue<>();
-        receivedMessages.add(mockAmqpsMessage);
-        receivedMessages.add(mockAmqpsMessage);
-        Deencapsulation.setField(transport, "receivedMessages", receivedMessages);
-
+        transport.messageReceived(mockAmqpsMessage);
         transport.handleMessage();
 
-        Queue<AmqpsMessage> receivedTransportMessages = Deencapsulation.getField(transport, "receivedMessages");
-
-        Assert.assertTrue(receivedTransportMessages.size() == 2);
-
+        Queue<AmqpsMessage> receivedMessages = Deencapsulation.getField(transport, "receivedMessages");
+        Assert.assertEquals(0, receivedMessages.size());
         new Verifications()
         {
             {
                 mockMessageCallback.execute((Message) any, any);
-                times = 1;
-                mockConnection.sendMessageResult(mockAmqpsMessage, IotHubMessageResult.COMPLETE);
-                times = 1;
+                times = 0;
+                mockConnection.sendMessageResult((AmqpsMessage) any, (IotHubMessageResult) any);
+                times = 0;
             }
         };
-
-        Assert.assertTrue(receivedTransportMessages.size() == 2);
     }
 
     // Tests_SRS_AMQPSTRANSPORT_15_029: [If the hash cannot be found in the list of keys for the messages in progress, the method returns.]
@@ -1041,6 +2072,323 @@ public class AmqpsTransportTest
         Assert.assertTrue(waitingMessages.size() == 4);
     }
 
+    // Tests_SRS_AMQPSTRANSPORT_21_066: [If the hash belongs to a batch in progress, the batch is removed and, if it
+    // was successfully delivered, the callbacks of all its messages are added to the list of callbacks to be
+    // executed, otherwise all its messages are buffered to be sent again.]
+    @Test
+    public void messageSentAddsCallbacksForEveryMessageOfDeliveredBatch() throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                new AmqpsIotHubConnection(mockConfig, false);
+                result = mockConnection;
+            }
+        };
+
+        AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
+        transport.open();
+
+        List<IotHubOutboundPacket> batch = new ArrayList<>();
+        batch.add(new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object()));
+        batch.add(new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object()));
+        Map<Integer, List<IotHubOutboundPacket>> inProgressBatches = Deencapsulation.getField(transport, "inProgressBatches");
+        inProgressBatches.put(1, batch);
+
+        transport.messageSent(1, true);
+
+        new Verifications()
+        {
+            {
+                new IotHubCallbackPacket(IotHubStatusCode.OK_EMPTY, (IotHubEventCallback) any, any);
+                times = 2;
+            }
+        };
+
+        Queue<IotHubOutboundPacket> waitingMessages = Deencapsulation.getField(transport, "waitingMessages");
+        Queue<IotHubCallbackPacket> callbackList  = Deencapsulation.getField(transport, "callbackList");
+
+        assertTrue(inProgressBatches.isEmpty());
+        assertEquals(0, waitingMessages.size());
+        assertEquals(2, callbackList.size());
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_21_066: [If the hash belongs to a batch in progress, the batch is removed and, if it
+    // was successfully delivered, the callbacks of all its messages are added to the list of callbacks to be
+    // executed, otherwise all its messages are buffered to be sent again.]
+    @Test
+    public void messageSentBuffersEveryMessageOfNotDeliveredBatch() throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                new AmqpsIotHubConnection(mockConfig, false);
+                result = mockConnection;
+            }
+        };
+
+        AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
+        transport.open();
+
+        List<IotHubOutboundPacket> batch = new ArrayList<>();
+        batch.add(new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object()));
+        batch.add(new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object()));
+        Map<Integer, List<IotHubOutboundPacket>> inProgressBatches = Deencapsulation.getField(transport, "inProgressBatches");
+        inProgressBatches.put(1, batch);
+
+        transport.messageSent(1, false);
+
+        Queue<IotHubOutboundPacket> waitingMessages = Deencapsulation.getField(transport, "waitingMessages");
+        Queue<IotHubCallbackPacket> callbackList  = Deencapsulation.getField(transport, "callbackList");
+
+        assertTrue(inProgressBatches.isEmpty());
+        assertEquals(2, waitingMessages.size());
+        assertEquals(0, callbackList.size());
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_21_067: [The messages of the batches in progress are buffered to be sent again.]
+    // Tests_SRS_AMQPSTRANSPORT_21_068: [The function shall return false if there are batches in progress.]
+    @Test
+    public void connectionLostBuffersMessagesOfBatchesInProgress() throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                new AmqpsIotHubConnection(mockConfig, false);
+                result = mockConnection;
+            }
+        };
+
+        AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
+        transport.open();
+
+        List<IotHubOutboundPacket> batch = new ArrayList<>();
+        batch.add(new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object()));
+        batch.add(new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object()));
+        Map<Integer, List<IotHubOutboundPacket>> inProgressBatches = Deencapsulation.getField(transport, "inProgressBatches");
+        inProgressBatches.put(1, batch);
+        Assert.assertFalse(transport.isEmpty());
+
+        transport.connectionLost();
+
+        Queue<IotHubOutboundPacket> waitingMessages = Deencapsulation.getField(transport, "waitingMessages");
+        assertTrue(inProgressBatches.isEmpty());
+        assertEquals(2, waitingMessages.size());
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_21_072: [The messages in progress shall be put back at the head of the waiting
+    // list in the order they were sent.]
+    @Test
+    public void connectionLostPutsMessagesInProgressAtTheHeadOfTheWaitingListInSendOrder() throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                new AmqpsIotHubConnection(mockConfig, false);
+                result = mockConnection;
+            }
+        };
+
+        AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
+        transport.open();
+
+        IotHubOutboundPacket first = new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object());
+        IotHubOutboundPacket second = new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object());
+        IotHubOutboundPacket third = new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object());
+        IotHubOutboundPacket fourth = new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object());
+        IotHubOutboundPacket waiting = new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object());
+        List<IotHubOutboundPacket> batch = new ArrayList<>();
+        batch.add(second);
+        batch.add(third);
+
+        Map<Integer, IotHubOutboundPacket> inProgressMessages = Deencapsulation.getField(transport, "inProgressMessages");
+        Map<Integer, List<IotHubOutboundPacket>> inProgressBatches = Deencapsulation.getField(transport, "inProgressBatches");
+        Queue<Integer> inProgressOrder = Deencapsulation.getField(transport, "inProgressOrder");
+        inProgressMessages.put(30, first);
+        inProgressBatches.put(20, batch);
+        inProgressMessages.put(10, fourth);
+        inProgressOrder.add(30);
+        inProgressOrder.add(20);
+        inProgressOrder.add(10);
+        Queue<IotHubOutboundPacket> waitingMessages = Deencapsulation.getField(transport, "waitingMessages");
+        waitingMessages.add(waiting);
+
+        transport.connectionLost();
+
+        assertTrue(inProgressOrder.isEmpty());
+        assertEquals(5, waitingMessages.size());
+        assertSame(first, waitingMessages.poll());
+        assertSame(second, waitingMessages.poll());
+        assertSame(third, waitingMessages.poll());
+        assertSame(fourth, waitingMessages.poll());
+        assertSame(waiting, waitingMessages.poll());
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_21_070: [If fast recovery is enabled, the function shall disable the auto reconnect of the connection.]
+    @Test
+    public void openDisablesAutoReconnectIfFastRecoveryIsEnabled() throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                new AmqpsIotHubConnection(mockConfig, false);
+                result = mockConnection;
+                mockConfig.isAmqpFastRecovery();
+                result = true;
+            }
+        };
+
+        AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
+        transport.open();
+        transport.close();
+
+        new Verifications()
+        {
+            {
+                mockConnection.setAutoReconnect(false);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_21_073: [If fast recovery is enabled and the transport is open, the function shall
+    // start opening a replacement connection in the background, unless one is already being opened.]
+    @Test
+    public void connectionLostDoesNotOpenAReplacementIfFastRecoveryIsDisabled() throws IOException, InterruptedException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                new AmqpsIotHubConnection(mockConfig, false);
+                result = mockConnection;
+                mockConfig.isAmqpFastRecovery();
+                result = false;
+            }
+        };
+
+        AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
+        transport.open();
+
+        transport.connectionLost();
+        Thread.sleep(100);
+
+        long lastRecoveryMillis = Deencapsulation.getField(transport, "lastRecoveryMillis");
+        assertEquals(-1L, lastRecoveryMillis);
+        new Verifications()
+        {
+            {
+                mockConnection.open();
+                times = 1;
+                mockConnection.setAutoReconnect(true);
+                times = 1;
+            }
+        };
+    }
+
+    // Fault injection: the connection is dropped while a message is in flight, and the transport shall switch over to
+    // a replacement connection in about the time it takes to open it, with the message first in line to be sent again.
+    // Tests_SRS_AMQPSTRANSPORT_21_073: [If fast recovery is enabled and the transport is open, the function shall
+    // start opening a replacement connection in the background, unless one is already being opened.]
+    // Tests_SRS_AMQPSTRANSPORT_21_074: [The replacement connection shall have the transport as listener, the
+    // auto reconnect disabled and the device operation links of the lost connection.]
+    // Tests_SRS_AMQPSTRANSPORT_21_075: [Once the replacement connection is opened, the transport shall switch
+    // over to it at once and resume sending. If the transport was closed meanwhile, the replacement shall be closed.]
+    @Test
+    public void connectionLostWithFastRecoverySwitchesOverToAReplacementConnection() throws IOException, InterruptedException
+    {
+        final long openMillis = 50;
+        final Set<MessageType> deviceOperationTypes = new HashSet<>();
+        deviceOperationTypes.add(MessageType.DeviceMethods);
+        new NonStrictExpectations()
+        {
+            {
+                new AmqpsIotHubConnection(mockConfig, false);
+                result = mockConnection;
+                mockConfig.isAmqpFastRecovery();
+                result = true;
+                mockConnection.getDeviceOperationTypes();
+                result = deviceOperationTypes;
+                mockConnection.open();
+                result = new Delegate()
+                {
+                    void open() throws InterruptedException
+                    {
+                        Thread.sleep(openMillis);
+                    }
+                };
+            }
+        };
+
+        final AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
+        transport.open();
+        Deencapsulation.setField(transport, "creditStarved", true);
+
+        IotHubOutboundPacket inFlight = new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object());
+        Map<Integer, IotHubOutboundPacket> inProgressMessages = Deencapsulation.getField(transport, "inProgressMessages");
+        Queue<Integer> inProgressOrder = Deencapsulation.getField(transport, "inProgressOrder");
+        inProgressMessages.put(1, inFlight);
+        inProgressOrder.add(1);
+
+        transport.connectionLost();
+        transport.connectionLost();
+
+        long lastRecoveryMillis = -1;
+        for (int i = 0; i < 500 && lastRecoveryMillis == -1; i++)
+        {
+            Thread.sleep(10);
+            lastRecoveryMillis = Deencapsulation.getField(transport, "lastRecoveryMillis");
+        }
+
+        Queue<IotHubOutboundPacket> waitingMessages = Deencapsulation.getField(transport, "waitingMessages");
+        boolean creditStarved = Deencapsulation.getField(transport, "creditStarved");
+        assertTrue(lastRecoveryMillis >= openMillis);
+        assertTrue(lastRecoveryMillis < 5000);
+        assertSame(inFlight, waitingMessages.peek());
+        assertEquals(false, creditStarved);
+
+        transport.close();
+
+        new Verifications()
+        {
+            {
+                mockConnection.open();
+                times = 2;
+                mockConnection.addListener(transport);
+                times = 2;
+                mockConnection.openDeviceOperationLinks(MessageType.DeviceMethods);
+                times = 1;
+                mockConnection.setAutoReconnect(false);
+                times = 2;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_21_078: [If the transport is open, the function shall request the connection to renew its token.]
+    @Test
+    public void renewTokenRequestsTheConnectionToRenewOnlyWhenOpen() throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                new AmqpsIotHubConnection(mockConfig, false);
+                result = mockConnection;
+            }
+        };
+
+        AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
+        transport.renewToken();
+        transport.open();
+        transport.renewToken();
+
+        new Verifications()
+        {
+            {
+                mockConnection.renewToken();
+                times = 1;
+            }
+        };
+    }
+
     // Tests_SRS_AMQPSTRANSPORT_15_034: [The message received is added to the list of messages to be processed.]
     @Test
     public void messageReceivedAddsTheMessageToTheListOfMessagesToBeProcessed() throws IOException
@@ -0,0 +1,86 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport.https;
+
+import com.microsoft.azure.sdk.iot.device.transport.https.HttpsBatchFillHistogram;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/** Unit tests for HttpsBatchFillHistogram. */
+public class HttpsBatchFillHistogramTest
+{
+    // Tests_SRS_HTTPSBATCHFILLHISTOGRAM_21_001: [If the number of messages is not positive, the function shall
+    // throw IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void recordThrowsOnEmptyRequest()
+    {
+        new HttpsBatchFillHistogram().record(0);
+    }
+
+    // Tests_SRS_HTTPSBATCHFILLHISTOGRAM_21_002: [The function shall count the request in the bucket of its
+    // number of messages, and add it to the request and message totals.]
+    // Tests_SRS_HTTPSBATCHFILLHISTOGRAM_21_004: [The function shall return the number of requests recorded in the bucket.]
+    @Test
+    public void recordCountsTheRequestInItsPowerOfTwoBucket()
+    {
+        HttpsBatchFillHistogram histogram = new HttpsBatchFillHistogram();
+
+        histogram.record(1);
+        histogram.record(2);
+        histogram.record(3);
+        histogram.record(4);
+        histogram.record(7);
+        histogram.record(8);
+
+        assertEquals(1, histogram.getBucketCount(0));
+        assertEquals(2, histogram.getBucketCount(1));
+        assertEquals(2, histogram.getBucketCount(2));
+        assertEquals(1, histogram.getBucketCount(3));
+        assertEquals(0, histogram.getBucketCount(4));
+    }
+
+    // Tests_SRS_HTTPSBATCHFILLHISTOGRAM_21_002: [The function shall count the request in the bucket of its
+    // number of messages, and add it to the request and message totals.]
+    @Test
+    public void recordCountsLargeBatchesInTheLastBucket()
+    {
+        HttpsBatchFillHistogram histogram = new HttpsBatchFillHistogram();
+
+        histogram.record(Integer.MAX_VALUE);
+
+        assertEquals(1, histogram.getBucketCount(HttpsBatchFillHistogram.BUCKET_COUNT - 1));
+    }
+
+    // Tests_SRS_HTTPSBATCHFILLHISTOGRAM_21_003: [If the bucket does not exist, the function shall throw
+    // IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void getBucketCountThrowsOnNegativeBucket()
+    {
+        new HttpsBatchFillHistogram().getBucketCount(-1);
+    }
+
+    // Tests_SRS_HTTPSBATCHFILLHISTOGRAM_21_003: [If the bucket does not exist, the function shall throw
+    // IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void getBucketCountThrowsOnMissingBucket()
+    {
+        new HttpsBatchFillHistogram().getBucketCount(HttpsBatchFillHistogram.BUCKET_COUNT);
+    }
+
+    // Tests_SRS_HTTPSBATCHFILLHISTOGRAM_21_005: [The function shall return the number of requests recorded.]
+    // Tests_SRS_HTTPSBATCHFILLHISTOGRAM_21_006: [The function shall return the number of messages in all the
+    // requests recorded.]
+    @Test
+    public void getRequestAndMessageCountsReturnTheTotals()
+    {
+        HttpsBatchFillHistogram histogram = new HttpsBatchFillHistogram();
+
+        histogram.record(1);
+        histogram.record(10);
+
+        assertEquals(2, histogram.getRequestCount());
+        assertEquals(11, histogram.getMessageCount());
+    }
+}
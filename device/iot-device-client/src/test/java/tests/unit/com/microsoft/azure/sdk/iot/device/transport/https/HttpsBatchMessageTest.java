@@ -19,6 +19,7 @@ import org.junit.Test;
 
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 import javax.naming.SizeLimitExceededException;
 
@@ -145,6 +146,7 @@ public class HttpsBatchMessageTest
     {
         final int msgBodySize = SERVICEBOUND_MESSAGE_MAX_SIZE_BYTES / 2 + 1;
         final byte[] msgBodyBytes = new byte[msgBodySize];
+        Arrays.fill(msgBodyBytes, (byte) 'a');
         final String msgBody = new String(msgBodyBytes, UTF8);
         final boolean isBase64Encoded = false;
         new NonStrictExpectations()
@@ -171,6 +173,194 @@ public class HttpsBatchMessageTest
         }
     }
 
+    // Tests_SRS_HTTPSBATCHMESSAGE_21_016: [The constructor shall bound the batched message to the given size, or
+    // to the service-bound message size limit if the given size is not positive or is larger than the limit.]
+    @Test
+    public void addMessageRejectsMessagesBeyondTheGivenSize(
+            @Mocked final HttpsSingleMessage mockMsg) throws
+            SizeLimitExceededException
+    {
+        final String msgBody = "0123456789012345678901234567890123456789";
+        new NonStrictExpectations()
+        {
+            {
+                mockMsg.getBodyAsString();
+                result = msgBody;
+                mockMsg.getProperties();
+                result = new MessageProperty[0];
+            }
+        };
+
+        HttpsBatchMessage batchMsg = new HttpsBatchMessage(100);
+        batchMsg.addMessage(mockMsg);
+        int oneMessageSize = batchMsg.getBodySize();
+        boolean secondMessageRejected = false;
+        try
+        {
+            batchMsg.addMessage(mockMsg);
+        }
+        catch (SizeLimitExceededException e)
+        {
+            secondMessageRejected = true;
+        }
+
+        assertThat(secondMessageRejected, is(true));
+        assertThat(batchMsg.numMessages(), is(1));
+        assertThat(batchMsg.getBodySize(), is(oneMessageSize));
+    }
+
+    // Tests_SRS_HTTPSBATCHMESSAGE_21_016: [The constructor shall bound the batched message to the given size, or
+    // to the service-bound message size limit if the given size is not positive or is larger than the limit.]
+    @Test
+    public void constructorWithoutSizeUsesTheServiceBoundLimit(
+            @Mocked final HttpsSingleMessage mockMsg) throws
+            SizeLimitExceededException
+    {
+        final byte[] msgBodyBytes = new byte[SERVICEBOUND_MESSAGE_MAX_SIZE_BYTES / 4];
+        Arrays.fill(msgBodyBytes, (byte) 'a');
+        final String msgBody = new String(msgBodyBytes, UTF8);
+        new NonStrictExpectations()
+        {
+            {
+                mockMsg.getBodyAsString();
+                result = msgBody;
+                mockMsg.getProperties();
+                result = new MessageProperty[0];
+            }
+        };
+
+        HttpsBatchMessage batchMsg = new HttpsBatchMessage(0);
+        batchMsg.addMessage(mockMsg);
+        batchMsg.addMessage(mockMsg);
+        batchMsg.addMessage(mockMsg);
+
+        assertThat(batchMsg.numMessages(), is(3));
+    }
+
+    // Tests_SRS_HTTPSBATCHMESSAGE_11_002: [The function shall add the message as a JSON object appended to the current JSON array.]
+    // Tests_SRS_HTTPSBATCHMESSAGE_11_006: [The function shall return the current batch message body.]
+    @Test
+    public void addMessageAppendsMessagesToTheArray(
+            @Mocked final HttpsSingleMessage mockMsg) throws
+            SizeLimitExceededException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockMsg.getBodyAsString();
+                result = "first";
+                result = "second";
+                mockMsg.isBase64Encoded();
+                result = false;
+                result = true;
+            }
+        };
+
+        HttpsBatchMessage batchMsg = new HttpsBatchMessage();
+        batchMsg.addMessage(mockMsg);
+        batchMsg.addMessage(mockMsg);
+        String testBatchBody = new String(batchMsg.getBody(), UTF8);
+
+        final String expectedBatchBody = "[{\"body\":\"first\",\"base64Encoded\":false},"
+                + "{\"body\":\"second\",\"base64Encoded\":true}]";
+        assertThat(testBatchBody, is(expectedBatchBody));
+    }
+
+    // Tests_SRS_HTTPSBATCHMESSAGE_21_015: [The strings in the JSON object shall be escaped as JSON strings.]
+    // Tests_SRS_HTTPSBATCHMESSAGE_11_007: [The batch message body shall be encoded using UTF-8.]
+    @Test
+    public void addMessageEscapesTheJsonStrings(
+            @Mocked final HttpsSingleMessage mockMsg,
+            @Mocked final MessageProperty mockProperty) throws
+            SizeLimitExceededException
+    {
+        final MessageProperty[] properties = { mockProperty };
+        new NonStrictExpectations()
+        {
+            {
+                mockMsg.getBodyAsString();
+                result = "say \"hi\"\\\n\t\u0001 caf\u00e9 \u20ac \ud83d\ude00";
+                mockMsg.getProperties();
+                result = properties;
+                mockProperty.getName();
+                result = "iothub-app-\"name\"";
+                mockProperty.getValue();
+                result = "line\r\nbreak";
+            }
+        };
+
+        HttpsBatchMessage batchMsg = new HttpsBatchMessage();
+        batchMsg.addMessage(mockMsg);
+        String testBatchBody = new String(batchMsg.getBody(), UTF8);
+
+        final String expectedBatchBody = "[{\"body\":\"say \\\"hi\\\"\\\\\\n\\t\\u0001 caf\u00e9 \u20ac \ud83d\ude00\","
+                + "\"base64Encoded\":false,\"properties\":{\"iothub-app-\\\"name\\\"\":\"line\\r\\nbreak\"}}]";
+        assertThat(testBatchBody, is(expectedBatchBody));
+    }
+
+    // Tests_SRS_HTTPSBATCHMESSAGE_21_014: [The function shall return the size in bytes of the current batch message body.]
+    @Test
+    public void getBodySizeReturnsTheEncodedSize(
+            @Mocked final HttpsSingleMessage mockMsg) throws
+            SizeLimitExceededException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockMsg.getBodyAsString();
+                result = "caf\u00e9 \ud83d\ude00";
+            }
+        };
+
+        HttpsBatchMessage batchMsg = new HttpsBatchMessage();
+        final int emptySize = batchMsg.getBodySize();
+        batchMsg.addMessage(mockMsg);
+        batchMsg.addMessage(mockMsg);
+
+        assertThat(emptySize, is(2));
+        assertThat(batchMsg.getBodySize(), is(batchMsg.getBody().length));
+    }
+
+    // Tests_SRS_HTTPSBATCHMESSAGE_11_009: [If the function throws a SizeLimitExceedException, the batched message shall remain as if the message was never added.]
+    // Tests_SRS_HTTPSBATCHMESSAGE_21_013: [The function shall compute the size of the batched message from the
+    // bytes already encoded, without encoding the batch again.]
+    @Test
+    public void addMessageRollsBackToTheExactPreviousBody(
+            @Mocked final HttpsSingleMessage mockMsg) throws
+            SizeLimitExceededException
+    {
+        final byte[] largeBodyBytes = new byte[HttpsBatchMessage.SERVICEBOUND_MESSAGE_MAX_SIZE_BYTES];
+        Arrays.fill(largeBodyBytes, (byte) 'a');
+        new NonStrictExpectations()
+        {
+            {
+                mockMsg.getBodyAsString();
+                result = "small";
+                result = new String(largeBodyBytes, UTF8);
+                result = "small";
+            }
+        };
+        HttpsBatchMessage batchMsg = new HttpsBatchMessage();
+        batchMsg.addMessage(mockMsg);
+        final byte[] expectedBody = batchMsg.getBody();
+
+        boolean sizeLimitExceeded = false;
+        try
+        {
+            batchMsg.addMessage(mockMsg);
+        }
+        catch (SizeLimitExceededException e)
+        {
+            sizeLimitExceeded = true;
+        }
+
+        assertThat(sizeLimitExceeded, is(true));
+        assertThat(batchMsg.getBody(), is(expectedBody));
+        assertThat(batchMsg.numMessages(), is(1));
+        batchMsg.addMessage(mockMsg);
+        assertThat(batchMsg.numMessages(), is(2));
+    }
+
     // Tests_SRS_HTTPSBATCHMESSAGE_11_011: [The function shall return 'application/vnd.microsoft.iothub.json'.]
     @Test
     public void getContentTypeReturnsCorrectContentType()
@@ -4,16 +4,19 @@
 package tests.unit.com.microsoft.azure.sdk.iot.device.transport.https;
 
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.junit.Assert.assertThat;
 
 import com.microsoft.azure.sdk.iot.device.transport.https.HttpsConnection;
 import com.microsoft.azure.sdk.iot.device.transport.https.HttpsMethod;
 
+import mockit.Deencapsulation;
 import mockit.Mocked;
 import mockit.NonStrictExpectations;
 import mockit.Verifications;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
@@ -23,6 +26,7 @@ import java.util.List;
 import java.util.Map;
 
 import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
 
 /** Unit tests for HttpsConnection. */
 public class HttpsConnectionTest
@@ -172,7 +176,6 @@ public class HttpsConnectionTest
         HttpsConnection conn = new HttpsConnection(mockUrl, httpsMethod);
 
         conn.writeOutput(body);
-        body[0] = 5;
         conn.connect();
 
         final byte[] expectedBody = { 1, 2, 3 };
@@ -184,6 +187,31 @@ public class HttpsConnectionTest
         };
     }
 
+    // Tests_SRS_HTTPSCONNECTION_21_029: [The function shall save the body without copying it.]
+    @Test
+    public void writeOutputDoesNotCopyBody() throws IOException
+    {
+        final HttpsMethod httpsMethod = HttpsMethod.POST;
+        final byte[] body = { 1, 2, 3 };
+        new NonStrictExpectations()
+        {
+            {
+                mockUrl.getProtocol();
+                result = "https";
+                mockUrl.openConnection();
+                result = mockUrlConn;
+                mockUrlConn.getRequestMethod();
+                result = httpsMethod.name();
+            }
+        };
+        HttpsConnection conn = new HttpsConnection(mockUrl, httpsMethod);
+
+        conn.writeOutput(body);
+
+        byte[] testBody = Deencapsulation.getField(conn, "body");
+        assertThat(testBody, is(sameInstance(body)));
+    }
+
     // Tests_SRS_HTTPSCONNECTION_11_005: [The function shall throw an IOException if the connection could not be established, or the server responded with a bad status code.]
     @Test(expected = IOException.class)
     public void connectThrowsIoExceptionIfCannotConnect() throws IOException
@@ -323,6 +351,79 @@ public class HttpsConnectionTest
         };
     }
 
+    // Tests_SRS_HTTPSCONNECTION_21_031: [The function shall set the socket factory of the TLS connection.]
+    @Test
+    public void setSSLSocketFactorySetsTheSocketFactory(@Mocked final SSLSocketFactory mockSocketFactory) throws IOException
+    {
+        final HttpsMethod httpsMethod = HttpsMethod.GET;
+        new NonStrictExpectations()
+        {
+            {
+                mockUrl.getProtocol();
+                result = "https";
+                mockUrl.openConnection();
+                result = mockUrlConn;
+            }
+        };
+        HttpsConnection conn = new HttpsConnection(mockUrl, httpsMethod);
+
+        conn.setSSLSocketFactory(mockSocketFactory);
+
+        new Verifications()
+        {
+            {
+                mockUrlConn.setSSLSocketFactory(mockSocketFactory);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_HTTPSCONNECTION_21_032: [The function shall return the URL of the connection.]
+    @Test
+    public void getUrlReturnsTheUrl() throws IOException
+    {
+        final HttpsMethod httpsMethod = HttpsMethod.GET;
+        new NonStrictExpectations()
+        {
+            {
+                mockUrl.getProtocol();
+                result = "https";
+                mockUrl.openConnection();
+                result = mockUrlConn;
+                mockUrlConn.getURL();
+                result = mockUrl;
+            }
+        };
+        HttpsConnection conn = new HttpsConnection(mockUrl, httpsMethod);
+
+        URL testUrl = conn.getUrl();
+
+        assertThat(testUrl, is(sameInstance(mockUrl)));
+    }
+
+    // Tests_SRS_HTTPSCONNECTION_21_033: [The function shall return the request method of the connection.]
+    @Test
+    public void getRequestMethodReturnsTheMethod() throws IOException
+    {
+        final HttpsMethod httpsMethod = HttpsMethod.PUT;
+        new NonStrictExpectations()
+        {
+            {
+                mockUrl.getProtocol();
+                result = "https";
+                mockUrl.openConnection();
+                result = mockUrlConn;
+                mockUrlConn.getRequestMethod();
+                result = "PUT";
+            }
+        };
+        HttpsConnection conn = new HttpsConnection(mockUrl, httpsMethod);
+
+        HttpsMethod testMethod = conn.getRequestMethod();
+
+        assertThat(testMethod, is(HttpsMethod.PUT));
+    }
+
 
     // Tests_SRS_HTTPSCONNECTION_11_010: [The function shall throw an IllegalArgumentException if the request does not currently use method POST or PUT and the body is non-empty.]
     @Test(expected = IllegalArgumentException.class)
@@ -370,8 +471,7 @@ public class HttpsConnectionTest
 
     // Tests_SRS_HTTPSCONNECTION_11_011: [The function shall read from the input stream (response stream) and return the response.]
     @Test
-    public void readInputCompletelyReadsInputStream(
-            @Mocked final InputStream mockIs)
+    public void readInputCompletelyReadsInputStream()
             throws IOException
     {
         final HttpsMethod httpsMethod = HttpsMethod.GET;
@@ -385,9 +485,7 @@ public class HttpsConnectionTest
                 mockUrlConn.getRequestMethod();
                 result = httpsMethod.name();
                 mockUrlConn.getInputStream();
-                result = mockIs;
-                mockIs.read();
-                returns(1, 2, 3, -1);
+                result = new ByteArrayInputStream(new byte[] { 1, 2, 3 });
             }
         };
         HttpsConnection conn = new HttpsConnection(mockUrl, httpsMethod);
@@ -441,7 +539,7 @@ public class HttpsConnectionTest
                 result = httpsMethod.name();
                 mockUrlConn.getInputStream();
                 result = mockIs;
-                mockIs.read();
+                mockIs.read((byte[]) any, anyInt, anyInt);
                 result = -1;
             }
         };
@@ -458,9 +556,119 @@ public class HttpsConnectionTest
         };
     }
 
-    // Tests_SRS_HTTPSCONNECTION_11_013: [The function shall read from the error stream and return the response.]
+    // Tests_SRS_HTTPSCONNECTION_21_024: [The function shall read the response in bulk into a buffer sized from the response Content-Length, if present,
+    // up to 64 KiB.]
+    // Tests_SRS_HTTPSCONNECTION_21_026: [The function shall return exactly the bytes read from the stream.]
+    @Test
+    public void readInputReadsTheResponseSizedFromContentLength()
+            throws IOException
+    {
+        final HttpsMethod httpsMethod = HttpsMethod.GET;
+        new NonStrictExpectations()
+        {
+            {
+                mockUrl.getProtocol();
+                result = "https";
+                mockUrl.openConnection();
+                result = mockUrlConn;
+                mockUrlConn.getRequestMethod();
+                result = httpsMethod.name();
+                mockUrlConn.getContentLength();
+                result = 3;
+                result = 2;
+                result = 5;
+                mockUrlConn.getInputStream();
+                result = new ByteArrayInputStream(new byte[] { 1, 2, 3 });
+                result = new ByteArrayInputStream(new byte[] { 1, 2, 3 });
+                result = new ByteArrayInputStream(new byte[] { 1, 2, 3 });
+            }
+        };
+        HttpsConnection conn = new HttpsConnection(mockUrl, httpsMethod);
+        conn.connect();
+
+        byte[] exactResponse = conn.readInput();
+        byte[] longerResponse = conn.readInput();
+        byte[] shorterResponse = conn.readInput();
+
+        byte[] expectedResponse = { 1, 2, 3 };
+        assertThat(exactResponse, is(expectedResponse));
+        assertThat(longerResponse, is(expectedResponse));
+        assertThat(shorterResponse, is(expectedResponse));
+    }
+
+    // Tests_SRS_HTTPSCONNECTION_21_024: [The function shall read the response in bulk into a buffer sized from the response Content-Length, if present,
+    // up to 64 KiB.]
+    // Tests_SRS_HTTPSCONNECTION_21_026: [The function shall return exactly the bytes read from the stream.]
     @Test
-    public void readErrorCompletelyReadsErrorStream(
+    public void readInputDoesNotAllocateAContentLengthMuchLargerThanTheResponse()
+            throws IOException
+    {
+        final HttpsMethod httpsMethod = HttpsMethod.GET;
+        final byte[] expectedResponse = new byte[100000];
+        for (int i = 0; i < expectedResponse.length; i++)
+        {
+            expectedResponse[i] = (byte) i;
+        }
+        new NonStrictExpectations()
+        {
+            {
+                mockUrl.getProtocol();
+                result = "https";
+                mockUrl.openConnection();
+                result = mockUrlConn;
+                mockUrlConn.getRequestMethod();
+                result = httpsMethod.name();
+                mockUrlConn.getContentLength();
+                result = Integer.MAX_VALUE;
+                mockUrlConn.getInputStream();
+                result = new ByteArrayInputStream(expectedResponse);
+            }
+        };
+        HttpsConnection conn = new HttpsConnection(mockUrl, httpsMethod);
+        conn.connect();
+
+        byte[] testResponse = conn.readInput();
+
+        assertThat(testResponse, is(expectedResponse));
+    }
+
+    // Tests_SRS_HTTPSCONNECTION_21_025: [If the Content-Length is not present, the function shall read the response into a buffer that grows as needed.]
+    @Test
+    public void readInputReadsLargeResponseWithoutContentLength()
+            throws IOException
+    {
+        final HttpsMethod httpsMethod = HttpsMethod.GET;
+        final byte[] expectedResponse = new byte[10000];
+        for (int i = 0; i < expectedResponse.length; i++)
+        {
+            expectedResponse[i] = (byte) i;
+        }
+        new NonStrictExpectations()
+        {
+            {
+                mockUrl.getProtocol();
+                result = "https";
+                mockUrl.openConnection();
+                result = mockUrlConn;
+                mockUrlConn.getRequestMethod();
+                result = httpsMethod.name();
+                mockUrlConn.getContentLength();
+                result = -1;
+                mockUrlConn.getInputStream();
+                result = new ByteArrayInputStream(expectedResponse);
+            }
+        };
+        HttpsConnection conn = new HttpsConnection(mockUrl, httpsMethod);
+        conn.connect();
+
+        byte[] testResponse = conn.readInput();
+
+        assertThat(testResponse, is(expectedResponse));
+    }
+
+    // Tests_SRS_HTTPSCONNECTION_21_027: [The function shall return the input stream (response stream) without reading it.]
+    @Test
+    public void getInputStreamReturnsTheResponseStream(
             @Mocked final InputStream mockIs)
             throws IOException
     {
@@ -474,10 +682,69 @@ public class HttpsConnectionTest
                 result = mockUrlConn;
                 mockUrlConn.getRequestMethod();
                 result = httpsMethod.name();
-                mockUrlConn.getErrorStream();
+                mockUrlConn.getInputStream();
                 result = mockIs;
+            }
+        };
+        HttpsConnection conn = new HttpsConnection(mockUrl, httpsMethod);
+        conn.connect();
+
+        InputStream testStream = conn.getInputStream();
+
+        assertThat(testStream, is(mockIs));
+        new Verifications()
+        {
+            {
                 mockIs.read();
-                returns(1, 2, 3, -1);
+                times = 0;
+                mockIs.read((byte[]) any, anyInt, anyInt);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_HTTPSCONNECTION_21_028: [The function shall throw an IOException if the input stream could not be accessed.]
+    @Test(expected = IOException.class)
+    public void getInputStreamFailsIfCannotAccessInputStream()
+            throws IOException
+    {
+        final HttpsMethod httpsMethod = HttpsMethod.GET;
+        new NonStrictExpectations()
+        {
+            {
+                mockUrl.getProtocol();
+                result = "https";
+                mockUrl.openConnection();
+                result = mockUrlConn;
+                mockUrlConn.getRequestMethod();
+                result = httpsMethod.name();
+                mockUrlConn.getInputStream();
+                result = new IOException();
+            }
+        };
+        HttpsConnection conn = new HttpsConnection(mockUrl, httpsMethod);
+        conn.connect();
+
+        conn.getInputStream();
+    }
+
+    // Tests_SRS_HTTPSCONNECTION_11_013: [The function shall read from the error stream and return the response.]
+    @Test
+    public void readErrorCompletelyReadsErrorStream()
+            throws IOException
+    {
+        final HttpsMethod httpsMethod = HttpsMethod.GET;
+        new NonStrictExpectations()
+        {
+            {
+                mockUrl.getProtocol();
+                result = "https";
+                mockUrl.openConnection();
+                result = mockUrlConn;
+                mockUrlConn.getRequestMethod();
+                result = httpsMethod.name();
+                mockUrlConn.getErrorStream();
+                result = new ByteArrayInputStream(new byte[] { 1, 2, 3 });
             }
         };
         HttpsConnection conn = new HttpsConnection(mockUrl, httpsMethod);
@@ -559,7 +826,7 @@ public class HttpsConnectionTest
                 result = httpsMethod.name();
                 mockUrlConn.getErrorStream();
                 result = mockIs;
-                mockIs.read();
+                mockIs.read((byte[]) any, anyInt, anyInt);
                 result = -1;
             }
         };
@@ -0,0 +1,224 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport.https;
+
+import com.microsoft.azure.sdk.iot.device.transport.https.HttpsContentEncoding;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/** Unit tests for HttpsContentEncoding. */
+public class HttpsContentEncodingTest
+{
+    private static byte[] jsonTelemetryBatch(int messages)
+    {
+        StringBuilder batch = new StringBuilder("[");
+        for (int i = 0; i < messages; i++)
+        {
+            if (i > 0)
+            {
+                batch.append(',');
+            }
+            batch.append("{\"body\":\"{\\\"deviceId\\\":\\\"sensor-042\\\",\\\"temperature\\\":")
+                    .append(20 + i % 7).append('.').append(i % 10)
+                    .append(",\\\"humidity\\\":").append(40 + i % 13)
+                    .append(",\\\"timestamp\\\":").append(1480000000000L + i * 1000L)
+                    .append("}\",\"base64Encoded\":false,\"properties\":{\"iothub-app-alert\":\"")
+                    .append((i % 5 == 0) ? "true" : "false").append("\"}}");
+        }
+        return batch.append(']').toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readAll(InputStream input) throws IOException
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[256];
+        int read;
+        while ((read = input.read(buffer)) != -1)
+        {
+            output.write(buffer, 0, read);
+        }
+        return output.toByteArray();
+    }
+
+    // Tests_SRS_HTTPSCONTENTENCODING_21_001: [The function shall return the content-encoding name of the encoding.]
+    @Test
+    public void getNameReturnsContentEncodingName()
+    {
+        assertThat(HttpsContentEncoding.IDENTITY.getName(), is("identity"));
+        assertThat(HttpsContentEncoding.GZIP.getName(), is("gzip"));
+        assertThat(HttpsContentEncoding.DEFLATE.getName(), is("deflate"));
+    }
+
+    // Tests_SRS_HTTPSCONTENTENCODING_21_002: [The function shall return the encoding with the given name,
+    // ignoring the case and the surrounding spaces.]
+    @Test
+    public void fromNameIgnoresCaseAndSpaces()
+    {
+        assertThat(HttpsContentEncoding.fromName(" GZip "), is(HttpsContentEncoding.GZIP));
+        assertThat(HttpsContentEncoding.fromName("deflate"), is(HttpsContentEncoding.DEFLATE));
+        assertThat(HttpsContentEncoding.fromName("Identity"), is(HttpsContentEncoding.IDENTITY));
+    }
+
+    // Tests_SRS_HTTPSCONTENTENCODING_21_003: [If the name is null or unknown, the function shall return null.]
+    @Test
+    public void fromNameReturnsNullIfUnknown()
+    {
+        assertThat(HttpsContentEncoding.fromName(null), is(nullValue()));
+        assertThat(HttpsContentEncoding.fromName("br"), is(nullValue()));
+    }
+
+    // Tests_SRS_HTTPSCONTENTENCODING_21_004: [The identity encoding shall return the same body.]
+    // Tests_SRS_HTTPSCONTENTENCODING_21_007: [The identity encoding shall return the same body.]
+    @Test
+    public void identityKeepsBody() throws IOException
+    {
+        final byte[] body = { 1, 2, 3 };
+
+        assertThat(HttpsContentEncoding.IDENTITY.encode(body), is(sameInstance(body)));
+        assertThat(HttpsContentEncoding.IDENTITY.decode(body), is(sameInstance(body)));
+    }
+
+    // Tests_SRS_HTTPSCONTENTENCODING_21_005: [The gzip encoding shall compress the body in the gzip format.]
+    @Test
+    public void gzipEncodesInGzipFormat() throws IOException
+    {
+        final byte[] body = jsonTelemetryBatch(100);
+
+        byte[] encodedBody = HttpsContentEncoding.GZIP.encode(body);
+        byte[] testBody = readAll(new GZIPInputStream(new ByteArrayInputStream(encodedBody)));
+
+        assertThat(testBody, is(body));
+    }
+
+    // Tests_SRS_HTTPSCONTENTENCODING_21_006: [The deflate encoding shall compress the body in the zlib format.]
+    @Test
+    public void deflateEncodesInZlibFormat() throws IOException
+    {
+        final byte[] body = jsonTelemetryBatch(100);
+
+        byte[] encodedBody = HttpsContentEncoding.DEFLATE.encode(body);
+        byte[] testBody = readAll(new InflaterInputStream(new ByteArrayInputStream(encodedBody)));
+
+        assertThat(testBody, is(body));
+    }
+
+    // Tests_SRS_HTTPSCONTENTENCODING_21_005: [The gzip encoding shall compress the body in the gzip format.]
+    @Test
+    public void gzipEncodesIncompressibleAndEmptyBodies() throws IOException
+    {
+        final byte[] body = new byte[70000];
+        new Random(42).nextBytes(body);
+
+        byte[] testBody = HttpsContentEncoding.GZIP.decode(HttpsContentEncoding.GZIP.encode(body));
+        byte[] testEmptyBody = HttpsContentEncoding.GZIP.decode(HttpsContentEncoding.GZIP.encode(new byte[0]));
+
+        assertThat(testBody, is(body));
+        assertThat(testEmptyBody.length, is(0));
+    }
+
+    // Tests_SRS_HTTPSCONTENTENCODING_21_005: [The gzip encoding shall compress the body in the gzip format.]
+    // Tests_SRS_HTTPSCONTENTENCODING_21_006: [The deflate encoding shall compress the body in the zlib format.]
+    @Test
+    public void encodeShrinksJsonTelemetryBatch()
+    {
+        final byte[] body = jsonTelemetryBatch(500);
+
+        byte[] gzipBody = HttpsContentEncoding.GZIP.encode(body);
+        byte[] deflateBody = HttpsContentEncoding.DEFLATE.encode(body);
+
+        assertTrue(gzipBody.length * 4 < body.length);
+        assertTrue(deflateBody.length < gzipBody.length);
+    }
+
+    // Tests_SRS_HTTPSCONTENTENCODING_21_008: [The gzip and deflate encodings shall decompress the body,
+    // and throw IOException if it is not correctly encoded.]
+    @Test
+    public void decodeReadsStandardEncodings() throws IOException
+    {
+        final byte[] body = jsonTelemetryBatch(10);
+        ByteArrayOutputStream gzipBody = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(gzipBody);
+        gzip.write(body);
+        gzip.close();
+        ByteArrayOutputStream deflateBody = new ByteArrayOutputStream();
+        DeflaterOutputStream deflate = new DeflaterOutputStream(deflateBody);
+        deflate.write(body);
+        deflate.close();
+
+        assertThat(HttpsContentEncoding.GZIP.decode(gzipBody.toByteArray()), is(body));
+        assertThat(HttpsContentEncoding.DEFLATE.decode(deflateBody.toByteArray()), is(body));
+    }
+
+    // Tests_SRS_HTTPSCONTENTENCODING_21_008: [The gzip and deflate encodings shall decompress the body,
+    // and throw IOException if it is not correctly encoded.]
+    @Test(expected = IOException.class)
+    public void decodeThrowsIfNotEncoded() throws IOException
+    {
+        HttpsContentEncoding.GZIP.decode(jsonTelemetryBatch(1));
+    }
+
+    // Tests_SRS_HTTPSCONTENTENCODING_21_009: [If the body decodes to more than the maximum decoded
+    // size, the gzip and deflate encodings shall throw IOException.]
+    @Test
+    public void decodeStopsAtTheMaximumDecodedSize() throws IOException
+    {
+        byte[] zeros = new byte[HttpsContentEncoding.MAX_DECODED_SIZE + 1];
+        byte[] gzipBomb = HttpsContentEncoding.GZIP.encode(zeros);
+        byte[] deflateBomb = HttpsContentEncoding.DEFLATE.encode(zeros);
+        byte[] exactBody = HttpsContentEncoding.GZIP.encode(new byte[HttpsContentEncoding.MAX_DECODED_SIZE]);
+
+        assertThat(HttpsContentEncoding.GZIP.decode(exactBody).length, is(HttpsContentEncoding.MAX_DECODED_SIZE));
+        try
+        {
+            HttpsContentEncoding.GZIP.decode(gzipBomb);
+            fail("Expected an IOException decoding gzip");
+        }
+        catch (IOException e)
+        {
+            // expected.
+        }
+        try
+        {
+            HttpsContentEncoding.DEFLATE.decode(deflateBomb);
+            fail("Expected an IOException decoding deflate");
+        }
+        catch (IOException e)
+        {
+            // expected.
+        }
+    }
+
+    // Tests_SRS_HTTPSCONTENTENCODING_21_009: [If the body decodes to more than the maximum decoded
+    // size, the gzip and deflate encodings shall throw IOException.]
+    @Test(expected = IOException.class)
+    public void decodeThrowsIfLargerThanTheGivenSize() throws IOException
+    {
+        HttpsContentEncoding.GZIP.decode(HttpsContentEncoding.GZIP.encode(jsonTelemetryBatch(10)), 100);
+    }
+
+    // Tests_SRS_HTTPSCONTENTENCODING_21_010: [If the maximum decoded size is not positive, the function shall throw
+    // IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void decodeThrowsIfMaximumDecodedSizeIsNotPositive() throws IOException
+    {
+        HttpsContentEncoding.GZIP.decode(HttpsContentEncoding.GZIP.encode(jsonTelemetryBatch(1)), 0);
+    }
+}
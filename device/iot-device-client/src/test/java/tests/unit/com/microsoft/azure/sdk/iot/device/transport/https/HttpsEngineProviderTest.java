@@ -0,0 +1,61 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport.https;
+
+import com.microsoft.azure.sdk.iot.device.transport.https.HttpsEngine;
+import com.microsoft.azure.sdk.iot.device.transport.https.HttpsEngineProvider;
+import com.microsoft.azure.sdk.iot.device.transport.https.HttpsUrlConnectionEngine;
+import mockit.Deencapsulation;
+import mockit.Mocked;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+
+/** Unit tests for HttpsEngineProvider. */
+public class HttpsEngineProviderTest
+{
+    @After
+    public void restoreDefaultEngine()
+    {
+        HttpsEngineProvider.setEngine(null);
+    }
+
+    // Tests_SRS_HTTPSENGINEPROVIDER_21_001: [If no engine was installed, the function shall install
+    // the first engine registered with the ServiceLoader, or the HttpsUrlConnectionEngine if there is none.]
+    // Tests_SRS_HTTPSENGINEPROVIDER_21_002: [The function shall return the installed engine.]
+    @Test
+    public void getEngineLoadsTheDefaultEngineOnce()
+    {
+        Deencapsulation.setField(HttpsEngineProvider.class, "engine", null);
+
+        HttpsEngine engine = HttpsEngineProvider.getEngine();
+
+        assertThat(engine, instanceOf(HttpsUrlConnectionEngine.class));
+        assertSame(engine, HttpsEngineProvider.getEngine());
+    }
+
+    // Tests_SRS_HTTPSENGINEPROVIDER_21_003: [The function shall install the given engine.]
+    @Test
+    public void setEngineInstallsTheEngine(@Mocked final HttpsEngine mockEngine)
+    {
+        HttpsEngineProvider.setEngine(mockEngine);
+
+        assertSame(mockEngine, HttpsEngineProvider.getEngine());
+    }
+
+    // Tests_SRS_HTTPSENGINEPROVIDER_21_004: [If the engine is null, the function shall install the
+    // HttpsUrlConnectionEngine.]
+    @Test
+    public void setEngineRestoresTheDefaultEngine(@Mocked final HttpsEngine mockEngine)
+    {
+        HttpsEngineProvider.setEngine(mockEngine);
+
+        HttpsEngineProvider.setEngine(null);
+
+        assertThat(HttpsEngineProvider.getEngine(), instanceOf(HttpsUrlConnectionEngine.class));
+    }
+}
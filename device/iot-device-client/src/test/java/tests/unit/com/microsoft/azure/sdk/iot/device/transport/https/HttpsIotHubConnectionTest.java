@@ -12,6 +12,9 @@ import com.microsoft.azure.sdk.iot.device.MessageProperty;
 import com.microsoft.azure.sdk.iot.device.IotHubMessageResult;
 import com.microsoft.azure.sdk.iot.device.IotHubStatusCode;
 import com.microsoft.azure.sdk.iot.device.auth.IotHubSasToken;
+import com.microsoft.azure.sdk.iot.device.transport.https.HttpsRequestLimiter;
+import com.microsoft.azure.sdk.iot.device.transport.https.HttpsEngine;
+import com.microsoft.azure.sdk.iot.device.transport.https.HttpsEngineProvider;
 import com.microsoft.azure.sdk.iot.device.transport.https.HttpsIotHubConnection;
 import com.microsoft.azure.sdk.iot.device.transport.https.HttpsMethod;
 import com.microsoft.azure.sdk.iot.device.transport.https.HttpsRequest;
@@ -23,15 +26,21 @@ import com.microsoft.azure.sdk.iot.device.net.IotHubMessageUri;
 import com.microsoft.azure.sdk.iot.device.net.IotHubRejectUri;
 import com.microsoft.azure.sdk.iot.device.net.IotHubEventUri;
 import com.microsoft.azure.sdk.iot.device.net.IotHubUri;
+import com.microsoft.azure.sdk.iot.device.transport.https.HttpsContentEncoding;
 import com.microsoft.azure.sdk.iot.device.transport.https.HttpsSingleMessage;
+import mockit.Deencapsulation;
 import mockit.Mocked;
 import mockit.NonStrictExpectations;
 import mockit.Verifications;
+import mockit.VerificationsInOrder;
 import org.junit.Test;
 
+import javax.net.ssl.SSLSocketFactory;
 import java.io.IOException;
 import java.net.URL;
 import java.net.URLEncoder;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 /** Unit tests for HttpsIotHubConnection. */
 public class HttpsIotHubConnectionTest
@@ -52,6 +61,8 @@ public class HttpsIotHubConnectionTest
     HttpsResponse mockResponse;
     @Mocked
     IotHubStatusCode mockStatus;
+    @Mocked
+    HttpsRequestLimiter mockRequestLimiter;
 
     // Tests_SRS_HTTPSIOTHUBCONNECTION_11_002: [The function shall send a request to the URL 'https://[iotHubHostname]/devices/[deviceId]/messages/events?api-version=2016-02-03'.] 
     // Tests_SRS_HTTPSIOTHUBCONNECTION_11_001: [The constructor shall save the client configuration.]
@@ -116,6 +127,8 @@ public class HttpsIotHubConnectionTest
             {
                 mockMsg.getBody();
                 result = body;
+                mockConfig.getHttpsContentEncoding();
+                result = HttpsContentEncoding.IDENTITY;
             }
         };
 
@@ -131,6 +144,38 @@ public class HttpsIotHubConnectionTest
         };
     }
 
+    // Tests_SRS_HTTPSIOTHUBCONNECTION_21_042: [If the configuration sets a content encoding other than
+    // identity, the function shall encode the message body with it and set the header field
+    // 'content-encoding' to its name.]
+    @Test
+    public void sendEventSendsEncodedMessageBody(
+            @Mocked final IotHubEventUri mockUri) throws IOException
+    {
+        final byte[] body = { 0x61, 0x62 };
+        final byte[] encodedBody = HttpsContentEncoding.DEFLATE.encode(body);
+        new NonStrictExpectations()
+        {
+            {
+                mockMsg.getBody();
+                result = body;
+                mockConfig.getHttpsContentEncoding();
+                result = HttpsContentEncoding.DEFLATE;
+            }
+        };
+
+        HttpsIotHubConnection conn = new HttpsIotHubConnection(mockConfig);
+        conn.sendEvent(mockMsg);
+
+        new Verifications()
+        {
+            {
+                new HttpsRequest((URL) any, (HttpsMethod) any, encodedBody);
+                mockRequest.setHeaderField("content-encoding", "deflate");
+                times = 1;
+            }
+        };
+    }
+
     // Tests_SRS_HTTPSIOTHUBCONNECTION_11_005: [The function shall write each message property as a request header.]
     @Test
     public void sendEventSendsMessageProperties(
@@ -228,6 +273,97 @@ public class HttpsIotHubConnectionTest
         };
     }
 
+    // Tests_SRS_HTTPSIOTHUBCONNECTION_21_044: [The constructor shall create a SAS token cache for the
+    // configuration, which signs the requests until the token is due for renewal.]
+    @Test
+    public void sendEventReusesSasTokenUntilRenewal(@Mocked final IotHubEventUri mockUri) throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getTokenValidSecs();
+                result = 3600L;
+                mockConfig.getSasTokenRenewalFraction();
+                result = 0.75;
+                new IotHubSasToken(mockConfig, anyLong);
+                result = mockToken;
+            }
+        };
+
+        HttpsIotHubConnection conn = new HttpsIotHubConnection(mockConfig);
+        conn.sendEvent(mockMsg);
+        conn.sendEvent(mockMsg);
+        conn.receiveMessage();
+
+        new Verifications()
+        {
+            {
+                new IotHubSasToken(mockConfig, anyLong);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_HTTPSIOTHUBCONNECTION_21_045: [If the IoT Hub status code of a response is UNAUTHORIZED, the
+    // function shall drop the cached SAS token, so the next request is signed with a new one.]
+    @Test
+    public void sendEventRenewsSasTokenIfUnauthorized(@Mocked final IotHubEventUri mockUri) throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getTokenValidSecs();
+                result = 3600L;
+                mockConfig.getSasTokenRenewalFraction();
+                result = 0.75;
+                new IotHubSasToken(mockConfig, anyLong);
+                result = mockToken;
+                IotHubStatusCode.getIotHubStatusCode(anyInt);
+                result = IotHubStatusCode.UNAUTHORIZED;
+            }
+        };
+
+        HttpsIotHubConnection conn = new HttpsIotHubConnection(mockConfig);
+        IotHubStatusCode status = conn.sendEvent(mockMsg);
+        conn.sendEvent(mockMsg);
+
+        assertThat(status, is(IotHubStatusCode.UNAUTHORIZED));
+        new Verifications()
+        {
+            {
+                new IotHubSasToken(mockConfig, anyLong);
+                times = 2;
+            }
+        };
+    }
+
+    // Tests_SRS_HTTPSIOTHUBCONNECTION_21_046: [The function shall open the TLS connection with the socket
+    // factory of the configuration, shared by the clients using the same TLS context.]
+    @Test
+    public void sendEventAndReceiveMessageUseTheSocketFactoryOfTheConfig(@Mocked final IotHubEventUri mockUri,
+            @Mocked final SSLSocketFactory mockSocketFactory) throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getSslSocketFactory();
+                result = mockSocketFactory;
+            }
+        };
+
+        HttpsIotHubConnection conn = new HttpsIotHubConnection(mockConfig);
+        conn.sendEvent(mockMsg);
+        conn.receiveMessage();
+
+        new Verifications()
+        {
+            {
+                mockRequest.setSSLSocketFactory(mockSocketFactory);
+                times = 2;
+            }
+        };
+    }
+
     // Tests_SRS_HTTPSIOTHUBCONNECTION_11_008: [The function shall set the header field 'iothub-to' to be '/devices/[deviceId]/messages/events'.]
     @Test
     public void sendEventSetsIotHubToToPath(@Mocked final IotHubEventUri mockUri) throws IOException
@@ -319,6 +455,146 @@ public class HttpsIotHubConnectionTest
         conn.sendEvent(mockMsg);
     }
 
+    // Tests_SRS_HTTPSIOTHUBCONNECTION_21_040: [The function shall send the request once its turn comes in the
+    // request limiter of the connection, and end its turn after reading the response.]
+    @Test
+    public void sendEventWaitsForItsTurnInTheRequestLimiter(@Mocked final IotHubEventUri mockUri) throws IOException
+    {
+        final String iotHubHostname = "test.iothub";
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getIotHubHostname();
+                result = iotHubHostname;
+            }
+        };
+
+        HttpsIotHubConnection conn = new HttpsIotHubConnection(mockConfig);
+        conn.sendEvent(mockMsg);
+
+        new VerificationsInOrder()
+        {
+            {
+                mockRequestLimiter.acquire();
+                mockRequest.send();
+                mockRequestLimiter.release();
+            }
+        };
+    }
+
+    // Tests_SRS_HTTPSIOTHUBCONNECTION_21_040: [The function shall send the request once its turn comes in the
+    // request limiter of the connection, and end its turn after reading the response.]
+    @Test
+    public void sendEventEndsItsTurnIfRequestFails(@Mocked final IotHubEventUri mockUri) throws IOException
+    {
+        final String iotHubHostname = "test.iothub";
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getIotHubHostname();
+                result = iotHubHostname;
+                mockRequest.send();
+                result = new IOException();
+            }
+        };
+
+        HttpsIotHubConnection conn = new HttpsIotHubConnection(mockConfig);
+        try
+        {
+            conn.sendEvent(mockMsg);
+        }
+        catch (IOException e)
+        {
+            // expected.
+        }
+
+        new Verifications()
+        {
+            {
+                mockRequestLimiter.release();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_HTTPSIOTHUBCONNECTION_21_041: [If the installed HTTPS engine multiplexes the requests, the
+    // function shall send the request without waiting for the request limiter.]
+    @Test
+    public void sendEventWithMultiplexedEngineSkipsTheRequestLimiter(
+            @Mocked final IotHubEventUri mockUri,
+            @Mocked final HttpsEngineProvider mockEngineProvider,
+            @Mocked final HttpsEngine mockEngine) throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                HttpsEngineProvider.getEngine();
+                result = mockEngine;
+                mockEngine.isMultiplexed();
+                result = true;
+            }
+        };
+
+        HttpsIotHubConnection conn = new HttpsIotHubConnection(mockConfig);
+        conn.sendEvent(mockMsg);
+
+        new Verifications()
+        {
+            {
+                mockRequest.send();
+                times = 1;
+                mockRequestLimiter.acquire();
+                times = 0;
+                mockRequestLimiter.release();
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_HTTPSIOTHUBCONNECTION_21_040: [The function shall send the request once its turn comes in the
+    // request limiter of the connection, and end its turn after reading the response.]
+    @Test
+    public void sendEventIsNotBlockedByAMessageBeingReceived(@Mocked final IotHubEventUri mockUri) throws Exception
+    {
+        final HttpsIotHubConnection conn = new HttpsIotHubConnection(mockConfig);
+        final Object messageLock = Deencapsulation.getField(conn, "messageLock");
+        final CountDownLatch receiving = new CountDownLatch(1);
+        final CountDownLatch sent = new CountDownLatch(1);
+        Thread receiver = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                synchronized (messageLock)
+                {
+                    receiving.countDown();
+                    try
+                    {
+                        sent.await(5, TimeUnit.SECONDS);
+                    }
+                    catch (InterruptedException e)
+                    {
+                        // ends the test.
+                    }
+                }
+            }
+        };
+        receiver.start();
+        receiving.await(5, TimeUnit.SECONDS);
+
+        conn.sendEvent(mockMsg);
+        sent.countDown();
+        receiver.join(5000);
+
+        new Verifications()
+        {
+            {
+                mockRequest.send();
+                times = 1;
+            }
+        };
+    }
+
     // Tests_SRS_HTTPSIOTHUBCONNECTION_11_013: [The function shall send a request to the URL 'https://[iotHubHostname]/devices/[deviceId]/messages/devicebound?api-version=2016-02-03'.]
     @Test
     public void receiveMessageHasCorrectUrl(@Mocked final IotHubMessageUri mockUri) throws IOException
@@ -484,6 +760,31 @@ public class HttpsIotHubConnectionTest
         };
     }
 
+    // Tests_SRS_HTTPSIOTHUBCONNECTION_21_043: [If the configuration sets a content encoding other than
+    // identity, the function shall set the header field 'accept-encoding' to 'gzip, deflate'.]
+    @Test
+    public void receiveMessageAcceptsEncodedMessages(@Mocked final IotHubMessageUri mockUri) throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getHttpsContentEncoding();
+                result = HttpsContentEncoding.GZIP;
+            }
+        };
+
+        HttpsIotHubConnection conn = new HttpsIotHubConnection(mockConfig);
+        conn.receiveMessage();
+
+        new Verifications()
+        {
+            {
+                mockRequest.setHeaderField("accept-encoding", "gzip, deflate");
+                times = 1;
+            }
+        };
+    }
+
     // Tests_SRS_HTTPSIOTHUBCONNECTION_11_019: [If a response with IoT Hub status code OK is received, the function shall return the IoT Hub message included in the response.]
     @Test
     public void receiveMessageReturnsMessageBody(@Mocked final IotHubMessageUri mockUri) throws IOException
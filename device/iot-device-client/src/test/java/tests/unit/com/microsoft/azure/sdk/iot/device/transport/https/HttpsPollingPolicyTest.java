@@ -0,0 +1,162 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport.https;
+
+import com.microsoft.azure.sdk.iot.device.transport.https.HttpsPollingPolicy;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/** Unit tests for HttpsPollingPolicy. */
+public class HttpsPollingPolicyTest
+{
+    private static final long PERIOD_MILLIS = 1000;
+    private static final long MAX_INTERVAL_MILLIS = 8000;
+
+    /** Polls on each period from the start time, returning the number of polls done. */
+    private static int tick(HttpsPollingPolicy policy, long startMillis, int periods, boolean emptyPolls)
+    {
+        int polls = 0;
+        for (int i = 0; i < periods; i++)
+        {
+            long nowMillis = startMillis + i * PERIOD_MILLIS;
+            if (policy.shouldPoll(nowMillis))
+            {
+                polls++;
+                if (emptyPolls)
+                {
+                    policy.onEmptyPoll(nowMillis);
+                }
+                else
+                {
+                    policy.onMessageReceived(nowMillis);
+                }
+            }
+        }
+        return polls;
+    }
+
+    // Tests_SRS_HTTPSPOLLINGPOLICY_21_001: [The constructor shall save the maximum polling interval.]
+    // Tests_SRS_HTTPSPOLLINGPOLICY_21_002: [The function shall return the maximum polling interval.]
+    @Test
+    public void constructorSavesTheMaximumInterval()
+    {
+        HttpsPollingPolicy policy = new HttpsPollingPolicy(MAX_INTERVAL_MILLIS);
+
+        assertEquals(MAX_INTERVAL_MILLIS, policy.getMaxIntervalMillis());
+    }
+
+    // Tests_SRS_HTTPSPOLLINGPOLICY_21_003: [If the interval is negative, the function shall throw IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorThrowsOnNegativeInterval()
+    {
+        new HttpsPollingPolicy(-1);
+    }
+
+    // Tests_SRS_HTTPSPOLLINGPOLICY_21_003: [If the interval is negative, the function shall throw IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setMaxIntervalMillisThrowsOnNegativeInterval()
+    {
+        new HttpsPollingPolicy(0).setMaxIntervalMillis(-1);
+    }
+
+    // Tests_SRS_HTTPSPOLLINGPOLICY_21_005: [If the back-off is disabled, or the time for the next poll was
+    // reached, the function shall return true.]
+    // Tests_SRS_HTTPSPOLLINGPOLICY_21_009: [The function shall return the number of polls done.]
+    @Test
+    public void shouldPollAlwaysPollsWithoutMaximumInterval()
+    {
+        HttpsPollingPolicy policy = new HttpsPollingPolicy(0);
+
+        int polls = tick(policy, 1000000, 20, true);
+
+        assertEquals(20, polls);
+        assertEquals(20, policy.getPollCount());
+        assertEquals(0, policy.getAvoidedPollCount());
+    }
+
+    // Tests_SRS_HTTPSPOLLINGPOLICY_21_006: [Otherwise, the function shall count the poll as avoided and return false.]
+    // Tests_SRS_HTTPSPOLLINGPOLICY_21_008: [The function shall double the time until the next poll, starting
+    // from the receive period, up to the maximum polling interval.]
+    // Tests_SRS_HTTPSPOLLINGPOLICY_21_010: [The function shall return the number of polls that returned no message.]
+    // Tests_SRS_HTTPSPOLLINGPOLICY_21_011: [The function shall return the number of receive periods that skipped the poll.]
+    @Test
+    public void emptyPollsBackOffExponentiallyUpToTheMaximum()
+    {
+        HttpsPollingPolicy policy = new HttpsPollingPolicy(MAX_INTERVAL_MILLIS);
+
+        // polls at 0, 1, 2, 4, 8, 16, 24 and 32 periods: the first tick measures the period, then the
+        // back-off goes 1, 2, 4 and 8 periods, which is the maximum.
+        int polls = tick(policy, 1000000, 33, true);
+
+        assertEquals(8, polls);
+        assertEquals(8, policy.getPollCount());
+        assertEquals(8, policy.getEmptyPollCount());
+        assertEquals(25, policy.getAvoidedPollCount());
+    }
+
+    // Tests_SRS_HTTPSPOLLINGPOLICY_21_007: [The function shall reset the back-off, so the transport polls on
+    // the next receive period.]
+    @Test
+    public void receivedMessagesKeepPollingOnEveryPeriod()
+    {
+        HttpsPollingPolicy policy = new HttpsPollingPolicy(MAX_INTERVAL_MILLIS);
+
+        int polls = tick(policy, 1000000, 10, false);
+
+        assertEquals(10, polls);
+        assertEquals(0, policy.getEmptyPollCount());
+    }
+
+    // Tests_SRS_HTTPSPOLLINGPOLICY_21_007: [The function shall reset the back-off, so the transport polls on
+    // the next receive period.]
+    @Test
+    public void sentEventResetsTheBackOff()
+    {
+        HttpsPollingPolicy policy = new HttpsPollingPolicy(MAX_INTERVAL_MILLIS);
+        long startMillis = 1000000;
+        tick(policy, startMillis, 20, true);
+        long nowMillis = startMillis + 20 * PERIOD_MILLIS;
+        assertFalse(policy.shouldPoll(nowMillis));
+
+        policy.onEventSent(nowMillis);
+
+        assertTrue(policy.shouldPoll(nowMillis + PERIOD_MILLIS));
+    }
+
+    // Tests_SRS_HTTPSPOLLINGPOLICY_21_004: [If the current back-off is longer than the new maximum, the
+    // function shall shorten it to the new maximum.]
+    @Test
+    public void setMaxIntervalMillisShortensTheCurrentBackOff()
+    {
+        HttpsPollingPolicy policy = new HttpsPollingPolicy(MAX_INTERVAL_MILLIS);
+        long startMillis = 1000000;
+        tick(policy, startMillis, 17, true);
+        long nowMillis = startMillis + 17 * PERIOD_MILLIS;
+        // the last poll was at 16 periods, with the next one 8 periods later.
+        assertFalse(policy.shouldPoll(nowMillis));
+
+        policy.setMaxIntervalMillis(2 * PERIOD_MILLIS);
+
+        assertTrue(policy.shouldPoll(nowMillis + PERIOD_MILLIS));
+        assertEquals(2 * PERIOD_MILLIS, policy.getMaxIntervalMillis());
+    }
+
+    // Tests_SRS_HTTPSPOLLINGPOLICY_21_005: [If the back-off is disabled, or the time for the next poll was
+    // reached, the function shall return true.]
+    @Test
+    public void shouldPollToleratesLateTicks()
+    {
+        HttpsPollingPolicy policy = new HttpsPollingPolicy(MAX_INTERVAL_MILLIS);
+        long startMillis = 1000000;
+        policy.shouldPoll(startMillis);
+        policy.shouldPoll(startMillis + PERIOD_MILLIS);
+        policy.onEmptyPoll(startMillis + PERIOD_MILLIS);
+
+        // the next poll is due at 2 periods, and the tick comes a bit early.
+        assertTrue(policy.shouldPoll(startMillis + 2 * PERIOD_MILLIS - 100));
+    }
+}
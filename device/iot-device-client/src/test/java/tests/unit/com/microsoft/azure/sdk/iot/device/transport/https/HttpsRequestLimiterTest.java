@@ -0,0 +1,169 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport.https;
+
+import com.microsoft.azure.sdk.iot.device.transport.https.HttpsRequestLimiter;
+import mockit.Deencapsulation;
+import org.junit.Test;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/** Unit tests for HttpsRequestLimiter. */
+public class HttpsRequestLimiterTest
+{
+    private HttpsRequestLimiter createLimiter(int maxRequests)
+    {
+        return Deencapsulation.newInstance(HttpsRequestLimiter.class, new Class[] { int.class }, maxRequests);
+    }
+
+    private Thread acquireInBackground(final HttpsRequestLimiter limiter, final CountDownLatch acquired)
+    {
+        Thread thread = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    limiter.acquire();
+                    acquired.countDown();
+                }
+                catch (InterruptedIOException e)
+                {
+                    // the test interrupts the thread.
+                }
+            }
+        };
+        thread.start();
+        return thread;
+    }
+
+    // Tests_SRS_HTTPSREQUESTLIMITER_21_001: [The constructor shall bound the requests to the `http.maxConnections`
+    // system property, or 5 requests if it is not set.]
+    @Test
+    public void constructorUsesTheKeepAliveCacheBound()
+    {
+        HttpsRequestLimiter limiter = new HttpsRequestLimiter();
+
+        assertEquals((int) Integer.getInteger("http.maxConnections", 5), limiter.getMaxRequests());
+    }
+
+    // Tests_SRS_HTTPSREQUESTLIMITER_21_002: [The constructor shall throw IllegalArgumentException if the
+    // maximum number of requests is not positive.]
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorThrowsIfNoRequests()
+    {
+        createLimiter(0);
+    }
+
+    // Tests_SRS_HTTPSREQUESTLIMITER_21_003: [The function shall return the maximum number of requests.]
+    @Test
+    public void getMaxRequestsReturnsTheBound()
+    {
+        HttpsRequestLimiter limiter = createLimiter(3);
+
+        assertEquals(3, limiter.getMaxRequests());
+    }
+
+    // Tests_SRS_HTTPSREQUESTLIMITER_21_004: [If the maximum number of requests is running, the function shall
+    // wait for one of them to be released.]
+    // Tests_SRS_HTTPSREQUESTLIMITER_21_007: [The function shall give the turn to the next request waiting.]
+    @Test
+    public void acquireWaitsForARequestToEnd() throws Exception
+    {
+        HttpsRequestLimiter limiter = createLimiter(2);
+        limiter.acquire();
+        limiter.acquire();
+        CountDownLatch acquired = new CountDownLatch(1);
+
+        Thread waiting = acquireInBackground(limiter, acquired);
+        boolean acquiredBeforeRelease = acquired.await(100, TimeUnit.MILLISECONDS);
+        limiter.release();
+        boolean acquiredAfterRelease = acquired.await(5, TimeUnit.SECONDS);
+        waiting.join(5000);
+
+        assertFalse(acquiredBeforeRelease);
+        assertTrue(acquiredAfterRelease);
+    }
+
+    // Tests_SRS_HTTPSREQUESTLIMITER_21_004: [If the maximum number of requests is running, the function shall
+    // wait for one of them to be released.]
+    @Test
+    public void acquireDoesNotWaitForOtherLimiters() throws Exception
+    {
+        HttpsRequestLimiter limiter = createLimiter(1);
+        limiter.acquire();
+        CountDownLatch acquired = new CountDownLatch(1);
+
+        Thread other = acquireInBackground(createLimiter(1), acquired);
+        boolean acquiredOtherLimiter = acquired.await(5, TimeUnit.SECONDS);
+        other.join(5000);
+
+        assertTrue(acquiredOtherLimiter);
+    }
+
+    // Tests_SRS_HTTPSREQUESTLIMITER_21_005: [If the thread is interrupted while waiting, the function shall
+    // throw InterruptedIOException and keep the interrupted status of the thread.]
+    @Test
+    public void acquireThrowsIfInterrupted() throws Exception
+    {
+        final HttpsRequestLimiter limiter = createLimiter(1);
+        limiter.acquire();
+        final AtomicBoolean interruptedIOException = new AtomicBoolean(false);
+        final AtomicBoolean interruptedStatus = new AtomicBoolean(false);
+        Thread waiting = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    limiter.acquire();
+                }
+                catch (InterruptedIOException e)
+                {
+                    interruptedIOException.set(true);
+                    interruptedStatus.set(Thread.currentThread().isInterrupted());
+                }
+            }
+        };
+
+        waiting.start();
+        Thread.sleep(100);
+        waiting.interrupt();
+        waiting.join(5000);
+
+        assertTrue(interruptedIOException.get());
+        assertTrue(interruptedStatus.get());
+        assertEquals(1, ((AtomicInteger) Deencapsulation.getField(limiter, "requestsInProgress")).get());
+    }
+
+    // Tests_SRS_HTTPSREQUESTLIMITER_21_006: [If no request is running, the function shall do nothing.]
+    @Test
+    public void releaseIgnoresCallsWithoutRequestsRunning() throws Exception
+    {
+        HttpsRequestLimiter limiter = createLimiter(1);
+        limiter.release();
+        limiter.acquire();
+        limiter.release();
+        limiter.release();
+        limiter.acquire();
+        CountDownLatch acquired = new CountDownLatch(1);
+
+        Thread waiting = acquireInBackground(limiter, acquired);
+        boolean acquiredBeyondTheBound = acquired.await(100, TimeUnit.MILLISECONDS);
+        waiting.interrupt();
+        waiting.join(5000);
+
+        assertFalse(acquiredBeyondTheBound);
+    }
+}
@@ -5,9 +5,13 @@ package tests.unit.com.microsoft.azure.sdk.iot.device.transport.https;
 
 import static org.junit.Assert.assertThat;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
 
 import com.microsoft.azure.sdk.iot.device.transport.TransportUtils;
 import com.microsoft.azure.sdk.iot.device.transport.https.HttpsConnection;
+import com.microsoft.azure.sdk.iot.device.transport.https.HttpsEngine;
+import com.microsoft.azure.sdk.iot.device.transport.https.HttpsEngineConnection;
+import com.microsoft.azure.sdk.iot.device.transport.https.HttpsEngineProvider;
 import com.microsoft.azure.sdk.iot.device.transport.https.HttpsRequest;
 import mockit.*;
 import org.junit.Test;
@@ -15,12 +19,16 @@ import org.junit.Test;
 import com.microsoft.azure.sdk.iot.device.transport.https.HttpsMethod;
 import com.microsoft.azure.sdk.iot.device.transport.https.HttpsResponse;
 
+import javax.net.ssl.SSLSocketFactory;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.URL;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPOutputStream;
 
 /** Unit tests for HttpsRequest. */
 public class HttpsRequestTest
@@ -51,6 +59,44 @@ public class HttpsRequestTest
         };
     }
 
+    // Tests_SRS_HTTPSREQUEST_21_001: [The function shall open the connection with the HTTPS engine installed
+    // in the HttpsEngineProvider.]
+    @Test
+    public void constructorOpensConnectionWithTheInstalledEngine(
+            @Mocked final HttpsEngine mockEngine,
+            @Mocked final HttpsEngineConnection mockConn) throws IOException
+    {
+        final HttpsMethod httpsMethod = HttpsMethod.POST;
+        final byte[] body = { 1, 2, 3 };
+        new NonStrictExpectations()
+        {
+            {
+                mockEngine.openConnection(mockUrl, httpsMethod);
+                result = mockConn;
+            }
+        };
+
+        HttpsEngineProvider.setEngine(mockEngine);
+        try
+        {
+            new HttpsRequest(mockUrl, httpsMethod, body);
+        }
+        finally
+        {
+            HttpsEngineProvider.setEngine(null);
+        }
+
+        new Verifications()
+        {
+            {
+                mockEngine.openConnection(mockUrl, httpsMethod);
+                times = 1;
+                mockConn.writeOutput(body);
+                times = 1;
+            }
+        };
+    }
+
     // Tests_SRS_HTTPSREQUEST_11_002: [The function shall write the body to the connection.]
     @Test
     public void constructorWritesBodyToConnection(@Mocked final HttpsConnection mockConn) throws IOException
@@ -417,6 +463,40 @@ public class HttpsRequestTest
         assertThat(testBody, is(expectedBody));
     }
 
+    // Tests_SRS_HTTPSREQUEST_21_002: [If the response has a header field 'content-encoding' of gzip or
+    // deflate, the function shall return the decoded body.]
+    @Test
+    public void sendReturnsDecodedBody(@Mocked final HttpsConnection mockConn) throws IOException
+    {
+        final HttpsMethod httpsMethod = HttpsMethod.GET;
+        final byte[] requestBody = new byte[0];
+        final byte[] expectedBody = "{\"temperature\":21.5}".getBytes("UTF-8");
+        ByteArrayOutputStream encodedBody = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(encodedBody);
+        gzip.write(expectedBody);
+        gzip.close();
+        final byte[] responseBody = encodedBody.toByteArray();
+        final Map<String, List<String>> headerFields = new HashMap<>();
+        headerFields.put("Content-Encoding", Collections.singletonList("gzip"));
+        new NonStrictExpectations()
+        {
+            {
+                mockUrl.getProtocol();
+                result = "https";
+                mockConn.getResponseHeaders();
+                result = headerFields;
+                mockConn.readInput();
+                result = responseBody;
+            }
+        };
+
+        HttpsRequest request =
+                new HttpsRequest(mockUrl, httpsMethod, requestBody);
+        HttpsResponse response = request.send();
+
+        assertThat(response.getBody(), is(expectedBody));
+    }
+
     // Tests_SRS_HTTPSREQUEST_11_009: [The function shall return the HTTPS response received, including the status code, body, header fields, and error reason (if any).]
     // Tests_SRS_HTTPSREQUEST_11_012: [If an I/O exception occurs because of a bad response status code, the function shall attempt to flush or read the error stream so that the underlying HTTPS connection can be reused.]
     @Test
@@ -624,4 +704,32 @@ public class HttpsRequestTest
             }
         };
     }
+
+    // Tests_SRS_HTTPSREQUEST_21_003: [The function shall set the socket factory of the TLS connection for the request.]
+    @Test
+    public void setSSLSocketFactorySetsTheSocketFactory(@Mocked final HttpsConnection mockConn,
+            @Mocked final SSLSocketFactory mockSocketFactory) throws IOException
+    {
+        final HttpsMethod httpsMethod = HttpsMethod.GET;
+        final byte[] body = new byte[0];
+        new NonStrictExpectations()
+        {
+            {
+                mockUrl.getProtocol();
+                result = "https";
+            }
+        };
+
+        HttpsRequest request = new HttpsRequest(mockUrl, httpsMethod, body);
+        HttpsRequest result = request.setSSLSocketFactory(mockSocketFactory);
+
+        assertThat(result, is(sameInstance(request)));
+        new Verifications()
+        {
+            {
+                mockConn.setSSLSocketFactory(mockSocketFactory);
+                times = 1;
+            }
+        };
+    }
 }
@@ -6,7 +6,9 @@ package tests.unit.com.microsoft.azure.sdk.iot.device.transport.https;
 import static org.junit.Assert.assertThat;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
 
+import mockit.Deencapsulation;
 import org.junit.Test;
 
 import com.microsoft.azure.sdk.iot.device.transport.https.HttpsResponse;
@@ -58,6 +60,22 @@ public class HttpsResponseTest
         assertThat(testBody, is(not(expectedBody)));
     }
 
+    // Tests_SRS_HTTPSRESPONSE_21_001: [The constructor shall keep the body without copying it.]
+    @Test
+    public void constructorDoesNotCopyBody()
+    {
+        final int status = 200;
+        final byte[] body = { 1, 2, 3, 4 };
+        final Map<String, List<String>> headerFields = new HashMap<>();
+        byte[] errorReason = {};
+
+        HttpsResponse response =
+                new HttpsResponse(status, body, headerFields, errorReason);
+
+        byte[] testBody = Deencapsulation.getField(response, "body");
+        assertThat(testBody, is(sameInstance(body)));
+    }
+
     // Tests_SRS_HTTPSRESPONSE_11_001: [The constructor shall store the input arguments so that the getters can return them later.]
     // Tests_SRS_HTTPSRESPONSE_11_004: [The function shall return a comma-separated list of the values associated with the header field name.]
     @Test
@@ -5,6 +5,7 @@ package tests.unit.com.microsoft.azure.sdk.iot.device.transport.https;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.junit.Assert.assertThat;
 
 import com.microsoft.azure.sdk.iot.device.Message;
@@ -12,11 +13,14 @@ import com.microsoft.azure.sdk.iot.device.MessageProperty;
 import com.microsoft.azure.sdk.iot.device.transport.https.HttpsResponse;
 import com.microsoft.azure.sdk.iot.device.transport.https.HttpsSingleMessage;
 
+import mockit.Deencapsulation;
 import mockit.Mocked;
 import mockit.NonStrictExpectations;
 import mockit.Verifications;
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -24,8 +28,10 @@ import java.util.Map;
 public class HttpsSingleMessageTest
 {
     // Tests_SRS_HTTPSSINGLEMESSAGE_11_001: [The parsed HttpsSingleMessage shall have a copy of the original message body as its body.]
+    // Tests_SRS_HTTPSSINGLEMESSAGE_21_015: [The parsed HttpsSingleMessage shall keep the body array returned
+    // by the message, without copying it again.]
     @Test
-    public void parseHttpsMessageFromMessageCopiesBody(
+    public void parseHttpsMessageFromMessageKeepsCopyOfBody(
             @Mocked final Message mockMsg,
             @Mocked final MessageProperty mockProperty)
     {
@@ -36,10 +42,10 @@ public class HttpsSingleMessageTest
         new NonStrictExpectations()
         {
             {
-                mockMsg.getBytes();
+                mockMsg.getBodyArray();
                 result = body;
-                mockMsg.getProperties();
-                result = properties;
+                mockMsg.getPropertiesView();
+                result = Arrays.asList(properties);
                 mockProperty.getName();
                 result = propertyName;
                 mockProperty.getValue();
@@ -51,11 +57,7 @@ public class HttpsSingleMessageTest
                 HttpsSingleMessage.parseHttpsMessage(mockMsg);
         byte[] testBody = httpsMsg.getBody();
 
-        byte[] expectedBody = body;
-        assertThat(testBody, is(expectedBody));
-
-        expectedBody[0] = 0x34;
-        assertThat(testBody, is(not(expectedBody)));
+        assertThat(testBody, is(sameInstance(body)));
     }
 
     // Tests_SRS_HTTPSSINGLEMESSAGE_11_003: [The parsed HttpsSingleMessage shall add the prefix 'iothub-app-' to each of the message properties.]
@@ -71,10 +73,10 @@ public class HttpsSingleMessageTest
         new NonStrictExpectations()
         {
             {
-                mockMsg.getBytes();
+                mockMsg.getBodyArray();
                 result = body;
-                mockMsg.getProperties();
-                result = properties;
+                mockMsg.getPropertiesView();
+                result = Arrays.asList(properties);
                 mockProperty.getName();
                 result = propertyName;
                 mockProperty.getValue();
@@ -97,8 +99,10 @@ public class HttpsSingleMessageTest
     }
 
     // Tests_SRS_HTTPSSINGLEMESSAGE_11_004: [The parsed HttpsSingleMessage shall have a copy of the original response body as its body.]
+    // Tests_SRS_HTTPSSINGLEMESSAGE_21_017: [The parsed HttpsSingleMessage shall keep the copy returned by
+    // the response, without copying it again.]
     @Test
-    public void parseHttpsMessageFromResponseCopiesBody(
+    public void parseHttpsMessageFromResponseKeepsCopyOfBody(
             @Mocked final HttpsResponse mockResponse,
             @Mocked final MessageProperty mockProperty)
     {
@@ -121,11 +125,44 @@ public class HttpsSingleMessageTest
                 HttpsSingleMessage.parseHttpsMessage(mockResponse);
         byte[] testBody = httpsMsg.getBody();
 
-        byte[] expectedBody = body;
-        assertThat(testBody, is(expectedBody));
+        assertThat(testBody, is(sameInstance(body)));
+    }
+
+    // Tests_SRS_HTTPSSINGLEMESSAGE_21_021: [If the message contains a content type or encoding, the parsed
+    // HttpsSingleMessage shall add the properties 'iothub-contenttype' and 'iothub-contentencoding' with their values.]
+    @Test
+    public void parseHttpsMessageFromMessageWithContentType(
+            @Mocked final Message mockMsg,
+            @Mocked final MessageProperty mockProperty)
+    {
+        final byte[] body = { 0x61, 0x62, 0x63 };
+        final String contentType = "application/json";
+        final String contentEncoding = "utf-8";
+        new NonStrictExpectations()
+        {
+            {
+                mockMsg.getBodyArray();
+                result = body;
+                mockMsg.getPropertiesView();
+                result = Collections.emptyList();
+                mockMsg.getContentType();
+                result = contentType;
+                mockMsg.getContentEncoding();
+                result = contentEncoding;
+            }
+        };
+
+        HttpsSingleMessage.parseHttpsMessage(mockMsg);
 
-        expectedBody[0] = 0x34;
-        assertThat(testBody, is(not(expectedBody)));
+        new Verifications()
+        {
+            {
+                new MessageProperty("iothub-contenttype", contentType);
+                times = 1;
+                new MessageProperty("iothub-contentencoding", contentEncoding);
+                times = 1;
+            }
+        };
     }
 
     // Tests_SRS_HTTPSSINGLEMESSAGE_21_014: [If the message contains messageId, the parsed HttpsSingleMessage shall add the property 'iothub-messageid' with the messageId value.]
@@ -143,10 +180,10 @@ public class HttpsSingleMessageTest
         new NonStrictExpectations()
         {
             {
-                mockMsg.getBytes();
+                mockMsg.getBodyArray();
                 result = body;
-                mockMsg.getProperties();
-                result = properties;
+                mockMsg.getPropertiesView();
+                result = Arrays.asList(properties);
                 mockMsg.getMessageId();
                 result = messageidValue;
                 mockProperty.getName();
@@ -262,9 +299,10 @@ public class HttpsSingleMessageTest
         };
     }
 
-    // Tests_SRS_HTTPSSINGLEMESSAGE_11_007: [The function shall return an IoT Hub message with a copy of the message body as its body.]
+    // Tests_SRS_HTTPSSINGLEMESSAGE_21_018: [The function shall return an IoT Hub message that shares the
+    // message body, without copying it.]
     @Test
-    public void toMessageCopiesBody(@Mocked final HttpsResponse mockResponse,
+    public void toMessageSharesBody(@Mocked final HttpsResponse mockResponse,
             @Mocked final MessageProperty mockProperty,
             @Mocked final Message mockMsg)
     {
@@ -355,9 +393,9 @@ public class HttpsSingleMessageTest
         };
     }
 
-    // Tests_SRS_HTTPSSINGLEMESSAGE_11_009: [The function shall return a copy of the message body.]
+    // Tests_SRS_HTTPSSINGLEMESSAGE_21_019: [The function shall return the message body, without copying it.]
     @Test
-    public void getBodyReturnsCopyOfBody(
+    public void getBodyReturnsBody(
             @Mocked final Message mockMsg,
             @Mocked final MessageProperty mockProperty)
     {
@@ -368,10 +406,10 @@ public class HttpsSingleMessageTest
         new NonStrictExpectations()
         {
             {
-                mockMsg.getBytes();
+                mockMsg.getBodyArray();
                 result = body;
-                mockMsg.getProperties();
-                result = properties;
+                mockMsg.getPropertiesView();
+                result = Arrays.asList(properties);
                 mockProperty.getName();
                 result = propertyName;
                 mockProperty.getValue();
@@ -381,14 +419,9 @@ public class HttpsSingleMessageTest
 
         HttpsSingleMessage httpsMsg =
                 HttpsSingleMessage.parseHttpsMessage(mockMsg);
-        byte[] testBody = httpsMsg.getBody();
-
-        byte[] expectedBody = body;
-        assertThat(testBody, is(expectedBody));
 
-        testBody[0] = 0x34;
-        testBody = httpsMsg.getBody();
-        assertThat(testBody, is(expectedBody));
+        assertThat(httpsMsg.getBody(), is(sameInstance(httpsMsg.getBody())));
+        assertThat(httpsMsg.getBody(), is(body));
     }
 
     // Tests_SRS_HTTPSSINGLEMESSAGE_11_010: [The function shall return the message body as a string encoded using charset UTF-8.]
@@ -404,10 +437,10 @@ public class HttpsSingleMessageTest
         new NonStrictExpectations()
         {
             {
-                mockMsg.getBytes();
+                mockMsg.getBodyArray();
                 result = body;
-                mockMsg.getProperties();
-                result = properties;
+                mockMsg.getPropertiesView();
+                result = Arrays.asList(properties);
                 mockProperty.getName();
                 result = propertyName;
                 mockProperty.getValue();
@@ -437,10 +470,10 @@ public class HttpsSingleMessageTest
         new NonStrictExpectations()
         {
             {
-                mockMsg.getBytes();
+                mockMsg.getBodyArray();
                 result = body;
-                mockMsg.getProperties();
-                result = properties;
+                mockMsg.getPropertiesView();
+                result = Arrays.asList(properties);
                 mockProperty.getName();
                 result = propertyName;
                 mockProperty.getValue();
@@ -456,7 +489,8 @@ public class HttpsSingleMessageTest
         assertThat(testContentType, is(expectedContentType));
     }
 
-    // Tests_SRS_HTTPSSINGLEMESSAGE_11_013: [The function shall return a copy of the message properties.]
+    // Tests_SRS_HTTPSSINGLEMESSAGE_21_020: [The function shall return a copy of the array of message
+    // properties, sharing the immutable properties.]
     @Test
     public void getPropertiesReturnsCopyOfProperties(
             @Mocked final Message mockMsg,
@@ -470,10 +504,10 @@ public class HttpsSingleMessageTest
         new NonStrictExpectations()
         {
             {
-                mockMsg.getBytes();
+                mockMsg.getBodyArray();
                 result = body;
-                mockMsg.getProperties();
-                result = properties;
+                mockMsg.getPropertiesView();
+                result = Arrays.asList(properties);
                 mockProperty.getName();
                 result = propertyName;
                 result = httpsPropertyName;
@@ -487,14 +521,30 @@ public class HttpsSingleMessageTest
 
         final MessageProperty[] expectedProperties = properties;
         assertThat(testProperties.length, is(expectedProperties.length));
-        final String expectedPropertyName = httpsPropertyName;
-        final String expectedPropertyValue = propertyValue;
+        assertThat(testProperties, is(not(sameInstance(httpsMsg.getProperties()))));
+        assertThat(testProperties[0], is(sameInstance(httpsMsg.getProperties()[0])));
         new Verifications()
         {
             {
-                new MessageProperty(expectedPropertyName, expectedPropertyValue);
-                times = 2;
+                new MessageProperty(anyString, anyString);
+                times = 1;
             }
         };
     }
+
+    // Tests_SRS_HTTPSSINGLEMESSAGE_21_016: [The parsed HttpsSingleMessage shall reuse the prefixed name of
+    // the properties already parsed.]
+    @Test
+    public void appPropertyToHttpsAppPropertyReusesPrefixedName()
+    {
+        final String propertyName = "test-cached-property-name";
+
+        String testName = Deencapsulation.invoke(HttpsSingleMessage.class,
+                "appPropertyToHttpsAppProperty", propertyName);
+        String testNameAgain = Deencapsulation.invoke(HttpsSingleMessage.class,
+                "appPropertyToHttpsAppProperty", propertyName);
+
+        assertThat(testName, is("iothub-app-" + propertyName));
+        assertThat(testNameAgain, is(sameInstance(testName)));
+    }
 }
@@ -10,8 +10,10 @@ import com.microsoft.azure.sdk.iot.device.*;
 
 import com.microsoft.azure.sdk.iot.device.MessageCallback;
 import com.microsoft.azure.sdk.iot.device.transport.https.HttpsIotHubConnection;
+import com.microsoft.azure.sdk.iot.device.transport.https.HttpsBatchFillHistogram;
 import com.microsoft.azure.sdk.iot.device.transport.https.HttpsBatchMessage;
 import com.microsoft.azure.sdk.iot.device.transport.https.HttpsMessage;
+import com.microsoft.azure.sdk.iot.device.transport.https.HttpsPollingPolicy;
 import com.microsoft.azure.sdk.iot.device.transport.https.HttpsSingleMessage;
 import com.microsoft.azure.sdk.iot.device.transport.https.HttpsTransport;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubCallbackPacket;
@@ -189,7 +191,7 @@ public class HttpsTransportTest
             {
                 HttpsSingleMessage.parseHttpsMessage(mockMsg);
                 result = mockHttpsMsg;
-                new HttpsBatchMessage();
+                new HttpsBatchMessage(anyInt);
                 result = mockBatch;
             }
         };
@@ -229,7 +231,7 @@ public class HttpsTransportTest
             {
                 HttpsSingleMessage.parseHttpsMessage(mockMsg);
                 result = mockHttpsMsg;
-                new HttpsBatchMessage();
+                new HttpsBatchMessage(anyInt);
                 result = mockBatch;
                 mockConn.sendEvent((HttpsMessage) any);
                 result = new IOException();
@@ -267,6 +269,310 @@ public class HttpsTransportTest
         };
     }
 
+    // Tests_SRS_HTTPSTRANSPORT_21_037: [The function shall encode each message once, building the request
+    // while the messages are moved to the in-progress list.]
+    // Tests_SRS_HTTPSTRANSPORT_21_038: [If the request for the in-progress list was already built, the
+    // function shall return it without encoding the messages again.]
+    @Test
+    public void sendMessagesBuildsEachBatchOnce(
+            @Mocked final Message mockMsg,
+            @Mocked final HttpsSingleMessage mockHttpsMsg,
+            @Mocked final IotHubEventCallback mockCallback,
+            @Mocked final HttpsBatchMessage mockBatch,
+            @Mocked final IotHubStatusCode mockStatus)
+            throws URISyntaxException, IOException, SizeLimitExceededException
+    {
+        final Map<String, Object> context = new HashMap<>();
+        new NonStrictExpectations()
+        {
+            {
+                HttpsSingleMessage.parseHttpsMessage(mockMsg);
+                result = mockHttpsMsg;
+                new HttpsBatchMessage(anyInt);
+                result = mockBatch;
+                mockConn.sendEvent((HttpsMessage) any);
+                result = new IOException();
+                result = mockStatus;
+            }
+        };
+
+        HttpsTransport transport = new HttpsTransport(mockConfig);
+        transport.open();
+        transport.addMessage(mockMsg, mockCallback, context);
+        transport.addMessage(mockMsg, mockCallback, context);
+        try
+        {
+            transport.sendMessages();
+            throw new AssertionFailedError();
+        }
+        catch (IOException e)
+        {
+
+        }
+        transport.sendMessages();
+
+        final HttpsMessage expectedMsg = mockBatch;
+        new Verifications()
+        {
+            {
+                HttpsSingleMessage.parseHttpsMessage(mockMsg);
+                times = 2;
+                mockBatch.addMessage(mockHttpsMsg);
+                times = 2;
+                mockConn.sendEvent(expectedMsg);
+                times = 2;
+            }
+        };
+    }
+
+    // Tests_SRS_HTTPSTRANSPORT_21_037: [The function shall encode each message once, building the request
+    // while the messages are moved to the in-progress list.]
+    @Test
+    public void sendMessagesParsesASingleMessageOnce(
+            @Mocked final Message mockMsg,
+            @Mocked final HttpsSingleMessage mockHttpsMsg,
+            @Mocked final IotHubEventCallback mockCallback,
+            @Mocked final HttpsBatchMessage mockBatch,
+            @Mocked final IotHubStatusCode mockStatus)
+            throws URISyntaxException, IOException, SizeLimitExceededException
+    {
+        final Map<String, Object> context = new HashMap<>();
+        new NonStrictExpectations()
+        {
+            {
+                HttpsSingleMessage.parseHttpsMessage(mockMsg);
+                result = mockHttpsMsg;
+                new HttpsBatchMessage(anyInt);
+                result = mockBatch;
+            }
+        };
+
+        HttpsTransport transport = new HttpsTransport(mockConfig);
+        transport.open();
+        transport.addMessage(mockMsg, mockCallback, context);
+        transport.sendMessages();
+
+        final HttpsMessage expectedMsg = mockHttpsMsg;
+        new Verifications()
+        {
+            {
+                HttpsSingleMessage.parseHttpsMessage(mockMsg);
+                times = 1;
+                mockConn.sendEvent(expectedMsg);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_HTTPSTRANSPORT_21_042: [If a linger time is set and the waiting messages do not fill a batch,
+    // the function shall return without sending until the linger time has elapsed.]
+    @Test
+    public void sendMessagesLingersUntilTheBatchIsFull(
+            @Mocked final Message mockMsg,
+            @Mocked final HttpsSingleMessage mockHttpsMsg,
+            @Mocked final IotHubEventCallback mockCallback,
+            @Mocked final HttpsBatchMessage mockBatch,
+            @Mocked final IotHubStatusCode mockStatus)
+            throws URISyntaxException, IOException, SizeLimitExceededException
+    {
+        final Map<String, Object> context = new HashMap<>();
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getHttpsBatchLingerMillis();
+                result = 600000L;
+                mockConfig.getHttpsBatchMaxMessages();
+                result = 3;
+                mockMsg.getBytes();
+                result = new byte[10];
+                HttpsSingleMessage.parseHttpsMessage(mockMsg);
+                result = mockHttpsMsg;
+            }
+        };
+
+        HttpsTransport transport = new HttpsTransport(mockConfig);
+        transport.open();
+        transport.addMessage(mockMsg, mockCallback, context);
+        transport.addMessage(mockMsg, mockCallback, context);
+        transport.sendMessages();
+        transport.addMessage(mockMsg, mockCallback, context);
+        transport.sendMessages();
+
+        new Verifications()
+        {
+            {
+                mockBatch.addMessage(mockHttpsMsg);
+                times = 3;
+                mockConn.sendEvent((HttpsMessage) any);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_HTTPSTRANSPORT_21_042: [If a linger time is set and the waiting messages do not fill a batch,
+    // the function shall return without sending until the linger time has elapsed.]
+    @Test
+    public void sendMessagesSendsAPartialBatchAfterTheLingerTime(
+            @Mocked final Message mockMsg,
+            @Mocked final HttpsSingleMessage mockHttpsMsg,
+            @Mocked final IotHubEventCallback mockCallback,
+            @Mocked final IotHubStatusCode mockStatus)
+            throws URISyntaxException, IOException, InterruptedException
+    {
+        final Map<String, Object> context = new HashMap<>();
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getHttpsBatchLingerMillis();
+                result = 20L;
+                mockMsg.getBytes();
+                result = new byte[10];
+                HttpsSingleMessage.parseHttpsMessage(mockMsg);
+                result = mockHttpsMsg;
+            }
+        };
+
+        HttpsTransport transport = new HttpsTransport(mockConfig);
+        transport.open();
+        transport.addMessage(mockMsg, mockCallback, context);
+        transport.sendMessages();
+        Thread.sleep(50);
+        transport.sendMessages();
+
+        new Verifications()
+        {
+            {
+                mockConn.sendEvent(mockHttpsMsg);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_HTTPSTRANSPORT_21_043: [The function shall batch at most the maximum batch size and number of
+    // messages in the configuration.]
+    @Test
+    public void sendMessagesBatchesAtMostTheMaximumNumberOfMessages(
+            @Mocked final Message mockMsg,
+            @Mocked final HttpsSingleMessage mockHttpsMsg,
+            @Mocked final IotHubEventCallback mockCallback,
+            @Mocked final HttpsBatchMessage mockBatch,
+            @Mocked final IotHubStatusCode mockStatus)
+            throws URISyntaxException, IOException, SizeLimitExceededException
+    {
+        final Map<String, Object> context = new HashMap<>();
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getHttpsBatchMaxMessages();
+                result = 2;
+                HttpsSingleMessage.parseHttpsMessage(mockMsg);
+                result = mockHttpsMsg;
+                new HttpsBatchMessage(anyInt);
+                result = mockBatch;
+                mockBatch.numMessages();
+                result = 2;
+            }
+        };
+
+        HttpsTransport transport = new HttpsTransport(mockConfig);
+        transport.open();
+        transport.addMessage(mockMsg, mockCallback, context);
+        transport.addMessage(mockMsg, mockCallback, context);
+        transport.addMessage(mockMsg, mockCallback, context);
+        transport.sendMessages();
+        transport.sendMessages();
+
+        final HttpsMessage expectedBatch = mockBatch;
+        new Verifications()
+        {
+            {
+                mockBatch.addMessage(mockHttpsMsg);
+                times = 3;
+                mockConn.sendEvent(expectedBatch);
+                times = 1;
+                mockConn.sendEvent(mockHttpsMsg);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_HTTPSTRANSPORT_21_043: [The function shall batch at most the maximum batch size and number of
+    // messages in the configuration.]
+    @Test
+    public void sendMessagesBoundsTheBatchToTheMaximumSize(
+            @Mocked final Message mockMsg,
+            @Mocked final HttpsSingleMessage mockHttpsMsg,
+            @Mocked final IotHubEventCallback mockCallback,
+            @Mocked final HttpsBatchMessage mockBatch,
+            @Mocked final IotHubStatusCode mockStatus)
+            throws URISyntaxException, IOException
+    {
+        final Map<String, Object> context = new HashMap<>();
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getHttpsBatchMaxBytes();
+                result = 1000;
+                HttpsSingleMessage.parseHttpsMessage(mockMsg);
+                result = mockHttpsMsg;
+            }
+        };
+
+        HttpsTransport transport = new HttpsTransport(mockConfig);
+        transport.open();
+        transport.addMessage(mockMsg, mockCallback, context);
+        transport.sendMessages();
+
+        new Verifications()
+        {
+            {
+                new HttpsBatchMessage(1000);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_HTTPSTRANSPORT_21_044: [The function shall record the number of messages sent in the batch fill histogram.]
+    @Test
+    public void sendMessagesRecordsTheBatchFill(
+            @Mocked final Message mockMsg,
+            @Mocked final HttpsSingleMessage mockHttpsMsg,
+            @Mocked final IotHubEventCallback mockCallback,
+            @Mocked final HttpsBatchMessage mockBatch,
+            @Mocked final IotHubStatusCode mockStatus)
+            throws URISyntaxException, IOException
+    {
+        final Map<String, Object> context = new HashMap<>();
+        new NonStrictExpectations()
+        {
+            {
+                HttpsSingleMessage.parseHttpsMessage(mockMsg);
+                result = mockHttpsMsg;
+            }
+        };
+
+        HttpsTransport transport = new HttpsTransport(mockConfig);
+        transport.open();
+        transport.addMessage(mockMsg, mockCallback, context);
+        transport.addMessage(mockMsg, mockCallback, context);
+        transport.addMessage(mockMsg, mockCallback, context);
+        transport.sendMessages();
+
+        HttpsBatchFillHistogram histogram = transport.getBatchFillHistogram();
+        assertThat(histogram.getRequestCount(), is(1L));
+        assertThat(histogram.getMessageCount(), is(3L));
+        assertThat(histogram.getBucketCount(1), is(1L));
+    }
+
+    // Tests_SRS_HTTPSTRANSPORT_21_045: [The function shall return the batch fill histogram of the transport.]
+    @Test
+    public void getBatchFillHistogramReturnsAnEmptyHistogram()
+    {
+        HttpsTransport transport = new HttpsTransport(mockConfig);
+
+        assertThat(transport.getBatchFillHistogram().getRequestCount(), is(0L));
+    }
+
     // Tests_SRS_HTTPSTRANSPORT_11_013: [If no messages fit using the batch format, the function shall send a single message without the batch format.]
     @Test
     public void sendMessagesSendsSingleMesssageIfBatchFormatExceedsMaxSize(
@@ -283,7 +589,7 @@ public class HttpsTransportTest
             {
                 HttpsSingleMessage.parseHttpsMessage(mockMsg);
                 result = mockHttpsMsg;
-                new HttpsBatchMessage();
+                new HttpsBatchMessage(anyInt);
                 result = mockBatch;
                 mockBatch.addMessage(mockHttpsMsg);
                 result = new SizeLimitExceededException();
@@ -322,7 +628,7 @@ public class HttpsTransportTest
             {
                 HttpsSingleMessage.parseHttpsMessage(mockMsg);
                 result = mockHttpsMsg;
-                new HttpsBatchMessage();
+                new HttpsBatchMessage(anyInt);
                 result = mockBatch;
                 mockConn.sendEvent((HttpsMessage) any);
                 result = new IOException();
@@ -356,7 +662,7 @@ public class HttpsTransportTest
             {
                 HttpsSingleMessage.parseHttpsMessage(mockMsg);
                 result = mockHttpsMsg;
-                new HttpsBatchMessage();
+                new HttpsBatchMessage(anyInt);
                 result = mockBatch;
                 mockConn.sendEvent((HttpsMessage) any);
                 result = iotHubStatus;
@@ -424,7 +730,7 @@ public class HttpsTransportTest
             {
                 HttpsSingleMessage.parseHttpsMessage(mockMsg);
                 result = mockHttpsMsg;
-                new HttpsBatchMessage();
+                new HttpsBatchMessage(anyInt);
                 result = mockBatch;
                 mockCallbackPacket.getStatus();
                 result = iotHubStatus;
@@ -574,6 +880,165 @@ public class HttpsTransportTest
         transport.handleMessage();
     }
 
+    // Tests_SRS_HTTPSTRANSPORT_21_039: [The function shall only poll the IoT Hub when the polling policy allows it,
+    // backing off while idle up to the maximum polling interval in the configuration.]
+    @Test
+    public void handleMessageBacksOffAfterAnEmptyPoll(
+            @Mocked final MessageCallback mockCallback)
+            throws URISyntaxException, IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getMessageCallback();
+                result = mockCallback;
+                mockConfig.getHttpsMaxPollingIntervalMillis();
+                result = 600000L;
+                mockConn.receiveMessage();
+                result = null;
+            }
+        };
+
+        HttpsTransport transport = new HttpsTransport(mockConfig);
+        transport.open();
+        HttpsPollingPolicy policy = transport.getPollingPolicy();
+        policy.shouldPoll(System.currentTimeMillis() - 60000);
+        transport.handleMessage();
+        transport.handleMessage();
+
+        new Verifications()
+        {
+            {
+                mockConn.receiveMessage();
+                times = 1;
+            }
+        };
+        assertThat(policy.getEmptyPollCount(), is(1L));
+        assertThat(policy.getAvoidedPollCount(), is(1L));
+    }
+
+    // Tests_SRS_HTTPSTRANSPORT_21_039: [The function shall only poll the IoT Hub when the polling policy allows it,
+    // backing off while idle up to the maximum polling interval in the configuration.]
+    @Test
+    public void handleMessagePollsAgainAfterAMessage(
+            @Mocked final MessageCallback mockCallback,
+            @Mocked final Message mockMessage)
+            throws URISyntaxException, IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getMessageCallback();
+                result = mockCallback;
+                mockConfig.getHttpsMaxPollingIntervalMillis();
+                result = 600000L;
+                mockConn.receiveMessage();
+                result = mockMessage;
+            }
+        };
+
+        HttpsTransport transport = new HttpsTransport(mockConfig);
+        transport.open();
+        transport.getPollingPolicy().shouldPoll(System.currentTimeMillis() - 60000);
+        transport.handleMessage();
+        transport.handleMessage();
+
+        new Verifications()
+        {
+            {
+                mockConn.receiveMessage();
+                times = 2;
+            }
+        };
+    }
+
+    // Tests_SRS_HTTPSTRANSPORT_21_039: [The function shall only poll the IoT Hub when the polling policy allows it,
+    // backing off while idle up to the maximum polling interval in the configuration.]
+    @Test
+    public void handleMessagePollsEveryTimeWithoutMaximumPollingInterval(
+            @Mocked final MessageCallback mockCallback)
+            throws URISyntaxException, IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getMessageCallback();
+                result = mockCallback;
+                mockConn.receiveMessage();
+                result = null;
+            }
+        };
+
+        HttpsTransport transport = new HttpsTransport(mockConfig);
+        transport.open();
+        transport.getPollingPolicy().shouldPoll(System.currentTimeMillis() - 60000);
+        transport.handleMessage();
+        transport.handleMessage();
+
+        new Verifications()
+        {
+            {
+                mockConn.receiveMessage();
+                times = 2;
+            }
+        };
+    }
+
+    // Tests_SRS_HTTPSTRANSPORT_21_040: [The function shall reset the polling back-off after sending the events,
+    // as the device is likely to receive a message soon.]
+    @Test
+    public void sendMessagesResetsThePollingBackOff(
+            @Mocked final Message mockMsg,
+            @Mocked final HttpsSingleMessage mockHttpsMsg,
+            @Mocked final IotHubEventCallback mockCallback,
+            @Mocked final MessageCallback mockMessageCallback,
+            @Mocked final IotHubStatusCode mockStatus)
+            throws URISyntaxException, IOException
+    {
+        final Map<String, Object> context = new HashMap<>();
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getMessageCallback();
+                result = mockMessageCallback;
+                mockConfig.getHttpsMaxPollingIntervalMillis();
+                result = 600000L;
+                mockConn.receiveMessage();
+                result = null;
+                HttpsSingleMessage.parseHttpsMessage(mockMsg);
+                result = mockHttpsMsg;
+            }
+        };
+
+        HttpsTransport transport = new HttpsTransport(mockConfig);
+        transport.open();
+        transport.getPollingPolicy().shouldPoll(System.currentTimeMillis() - 60000);
+        transport.handleMessage();
+        transport.addMessage(mockMsg, mockCallback, context);
+        transport.sendMessages();
+        transport.handleMessage();
+
+        new Verifications()
+        {
+            {
+                mockConn.receiveMessage();
+                times = 2;
+            }
+        };
+    }
+
+    // Tests_SRS_HTTPSTRANSPORT_21_041: [The function shall return the polling policy of the transport.]
+    @Test
+    public void getPollingPolicyReturnsThePolicy()
+    {
+        HttpsTransport transport = new HttpsTransport(mockConfig);
+
+        HttpsPollingPolicy policy = transport.getPollingPolicy();
+
+        assertThat(policy.getMaxIntervalMillis(), is(0L));
+        assertThat(policy.getPollCount(), is(0L));
+    }
+
     // Tests_SRS_HTTPSTRANSPORT_11_033: [If the transport is closed, the function shall throw an IllegalStateException.]
     @Test(expected = IllegalStateException.class)
     public void handleMessageFailsIfTransportNeverOpened() throws IOException
@@ -627,7 +1092,7 @@ public class HttpsTransportTest
             {
                 HttpsSingleMessage.parseHttpsMessage(mockMsg);
                 result = mockHttpsMsg;
-                new HttpsBatchMessage();
+                new HttpsBatchMessage(anyInt);
                 result = mockBatch;
             }
         };
@@ -660,7 +1125,7 @@ public class HttpsTransportTest
             {
                 HttpsSingleMessage.parseHttpsMessage(mockMsg);
                 result = mockHttpsMsg;
-                new HttpsBatchMessage();
+                new HttpsBatchMessage(anyInt);
                 result = mockBatch;
             }
         };
@@ -677,4 +1142,14 @@ public class HttpsTransportTest
         final boolean expectedIsEmpty = true;
         assertThat(testIsEmpty, is(expectedIsEmpty));
     }
+
+    // Tests_SRS_HTTPSTRANSPORT_21_036: [The function shall return false.]
+    @Test
+    public void isBackPressuredReturnsFalse() throws IOException
+    {
+        HttpsTransport transport = new HttpsTransport(mockConfig);
+        transport.open();
+
+        assertThat(transport.isBackPressured(), is(false));
+    }
 }
@@ -0,0 +1,45 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport.https;
+
+import com.microsoft.azure.sdk.iot.device.transport.https.HttpsConnection;
+import com.microsoft.azure.sdk.iot.device.transport.https.HttpsMethod;
+import com.microsoft.azure.sdk.iot.device.transport.https.HttpsUrlConnectionEngine;
+import mockit.Mocked;
+import mockit.Verifications;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URL;
+
+import static org.junit.Assert.assertFalse;
+
+/** Unit tests for HttpsUrlConnectionEngine. */
+public class HttpsUrlConnectionEngineTest
+{
+    // Tests_SRS_HTTPSURLCONNECTIONENGINE_21_001: [The function shall return a new HttpsConnection to the
+    // given URL, using the given method.]
+    @Test
+    public void openConnectionOpensAnHttpsConnection(
+            @Mocked final HttpsConnection mockConn,
+            @Mocked final URL mockUrl) throws IOException
+    {
+        new HttpsUrlConnectionEngine().openConnection(mockUrl, HttpsMethod.POST);
+
+        new Verifications()
+        {
+            {
+                new HttpsConnection(mockUrl, HttpsMethod.POST);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_HTTPSURLCONNECTIONENGINE_21_002: [The function shall return false.]
+    @Test
+    public void isMultiplexedReturnsFalse()
+    {
+        assertFalse(new HttpsUrlConnectionEngine().isMultiplexed());
+    }
+}
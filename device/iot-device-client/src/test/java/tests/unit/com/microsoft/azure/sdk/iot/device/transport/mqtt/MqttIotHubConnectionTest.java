@@ -20,8 +20,10 @@ import mockit.NonStrictExpectations;
 import mockit.Verifications;
 import org.junit.Test;
 
+import javax.net.ssl.SSLSocketFactory;
 import java.io.IOException;
 import java.net.URLEncoder;
+import java.nio.ByteBuffer;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
@@ -276,6 +278,72 @@ public class MqttIotHubConnectionTest
         };
     }
 
+    // Tests_SRS_MQTTIOTHUBCONNECTION_21_001: [The constructor shall create a SAS token cache for the
+    // configuration, which the connection takes its password from.]
+    // Tests_SRS_MQTTIOTHUBCONNECTION_21_002: [The function shall use the cached SAS token as the
+    // password, renewing it if it is due for renewal.]
+    @Test
+    public void openReusesSasTokenOnReconnect() throws IOException
+    {
+        baseExpectations();
+        openExpectations();
+
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getTokenValidSecs();
+                result = 3600L;
+                mockConfig.getSasTokenRenewalFraction();
+                result = 0.75;
+            }
+        };
+
+        MqttIotHubConnection connection = new MqttIotHubConnection(mockConfig);
+        connection.open();
+        connection.close();
+        connection.open();
+
+        new Verifications()
+        {
+            {
+                new IotHubSasToken(mockConfig, anyLong);
+                times = 1;
+                new MqttMessaging(sslPrefix + iotHubHostName + sslPortSuffix, deviceId, anyString, anyString);
+                times = 2;
+            }
+        };
+    }
+
+    // Tests_SRS_MQTTIOTHUBCONNECTION_21_003: [The function shall connect with the socket factory of the
+    // configuration, shared by the clients using the same TLS context.]
+    @Test
+    public void openUsesTheSocketFactoryOfTheConfig(@Mocked final SSLSocketFactory mockSocketFactory) throws IOException
+    {
+        baseExpectations();
+        openExpectations();
+
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getSslSocketFactory();
+                result = mockSocketFactory;
+            }
+        };
+
+        MqttIotHubConnection connection = new MqttIotHubConnection(mockConfig);
+        connection.open();
+
+        new Verifications()
+        {
+            {
+                mockDeviceMessaging.setSocketFactory(mockSocketFactory);
+                times = 1;
+                mockDeviceMessaging.start();
+                times = 1;
+            }
+        };
+    }
+
     // Tests_SRS_MQTTIOTHUBCONNECTION_15_005: [If an MQTT connection is unable to be established for any reason,
     // the function shall throw an IOException.]
     @Test(expected = IOException.class)
@@ -510,8 +578,10 @@ public class MqttIotHubConnectionTest
         new NonStrictExpectations()
         {
             {
-                mockMsg.getBytes();
-                result = msgBody;
+                mockMsg.getBodyBuffer();
+                result = ByteBuffer.wrap(msgBody);
+                mockMsg.getBodyLength();
+                result = msgBody.length;
                 mockDeviceMessaging.send(mockMsg);
             }
         };
@@ -554,12 +624,11 @@ public class MqttIotHubConnectionTest
         baseExpectations();
         openExpectations();
 
-        final byte[] msgBody = null;
         new NonStrictExpectations()
         {
             {
-                mockMsg.getBytes();
-                result = msgBody;
+                mockMsg.getBodyBuffer();
+                result = null;
             }
         };
 
@@ -580,8 +649,10 @@ public class MqttIotHubConnectionTest
         new NonStrictExpectations()
         {
             {
-                mockMsg.getBytes();
-                result = new byte[0];
+                mockMsg.getBodyBuffer();
+                result = ByteBuffer.wrap(new byte[0]);
+                mockMsg.getBodyLength();
+                result = 0;
             }
         };
 
@@ -603,8 +674,10 @@ public class MqttIotHubConnectionTest
         new NonStrictExpectations()
         {
             {
-                mockMsg.getBytes();
-                result = msgBody;
+                mockMsg.getBodyBuffer();
+                result = ByteBuffer.wrap(msgBody);
+                mockMsg.getBodyLength();
+                result = msgBody.length;
             }
         };
 
@@ -623,8 +696,10 @@ public class MqttIotHubConnectionTest
         new NonStrictExpectations()
         {
             {
-                mockMsg.getBytes();
-                result = msgBody;
+                mockMsg.getBodyBuffer();
+                result = ByteBuffer.wrap(msgBody);
+                mockMsg.getBodyLength();
+                result = msgBody.length;
             }
         };
 
@@ -645,8 +720,10 @@ public class MqttIotHubConnectionTest
         new NonStrictExpectations()
         {
             {
-                mockMsg.getBytes();
-                result = msgBody;
+                mockMsg.getBodyBuffer();
+                result = ByteBuffer.wrap(msgBody);
+                mockMsg.getBodyLength();
+                result = msgBody.length;
                 mockDeviceMessaging.send(mockMsg);
                 result = new IOException(anyString);
             }
@@ -670,8 +747,10 @@ public class MqttIotHubConnectionTest
         new NonStrictExpectations()
         {
             {
-                mockDeviceTwinMsg.getBytes();
-                result = msgBody;
+                mockDeviceTwinMsg.getBodyBuffer();
+                result = ByteBuffer.wrap(msgBody);
+                mockDeviceTwinMsg.getBodyLength();
+                result = msgBody.length;
                 mockDeviceTwinMsg.getMessageType();
                 result = MessageType.DeviceTwin;
 
@@ -709,8 +788,10 @@ public class MqttIotHubConnectionTest
         new NonStrictExpectations()
         {
             {
-                mockDeviceMethodMsg.getBytes();
-                result = msgBody;
+                mockDeviceMethodMsg.getBodyBuffer();
+                result = ByteBuffer.wrap(msgBody);
+                mockDeviceMethodMsg.getBodyLength();
+                result = msgBody.length;
                 mockDeviceMethodMsg.getMessageType();
                 result = MessageType.DeviceMethods;
 
@@ -14,7 +14,10 @@ import mockit.*;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.security.InvalidParameterException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.Semaphore;
 
@@ -415,7 +418,9 @@ public class MqttMessagingTest {
         new NonStrictExpectations()
         {
             {
-                mockMessage.getBytes();
+                mockMessage.getBodyBuffer();
+                result = ByteBuffer.wrap(messageBody);
+                mockMessage.getBodyArray();
                 result = messageBody;
                 Deencapsulation.invoke(mockMqtt, "publish", anyString, messageBody);
             }
@@ -427,8 +432,10 @@ public class MqttMessagingTest {
         new Verifications()
         {
             {
-                mockMessage.getBytes();
-                times = 2;
+                mockMessage.getBodyBuffer();
+                times = 1;
+                mockMessage.getBodyArray();
+                times = 1;
                 Deencapsulation.invoke(mockMqtt, "publish", anyString, messageBody);
                 times = 1;
 
@@ -444,7 +451,9 @@ public class MqttMessagingTest {
         new NonStrictExpectations()
         {
             {
-                mockMessage.getBytes();
+                mockMessage.getBodyBuffer();
+                result = ByteBuffer.wrap(messageBody);
+                mockMessage.getBodyArray();
                 result = messageBody;
                 Deencapsulation.invoke(mockMqtt, "publish", anyString, messageBody);
                 result = mockIOException;
@@ -458,7 +467,7 @@ public class MqttMessagingTest {
         new Verifications()
         {
             {
-                mockMessage.getBytes();
+                mockMessage.getBodyBuffer();
                 times = 1;
                 Deencapsulation.invoke(mockMqtt, "publish", mockParseTopic,  new byte[1]);
                 times = 1;
@@ -481,7 +490,7 @@ public class MqttMessagingTest {
         new Verifications()
         {
             {
-                mockMessage.getBytes();
+                mockMessage.getBodyBuffer();
                 times = 0;
                 Deencapsulation.invoke(mockMqtt, "publish", mockParseTopic,  new byte[1]);
                 times = 0;
@@ -507,10 +516,12 @@ public class MqttMessagingTest {
         new NonStrictExpectations()
         {
             {
-                mockMessage.getBytes();
+                mockMessage.getBodyBuffer();
+                result = ByteBuffer.wrap(messageBody);
+                mockMessage.getBodyArray();
                 result = messageBody;
-                mockMessage.getProperties();
-                result = messageProperties;
+                mockMessage.getPropertiesView();
+                result = Arrays.asList(messageProperties);
                 Deencapsulation.invoke(mockMqtt, "publish", anyString, messageBody);
             }
         };
@@ -523,9 +534,11 @@ public class MqttMessagingTest {
         new Verifications()
         {
             {
-                mockMessage.getBytes();
-                times = 2;
-                mockMessage.getProperties();
+                mockMessage.getBodyBuffer();
+                times = 1;
+                mockMessage.getBodyArray();
+                times = 1;
+                mockMessage.getPropertiesView();
                 Deencapsulation.invoke(mockMqtt, "publish", publishTopicWithProperties,  messageBody);
                 times = 1;
             }
@@ -549,10 +562,12 @@ public class MqttMessagingTest {
         new NonStrictExpectations()
         {
             {
-                mockMessage.getBytes();
+                mockMessage.getBodyBuffer();
+                result = ByteBuffer.wrap(messageBody);
+                mockMessage.getBodyArray();
                 result = messageBody;
-                mockMessage.getProperties();
-                result = messageProperties;
+                mockMessage.getPropertiesView();
+                result = Arrays.asList(messageProperties);
                 mockMessage.getMessageId();
                 result = messageidValue;
                 Deencapsulation.invoke(mockMqtt, "publish", anyString, messageBody);
@@ -567,9 +582,11 @@ public class MqttMessagingTest {
         new Verifications()
         {
             {
-                mockMessage.getBytes();
-                times = 2;
-                mockMessage.getProperties();
+                mockMessage.getBodyBuffer();
+                times = 1;
+                mockMessage.getBodyArray();
+                times = 1;
+                mockMessage.getPropertiesView();
                 Deencapsulation.invoke(mockMqtt, "publish", publishTopicWithProperties, messageBody);
                 times = 1;
                 mockMessage.getMessageId();
@@ -578,4 +595,44 @@ public class MqttMessagingTest {
         };
     }
 
+    /*
+     **Tests_SRS_MqttMessaging_21_028: [**send method shall append the content type and encoding of the message, if set, to publishTopic before publishing using the key names `$.ct` and `$.ce`, with URL encoded values.**]**
+     */
+    @Test
+    public void sendShallMessageWithContentTypeToLowerLayer(@Mocked final Mqtt mockMqtt) throws IOException
+    {
+        final byte[] messageBody = {0x61, 0x62, 0x63};
+        new NonStrictExpectations()
+        {
+            {
+                mockMessage.getBodyBuffer();
+                result = ByteBuffer.wrap(messageBody);
+                mockMessage.getBodyArray();
+                result = messageBody;
+                mockMessage.getPropertiesView();
+                result = Collections.emptyList();
+                mockMessage.getMessageId();
+                result = "test-message-id";
+                mockMessage.getContentType();
+                result = "application/json";
+                mockMessage.getContentEncoding();
+                result = "utf-8";
+                Deencapsulation.invoke(mockMqtt, "publish", anyString, messageBody);
+            }
+        };
+
+        MqttMessaging testMqttMessaging = new MqttMessaging(serverUri, clientId, userName, password);
+        testMqttMessaging.send(mockMessage);
+        final String publishTopicWithContentType = String.format(
+                "devices/%s/messages/events/$.ct=application%%2Fjson&$.ce=utf-8", clientId);
+
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(mockMqtt, "publish", publishTopicWithContentType, messageBody);
+                times = 1;
+            }
+        };
+    }
+
 }
@@ -12,6 +12,7 @@ import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
 
 import org.junit.Test;
 
+import javax.net.ssl.SSLSocketFactory;
 import java.io.IOException;
 import java.security.InvalidParameterException;
 import java.util.concurrent.ConcurrentSkipListMap;
@@ -558,6 +559,59 @@ public class MqttTest {
 
     }
 
+    /*
+    **Tests_SRS_Mqtt_21_002: [**The function shall set the socket factory on the connection options used to connect.**]**
+     */
+    @Test
+    public void setSocketFactorySetsTheConnectionOptions(@Mocked final SSLSocketFactory mockSocketFactory) throws IOException, MqttException
+    {
+        //arrange
+        Mqtt mockMqtt = null;
+        try
+        {
+            baseConstructorExpectations(true);
+            mockMqtt = instantiateMqtt(true);
+
+            //act
+            mockMqtt.setSocketFactory(mockSocketFactory);
+
+            //assert
+            new Verifications()
+            {
+                {
+                    mockMqttConnectionOptions.setSocketFactory(mockSocketFactory);
+                    times = 1;
+                }
+            };
+        }
+        finally
+        {
+            mockMqtt.restartBaseMqtt();
+        }
+    }
+
+    /*
+    **Tests_SRS_Mqtt_21_001: [**If the inner class MqttConnectionInfo has not been instantiated then the function shall throw IOException.**]**
+     */
+    @Test(expected = IOException.class)
+    public void setSocketFactoryFailsIfNoConfigIsProvided(@Mocked final SSLSocketFactory mockSocketFactory) throws IOException, MqttException
+    {
+        //arrange
+        Mqtt mockMqtt = null;
+        try
+        {
+            baseConstructorExpectations(false);
+            mockMqtt = instantiateMqtt(false);
+
+            //act
+            mockMqtt.setSocketFactory(mockSocketFactory);
+        }
+        finally
+        {
+            mockMqtt.restartBaseMqtt();
+        }
+    }
+
     /*
     **Tests_SRS_Mqtt_25_007: [**If an MQTT connection is unable to be established for any reason, the function shall throw an IOException.**]**
      */
@@ -509,6 +509,16 @@ public class MqttTransportTest {
         assertThat(testIsEmpty, is(expectedIsEmpty));
     }
 
+    // Tests_SRS_MQTTTRANSPORT_21_020: [The function shall return false.]
+    @Test
+    public void isBackPressuredReturnsFalse() throws IOException
+    {
+        MqttTransport transport = new MqttTransport(mockConfig);
+        transport.open();
+
+        assertThat(transport.isBackPressured(), is(false));
+    }
+
     // Tests_SRS_MQTTTRANSPORT_15_016: [The function shall attempt to consume a message from the IoT Hub.]
     @Test
     public void handleMessageAttemptsToReceiveMessage(@Mocked final MessageCallback mockCallback) throws IOException
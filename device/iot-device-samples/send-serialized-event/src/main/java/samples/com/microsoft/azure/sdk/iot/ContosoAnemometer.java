@@ -3,8 +3,6 @@
 
 package samples.com.microsoft.azure.sdk.iot;
 
-import com.google.gson.Gson;
-
 public class ContosoAnemometer {
     public String deviceId;
     public double windSpeed;
@@ -23,10 +21,4 @@ public class ContosoAnemometer {
         System.out.printf("Setting Air Resistance Position to %d.\r\n", position);
         return true;
     }
-
-    public String serialize() {
-        Gson gson = new Gson();
-
-        return gson.toJson(this);
-    }
 }
@@ -8,6 +8,7 @@ import com.microsoft.azure.sdk.iot.device.IotHubClientProtocol;
 import com.microsoft.azure.sdk.iot.device.Message;
 import com.microsoft.azure.sdk.iot.device.IotHubStatusCode;
 import com.microsoft.azure.sdk.iot.device.IotHubEventCallback;
+import com.microsoft.azure.sdk.iot.device.codec.JsonMessageCodec;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
@@ -138,9 +139,7 @@ public class SendSerializedEvent {
             data.deviceId = arguments.deviceId;
             data.windSpeed = arguments.windSpeed;
 
-            String msgStr = data.serialize();
-
-            Message msg = new Message(msgStr);
+            Message msg = new JsonMessageCodec().toMessage(data);
             msg.setExpiryTime(5000);
 
             Object lockobj = new Object();
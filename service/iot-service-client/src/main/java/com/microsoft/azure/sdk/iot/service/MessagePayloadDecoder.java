@@ -0,0 +1,361 @@
+/*
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license. See LICENSE file in the project root for full license information.
+ */
+
+package com.microsoft.azure.sdk.iot.service;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonPrimitive;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Decodes the bodies of the device to cloud messages by their content type,
+ * as the device client codecs encode them.
+ * <p>
+ *     The device client sends the content type and encoding of the messages
+ *     encoded by its codecs as system properties, and the Event Hub-compatible
+ *     endpoint exposes them as the "content-type" and "content-encoding"
+ *     properties of the events. The values are mapped as {@link Gson} maps them
+ *     from JSON, for both content types.
+ * </p>
+ */
+public final class MessagePayloadDecoder
+{
+    /** The content type of the JSON bodies. */
+    public static final String CONTENT_TYPE_JSON = "application/json";
+
+    /** The content type of the CBOR bodies. */
+    public static final String CONTENT_TYPE_CBOR = "application/cbor";
+
+    /** The maximum nesting of arrays and maps the CBOR decoder accepts. */
+    private static final int MAX_DEPTH = 256;
+
+    private static final int MAJOR_UNSIGNED = 0;
+    private static final int MAJOR_NEGATIVE = 1;
+    private static final int MAJOR_BYTES = 2;
+    private static final int MAJOR_TEXT = 3;
+    private static final int MAJOR_ARRAY = 4;
+    private static final int MAJOR_MAP = 5;
+    private static final int MAJOR_TAG = 6;
+    private static final int MAJOR_SIMPLE = 7;
+
+    private static final int SIMPLE_FALSE = 0xF4;
+    private static final int SIMPLE_TRUE = 0xF5;
+    private static final int SIMPLE_NULL = 0xF6;
+    private static final int FLOAT_32 = 0xFA;
+    private static final int FLOAT_64 = 0xFB;
+    private static final int BREAK = 0xFF;
+    private static final int INDEFINITE = 31;
+
+    private static final Gson gson = new Gson();
+
+    private MessagePayloadDecoder()
+    {
+    }
+
+    /**
+     * Decodes the body of a message.
+     *
+     * @param payload the body of the message.
+     * @param contentType the content type of the message, i.e. "application/json".
+     *                    Parameters, like the charset, are ignored.
+     * @param contentEncoding the content encoding of a JSON body, or {@code null} for UTF-8.
+     * @param type the class of the value.
+     * @param <T> the type of the value.
+     * @return the decoded value.
+     * @throws IOException if the payload is not a valid encoding of a value.
+     * @throws IllegalArgumentException if the payload, the content type or the type is {@code null},
+     *                                  or the content type or encoding is not supported.
+     */
+    public static <T> T decode(byte[] payload, String contentType, String contentEncoding, Class<T> type) throws IOException
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_MESSAGEPAYLOADDECODER_21_001: [If the payload, the content type or the type is null, the function shall throw IllegalArgumentException.]
+        if ((payload == null) || (contentType == null) || (type == null))
+        {
+            throw new IllegalArgumentException("payload, contentType and type cannot be null.");
+        }
+
+        String mediaType = contentType.split(";", 2)[0].trim().toLowerCase(Locale.ROOT);
+        JsonElement element;
+        if (CONTENT_TYPE_JSON.equals(mediaType))
+        {
+            // Codes_SRS_SERVICE_SDK_JAVA_MESSAGEPAYLOADDECODER_21_002: [If the content type is "application/json", the function shall decode the payload as a JSON document in the content encoding, or in UTF-8 if the content encoding is null.]
+            Charset charset;
+            try
+            {
+                charset = (contentEncoding == null) ? StandardCharsets.UTF_8 : Charset.forName(contentEncoding);
+            }
+            catch (IllegalArgumentException e)
+            {
+                throw new IllegalArgumentException("Unsupported content encoding " + contentEncoding, e);
+            }
+            try
+            {
+                return gson.fromJson(new String(payload, charset), type);
+            }
+            catch (JsonParseException e)
+            {
+                // Codes_SRS_SERVICE_SDK_JAVA_MESSAGEPAYLOADDECODER_21_004: [If the payload is not a valid encoding of the type, the function shall throw IOException.]
+                throw new IOException("The payload is not a valid JSON document.", e);
+            }
+        }
+        else if (CONTENT_TYPE_CBOR.equals(mediaType))
+        {
+            // Codes_SRS_SERVICE_SDK_JAVA_MESSAGEPAYLOADDECODER_21_003: [If the content type is "application/cbor", the function shall decode the payload as a single CBOR item.]
+            Reader reader = new Reader(payload);
+            element = reader.readElement(0);
+            if (reader.position != payload.length)
+            {
+                throw new IOException("The payload has bytes after its CBOR item.");
+            }
+        }
+        else
+        {
+            // Codes_SRS_SERVICE_SDK_JAVA_MESSAGEPAYLOADDECODER_21_005: [If the content type is not supported, the function shall throw IllegalArgumentException.]
+            throw new IllegalArgumentException("Unsupported content type " + contentType);
+        }
+
+        try
+        {
+            return gson.fromJson(element, type);
+        }
+        catch (JsonParseException e)
+        {
+            // Codes_SRS_SERVICE_SDK_JAVA_MESSAGEPAYLOADDECODER_21_004: [If the payload is not a valid encoding of the type, the function shall throw IOException.]
+            throw new IOException("The CBOR item does not match the type.", e);
+        }
+    }
+
+    /** Reads a CBOR item into its JSON model. */
+    private static final class Reader
+    {
+        private final byte[] body;
+        private int position;
+
+        private Reader(byte[] body)
+        {
+            this.body = body;
+        }
+
+        private JsonElement readElement(int depth) throws IOException
+        {
+            if (depth > MAX_DEPTH)
+            {
+                throw new IOException("The CBOR item is nested too deep.");
+            }
+
+            int initialByte = this.readByte();
+            int majorType = initialByte >>> 5;
+            int info = initialByte & 0x1F;
+            switch (majorType)
+            {
+                case MAJOR_UNSIGNED:
+                    return unsignedNumber(this.readArgument(info), false);
+                case MAJOR_NEGATIVE:
+                    return unsignedNumber(this.readArgument(info), true);
+                case MAJOR_BYTES:
+                    JsonArray bytes = new JsonArray();
+                    for (byte value : this.readString(MAJOR_BYTES, info))
+                    {
+                        bytes.add(new JsonPrimitive(value));
+                    }
+                    return bytes;
+                case MAJOR_TEXT:
+                    return new JsonPrimitive(new String(this.readString(MAJOR_TEXT, info),
+                            StandardCharsets.UTF_8));
+                case MAJOR_ARRAY:
+                    JsonArray array = new JsonArray();
+                    long count = this.readCount(info);
+                    for (long i = 0; (count < 0) ? !this.readBreak() : (i < count); i++)
+                    {
+                        array.add(this.readElement(depth + 1));
+                    }
+                    return array;
+                case MAJOR_MAP:
+                    JsonObject object = new JsonObject();
+                    long pairs = this.readCount(info);
+                    for (long i = 0; (pairs < 0) ? !this.readBreak() : (i < pairs); i++)
+                    {
+                        JsonElement key = this.readElement(depth + 1);
+                        if (!key.isJsonPrimitive())
+                        {
+                            throw new IOException("The CBOR map has a key that is not a string or a number.");
+                        }
+                        object.add(key.getAsString(), this.readElement(depth + 1));
+                    }
+                    return object;
+                case MAJOR_TAG:
+                    this.readArgument(info);
+                    return this.readElement(depth + 1);
+                default:
+                    return this.readSimple(initialByte, info);
+            }
+        }
+
+        private JsonElement readSimple(int initialByte, int info) throws IOException
+        {
+            switch (initialByte)
+            {
+                case SIMPLE_FALSE:
+                    return new JsonPrimitive(false);
+                case SIMPLE_TRUE:
+                    return new JsonPrimitive(true);
+                case SIMPLE_NULL:
+                case SIMPLE_NULL + 1:
+                    return JsonNull.INSTANCE;
+                case (MAJOR_SIMPLE << 5) | 25:
+                    return new JsonPrimitive(halfToFloat((int) this.readBigEndian(2)));
+                case FLOAT_32:
+                    return new JsonPrimitive(Float.intBitsToFloat((int) this.readBigEndian(4)));
+                case FLOAT_64:
+                    return new JsonPrimitive(Double.longBitsToDouble(this.readBigEndian(8)));
+                default:
+                    throw new IOException("Unsupported CBOR simple value " + info + ".");
+            }
+        }
+
+        private static JsonPrimitive unsignedNumber(long argument, boolean negative)
+        {
+            if (argument >= 0)
+            {
+                return new JsonPrimitive(negative ? (-1L - argument) : argument);
+            }
+            // an argument of 64 bits, out of the range of a long.
+            BigInteger value = BigInteger.valueOf(argument & Long.MAX_VALUE).setBit(Long.SIZE - 1);
+            return new JsonPrimitive(negative ? BigInteger.ONE.negate().subtract(value) : value);
+        }
+
+        private static float halfToFloat(int half)
+        {
+            int exponent = (half >>> 10) & 0x1F;
+            int mantissa = half & 0x3FF;
+            float value;
+            if (exponent == 0)
+            {
+                value = mantissa * (float) Math.pow(2, -24);
+            }
+            else if (exponent == 0x1F)
+            {
+                value = (mantissa == 0) ? Float.POSITIVE_INFINITY : Float.NaN;
+            }
+            else
+            {
+                value = (mantissa + 1024) * (float) Math.pow(2, exponent - 25);
+            }
+            return ((half & 0x8000) != 0) ? -value : value;
+        }
+
+        /** Reads a byte or text string, joining the chunks of an indefinite length one. */
+        private byte[] readString(int majorType, int info) throws IOException
+        {
+            if (info != INDEFINITE)
+            {
+                long length = this.readArgument(info);
+                if ((length < 0) || (length > this.body.length - this.position))
+                {
+                    throw new IOException("The CBOR string is longer than the body.");
+                }
+                byte[] value = Arrays.copyOfRange(this.body, this.position, this.position + (int) length);
+                this.position += (int) length;
+                return value;
+            }
+
+            byte[] value = new byte[0];
+            while (!this.readBreak())
+            {
+                int chunkByte = this.readByte();
+                if (((chunkByte >>> 5) != majorType) || ((chunkByte & 0x1F) == INDEFINITE))
+                {
+                    throw new IOException("The CBOR string has an invalid chunk.");
+                }
+                byte[] chunk = this.readString(majorType, chunkByte & 0x1F);
+                byte[] joined = Arrays.copyOf(value, value.length + chunk.length);
+                System.arraycopy(chunk, 0, joined, value.length, chunk.length);
+                value = joined;
+            }
+            return value;
+        }
+
+        /** Reads the number of items of an array or map, or -1 if its length is indefinite. */
+        private long readCount(int info) throws IOException
+        {
+            if (info == INDEFINITE)
+            {
+                return -1;
+            }
+            long count = this.readArgument(info);
+            // each item takes at least one byte.
+            if ((count < 0) || (count > this.body.length - this.position))
+            {
+                throw new IOException("The CBOR array or map has more items than the body.");
+            }
+            return count;
+        }
+
+        private boolean readBreak() throws IOException
+        {
+            if (this.position >= this.body.length)
+            {
+                throw new IOException("The CBOR item is truncated.");
+            }
+            if ((this.body[this.position] & 0xFF) == BREAK)
+            {
+                this.position++;
+                return true;
+            }
+            return false;
+        }
+
+        private long readArgument(int info) throws IOException
+        {
+            if (info < 24)
+            {
+                return info;
+            }
+            switch (info)
+            {
+                case 24:
+                    return this.readBigEndian(1);
+                case 25:
+                    return this.readBigEndian(2);
+                case 26:
+                    return this.readBigEndian(4);
+                case 27:
+                    return this.readBigEndian(8);
+                default:
+                    throw new IOException("Invalid CBOR additional information " + info + ".");
+            }
+        }
+
+        private long readBigEndian(int size) throws IOException
+        {
+            long value = 0;
+            for (int i = 0; i < size; i++)
+            {
+                value = (value << 8) | this.readByte();
+            }
+            return value;
+        }
+
+        private int readByte() throws IOException
+        {
+            if (this.position >= this.body.length)
+            {
+                throw new IOException("The CBOR item is truncated.");
+            }
+            return this.body[this.position++] & 0xFF;
+        }
+    }
+}
@@ -9,9 +9,10 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonSyntaxException;
 import com.google.gson.reflect.TypeToken;
-import com.microsoft.azure.sdk.iot.service.auth.IotHubServiceSasToken;
+import com.microsoft.azure.sdk.iot.service.auth.IotHubServiceSasTokenProvider;
 import com.microsoft.azure.sdk.iot.service.exceptions.IotHubException;
 import com.microsoft.azure.sdk.iot.service.exceptions.IotHubExceptionManager;
+import com.microsoft.azure.sdk.iot.service.transport.http.HttpContentEncoding;
 import com.microsoft.azure.sdk.iot.service.transport.http.HttpMethod;
 import com.microsoft.azure.sdk.iot.service.transport.http.HttpRequest;
 import com.microsoft.azure.sdk.iot.service.transport.http.HttpResponse;
@@ -42,6 +43,7 @@ public class RegistryManager
     private final Integer DEFAULT_HTTP_TIMOUT_MS = 24000;
     private final ExecutorService executor = Executors.newFixedThreadPool(10);
     private IotHubConnectionString iotHubConnectionString;
+    private volatile HttpContentEncoding contentEncoding = HttpContentEncoding.IDENTITY;
 
     /**
      * Static constructor to create instance from connection string
@@ -76,6 +78,43 @@ public class RegistryManager
      */
     public void close() {}
 
+    /**
+     * Getter for the content encoding the request bodies of this registry
+     * manager are compressed with.
+     *
+     * @return The content encoding of the requests.
+     */
+    public HttpContentEncoding getContentEncoding()
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_001: [The function shall return the content encoding of the
+        // requests, which is IDENTITY by default.]
+        return this.contentEncoding;
+    }
+
+    /**
+     * Sets the content encoding the request bodies of this registry manager
+     * are compressed with. The other clients of the process are not affected.
+     * The compression is only worth it for large payloads, such as bulk
+     * registry operations.
+     *
+     * @param contentEncoding The content encoding, or IDENTITY to send the
+     * bodies as is.
+     * @throws IllegalArgumentException If the content encoding is null.
+     */
+    public void setContentEncoding(HttpContentEncoding contentEncoding)
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_002: [If the content encoding is null, the function shall
+        // throw IllegalArgumentException.]
+        if (contentEncoding == null)
+        {
+            throw new IllegalArgumentException("The content encoding cannot be null.");
+        }
+
+        // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_003: [The function shall set the content encoding of the
+        // requests created from now on by this registry manager.]
+        this.contentEncoding = contentEncoding;
+    }
+
     /**
      * Add device using the given Device object
      * Return with the response device object from IotHub
@@ -99,7 +138,7 @@ public class RegistryManager
         // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_006: [The function shall get the URL for the device]
         URL url = iotHubConnectionString.getUrlDevice(device.getDeviceId());
         // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_007: [The function shall create a new SAS token for the device]
-        String sasTokenString = new IotHubServiceSasToken(this.iotHubConnectionString).toString();
+        String sasTokenString = IotHubServiceSasTokenProvider.getSasToken(this.iotHubConnectionString);
 
         // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_008: [The function shall create a new HttpRequest for adding the device to IotHub]
         HttpRequest request = CreateRequest(url, HttpMethod.PUT, deviceJson.getBytes(), sasTokenString);
@@ -170,7 +209,7 @@ public class RegistryManager
         // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_015: [The function shall get the URL for the device]
         URL url = iotHubConnectionString.getUrlDevice(deviceId);
         // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_016: [The function shall create a new SAS token for the device]
-        String sasTokenString = new IotHubServiceSasToken(this.iotHubConnectionString).toString();
+        String sasTokenString = IotHubServiceSasTokenProvider.getSasToken(this.iotHubConnectionString);
 
         // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_017: [The function shall create a new HttpRequest for getting a device from IotHub]
         HttpRequest request = CreateRequest(url, HttpMethod.GET, new byte[0], sasTokenString);
@@ -239,7 +278,7 @@ public class RegistryManager
         // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_024: [The function shall get the URL for the device]
         URL url = iotHubConnectionString.getUrlDeviceList(maxCount);
         // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_025: [The function shall create a new SAS token for the device]
-        String sasTokenString = new IotHubServiceSasToken(this.iotHubConnectionString).toString();
+        String sasTokenString = IotHubServiceSasTokenProvider.getSasToken(this.iotHubConnectionString);
 
         // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_026: [The function shall create a new HttpRequest for getting a device list from IotHub]
         HttpRequest request = CreateRequest(url, HttpMethod.GET, new byte[0], sasTokenString);
@@ -342,7 +381,7 @@ public class RegistryManager
         // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_036: [The function shall get the URL for the device]
         URL url = iotHubConnectionString.getUrlDevice(device.getDeviceId());
         // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_037: [The function shall create a new SAS token for the device]
-        String sasTokenString = new IotHubServiceSasToken(this.iotHubConnectionString).toString();
+        String sasTokenString = IotHubServiceSasTokenProvider.getSasToken(this.iotHubConnectionString);
 
         // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_038: [The function shall create a new HttpRequest for updating the device on IotHub]
         HttpRequest request = CreateRequest(url, HttpMethod.PUT, gson.toJson(device).getBytes(), sasTokenString);
@@ -444,7 +483,7 @@ public class RegistryManager
         URL url = iotHubConnectionString.getUrlDevice(deviceId);
 
         // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_048: [The function shall create a new SAS token for the device]
-        String sasToken = new IotHubServiceSasToken(this.iotHubConnectionString).toString();
+        String sasToken = IotHubServiceSasTokenProvider.getSasToken(this.iotHubConnectionString);
 
         // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_049: [The function shall create a new HttpRequest for removing the device from IotHub]
         HttpRequest request = new HttpRequest(url, HttpMethod.DELETE, new byte[0]);
@@ -505,7 +544,7 @@ public class RegistryManager
         URL url = iotHubConnectionString.getUrlDeviceStatistics();
 
         // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_055: [The function shall create a new SAS token for the device]
-        String sasTokenString = new IotHubServiceSasToken(this.iotHubConnectionString).toString();
+        String sasTokenString = IotHubServiceSasTokenProvider.getSasToken(this.iotHubConnectionString);
 
         // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_056: [The function shall create a new HttpRequest for getting statistics a device from IotHub]
         HttpRequest request = CreateRequest(url, HttpMethod.GET, new byte[0], sasTokenString);
@@ -574,7 +613,7 @@ public class RegistryManager
         URL url = iotHubConnectionString.getUrlCreateExportImportJob();
 
         // CODES_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_063: [The function shall create a new SAS token for the bulk export job]
-        String sasTokenString = new IotHubServiceSasToken(this.iotHubConnectionString).toString();
+        String sasTokenString = IotHubServiceSasTokenProvider.getSasToken(this.iotHubConnectionString);
 
         // CODES_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_064: [The function shall create a new HttpRequest for the bulk export job creation ]
         String jobPropertiesJson = CreateExportJobPropertiesJson(exportBlobContainerUri, excludeKeys);
@@ -643,7 +682,7 @@ public class RegistryManager
         URL url = iotHubConnectionString.getUrlCreateExportImportJob();
 
         // CODES_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_071: [The function shall create a new SAS token for the bulk import job]
-        String sasTokenString = new IotHubServiceSasToken(this.iotHubConnectionString).toString();
+        String sasTokenString = IotHubServiceSasTokenProvider.getSasToken(this.iotHubConnectionString);
 
         // CODES_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_072: [The function shall create a new HttpRequest for the bulk import job creation]
         String jobPropertiesJson = CreateImportJobPropertiesJson(importBlobContainerUri, outputBlobContainerUri);
@@ -710,7 +749,7 @@ public class RegistryManager
         URL url = iotHubConnectionString.getUrlImportExportJob(jobId);
 
         // CODES_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_079: [The function shall create a new SAS token for the get request **]
-        String sasTokenString = new IotHubServiceSasToken(this.iotHubConnectionString).toString();
+        String sasTokenString = IotHubServiceSasTokenProvider.getSasToken(this.iotHubConnectionString);
 
         // CODES_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_080: [The function shall create a new HttpRequest for getting the properties of a job]
         HttpRequest request = CreateRequest(url, HttpMethod.GET, new byte[0], sasTokenString);
@@ -782,7 +821,7 @@ public class RegistryManager
 
     private HttpRequest CreateRequest(URL url, HttpMethod method, byte[] payload, String sasToken) throws IOException
     {
-        HttpRequest request = new HttpRequest(url, method, payload);
+        HttpRequest request = new HttpRequest(url, method, payload, this.contentEncoding);
         request.setReadTimeoutMillis(DEFAULT_HTTP_TIMOUT_MS);
         request.setHeaderField("authorization", sasToken);
         request.setHeaderField("Request-Id", "1001");
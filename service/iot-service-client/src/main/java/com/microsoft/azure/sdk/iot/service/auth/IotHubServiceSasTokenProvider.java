@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license. See LICENSE file in the project root for full license information.
+ */
+
+package com.microsoft.azure.sdk.iot.service.auth;
+
+import com.microsoft.azure.sdk.iot.service.IotHubConnectionString;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Provides the SAS tokens of the service clients, shared by all the clients
+ * in the process.
+ * <p>
+ *     A token is signed once per IoT Hub host, shared access policy and key,
+ *     and reused by the RegistryManager, DeviceTwin, DeviceMethod and
+ *     ServiceClient calls. Once three quarters of its validity have elapsed,
+ *     the next call triggers a refresh on a background thread and keeps
+ *     returning the current token until the new one is ready, so no call waits
+ *     for the signature. Only an expired token is refreshed on the calling thread.
+ * </p>
+ * <p>
+ *     The tokens are cached by a SHA-256 digest of the host, policy and key,
+ *     so the cache does not keep the keys themselves. Once it is full, the
+ *     expired tokens are evicted, then the one closest to expiry.
+ * </p>
+ */
+public final class IotHubServiceSasTokenProvider
+{
+    /** The maximum number of connection strings with a cached token. */
+    private static final int MAX_CACHED_TOKENS = 256;
+
+    private static final ConcurrentMap<String, CachedToken> tokens = new ConcurrentHashMap<>();
+
+    private static final ExecutorService refreshExecutor = Executors.newSingleThreadExecutor(runnable ->
+    {
+        Thread thread = new Thread(runnable, "iothub-service-sas-token-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Returns the SAS token for the connection string, signing a new one only
+     * if there is none yet or the cached one expired.
+     *
+     * @param iotHubConnectionString the connection string with the shared access policy.
+     *
+     * @return the SAS token.
+     *
+     * @throws IllegalArgumentException if the connection string is {@code null}.
+     */
+    public static String getSasToken(IotHubConnectionString iotHubConnectionString)
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_IOTHUBSERVICESASTOKENPROVIDER_21_001: [If the connection string is null, the
+        // function shall throw IllegalArgumentException.]
+        if (iotHubConnectionString == null)
+        {
+            throw new IllegalArgumentException("iotHubConnectionString cannot be null");
+        }
+
+        String key = cacheKey(iotHubConnectionString);
+        long nowSecs = System.currentTimeMillis() / 1000;
+
+        CachedToken cachedToken = tokens.get(key);
+        if ((cachedToken == null) || (nowSecs >= cachedToken.expiryTime))
+        {
+            // Codes_SRS_SERVICE_SDK_JAVA_IOTHUBSERVICESASTOKENPROVIDER_21_002: [If there is no token for the IoT Hub
+            // host, policy and key, or it expired, the function shall create a new one on the calling thread and
+            // cache it.]
+            cachedToken = new CachedToken(new IotHubServiceSasToken(iotHubConnectionString), nowSecs);
+            if ((tokens.size() >= MAX_CACHED_TOKENS) && !tokens.containsKey(key))
+            {
+                // Codes_SRS_SERVICE_SDK_JAVA_IOTHUBSERVICESASTOKENPROVIDER_21_006: [If the cache is full, the
+                // function shall evict the expired tokens, or else the token closest to expiry, keeping the others.]
+                evict(nowSecs);
+            }
+            tokens.put(key, cachedToken);
+        }
+        else if ((nowSecs >= cachedToken.refreshTime) && cachedToken.refreshing.compareAndSet(false, true))
+        {
+            // Codes_SRS_SERVICE_SDK_JAVA_IOTHUBSERVICESASTOKENPROVIDER_21_003: [If three quarters of the token
+            // validity elapsed, the function shall create a new token on a background thread, and return the
+            // current one until the new one replaces it.]
+            refreshExecutor.execute(() -> refresh(key, iotHubConnectionString));
+        }
+
+        // Codes_SRS_SERVICE_SDK_JAVA_IOTHUBSERVICESASTOKENPROVIDER_21_004: [The function shall return the cached token.]
+        return cachedToken.token;
+    }
+
+    /**
+     * Drops all the cached tokens, so the next calls sign new ones, i.e.
+     * after a shared access policy key is regenerated.
+     */
+    public static void invalidateAll()
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_IOTHUBSERVICESASTOKENPROVIDER_21_005: [The function shall drop all the cached tokens.]
+        tokens.clear();
+    }
+
+    /**
+     * Returns the cache key of the connection string, a digest of its host,
+     * policy and key or signature, so the cache does not hold the key itself.
+     */
+    private static String cacheKey(IotHubConnectionString iotHubConnectionString)
+    {
+        String identity = iotHubConnectionString.getHostName() + "\n" + iotHubConnectionString.getSharedAccessKeyName()
+                + "\n" + iotHubConnectionString.getSharedAccessKey() + "\n" + iotHubConnectionString.getSharedAccessSignature();
+        try
+        {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(identity.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(digest);
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            // every Java platform implements SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Removes the expired tokens, or the token closest to expiry if none expired. */
+    private static void evict(long nowSecs)
+    {
+        Map.Entry<String, CachedToken> oldest = null;
+        boolean evicted = false;
+        for (Map.Entry<String, CachedToken> entry : tokens.entrySet())
+        {
+            if (nowSecs >= entry.getValue().expiryTime)
+            {
+                evicted |= tokens.remove(entry.getKey(), entry.getValue());
+            }
+            else if ((oldest == null) || (entry.getValue().expiryTime < oldest.getValue().expiryTime))
+            {
+                oldest = entry;
+            }
+        }
+
+        if (!evicted && (oldest != null))
+        {
+            tokens.remove(oldest.getKey(), oldest.getValue());
+        }
+    }
+
+    private static void refresh(String key, IotHubConnectionString iotHubConnectionString)
+    {
+        CachedToken current = tokens.get(key);
+        try
+        {
+            tokens.put(key, new CachedToken(new IotHubServiceSasToken(iotHubConnectionString),
+                    System.currentTimeMillis() / 1000));
+        }
+        catch (RuntimeException e)
+        {
+            // keep the current token, the next call after it expires signs a new one.
+            if (current != null)
+            {
+                current.refreshing.set(false);
+            }
+        }
+    }
+
+    private IotHubServiceSasTokenProvider()
+    {
+    }
+
+    /** A signed token with the times it shall be refreshed and it expires. */
+    private static final class CachedToken
+    {
+        private final String token;
+        private final long expiryTime;
+        private final long refreshTime;
+        private final AtomicBoolean refreshing = new AtomicBoolean(false);
+
+        private CachedToken(IotHubServiceSasToken sasToken, long createdTime)
+        {
+            this.token = sasToken.toString();
+            this.expiryTime = sasToken.expiryTime;
+            this.refreshTime = createdTime + (sasToken.expiryTime - createdTime) * 3 / 4;
+        }
+    }
+}
@@ -4,7 +4,7 @@
 package com.microsoft.azure.sdk.iot.service.devicetwin;
 
 import com.microsoft.azure.sdk.iot.service.IotHubConnectionString;
-import com.microsoft.azure.sdk.iot.service.auth.IotHubServiceSasToken;
+import com.microsoft.azure.sdk.iot.service.auth.IotHubServiceSasTokenProvider;
 import com.microsoft.azure.sdk.iot.service.exceptions.IotHubException;
 import com.microsoft.azure.sdk.iot.service.exceptions.IotHubExceptionManager;
 import com.microsoft.azure.sdk.iot.service.transport.TransportUtils;
@@ -82,8 +82,8 @@ public class DeviceOperations
             throw new IllegalArgumentException("requestId is null or empty");
         }
 
-        /* Codes_SRS_DEVICE_OPERATIONS_21_006: [The request shall create a new SASToken with the ServiceConnect rights.] */
-        String sasTokenString = new IotHubServiceSasToken(iotHubConnectionString).toString();
+        /* Codes_SRS_DEVICE_OPERATIONS_21_006: [The request shall get the SASToken with the ServiceConnect rights from the shared token provider.] */
+        String sasTokenString = IotHubServiceSasTokenProvider.getSasToken(iotHubConnectionString);
         /* Codes_SRS_DEVICE_OPERATIONS_21_007: [If the SASToken is null or empty, the request shall throw IOException.] */
          if((sasTokenString == null) || sasTokenString.isEmpty())
         {
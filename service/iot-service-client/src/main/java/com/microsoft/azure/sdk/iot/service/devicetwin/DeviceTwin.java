@@ -5,7 +5,7 @@
 
 package com.microsoft.azure.sdk.iot.service.devicetwin;
 
-import com.microsoft.azure.sdk.iot.service.auth.IotHubServiceSasToken;
+import com.microsoft.azure.sdk.iot.service.auth.IotHubServiceSasTokenProvider;
 import com.microsoft.azure.sdk.iot.service.exceptions.IotHubException;
 import com.microsoft.azure.sdk.iot.service.exceptions.IotHubExceptionManager;
 import com.microsoft.azure.sdk.iot.service.IotHubConnectionString;
@@ -71,7 +71,7 @@ public class DeviceTwin
     private HttpResponse processHttpTwinRequest(URL url, HttpMethod method, byte[] payload, String requestId) throws IOException, IotHubException
     {
         HttpRequest request = new HttpRequest(url, method, payload);
-        String sasTokenString = new IotHubServiceSasToken(this.iotHubConnectionString).toString();
+        String sasTokenString = IotHubServiceSasTokenProvider.getSasToken(this.iotHubConnectionString);
         request.setReadTimeoutMillis(DEFAULT_HTTP_TIMOUT_MS);
         request.setHeaderField(AUTHORIZATION, sasTokenString);
         request.setHeaderField(REQUEST_ID, requestId);
@@ -10,7 +10,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.ProtocolException;
 import java.net.URL;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
@@ -25,9 +24,16 @@ import java.util.Map;
  * stream or error stream, if input stream is not accessible) must be completely
  * read. Otherwise, the data remains in the stream and the connection will not
  * be reusable.
+ * <p>
+ * It is the {@link HttpEngineConnection} of the {@link HttpUrlConnectionEngine}.
  */
-public class HttpConnection
+public class HttpConnection implements HttpEngineConnection
 {
+    /** The initial size of the buffer for responses without a Content-Length. */
+    private static final int DEFAULT_READ_BUFFER_SIZE = 4096;
+    /** The largest initial buffer sized from a Content-Length, so a wrong header cannot exhaust the memory before any data is read. */
+    private static final int MAX_INITIAL_READ_BUFFER_SIZE = 64 * 1024;
+
     /** The underlying HTTPS connection. */
     protected final HttpsURLConnection connection;
 
@@ -81,12 +87,37 @@ public class HttpConnection
         }
     }
 
+    /**
+     * Getter for the URL given in the constructor.
+     *
+     * @return The request URL.
+     */
+    @Override
+    public URL getUrl()
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_HTTPCONNECTION_21_029: [The function shall return the URL of the connection.]
+        return this.connection.getURL();
+    }
+
+    /**
+     * Getter for the request method.
+     *
+     * @return The request method (i.e. GET).
+     */
+    @Override
+    public HttpMethod getRequestMethod()
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_HTTPCONNECTION_21_030: [The function shall return the request method of the connection.]
+        return HttpMethod.valueOf(this.connection.getRequestMethod());
+    }
+
     /**
      * Sends the request to the URL given in the constructor.
      *
      * @throws IOException This exception thrown if the connection could not be established,
      * or the server responded with a bad status code.
      */
+    @Override
     public void connect() throws IOException
     {
         // Codes_SRS_SERVICE_SDK_JAVA_HTTPCONNECTION_12_006: [The function shall stream the request body, if present, through the connection.]
@@ -140,6 +171,7 @@ public class HttpConnection
      * @param field The header field name.
      * @param value The header field value.
      */
+    @Override
     public void setRequestHeader(String field, String value)
     {
         // Codes_SRS_SERVICE_SDK_JAVA_HTTPCONNECTION_12_010: [The function shall set the given request header field.]
@@ -153,6 +185,7 @@ public class HttpConnection
      *
      * @param timeout The read timeout.
      */
+    @Override
     public void setReadTimeoutMillis(int timeout)
     {
         // Codes_SRS_SERVICE_SDK_JAVA_HTTPCONNECTION_12_011: [The function shall set the read timeout to the given value.]
@@ -169,6 +202,7 @@ public class HttpConnection
      * HttpsURLConnection silently converts the HTTPS method to POST or PUT if a
      * body is written to the request.
      */
+    @Override
     public void writeOutput(byte[] body)
     {
         // Codes_SRS_SERVICE_SDK_JAVA_HTTPCONNECTION_12_013: [The function shall throw an IllegalArgumentException if the request does not currently use method POST or PUT and the body is non-empty.]
@@ -198,12 +232,15 @@ public class HttpConnection
      * @throws IOException This exception thrown if the input stream could not be
      * accessed, for example if the server could not be reached.
      */
+    @Override
     public byte[] readInput() throws IOException
     {
         // Codes_SRS_SERVICE_SDK_JAVA_HTTPCONNECTION_12_014: [The function shall read from the input stream (response stream) and return the response.]
         // Codes_SRS_SERVICE_SDK_JAVA_HTTPCONNECTION_12_015: [The function shall throw an IOException if the input stream could not be accessed.]
         InputStream inputStream = this.connection.getInputStream();
-        byte[] input = readInputStream(inputStream);
+        // Codes_SRS_SERVICE_SDK_JAVA_HTTPCONNECTION_21_024: [The function shall read the response in bulk into a buffer sized from the response Content-Length, if present,
+        // up to 64 KiB.]
+        byte[] input = readInputStream(inputStream, this.connection.getContentLength());
         // Codes_SRS_SERVICE_SDK_JAVA_HTTPCONNECTION_12_016: [The function shall close the input stream after it has been completely read.]
         inputStream.close();
 
@@ -218,6 +255,7 @@ public class HttpConnection
      * @throws IOException This exception thrown if the input stream could not be
      * accessed, for example if the server could not be reached.
      */
+    @Override
     public byte[] readError() throws IOException
     {
         // Codes_SRS_SERVICE_SDK_JAVA_HTTPCONNECTION_12_017: [The function shall read from the error stream and return the response.]
@@ -228,7 +266,7 @@ public class HttpConnection
         // if there is no error reason, getErrorStream() returns null.
         if (errorStream != null)
         {
-            error = readInputStream(errorStream);
+            error = readInputStream(errorStream, this.connection.getContentLength());
             // Codes_SRS_SERVICE_SDK_JAVA_HTTPCONNECTION_12_019: [The function shall close the error stream after it has been completely read.]
             errorStream.close();
         }
@@ -243,6 +281,7 @@ public class HttpConnection
      *
      * @throws IOException This exception thrown if no response was received.
      */
+    @Override
     public int getResponseStatus() throws IOException
     {
         // Codes_SRS_SERVICE_SDK_JAVA_HTTPCONNECTION_12_020: [The function shall return the response status code.]
@@ -259,6 +298,7 @@ public class HttpConnection
      *
      * @throws IOException This exception thrown if no response was received.
      */
+    @Override
     public Map<String, List<String>> getResponseHeaders() throws IOException
     {
         // Codes_SRS_SERVICE_SDK_JAVA_HTTPCONNECTION_12_022: [The function shall return a mapping of header field names to the values associated with the header field name.]
@@ -266,6 +306,23 @@ public class HttpConnection
         return this.connection.getHeaderFields();
     }
 
+    /**
+     * Returns the response stream, for callers that parse the response
+     * incrementally instead of reading it with readInput(). The caller shall
+     * completely read and close the stream, so the connection can be reused.
+     *
+     * @return The response stream.
+     *
+     * @throws IOException This exception thrown if the input stream could not be
+     * accessed, for example if the server could not be reached.
+     */
+    public InputStream getInputStream() throws IOException
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_HTTPCONNECTION_21_027: [The function shall return the input stream (response stream) without reading it.]
+        // Codes_SRS_SERVICE_SDK_JAVA_HTTPCONNECTION_21_028: [The function shall throw an IOException if the input stream could not be accessed.]
+        return this.connection.getInputStream();
+    }
+
     /**
      * Reads the input stream until the stream is empty.
      *
@@ -278,23 +335,56 @@ public class HttpConnection
     protected static byte[] readInputStream(InputStream stream)
             throws IOException
     {
-        ArrayList<Byte> byteBuffer = new ArrayList<>();
-        int nextByte = -1;
-        // read(byte[]) reads the byte into the buffer and returns the number
-        // of bytes read, or -1 if the end of the stream has been reached.
-        while ((nextByte = stream.read()) > -1)
-        {
-            byteBuffer.add((byte) nextByte);
-        }
+        return readInputStream(stream, -1);
+    }
 
-        int bufferSize = byteBuffer.size();
-        byte[] byteArray = new byte[bufferSize];
-        for (int i = 0; i < bufferSize; ++i)
+    /**
+     * Reads the input stream until the stream is empty, in blocks, into a
+     * buffer of the expected length, up to 64 KiB. The buffer grows as the
+     * bytes arrive if the stream is longer, or if the length is not known.
+     *
+     * @param stream The input stream.
+     * @param expectedLength The expected length of the content, or a negative
+     * value if it is not known.
+     *
+     * @return The content of the input stream.
+     *
+     * @throws IOException This exception thrown if the input stream could not be read from.
+     */
+    protected static byte[] readInputStream(InputStream stream, int expectedLength)
+            throws IOException
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_HTTPCONNECTION_21_025: [If the Content-Length is not present, the function shall read the response into a buffer that grows as needed.]
+        byte[] buffer = new byte[(expectedLength > 0) ? Math.min(expectedLength, MAX_INITIAL_READ_BUFFER_SIZE) : DEFAULT_READ_BUFFER_SIZE];
+        int size = 0;
+        while (true)
         {
-            byteArray[i] = byteBuffer.get(i);
+            if (size == buffer.length)
+            {
+                // Checks for the end of the stream before growing a buffer
+                // that was sized from the Content-Length.
+                int nextByte = stream.read();
+                if (nextByte < 0)
+                {
+                    break;
+                }
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                buffer[size++] = (byte) nextByte;
+            }
+
+            // read(byte[], int, int) reads up to the given number of bytes into
+            // the buffer and returns the number of bytes read, or -1 if the end
+            // of the stream has been reached.
+            int bytesRead = stream.read(buffer, size, buffer.length - size);
+            if (bytesRead < 0)
+            {
+                break;
+            }
+            size += bytesRead;
         }
 
-        return byteArray;
+        // Codes_SRS_SERVICE_SDK_JAVA_HTTPCONNECTION_21_026: [The function shall return exactly the bytes read from the stream.]
+        return (size == buffer.length) ? buffer : Arrays.copyOf(buffer, size);
     }
 
     protected HttpConnection()
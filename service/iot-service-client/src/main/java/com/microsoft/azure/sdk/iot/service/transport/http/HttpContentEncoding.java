@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license. See LICENSE file in the project root for full license information.
+ */
+
+package com.microsoft.azure.sdk.iot.service.transport.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The HTTP content encoding (i.e. gzip) of a request or response body.
+ * <p>
+ * Bodies are compressed with a {@link Deflater} kept by each thread, so the
+ * native compression state is allocated once per thread instead of once per
+ * request. The compression favours speed over size; JSON payloads still shrink
+ * several times.
+ * <p>
+ * The device client has the same codec in its {@code HttpsContentEncoding}.
+ * The two clients share no library, so a fix to one belongs in the other.
+ */
+public enum HttpContentEncoding
+{
+    IDENTITY("identity"),
+    GZIP("gzip"),
+    DEFLATE("deflate");
+
+    private static final byte[] GZIP_HEADER =
+            { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+    private static final int GZIP_TRAILER_SIZE = 8;
+    private static final int READ_BUFFER_SIZE = 1024;
+
+    /**
+     * The largest body {@link #decode(byte[])} decompresses, 16 MiB, which
+     * leaves room for large registry and query responses.
+     */
+    public static final int MAX_DECODED_SIZE = 16 * 1024 * 1024;
+
+    private final String name;
+
+    HttpContentEncoding(String name)
+    {
+        this.name = name;
+    }
+
+    /**
+     * Getter for the name of the encoding, as used in the content-encoding
+     * header.
+     *
+     * @return The name of the encoding.
+     */
+    public String getName()
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_HTTPCONTENTENCODING_21_001: [The function shall return the content-encoding name of the encoding.]
+        return this.name;
+    }
+
+    /**
+     * Returns the encoding with the given content-encoding name.
+     *
+     * @param name The content-encoding name, i.e. "gzip". The name is not case
+     * sensitive.
+     *
+     * @return The encoding, or {@code null} if the name is {@code null} or
+     * unknown.
+     */
+    public static HttpContentEncoding fromName(String name)
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_HTTPCONTENTENCODING_21_002: [The function shall return the encoding with the
+        // given name, ignoring the case and the surrounding spaces.]
+        // Codes_SRS_SERVICE_SDK_JAVA_HTTPCONTENTENCODING_21_003: [If the name is null or unknown, the function shall
+        // return null.]
+        if (name != null)
+        {
+            String trimmedName = name.trim();
+            for (HttpContentEncoding encoding : values())
+            {
+                if (encoding.name.equalsIgnoreCase(trimmedName))
+                {
+                    return encoding;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Encodes the body.
+     *
+     * @param body The body to encode.
+     *
+     * @return The encoded body, or the same body for the identity encoding.
+     */
+    public byte[] encode(byte[] body)
+    {
+        switch (this)
+        {
+            case GZIP:
+                // Codes_SRS_SERVICE_SDK_JAVA_HTTPCONTENTENCODING_21_005: [The gzip encoding shall compress the body in
+                // the gzip format.]
+                return gzip(body);
+            case DEFLATE:
+                // Codes_SRS_SERVICE_SDK_JAVA_HTTPCONTENTENCODING_21_006: [The deflate encoding shall compress the body in
+                // the zlib format.]
+                return deflate(Deflaters.zlib.get(), body, 0, 0);
+            default:
+                // Codes_SRS_SERVICE_SDK_JAVA_HTTPCONTENTENCODING_21_004: [The identity encoding shall return the same body.]
+                return body;
+        }
+    }
+
+    /**
+     * Decodes the body, up to {@link #MAX_DECODED_SIZE} bytes.
+     *
+     * @param body The body to decode.
+     *
+     * @return The decoded body, or the same body for the identity encoding.
+     *
+     * @throws IOException If the body is not correctly encoded, or decodes to more than
+     * {@link #MAX_DECODED_SIZE} bytes.
+     */
+    public byte[] decode(byte[] body) throws IOException
+    {
+        return decode(body, MAX_DECODED_SIZE);
+    }
+
+    /**
+     * Decodes the body, up to the given size. A few kilobytes of gzip can
+     * decompress to gigabytes, so the decoding stops once the limit is passed
+     * instead of allocating the whole body.
+     *
+     * @param body The body to decode.
+     * @param maxDecodedSize The largest decoded body accepted, in bytes.
+     *
+     * @return The decoded body, or the same body for the identity encoding.
+     *
+     * @throws IOException If the body is not correctly encoded, or decodes to more than
+     * {@code maxDecodedSize} bytes.
+     * @throws IllegalArgumentException If the maximum decoded size is not positive.
+     */
+    public byte[] decode(byte[] body, int maxDecodedSize) throws IOException
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_HTTPCONTENTENCODING_21_010: [If the maximum decoded size is not positive, the
+        // function shall throw IllegalArgumentException.]
+        if (maxDecodedSize <= 0)
+        {
+            throw new IllegalArgumentException("The maximum decoded size shall be positive.");
+        }
+
+        switch (this)
+        {
+            case GZIP:
+                // Codes_SRS_SERVICE_SDK_JAVA_HTTPCONTENTENCODING_21_008: [The gzip and deflate encodings shall decompress
+                // the body, and throw IOException if it is not correctly encoded.]
+                return readAll(new GZIPInputStream(new ByteArrayInputStream(body)), maxDecodedSize);
+            case DEFLATE:
+                // Codes_SRS_SERVICE_SDK_JAVA_HTTPCONTENTENCODING_21_008: [The gzip and deflate encodings shall decompress
+                // the body, and throw IOException if it is not correctly encoded.]
+                return readAll(new InflaterInputStream(new ByteArrayInputStream(body)), maxDecodedSize);
+            default:
+                // Codes_SRS_SERVICE_SDK_JAVA_HTTPCONTENTENCODING_21_007: [The identity encoding shall return the same body.]
+                return body;
+        }
+    }
+
+    private static byte[] gzip(byte[] body)
+    {
+        byte[] encoded = deflate(Deflaters.raw.get(), body, GZIP_HEADER.length, GZIP_TRAILER_SIZE);
+        System.arraycopy(GZIP_HEADER, 0, encoded, 0, GZIP_HEADER.length);
+
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        int trailer = encoded.length - GZIP_TRAILER_SIZE;
+        writeIntLittleEndian(encoded, trailer, (int) crc.getValue());
+        writeIntLittleEndian(encoded, trailer + 4, body.length);
+        return encoded;
+    }
+
+    /**
+     * Compresses the body into an array that leaves room for the given header
+     * and trailer sizes.
+     */
+    private static byte[] deflate(Deflater deflater, byte[] body, int headerSize, int trailerSize)
+    {
+        deflater.reset();
+        deflater.setInput(body);
+        deflater.finish();
+
+        byte[] buffer = new byte[headerSize + body.length / 2 + 64];
+        int size = headerSize;
+        while (!deflater.finished())
+        {
+            if (size == buffer.length)
+            {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            size += deflater.deflate(buffer, size, buffer.length - size);
+        }
+
+        return Arrays.copyOf(buffer, size + trailerSize);
+    }
+
+    private static void writeIntLittleEndian(byte[] buffer, int offset, int value)
+    {
+        buffer[offset] = (byte) value;
+        buffer[offset + 1] = (byte) (value >> 8);
+        buffer[offset + 2] = (byte) (value >> 16);
+        buffer[offset + 3] = (byte) (value >> 24);
+    }
+
+    private static byte[] readAll(InputStream input, int maxSize) throws IOException
+    {
+        try
+        {
+            // Note: one byte more than the limit, to tell a body of exactly maxSize bytes from a larger one.
+            int bufferLimit = (int) Math.min((long) maxSize + 1, Integer.MAX_VALUE);
+            byte[] buffer = new byte[Math.min(READ_BUFFER_SIZE, bufferLimit)];
+            int size = 0;
+            int read;
+            while ((read = input.read(buffer, size, buffer.length - size)) != -1)
+            {
+                size += read;
+                if (size > maxSize)
+                {
+                    // Codes_SRS_SERVICE_SDK_JAVA_HTTPCONTENTENCODING_21_009: [If the body decodes to more than the maximum
+                    // decoded size, the gzip and deflate encodings shall throw IOException.]
+                    throw new IOException("The decoded body is larger than " + maxSize + " bytes.");
+                }
+                if (size == buffer.length)
+                {
+                    buffer = Arrays.copyOf(buffer, (int) Math.min((long) buffer.length * 2, bufferLimit));
+                }
+            }
+            return Arrays.copyOf(buffer, size);
+        }
+        finally
+        {
+            input.close();
+        }
+    }
+
+    /** The deflaters of each thread, reset before each body. */
+    private static final class Deflaters
+    {
+        private static final ThreadLocal<Deflater> raw =
+                ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED, true));
+
+        private static final ThreadLocal<Deflater> zlib =
+                ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED, false));
+    }
+}
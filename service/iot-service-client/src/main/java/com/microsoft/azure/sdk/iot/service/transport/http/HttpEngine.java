@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license. See LICENSE file in the project root for full license information.
+ */
+
+package com.microsoft.azure.sdk.iot.service.transport.http;
+
+import java.io.IOException;
+import java.net.URL;
+
+/**
+ * Service provider interface for the engine that runs the HTTP requests of
+ * the service clients.
+ * <p>
+ * The default engine, {@link HttpUrlConnectionEngine}, runs each request on a
+ * HttpsURLConnection. Another engine, for example one that multiplexes the
+ * registry, twin and method requests to a host over a single HTTP/2
+ * connection, returns its own {@link HttpEngineConnection} for each request.
+ * Engines are installed with
+ * {@link HttpEngineProvider#setEngine(HttpEngine)}, or registered in
+ * META-INF/services/com.microsoft.azure.sdk.iot.service.transport.http.HttpEngine.
+ */
+public interface HttpEngine
+{
+    /**
+     * Opens a connection for a request to the given URL.
+     *
+     * @param url The URL for the request. It shall use the HTTPS protocol.
+     * @param method The HTTP method (i.e. GET).
+     *
+     * @return The connection for the request.
+     *
+     * @throws IOException This exception is thrown if the connection could not be opened.
+     */
+    HttpEngineConnection openConnection(URL url, HttpMethod method) throws IOException;
+}
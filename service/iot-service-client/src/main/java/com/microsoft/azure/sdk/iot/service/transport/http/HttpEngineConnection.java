@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license. See LICENSE file in the project root for full license information.
+ */
+
+package com.microsoft.azure.sdk.iot.service.transport.http;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One HTTP request and its response, opened by an {@link HttpEngine}.
+ * <p>
+ * The {@link HttpRequest} sets the request headers and body, sends the request
+ * with connect(), then reads the response status, headers and body.
+ * {@link HttpConnection} implements it over a HttpsURLConnection; other
+ * engines implement it over their own transport.
+ */
+public interface HttpEngineConnection
+{
+    /**
+     * Getter for the URL of the request.
+     *
+     * @return The request URL.
+     */
+    URL getUrl();
+
+    /**
+     * Getter for the method of the request.
+     *
+     * @return The request method (i.e. GET).
+     */
+    HttpMethod getRequestMethod();
+
+    /**
+     * Sets the request header field to the given value.
+     *
+     * @param field The header field name.
+     * @param value The header field value.
+     */
+    void setRequestHeader(String field, String value);
+
+    /**
+     * Sets the read timeout in milliseconds.
+     *
+     * @param timeout The read timeout.
+     */
+    void setReadTimeoutMillis(int timeout);
+
+    /**
+     * Saves the body to be sent with the request.
+     *
+     * @param body The request body.
+     *
+     * @throws IllegalArgumentException This exception thrown if the request is
+     * not a POST or a PUT and the body is non-empty.
+     */
+    void writeOutput(byte[] body);
+
+    /**
+     * Sends the request.
+     *
+     * @throws IOException This exception thrown if the connection could not be established,
+     * or the server responded with a bad status code.
+     */
+    void connect() throws IOException;
+
+    /**
+     * Returns the response status code.
+     *
+     * @return The response status code.
+     *
+     * @throws IOException This exception thrown if no response was received.
+     */
+    int getResponseStatus() throws IOException;
+
+    /**
+     * Returns the response headers, where the key is the header field name and
+     * the values are the values associated with the header field name.
+     *
+     * @return The response headers.
+     *
+     * @throws IOException This exception thrown if no response was received.
+     */
+    Map<String, List<String>> getResponseHeaders() throws IOException;
+
+    /**
+     * Reads the response body of a successful request.
+     *
+     * @return The response body.
+     *
+     * @throws IOException This exception thrown if the response could not be read.
+     */
+    byte[] readInput() throws IOException;
+
+    /**
+     * Reads the response body of a failed request, so the connection can be reused.
+     *
+     * @return The error reason, or an empty array if there is none.
+     *
+     * @throws IOException This exception thrown if the response could not be read.
+     */
+    byte[] readError() throws IOException;
+}
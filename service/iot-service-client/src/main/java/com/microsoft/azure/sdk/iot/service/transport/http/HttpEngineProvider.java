@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license. See LICENSE file in the project root for full license information.
+ */
+
+package com.microsoft.azure.sdk.iot.service.transport.http;
+
+import java.util.Iterator;
+import java.util.ServiceLoader;
+
+/**
+ * Provides the {@link HttpEngine} that runs the HTTP requests of all the
+ * service clients in the process.
+ * <p>
+ * On first use, the provider loads the first engine registered with
+ * {@link ServiceLoader}, or uses the {@link HttpUrlConnectionEngine} if there
+ * is none. The engine can be replaced at any time; the requests already open
+ * keep the engine they were opened with.
+ */
+public final class HttpEngineProvider
+{
+    private static volatile HttpEngine engine;
+
+    /**
+     * Getter for the engine that runs the HTTP requests.
+     *
+     * @return The installed engine.
+     */
+    public static HttpEngine getEngine()
+    {
+        HttpEngine current = engine;
+        if (current == null)
+        {
+            synchronized (HttpEngineProvider.class)
+            {
+                current = engine;
+                if (current == null)
+                {
+                    // Codes_SRS_SERVICE_SDK_JAVA_HTTPENGINEPROVIDER_21_001: [If no engine was installed, the function
+                    // shall install the first engine registered with the ServiceLoader, or the HttpUrlConnectionEngine
+                    // if there is none.]
+                    current = loadEngine();
+                    engine = current;
+                }
+            }
+        }
+
+        // Codes_SRS_SERVICE_SDK_JAVA_HTTPENGINEPROVIDER_21_002: [The function shall return the installed engine.]
+        return current;
+    }
+
+    /**
+     * Installs the engine that runs the HTTP requests opened from now on.
+     *
+     * @param newEngine The engine, or null to restore the default engine.
+     */
+    public static void setEngine(HttpEngine newEngine)
+    {
+        synchronized (HttpEngineProvider.class)
+        {
+            // Codes_SRS_SERVICE_SDK_JAVA_HTTPENGINEPROVIDER_21_003: [The function shall install the given engine.]
+            // Codes_SRS_SERVICE_SDK_JAVA_HTTPENGINEPROVIDER_21_004: [If the engine is null, the function shall
+            // install the HttpUrlConnectionEngine.]
+            engine = (newEngine == null) ? new HttpUrlConnectionEngine() : newEngine;
+        }
+    }
+
+    private static HttpEngine loadEngine()
+    {
+        Iterator<HttpEngine> engines = ServiceLoader.load(HttpEngine.class).iterator();
+        if (engines.hasNext())
+        {
+            return engines.next();
+        }
+        return new HttpUrlConnectionEngine();
+    }
+
+    private HttpEngineProvider()
+    {
+    }
+}
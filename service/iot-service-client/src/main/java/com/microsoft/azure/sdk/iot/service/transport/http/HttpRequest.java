@@ -14,8 +14,11 @@ import java.util.Map;
 
 public class HttpRequest
 {
+    /** The content encodings accepted in the responses when the requests are compressed. */
+    private static final String ACCEPT_ENCODING = "gzip, deflate";
+
     /** The underlying HTTPS connection stream. */
-    protected final HttpConnection connection;
+    protected final HttpEngineConnection connection;
 
     /**
      * Constructor. Takes a URL as an argument and returns an HTTPS request that
@@ -32,11 +35,58 @@ public class HttpRequest
      */
     public HttpRequest(URL url, HttpMethod method, byte[] body) throws IOException
     {
+        // Codes_SRS_SERVICE_SDK_JAVA_HTTPREQUEST_21_002: [The constructor without content encoding shall send the
+        // body as is.]
+        this(url, method, body, HttpContentEncoding.IDENTITY);
+    }
+
+    /**
+     * Constructor. Takes a URL as an argument and returns an HTTPS request that
+     * is ready to be sent, with its body compressed with the given content
+     * encoding. The compression is only worth it for large payloads, such as
+     * bulk registry operations.
+     *
+     * @param url The URL for the request.
+     * @param method The HTTPS request method (i.e. GET).
+     * @param body The request body. Must be an array of size 0 if the request method is GET or DELETE.
+     * @param contentEncoding The content encoding of the body, or IDENTITY to
+     * send the body as is.
+     *
+     * @throws IOException This exception thrown if an IOException occurs
+     * in setting up the HTTPS connection.
+     * @throws IllegalArgumentException This exception thrown if the endpoint
+     * given does not use the HTTPS protocol, or the content encoding is null.
+     */
+    public HttpRequest(URL url, HttpMethod method, byte[] body, HttpContentEncoding contentEncoding) throws IOException
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_HTTPREQUEST_21_003: [If the content encoding is null, the function shall throw
+        // IllegalArgumentException.]
+        if (contentEncoding == null)
+        {
+            throw new IllegalArgumentException("The content encoding cannot be null.");
+        }
+
         // Codes_SRS_SERVICE_SDK_JAVA_HTTPREQUEST_12_001: [The function shall open a connection with the given URL as the endpoint.]
         // Codes_SRS_SERVICE_SDK_JAVA_HTTPREQUEST_12_003: [The function shall use the given HTTPS method (i.e. GET) as the request method.]
         // Codes_SRS_SERVICE_SDK_JAVA_HTTPREQUEST_12_004: [If an IOException occurs in setting up the HTTPS connection, the function shall throw an IOException.]
-        this.connection = new HttpConnection(url, method);
+        // Codes_SRS_SERVICE_SDK_JAVA_HTTPREQUEST_21_001: [The function shall open the connection with the HTTP engine
+        // installed in the HttpEngineProvider.]
+        this.connection = HttpEngineProvider.getEngine().openConnection(url, method);
         this.connection.setRequestHeader("User-Agent", TransportUtils.javaServiceClientIdentifier + TransportUtils.serviceVersion);
+
+        // Codes_SRS_SERVICE_SDK_JAVA_HTTPREQUEST_21_005: [If the content encoding is not IDENTITY, the function shall
+        // set the header field 'accept-encoding' to 'gzip, deflate', and encode a non-empty body with it and set the
+        // header field 'content-encoding' to its name.]
+        if (contentEncoding != HttpContentEncoding.IDENTITY)
+        {
+            this.connection.setRequestHeader("accept-encoding", ACCEPT_ENCODING);
+            if (body.length > 0)
+            {
+                body = contentEncoding.encode(body);
+                this.connection.setRequestHeader("content-encoding", contentEncoding.getName());
+            }
+        }
+
         // Codes_SRS_SERVICE_SDK_JAVA_HTTPREQUEST_12_002: [The function shall write the body to the connection.]
         this.connection.writeOutput(body);
     }
@@ -82,6 +132,13 @@ public class HttpRequest
             errorReason = this.connection.readError();
         }
 
+        // Codes_SRS_SERVICE_SDK_JAVA_HTTPREQUEST_21_006: [If the response has a header field 'content-encoding' of
+        // gzip or deflate, the function shall return the decoded body.]
+        if (responseBody.length > 0)
+        {
+            responseBody = decodeBody(responseBody, headerFields);
+        }
+
         // Codes_SRS_SERVICE_SDK_JAVA_HTTPREQUEST_12_006: [The function shall return the HTTPS response received, including the status code, body, header fields, and error reason (if any).]
         return new HttpResponse(responseStatus, responseBody, headerFields,
                 errorReason);
@@ -118,6 +175,29 @@ public class HttpRequest
         return this;
     }
 
+    private static byte[] decodeBody(byte[] body, Map<String, List<String>> headerFields) throws IOException
+    {
+        if (headerFields != null)
+        {
+            for (Map.Entry<String, List<String>> field : headerFields.entrySet())
+            {
+                if ("content-encoding".equalsIgnoreCase(field.getKey()) && (field.getValue() != null))
+                {
+                    for (String value : field.getValue())
+                    {
+                        HttpContentEncoding encoding = HttpContentEncoding.fromName(value);
+                        if (encoding != null)
+                        {
+                            return encoding.decode(body);
+                        }
+                    }
+                }
+            }
+        }
+
+        return body;
+    }
+
     protected HttpRequest()
     {
         this.connection = null;
@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license. See LICENSE file in the project root for full license information.
+ */
+
+package com.microsoft.azure.sdk.iot.service.transport.http;
+
+import java.io.IOException;
+import java.net.URL;
+
+/**
+ * The default {@link HttpEngine}, running each request on a
+ * HttpsURLConnection. The Java SE keep-alive cache reuses the connections,
+ * one request at a time.
+ */
+public final class HttpUrlConnectionEngine implements HttpEngine
+{
+    /**
+     * Opens an {@link HttpConnection} to the given URL.
+     *
+     * @param url The URL for the request.
+     * @param method The HTTP method (i.e. GET).
+     *
+     * @return The connection for the request.
+     *
+     * @throws IOException This exception is thrown if the connection could not be opened.
+     */
+    @Override
+    public HttpEngineConnection openConnection(URL url, HttpMethod method) throws IOException
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_HTTPURLCONNECTIONENGINE_21_001: [The function shall return a new HttpConnection
+        // to the given URL, using the given method.]
+        return new HttpConnection(url, method);
+    }
+}
@@ -7,6 +7,7 @@ import com.microsoft.azure.sdk.iot.service.devicetwin.DeviceOperations;
 import com.microsoft.azure.sdk.iot.service.IotHubConnectionString;
 import com.microsoft.azure.sdk.iot.service.IotHubConnectionStringBuilder;
 import com.microsoft.azure.sdk.iot.service.auth.IotHubServiceSasToken;
+import com.microsoft.azure.sdk.iot.service.auth.IotHubServiceSasTokenProvider;
 import com.microsoft.azure.sdk.iot.service.exceptions.IotHubBadFormatException;
 import com.microsoft.azure.sdk.iot.service.exceptions.IotHubExceptionManager;
 import com.microsoft.azure.sdk.iot.service.transport.TransportUtils;
@@ -15,11 +16,13 @@ import com.microsoft.azure.sdk.iot.service.transport.http.HttpRequest;
 import com.microsoft.azure.sdk.iot.service.transport.http.HttpResponse;
 import mockit.*;
 import org.junit.Before;
+import org.junit.BeforeClass;
 import org.junit.Test;
 
 import java.io.IOException;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -31,6 +34,13 @@ import static junit.framework.TestCase.assertEquals;
  */
 public class DeviceOperationsTest
 {
+    @BeforeClass
+    public static void loadSecurityProviders() throws Exception
+    {
+        // The SAS token provider digests the keys, and a mocked URL breaks the loading of the security providers.
+        MessageDigest.getInstance("SHA-256");
+    }
+
     private static final String STANDARD_HOSTNAME = "testHostName.azure.net";
     private static final String STANDARD_SHAREDACCESSKEYNAME = "testKeyName";
     private static final String STANDARD_SHAREDACCESSKEY = "1234567890ABCDEFGHIJKLMNOPQRESTUVWXYZ=";
@@ -167,11 +177,12 @@ public class DeviceOperationsTest
         //assert
     }
 
-    /* Tests_SRS_DEVICE_OPERATIONS_21_006: [The request shall create a new SASToken with the ServiceConnect rights.] */
+    /* Tests_SRS_DEVICE_OPERATIONS_21_006: [The request shall get the SASToken with the ServiceConnect rights from the shared token provider.] */
     @Test (expected = IllegalArgumentException.class)
     public void invoke_throwOnCreateIotHubServiceSasToken_failed() throws Exception
     {
         //arrange
+        IotHubServiceSasTokenProvider.invalidateAll();
         new MockUp<IotHubServiceSasToken>()
         {
             @Mock
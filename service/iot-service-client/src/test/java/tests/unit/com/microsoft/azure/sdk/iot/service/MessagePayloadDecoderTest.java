@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license. See LICENSE file in the project root for full license information.
+ */
+
+package tests.unit.com.microsoft.azure.sdk.iot.service;
+
+import com.microsoft.azure.sdk.iot.service.MessagePayloadDecoder;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for MessagePayloadDecoder
+ */
+public class MessagePayloadDecoderTest
+{
+    private static class SensorRecord
+    {
+        String deviceId;
+        long timestamp;
+        double temperature;
+        boolean alarm;
+    }
+
+    // {"deviceId":"s1","timestamp":1500000000000,"temperature":21.5,"alarm":true}, as the device CBOR codec encodes it.
+    private static final byte[] CBOR_RECORD = {
+            (byte) 0xA4,
+            0x68, 'd', 'e', 'v', 'i', 'c', 'e', 'I', 'd', 0x62, 's', '1',
+            0x69, 't', 'i', 'm', 'e', 's', 't', 'a', 'm', 'p', 0x1B, 0x00, 0x00, 0x01, 0x5D, 0x3E, (byte) 0xF7, (byte) 0x98, 0x00,
+            0x6B, 't', 'e', 'm', 'p', 'e', 'r', 'a', 't', 'u', 'r', 'e', (byte) 0xFA, 0x41, (byte) 0xAC, 0x00, 0x00,
+            0x65, 'a', 'l', 'a', 'r', 'm', (byte) 0xF5 };
+
+    // Tests_SRS_SERVICE_SDK_JAVA_MESSAGEPAYLOADDECODER_21_001: [If the payload, the content type or the type is null, the function shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void decode_throws_on_null_content_type() throws IOException
+    {
+        MessagePayloadDecoder.decode(new byte[0], null, null, SensorRecord.class);
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_MESSAGEPAYLOADDECODER_21_002: [If the content type is "application/json", the function shall decode the payload as a JSON document in the content encoding, or in UTF-8 if the content encoding is null.]
+    @Test
+    public void decode_json_payload() throws IOException
+    {
+        // Arrange
+        byte[] payload = "{\"deviceId\":\"s1\",\"temperature\":21.5}".getBytes(StandardCharsets.UTF_16LE);
+        // Act
+        SensorRecord record = MessagePayloadDecoder.decode(payload, "application/json; charset=utf-16le", "utf-16le", SensorRecord.class);
+        // Assert
+        assertEquals("s1", record.deviceId);
+        assertEquals(21.5, record.temperature, 0);
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_MESSAGEPAYLOADDECODER_21_003: [If the content type is "application/cbor", the function shall decode the payload as a single CBOR item.]
+    @Test
+    public void decode_cbor_payload() throws IOException
+    {
+        // Act
+        SensorRecord record = MessagePayloadDecoder.decode(CBOR_RECORD, "application/cbor", null, SensorRecord.class);
+        // Assert
+        assertEquals("s1", record.deviceId);
+        assertEquals(1500000000000L, record.timestamp);
+        assertEquals(21.5, record.temperature, 0);
+        assertTrue(record.alarm);
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_MESSAGEPAYLOADDECODER_21_004: [If the payload is not a valid encoding of the type, the function shall throw IOException.]
+    @Test (expected = IOException.class)
+    public void decode_throws_on_truncated_cbor_payload() throws IOException
+    {
+        MessagePayloadDecoder.decode(new byte[] { (byte) 0xA4, 0x68, 'd' }, "application/cbor", null, SensorRecord.class);
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_MESSAGEPAYLOADDECODER_21_004: [If the payload is not a valid encoding of the type, the function shall throw IOException.]
+    @Test (expected = IOException.class)
+    public void decode_throws_on_invalid_json_payload() throws IOException
+    {
+        MessagePayloadDecoder.decode("[1,".getBytes(StandardCharsets.UTF_8), "application/json", null, SensorRecord.class);
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_MESSAGEPAYLOADDECODER_21_005: [If the content type is not supported, the function shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void decode_throws_on_unsupported_content_type() throws IOException
+    {
+        MessagePayloadDecoder.decode(new byte[0], "text/plain", null, SensorRecord.class);
+    }
+}
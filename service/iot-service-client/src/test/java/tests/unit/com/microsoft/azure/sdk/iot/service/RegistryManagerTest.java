@@ -9,24 +9,35 @@ import com.microsoft.azure.sdk.iot.service.*;
 import com.microsoft.azure.sdk.iot.service.auth.IotHubServiceSasToken;
 import com.microsoft.azure.sdk.iot.service.exceptions.IotHubException;
 import com.microsoft.azure.sdk.iot.service.exceptions.IotHubExceptionManager;
+import com.microsoft.azure.sdk.iot.service.transport.http.HttpContentEncoding;
 import com.microsoft.azure.sdk.iot.service.transport.http.HttpMethod;
 import com.microsoft.azure.sdk.iot.service.transport.http.HttpRequest;
 import com.microsoft.azure.sdk.iot.service.transport.http.HttpResponse;
 import mockit.*;
 import mockit.integration.junit4.JMockit;
+import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import java.io.IOException;
 import java.net.URL;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.concurrent.CompletableFuture;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
 
 @RunWith(JMockit.class)
 public class RegistryManagerTest
 {
+    @BeforeClass
+    public static void loadSecurityProviders() throws Exception
+    {
+        // The SAS token provider digests the keys, and a mocked URL breaks the loading of the security providers.
+        MessageDigest.getInstance("SHA-256");
+    }
+
     @Mocked
     Device device;
     @Mocked
@@ -733,7 +744,7 @@ public class RegistryManagerTest
         {
             {
                 iotHubConnectionString.getUrlDeviceStatistics();
-                new HttpRequest(mockUrl, HttpMethod.GET, new byte[0]);
+                new HttpRequest(mockUrl, HttpMethod.GET, new byte[0], HttpContentEncoding.IDENTITY);
                 mockHttpRequest.setReadTimeoutMillis(anyInt);
                 mockHttpRequest.setHeaderField("authorization", anyString);
                 mockHttpRequest.setHeaderField("Request-Id", "1001");
@@ -765,7 +776,7 @@ public class RegistryManagerTest
         {
             {
                 iotHubConnectionString.getUrlDeviceStatistics();
-                new HttpRequest(mockUrl, HttpMethod.GET, new byte[0]);
+                new HttpRequest(mockUrl, HttpMethod.GET, new byte[0], HttpContentEncoding.IDENTITY);
                 mockHttpRequest.setReadTimeoutMillis(anyInt);
                 mockHttpRequest.setHeaderField("authorization", anyString);
                 mockHttpRequest.setHeaderField("Request-Id", "1001");
@@ -851,7 +862,7 @@ public class RegistryManagerTest
         {
             {
                 iotHubConnectionString.getUrlCreateExportImportJob();
-                new HttpRequest(mockUrl, HttpMethod.POST, (byte[]) any);
+                new HttpRequest(mockUrl, HttpMethod.POST, (byte[]) any, HttpContentEncoding.IDENTITY);
                 mockHttpRequest.setReadTimeoutMillis(anyInt);
                 mockHttpRequest.setHeaderField("authorization", anyString);
                 mockHttpRequest.setHeaderField("Request-Id", "1001");
@@ -865,6 +876,78 @@ public class RegistryManagerTest
         assertNotEquals(null, jobProperties);
     }
 
+    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_001: [The function shall return the content encoding of the
+    // requests, which is IDENTITY by default.]
+    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_003: [The function shall set the content encoding of the
+    // requests created from now on by this registry manager.]
+    @Test
+    public void getAndSetContentEncodingMatch() throws Exception
+    {
+        // Arrange
+        String connectionString = "HostName=aaa.bbb.ccc;SharedAccessKeyName=XXX;SharedAccessKey=YYY";
+        RegistryManager registryManager = RegistryManager.createFromConnectionString(connectionString);
+        RegistryManager otherRegistryManager = RegistryManager.createFromConnectionString(connectionString);
+
+        // Act
+        HttpContentEncoding defaultValue = registryManager.getContentEncoding();
+        registryManager.setContentEncoding(HttpContentEncoding.GZIP);
+
+        // Assert
+        assertEquals(HttpContentEncoding.IDENTITY, defaultValue);
+        assertEquals(HttpContentEncoding.GZIP, registryManager.getContentEncoding());
+        assertEquals(HttpContentEncoding.IDENTITY, otherRegistryManager.getContentEncoding());
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_002: [If the content encoding is null, the function shall
+    // throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setContentEncodingThrowsIfNull() throws Exception
+    {
+        // Arrange
+        String connectionString = "HostName=aaa.bbb.ccc;SharedAccessKeyName=XXX;SharedAccessKey=YYY";
+        RegistryManager registryManager = RegistryManager.createFromConnectionString(connectionString);
+
+        // Act
+        registryManager.setContentEncoding(null);
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_003: [The function shall set the content encoding of the
+    // requests created from now on by this registry manager.]
+    @Test
+    public void exportDevicesCompressesWithTheContentEncodingOfTheRegistryManager() throws Exception
+    {
+        // Arrange
+        String connectionString = "HostName=aaa.bbb.ccc;SharedAccessKeyName=XXX;SharedAccessKey=YYY";
+        new NonStrictExpectations()
+        {
+            {
+                IotHubConnectionStringBuilder.createConnectionString(connectionString);
+                result = iotHubConnectionString;
+                iotHubConnectionString.getUrlCreateExportImportJob();
+                result = mockUrl;
+                mockHttpRequest.send();
+                result = mockHttpResponse;
+                mockIotHubExceptionManager.httpResponseVerification((HttpResponse) any);
+                mockHttpResponse.getBody();
+                result = jobPropertiesJson.getBytes();
+            }
+        };
+        RegistryManager registryManager = RegistryManager.createFromConnectionString(connectionString);
+        registryManager.setContentEncoding(HttpContentEncoding.GZIP);
+
+        // Act
+        registryManager.exportDevices("blob1", true);
+
+        // Assert
+        new Verifications()
+        {
+            {
+                new HttpRequest(mockUrl, HttpMethod.POST, (byte[]) any, HttpContentEncoding.GZIP);
+                times = 1;
+            }
+        };
+    }
+
     // TESTS_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_068: [The function shall create an async wrapper around
     // the exportDevices() function call, handle the return value or delegate exception ]
     @Test (expected = Exception.class)
@@ -940,7 +1023,7 @@ public class RegistryManagerTest
         {
             {
                 iotHubConnectionString.getUrlCreateExportImportJob();
-                new HttpRequest(mockUrl, HttpMethod.POST, (byte[]) any);
+                new HttpRequest(mockUrl, HttpMethod.POST, (byte[]) any, HttpContentEncoding.IDENTITY);
                 mockHttpRequest.setReadTimeoutMillis(anyInt);
                 mockHttpRequest.setHeaderField("authorization", anyString);
                 mockHttpRequest.setHeaderField("Request-Id", "1001");
@@ -1020,7 +1103,7 @@ public class RegistryManagerTest
         {
             {
                 iotHubConnectionString.getUrlImportExportJob(jobId);
-                new HttpRequest(mockUrl, HttpMethod.GET, (byte[]) any);
+                new HttpRequest(mockUrl, HttpMethod.GET, (byte[]) any, HttpContentEncoding.IDENTITY);
                 mockHttpRequest.setReadTimeoutMillis(anyInt);
                 mockHttpRequest.setHeaderField("authorization", anyString);
                 mockHttpRequest.setHeaderField("Request-Id", "1001");
@@ -1080,7 +1163,7 @@ public class RegistryManagerTest
         {
             {
                 iotHubConnectionString.getUrlDevice(requestDeviceId);
-                new HttpRequest(mockUrl, httpMethod, (byte[]) any);
+                new HttpRequest(mockUrl, httpMethod, (byte[]) any, HttpContentEncoding.IDENTITY);
                 mockHttpRequest.setReadTimeoutMillis(anyInt);
                 mockHttpRequest.setHeaderField("authorization", anyString);
                 mockHttpRequest.setHeaderField("Request-Id", "1001");
@@ -1119,7 +1202,7 @@ public class RegistryManagerTest
             {
                 iotHubConnectionString.getUrlDeviceList(numberOfDevices);
                 times = 1;
-                new HttpRequest(mockUrl, HttpMethod.GET, (byte[]) any);
+                new HttpRequest(mockUrl, HttpMethod.GET, (byte[]) any, HttpContentEncoding.IDENTITY);
                 times = 1;
                 mockHttpRequest.setReadTimeoutMillis(anyInt);
                 mockHttpRequest.setHeaderField("authorization", anyString);
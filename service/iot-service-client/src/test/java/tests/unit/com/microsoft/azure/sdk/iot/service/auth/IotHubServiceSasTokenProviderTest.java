@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license. See LICENSE file in the project root for full license information.
+ */
+
+package com.microsoft.azure.sdk.iot.service.auth;
+
+import com.microsoft.azure.sdk.iot.service.IotHubConnectionString;
+import com.microsoft.azure.sdk.iot.service.IotHubConnectionStringBuilder;
+import mockit.Deencapsulation;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+
+/** Unit tests for IotHubServiceSasTokenProvider. */
+public class IotHubServiceSasTokenProviderTest
+{
+    private static final String CONNECTION_STRING =
+            "HostName=HOSTNAME.b.c.d;SharedAccessKeyName=ACCESSKEYNAME;SharedAccessKey=1234567890abcdefghijklmnopqrstvwxyz=";
+    private static final String OTHER_POLICY_CONNECTION_STRING =
+            "HostName=HOSTNAME.b.c.d;SharedAccessKeyName=OTHERKEYNAME;SharedAccessKey=1234567890abcdefghijklmnopqrstvwxyz=";
+
+    private static Object cachedToken()
+    {
+        Map<String, ?> tokens = Deencapsulation.getField(IotHubServiceSasTokenProvider.class, "tokens");
+        return tokens.values().iterator().next();
+    }
+
+    @Before
+    public void setUp()
+    {
+        IotHubServiceSasTokenProvider.invalidateAll();
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_IOTHUBSERVICESASTOKENPROVIDER_21_001: [If the connection string is null, the
+    // function shall throw IllegalArgumentException.]
+    // Assert
+    @Test (expected = IllegalArgumentException.class)
+    public void getSasToken_input_null()
+    {
+        // Act
+        IotHubServiceSasTokenProvider.getSasToken(null);
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_IOTHUBSERVICESASTOKENPROVIDER_21_002: [If there is no token for the IoT Hub
+    // host, policy and key, or it expired, the function shall create a new one on the calling thread and
+    // cache it.]
+    // Tests_SRS_SERVICE_SDK_JAVA_IOTHUBSERVICESASTOKENPROVIDER_21_004: [The function shall return the cached token.]
+    @Test
+    public void getSasToken_shares_token_per_policy() throws Exception
+    {
+        // Arrange
+        IotHubConnectionString connectionString = IotHubConnectionStringBuilder.createConnectionString(CONNECTION_STRING);
+        IotHubConnectionString sameConnectionString = IotHubConnectionStringBuilder.createConnectionString(CONNECTION_STRING);
+        IotHubConnectionString otherPolicy = IotHubConnectionStringBuilder.createConnectionString(OTHER_POLICY_CONNECTION_STRING);
+
+        // Act
+        String token = IotHubServiceSasTokenProvider.getSasToken(connectionString);
+        String sameToken = IotHubServiceSasTokenProvider.getSasToken(sameConnectionString);
+        String otherToken = IotHubServiceSasTokenProvider.getSasToken(otherPolicy);
+
+        // Assert
+        assertThat(token.contains("&skn=ACCESSKEYNAME"), is(true));
+        assertThat(sameToken, is(sameInstance(token)));
+        assertThat(otherToken.contains("&skn=OTHERKEYNAME"), is(true));
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_IOTHUBSERVICESASTOKENPROVIDER_21_002: [If there is no token for the IoT Hub
+    // host, policy and key, or it expired, the function shall create a new one on the calling thread and
+    // cache it.]
+    @Test
+    public void getSasToken_renews_expired_token() throws Exception
+    {
+        // Arrange
+        IotHubConnectionString connectionString = IotHubConnectionStringBuilder.createConnectionString(CONNECTION_STRING);
+        String token = IotHubServiceSasTokenProvider.getSasToken(connectionString);
+        Deencapsulation.setField(cachedToken(), "expiryTime", 0L);
+
+        // Act
+        String renewedToken = IotHubServiceSasTokenProvider.getSasToken(connectionString);
+
+        // Assert
+        assertThat(renewedToken, is(not(sameInstance(token))));
+        assertThat(IotHubServiceSasTokenProvider.getSasToken(connectionString), is(sameInstance(renewedToken)));
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_IOTHUBSERVICESASTOKENPROVIDER_21_003: [If three quarters of the token
+    // validity elapsed, the function shall create a new token on a background thread, and return the
+    // current one until the new one replaces it.]
+    @Test
+    public void getSasToken_refreshes_token_in_background() throws Exception
+    {
+        // Arrange
+        IotHubConnectionString connectionString = IotHubConnectionStringBuilder.createConnectionString(CONNECTION_STRING);
+        String token = IotHubServiceSasTokenProvider.getSasToken(connectionString);
+        Deencapsulation.setField(cachedToken(), "refreshTime", 0L);
+
+        // Act
+        String currentToken = IotHubServiceSasTokenProvider.getSasToken(connectionString);
+        String refreshedToken = currentToken;
+        for (int i = 0; (i < 500) && (refreshedToken == token); i++)
+        {
+            Thread.sleep(10);
+            refreshedToken = IotHubServiceSasTokenProvider.getSasToken(connectionString);
+        }
+
+        // Assert
+        assertThat(currentToken, is(sameInstance(token)));
+        assertThat(refreshedToken, is(not(sameInstance(token))));
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_IOTHUBSERVICESASTOKENPROVIDER_21_005: [The function shall drop all the cached tokens.]
+    @Test
+    public void invalidateAll_signs_new_token() throws Exception
+    {
+        // Arrange
+        IotHubConnectionString connectionString = IotHubConnectionStringBuilder.createConnectionString(CONNECTION_STRING);
+        String token = IotHubServiceSasTokenProvider.getSasToken(connectionString);
+
+        // Act
+        IotHubServiceSasTokenProvider.invalidateAll();
+
+        // Assert
+        assertThat(IotHubServiceSasTokenProvider.getSasToken(connectionString), is(not(sameInstance(token))));
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_IOTHUBSERVICESASTOKENPROVIDER_21_002: [If there is no token for the IoT Hub
+    // host, policy and key, or it expired, the function shall create a new one on the calling thread and
+    // cache it.]
+    @Test
+    public void getSasToken_does_not_cache_the_key() throws Exception
+    {
+        // Arrange
+        IotHubConnectionString connectionString = IotHubConnectionStringBuilder.createConnectionString(CONNECTION_STRING);
+
+        // Act
+        IotHubServiceSasTokenProvider.getSasToken(connectionString);
+
+        // Assert
+        Map<String, ?> tokens = Deencapsulation.getField(IotHubServiceSasTokenProvider.class, "tokens");
+        for (String key : tokens.keySet())
+        {
+            assertFalse(key.contains(connectionString.getSharedAccessKey()));
+            assertFalse(key.contains(connectionString.getHostName()));
+        }
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_IOTHUBSERVICESASTOKENPROVIDER_21_006: [If the cache is full, the function shall
+    // evict the expired tokens, or else the token closest to expiry, keeping the others.]
+    @Test
+    public void getSasToken_evicts_expired_tokens_when_full() throws Exception
+    {
+        // Arrange
+        Map<String, ?> tokens = Deencapsulation.getField(IotHubServiceSasTokenProvider.class, "tokens");
+        int maxCachedTokens = Deencapsulation.getField(IotHubServiceSasTokenProvider.class, "MAX_CACHED_TOKENS");
+        for (int i = 0; i < maxCachedTokens; i++)
+        {
+            IotHubServiceSasTokenProvider.getSasToken(IotHubConnectionStringBuilder.createConnectionString(
+                    CONNECTION_STRING.replace("HOSTNAME", "HOSTNAME" + i)));
+        }
+        Deencapsulation.setField(tokens.values().iterator().next(), "expiryTime", 0L);
+
+        // Act
+        IotHubServiceSasTokenProvider.getSasToken(IotHubConnectionStringBuilder.createConnectionString(CONNECTION_STRING));
+
+        // Assert
+        assertThat(tokens.size(), is(maxCachedTokens));
+        for (Object cachedToken : tokens.values())
+        {
+            assertThat(Deencapsulation.getField(cachedToken, "expiryTime"), is(not((Object) 0L)));
+        }
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_IOTHUBSERVICESASTOKENPROVIDER_21_006: [If the cache is full, the function shall
+    // evict the expired tokens, or else the token closest to expiry, keeping the others.]
+    @Test
+    public void getSasToken_evicts_token_closest_to_expiry_when_full() throws Exception
+    {
+        // Arrange
+        Map<String, ?> tokens = Deencapsulation.getField(IotHubServiceSasTokenProvider.class, "tokens");
+        int maxCachedTokens = Deencapsulation.getField(IotHubServiceSasTokenProvider.class, "MAX_CACHED_TOKENS");
+        for (int i = 0; i < maxCachedTokens; i++)
+        {
+            IotHubServiceSasTokenProvider.getSasToken(IotHubConnectionStringBuilder.createConnectionString(
+                    CONNECTION_STRING.replace("HOSTNAME", "HOSTNAME" + i)));
+        }
+        Object closestToExpiry = tokens.values().iterator().next();
+        long expiryTime = Deencapsulation.getField(closestToExpiry, "expiryTime");
+        Deencapsulation.setField(closestToExpiry, "expiryTime", expiryTime - 60);
+
+        // Act
+        IotHubServiceSasTokenProvider.getSasToken(IotHubConnectionStringBuilder.createConnectionString(CONNECTION_STRING));
+
+        // Assert
+        assertThat(tokens.size(), is(maxCachedTokens));
+        assertFalse(tokens.containsValue(closestToExpiry));
+    }
+}
@@ -14,6 +14,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import javax.net.ssl.HttpsURLConnection;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
@@ -388,7 +389,7 @@ public class HttpConnectionTest
 
     // Tests_SRS_SERVICE_SDK_JAVA_HTTPSCONNECTION_12_014: [The function shall read from the input stream (response stream) and return the response.]
     @Test
-    public void readInputCompletelyReadsInputStream(@Mocked final InputStream mockIs) throws IOException
+    public void readInputCompletelyReadsInputStream() throws IOException
     {
         // Arrange
         final HttpMethod httpsMethod = HttpMethod.GET;
@@ -403,9 +404,7 @@ public class HttpConnectionTest
                 mockUrlConn.getRequestMethod();
                 result = httpsMethod.name();
                 mockUrlConn.getInputStream();
-                result = mockIs;
-                mockIs.read();
-                returns(1, 2, 3, -1);
+                result = new ByteArrayInputStream(new byte[] { 1, 2, 3 });
             }
         };
         HttpConnection conn = new HttpConnection(mockUrl, httpsMethod);
@@ -459,7 +458,7 @@ public class HttpConnectionTest
                 result = httpsMethod.name();
                 mockUrlConn.getInputStream();
                 result = mockIs;
-                mockIs.read();
+                mockIs.read((byte[]) any, anyInt, anyInt);
                 result = -1;
             }
         };
@@ -476,9 +475,235 @@ public class HttpConnectionTest
         };
     }
 
+    // Tests_SRS_SERVICE_SDK_JAVA_HTTPCONNECTION_21_024: [The function shall read the response in bulk into a buffer sized from the response Content-Length, if present,
+    // up to 64 KiB.]
+    // Tests_SRS_SERVICE_SDK_JAVA_HTTPCONNECTION_21_026: [The function shall return exactly the bytes read from the stream.]
+    @Test
+    public void readInputReadsTheResponseSizedFromContentLength()
+            throws IOException
+    {
+        // Arrange
+        final HttpMethod httpsMethod = HttpMethod.GET;
+        new NonStrictExpectations()
+        {
+            {
+                mockUrl.getProtocol();
+                result = "https";
+                mockUrl.openConnection();
+                result = mockUrlConn;
+                mockUrlConn.getRequestMethod();
+                result = httpsMethod.name();
+                mockUrlConn.getContentLength();
+                result = 3;
+                result = 2;
+                result = 5;
+                mockUrlConn.getInputStream();
+                result = new ByteArrayInputStream(new byte[] { 1, 2, 3 });
+                result = new ByteArrayInputStream(new byte[] { 1, 2, 3 });
+                result = new ByteArrayInputStream(new byte[] { 1, 2, 3 });
+            }
+        };
+        HttpConnection conn = new HttpConnection(mockUrl, httpsMethod);
+        conn.connect();
+        // Act
+        byte[] exactResponse = conn.readInput();
+        byte[] longerResponse = conn.readInput();
+        byte[] shorterResponse = conn.readInput();
+        // Assert
+        byte[] expectedResponse = { 1, 2, 3 };
+        assertThat(exactResponse, is(expectedResponse));
+        assertThat(longerResponse, is(expectedResponse));
+        assertThat(shorterResponse, is(expectedResponse));
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_HTTPCONNECTION_21_024: [The function shall read the response in bulk into a buffer sized from the response Content-Length, if present,
+    // up to 64 KiB.]
+    // Tests_SRS_SERVICE_SDK_JAVA_HTTPCONNECTION_21_026: [The function shall return exactly the bytes read from the stream.]
+    @Test
+    public void readInputDoesNotAllocateAContentLengthMuchLargerThanTheResponse()
+            throws IOException
+    {
+        // Arrange
+        final HttpMethod httpsMethod = HttpMethod.GET;
+        final byte[] expectedResponse = new byte[100000];
+        for (int i = 0; i < expectedResponse.length; i++)
+        {
+            expectedResponse[i] = (byte) i;
+        }
+        new NonStrictExpectations()
+        {
+            {
+                mockUrl.getProtocol();
+                result = "https";
+                mockUrl.openConnection();
+                result = mockUrlConn;
+                mockUrlConn.getRequestMethod();
+                result = httpsMethod.name();
+                mockUrlConn.getContentLength();
+                result = Integer.MAX_VALUE;
+                mockUrlConn.getInputStream();
+                result = new ByteArrayInputStream(expectedResponse);
+            }
+        };
+        HttpConnection conn = new HttpConnection(mockUrl, httpsMethod);
+        conn.connect();
+        // Act
+        byte[] testResponse = conn.readInput();
+        // Assert
+        assertThat(testResponse, is(expectedResponse));
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_HTTPCONNECTION_21_025: [If the Content-Length is not present, the function shall read the response into a buffer that grows as needed.]
+    @Test
+    public void readInputReadsLargeResponseWithoutContentLength()
+            throws IOException
+    {
+        // Arrange
+        final HttpMethod httpsMethod = HttpMethod.GET;
+        final byte[] expectedResponse = new byte[10000];
+        for (int i = 0; i < expectedResponse.length; i++)
+        {
+            expectedResponse[i] = (byte) i;
+        }
+        new NonStrictExpectations()
+        {
+            {
+                mockUrl.getProtocol();
+                result = "https";
+                mockUrl.openConnection();
+                result = mockUrlConn;
+                mockUrlConn.getRequestMethod();
+                result = httpsMethod.name();
+                mockUrlConn.getContentLength();
+                result = -1;
+                mockUrlConn.getInputStream();
+                result = new ByteArrayInputStream(expectedResponse);
+            }
+        };
+        HttpConnection conn = new HttpConnection(mockUrl, httpsMethod);
+        conn.connect();
+        // Act
+        byte[] testResponse = conn.readInput();
+        // Assert
+        assertThat(testResponse, is(expectedResponse));
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_HTTPCONNECTION_21_027: [The function shall return the input stream (response stream) without reading it.]
+    @Test
+    public void getInputStreamReturnsTheResponseStream(
+            @Mocked final InputStream mockIs)
+            throws IOException
+    {
+        // Arrange
+        final HttpMethod httpsMethod = HttpMethod.GET;
+        new NonStrictExpectations()
+        {
+            {
+                mockUrl.getProtocol();
+                result = "https";
+                mockUrl.openConnection();
+                result = mockUrlConn;
+                mockUrlConn.getRequestMethod();
+                result = httpsMethod.name();
+                mockUrlConn.getInputStream();
+                result = mockIs;
+            }
+        };
+        HttpConnection conn = new HttpConnection(mockUrl, httpsMethod);
+        conn.connect();
+        // Act
+        InputStream testStream = conn.getInputStream();
+        // Assert
+        assertThat(testStream, is(mockIs));
+        new Verifications()
+        {
+            {
+                mockIs.read();
+                times = 0;
+                mockIs.read((byte[]) any, anyInt, anyInt);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_HTTPCONNECTION_21_028: [The function shall throw an IOException if the input stream could not be accessed.]
+    // Assert
+    @Test(expected = IOException.class)
+    public void getInputStreamFailsIfCannotAccessInputStream()
+            throws IOException
+    {
+        // Arrange
+        final HttpMethod httpsMethod = HttpMethod.GET;
+        new NonStrictExpectations()
+        {
+            {
+                mockUrl.getProtocol();
+                result = "https";
+                mockUrl.openConnection();
+                result = mockUrlConn;
+                mockUrlConn.getRequestMethod();
+                result = httpsMethod.name();
+                mockUrlConn.getInputStream();
+                result = new IOException();
+            }
+        };
+        HttpConnection conn = new HttpConnection(mockUrl, httpsMethod);
+        conn.connect();
+        // Act
+        conn.getInputStream();
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_HTTPCONNECTION_21_029: [The function shall return the URL of the connection.]
+    @Test
+    public void getUrlReturnsTheUrl() throws IOException
+    {
+        // Arrange
+        final HttpMethod httpsMethod = HttpMethod.GET;
+        new NonStrictExpectations()
+        {
+            {
+                mockUrl.getProtocol();
+                result = "https";
+                mockUrl.openConnection();
+                result = mockUrlConn;
+                mockUrlConn.getURL();
+                result = mockUrl;
+            }
+        };
+        HttpConnection conn = new HttpConnection(mockUrl, httpsMethod);
+        // Act
+        URL testUrl = conn.getUrl();
+        // Assert
+        assertThat(testUrl, is(mockUrl));
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_HTTPCONNECTION_21_030: [The function shall return the request method of the connection.]
+    @Test
+    public void getRequestMethodReturnsTheMethod() throws IOException
+    {
+        // Arrange
+        final HttpMethod httpsMethod = HttpMethod.PUT;
+        new NonStrictExpectations()
+        {
+            {
+                mockUrl.getProtocol();
+                result = "https";
+                mockUrl.openConnection();
+                result = mockUrlConn;
+                mockUrlConn.getRequestMethod();
+                result = httpsMethod.name();
+            }
+        };
+        HttpConnection conn = new HttpConnection(mockUrl, httpsMethod);
+        // Act
+        HttpMethod testMethod = conn.getRequestMethod();
+        // Assert
+        assertThat(testMethod, is(HttpMethod.PUT));
+    }
+
     // Tests_SRS_SERVICE_SDK_JAVA_HTTPSCONNECTION_12_017: [The function shall read from the error stream and return the response.]
     @Test
-    public void readErrorCompletelyReadsErrorStream(@Mocked final InputStream mockIs) throws IOException
+    public void readErrorCompletelyReadsErrorStream() throws IOException
     {
         // Arrange
         final HttpMethod httpsMethod = HttpMethod.GET;
@@ -493,9 +718,7 @@ public class HttpConnectionTest
                 mockUrlConn.getRequestMethod();
                 result = httpsMethod.name();
                 mockUrlConn.getErrorStream();
-                result = mockIs;
-                mockIs.read();
-                returns(1, 2, 3, -1);
+                result = new ByteArrayInputStream(new byte[] { 1, 2, 3 });
             }
         };
         HttpConnection conn = new HttpConnection(mockUrl, httpsMethod);
@@ -577,7 +800,7 @@ public class HttpConnectionTest
                 result = httpsMethod.name();
                 mockUrlConn.getErrorStream();
                 result = mockIs;
-                mockIs.read();
+                mockIs.read((byte[]) any, anyInt, anyInt);
                 result = -1;
             }
         };
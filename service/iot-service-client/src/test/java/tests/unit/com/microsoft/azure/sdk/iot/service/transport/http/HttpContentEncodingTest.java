@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license. See LICENSE file in the project root for full license information.
+ */
+
+package tests.unit.com.microsoft.azure.sdk.iot.service.transport.http;
+
+import com.microsoft.azure.sdk.iot.service.transport.http.HttpContentEncoding;
+import mockit.integration.junit4.JMockit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/** Unit tests for HttpContentEncoding. */
+@RunWith(JMockit.class)
+public class HttpContentEncodingTest
+{
+    private static byte[] jsonDeviceList(int devices)
+    {
+        StringBuilder list = new StringBuilder("[");
+        for (int i = 0; i < devices; i++)
+        {
+            if (i > 0)
+            {
+                list.append(',');
+            }
+            list.append("{\"deviceId\":\"device-").append(i)
+                    .append("\",\"generationId\":\"63600").append(1000 + i)
+                    .append("\",\"etag\":\"MA==\",\"connectionState\":\"Disconnected\",\"status\":\"enabled\",")
+                    .append("\"authentication\":{\"symmetricKey\":{\"primaryKey\":null,\"secondaryKey\":null}}}");
+        }
+        return list.append(']').toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readAll(InputStream input) throws IOException
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[256];
+        int read;
+        while ((read = input.read(buffer)) != -1)
+        {
+            output.write(buffer, 0, read);
+        }
+        return output.toByteArray();
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_HTTPCONTENTENCODING_21_001: [The function shall return the content-encoding name of the encoding.]
+    // Tests_SRS_SERVICE_SDK_JAVA_HTTPCONTENTENCODING_21_002: [The function shall return the encoding with the
+    // given name, ignoring the case and the surrounding spaces.]
+    @Test
+    public void fromNameReturnsEncodingWithName()
+    {
+        // Act
+        HttpContentEncoding encoding = HttpContentEncoding.fromName(" GZip ");
+
+        // Assert
+        assertThat(encoding, is(HttpContentEncoding.GZIP));
+        assertThat(encoding.getName(), is("gzip"));
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_HTTPCONTENTENCODING_21_003: [If the name is null or unknown, the function shall
+    // return null.]
+    @Test
+    public void fromNameReturnsNullIfUnknown()
+    {
+        // Act
+        HttpContentEncoding encoding = HttpContentEncoding.fromName("br");
+
+        // Assert
+        assertThat(encoding, is(nullValue()));
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_HTTPCONTENTENCODING_21_004: [The identity encoding shall return the same body.]
+    // Tests_SRS_SERVICE_SDK_JAVA_HTTPCONTENTENCODING_21_007: [The identity encoding shall return the same body.]
+    @Test
+    public void identityKeepsBody() throws IOException
+    {
+        // Arrange
+        final byte[] body = { 1, 2, 3 };
+
+        // Act
+        byte[] encodedBody = HttpContentEncoding.IDENTITY.encode(body);
+
+        // Assert
+        assertThat(encodedBody, is(sameInstance(body)));
+        assertThat(HttpContentEncoding.IDENTITY.decode(encodedBody), is(sameInstance(body)));
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_HTTPCONTENTENCODING_21_005: [The gzip encoding shall compress the body in
+    // the gzip format.]
+    // Tests_SRS_SERVICE_SDK_JAVA_HTTPCONTENTENCODING_21_006: [The deflate encoding shall compress the body in
+    // the zlib format.]
+    @Test
+    public void encodeCompressesInStandardFormats() throws IOException
+    {
+        // Arrange
+        final byte[] body = jsonDeviceList(200);
+
+        // Act
+        byte[] gzipBody = HttpContentEncoding.GZIP.encode(body);
+        byte[] deflateBody = HttpContentEncoding.DEFLATE.encode(body);
+
+        // Assert
+        assertThat(readAll(new GZIPInputStream(new ByteArrayInputStream(gzipBody))), is(body));
+        assertThat(readAll(new InflaterInputStream(new ByteArrayInputStream(deflateBody))), is(body));
+        assertTrue(gzipBody.length * 4 < body.length);
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_HTTPCONTENTENCODING_21_008: [The gzip and deflate encodings shall decompress
+    // the body, and throw IOException if it is not correctly encoded.]
+    @Test
+    public void decodeReturnsEncodedBody() throws IOException
+    {
+        // Arrange
+        final byte[] body = jsonDeviceList(10);
+
+        // Act
+        byte[] gzipBody = HttpContentEncoding.GZIP.decode(HttpContentEncoding.GZIP.encode(body));
+        byte[] deflateBody = HttpContentEncoding.DEFLATE.decode(HttpContentEncoding.DEFLATE.encode(body));
+
+        // Assert
+        assertThat(gzipBody, is(body));
+        assertThat(deflateBody, is(body));
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_HTTPCONTENTENCODING_21_008: [The gzip and deflate encodings shall decompress
+    // the body, and throw IOException if it is not correctly encoded.]
+    @Test (expected = IOException.class)
+    public void decodeThrowsIfNotEncoded() throws IOException
+    {
+        // Act
+        HttpContentEncoding.DEFLATE.decode(jsonDeviceList(1));
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_HTTPCONTENTENCODING_21_009: [If the body decodes to more than the maximum
+    // decoded size, the gzip and deflate encodings shall throw IOException.]
+    @Test
+    public void decodeStopsAtTheMaximumDecodedSize() throws IOException
+    {
+        // Arrange
+        final int maxDecodedSize = 64 * 1024;
+        byte[] exactBody = HttpContentEncoding.DEFLATE.encode(new byte[maxDecodedSize]);
+        byte[] gzipBomb = HttpContentEncoding.GZIP.encode(new byte[maxDecodedSize + 1]);
+        byte[] deflateBomb = HttpContentEncoding.DEFLATE.encode(new byte[maxDecodedSize + 1]);
+        int failures = 0;
+
+        // Act
+        byte[] decodedExactBody = HttpContentEncoding.DEFLATE.decode(exactBody, maxDecodedSize);
+        try
+        {
+            HttpContentEncoding.GZIP.decode(gzipBomb, maxDecodedSize);
+        }
+        catch (IOException e)
+        {
+            failures++;
+        }
+        try
+        {
+            HttpContentEncoding.DEFLATE.decode(deflateBomb, maxDecodedSize);
+        }
+        catch (IOException e)
+        {
+            failures++;
+        }
+
+        // Assert
+        assertThat(decodedExactBody.length, is(maxDecodedSize));
+        assertThat(failures, is(2));
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_HTTPCONTENTENCODING_21_009: [If the body decodes to more than the maximum
+    // decoded size, the gzip and deflate encodings shall throw IOException.]
+    @Test (expected = IOException.class)
+    public void decodeThrowsIfLargerThanTheDefaultMaximum() throws IOException
+    {
+        // Arrange
+        byte[] bomb = HttpContentEncoding.GZIP.encode(new byte[HttpContentEncoding.MAX_DECODED_SIZE + 1]);
+
+        // Act
+        HttpContentEncoding.GZIP.decode(bomb);
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_HTTPCONTENTENCODING_21_010: [If the maximum decoded size is not positive, the
+    // function shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void decodeThrowsIfMaximumDecodedSizeIsNotPositive() throws IOException
+    {
+        // Act
+        HttpContentEncoding.GZIP.decode(new byte[0], -1);
+    }
+}
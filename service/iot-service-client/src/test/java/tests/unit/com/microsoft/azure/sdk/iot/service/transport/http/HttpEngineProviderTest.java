@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license. See LICENSE file in the project root for full license information.
+ */
+
+package tests.unit.com.microsoft.azure.sdk.iot.service.transport.http;
+
+import com.microsoft.azure.sdk.iot.service.transport.http.*;
+import mockit.Deencapsulation;
+import mockit.Mocked;
+import mockit.Verifications;
+import mockit.integration.junit4.JMockit;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.net.URL;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+
+/** Unit tests for HttpEngineProvider and HttpUrlConnectionEngine. */
+@RunWith(JMockit.class)
+public class HttpEngineProviderTest
+{
+    @After
+    public void restoreDefaultEngine()
+    {
+        HttpEngineProvider.setEngine(null);
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_HTTPENGINEPROVIDER_21_001: [If no engine was installed, the function
+    // shall install the first engine registered with the ServiceLoader, or the HttpUrlConnectionEngine
+    // if there is none.]
+    // Tests_SRS_SERVICE_SDK_JAVA_HTTPENGINEPROVIDER_21_002: [The function shall return the installed engine.]
+    @Test
+    public void getEngineLoadsTheDefaultEngineOnce()
+    {
+        // Arrange
+        Deencapsulation.setField(HttpEngineProvider.class, "engine", null);
+        // Act
+        HttpEngine engine = HttpEngineProvider.getEngine();
+        // Assert
+        assertThat(engine, instanceOf(HttpUrlConnectionEngine.class));
+        assertSame(engine, HttpEngineProvider.getEngine());
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_HTTPENGINEPROVIDER_21_003: [The function shall install the given engine.]
+    @Test
+    public void setEngineInstallsTheEngine(@Mocked final HttpEngine mockEngine)
+    {
+        // Act
+        HttpEngineProvider.setEngine(mockEngine);
+        // Assert
+        assertSame(mockEngine, HttpEngineProvider.getEngine());
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_HTTPENGINEPROVIDER_21_004: [If the engine is null, the function shall
+    // install the HttpUrlConnectionEngine.]
+    @Test
+    public void setEngineRestoresTheDefaultEngine(@Mocked final HttpEngine mockEngine)
+    {
+        // Arrange
+        HttpEngineProvider.setEngine(mockEngine);
+        // Act
+        HttpEngineProvider.setEngine(null);
+        // Assert
+        assertThat(HttpEngineProvider.getEngine(), instanceOf(HttpUrlConnectionEngine.class));
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_HTTPURLCONNECTIONENGINE_21_001: [The function shall return a new HttpConnection
+    // to the given URL, using the given method.]
+    @Test
+    public void defaultEngineOpensAnHttpConnection(
+            @Mocked final HttpConnection mockConn,
+            @Mocked final URL mockUrl) throws IOException
+    {
+        // Act
+        new HttpUrlConnectionEngine().openConnection(mockUrl, HttpMethod.PUT);
+        // Assert
+        new Verifications()
+        {
+            {
+                new HttpConnection(mockUrl, HttpMethod.PUT);
+                times = 1;
+            }
+        };
+    }
+}
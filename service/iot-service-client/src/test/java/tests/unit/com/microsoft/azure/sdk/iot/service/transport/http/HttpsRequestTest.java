@@ -12,12 +12,15 @@ import mockit.integration.junit4.JMockit;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.URL;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPOutputStream;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
@@ -28,6 +31,104 @@ public class HttpsRequestTest
 {
     @Mocked URL mockUrl;
 
+    // Tests_SRS_SERVICE_SDK_JAVA_HTTPREQUEST_21_002: [The constructor without content encoding shall send the
+    // body as is.]
+    @Test
+    public void constructorWithoutContentEncodingDoesNotEncodeBody(@Mocked final HttpConnection mockConn) throws IOException
+    {
+        // Arrange
+        final HttpMethod httpsMethod = HttpMethod.PUT;
+        final byte[] body = "{\"deviceId\":\"test-device\"}".getBytes("UTF-8");
+        // Act
+        new HttpRequest(mockUrl, httpsMethod, body);
+        // Assert
+        new Verifications()
+        {
+            {
+                mockConn.setRequestHeader("accept-encoding", anyString);
+                times = 0;
+                mockConn.setRequestHeader("content-encoding", anyString);
+                times = 0;
+                mockConn.writeOutput(body);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_HTTPREQUEST_21_003: [If the content encoding is null, the function shall throw
+    // IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsIfContentEncodingIsNull(@Mocked final HttpConnection mockConn) throws IOException
+    {
+        // Act
+        new HttpRequest(mockUrl, HttpMethod.PUT, new byte[0], null);
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_HTTPREQUEST_21_005: [If the content encoding is not IDENTITY, the function shall
+    // set the header field 'accept-encoding' to 'gzip, deflate', and encode a non-empty body with it and set the
+    // header field 'content-encoding' to its name.]
+    @Test
+    public void constructorEncodesBody(@Mocked final HttpConnection mockConn) throws IOException
+    {
+        // Arrange
+        final HttpMethod httpsMethod = HttpMethod.PUT;
+        final byte[] body = "{\"deviceId\":\"test-device\"}".getBytes("UTF-8");
+        final byte[] expectedBody = HttpContentEncoding.DEFLATE.encode(body);
+        new NonStrictExpectations()
+        {
+            {
+                mockUrl.getProtocol();
+                result = "http";
+            }
+        };
+        // Act
+        new HttpRequest(mockUrl, httpsMethod, body, HttpContentEncoding.DEFLATE);
+        // Assert
+        new Verifications()
+        {
+            {
+                mockConn.setRequestHeader("accept-encoding", "gzip, deflate");
+                times = 1;
+                mockConn.setRequestHeader("content-encoding", "deflate");
+                times = 1;
+                mockConn.writeOutput(expectedBody);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_HTTPREQUEST_21_005: [If the content encoding is not IDENTITY, the function shall
+    // set the header field 'accept-encoding' to 'gzip, deflate', and encode a non-empty body with it and set the
+    // header field 'content-encoding' to its name.]
+    @Test
+    public void constructorDoesNotEncodeEmptyBody(@Mocked final HttpConnection mockConn) throws IOException
+    {
+        // Arrange
+        final HttpMethod httpsMethod = HttpMethod.GET;
+        final byte[] body = new byte[0];
+        new NonStrictExpectations()
+        {
+            {
+                mockUrl.getProtocol();
+                result = "http";
+            }
+        };
+        // Act
+        new HttpRequest(mockUrl, httpsMethod, body, HttpContentEncoding.GZIP);
+        // Assert
+        new Verifications()
+        {
+            {
+                mockConn.setRequestHeader("accept-encoding", "gzip, deflate");
+                times = 1;
+                mockConn.setRequestHeader("content-encoding", anyString);
+                times = 0;
+                mockConn.writeOutput(body);
+                times = 1;
+            }
+        };
+    }
+
     // Tests_SRS_SERVICE_SDK_JAVA_HTTPSREQUEST_12_001: [The function shall open a connection with the given URL as the endpoint.]
     @Test
     public void constructorOpensConnection(@Mocked final HttpConnection mockConn) throws IOException
@@ -53,6 +154,45 @@ public class HttpsRequestTest
         };
     }
 
+    // Tests_SRS_SERVICE_SDK_JAVA_HTTPREQUEST_21_001: [The function shall open the connection with the HTTP engine
+    // installed in the HttpEngineProvider.]
+    @Test
+    public void constructorOpensConnectionWithTheInstalledEngine(
+            @Mocked final HttpEngine mockEngine,
+            @Mocked final HttpEngineConnection mockConn) throws IOException
+    {
+        // Arrange
+        final HttpMethod httpsMethod = HttpMethod.POST;
+        final byte[] body = { 1, 2, 3 };
+        new NonStrictExpectations()
+        {
+            {
+                mockEngine.openConnection(mockUrl, httpsMethod);
+                result = mockConn;
+            }
+        };
+        HttpEngineProvider.setEngine(mockEngine);
+        // Act
+        try
+        {
+            new HttpRequest(mockUrl, httpsMethod, body);
+        }
+        finally
+        {
+            HttpEngineProvider.setEngine(null);
+        }
+        // Assert
+        new Verifications()
+        {
+            {
+                mockEngine.openConnection(mockUrl, httpsMethod);
+                times = 1;
+                mockConn.writeOutput(body);
+                times = 1;
+            }
+        };
+    }
+
     // Tests_SRS_SERVICE_SDK_JAVA_HTTPSREQUEST_12_002: [The function shall write the body to the connection.]
     @Test
     public void constructorWritesBodyToConnection(@Mocked final HttpConnection mockConn) throws IOException
@@ -427,6 +567,40 @@ public class HttpsRequestTest
         assertThat(testBody, is(expectedBody));
     }
 
+    // Tests_SRS_SERVICE_SDK_JAVA_HTTPREQUEST_21_006: [If the response has a header field 'content-encoding' of
+    // gzip or deflate, the function shall return the decoded body.]
+    @Test
+    public void sendReturnsDecodedBody(@Mocked final HttpConnection mockConn) throws IOException
+    {
+        // Arrange
+        final HttpMethod httpsMethod = HttpMethod.GET;
+        final byte[] requestBody = new byte[0];
+        final byte[] expectedBody = "[{\"deviceId\":\"test-device\"}]".getBytes("UTF-8");
+        ByteArrayOutputStream encodedBody = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(encodedBody);
+        gzip.write(expectedBody);
+        gzip.close();
+        final byte[] responseBody = encodedBody.toByteArray();
+        final Map<String, List<String>> headerFields = new HashMap<>();
+        headerFields.put("Content-Encoding", Collections.singletonList("gzip"));
+        new NonStrictExpectations()
+        {
+            {
+                mockUrl.getProtocol();
+                result = "http";
+                mockConn.getResponseHeaders();
+                result = headerFields;
+                mockConn.readInput();
+                result = responseBody;
+            }
+        };
+        HttpRequest request = new HttpRequest(mockUrl, httpsMethod, requestBody);
+        // Act
+        HttpResponse response = request.send();
+        // Assert
+        assertThat(response.getBody(), is(expectedBody));
+    }
+
     // Tests_SRS_SERVICE_SDK_JAVA_HTTPSREQUEST_12_006: [The function shall return the HTTPS response received, including the status code, body, header fields, and error reason (if any).]
     // Tests_SRS_SERVICE_SDK_JAVA_HTTPSREQUEST_12_008: [If an I/O exception occurs because of a bad response status code, the function shall attempt to flush or read the error stream so that the underlying HTTPS connection can be reused.]
     @Test